@@ -0,0 +1,131 @@
+package org.thoughtcrime.securesms.audio
+
+import android.content.Context
+import android.media.MediaCodec
+import android.media.MediaCodecInfo
+import android.media.MediaFormat
+import android.media.MediaMuxer
+import android.net.Uri
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.nio.ByteOrder
+import java.util.concurrent.TimeUnit
+import kotlin.math.PI
+import kotlin.math.sin
+
+/**
+ * Generates wave forms for an encoded tone that gets louder over time, seeking between the packets that are decoded and stepping
+ * through every packet as the generator used to.
+ */
+@RunWith(AndroidJUnit4::class)
+class AudioWaveFormGeneratorTest {
+
+  companion object {
+    private const val SAMPLE_RATE = 44_100
+    private const val TIMEOUT_US = 10_000L
+  }
+
+  private lateinit var context: Context
+  private lateinit var file: File
+
+  @Before
+  fun setUp() {
+    context = InstrumentationRegistry.getInstrumentation().targetContext
+    file = File.createTempFile("waveform", ".m4a", context.cacheDir)
+    encodeTone(file, durationUs = 10_000_000)
+  }
+
+  @After
+  fun tearDown() {
+    file.delete()
+  }
+
+  @Test
+  fun givenAVoiceNote_whenIGenerateAWaveForm_thenIExpectEveryBarToHaveSamples() {
+    val info = AudioWaveFormGenerator.generateWaveForm(context, Uri.fromFile(file), true)
+
+    assertEquals(AudioWaveFormGenerator.BAR_COUNT, info.waveForm.size)
+    assertEquals(AudioWaveFormGenerator.BAR_COUNT, info.waveForm.count { it > 0f })
+  }
+
+  @Test
+  fun givenAVoiceNote_whenISeekBetweenBarSamples_thenIExpectTheSameWaveFormAsSteppingThroughEveryPacket() {
+    val stepped = AudioWaveFormGenerator.generateWaveForm(context, Uri.fromFile(file), false)
+    val seeked = AudioWaveFormGenerator.generateWaveForm(context, Uri.fromFile(file), true)
+
+    assertEquals(stepped.getDuration(TimeUnit.MICROSECONDS), seeked.getDuration(TimeUnit.MICROSECONDS))
+    assertEquals(stepped.waveForm.count { it > 0f }, seeked.waveForm.count { it > 0f })
+    assertArrayEquals(stepped.waveForm, seeked.waveForm, 0.01f)
+  }
+
+  private fun encodeTone(file: File, durationUs: Long) {
+    val format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, SAMPLE_RATE, 1).apply {
+      setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC)
+      setInteger(MediaFormat.KEY_BIT_RATE, 64_000)
+    }
+
+    val encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC)
+    encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE)
+    encoder.start()
+
+    val muxer = MediaMuxer(file.absolutePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4)
+    val totalSamples = (SAMPLE_RATE * durationUs / 1_000_000).toInt()
+    val info = MediaCodec.BufferInfo()
+    var written = 0
+    var inputDone = false
+    var track = -1
+
+    while (true) {
+      if (!inputDone) {
+        val index = encoder.dequeueInputBuffer(TIMEOUT_US)
+        if (index >= 0) {
+          val buffer = encoder.getInputBuffer(index)!!.order(ByteOrder.nativeOrder())
+          val count = minOf(buffer.remaining() / 2, totalSamples - written)
+
+          for (i in 0 until count) {
+            val n = written + i
+            val amplitude = 0.1 + 0.8 * n / totalSamples
+            buffer.putShort((Short.MAX_VALUE * amplitude * sin(2 * PI * 440 * n / SAMPLE_RATE)).toInt().toShort())
+          }
+
+          val presentationTimeUs = written * 1_000_000L / SAMPLE_RATE
+          written += count
+          inputDone = written >= totalSamples
+          encoder.queueInputBuffer(index, 0, count * 2, presentationTimeUs, if (inputDone) MediaCodec.BUFFER_FLAG_END_OF_STREAM else 0)
+        }
+      }
+
+      val index = encoder.dequeueOutputBuffer(info, TIMEOUT_US)
+      if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+        track = muxer.addTrack(encoder.outputFormat)
+        muxer.start()
+      } else if (index >= 0) {
+        if ((info.flags and MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+          info.size = 0
+        }
+
+        if (info.size > 0) {
+          muxer.writeSampleData(track, encoder.getOutputBuffer(index)!!, info)
+        }
+
+        encoder.releaseOutputBuffer(index, false)
+
+        if ((info.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+          break
+        }
+      }
+    }
+
+    encoder.stop()
+    encoder.release()
+    muxer.stop()
+    muxer.release()
+  }
+}
@@ -0,0 +1,144 @@
+package org.thoughtcrime.securesms.conversationlist
+
+import android.database.Cursor
+import android.database.MatrixCursor
+import android.database.MergeCursor
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.concurrent.SignalExecutors
+import org.thoughtcrime.securesms.conversationlist.model.Conversation
+import org.thoughtcrime.securesms.conversationlist.model.ConversationFilter
+import org.thoughtcrime.securesms.conversationlist.model.ConversationReader
+import org.thoughtcrime.securesms.database.MmsHelper
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
+import org.thoughtcrime.securesms.profiles.ProfileName
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+
+@RunWith(AndroidJUnit4::class)
+class ConversationListSnapshotTest {
+
+  @get:Rule
+  val harness = SignalActivityRule()
+
+  @After
+  fun tearDown() {
+    ConversationListSnapshot.delete()
+  }
+
+  @Test
+  fun givenACapturedList_whenIReadTheSnapshot_thenItMatchesTheList() {
+    harness.others.take(3).forEachIndexed { i, id -> MmsHelper.insert(recipient = Recipient.resolved(id), body = "Message $i") }
+
+    val expected = readConversations(getListCursor())
+    val cursor = getListCursor()
+
+    ConversationListSnapshot.capture(cursor)
+
+    assertTrue(cursor.isBeforeFirst)
+    assertEquals(expected.size, cursor.count)
+
+    awaitWrite()
+    val snapshot = ConversationListSnapshot.read()
+
+    assertNotNull(snapshot)
+    assertEquals(expected.map { it.type }, snapshot!!.map { it.type })
+    assertEquals(expected.map { it.threadRecord.threadId }, snapshot.map { it.threadRecord.threadId })
+    assertEquals(expected.map { it.threadRecord.recipient.id }, snapshot.map { it.threadRecord.recipient.id })
+    assertEquals(expected.map { it.threadRecord.body }, snapshot.map { it.threadRecord.body })
+    assertEquals(expected.map { it.threadRecord.date }, snapshot.map { it.threadRecord.date })
+
+    cursor.close()
+  }
+
+  @Test
+  fun givenARecipientChangedAfterTheSnapshot_whenIReadIt_thenTheRecipientIsCurrent() {
+    val other = harness.others[0]
+    MmsHelper.insert(recipient = Recipient.resolved(other), body = "Hello")
+
+    getListCursor().use { ConversationListSnapshot.capture(it) }
+    awaitWrite()
+
+    SignalDatabase.recipients.setProfileName(other, ProfileName.fromParts("Renamed", "Buddy"))
+    Recipient.live(other).refresh()
+
+    val conversation = ConversationListSnapshot.read()!!.first { it.threadRecord.recipient.id == other }
+
+    assertEquals(ProfileName.fromParts("Renamed", "Buddy"), conversation.threadRecord.recipient.profileName)
+  }
+
+  @Test
+  fun givenAColdRecipientCache_whenIReadTheSnapshot_thenTheRecipientsAreResolved() {
+    val others = harness.others.take(3)
+    others.forEachIndexed { i, id ->
+      SignalDatabase.recipients.setProfileName(id, ProfileName.fromParts("Cold", "Start $i"))
+      MmsHelper.insert(recipient = Recipient.resolved(id), body = "Message $i")
+    }
+
+    getListCursor().use { ConversationListSnapshot.capture(it) }
+    awaitWrite()
+
+    ApplicationDependencies.getRecipientCache().clear()
+
+    val recipients = ConversationListSnapshot.read()!!
+      .filter { it.type == Conversation.Type.THREAD }
+      .map { it.threadRecord.recipient }
+      .associateBy { it.id }
+
+    others.forEachIndexed { i, id ->
+      assertFalse(recipients[id]!!.isResolving)
+      assertEquals(ProfileName.fromParts("Cold", "Start $i"), recipients[id]!!.profileName)
+    }
+  }
+
+  @Test
+  fun givenMoreRowsThanFitOnAScreen_whenICapture_thenOnlyTheFirstRowsAreKept() {
+    val cursor = MatrixCursor(ConversationReader.HEADER_COLUMN)
+    repeat(ConversationListSnapshot.MAX_ROWS + 10) { cursor.addRow(ConversationReader.PINNED_HEADER) }
+
+    ConversationListSnapshot.capture(cursor)
+    awaitWrite()
+
+    assertEquals(ConversationListSnapshot.MAX_ROWS, ConversationListSnapshot.read()!!.size)
+  }
+
+  @Test
+  fun givenASnapshot_whenIDeleteIt_thenThereIsNothingToRead() {
+    MmsHelper.insert(recipient = Recipient.resolved(harness.others[0]), body = "Hello")
+
+    getListCursor().use { ConversationListSnapshot.capture(it) }
+    awaitWrite()
+    assertNotNull(ConversationListSnapshot.read())
+
+    ConversationListSnapshot.delete()
+
+    assertNull(ConversationListSnapshot.read())
+  }
+
+  private fun getListCursor(): Cursor {
+    val header = MatrixCursor(ConversationReader.HEADER_COLUMN).apply { addRow(ConversationReader.UNPINNED_HEADER) }
+    val threads = SignalDatabase.threads.getUnarchivedConversationList(ConversationFilter.OFF, false, 0, 100)
+
+    return MergeCursor(arrayOf(header, threads))
+  }
+
+  private fun readConversations(cursor: Cursor): List<Conversation> {
+    return ConversationReader(cursor).use { reader ->
+      generateSequence { reader.getNext() }.map { Conversation(it) }.toList()
+    }
+  }
+
+  /** Snapshots are written on [SignalExecutors.SERIAL], so anything submitted after a capture runs once it's written. */
+  private fun awaitWrite() {
+    SignalExecutors.SERIAL.submit { }.get()
+  }
+}
@@ -1,14 +1,26 @@
 package org.thoughtcrime.securesms.database
 
+import android.app.Application
 import android.net.Uri
+import androidx.core.content.contentValuesOf
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import androidx.test.filters.FlakyTest
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assert.assertArrayEquals
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
 import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
+import org.signal.core.util.requireInt
+import org.signal.core.util.select
+import org.thoughtcrime.securesms.attachments.AttachmentId
+import org.thoughtcrime.securesms.attachments.AttachmentThumbnails
 import org.thoughtcrime.securesms.attachments.UriAttachment
+import org.thoughtcrime.securesms.database.helpers.migration.V197_AttachmentMediaCategoryMigration
 import org.thoughtcrime.securesms.mms.MediaStream
 import org.thoughtcrime.securesms.mms.SentMediaQuality
 import org.thoughtcrime.securesms.providers.BlobProvider
@@ -90,6 +102,110 @@ class AttachmentTableTest {
     assertNotEquals(attachment1Info, attachment2Info)
   }
 
+  @Test
+  fun givenStoredThumbnails_whenIGetEachSize_thenIExpectWhatWasStored() {
+    val blob = BlobProvider.getInstance().forData(byteArrayOf(1, 2, 3, 4, 5)).createForSingleSessionInMemory()
+    val attachment = SignalDatabase.attachments.insertAttachmentForPreUpload(createAttachment(1, blob, AttachmentTable.TransformProperties.empty()))
+
+    assertNull(SignalDatabase.attachments.getThumbnail(attachment.attachmentId, AttachmentThumbnails.Size.GRID))
+
+    SignalDatabase.attachments.setThumbnails(
+      attachment.attachmentId,
+      mapOf(
+        AttachmentThumbnails.Size.GRID to byteArrayOf(1),
+        AttachmentThumbnails.Size.BUBBLE to byteArrayOf(3, 3, 3)
+      )
+    )
+
+    assertTrue(SignalDatabase.attachments.hasThumbnails(attachment.attachmentId))
+    assertArrayEquals(byteArrayOf(1), SignalDatabase.attachments.getThumbnail(attachment.attachmentId, AttachmentThumbnails.Size.GRID))
+    assertArrayEquals(byteArrayOf(3, 3, 3), SignalDatabase.attachments.getThumbnail(attachment.attachmentId, AttachmentThumbnails.Size.BUBBLE))
+    assertNull(SignalDatabase.attachments.getThumbnail(attachment.attachmentId, AttachmentThumbnails.Size.NOTIFICATION))
+  }
+
+  @Test
+  fun givenAttachmentsSharingData_whenIStoreThumbnailsForOne_thenIExpectBothToHaveThem() {
+    val blob = BlobProvider.getInstance().forData(byteArrayOf(1, 2, 3, 4, 5)).createForSingleSessionInMemory()
+    val attachment = SignalDatabase.attachments.insertAttachmentForPreUpload(createAttachment(1, blob, AttachmentTable.TransformProperties.empty()))
+    val attachment2 = SignalDatabase.attachments.insertAttachmentForPreUpload(createAttachment(1, blob, AttachmentTable.TransformProperties.empty()))
+
+    SignalDatabase.attachments.setThumbnails(attachment.attachmentId, mapOf(AttachmentThumbnails.Size.GRID to byteArrayOf(1)))
+
+    assertArrayEquals(byteArrayOf(1), SignalDatabase.attachments.getThumbnail(attachment2.attachmentId, AttachmentThumbnails.Size.GRID))
+  }
+
+  @Test
+  fun givenStoredThumbnails_whenIUpdateAttachmentData_thenIExpectNoThumbnails() {
+    val blob = BlobProvider.getInstance().forData(byteArrayOf(1, 2, 3, 4, 5)).createForSingleSessionInMemory()
+    val attachment = SignalDatabase.attachments.insertAttachmentForPreUpload(createAttachment(1, blob, AttachmentTable.TransformProperties.empty()))
+
+    SignalDatabase.attachments.setThumbnails(attachment.attachmentId, mapOf(AttachmentThumbnails.Size.GRID to byteArrayOf(1)))
+    SignalDatabase.attachments.updateAttachmentData(attachment, createMediaStream(byteArrayOf(5, 4, 3, 2, 1)), true)
+
+    assertFalse(SignalDatabase.attachments.hasThumbnails(attachment.attachmentId))
+  }
+
+  @Test
+  fun givenContentTypes_whenIGetTheirMediaCategories_thenIExpectEachToMatch() {
+    assertEquals(AttachmentTable.MEDIA_CATEGORY_NONE, AttachmentTable.getMediaCategory(null))
+    assertEquals(AttachmentTable.MEDIA_CATEGORY_IMAGE, AttachmentTable.getMediaCategory(MediaUtil.IMAGE_JPEG))
+    assertEquals(AttachmentTable.MEDIA_CATEGORY_IMAGE, AttachmentTable.getMediaCategory("IMAGE/PNG"))
+    assertEquals(AttachmentTable.MEDIA_CATEGORY_DOCUMENT, AttachmentTable.getMediaCategory("image/svg+xml"))
+    assertEquals(AttachmentTable.MEDIA_CATEGORY_VIDEO, AttachmentTable.getMediaCategory(MediaUtil.VIDEO_MP4))
+    assertEquals(AttachmentTable.MEDIA_CATEGORY_AUDIO, AttachmentTable.getMediaCategory(MediaUtil.AUDIO_AAC))
+    assertEquals(AttachmentTable.MEDIA_CATEGORY_LONG_TEXT, AttachmentTable.getMediaCategory(MediaUtil.LONG_TEXT))
+    assertEquals(AttachmentTable.MEDIA_CATEGORY_DOCUMENT, AttachmentTable.getMediaCategory("application/pdf"))
+  }
+
+  @Test
+  fun givenAnImage_whenIInsertItForPreUpload_thenIExpectItsMediaCategoryToBeStored() {
+    val blob = BlobProvider.getInstance().forData(byteArrayOf(1, 2, 3, 4, 5)).createForSingleSessionInMemory()
+    val attachment = SignalDatabase.attachments.insertAttachmentForPreUpload(createAttachment(1, blob, AttachmentTable.TransformProperties.empty()))
+
+    assertEquals(AttachmentTable.MEDIA_CATEGORY_IMAGE, getStoredMediaCategory(attachment.attachmentId))
+  }
+
+  @Test
+  fun givenAttachmentsWithoutCategories_whenIRunTheMediaCategoryMigration_thenIExpectTheSameCategoriesAsOnInsert() {
+    val contentTypes = listOf(null, MediaUtil.IMAGE_JPEG, "IMAGE/PNG", "image/svg+xml", MediaUtil.VIDEO_MP4, MediaUtil.AUDIO_AAC, MediaUtil.LONG_TEXT, "application/pdf")
+
+    val attachmentIds = contentTypes.mapIndexed { index, contentType ->
+      val rowId = SignalDatabase.rawDatabase.insert(
+        AttachmentTable.TABLE_NAME,
+        null,
+        contentValuesOf(
+          AttachmentTable.CONTENT_TYPE to contentType,
+          AttachmentTable.MEDIA_CATEGORY to AttachmentTable.MEDIA_CATEGORY_NONE,
+          AttachmentTable.UNIQUE_ID to index.toLong()
+        )
+      )
+      AttachmentId(rowId, index.toLong())
+    }
+
+    V197_AttachmentMediaCategoryMigration.migrate(
+      InstrumentationRegistry.getInstrumentation().targetContext.applicationContext as Application,
+      SignalDatabase.rawDatabase,
+      0,
+      1
+    )
+
+    contentTypes.zip(attachmentIds).forEach { (contentType, attachmentId) ->
+      assertEquals("$contentType", AttachmentTable.getMediaCategory(contentType), getStoredMediaCategory(attachmentId))
+    }
+  }
+
+  private fun getStoredMediaCategory(attachmentId: AttachmentId): Int {
+    return SignalDatabase.rawDatabase
+      .select(AttachmentTable.MEDIA_CATEGORY)
+      .from(AttachmentTable.TABLE_NAME)
+      .where("${AttachmentTable.ROW_ID} = ?", attachmentId.rowId)
+      .run()
+      .use { cursor ->
+        cursor.moveToFirst()
+        cursor.requireInt(AttachmentTable.MEDIA_CATEGORY)
+      }
+  }
+
   private fun createAttachment(id: Long, uri: Uri, transformProperties: AttachmentTable.TransformProperties): UriAttachment {
     return UriAttachmentBuilder.build(
       id,
@@ -0,0 +1,132 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.signal.core.util.delete
+import org.signal.core.util.logging.Log
+import org.signal.core.util.readToList
+import org.signal.core.util.requireLong
+import org.signal.core.util.withinTransaction
+import org.thoughtcrime.securesms.database.model.GroupRecord
+import org.thoughtcrime.securesms.groups.GroupId
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+import java.security.SecureRandom
+import android.util.Log as AndroidLog
+
+/**
+ * Compares membership lookups served by [GroupMembershipCache] against the queries they replaced, for a user in 500 groups of 1000 members each.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+class GroupMembershipPerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(GroupMembershipPerformanceTest::class.java)
+
+    private const val GROUP_COUNT = 500
+    private const val CONTAINING_LOOKUPS = 50
+    private const val MEMBER_LOOKUPS = 2_000
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule(othersCount = 999)
+
+  private lateinit var groupTable: GroupTable
+  private lateinit var groupIds: List<GroupId>
+  private lateinit var members: List<RecipientId>
+
+  @Before
+  fun setUp() {
+    groupTable = SignalDatabase.groups
+    groupTable.writableDatabase.delete(GroupTable.TABLE_NAME).run()
+    groupTable.writableDatabase.delete(GroupTable.MembershipTable.TABLE_NAME).run()
+    groupTable.clearMembershipCache()
+
+    members = listOf(harness.self.id) + harness.others
+
+    val random = SecureRandom()
+    groupIds = groupTable.writableDatabase.withinTransaction {
+      (0 until GROUP_COUNT).map {
+        val groupId = GroupId.createMms(random)
+        groupTable.create(groupId, null, members)
+        groupId
+      }
+    }
+  }
+
+  @Test
+  fun groupsContainingMember() {
+    // Warm up, which also populates the cache
+    assertEquals(GROUP_COUNT, groupTable.getGroupsContainingMember(members[1], false).size)
+    assertEquals(GROUP_COUNT, legacyGroupsContainingMember(members[1]).size)
+
+    val cachedDuration = time(CONTAINING_LOOKUPS) { i -> groupTable.getGroupsContainingMember(members[i % members.size], false) }
+    val legacyDuration = time(CONTAINING_LOOKUPS) { i -> legacyGroupsContainingMember(members[i % members.size]) }
+
+    AndroidLog.w(TAG, "getGroupsContainingMember x$CONTAINING_LOOKUPS: cached ${cachedDuration}ms, query ${legacyDuration}ms")
+  }
+
+  @Test
+  fun groupMemberIds() {
+    groupTable.clearMembershipCache()
+    val populateStart = System.currentTimeMillis()
+    assertEquals(members.size, groupTable.getGroupMemberIds(groupIds[0], GroupTable.MemberSet.FULL_MEMBERS_INCLUDING_SELF).size)
+    val populateDuration = System.currentTimeMillis() - populateStart
+
+    val cachedDuration = time(MEMBER_LOOKUPS) { i -> groupTable.getGroupMemberIds(groupIds[i % groupIds.size], GroupTable.MemberSet.FULL_MEMBERS_EXCLUDING_SELF) }
+    val legacyDuration = time(MEMBER_LOOKUPS) { i -> legacyGroupMemberIds(groupIds[i % groupIds.size]) }
+
+    AndroidLog.w(TAG, "Populating the cache with ${GROUP_COUNT * members.size} rows: ${populateDuration}ms")
+    AndroidLog.w(TAG, "getGroupMemberIds x$MEMBER_LOOKUPS: cached ${cachedDuration}ms, query ${legacyDuration}ms")
+  }
+
+  private fun time(iterations: Int, block: (Int) -> Unit): Long {
+    val start = System.currentTimeMillis()
+    for (i in 0 until iterations) {
+      block(i)
+    }
+    return System.currentTimeMillis() - start
+  }
+
+  /**
+   * The query [GroupTable.getGroupsContainingMember] ran before membership was cached.
+   */
+  private fun legacyGroupsContainingMember(recipientId: RecipientId): List<GroupRecord> {
+    //language=sql
+    val query = """
+      SELECT
+        DISTINCT ${GroupTable.TABLE_NAME}.*,
+        (
+          SELECT GROUP_CONCAT(${GroupTable.MembershipTable.TABLE_NAME}.${GroupTable.MembershipTable.RECIPIENT_ID})
+          FROM ${GroupTable.MembershipTable.TABLE_NAME}
+          WHERE ${GroupTable.MembershipTable.TABLE_NAME}.${GroupTable.MembershipTable.GROUP_ID} = ${GroupTable.TABLE_NAME}.${GroupTable.GROUP_ID}
+        ) as ${GroupTable.MEMBER_GROUP_CONCAT}
+      FROM ${GroupTable.MembershipTable.TABLE_NAME}
+      INNER JOIN ${GroupTable.TABLE_NAME} ON ${GroupTable.MembershipTable.TABLE_NAME}.${GroupTable.MembershipTable.GROUP_ID} = ${GroupTable.TABLE_NAME}.${GroupTable.GROUP_ID}
+      LEFT JOIN ${ThreadTable.TABLE_NAME} ON ${GroupTable.TABLE_NAME}.${GroupTable.RECIPIENT_ID} = ${ThreadTable.TABLE_NAME}.${ThreadTable.RECIPIENT_ID}
+      WHERE ${GroupTable.MembershipTable.TABLE_NAME}.${GroupTable.MembershipTable.RECIPIENT_ID} = ? AND ${GroupTable.ACTIVE} = 1
+      ORDER BY ${ThreadTable.TABLE_NAME}.${ThreadTable.DATE} DESC
+    """
+
+    return groupTable.readableDatabase.query(query, arrayOf(recipientId.serialize())).readToList { cursor ->
+      GroupTable.Reader(cursor).getCurrent()!!
+    }
+  }
+
+  private fun legacyGroupMemberIds(groupId: GroupId): List<RecipientId> {
+    return groupTable.readableDatabase
+      .query(
+        GroupTable.MembershipTable.TABLE_NAME,
+        arrayOf(GroupTable.MembershipTable.RECIPIENT_ID),
+        "${GroupTable.MembershipTable.GROUP_ID} = ?",
+        arrayOf(groupId.serialize()),
+        null,
+        null,
+        null
+      )
+      .readToList { RecipientId.from(it.requireLong(GroupTable.MembershipTable.RECIPIENT_ID)) }
+  }
+}
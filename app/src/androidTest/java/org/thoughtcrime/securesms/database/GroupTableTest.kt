@@ -35,6 +35,7 @@ class GroupTableTest {
 
     groupTable.writableDatabase.delete(GroupTable.TABLE_NAME).run()
     groupTable.writableDatabase.delete(GroupTable.MembershipTable.TABLE_NAME).run()
+    groupTable.clearMembershipCache()
   }
 
   @Test
@@ -273,6 +274,75 @@ class GroupTableTest {
     assertEquals(groups[0].id, groupInCommon)
   }
 
+  @Test
+  fun givenACachedGroup_whenIRemoveAMember_thenIExpectLookupsToReflectIt() {
+    val v2Group = insertPushGroup()
+    insertThread(v2Group)
+
+    assertEquals(1, groupTable.getGroupsContainingMember(harness.others[0], false).size)
+
+    groupTable.remove(v2Group, harness.others[0])
+
+    assertEquals(0, groupTable.getGroupsContainingMember(harness.others[0], false).size)
+    assertEquals(listOf(harness.self.id), groupTable.getGroupMemberIds(v2Group, GroupTable.MemberSet.FULL_MEMBERS_INCLUDING_SELF))
+  }
+
+  @Test
+  fun givenACachedGroup_whenAMembershipChangeIsRolledBack_thenIExpectOriginalMembers() {
+    val mmsGroup = insertMmsGroup()
+
+    assertEquals(setOf(harness.self.id, harness.others[0]), groupTable.getGroupMemberIds(mmsGroup, GroupTable.MemberSet.FULL_MEMBERS_INCLUDING_SELF).toSet())
+
+    val db = groupTable.writableDatabase
+    db.beginTransaction()
+    try {
+      groupTable.updateMembers(mmsGroup, listOf(harness.self.id, harness.others[1]))
+      assertEquals(setOf(harness.self.id, harness.others[1]), groupTable.getGroupMemberIds(mmsGroup, GroupTable.MemberSet.FULL_MEMBERS_INCLUDING_SELF).toSet())
+    } finally {
+      db.endTransaction()
+    }
+
+    assertEquals(setOf(harness.self.id, harness.others[0]), groupTable.getGroupMemberIds(mmsGroup, GroupTable.MemberSet.FULL_MEMBERS_INCLUDING_SELF).toSet())
+    assertTrue(groupTable.isMembershipCached(mmsGroup))
+  }
+
+  @Test
+  fun givenACachedGroup_whenAMembershipChangeThrows_thenIExpectTheGroupToBeCachedAgain() {
+    val mmsGroup = insertMmsGroup()
+
+    assertTrue(groupTable.isMembershipCached(mmsGroup))
+
+    val db = groupTable.writableDatabase
+    try {
+      db.withinTransaction {
+        groupTable.updateMembers(mmsGroup, listOf(harness.self.id, harness.others[1]))
+        assertFalse(groupTable.isMembershipCached(mmsGroup))
+        throw IllegalStateException("Roll back")
+      }
+    } catch (e: IllegalStateException) {
+      // Expected
+    }
+
+    assertFalse(db.inTransaction())
+    assertTrue(groupTable.isMembershipCached(mmsGroup))
+    assertEquals(setOf(harness.self.id, harness.others[0]), groupTable.getGroupMemberIds(mmsGroup, GroupTable.MemberSet.FULL_MEMBERS_INCLUDING_SELF).toSet())
+  }
+
+  @Test
+  fun givenACachedGroup_whenIRemapAMember_thenIExpectLookupsToUseNewId() {
+    val v2Group = insertPushGroup()
+    insertThread(v2Group)
+
+    assertEquals(1, groupTable.getGroupsContainingMember(harness.others[0], false).size)
+
+    groupTable.writableDatabase.withinTransaction {
+      groupTable.remapRecipient(harness.others[0], harness.others[1])
+    }
+
+    assertEquals(0, groupTable.getGroupsContainingMember(harness.others[0], false).size)
+    assertEquals(1, groupTable.getGroupsContainingMember(harness.others[1], false).size)
+  }
+
   private fun insertThread(groupId: GroupId): Long {
     val groupRecipient = SignalDatabase.recipients.getByGroupId(groupId).get()
     return SignalDatabase.threads.getOrCreateThreadIdFor(Recipient.resolved(groupRecipient))
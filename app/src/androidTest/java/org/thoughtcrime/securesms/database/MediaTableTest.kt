@@ -0,0 +1,155 @@
+package org.thoughtcrime.securesms.database
+
+import androidx.core.content.contentValuesOf
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.requireLong
+import org.signal.paging.PagedDataSource
+import org.thoughtcrime.securesms.attachments.AttachmentId
+import org.thoughtcrime.securesms.mediapreview.GalleryMediaDataSource
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalDatabaseRule
+import org.thoughtcrime.securesms.util.MediaUtil
+import org.whispersystems.signalservice.api.push.ServiceId
+import java.util.UUID
+
+@RunWith(AndroidJUnit4::class)
+class MediaTableTest {
+
+  @Rule
+  @JvmField
+  val databaseRule = SignalDatabaseRule()
+
+  private val notCanceled = PagedDataSource.CancellationSignal { false }
+
+  private var threadId: Long = 0
+  private var nextUniqueId: Long = 1
+
+  private lateinit var audio: AttachmentId
+
+  @Before
+  fun setUp() {
+    val recipient = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ServiceId.from(UUID.randomUUID())))
+    threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+
+    for (i in 0 until 5) {
+      val messageId = MmsHelper.insert(recipient = recipient, threadId = threadId)
+
+      insertAttachment(messageId, MediaUtil.IMAGE_JPEG, displayOrder = 0, size = 100L * (i % 2))
+      insertAttachment(messageId, MediaUtil.VIDEO_UNSPECIFIED, displayOrder = 1, size = 100L * (i % 3))
+
+      if (i == 2) {
+        audio = insertAttachment(messageId, MediaUtil.AUDIO_UNSPECIFIED, displayOrder = 2, size = 500)
+      }
+    }
+  }
+
+  @Test
+  fun givenGalleryMedia_whenIGetEachPosition_thenIExpectItsIndexInTheGallery() {
+    for (sorting in MediaTable.Sorting.values()) {
+      val gallery = getGallery(sorting)
+
+      assertEquals(10, gallery.size)
+      gallery.forEachIndexed { index, attachmentId ->
+        assertEquals("$sorting", index, SignalDatabase.media.getGalleryMediaPosition(threadId, sorting, attachmentId))
+      }
+    }
+  }
+
+  @Test
+  fun givenAnAttachmentOutsideOfTheGallery_whenIGetItsPosition_thenIExpectNotFound() {
+    assertEquals(-1, SignalDatabase.media.getGalleryMediaPosition(threadId, MediaTable.Sorting.Newest, audio))
+  }
+
+  @Test
+  fun givenGalleryMedia_whenIPageThroughItInOrder_thenIExpectTheWholeGallery() {
+    for (sorting in MediaTable.Sorting.values()) {
+      val gallery = getGallery(sorting)
+      val dataSource = GalleryMediaDataSource(threadId, sorting)
+      val size = dataSource.size()
+
+      val paged = (0 until size step 3).flatMap { start -> dataSource.load(start, minOf(3, size - start), size, notCanceled) }
+
+      assertEquals("$sorting", gallery, paged.map { dataSource.getKey(it) })
+    }
+  }
+
+  @Test
+  fun givenGalleryMedia_whenIPageBackwardsAndJumpAround_thenIExpectEachPageToMatchTheGallery() {
+    for (sorting in MediaTable.Sorting.values()) {
+      val gallery = getGallery(sorting)
+      val dataSource = GalleryMediaDataSource(threadId, sorting)
+      val size = dataSource.size()
+
+      assertEquals("$sorting", gallery.subList(6, 9), load(dataSource, 6, 3, size))
+      assertEquals("$sorting", gallery.subList(3, 6), load(dataSource, 3, 3, size))
+      assertEquals("$sorting", gallery.subList(0, 2), load(dataSource, 0, 2, size))
+      assertEquals("$sorting", gallery.subList(9, 10), load(dataSource, 9, 1, size))
+    }
+  }
+
+  @Test
+  fun givenGalleryMedia_whenIPageAwayFromEverythingLoaded_thenIExpectEachPageToMatchTheGallery() {
+    for (sorting in MediaTable.Sorting.values()) {
+      val gallery = getGallery(sorting)
+      val dataSource = GalleryMediaDataSource(threadId, sorting)
+      val size = dataSource.size()
+
+      assertEquals("$sorting", gallery.subList(4, 6), load(dataSource, 4, 2, size))
+      assertEquals("$sorting", gallery.subList(8, 10), load(dataSource, 8, 2, size))
+      assertEquals("$sorting", gallery.subList(0, 2), load(dataSource, 0, 2, size))
+    }
+  }
+
+  @Test
+  fun givenAnAnchor_whenIPageAroundIt_thenIExpectEachPageToMatchTheGallery() {
+    for (sorting in MediaTable.Sorting.values()) {
+      val gallery = getGallery(sorting)
+      val dataSource = GalleryMediaDataSource(threadId, sorting, gallery[5])
+      val size = dataSource.size()
+
+      assertEquals("$sorting", gallery.subList(3, 8), load(dataSource, 3, 5, size))
+      assertEquals("$sorting", gallery.subList(8, 10), load(dataSource, 8, 2, size))
+      assertEquals("$sorting", gallery.subList(0, 3), load(dataSource, 0, 3, size))
+    }
+  }
+
+  private fun load(dataSource: GalleryMediaDataSource, start: Int, length: Int, size: Int): List<AttachmentId> {
+    return dataSource.load(start, length, size, notCanceled).map { dataSource.getKey(it) }
+  }
+
+  private fun getGallery(sorting: MediaTable.Sorting): List<AttachmentId> {
+    return SignalDatabase.media.getGalleryMediaForThread(threadId, sorting).use { cursor ->
+      val attachmentIds = mutableListOf<AttachmentId>()
+      while (cursor.moveToNext()) {
+        attachmentIds += AttachmentId(cursor.requireLong(AttachmentTable.ROW_ID), cursor.requireLong(AttachmentTable.UNIQUE_ID))
+      }
+      attachmentIds
+    }
+  }
+
+  private fun insertAttachment(messageId: Long, contentType: String, displayOrder: Int, size: Long): AttachmentId {
+    val uniqueId = nextUniqueId++
+    val rowId = SignalDatabase.rawDatabase.insert(
+      AttachmentTable.TABLE_NAME,
+      null,
+      contentValuesOf(
+        AttachmentTable.MMS_ID to messageId,
+        AttachmentTable.CONTENT_TYPE to contentType,
+        AttachmentTable.MEDIA_CATEGORY to AttachmentTable.getMediaCategory(contentType),
+        AttachmentTable.TRANSFER_STATE to AttachmentTable.TRANSFER_PROGRESS_DONE,
+        AttachmentTable.UNIQUE_ID to uniqueId,
+        AttachmentTable.DATA to "/nonexistent/$uniqueId",
+        AttachmentTable.SIZE to size,
+        AttachmentTable.DISPLAY_ORDER to displayOrder,
+        AttachmentTable.QUOTE to 0
+      )
+    )
+
+    return AttachmentId(rowId, uniqueId)
+  }
+}
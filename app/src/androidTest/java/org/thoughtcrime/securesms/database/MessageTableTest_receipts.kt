@@ -0,0 +1,154 @@
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.thoughtcrime.securesms.messages.IncomingMessageObserver
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+import org.whispersystems.signalservice.internal.push.SignalServiceProtos.Envelope
+
+@Suppress("ClassName")
+@RunWith(AndroidJUnit4::class)
+class MessageTableTest_receipts {
+
+  @get:Rule
+  val harness = SignalActivityRule()
+
+  private lateinit var alice: RecipientId
+  private lateinit var bob: RecipientId
+  private lateinit var carol: RecipientId
+
+  @Before
+  fun setUp() {
+    alice = harness.others[0]
+    bob = harness.others[1]
+    carol = harness.others[2]
+  }
+
+  @Test
+  fun givenMessagesToSeveralRecipients_whenIIncrementDeliveryReceiptCounts_thenEachMessageIsCountedOnce() {
+    val aliceFirst = insert(alice, 1000)
+    val aliceSecond = insert(alice, 1001)
+    val bobFirst = insert(bob, 1002)
+    val carolFirst = insert(carol, 1003)
+
+    val missing = SignalDatabase.messages.incrementDeliveryReceiptCounts(
+      mapOf(
+        alice to listOf(1000L, 1001L),
+        bob to listOf(1002L)
+      ),
+      2000
+    )
+
+    assertTrue(missing.isEmpty())
+    assertEquals(1, deliveryReceiptCount(aliceFirst))
+    assertEquals(1, deliveryReceiptCount(aliceSecond))
+    assertEquals(1, deliveryReceiptCount(bobFirst))
+    assertEquals(0, deliveryReceiptCount(carolFirst))
+  }
+
+  @Test
+  fun givenUnknownTimestamps_whenIIncrementDeliveryReceiptCounts_thenTheyAreReturnedByAuthor() {
+    val aliceFirst = insert(alice, 1000)
+    val bobFirst = insert(bob, 1002)
+
+    val missing = SignalDatabase.messages.incrementDeliveryReceiptCounts(
+      mapOf(
+        alice to listOf(1000L, 5000L),
+        bob to listOf(1002L),
+        carol to listOf(6000L, 7000L)
+      ),
+      2000
+    )
+
+    assertEquals(mapOf(alice to setOf(5000L), carol to setOf(6000L, 7000L)), missing)
+    assertEquals(1, deliveryReceiptCount(aliceFirst))
+    assertEquals(1, deliveryReceiptCount(bobFirst))
+  }
+
+  @Test
+  fun givenAReceiptFromTheWrongAuthor_whenIIncrementDeliveryReceiptCounts_thenTheMessageIsNotCounted() {
+    val aliceFirst = insert(alice, 1000)
+
+    val missing = SignalDatabase.messages.incrementDeliveryReceiptCounts(mapOf(bob to listOf(1000L)), 2000)
+
+    assertEquals(mapOf(bob to setOf(1000L)), missing)
+    assertEquals(0, deliveryReceiptCount(aliceFirst))
+  }
+
+  @Test
+  fun givenDuplicateTimestamps_whenIIncrementDeliveryReceiptCounts_thenEachIsCounted() {
+    val aliceFirst = insert(alice, 1000)
+
+    SignalDatabase.messages.incrementDeliveryReceiptCounts(mapOf(alice to listOf(1000L, 1000L)), 2000)
+
+    assertEquals(2, deliveryReceiptCount(aliceFirst))
+  }
+
+  @Test
+  fun givenABatchOfServerReceipts_whenIProcessThem_thenEveryKnownMessageIsDelivered() {
+    val aliceFirst = insert(alice, 1000)
+    val aliceSecond = insert(alice, 1001)
+    val bobFirst = insert(bob, 1002)
+    val carolFirst = insert(carol, 1003)
+
+    IncomingMessageObserver.processReceipts(
+      listOf(
+        receipt(alice, 1000),
+        receipt(bob, 1002),
+        receipt(alice, 1001, sourceDevice = 2),
+        receipt(carol, 9999),
+        receipt(bob, 9998)
+      )
+    )
+
+    assertEquals(1, deliveryReceiptCount(aliceFirst))
+    assertEquals(1, deliveryReceiptCount(aliceSecond))
+    assertEquals(1, deliveryReceiptCount(bobFirst))
+    assertEquals(0, deliveryReceiptCount(carolFirst))
+  }
+
+  @Test
+  fun givenAReceiptWithAnInvalidSource_whenIProcessTheBatch_thenTheOtherReceiptsAreStillApplied() {
+    val aliceFirst = insert(alice, 1000)
+    val bobFirst = insert(bob, 1002)
+
+    IncomingMessageObserver.processReceipts(
+      listOf(
+        receipt(alice, 1000),
+        Envelope.newBuilder()
+          .setType(Envelope.Type.RECEIPT)
+          .setSourceUuid("not-a-uuid")
+          .setSourceDevice(1)
+          .setTimestamp(1002)
+          .build()
+      )
+    )
+
+    assertEquals(1, deliveryReceiptCount(aliceFirst))
+    assertEquals(0, deliveryReceiptCount(bobFirst))
+  }
+
+  private fun insert(recipient: RecipientId, sentTimeMillis: Long): Long {
+    return MmsHelper.insert(recipient = Recipient.resolved(recipient), sentTimeMillis = sentTimeMillis)
+  }
+
+  private fun deliveryReceiptCount(messageId: Long): Int {
+    return SignalDatabase.messages.getMessageRecord(messageId).deliveryReceiptCount
+  }
+
+  private fun receipt(source: RecipientId, timestamp: Long, sourceDevice: Int = 1): Envelope {
+    return Envelope.newBuilder()
+      .setType(Envelope.Type.RECEIPT)
+      .setSourceUuid(Recipient.resolved(source).requireServiceId().toString())
+      .setSourceDevice(sourceDevice)
+      .setTimestamp(timestamp)
+      .build()
+  }
+}
@@ -0,0 +1,78 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.signal.core.util.logging.Log
+import org.signal.core.util.withinTransaction
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+import org.whispersystems.signalservice.api.push.ACI
+import org.whispersystems.signalservice.api.push.PNI
+import java.util.UUID
+import android.util.Log as AndroidLog
+
+/**
+ * Compares [RecipientTable.bulkProcessCdsV2Result] against calling [RecipientTable.getAndPossiblyMerge] for each result, which is what it used to do,
+ * for a contact discovery refresh of 20k numbers.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+class RecipientTableCdsPerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(RecipientTableCdsPerformanceTest::class.java)
+
+    private const val RESULT_COUNT = 20_000
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule()
+
+  @Test
+  fun bulkProcessCdsV2Result() {
+    val legacyResults: Map<String, RecipientTable.CdsV2Result> = newResults("+1555")
+    val bulkResults: Map<String, RecipientTable.CdsV2Result> = newResults("+1556")
+
+    val legacyInsertDuration = time { legacyProcess(legacyResults) }
+    val bulkInsertDuration = time { SignalDatabase.recipients.bulkProcessCdsV2Result(bulkResults) }
+
+    val legacyUnchangedDuration = time { legacyProcess(legacyResults) }
+    val bulkUnchangedDuration = time { SignalDatabase.recipients.bulkProcessCdsV2Result(bulkResults) }
+
+    val legacyNewPniDuration = time { legacyProcess(withNewPnis(legacyResults)) }
+    val bulkNewPniDuration = time { SignalDatabase.recipients.bulkProcessCdsV2Result(withNewPnis(bulkResults)) }
+
+    AndroidLog.w(TAG, "All $RESULT_COUNT new: per result ${legacyInsertDuration}ms, bulk ${bulkInsertDuration}ms")
+    AndroidLog.w(TAG, "All $RESULT_COUNT unchanged: per result ${legacyUnchangedDuration}ms, bulk ${bulkUnchangedDuration}ms")
+    AndroidLog.w(TAG, "A tenth of $RESULT_COUNT with new PNIs: per result ${legacyNewPniDuration}ms, bulk ${bulkNewPniDuration}ms")
+  }
+
+  private fun legacyProcess(results: Map<String, RecipientTable.CdsV2Result>) {
+    SignalDatabase.recipients.writableDatabase.withinTransaction {
+      for ((e164, result) in results) {
+        SignalDatabase.recipients.getAndPossiblyMerge(serviceId = result.aci, pni = result.pni, e164 = e164, pniVerified = false, changeSelf = false)
+      }
+    }
+  }
+
+  private fun newResults(prefix: String): Map<String, RecipientTable.CdsV2Result> {
+    return (0 until RESULT_COUNT).associate { i ->
+      val e164 = String.format("%s%07d", prefix, i)
+      val aci: ACI? = if (i % 2 == 0) ACI.from(UUID.randomUUID()) else null
+
+      e164 to RecipientTable.CdsV2Result(PNI.from(UUID.randomUUID()), aci)
+    }
+  }
+
+  private fun withNewPnis(results: Map<String, RecipientTable.CdsV2Result>): Map<String, RecipientTable.CdsV2Result> {
+    var i = 0
+    return results.mapValues { (_, result) ->
+      if (i++ % 10 == 0) result.copy(pni = PNI.from(UUID.randomUUID())) else result
+    }
+  }
+
+  private fun time(block: () -> Unit): Long {
+    val start = System.currentTimeMillis()
+    block()
+    return System.currentTimeMillis() - start
+  }
+}
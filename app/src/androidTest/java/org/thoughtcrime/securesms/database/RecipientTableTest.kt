@@ -4,6 +4,8 @@ import androidx.test.ext.junit.runners.AndroidJUnit4
 import org.junit.Assert.assertEquals
 import org.junit.Assert.assertFalse
 import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
 import org.junit.Rule
 import org.junit.Test
 import org.junit.runner.RunWith
@@ -202,6 +204,64 @@ class RecipientTableTest {
     assertNotEquals(byAci, byE164)
   }
 
+  @Test
+  fun givenProfileUpdatesForSeveralRecipients_whenIApplyThem_thenEachRecipientGetsOnlyItsOwnFields() {
+    val alice = harness.others[0]
+    val bob = harness.others[1]
+    val carol = harness.others[2]
+
+    val aliceStorageId = SignalDatabase.recipients.getRecord(alice).storageId
+    val bobBefore = SignalDatabase.recipients.getRecord(bob)
+    val carolBefore = SignalDatabase.recipients.getRecord(carol)
+
+    val changed = SignalDatabase.recipients.applyProfileUpdates(
+      listOf(
+        RecipientTable.ProfileUpdate(alice)
+          .setProfileName(ProfileName.fromParts("Alice", "Anderson"))
+          .setAbout("Hello", "👋"),
+        RecipientTable.ProfileUpdate(bob)
+          .setUnidentifiedAccessMode(RecipientTable.UnidentifiedAccessMode.UNRESTRICTED),
+        RecipientTable.ProfileUpdate(carol)
+      )
+    )
+
+    assertEquals(setOf(alice, bob), changed)
+
+    val aliceAfter = SignalDatabase.recipients.getRecord(alice)
+    assertEquals(ProfileName.fromParts("Alice", "Anderson"), aliceAfter.signalProfileName)
+    assertEquals("Hello", aliceAfter.about)
+    assertEquals("👋", aliceAfter.aboutEmoji)
+    assertFalse(aliceStorageId.contentEquals(aliceAfter.storageId))
+
+    val bobAfter = SignalDatabase.recipients.getRecord(bob)
+    assertEquals(RecipientTable.UnidentifiedAccessMode.UNRESTRICTED, bobAfter.unidentifiedAccessMode)
+    assertEquals(bobBefore.signalProfileName, bobAfter.signalProfileName)
+    assertNull(bobAfter.about)
+    assertTrue(bobBefore.storageId.contentEquals(bobAfter.storageId))
+
+    val carolAfter = SignalDatabase.recipients.getRecord(carol)
+    assertEquals(carolBefore.signalProfileName, carolAfter.signalProfileName)
+    assertEquals(carolBefore.unidentifiedAccessMode, carolAfter.unidentifiedAccessMode)
+    assertTrue(carolBefore.storageId.contentEquals(carolAfter.storageId))
+  }
+
+  @Test
+  fun givenProfileUpdatesThatWereAlreadyApplied_whenIApplyThemAgain_thenNothingChanges() {
+    val alice = harness.others[0]
+    val updates = listOf(
+      RecipientTable.ProfileUpdate(alice)
+        .setProfileName(ProfileName.fromParts("Alice", "Anderson"))
+        .setUnidentifiedAccessMode(RecipientTable.UnidentifiedAccessMode.ENABLED)
+    )
+
+    assertEquals(setOf(alice), SignalDatabase.recipients.applyProfileUpdates(updates))
+
+    val storageId = SignalDatabase.recipients.getRecord(alice).storageId
+
+    assertEquals(emptySet<RecipientId>(), SignalDatabase.recipients.applyProfileUpdates(updates))
+    assertTrue(storageId.contentEquals(SignalDatabase.recipients.getRecord(alice).storageId))
+  }
+
   companion object {
     val ACI_A = ACI.from(UUID.fromString("aaaa0000-5a76-47fa-a98a-7e72c948a82e"))
     val PNI_A = PNI.from(UUID.fromString("aaaa1111-c960-4f6c-8385-671ad2ffb999"))
@@ -50,6 +50,9 @@ import java.util.UUID
 @RunWith(AndroidJUnit4::class)
 class RecipientTableTest_getAndPossiblyMerge {
 
+  /** When set, tuples that could have come from CDS are processed with [RecipientTable.bulkProcessCdsV2Result] instead. */
+  private var processThroughCds = false
+
   @Before
   fun setup() {
     SignalStore.account().setE164(E164_SELF)
@@ -622,6 +625,42 @@ class RecipientTableTest_getAndPossiblyMerge {
     }
   }
 
+  @Test
+  fun allSimpleTests_bulkProcessCdsV2Result() {
+    processThroughCds = true
+    allSimpleTests()
+  }
+
+  @Test
+  fun bulkProcessCdsV2Result_laterResultsSeeEarlierChanges() {
+    test("merge and change number, then take the freed number") {
+      given(E164_A, PNI_A, null)
+      given(E164_B, null, ACI_A)
+      given(null, PNI_B, null)
+
+      processCds(
+        E164_A to RecipientTable.CdsV2Result(PNI_A, ACI_A),
+        E164_B to RecipientTable.CdsV2Result(PNI_B, ACI_B)
+      )
+
+      expectDeleted()
+      expect(E164_A, PNI_A, ACI_A)
+      expect(E164_B, PNI_B, ACI_B)
+
+      expectChangeNumberEvent()
+      expectThreadMergeEvent(E164_A)
+    }
+
+    test("insert, then match what was inserted") {
+      processCds(
+        E164_A to RecipientTable.CdsV2Result(PNI_A, null),
+        E164_B to RecipientTable.CdsV2Result(PNI_A, ACI_A)
+      )
+
+      expect(E164_B, PNI_A, ACI_A)
+    }
+  }
+
   /**
    * Somewhat exhaustive test of verifying all the data that gets merged.
    */
@@ -887,11 +926,22 @@ class RecipientTableTest_getAndPossiblyMerge {
     }
 
     fun process(e164: String?, pni: PNI?, aci: ACI?, changeSelf: Boolean = false, pniVerified: Boolean = false): RecipientId {
+      if (processThroughCds && e164 != null && pni != null && !changeSelf && !pniVerified) {
+        return processCds(e164 to RecipientTable.CdsV2Result(pni, aci)).single()
+      }
+
       outputRecipientId = SignalDatabase.recipients.getAndPossiblyMerge(serviceId = aci ?: pni, pni = pni, e164 = e164, pniVerified = pniVerified, changeSelf = changeSelf)
       generatedIds += outputRecipientId
       return outputRecipientId
     }
 
+    fun processCds(vararg results: Pair<String, RecipientTable.CdsV2Result>): Set<RecipientId> {
+      val ids: Set<RecipientId> = SignalDatabase.recipients.bulkProcessCdsV2Result(linkedMapOf(*results))
+      outputRecipientId = ids.first()
+      generatedIds += ids
+      return ids
+    }
+
     fun expect(e164: String?, pni: PNI?, aci: ACI?) {
       expect(generatedIds.elementAt(expectCount++), e164, pni, aci)
     }
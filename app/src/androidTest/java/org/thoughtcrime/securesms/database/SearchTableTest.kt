@@ -0,0 +1,220 @@
+package org.thoughtcrime.securesms.database
+
+import android.database.Cursor
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import org.signal.core.util.readToList
+import org.signal.core.util.requireLong
+import org.signal.core.util.update
+import org.signal.core.util.withinTransaction
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalDatabaseRule
+import org.whispersystems.signalservice.api.push.ServiceId
+import java.util.UUID
+import android.util.Log as AndroidLog
+
+@RunWith(AndroidJUnit4::class)
+class SearchTableTest {
+
+  companion object {
+    private val TAG = Log.tag(SearchTableTest::class.java)
+
+    private const val BENCHMARK_MESSAGES = 5_000
+  }
+
+  @Rule
+  @JvmField
+  val databaseRule = SignalDatabaseRule()
+
+  private lateinit var recipient: Recipient
+  private var threadId: Long = 0
+
+  @Before
+  fun setUp() {
+    recipient = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ServiceId.from(UUID.randomUUID())))
+    threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+  }
+
+  @After
+  fun tearDown() {
+    SignalDatabase.messageSearch.setDeferredIndexingEnabled(false)
+  }
+
+  @Test
+  fun givenDeferredIndexing_whenIInsertMessages_thenTheyAreFoundBeforeAndAfterIndexing() {
+    SignalDatabase.messageSearch.setDeferredIndexingEnabled(true)
+
+    val first = MmsHelper.insert(recipient = recipient, body = "deferred pineapple", threadId = threadId)
+    val second = MmsHelper.insert(recipient = recipient, body = "100% pineapple", threadId = threadId)
+
+    assertEquals(2L, SignalDatabase.messageSearch.getPendingMessageCount())
+    assertEquals(setOf(second, first), search("pineapple"))
+    assertEquals(setOf(second), search("100%"))
+    assertEquals(setOf(second, first), search("pineapple", threadId))
+
+    assertEquals(2, SignalDatabase.messageSearch.indexPendingMessages())
+
+    assertEquals(0L, SignalDatabase.messageSearch.getPendingMessageCount())
+    assertEquals(setOf(second, first), search("pineapple"))
+  }
+
+  @Test
+  fun givenDeferredIndexing_whenIEditAndDeleteMessages_thenSearchResultsAreUpToDate() {
+    val indexed = MmsHelper.insert(recipient = recipient, body = "indexed grapefruit", threadId = threadId)
+
+    SignalDatabase.messageSearch.setDeferredIndexingEnabled(true)
+    val pending = MmsHelper.insert(recipient = recipient, body = "pending grapefruit", threadId = threadId)
+    val deleted = MmsHelper.insert(recipient = recipient, body = "deleted grapefruit", threadId = threadId)
+
+    setBody(indexed, "indexed tangerine")
+    setBody(pending, "pending tangerine")
+    SignalDatabase.messages.deleteMessage(deleted)
+
+    assertEquals(emptySet<Long>(), search("grapefruit"))
+    assertEquals(setOf(pending, indexed), search("tangerine"))
+
+    SignalDatabase.messageSearch.indexPendingMessages()
+
+    assertEquals(emptySet<Long>(), search("grapefruit"))
+    assertEquals(setOf(pending, indexed), search("tangerine"))
+  }
+
+  @Test
+  fun givenQueuedMessages_whenIDisableDeferredIndexing_thenTheyAreIndexed() {
+    SignalDatabase.messageSearch.setDeferredIndexingEnabled(true)
+    val message = MmsHelper.insert(recipient = recipient, body = "queued kiwi", threadId = threadId)
+
+    SignalDatabase.messageSearch.setDeferredIndexingEnabled(false)
+
+    assertEquals(0L, SignalDatabase.messageSearch.getPendingMessageCount())
+    assertEquals(setOf(message), search("kiwi"))
+  }
+
+  @Test
+  fun givenMatchingMessages_whenIQueryPagesByRelevance_thenTheBestMatchesComeFirst() {
+    val oldest = MmsHelper.insert(recipient = recipient, body = "papaya papaya papaya", threadId = threadId)
+    val middle = MmsHelper.insert(recipient = recipient, body = "papaya, and also a lot of other words besides", threadId = threadId)
+    SignalDatabase.messageSearch.setDeferredIndexingEnabled(true)
+    val newest = MmsHelper.insert(recipient = recipient, body = "papaya, and also a lot of other words besides", threadId = threadId)
+    MmsHelper.insert(recipient = recipient, body = "no fruit here", threadId = threadId)
+    listOf(oldest, middle, newest).forEachIndexed { i, id -> setDateReceived(id, 1000L * (i + 1)) }
+
+    val first = searchPage("papaya", SearchTable.Ranking.RELEVANCE, null, 2)
+    val second = searchPage("papaya", SearchTable.Ranking.RELEVANCE, first.last(), 2)
+
+    assertEquals(listOf(oldest, middle), first.map { it.messageId })
+    assertTrue(first[0].rank < first[1].rank)
+    assertEquals(listOf(newest), second.map { it.messageId })
+
+    SignalDatabase.messageSearch.indexPendingMessages()
+
+    assertEquals(listOf(oldest, newest, middle), searchPage("papaya", SearchTable.Ranking.RELEVANCE, null, 3).map { it.messageId })
+  }
+
+  @Test
+  fun givenMatchingMessages_whenIQueryPagesByRecency_thenTheyAreReturnedNewestFirst() {
+    val oldest = MmsHelper.insert(recipient = recipient, body = "papaya papaya papaya", threadId = threadId)
+    SignalDatabase.messageSearch.setDeferredIndexingEnabled(true)
+    val middle = MmsHelper.insert(recipient = recipient, body = "papaya, and also a lot of other words besides", threadId = threadId)
+    val newest = MmsHelper.insert(recipient = recipient, body = "papaya, and also a lot of other words besides", threadId = threadId)
+    MmsHelper.insert(recipient = recipient, body = "no fruit here", threadId = threadId)
+    listOf(oldest, middle, newest).forEachIndexed { i, id -> setDateReceived(id, 1000L * (i + 1)) }
+
+    assertEquals(3, SignalDatabase.messageSearch.getMessageSearchCount("papaya", null, emptySet()))
+
+    val first = searchPage("papaya", SearchTable.Ranking.RECENT, null, 2)
+
+    assertEquals(listOf(newest, middle), first.map { it.messageId })
+    assertEquals(listOf(oldest), searchPage("papaya", SearchTable.Ranking.RECENT, first.last(), 2).map { it.messageId })
+
+    SignalDatabase.messageSearch.indexPendingMessages()
+
+    assertEquals(listOf(newest, middle, oldest), searchPage("papaya", SearchTable.Ranking.RECENT, null, 3).map { it.messageId })
+  }
+
+  @Test
+  fun givenMessagesWithTheSameRank_whenIQueryPages_thenEachIsReturnedOnce() {
+    val messages = (0 until 5).map { MmsHelper.insert(recipient = recipient, body = "mango", threadId = threadId) }
+    messages.forEach { setDateReceived(it, 1000L) }
+
+    for (ranking in SearchTable.Ranking.values()) {
+      val first = searchPage("mango", ranking, null, 2)
+      val second = searchPage("mango", ranking, first.last(), 2)
+      val third = searchPage("mango", ranking, second.last(), 2)
+
+      assertEquals(messages.reversed(), (first + second + third).map { it.messageId })
+    }
+  }
+
+  @Test
+  fun givenMoreMatchesThanTheLimit_whenICount_thenTheCountIsCapped() {
+    for (i in 0..SearchTable.MAX_MESSAGE_RESULTS) {
+      MmsHelper.insert(recipient = recipient, body = "lychee $i", threadId = threadId)
+    }
+
+    assertEquals(SearchTable.MAX_MESSAGE_RESULTS, SignalDatabase.messageSearch.getMessageSearchCount("lychee", null, emptySet()))
+  }
+
+  @Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+  @Test
+  fun benchmark_insertThroughput() {
+    val immediateDuration = timeInserts()
+
+    SignalDatabase.messageSearch.setDeferredIndexingEnabled(true)
+    val deferredDuration = timeInserts()
+
+    val indexStart = System.currentTimeMillis()
+    while (SignalDatabase.messageSearch.indexPendingMessages() > 0) {
+      // Keep going
+    }
+    val indexDuration = System.currentTimeMillis() - indexStart
+
+    AndroidLog.w(TAG, "Inserting $BENCHMARK_MESSAGES messages: immediate indexing ${immediateDuration}ms, deferred indexing ${deferredDuration}ms (+${indexDuration}ms indexing afterwards)")
+  }
+
+  private fun timeInserts(): Long {
+    val start = System.currentTimeMillis()
+    for (i in 0 until BENCHMARK_MESSAGES) {
+      MmsHelper.insert(recipient = recipient, body = "Message number $i, which has a few more words in it than that", threadId = threadId)
+    }
+    return System.currentTimeMillis() - start
+  }
+
+  private fun setBody(messageId: Long, body: String) {
+    SignalDatabase.messages.writableDatabase.withinTransaction { db ->
+      db.update(MessageTable.TABLE_NAME)
+        .values(MessageTable.BODY to body)
+        .where("${MessageTable.ID} = ?", messageId)
+        .run()
+    }
+  }
+
+  private fun setDateReceived(messageId: Long, dateReceived: Long) {
+    SignalDatabase.messages.writableDatabase.withinTransaction { db ->
+      db.update(MessageTable.TABLE_NAME)
+        .values(MessageTable.DATE_RECEIVED to dateReceived)
+        .where("${MessageTable.ID} = ?", messageId)
+        .run()
+    }
+  }
+
+  private fun searchPage(query: String, ranking: SearchTable.Ranking, after: SearchTable.MessagePageKey?, limit: Int): List<SearchTable.MessagePageKey> {
+    val cursor: Cursor? = SignalDatabase.messageSearch.queryMessagesPage(query, null, emptySet(), ranking, after, limit)
+    return cursor?.use {
+      it.readToList { row -> SearchTable.MessagePageKey(row.getDouble(row.getColumnIndexOrThrow(SearchTable.RANK)), row.requireLong(SearchTable.MESSAGE_ID)) }
+    } ?: emptyList()
+  }
+
+  private fun search(query: String, threadId: Long? = null): Set<Long> {
+    val cursor: Cursor? = SignalDatabase.messageSearch.queryMessages(query, threadId)
+    return cursor?.readToList { it.requireLong(SearchTable.MESSAGE_ID) }?.toSet() ?: emptySet()
+  }
+}
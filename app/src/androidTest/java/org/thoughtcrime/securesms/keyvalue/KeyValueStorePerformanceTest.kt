@@ -0,0 +1,123 @@
+package org.thoughtcrime.securesms.keyvalue
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+import android.util.Log as AndroidLog
+
+/**
+ * Compares multi-threaded read throughput of [KeyValueStore] against a store that guards every read with a single
+ * monitor, which is how reads used to be served. A background writer keeps the store busy to mimic real usage.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+@RunWith(AndroidJUnit4::class)
+class KeyValueStorePerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(KeyValueStorePerformanceTest::class.java)
+
+    private const val KEY_COUNT = 500
+    private const val READER_THREADS = 8
+    private const val READS_PER_THREAD = 200_000
+  }
+
+  @Test
+  fun multiThreadedReads() {
+    val persisted = buildDataSet()
+    val store = KeyValueStore(MockKeyValuePersistentStorage.withDataSet(persisted))
+    val baseline = SynchronizedReader(buildDataSet())
+
+    // Warm up
+    runReads(store)
+    runReads(baseline)
+
+    val snapshotDuration = runReads(store)
+    val synchronizedDuration = runReads(baseline)
+
+    // Batched writes must still land in storage
+    store.blockUntilAllWritesFinished()
+    for (i in 0 until KEY_COUNT) {
+      assertEquals(store.getLong("long_$i", -1), persisted.getLong("long_$i", -2))
+    }
+
+    val totalReads = READER_THREADS.toLong() * READS_PER_THREAD
+    AndroidLog.w(TAG, "Snapshot reads: ${snapshotDuration}ms (${totalReads * 1000 / snapshotDuration.coerceAtLeast(1)} reads/s)")
+    AndroidLog.w(TAG, "Synchronized reads: ${synchronizedDuration}ms (${totalReads * 1000 / synchronizedDuration.coerceAtLeast(1)} reads/s)")
+  }
+
+  private fun runReads(reader: KeyValueReader): Long {
+    val start = CountDownLatch(1)
+    val done = CountDownLatch(READER_THREADS)
+    val writing = AtomicBoolean(true)
+
+    val writer = Thread {
+      var i = 0
+      while (writing.get()) {
+        when (reader) {
+          is KeyValueStore -> reader.beginWrite().putLong("long_${i % KEY_COUNT}", i.toLong()).apply()
+          is SynchronizedReader -> reader.putLong("long_${i % KEY_COUNT}", i.toLong())
+        }
+        i++
+        Thread.sleep(1)
+      }
+    }
+
+    for (t in 0 until READER_THREADS) {
+      Thread {
+        start.await()
+        var sink = 0L
+        for (i in 0 until READS_PER_THREAD) {
+          val index = (i + t) % KEY_COUNT
+          sink += reader.getLong("long_$index", 0)
+          if (reader.getBoolean("boolean_$index", false)) {
+            sink++
+          }
+        }
+        if (sink == Long.MIN_VALUE) {
+          AndroidLog.w(TAG, "Unreachable")
+        }
+        done.countDown()
+      }.start()
+    }
+
+    writer.start()
+    val startTime = System.currentTimeMillis()
+    start.countDown()
+    done.await()
+    val duration = System.currentTimeMillis() - startTime
+
+    writing.set(false)
+    writer.join()
+
+    return duration
+  }
+
+  private fun buildDataSet(): KeyValueDataSet {
+    return KeyValueDataSet().apply {
+      for (i in 0 until KEY_COUNT) {
+        putLong("long_$i", i.toLong())
+        putBoolean("boolean_$i", i % 2 == 0)
+        putString("string_$i", "value_$i")
+      }
+    }
+  }
+
+  /**
+   * Reproduces the previous locking strategy, where every read and write took the same monitor.
+   */
+  private class SynchronizedReader(private val dataSet: KeyValueDataSet) : KeyValueReader {
+    @Synchronized fun putLong(key: String, value: Long) = dataSet.putLong(key, value)
+    @Synchronized override fun getBlob(key: String, defaultValue: ByteArray?): ByteArray? = dataSet.getBlob(key, defaultValue)
+    @Synchronized override fun getBoolean(key: String, defaultValue: Boolean): Boolean = dataSet.getBoolean(key, defaultValue)
+    @Synchronized override fun getFloat(key: String, defaultValue: Float): Float = dataSet.getFloat(key, defaultValue)
+    @Synchronized override fun getInteger(key: String, defaultValue: Int): Int = dataSet.getInteger(key, defaultValue)
+    @Synchronized override fun getLong(key: String, defaultValue: Long): Long = dataSet.getLong(key, defaultValue)
+    @Synchronized override fun getString(key: String, defaultValue: String?): String? = dataSet.getString(key, defaultValue)
+    @Synchronized override fun containsKey(key: String): Boolean = dataSet.containsKey(key)
+  }
+}
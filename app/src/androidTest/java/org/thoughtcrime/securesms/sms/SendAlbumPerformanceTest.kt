@@ -0,0 +1,125 @@
+package org.thoughtcrime.securesms.sms
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.LinearGradient
+import android.graphics.Paint
+import android.graphics.Shader
+import android.net.Uri
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.attachments.Attachment
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.database.UriAttachmentBuilder
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
+import org.thoughtcrime.securesms.jobmanager.JobTracker
+import org.thoughtcrime.securesms.jobs.AttachmentCompressionJob
+import org.thoughtcrime.securesms.mms.OutgoingMessage
+import org.thoughtcrime.securesms.providers.BlobProvider
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+import org.thoughtcrime.securesms.util.MediaUtil
+import java.io.ByteArrayOutputStream
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+import android.util.Log as AndroidLog
+
+/**
+ * Compresses the attachments of a 30 photo album, from enqueueing an [AttachmentCompressionJob] for each one until they have all finished, with compression
+ * serialized on one queue and spread across the default number of queues.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+@RunWith(AndroidJUnit4::class)
+class SendAlbumPerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(SendAlbumPerformanceTest::class.java)
+
+    private const val ALBUM_SIZE = 30
+    private const val PHOTO_WIDTH = 4032
+    private const val PHOTO_HEIGHT = 3024
+    private const val TIMEOUT_MS = 10 * 60 * 1000L
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule(othersCount = 0)
+
+  @Test
+  fun sendAlbum() {
+    val photos: List<ByteArray> = (0 until ALBUM_SIZE).map { generateJpeg(it) }
+
+    val serialMs = compressAndAwait(photos, parallelCompressions = 1)
+    val parallelMs = compressAndAwait(photos, AttachmentCompressionJob.getParallelCompressions())
+
+    AndroidLog.w(TAG, "$ALBUM_SIZE photos at ${PHOTO_WIDTH}x$PHOTO_HEIGHT: one compression queue ${serialMs}ms, ${AttachmentCompressionJob.getParallelCompressions()} queues ${parallelMs}ms")
+  }
+
+  private fun compressAndAwait(photos: List<ByteArray>, parallelCompressions: Int): Long {
+    val attachments: List<Attachment> = photos.mapIndexed { i, photo ->
+      val uri: Uri = BlobProvider.getInstance().forData(photo).createForSingleSessionInMemory()
+      UriAttachmentBuilder.build(id = i.toLong(), uri = uri, contentType = MediaUtil.IMAGE_JPEG, size = photo.size.toLong())
+    }
+
+    val message = OutgoingMessage(
+      recipient = Recipient.self(),
+      attachments = attachments,
+      timestamp = System.currentTimeMillis(),
+      isSecure = true
+    )
+
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(Recipient.self())
+    val messageId = SignalDatabase.messages.insertMessageOutbox(message, threadId, false, null)
+    val jobs = SignalDatabase.attachments.getAttachmentsForMessage(messageId).map {
+      AttachmentCompressionJob(it.attachmentId, false, false, -1, parallelCompressions)
+    }
+
+    val jobManager = ApplicationDependencies.getJobManager()
+    val latch = CountDownLatch(jobs.size)
+    val listener = JobTracker.JobListener { _, jobState ->
+      if (jobState.isComplete) {
+        latch.countDown()
+      }
+    }
+
+    jobs.forEach { jobManager.addListener(it.id, listener) }
+
+    val start = System.currentTimeMillis()
+    jobManager.addAll(jobs)
+
+    if (!latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      throw AssertionError("Album was not compressed in time")
+    }
+
+    val elapsed = System.currentTimeMillis() - start
+    jobManager.removeListener(listener)
+
+    return elapsed
+  }
+
+  private fun generateJpeg(seed: Int): ByteArray {
+    val random = Random(seed)
+    val bitmap = Bitmap.createBitmap(PHOTO_WIDTH, PHOTO_HEIGHT, Bitmap.Config.ARGB_8888)
+    val canvas = Canvas(bitmap)
+    val paint = Paint(Paint.ANTI_ALIAS_FLAG)
+
+    paint.shader = LinearGradient(0f, 0f, PHOTO_WIDTH.toFloat(), PHOTO_HEIGHT.toFloat(), random.nextInt() or 0xFF000000.toInt(), random.nextInt() or 0xFF000000.toInt(), Shader.TileMode.CLAMP)
+    canvas.drawRect(0f, 0f, PHOTO_WIDTH.toFloat(), PHOTO_HEIGHT.toFloat(), paint)
+    paint.shader = null
+
+    repeat(300) {
+      paint.color = random.nextInt()
+      canvas.drawCircle(random.nextFloat() * PHOTO_WIDTH, random.nextFloat() * PHOTO_HEIGHT, random.nextFloat() * PHOTO_WIDTH / 6, paint)
+    }
+
+    val output = ByteArrayOutputStream()
+    bitmap.compress(Bitmap.CompressFormat.JPEG, 95, output)
+    bitmap.recycle()
+
+    return output.toByteArray()
+  }
+}
@@ -0,0 +1,133 @@
+package org.thoughtcrime.securesms.storage
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import org.signal.core.util.update
+import org.signal.core.util.withinTransaction
+import org.thoughtcrime.securesms.database.RecipientTable
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+import org.thoughtcrime.securesms.util.Base64
+import org.thoughtcrime.securesms.util.FeatureFlags
+import org.thoughtcrime.securesms.util.FeatureFlagsAccessor
+import org.whispersystems.signalservice.api.push.ACI
+import org.whispersystems.signalservice.api.push.PNI
+import org.whispersystems.signalservice.api.storage.SignalContactRecord
+import org.whispersystems.signalservice.api.storage.StorageId
+import org.whispersystems.signalservice.internal.storage.protos.ContactRecord
+import java.util.UUID
+import android.util.Log as AndroidLog
+
+/**
+ * Matches a simulated 10k contact manifest against 9k local recipients, with the per-record queries [ContactRecordProcessor] used to make and with the
+ * [ContactMatchIndex] it loads up front. Most remote records match by ACI, some only by E164 or PNI, and the rest are new.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+@RunWith(AndroidJUnit4::class)
+class ContactRecordMatchingPerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(ContactRecordMatchingPerformanceTest::class.java)
+
+    private const val MANIFEST_SIZE = 10_000
+    private const val MATCH_BY_ACI = 8_000
+    private const val MATCH_BY_E164 = 500
+    private const val MATCH_BY_PNI = 500
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule(othersCount = 0)
+
+  private lateinit var remoteRecords: List<SignalContactRecord>
+
+  @Before
+  fun setUp() {
+    FeatureFlagsAccessor.forceValue(FeatureFlags.PHONE_NUMBER_PRIVACY, true)
+
+    remoteRecords = (0 until MANIFEST_SIZE).map { i ->
+      val aci = ACI.from(UUID.randomUUID())
+      val pni = PNI.from(UUID.randomUUID())
+      val e164 = "+1555" + i.toString().padStart(7, '0')
+
+      val local = when {
+        i < MATCH_BY_ACI -> SignalDatabase.recipients.getAndPossiblyMerge(aci, pni, e164)
+        i < MATCH_BY_ACI + MATCH_BY_E164 -> SignalDatabase.recipients.getAndPossiblyMerge(null, null, e164)
+        i < MATCH_BY_ACI + MATCH_BY_E164 + MATCH_BY_PNI -> SignalDatabase.recipients.getAndPossiblyMerge(pni, pni, null)
+        else -> null
+      }
+
+      if (local != null) {
+        SignalDatabase.rawDatabase
+          .update(RecipientTable.TABLE_NAME)
+          .values(RecipientTable.STORAGE_SERVICE_ID to Base64.encodeBytes(StorageSyncHelper.KEY_GENERATOR.generate()))
+          .where("${RecipientTable.ID} = ?", local)
+          .run()
+      }
+
+      SignalContactRecord(
+        StorageId.forContact(StorageSyncHelper.KEY_GENERATOR.generate()),
+        ContactRecord.newBuilder()
+          .setServiceId(aci.toString())
+          .setServicePni(pni.toString())
+          .setServiceE164(e164)
+          .build()
+      )
+    }
+  }
+
+  @Test
+  fun matchManifest() {
+    val expectedMatches = MATCH_BY_ACI + MATCH_BY_E164 + MATCH_BY_PNI
+
+    var start = System.currentTimeMillis()
+    val legacyMatches = countMatches(ContactRecordProcessor(), bulk = false)
+    val legacyMs = System.currentTimeMillis() - start
+
+    start = System.currentTimeMillis()
+    val bulkMatches = countMatches(ContactRecordProcessor(), bulk = true)
+    val bulkMs = System.currentTimeMillis() - start
+
+    assertEquals(expectedMatches, legacyMatches)
+    assertEquals(expectedMatches, bulkMatches)
+
+    AndroidLog.w(TAG, "Matching $MANIFEST_SIZE remote contacts: per-record queries ${legacyMs}ms, bulk index ${bulkMs}ms")
+  }
+
+  @Test
+  fun processManifest() {
+    val db = SignalDatabase.rawDatabase
+
+    val start = System.currentTimeMillis()
+    db.beginTransaction()
+    try {
+      ContactRecordProcessor().process(remoteRecords, StorageSyncHelper.KEY_GENERATOR)
+    } finally {
+      db.endTransaction()
+    }
+    val duration = System.currentTimeMillis() - start
+
+    AndroidLog.w(TAG, "Processing $MANIFEST_SIZE remote contacts: ${duration}ms")
+  }
+
+  private fun countMatches(processor: ContactRecordProcessor, bulk: Boolean): Int {
+    return SignalDatabase.rawDatabase.withinTransaction {
+      if (bulk) {
+        processor.onMatchingStarted(remoteRecords)
+      }
+
+      val matches = remoteRecords.count { processor.getMatching(it, StorageSyncHelper.KEY_GENERATOR).isPresent }
+
+      if (bulk) {
+        processor.onMatchingFinished()
+      }
+
+      matches
+    }
+  }
+}
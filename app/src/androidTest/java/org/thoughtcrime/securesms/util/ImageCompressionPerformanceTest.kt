@@ -0,0 +1,161 @@
+package org.thoughtcrime.securesms.util
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.LinearGradient
+import android.graphics.Paint
+import android.graphics.Shader
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import java.io.ByteArrayOutputStream
+import kotlin.random.Random
+import android.util.Log as AndroidLog
+
+/**
+ * Compresses a fixed corpus of 30 generated camera-sized photos with [ImageCompressionPlanner] and with the loop it replaced in
+ * [BitmapUtil.createScaledBytes], for each of the push media quality levels.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+@RunWith(AndroidJUnit4::class)
+class ImageCompressionPerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(ImageCompressionPerformanceTest::class.java)
+
+    private const val KB = 1024
+    private const val MB = 1024 * KB
+
+    /** Dimension and byte limits of the push media quality levels. */
+    private val LEVELS = listOf(1600 to 1 * MB, 2048 to (1.5 * MB).toInt(), 4096 to 3 * MB)
+
+    private val CORPUS_SIZES = listOf(4032 to 3024, 4000 to 3000, 3264 to 2448, 2592 to 1944, 1920 to 1080, 1280 to 960)
+    private const val SEEDS_PER_SIZE = 5
+  }
+
+  @Test
+  fun compressCorpus() {
+    for ((maxDimension, maxBytes) in LEVELS) {
+      var plannerMs = 0L
+      var plannerAttempts = 0
+      var plannerBytes = 0L
+      var legacyMs = 0L
+      var legacyAttempts = 0
+      var legacyBytes = 0L
+
+      for ((width, height) in CORPUS_SIZES) {
+        for (seed in 0 until SEEDS_PER_SIZE) {
+          val photo = generatePhoto(width, height, seed)
+          val scaled = BitmapUtil.createScaledBitmap(photo, maxDimension, maxDimension)
+
+          var start = System.currentTimeMillis()
+          val result = ImageCompressionPlanner.compress(scaled, Bitmap.CompressFormat.JPEG, maxBytes, null)
+          plannerMs += System.currentTimeMillis() - start
+          plannerAttempts += result.attempts
+          plannerBytes += result.data.size
+
+          start = System.currentTimeMillis()
+          val legacy = legacyCompress(scaled, maxBytes)
+          legacyMs += System.currentTimeMillis() - start
+          legacyAttempts += legacy.second
+          legacyBytes += legacy.first.size
+
+          assertTrue(result.data.size <= maxBytes)
+
+          if (scaled != photo) scaled.recycle()
+          photo.recycle()
+        }
+      }
+
+      val count = CORPUS_SIZES.size * SEEDS_PER_SIZE
+      AndroidLog.w(TAG, "$maxDimension px / ${maxBytes / KB} KB, $count photos: planner ${plannerMs}ms, $plannerAttempts full encodes, ${plannerBytes / count / KB} KB avg")
+      AndroidLog.w(TAG, "$maxDimension px / ${maxBytes / KB} KB, $count photos: legacy ${legacyMs}ms, $legacyAttempts full encodes, ${legacyBytes / count / KB} KB avg")
+    }
+  }
+
+  /**
+   * A smooth gradient with overlapping soft shapes and per-pixel sensor noise, which compresses much like a real photo. The same seed always produces the
+   * same image.
+   */
+  private fun generatePhoto(width: Int, height: Int, seed: Int): Bitmap {
+    val random = Random(seed * 31 + width)
+    val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+    val canvas = Canvas(bitmap)
+    val paint = Paint(Paint.ANTI_ALIAS_FLAG)
+
+    paint.shader = LinearGradient(0f, 0f, width.toFloat(), height.toFloat(), random.nextInt() or 0xFF000000.toInt(), random.nextInt() or 0xFF000000.toInt(), Shader.TileMode.CLAMP)
+    canvas.drawRect(0f, 0f, width.toFloat(), height.toFloat(), paint)
+    paint.shader = null
+
+    repeat(300) {
+      paint.color = random.nextInt()
+      val x = random.nextFloat() * width
+      val y = random.nextFloat() * height
+      val size = random.nextFloat() * width / 6
+      if (random.nextBoolean()) {
+        canvas.drawCircle(x, y, size, paint)
+      } else {
+        canvas.drawRect(x, y, x + size, y + size / 2, paint)
+      }
+    }
+
+    val row = IntArray(width)
+    for (y in 0 until height) {
+      bitmap.getPixels(row, 0, width, 0, y, width, 1)
+      for (x in 0 until width) {
+        val noise = random.nextInt(-6, 7)
+        val pixel = row[x]
+        val r = ((pixel shr 16 and 0xFF) + noise).coerceIn(0, 255)
+        val g = ((pixel shr 8 and 0xFF) + noise).coerceIn(0, 255)
+        val b = ((pixel and 0xFF) + noise).coerceIn(0, 255)
+        row[x] = (0xFF shl 24) or (r shl 16) or (g shl 8) or b
+      }
+      bitmap.setPixels(row, 0, width, 0, y, width, 1)
+    }
+
+    return bitmap
+  }
+
+  /**
+   * The quality search [BitmapUtil.createScaledBytes] did before [ImageCompressionPlanner], with the reload at half size replaced by an in-memory scale.
+   */
+  private fun legacyCompress(bitmap: Bitmap, maxBytes: Int): Pair<ByteArray, Int> {
+    var target = bitmap
+    var totalAttempts = 0
+
+    for (sizeAttempt in 1..4) {
+      var quality = 90
+      var attempts = 0
+      var bytes: ByteArray
+
+      do {
+        totalAttempts++
+        val output = ByteArrayOutputStream()
+        target.compress(Bitmap.CompressFormat.JPEG, quality, output)
+        bytes = output.toByteArray()
+
+        if (quality == 45) break
+
+        var nextQuality = Math.floor(quality * Math.sqrt(maxBytes.toDouble() / bytes.size)).toInt()
+        if (quality - nextQuality < 5) {
+          nextQuality = quality - 5
+        }
+        quality = Math.max(nextQuality, 45)
+      } while (bytes.size > maxBytes && attempts++ < 5)
+
+      if (bytes.size <= maxBytes) {
+        if (target != bitmap) target.recycle()
+        return bytes to totalAttempts
+      }
+
+      val half = Bitmap.createScaledBitmap(target, target.width / 2, target.height / 2, true)
+      if (target != bitmap) target.recycle()
+      target = half
+    }
+
+    throw AssertionError("Legacy compression failed")
+  }
+}
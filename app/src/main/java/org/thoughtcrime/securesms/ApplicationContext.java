@@ -50,6 +50,7 @@ import org.thoughtcrime.securesms.emoji.JumboEmoji;
 import org.thoughtcrime.securesms.gcm.FcmJobService;
 import org.thoughtcrime.securesms.jobs.AccountConsistencyWorkerJob;
 import org.thoughtcrime.securesms.jobs.CheckServiceReachabilityJob;
+import org.thoughtcrime.securesms.jobs.DeferredMessageSearchIndexJob;
 import org.thoughtcrime.securesms.jobs.DownloadLatestEmojiDataJob;
 import org.thoughtcrime.securesms.jobs.EmojiSearchIndexDownloadJob;
 import org.thoughtcrime.securesms.jobs.FcmRefreshJob;
@@ -111,6 +112,9 @@ import io.reactivex.rxjava3.plugins.RxJavaPlugins;
 import io.reactivex.rxjava3.schedulers.Schedulers;
 import rxdogtag2.RxDogTag;
 
+import static org.thoughtcrime.securesms.util.AppStartup.Affinity.BACKGROUND;
+import static org.thoughtcrime.securesms.util.AppStartup.Affinity.MAIN;
+
 /**
  * Will be called once when the TextSecure process is created.
  *
@@ -144,55 +148,55 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
 
     super.onCreate();
 
-    AppStartup.getInstance().addBlocking("sqlcipher-init", () -> {
+    AppStartup.getInstance().addBlocking("logging", BACKGROUND, () -> {
+                              initializeLogging();
+                              Log.i(TAG, "onCreate()");
+                            })
+                            .addBlocking("sqlcipher-init", BACKGROUND, () -> {
                               SqlCipherLibraryLoader.load();
                               SignalDatabase.init(this,
                                                   DatabaseSecretProvider.getOrCreateDatabaseSecret(this),
                                                   AttachmentSecretProvider.getInstance(this).getOrCreateAttachmentSecret());
-                            })
-                            .addBlocking("logging", () -> {
-                              initializeLogging();
-                              Log.i(TAG, "onCreate()");
-                            })
-                            .addBlocking("security-provider", this::initializeSecurityProvider)
-                            .addBlocking("crash-handling", this::initializeCrashHandling)
-                            .addBlocking("rx-init", this::initializeRx)
-                            .addBlocking("event-bus", () -> EventBus.builder().logNoSubscriberMessages(false).installDefaultEventBus())
-                            .addBlocking("app-dependencies", this::initializeAppDependencies)
-                            .addBlocking("first-launch", this::initializeFirstEverAppLaunch)
-                            .addBlocking("app-migrations", this::initializeApplicationMigrations)
-                            .addBlocking("mark-registration", () -> RegistrationUtil.maybeMarkRegistrationComplete())
-                            .addBlocking("lifecycle-observer", () -> ApplicationDependencies.getAppForegroundObserver().addListener(this))
-                            .addBlocking("message-retriever", this::initializeMessageRetrieval)
-                            .addBlocking("dynamic-theme", () -> DynamicTheme.setDefaultDayNightMode(this))
-                            .addBlocking("proxy-init", () -> {
+                            }, "logging")
+                            .addBlocking("security-provider", BACKGROUND, this::initializeSecurityProvider, "logging")
+                            .addBlocking("crash-handling", BACKGROUND, this::initializeCrashHandling, "logging")
+                            .addBlocking("rx-init", BACKGROUND, this::initializeRx, "logging")
+                            .addBlocking("event-bus", BACKGROUND, () -> EventBus.builder().logNoSubscriberMessages(false).installDefaultEventBus(), "logging")
+                            .addBlocking("glide", BACKGROUND, () -> SignalGlideModule.setRegisterGlideComponents(new SignalGlideComponents()), "logging")
+                            .addBlocking("app-dependencies", MAIN, this::initializeAppDependencies, "sqlcipher-init", "logging", "security-provider", "crash-handling", "rx-init", "event-bus")
+                            .addBlocking("first-launch", BACKGROUND, this::initializeFirstEverAppLaunch, "app-dependencies")
+                            .addBlocking("app-migrations", MAIN, this::initializeApplicationMigrations, "first-launch")
+                            .addBlocking("mark-registration", BACKGROUND, () -> RegistrationUtil.maybeMarkRegistrationComplete(), "app-migrations")
+                            .addBlocking("lifecycle-observer", MAIN, () -> ApplicationDependencies.getAppForegroundObserver().addListener(this), "app-dependencies")
+                            .addBlocking("dynamic-theme", MAIN, () -> DynamicTheme.setDefaultDayNightMode(this), "app-dependencies")
+                            .addBlocking("proxy-init", BACKGROUND, () -> {
                               if (SignalStore.proxy().isProxyEnabled()) {
                                 Log.w(TAG, "Proxy detected. Enabling Conscrypt.setUseEngineSocketByDefault()");
                                 Conscrypt.setUseEngineSocketByDefault(true);
                               }
-                            })
-                            .addBlocking("blob-provider", this::initializeBlobProvider)
-                            .addBlocking("feature-flags", FeatureFlags::init)
-                            .addBlocking("ring-rtc", this::initializeRingRtc)
-                            .addBlocking("glide", () -> SignalGlideModule.setRegisterGlideComponents(new SignalGlideComponents()))
+                            }, "app-dependencies")
+                            .addBlocking("blob-provider", BACKGROUND, this::initializeBlobProvider, "app-dependencies")
+                            .addBlocking("feature-flags", BACKGROUND, FeatureFlags::init, "app-migrations")
+                            .addBlocking("message-retriever", BACKGROUND, this::initializeMessageRetrieval, "mark-registration", "proxy-init", "feature-flags")
+                            .addBlocking("ring-rtc", BACKGROUND, this::initializeRingRtc, "feature-flags")
                             .addNonBlocking(() -> GlideApp.get(this))
-                            .addNonBlocking(this::cleanAvatarStorage)
                             .addNonBlocking(this::initializeRevealableMessageManager)
                             .addNonBlocking(this::initializePendingRetryReceiptManager)
                             .addNonBlocking(this::initializeScheduledMessageManager)
                             .addNonBlocking(this::initializeFcmCheck)
                             .addNonBlocking(PreKeysSyncJob::enqueueIfNeeded)
-                            .addNonBlocking(this::initializePeriodicTasks)
                             .addNonBlocking(this::initializeCircumvention)
                             .addNonBlocking(this::initializePendingMessages)
-                            .addNonBlocking(this::initializeCleanup)
                             .addNonBlocking(this::initializeGlideCodecs)
-                            .addNonBlocking(StorageSyncHelper::scheduleRoutineSync)
                             .addNonBlocking(() -> ApplicationDependencies.getJobManager().beginJobLoop())
                             .addNonBlocking(EmojiSource::refresh)
-                            .addNonBlocking(() -> ApplicationDependencies.getGiphyMp4Cache().onAppStart(this))
-                            .addNonBlocking(this::ensureProfileUploaded)
-                            .addNonBlocking(() -> ApplicationDependencies.getExpireStoriesManager().scheduleIfNecessary())
+                            .addPostRender(this::cleanAvatarStorage)
+                            .addPostRender(this::initializePeriodicTasks)
+                            .addPostRender(this::initializeCleanup)
+                            .addPostRender(StorageSyncHelper::scheduleRoutineSync)
+                            .addPostRender(() -> ApplicationDependencies.getGiphyMp4Cache().onAppStart(this))
+                            .addPostRender(this::ensureProfileUploaded)
+                            .addPostRender(() -> ApplicationDependencies.getExpireStoriesManager().scheduleIfNecessary())
                             .addPostRender(() -> ApplicationDependencies.getDeletedCallEventManager().scheduleIfNecessary())
                             .addPostRender(() -> RateLimitUtil.retryAllRateLimitedMessages(this))
                             .addPostRender(this::initializeExpiringMessageManager)
@@ -201,6 +205,7 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
                             .addPostRender(RefreshKbsCredentialsJob::enqueueIfNecessary)
                             .addPostRender(() -> DownloadLatestEmojiDataJob.scheduleIfNecessary(this))
                             .addPostRender(EmojiSearchIndexDownloadJob::scheduleIfNecessary)
+                            .addPostRender(DeferredMessageSearchIndexJob::initialize)
                             .addPostRender(() -> SignalDatabase.messageLog().trimOldMessages(System.currentTimeMillis(), FeatureFlags.retryRespondMaxAge()))
                             .addPostRender(() -> JumboEmoji.updateCurrentVersion(this))
                             .addPostRender(RetrieveRemoteAnnouncementsJob::enqueue)
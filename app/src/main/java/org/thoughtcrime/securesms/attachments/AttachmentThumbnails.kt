@@ -0,0 +1,153 @@
+package org.thoughtcrime.securesms.attachments
+
+import android.content.Context
+import android.graphics.Bitmap
+import androidx.annotation.WorkerThread
+import com.bumptech.glide.load.engine.DiskCacheStrategy
+import com.bumptech.glide.load.resource.bitmap.DownsampleStrategy
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.mms.AttachmentThumbnailLoader
+import org.thoughtcrime.securesms.mms.DecryptableStreamUriLoader.DecryptableUri
+import org.thoughtcrime.securesms.mms.GlideApp
+import org.thoughtcrime.securesms.util.MediaUtil
+import org.thoughtcrime.securesms.util.SignalLocalMetrics
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.util.EnumMap
+import java.util.concurrent.ExecutionException
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+
+/**
+ * Generates the thumbnails [org.thoughtcrime.securesms.database.AttachmentTable] stores for image and video attachments, once they've been downloaded or
+ * sent. They're served by [AttachmentThumbnailLoader], so the conversation, media grid, and notifications don't have to
+ * decrypt and downsample the whole attachment, or pull a frame out of a video, every time one is shown.
+ */
+object AttachmentThumbnails {
+
+  private val TAG = Log.tag(AttachmentThumbnails::class.java)
+
+  private const val JPEG_QUALITY = 80
+
+  /**
+   * Sizes are of the shorter edge, so a thumbnail covers a view up to that size in both dimensions whether it's cropped or not. The codes are what's
+   * stored, so they mustn't be reused.
+   */
+  enum class Size(val code: Int, val shortEdge: Int) {
+    GRID(1, 256),
+    NOTIFICATION(2, 512),
+    BUBBLE(3, 1024);
+
+    companion object {
+      /**
+       * @return The smallest size that can be shown at [width] x [height] without being scaled up, or null if only the full attachment will do.
+       */
+      @JvmStatic
+      fun forTarget(width: Int, height: Int): Size? {
+        if (width <= 0 || height <= 0) {
+          return null
+        }
+
+        val needed = max(width, height)
+        return values().firstOrNull { it.shortEdge >= needed }
+      }
+    }
+  }
+
+  /**
+   * Animated images are left out, as a thumbnail would only have their first frame.
+   */
+  @JvmStatic
+  fun canGenerate(attachment: Attachment): Boolean {
+    val contentType = attachment.contentType ?: return false
+
+    return !attachment.isSticker &&
+      (MediaUtil.isVideoType(contentType) || (MediaUtil.isImageAndNotGif(contentType) && contentType != MediaUtil.IMAGE_WEBP))
+  }
+
+  @WorkerThread
+  @JvmStatic
+  @Throws(IOException::class)
+  fun generate(context: Context, attachment: DatabaseAttachment) {
+    val uri = attachment.uri ?: throw IOException("Attachment has no data")
+    val metricId = SignalLocalMetrics.AttachmentThumbnail.startGenerate()
+    val largest = Size.BUBBLE.shortEdge
+
+    val source: Bitmap = try {
+      GlideApp.with(context.applicationContext)
+        .asBitmap()
+        .load(DecryptableUri(uri))
+        .set(AttachmentThumbnailLoader.SKIP, true)
+        .skipMemoryCache(true)
+        .diskCacheStrategy(DiskCacheStrategy.NONE)
+        .downsample(DownsampleStrategy.AT_LEAST)
+        .submit(largest, largest)
+        .get()
+    } catch (e: InterruptedException) {
+      SignalLocalMetrics.AttachmentThumbnail.cancel(metricId)
+      throw IOException(e)
+    } catch (e: ExecutionException) {
+      SignalLocalMetrics.AttachmentThumbnail.cancel(metricId)
+      throw IOException(e)
+    }
+
+    SignalLocalMetrics.AttachmentThumbnail.onDecoded(metricId)
+
+    val thumbnails: MutableMap<Size, ByteArray> = EnumMap(Size::class.java)
+
+    try {
+      for (size in Size.values()) {
+        val scaled = scaleToShortEdge(source, size.shortEdge)
+        thumbnails[size] = encode(scaled)
+
+        if (scaled !== source) {
+          scaled.recycle()
+        }
+      }
+    } finally {
+      source.recycle()
+    }
+
+    SignalLocalMetrics.AttachmentThumbnail.onEncoded(metricId)
+
+    try {
+      SignalDatabase.attachments.setThumbnails(attachment.attachmentId, thumbnails)
+    } catch (e: IOException) {
+      SignalLocalMetrics.AttachmentThumbnail.cancel(metricId)
+      throw e
+    }
+
+    SignalLocalMetrics.AttachmentThumbnail.onStored(metricId)
+    Log.i(TAG, "Stored ${thumbnails.size} thumbnails for ${attachment.attachmentId}, ${thumbnails.values.sumOf { it.size }} bytes")
+  }
+
+  /**
+   * Never scales up, so a small source is stored at its own size for every size.
+   */
+  private fun scaleToShortEdge(bitmap: Bitmap, shortEdge: Int): Bitmap {
+    val scale = shortEdge.toFloat() / min(bitmap.width, bitmap.height)
+
+    if (scale >= 1f) {
+      return bitmap
+    }
+
+    val width = max(1, (bitmap.width * scale).roundToInt())
+    val height = max(1, (bitmap.height * scale).roundToInt())
+
+    return Bitmap.createScaledBitmap(bitmap, width, height, true)
+  }
+
+  private fun encode(bitmap: Bitmap): ByteArray {
+    val output = ByteArrayOutputStream()
+
+    if (bitmap.hasAlpha()) {
+      bitmap.compress(Bitmap.CompressFormat.PNG, 100, output)
+    } else {
+      bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output)
+    }
+
+    return output.toByteArray()
+  }
+}
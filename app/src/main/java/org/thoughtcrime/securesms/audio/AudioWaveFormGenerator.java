@@ -8,6 +8,7 @@ import android.net.Uri;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import org.signal.core.util.logging.Log;
@@ -34,6 +35,15 @@ public final class AudioWaveFormGenerator {
    */
   @WorkerThread
   public static @NonNull AudioFileInfo generateWaveForm(@NonNull Context context, @NonNull Uri uri) throws IOException {
+    return generateWaveForm(context, uri, true);
+  }
+
+  /**
+   * @param seekBetweenSamples Whether to seek to the next packet that is decoded, rather than step through every packet in between.
+   */
+  @VisibleForTesting
+  @WorkerThread
+  static @NonNull AudioFileInfo generateWaveForm(@NonNull Context context, @NonNull Uri uri, boolean seekBetweenSamples) throws IOException {
     try (MediaInput dataSource = DecryptableUriMediaInput.createForUri(context, uri)) {
       long[] wave        = new long[BAR_COUNT];
       int[]  waveSamples = new int[BAR_COUNT];
@@ -98,15 +108,7 @@ public final class AudioWaveFormGenerator {
               sawInputEOS ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
 
             if (!sawInputEOS) {
-              int barSampleIndex = (int) (SAMPLES_PER_BAR * (wave.length * extractor.getSampleTime()) / totalDurationUs);
-              sawInputEOS = !extractor.advance();
-              int nextBarSampleIndex = (int) (SAMPLES_PER_BAR * (wave.length * extractor.getSampleTime()) / totalDurationUs);
-              while (!sawInputEOS && nextBarSampleIndex == barSampleIndex) {
-                sawInputEOS = !extractor.advance();
-                if (!sawInputEOS) {
-                  nextBarSampleIndex = (int) (SAMPLES_PER_BAR * (wave.length * extractor.getSampleTime()) / totalDurationUs);
-                }
-              }
+              sawInputEOS = !moveToNextBarSample(extractor, totalDurationUs, seekBetweenSamples);
             }
           }
         }
@@ -165,4 +167,31 @@ public final class AudioWaveFormGenerator {
       return new AudioFileInfo(totalDurationUs, bytes);
     }
   }
+
+  private static int getBarSampleIndex(long timeUs, long totalDurationUs) {
+    return (int) (SAMPLES_PER_BAR * (BAR_COUNT * timeUs) / totalDurationUs);
+  }
+
+  /**
+   * Only one packet is decoded per bar sample, so rather than stepping through every packet in between, seek to the sync packet at or before the first
+   * packet of the next bar sample and step from there. Seeking back to a sync packet never skips past a bar sample, however sparse the sync packets are.
+   *
+   * @return false at the end of the stream.
+   */
+  private static boolean moveToNextBarSample(@NonNull MediaExtractor extractor, long totalDurationUs, boolean seek) {
+    int barSampleIndex = getBarSampleIndex(extractor.getSampleTime(), totalDurationUs);
+    int barSampleCount = BAR_COUNT * SAMPLES_PER_BAR;
+
+    if (seek && barSampleIndex + 1 < barSampleCount) {
+      long targetTimeUs = ((barSampleIndex + 1) * totalDurationUs + barSampleCount - 1) / barSampleCount;
+      extractor.seekTo(targetTimeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+    }
+
+    boolean hasMore = extractor.getSampleTime() >= 0;
+    while (hasMore && getBarSampleIndex(extractor.getSampleTime(), totalDurationUs) <= barSampleIndex) {
+      hasMore = extractor.advance();
+    }
+
+    return hasMore;
+  }
 }
@@ -5,14 +5,19 @@ import android.net.Uri
 import android.util.LruCache
 import androidx.annotation.AnyThread
 import androidx.annotation.RequiresApi
+import androidx.annotation.WorkerThread
+import io.reactivex.rxjava3.core.Scheduler
 import io.reactivex.rxjava3.core.Single
 import io.reactivex.rxjava3.schedulers.Schedulers
+import org.signal.core.util.concurrent.SignalExecutors
 import org.signal.core.util.logging.Log
 import org.thoughtcrime.securesms.attachments.Attachment
 import org.thoughtcrime.securesms.attachments.AttachmentId
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment
 import org.thoughtcrime.securesms.database.SignalDatabase
 import org.thoughtcrime.securesms.database.model.databaseprotos.AudioWaveFormData
+import org.thoughtcrime.securesms.jobs.GenerateAudioWaveFormJob
+import org.thoughtcrime.securesms.util.SignalLocalMetrics
 import java.io.IOException
 import java.util.concurrent.locks.ReentrantReadWriteLock
 import kotlin.concurrent.read
@@ -21,7 +26,9 @@ import kotlin.concurrent.write
 /**
  * Uses [AudioWaveFormGenerator] to generate audio wave forms.
  *
- * Maintains an in-memory cache of recently requested wave forms.
+ * Maintains an in-memory cache of recently requested wave forms. Wave forms are normally generated ahead of time by
+ * [GenerateAudioWaveFormJob] once an attachment is downloaded, so the UI only has to decode one itself if it asks before that
+ * job gets to it. Asking also moves the attachment to the front of the job's queue.
  */
 @RequiresApi(23)
 object AudioWaveForms {
@@ -30,9 +37,39 @@ object AudioWaveForms {
 
   private val cache = ThreadSafeLruCache(200)
 
+  /**
+   * Generations that have started but not finished, by cache key, so a wave form that is requested again while it is being
+   * generated (by the UI rebinding, or by the UI and the pre-generation job at once) is only decoded once.
+   */
+  private val inFlight: MutableMap<String, Single<CacheCheckResult>> = HashMap()
+
+  /**
+   * UI requests are decoded on a small pool so that scrolling past many voice notes can't start a decode for each of them at
+   * once. It is LIFO as the most recently bound voice notes are the ones on screen.
+   */
+  private val uiScheduler: Scheduler = Schedulers.from(SignalExecutors.newFixedLifoThreadExecutor("signal-audio-waveform", 2, 2))
+
   @AnyThread
   @JvmStatic
   fun getWaveForm(context: Context, attachment: Attachment): Single<AudioFileInfo> {
+    if (attachment is DatabaseAttachment) {
+      GenerateAudioWaveFormJob.prioritize(attachment.attachmentId)
+    }
+
+    return getWaveForm(context, attachment, uiScheduler)
+  }
+
+  /**
+   * Generates the wave form on the calling thread, unless it is already cached or being generated elsewhere, and stores it
+   * for the UI to pick up.
+   */
+  @WorkerThread
+  @JvmStatic
+  fun pregenerateWaveForm(context: Context, attachment: DatabaseAttachment): AudioFileInfo {
+    return getWaveForm(context, attachment, Schedulers.trampoline()).blockingGet()
+  }
+
+  private fun getWaveForm(context: Context, attachment: Attachment, scheduler: Scheduler): Single<AudioFileInfo> {
     val uri = attachment.uri
     if (uri == null) {
       Log.i(TAG, "No uri")
@@ -53,13 +90,13 @@ object AudioWaveForms {
       } else {
         Miss
       }
-    }.subscribeOn(Schedulers.io())
+    }.subscribeOn(scheduler)
 
     val generateWaveForm: Single<CacheCheckResult> = if (attachment is DatabaseAttachment) {
-      Single.fromCallable { generateWaveForm(context, uri, cacheKey, attachment.attachmentId) }
+      generateOnce(cacheKey, scheduler) { generateWaveForm(context, uri, cacheKey, attachment.attachmentId) }
     } else {
-      Single.fromCallable { generateWaveForm(context, uri, cacheKey) }
-    }.subscribeOn(Schedulers.io())
+      generateOnce(cacheKey, scheduler) { generateWaveForm(context, uri, cacheKey) }
+    }
 
     return databaseCache
       .flatMap { r ->
@@ -78,6 +115,22 @@ object AudioWaveForms {
       }
   }
 
+  /**
+   * Joins the generation already in flight for [cacheKey], if any, and otherwise starts a new one on [scheduler].
+   */
+  private fun generateOnce(cacheKey: String, scheduler: Scheduler, generate: () -> CacheCheckResult): Single<CacheCheckResult> {
+    return Single.defer {
+      synchronized(inFlight) {
+        inFlight.getOrPut(cacheKey) {
+          Single.fromCallable<CacheCheckResult> { cache.get(cacheKey)?.let { Success(it) } ?: generate() }
+            .subscribeOn(scheduler)
+            .doFinally { synchronized(inFlight) { inFlight.remove(cacheKey) } }
+            .cache()
+        }
+      }
+    }
+  }
+
   private fun checkDatabaseCache(cacheKey: String, audioWaveForm: AudioWaveFormData): CacheCheckResult {
     val audioFileInfo = AudioFileInfo.fromDatabaseProtobuf(audioWaveForm)
     if (audioFileInfo.waveForm.isEmpty()) {
@@ -97,6 +150,7 @@ object AudioWaveForms {
   private fun generateWaveForm(context: Context, uri: Uri, cacheKey: String, attachmentId: AttachmentId): CacheCheckResult {
     try {
       val startTime = System.currentTimeMillis()
+      SignalLocalMetrics.AudioWaveForm.onGenerationStarted(attachmentId)
       SignalDatabase.attachments.writeAudioHash(attachmentId, AudioWaveFormData.getDefaultInstance())
 
       Log.i(TAG, "Starting wave form generation ($cacheKey)")
@@ -105,10 +159,12 @@ object AudioWaveForms {
 
       SignalDatabase.attachments.writeAudioHash(attachmentId, fileInfo.toDatabaseProtobuf())
       cache.put(cacheKey, fileInfo)
+      SignalLocalMetrics.AudioWaveForm.onGenerated(attachmentId)
 
       return Success(fileInfo)
     } catch (e: Throwable) {
       Log.w(TAG, "Failed to create audio wave form for $cacheKey", e)
+      SignalLocalMetrics.AudioWaveForm.cancel(attachmentId)
       return Failure
     }
   }
@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.backup;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import org.signal.core.util.Conversions;
 import org.signal.core.util.StreamUtil;
@@ -25,6 +26,9 @@ import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+/**
+ * Reads the frames of a backup. With a passphrase the backup must be encrypted, without one it must be an unencrypted device transfer stream.
+ */
 class BackupRecordInputStream extends FullBackupBase.BackupStream {
 
   private final InputStream in;
@@ -36,7 +40,7 @@ class BackupRecordInputStream extends FullBackupBase.BackupStream {
   private final byte[] iv;
   private       int    counter;
 
-  BackupRecordInputStream(@NonNull InputStream in, @NonNull String passphrase) throws IOException {
+  BackupRecordInputStream(@NonNull InputStream in, @Nullable String passphrase) throws IOException {
     try {
       this.in = in;
 
@@ -55,6 +59,18 @@ class BackupRecordInputStream extends FullBackupBase.BackupStream {
 
       Header header = frame.header_;
 
+      if (header.iv == null && passphrase == null) {
+        this.iv        = null;
+        this.cipherKey = null;
+        this.cipher    = null;
+        this.mac       = null;
+        return;
+      } else if (header.iv == null) {
+        throw new IOException("Backup is not encrypted!");
+      } else if (passphrase == null) {
+        throw new IOException("Expected an unencrypted stream!");
+      }
+
       this.iv = header.iv.toByteArray();
 
       if (iv.length != 16) {
@@ -83,6 +99,11 @@ class BackupRecordInputStream extends FullBackupBase.BackupStream {
   }
 
   void readAttachmentTo(OutputStream out, int length) throws IOException {
+    if (cipher == null) {
+      readUnencryptedAttachmentTo(out, length);
+      return;
+    }
+
     try {
       Conversions.intToByteArray(iv, 0, counter++);
       cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
@@ -130,6 +151,20 @@ class BackupRecordInputStream extends FullBackupBase.BackupStream {
     }
   }
 
+  private void readUnencryptedAttachmentTo(OutputStream out, int length) throws IOException {
+    byte[] buffer = new byte[8192];
+
+    while (length > 0) {
+      int read = in.read(buffer, 0, Math.min(buffer.length, length));
+      if (read == -1) throw new IOException("File ended early!");
+
+      out.write(buffer, 0, read);
+      length -= read;
+    }
+
+    out.close();
+  }
+
   private BackupFrame readFrame(InputStream in) throws IOException {
     try {
       byte[] length = new byte[4];
@@ -138,6 +173,10 @@ class BackupRecordInputStream extends FullBackupBase.BackupStream {
       byte[] frame = new byte[Conversions.byteArrayToInt(length)];
       StreamUtil.readFully(in, frame);
 
+      if (cipher == null) {
+        return BackupFrame.ADAPTER.decode(frame);
+      }
+
       byte[] theirMac = new byte[10];
       System.arraycopy(frame, frame.length - 10, theirMac, 0, theirMac.length);
 
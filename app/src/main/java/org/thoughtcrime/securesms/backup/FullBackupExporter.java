@@ -152,11 +152,24 @@ public class FullBackupExporter extends FullBackupBase {
     EventBus.getDefault().post(internalExport(context, attachmentSecret, input, outputStream, passphrase, false, () -> false));
   }
 
+  /**
+   * Like {@link #transfer(Context, AttachmentSecret, SQLiteDatabase, OutputStream, String)}, but without encrypting the frames, for when the output stream is
+   * already an authenticated and encrypted channel to the new device. Unlike an encrypted backup, the output is the same every time as long as the data is.
+   */
+  public static void transferUnencrypted(@NonNull Context context,
+                                         @NonNull AttachmentSecret attachmentSecret,
+                                         @NonNull SQLiteDatabase input,
+                                         @NonNull OutputStream outputStream)
+      throws IOException
+  {
+    EventBus.getDefault().post(internalExport(context, attachmentSecret, input, outputStream, null, false, () -> false));
+  }
+
   private static BackupEvent internalExport(@NonNull Context context,
                                             @NonNull AttachmentSecret attachmentSecret,
                                             @NonNull SQLiteDatabase input,
                                             @NonNull OutputStream fileOutputStream,
-                                            @NonNull String passphrase,
+                                            @Nullable String passphrase,
                                             boolean closeOutputStream,
                                             @NonNull BackupCancellationSignal cancellationSignal)
       throws IOException
@@ -627,6 +640,10 @@ public class FullBackupExporter extends FullBackupBase {
     return false;
   }
 
+  /**
+   * Writes backup frames, encrypted with a key derived from the passphrase. Without a passphrase, the frames and attachment streams are written as they are,
+   * with a header that has no IV or salt.
+   */
   private static class BackupFrameOutputStream extends BackupStream {
 
     private final OutputStream outputStream;
@@ -639,7 +656,21 @@ public class FullBackupExporter extends FullBackupBase {
 
     private       int    frames;
 
-    private BackupFrameOutputStream(@NonNull OutputStream output, @NonNull String passphrase) throws IOException {
+    private BackupFrameOutputStream(@NonNull OutputStream output, @Nullable String passphrase) throws IOException {
+      if (passphrase == null) {
+        this.outputStream = output;
+        this.cipher       = null;
+        this.mac          = null;
+        this.cipherKey    = null;
+        this.iv           = null;
+
+        byte[] header = new BackupFrame.Builder().header_(new Header.Builder().build()).build().encode();
+
+        outputStream.write(Conversions.intToByteArray(header.length));
+        outputStream.write(header);
+        return;
+      }
+
       try {
         byte[]   salt    = Util.getSecretBytes(32);
         byte[]   key     = getBackupKey(passphrase, salt);
@@ -752,6 +783,20 @@ public class FullBackupExporter extends FullBackupBase {
      * @return The amount of data written from the provided InputStream.
      */
     private long writeStream(@NonNull InputStream inputStream) throws IOException {
+      if (cipher == null) {
+        byte[] buffer = new byte[8192];
+        long   total  = 0;
+
+        int read;
+
+        while ((read = inputStream.read(buffer)) != -1) {
+          outputStream.write(buffer, 0, read);
+          total += read;
+        }
+
+        return total;
+      }
+
       try {
         Conversions.intToByteArray(iv, 0, counter++);
         cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
@@ -787,6 +832,15 @@ public class FullBackupExporter extends FullBackupBase {
     }
 
     private void write(@NonNull OutputStream out, @NonNull BackupFrame frame) throws IOException {
+      if (cipher == null) {
+        byte[] frameBytes = frame.encode();
+
+        out.write(Conversions.intToByteArray(frameBytes.length));
+        out.write(frameBytes);
+        frames++;
+        return;
+      }
+
       try {
         Conversions.intToByteArray(iv, 0, counter++);
         cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
@@ -9,6 +9,7 @@ import android.net.Uri;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
@@ -72,8 +73,11 @@ public class FullBackupImporter extends FullBackupBase {
     }
   }
 
+  /**
+   * @param passphrase The passphrase of an encrypted backup, or null for an unencrypted device transfer stream.
+   */
   public static void importFile(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
-                                @NonNull SQLiteDatabase db, @NonNull InputStream is, @NonNull String passphrase)
+                                @NonNull SQLiteDatabase db, @NonNull InputStream is, @Nullable String passphrase)
       throws IOException
   {
     int count = 0;
@@ -179,6 +183,10 @@ public class FullBackupImporter extends FullBackupBase {
 
     ContentValues contentValues = new ContentValues();
 
+    // Thumbnails aren't part of the backup, so restored attachments are loaded from their data.
+    contentValues.putNull(AttachmentTable.THUMBNAIL_FILE);
+    contentValues.putNull(AttachmentTable.THUMBNAIL_RANDOM);
+
     try {
       inputStream.readAttachmentTo(output.second, attachment.length);
 
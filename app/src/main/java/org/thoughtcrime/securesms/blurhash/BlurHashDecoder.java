@@ -21,11 +21,11 @@
 package org.thoughtcrime.securesms.blurhash;
 
 import android.graphics.Bitmap;
-import android.graphics.Color;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.linearTosRGB;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.linearTosRGBLookup;
 import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.sRGBToLinear;
 import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.signPow;
 
@@ -36,17 +36,38 @@ class BlurHashDecoder {
   }
 
   static @Nullable Bitmap decode(@Nullable String blurHash, int width, int height, double punch) {
+    int[] pixels = new int[width * height];
 
-    if (blurHash == null || blurHash.length() < 6) {
+    if (!decode(blurHash, width, height, punch, pixels)) {
       return null;
     }
 
+    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+
+    return bitmap;
+  }
+
+  /**
+   * Decodes into a caller-provided array of ARGB pixels, row by row, so the same array can be reused across decodes.
+   *
+   * @return False if the hash is invalid, in which case the pixels are untouched.
+   */
+  static boolean decode(@Nullable String blurHash, int width, int height, double punch, @NonNull int[] pixels) {
+    if (pixels.length < width * height) {
+      throw new IllegalArgumentException("Pixels array is too small for " + width + "x" + height);
+    }
+
+    if (blurHash == null || blurHash.length() < 6) {
+      return false;
+    }
+
     int numCompEnc = Base83.decode(blurHash, 0, 1);
     int numCompX   = (numCompEnc % 9) + 1;
     int numCompY   = (numCompEnc / 9) + 1;
 
     if (blurHash.length() != 4 + 2 * numCompX * numCompY) {
-      return null;
+      return false;
     }
 
     int        maxAcEnc = Base83.decode(blurHash, 1, 2);
@@ -63,7 +84,9 @@ class BlurHashDecoder {
       }
     }
 
-    return composeBitmap(width, height, numCompX, numCompY, colors);
+    composePixels(width, height, numCompX, numCompY, colors, pixels);
+
+    return true;
   }
 
   private static double[] decodeDc(int colorEnc) {
@@ -86,8 +109,26 @@ class BlurHashDecoder {
     };
   }
 
-  private static Bitmap composeBitmap(int width, int height, int numCompX, int numCompY, double[][] colors) {
-    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+  /**
+   * The cosines are precomputed per axis and the pixels are converted back to sRGB through a lookup, so there's no trig or {@link Math#pow} per pixel.
+   * Each basis value is still the product of the two axis terms, summed in the original order, so the output is identical to evaluating them directly.
+   */
+  private static void composePixels(int width, int height, int numCompX, int numCompY, double[][] colors, int[] pixels) {
+    double[] cosX = new double[numCompX * width];
+    double[] cosY = new double[numCompY * height];
+
+    for (int i = 0; i < numCompX; i++) {
+      for (int x = 0; x < width; x++) {
+        cosX[i * width + x] = Math.cos(Math.PI * x * i / width);
+      }
+    }
+
+    for (int j = 0; j < numCompY; j++) {
+      for (int y = 0; y < height; y++) {
+        cosY[j * height + y] = Math.cos(Math.PI * y * j / height);
+      }
+    }
+
     for (int y = 0; y < height; y++) {
       for (int x = 0; x < width; x++) {
 
@@ -96,18 +137,19 @@ class BlurHashDecoder {
         double b = 0f;
 
         for (int j = 0; j < numCompY; j++) {
+          double basisY = cosY[j * height + y];
+
           for (int i = 0; i < numCompX; i++) {
-            double basis = (Math.cos(Math.PI * x * i / width) * Math.cos(Math.PI * y * j / height));
+            double   basis = cosX[i * width + x] * basisY;
             double[] color = colors[j * numCompX + i];
             r += color[0] * basis;
             g += color[1] * basis;
             b += color[2] * basis;
           }
         }
-        bitmap.setPixel(x, y, Color.rgb((int) linearTosRGB(r), (int) linearTosRGB(g), (int) linearTosRGB(b)));
+
+        pixels[y * width + x] = 0xff000000 | (linearTosRGBLookup(r) << 16) | (linearTosRGBLookup(g) << 8) | linearTosRGBLookup(b);
       }
     }
-
-    return bitmap;
   }
 }
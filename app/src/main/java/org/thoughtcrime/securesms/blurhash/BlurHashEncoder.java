@@ -28,10 +28,11 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.io.InputStream;
+import java.util.Arrays;
 
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.SRGB_TO_LINEAR;
 import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.linearTosRGB;
 import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.max;
-import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.sRGBToLinear;
 import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.signPow;
 
 public final class BlurHashEncoder {
@@ -58,32 +59,35 @@ public final class BlurHashEncoder {
   }
 
   static String encode(Bitmap bitmap, int componentX, int componentY) {
-    int width    = bitmap.getWidth();
-    int height   = bitmap.getHeight();
-    int[] pixels = new int[width * height];
-    bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-    return encode(pixels, width, height, componentX, componentY);
-  }
+    int width  = bitmap.getWidth();
+    int height = bitmap.getHeight();
 
-  private static String encode(int[] pixels, int width, int height, int componentX, int componentY) {
+    BasisAccumulator accumulator = new BasisAccumulator(width, height, componentX, componentY);
+    int[]            row         = new int[width];
 
-    if (componentX < 1 || componentX > 9 || componentY < 1 || componentY > 9) {
-      throw new IllegalArgumentException("Blur hash must have between 1 and 9 components");
+    for (int y = 0; y < height; y++) {
+      bitmap.getPixels(row, 0, width, 0, y, width, 1);
+      accumulator.addRow(row, 0, y);
     }
+
+    return encode(accumulator.getFactors(), componentX, componentY);
+  }
+
+  static String encode(int[] pixels, int width, int height, int componentX, int componentY) {
     if (width * height != pixels.length) {
       throw new IllegalArgumentException("Width and height must match the pixels array");
     }
 
-    double[][] factors = new double[componentX * componentY][3];
-    for (int j = 0; j < componentY; j++) {
-      for (int i = 0; i < componentX; i++) {
-        double normalisation = i == 0 && j == 0 ? 1 : 2;
-        applyBasisFunction(pixels, width, height,
-            normalisation, i, j,
-            factors, j * componentX + i);
-      }
+    BasisAccumulator accumulator = new BasisAccumulator(width, height, componentX, componentY);
+
+    for (int y = 0; y < height; y++) {
+      accumulator.addRow(pixels, y * width, y);
     }
 
+    return encode(accumulator.getFactors(), componentX, componentY);
+  }
+
+  private static String encode(double[][] factors, int componentX, int componentY) {
     char[] hash = new char[1 + 1 + 4 + 2 * (factors.length - 1)]; // size flag + max AC + DC + 2 * AC components
 
     long sizeFlag = componentX - 1 + (componentY - 1) * 9;
@@ -109,28 +113,6 @@ public final class BlurHashEncoder {
     return new String(hash);
   }
 
-  private static void applyBasisFunction(int[] pixels, int width, int height,
-                                         double normalisation, int i, int j,
-                                         double[][] factors, int index)
-  {
-    double r = 0, g = 0, b = 0;
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < height; y++) {
-        double basis = normalisation
-                     * Math.cos((Math.PI * i * x) / width)
-                     * Math.cos((Math.PI * j * y) / height);
-        int pixel = pixels[y * width + x];
-        r += basis * sRGBToLinear((pixel >> 16) & 0xff);
-        g += basis * sRGBToLinear((pixel >> 8)  & 0xff);
-        b += basis * sRGBToLinear( pixel        & 0xff);
-      }
-    }
-    double scale = 1.0 / (width * height);
-    factors[index][0] = r * scale;
-    factors[index][1] = g * scale;
-    factors[index][2] = b * scale;
-  }
-
   private static long encodeDC(double[] value) {
     long r = linearTosRGB(value[0]);
     long g = linearTosRGB(value[1]);
@@ -145,4 +127,90 @@ public final class BlurHashEncoder {
     return Math.round(quantR * 19 * 19 + quantG * 19 + quantB);
   }
 
+  /**
+   * Computes every basis factor in a single pass over the image, one row at a time.
+   *
+   * The basis is separable, cos(x) * cos(y), so each row is first reduced to one sum per horizontal component, and only those sums are weighted by the
+   * vertical components. Pixels are linearized once through a lookup table and the cosines are precomputed per axis, so nothing transcendental happens
+   * per pixel.
+   */
+  private static final class BasisAccumulator {
+
+    private final int      width;
+    private final int      height;
+    private final int      componentX;
+    private final int      componentY;
+    private final double[] cosX;
+    private final double[] cosY;
+    private final double[] rowSums;
+    private final double[] sums;
+
+    BasisAccumulator(int width, int height, int componentX, int componentY) {
+      if (componentX < 1 || componentX > 9 || componentY < 1 || componentY > 9) {
+        throw new IllegalArgumentException("Blur hash must have between 1 and 9 components");
+      }
+
+      this.width      = width;
+      this.height     = height;
+      this.componentX = componentX;
+      this.componentY = componentY;
+      this.cosX       = new double[componentX * width];
+      this.cosY       = new double[componentY * height];
+      this.rowSums    = new double[componentX * 3];
+      this.sums       = new double[componentX * componentY * 3];
+
+      for (int i = 0; i < componentX; i++) {
+        for (int x = 0; x < width; x++) {
+          cosX[i * width + x] = Math.cos((Math.PI * i * x) / width);
+        }
+      }
+
+      for (int j = 0; j < componentY; j++) {
+        for (int y = 0; y < height; y++) {
+          cosY[j * height + y] = Math.cos((Math.PI * j * y) / height);
+        }
+      }
+    }
+
+    void addRow(int[] pixels, int offset, int y) {
+      Arrays.fill(rowSums, 0);
+
+      for (int x = 0; x < width; x++) {
+        int    pixel = pixels[offset + x];
+        double r     = SRGB_TO_LINEAR[(pixel >> 16) & 0xff];
+        double g     = SRGB_TO_LINEAR[(pixel >> 8)  & 0xff];
+        double b     = SRGB_TO_LINEAR[ pixel        & 0xff];
+
+        for (int i = 0, c = 0; i < componentX; i++, c += 3) {
+          double basis = cosX[i * width + x];
+          rowSums[c]     += basis * r;
+          rowSums[c + 1] += basis * g;
+          rowSums[c + 2] += basis * b;
+        }
+      }
+
+      for (int j = 0, s = 0; j < componentY; j++) {
+        double basis = cosY[j * height + y];
+
+        for (int c = 0; c < rowSums.length; c++, s++) {
+          sums[s] += basis * rowSums[c];
+        }
+      }
+    }
+
+    double[][] getFactors() {
+      double     scale   = 1.0 / (width * height);
+      double[][] factors = new double[componentX * componentY][3];
+
+      for (int index = 0; index < factors.length; index++) {
+        double normalisation = index == 0 ? 1 : 2;
+
+        factors[index][0] = normalisation * sums[index * 3]     * scale;
+        factors[index][1] = normalisation * sums[index * 3 + 1] * scale;
+        factors[index][2] = normalisation * sums[index * 3 + 2] * scale;
+      }
+
+      return factors;
+    }
+  }
 }
@@ -16,6 +16,13 @@ public class BlurHashResourceDecoder implements ResourceDecoder<BlurHash, Bitmap
 
   private static final int MAX_DIMEN = 20;
 
+  private static final ThreadLocal<int[]> PIXELS = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[MAX_DIMEN * MAX_DIMEN];
+    }
+  };
+
   @Override
   public boolean handles(@NonNull BlurHash source, @NonNull Options options) throws IOException {
     return true;
@@ -34,6 +41,15 @@ public class BlurHashResourceDecoder implements ResourceDecoder<BlurHash, Bitmap
       finalWidth  = (int) (finalHeight * width / (float) height);
     }
 
-    return new SimpleResource<>(BlurHashDecoder.decode(source.getHash(), finalWidth, finalHeight));
+    int[] pixels = PIXELS.get();
+
+    if (!BlurHashDecoder.decode(source.getHash(), finalWidth, finalHeight, 1f, pixels)) {
+      return null;
+    }
+
+    Bitmap bitmap = Bitmap.createBitmap(finalWidth, finalHeight, Bitmap.Config.ARGB_8888);
+    bitmap.setPixels(pixels, 0, finalWidth, 0, 0, finalWidth, finalHeight);
+
+    return new SimpleResource<>(bitmap);
   }
 }
\ No newline at end of file
@@ -22,6 +22,38 @@ package org.thoughtcrime.securesms.blurhash;
 
 final class BlurHashUtil {
 
+  /** {@link #sRGBToLinear} for every possible channel value. */
+  static final double[] SRGB_TO_LINEAR = new double[256];
+
+  /**
+   * Element k - 1 is the smallest value that {@link #linearTosRGB} maps to k. Lets {@link #linearTosRGBLookup} find the exact same result with a binary search
+   * instead of a {@link Math#pow}.
+   */
+  private static final double[] LINEAR_TO_SRGB_THRESHOLDS = new double[255];
+
+  static {
+    for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+      SRGB_TO_LINEAR[i] = sRGBToLinear(i);
+    }
+
+    // linearTosRGB is monotonic and non-negative doubles sort the same as their bits, so bisect over the bits of [0, 1]
+    for (int k = 1; k <= LINEAR_TO_SRGB_THRESHOLDS.length; k++) {
+      long low  = Double.doubleToLongBits(0);
+      long high = Double.doubleToLongBits(1);
+
+      while (low < high) {
+        long mid = (low + high) >>> 1;
+        if (linearTosRGB(Double.longBitsToDouble(mid)) >= k) {
+          high = mid;
+        } else {
+          low = mid + 1;
+        }
+      }
+
+      LINEAR_TO_SRGB_THRESHOLDS[k - 1] = Double.longBitsToDouble(low);
+    }
+  }
+
   static double sRGBToLinear(long value) {
     double v = value / 255.0;
     if (v <= 0.04045) {
@@ -40,6 +72,25 @@ final class BlurHashUtil {
     }
   }
 
+  /**
+   * Equivalent to {@link #linearTosRGB}, without the cost of {@link Math#pow}.
+   */
+  static int linearTosRGBLookup(double value) {
+    int low  = 0;
+    int high = LINEAR_TO_SRGB_THRESHOLDS.length;
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (LINEAR_TO_SRGB_THRESHOLDS[mid] <= value) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
   static double signPow(double val, double exp) {
     return Math.copySign(Math.pow(Math.abs(val), exp), val);
   }
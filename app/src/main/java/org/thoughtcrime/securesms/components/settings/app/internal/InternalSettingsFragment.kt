@@ -612,6 +612,15 @@ class InternalSettingsFragment : DSLSettingsFragment(R.string.preferences__inter
           viewModel.setUseConversationFragmentV2(!state.useConversationFragmentV2)
         }
       )
+
+      switchPref(
+        title = DSLSettingsText.from("Defer message search indexing"),
+        summary = DSLSettingsText.from("Index new messages in the background rather than when they are inserted."),
+        isChecked = state.deferredSearchIndexing,
+        onClick = {
+          viewModel.setDeferredSearchIndexing(!state.deferredSearchIndexing)
+        }
+      )
     }
   }
 
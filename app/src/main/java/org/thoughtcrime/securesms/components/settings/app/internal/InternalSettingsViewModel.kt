@@ -4,6 +4,7 @@ import androidx.lifecycle.LiveData
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.ViewModelProvider
 import org.signal.ringrtc.CallManager
+import org.thoughtcrime.securesms.jobs.DeferredMessageSearchIndexJob
 import org.thoughtcrime.securesms.jobs.StoryOnboardingDownloadJob
 import org.thoughtcrime.securesms.keyvalue.InternalValues
 import org.thoughtcrime.securesms.keyvalue.SignalStore
@@ -109,6 +110,12 @@ class InternalSettingsViewModel(private val repository: InternalSettingsReposito
     refresh()
   }
 
+  fun setDeferredSearchIndexing(enabled: Boolean) {
+    SignalStore.internalValues().setDeferredSearchIndexing(enabled)
+    DeferredMessageSearchIndexJob.enqueue()
+    refresh()
+  }
+
   fun addSampleReleaseNote() {
     repository.addSampleReleaseNote()
   }
@@ -136,7 +143,8 @@ class InternalSettingsViewModel(private val repository: InternalSettingsReposito
     disableStorageService = SignalStore.internalValues().storageServiceDisabled(),
     canClearOnboardingState = SignalStore.storyValues().hasDownloadedOnboardingStory && Stories.isFeatureEnabled(),
     pnpInitialized = SignalStore.misc().hasPniInitializedDevices(),
-    useConversationFragmentV2 = SignalStore.internalValues().useConversationFragmentV2()
+    useConversationFragmentV2 = SignalStore.internalValues().useConversationFragmentV2(),
+    deferredSearchIndexing = SignalStore.internalValues().deferredSearchIndexing()
   )
 
   fun onClearOnboardingState() {
@@ -35,6 +35,9 @@ import java.util.Optional
 
 private val TAG = Log.tag(ConversationSettingsRepository::class.java)
 
+/** The shared media rail only shows the newest media. The rest is in the media overview. */
+private const val SHARED_MEDIA_RAIL_LIMIT = 50
+
 class ConversationSettingsRepository(
   private val context: Context,
   private val groupManagementRepository: GroupManagementRepository = GroupManagementRepository(context)
@@ -61,7 +64,7 @@ class ConversationSettingsRepository(
     return if (threadId <= 0) {
       Optional.empty()
     } else {
-      Optional.of(SignalDatabase.media.getGalleryMediaForThread(threadId, MediaTable.Sorting.Newest))
+      Optional.of(SignalDatabase.media.getGalleryMediaForThread(threadId, MediaTable.Sorting.Newest, SHARED_MEDIA_RAIL_LIMIT))
     }
   }
 
@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.contacts.paged
 
 import org.thoughtcrime.securesms.contacts.HeaderAction
+import org.thoughtcrime.securesms.database.SearchTable
 
 /**
  * A strongly typed descriptor of how a given list of contacts should be formatted
@@ -156,15 +157,16 @@ class ContactSearchConfiguration private constructor(
 
     /**
      * Message search results, only displayed when there
-     * is a search query.
+     * is a search query. Ordered by [ranking].
      *
      * Key: [ContactSearchKey.Message]
      * Data: [ContactSearchData.Message]
      * Model: [ContactSearchAdapter.MessageModel]
      */
-    data class Messages(
+    data class Messages @JvmOverloads constructor(
       override val includeHeader: Boolean = true,
-      override val expandConfig: ExpandConfig? = null
+      override val expandConfig: ExpandConfig? = null,
+      val ranking: SearchTable.Ranking = SearchTable.Ranking.RELEVANCE
     ) : Section(SectionKey.MESSAGES)
 
     /**
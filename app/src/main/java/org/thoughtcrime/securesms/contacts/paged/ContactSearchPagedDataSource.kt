@@ -17,7 +17,6 @@ import org.thoughtcrime.securesms.phonenumbers.NumberUtil
 import org.thoughtcrime.securesms.recipients.Recipient
 import org.thoughtcrime.securesms.recipients.RecipientId
 import org.thoughtcrime.securesms.search.MessageResult
-import org.thoughtcrime.securesms.search.MessageSearchResult
 import org.thoughtcrime.securesms.search.SearchRepository
 import org.thoughtcrime.securesms.search.ThreadSearchResult
 import org.thoughtcrime.securesms.util.FeatureFlags
@@ -36,6 +35,7 @@ class ContactSearchPagedDataSource(
 
   companion object {
     private val ACTIVE_STORY_CUTOFF_DURATION = TimeUnit.DAYS.toMillis(1)
+    private const val MESSAGE_PAGE_SIZE = 50
   }
 
   private val latestStorySends: List<StorySend> = contactSearchPagedDataSourceRepository.getLatestStorySends(ACTIVE_STORY_CUTOFF_DURATION)
@@ -136,7 +136,7 @@ class ContactSearchPagedDataSource(
       is ContactSearchConfiguration.Section.Arbitrary -> arbitraryRepository?.getSize(section, query) ?: error("Invalid arbitrary section.")
       is ContactSearchConfiguration.Section.GroupMembers -> getGroupMembersSearchIterator(query).getCollectionSize(section, query, null)
       is ContactSearchConfiguration.Section.Chats -> getThreadData(query, section.isUnreadOnly).getCollectionSize(section, query, null)
-      is ContactSearchConfiguration.Section.Messages -> getMessageData(query).getCollectionSize(section, query, null)
+      is ContactSearchConfiguration.Section.Messages -> getMessageData(section, query).getCollectionSize(section, query, null)
       is ContactSearchConfiguration.Section.GroupsWithMembers -> getGroupsWithMembersIterator(query).getCollectionSize(section, query, null)
       is ContactSearchConfiguration.Section.ContactsWithoutThreads -> getContactsWithoutThreadsIterator(query).getCollectionSize(section, query, null)
       is ContactSearchConfiguration.Section.PhoneNumber -> if (isPossiblyPhoneNumber(query)) 1 else 0
@@ -438,22 +438,22 @@ class ContactSearchPagedDataSource(
     }
   }
 
-  private fun getMessageData(query: String?): ContactSearchIterator<MessageResult> {
+  private fun getMessageData(section: ContactSearchConfiguration.Section.Messages, query: String?): ContactSearchIterator<MessageResult> {
     check(searchRepository != null)
 
-    if (searchCache.messageSearchResult == null && query != null) {
-      searchCache = searchCache.copy(messageSearchResult = searchRepository.queryMessagesSync(query))
+    if (searchCache.messageSearchIterator == null && query != null) {
+      searchCache = searchCache.copy(messageSearchIterator = PagedMessageSearchIterator(searchRepository.queryMessagesPaged(query, section.ranking)))
     }
 
     return if (query != null) {
-      ListSearchIterator(searchCache.messageSearchResult!!.results)
+      searchCache.messageSearchIterator!!
     } else {
       ListSearchIterator(emptyList())
     }
   }
 
   private fun getMessageContactData(section: ContactSearchConfiguration.Section.Messages, query: String?, startIndex: Int, endIndex: Int): List<ContactSearchData> {
-    return getMessageData(query).use { records ->
+    return getMessageData(section, query).use { records ->
       readContactData(
         records = records,
         recordsPredicate = null,
@@ -512,7 +512,7 @@ class ContactSearchPagedDataSource(
    * Caches search results of particularly intensive queries.
    */
   private data class SearchCache(
-    val messageSearchResult: MessageSearchResult? = null,
+    val messageSearchIterator: PagedMessageSearchIterator? = null,
     val threadSearchResult: ThreadSearchResult? = null
   )
 
@@ -551,4 +551,51 @@ class ContactSearchPagedDataSource(
 
     override fun close() = Unit
   }
+
+  /**
+   * Walks over the results of a message search, loading them from the database a page at a time as they're needed. Loaded pages are kept, so it
+   * can be reused across loads of the same search. Each page is loaded from where the one before it ended, so jumping ahead loads the pages in between.
+   *
+   * The count is taken once, up front, and messages can be deleted or expire after that, so this ends early if the pages run out before the count does.
+   */
+  private class PagedMessageSearchIterator(private val search: SearchRepository.PagedMessageSearch) : ContactSearchIterator<MessageResult> {
+
+    private val pages: MutableList<SearchRepository.MessagePage> = ArrayList()
+
+    private var position = -1
+
+    override fun moveToPosition(n: Int) {
+      position = n
+    }
+
+    override fun getCount(): Int = search.size
+
+    override fun hasNext(): Boolean = getOrLoad(position + 1) != null
+
+    override fun next(): MessageResult {
+      val result = getOrLoad(position + 1) ?: throw NoSuchElementException()
+      position++
+      return result
+    }
+
+    private fun getOrLoad(index: Int): MessageResult? {
+      if (index >= search.size) {
+        return null
+      }
+
+      val pageIndex = index / MESSAGE_PAGE_SIZE
+      while (pages.size <= pageIndex) {
+        val previous = pages.lastOrNull()
+        if (previous != null && previous.results.size < MESSAGE_PAGE_SIZE) {
+          return null
+        }
+
+        pages += search.getPage(previous?.lastKey, MESSAGE_PAGE_SIZE)
+      }
+
+      return pages[pageIndex].results.getOrNull(index % MESSAGE_PAGE_SIZE)
+    }
+
+    override fun close() = Unit
+  }
 }
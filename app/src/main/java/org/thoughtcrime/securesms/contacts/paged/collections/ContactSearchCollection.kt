@@ -65,6 +65,10 @@ open class ContactSearchCollection<ContactRecord>(
 
     for (i in (start + startOffset) until (end - endOffset)) {
       val correctedIndex = if (section.includeHeader) i - 1 else i
+      if (!hasItemAtCorrectedIndex(correctedIndex)) {
+        break
+      }
+
       results.add(getItemAtCorrectedIndex(correctedIndex))
     }
 
@@ -75,6 +79,18 @@ open class ContactSearchCollection<ContactRecord>(
     return results
   }
 
+  /**
+   * Records that are loaded lazily can run out before the count they were sized with, if they changed in between.
+   */
+  open fun hasItemAtCorrectedIndex(correctedIndex: Int): Boolean {
+    return if (recordPredicate == null) {
+      records.moveToPosition(correctedIndex - 1)
+      records.hasNext()
+    } else {
+      aggregateData.containsKey(correctedIndex)
+    }
+  }
+
   open fun getItemAtCorrectedIndex(correctedIndex: Int): ContactSearchData {
     return if (recordPredicate == null) {
       records.moveToPosition(correctedIndex - 1)
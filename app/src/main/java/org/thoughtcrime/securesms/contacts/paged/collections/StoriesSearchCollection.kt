@@ -27,6 +27,10 @@ class StoriesSearchCollection<ContactRecord>(
 
   override val contentSize: Int = records.getCount() + extraData.size
 
+  override fun hasItemAtCorrectedIndex(correctedIndex: Int): Boolean {
+    return correctedIndex < aggregateStoryData.size
+  }
+
   override fun getItemAtCorrectedIndex(correctedIndex: Int): ContactSearchData {
     return aggregateStoryData[correctedIndex]
   }
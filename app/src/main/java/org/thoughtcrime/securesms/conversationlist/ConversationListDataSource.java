@@ -74,7 +74,14 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
     List<Recipient>    recipients    = new LinkedList<>();
     Set<RecipientId>   needsResolve  = new HashSet<>();
 
-    try (ConversationReader reader = new ConversationReader(getCursor(start, length))) {
+    Cursor cursor = getCursor(start, length);
+
+    if (start == 0 && isSnapshotted()) {
+      ConversationListSnapshot.capture(cursor);
+      stopwatch.split("snapshot");
+    }
+
+    try (ConversationReader reader = new ConversationReader(cursor)) {
       ThreadRecord record;
       while ((record = reader.getNext()) != null && !cancellationSignal.isCanceled()) {
         conversations.add(new Conversation(record));
@@ -127,6 +134,13 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
   protected abstract int getTotalCount();
   protected abstract Cursor getCursor(long offset, long limit);
 
+  /**
+   * Whether the first page of this list is what gets shown from a {@link ConversationListSnapshot} on a cold start.
+   */
+  protected boolean isSnapshotted() {
+    return false;
+  }
+
   private static class ArchivedConversationListDataSource extends ConversationListDataSource {
 
     private int totalCount;
@@ -193,6 +207,11 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
       return totalCount;
     }
 
+    @Override
+    protected boolean isSnapshotted() {
+      return conversationFilter == ConversationFilter.OFF;
+    }
+
     @Override
     protected Cursor getCursor(long offset, long limit) {
       List<Cursor> cursors       = new ArrayList<>(5);
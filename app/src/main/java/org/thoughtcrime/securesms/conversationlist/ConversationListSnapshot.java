@@ -0,0 +1,419 @@
+package org.thoughtcrime.securesms.conversationlist;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.signal.core.util.concurrent.SignalExecutors;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.conversationlist.model.Conversation;
+import org.thoughtcrime.securesms.conversationlist.model.ConversationReader;
+import org.thoughtcrime.securesms.database.ThreadTable;
+import org.thoughtcrime.securesms.database.helpers.SignalDatabaseMigrations;
+import org.thoughtcrime.securesms.database.model.ThreadRecord;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.keyvalue.SignalStore;
+import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.EncryptedStreamUtils;
+import org.thoughtcrime.securesms.util.SignalTrace;
+import org.whispersystems.signalservice.api.push.ACI;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An encrypted copy of the rows behind the first screen of the conversation list, so that on a cold start the list can be shown before the
+ * conversation list query has run.
+ *
+ * Only the thread columns that are displayed are kept, along with the header and footer rows. They're read back through a
+ * {@link ConversationReader} that resolves each recipient instead of reading the recipient and group columns, so names and avatars are current
+ * rather than what they were when the snapshot was written. Every recipient is resolved up front, since on a cold start the recipient cache is
+ * empty and {@link Recipient#live(RecipientId)} alone would only give placeholders. A new snapshot is written each time the
+ * first page of the list is loaded, which happens after every change to it.
+ */
+final class ConversationListSnapshot {
+
+  private static final String TAG = Log.tag(ConversationListSnapshot.class);
+
+  private static final String FILE_NAME = "conversation-list-snapshot";
+  private static final int    VERSION   = 2;
+
+  /** Enough rows to fill the first screen on any device. */
+  static final int MAX_ROWS = 20;
+
+  /** The thread columns {@link ThreadTable.StaticReader} reads, other than the recipient and group columns. */
+  private static final String[] THREAD_COLUMNS = {
+      ThreadTable.ID,
+      ThreadTable.RECIPIENT_ID,
+      ThreadTable.SNIPPET_TYPE,
+      ThreadTable.TYPE,
+      ThreadTable.SNIPPET,
+      ThreadTable.DATE,
+      ThreadTable.ARCHIVED,
+      ThreadTable.STATUS,
+      ThreadTable.DELIVERY_RECEIPT_COUNT,
+      ThreadTable.READ_RECEIPT_COUNT,
+      ThreadTable.EXPIRES_IN,
+      ThreadTable.LAST_SEEN,
+      ThreadTable.SNIPPET_URI,
+      ThreadTable.SNIPPET_CONTENT_TYPE,
+      ThreadTable.SNIPPET_EXTRAS,
+      ThreadTable.MEANINGFUL_MESSAGES,
+      ThreadTable.UNREAD_COUNT,
+      ThreadTable.READ,
+      ThreadTable.PINNED,
+      ThreadTable.UNREAD_SELF_MENTION_COUNT
+  };
+
+  private static final byte TYPE_NULL    = 0;
+  private static final byte TYPE_INTEGER = 1;
+  private static final byte TYPE_FLOAT   = 2;
+  private static final byte TYPE_STRING  = 3;
+  private static final byte TYPE_BLOB    = 4;
+
+  private static final Object LOCK = new Object();
+
+  private static byte[] lastWritten;
+
+  private ConversationListSnapshot() {}
+
+  /**
+   * Copies the first {@link #MAX_ROWS} rows of the cursor and writes them to the snapshot in the background. The cursor is left positioned
+   * before its first row, ready to be read as usual.
+   */
+  @WorkerThread
+  static void capture(@NonNull Cursor cursor) {
+    List<Row> rows = new ArrayList<>(MAX_ROWS);
+
+    while (rows.size() < MAX_ROWS && cursor.moveToNext()) {
+      rows.add(Row.copy(cursor));
+    }
+
+    cursor.moveToPosition(-1);
+
+    ACI aci = SignalStore.account().getAci();
+
+    SignalExecutors.SERIAL.execute(() -> write(rows, aci));
+  }
+
+  /**
+   * @return The conversations in the snapshot, or null if there isn't one, or it was written for another account or database version.
+   */
+  @WorkerThread
+  static @Nullable List<Conversation> read() {
+    SignalTrace.beginSection("ConversationListSnapshot#read");
+    try {
+      File file = getFile(ApplicationDependencies.getApplication());
+
+      if (!file.exists()) {
+        return null;
+      }
+
+      List<Row> rows;
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(EncryptedStreamUtils.INSTANCE.getInputStream(ApplicationDependencies.getApplication(), file)))) {
+        rows = readRows(in);
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to read the snapshot.", e);
+        return null;
+      }
+
+      if (rows == null || rows.isEmpty()) {
+        return null;
+      }
+
+      List<Conversation> conversations = new ArrayList<>(rows.size());
+
+      try (ConversationReader reader = new SnapshotReader(toCursor(rows), resolveRecipients(rows))) {
+        ThreadRecord record;
+        while ((record = reader.getNext()) != null) {
+          conversations.add(new Conversation(record));
+        }
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to build conversations from the snapshot.", e);
+        return null;
+      }
+
+      return conversations;
+    } finally {
+      SignalTrace.endSection();
+    }
+  }
+
+  /**
+   * Deletes the snapshot, for when it can't be read back.
+   */
+  @WorkerThread
+  static void delete() {
+    synchronized (LOCK) {
+      File file = getFile(ApplicationDependencies.getApplication());
+
+      if (file.exists() && !file.delete()) {
+        Log.w(TAG, "Failed to delete the snapshot.");
+      }
+
+      lastWritten = null;
+    }
+  }
+
+  @WorkerThread
+  private static void write(@NonNull List<Row> rows, @Nullable ACI aci) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        out.writeInt(VERSION);
+        out.writeInt(SignalDatabaseMigrations.DATABASE_VERSION);
+        out.writeUTF(aci != null ? aci.toString() : "");
+        out.writeInt(rows.size());
+
+        for (Row row : rows) {
+          row.write(out);
+        }
+      }
+
+      byte[] serialized = bytes.toByteArray();
+
+      synchronized (LOCK) {
+        if (Arrays.equals(serialized, lastWritten)) {
+          return;
+        }
+
+        Context context   = ApplicationDependencies.getApplication();
+        File    file      = getFile(context);
+        File    temporary = new File(file.getParentFile(), FILE_NAME + ".tmp");
+
+        try (OutputStream out = new BufferedOutputStream(EncryptedStreamUtils.INSTANCE.getOutputStream(context, temporary))) {
+          out.write(serialized);
+        }
+
+        if (!temporary.renameTo(file)) {
+          throw new IOException("Failed to replace the snapshot.");
+        }
+
+        lastWritten = serialized;
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write the snapshot.", e);
+    }
+  }
+
+  private static @Nullable List<Row> readRows(@NonNull DataInputStream in) throws IOException {
+    if (in.readInt() != VERSION || in.readInt() != SignalDatabaseMigrations.DATABASE_VERSION) {
+      Log.i(TAG, "Ignoring a snapshot written by a different version.");
+      return null;
+    }
+
+    ACI aci = SignalStore.account().getAci();
+
+    if (!in.readUTF().equals(aci != null ? aci.toString() : "")) {
+      Log.i(TAG, "Ignoring a snapshot written for a different account.");
+      return null;
+    }
+
+    int       count = in.readInt();
+    List<Row> rows  = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      rows.add(Row.read(in));
+    }
+
+    return rows;
+  }
+
+  /**
+   * Rebuilds a cursor over the rows. Consecutive rows with the same columns share a {@link MatrixCursor}, so the header and footer rows the
+   * conversation list mixes in keep their own columns, as they do in the original {@link MergeCursor}.
+   */
+  private static @NonNull Cursor toCursor(@NonNull List<Row> rows) {
+    List<Cursor> cursors = new ArrayList<>();
+    MatrixCursor current = null;
+    String[]     columns = null;
+
+    for (Row row : rows) {
+      if (current == null || !Arrays.equals(columns, row.columns)) {
+        columns = row.columns;
+        current = new MatrixCursor(columns);
+        cursors.add(current);
+      }
+
+      current.addRow(row.values);
+    }
+
+    if (cursors.isEmpty()) {
+      return new MatrixCursor(new String[0]);
+    }
+
+    return new MergeCursor(cursors.toArray(new Cursor[0]));
+  }
+
+  @WorkerThread
+  private static @NonNull Map<RecipientId, Recipient> resolveRecipients(@NonNull List<Row> rows) {
+    Set<RecipientId> ids = new LinkedHashSet<>(rows.size());
+
+    for (Row row : rows) {
+      RecipientId id = row.getRecipientId();
+      if (id != null) {
+        ids.add(id);
+      }
+    }
+
+    Map<RecipientId, Recipient> recipients = new HashMap<>(ids.size());
+
+    for (Recipient recipient : Recipient.resolvedList(ids)) {
+      recipients.put(recipient.getId(), recipient);
+    }
+
+    return recipients;
+  }
+
+  private static @NonNull File getFile(@NonNull Context context) {
+    return new File(context.getCacheDir(), FILE_NAME);
+  }
+
+  /**
+   * Reads the snapshot's thread rows, which have no recipient or group columns, using the recipients resolved for them instead.
+   */
+  private static final class SnapshotReader extends ConversationReader {
+    private final Map<RecipientId, Recipient> recipients;
+
+    SnapshotReader(@NonNull Cursor cursor, @NonNull Map<RecipientId, Recipient> recipients) {
+      super(cursor);
+      this.recipients = recipients;
+    }
+
+    @Override
+    protected @NonNull Recipient readRecipient(@NonNull RecipientId recipientId) {
+      Recipient recipient = recipients.get(recipientId);
+      return recipient != null ? recipient : Recipient.live(recipientId).get();
+    }
+  }
+
+  private static final class Row {
+    private final String[] columns;
+    private final Object[] values;
+
+    private Row(@NonNull String[] columns, @NonNull Object[] values) {
+      this.columns = columns;
+      this.values  = values;
+    }
+
+    /**
+     * @return The recipient of a thread row, or null for a header or footer row.
+     */
+    @Nullable RecipientId getRecipientId() {
+      for (int i = 0; i < columns.length; i++) {
+        if (ThreadTable.RECIPIENT_ID.equals(columns[i]) && values[i] instanceof Long) {
+          return RecipientId.from((Long) values[i]);
+        }
+      }
+
+      return null;
+    }
+
+    /**
+     * Copies a header or footer row whole, and only the {@link #THREAD_COLUMNS} of a thread row.
+     */
+    static @NonNull Row copy(@NonNull Cursor cursor) {
+      String[] columns = cursor.getColumnIndex(ConversationReader.HEADER_COLUMN[0]) == -1 ? THREAD_COLUMNS : cursor.getColumnNames();
+      Object[] values  = new Object[columns.length];
+
+      for (int i = 0; i < columns.length; i++) {
+        int index = cursor.getColumnIndexOrThrow(columns[i]);
+
+        switch (cursor.getType(index)) {
+          case Cursor.FIELD_TYPE_INTEGER: values[i] = cursor.getLong(index);   break;
+          case Cursor.FIELD_TYPE_FLOAT:   values[i] = cursor.getDouble(index); break;
+          case Cursor.FIELD_TYPE_STRING:  values[i] = cursor.getString(index); break;
+          case Cursor.FIELD_TYPE_BLOB:    values[i] = cursor.getBlob(index);   break;
+          default:                        values[i] = null;
+        }
+      }
+
+      return new Row(columns, values);
+    }
+
+    void write(@NonNull DataOutputStream out) throws IOException {
+      out.writeInt(columns.length);
+
+      for (int i = 0; i < columns.length; i++) {
+        Object value = values[i];
+
+        out.writeUTF(columns[i]);
+
+        if (value instanceof Long) {
+          out.writeByte(TYPE_INTEGER);
+          out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+          out.writeByte(TYPE_FLOAT);
+          out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+          out.writeByte(TYPE_STRING);
+          writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof byte[]) {
+          out.writeByte(TYPE_BLOB);
+          writeBytes(out, (byte[]) value);
+        } else {
+          out.writeByte(TYPE_NULL);
+        }
+      }
+    }
+
+    static @NonNull Row read(@NonNull DataInputStream in) throws IOException {
+      int      count   = in.readInt();
+      String[] columns = new String[count];
+      Object[] values  = new Object[count];
+
+      for (int i = 0; i < count; i++) {
+        columns[i] = in.readUTF();
+
+        switch (in.readByte()) {
+          case TYPE_INTEGER: values[i] = in.readLong();                                     break;
+          case TYPE_FLOAT:   values[i] = in.readDouble();                                   break;
+          case TYPE_STRING:  values[i] = new String(readBytes(in), StandardCharsets.UTF_8); break;
+          case TYPE_BLOB:    values[i] = readBytes(in);                                     break;
+          case TYPE_NULL:    values[i] = null;                                              break;
+          default:           throw new IOException("Unknown value type!");
+        }
+      }
+
+      return new Row(columns, values);
+    }
+
+    private static void writeBytes(@NonNull DataOutputStream out, @NonNull byte[] bytes) throws IOException {
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    private static @NonNull byte[] readBytes(@NonNull DataInputStream in) throws IOException {
+      int length = in.readInt();
+
+      if (length < 0) {
+        throw new IOException("Negative length!");
+      }
+
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return bytes;
+    }
+  }
+}
@@ -5,10 +5,12 @@ import androidx.lifecycle.ViewModelProvider
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers
 import io.reactivex.rxjava3.core.BackpressureStrategy
 import io.reactivex.rxjava3.core.Flowable
+import io.reactivex.rxjava3.core.Maybe
 import io.reactivex.rxjava3.core.Observable
 import io.reactivex.rxjava3.disposables.CompositeDisposable
 import io.reactivex.rxjava3.kotlin.addTo
 import io.reactivex.rxjava3.schedulers.Schedulers
+import org.signal.core.util.logging.Log
 import org.signal.paging.PagedData
 import org.signal.paging.PagingConfig
 import org.signal.paging.ProxyPagingController
@@ -37,6 +39,8 @@ class ConversationListViewModel(
 ) : ViewModel() {
 
   companion object {
+    private val TAG = Log.tag(ConversationListViewModel::class.java)
+
     private var coldStart = true
   }
 
@@ -91,9 +95,27 @@ class ConversationListViewModel(
       .doOnNext { controller.set(it.controller) }
       .switchMap { it.data.toFlowable(BackpressureStrategy.LATEST) }
 
-    store.update(pagedData) { conversations, state -> state.copy(conversations = conversations) }
+    store.update(pagedData) { conversations, state -> state.copy(conversations = conversations, hasLiveData = true) }
       .addTo(disposables)
 
+    // On a cold start, show the snapshot of the first screen until the live data replaces it. The adapter diffs by thread, so rows that
+    // haven't changed since the snapshot was written aren't rebound.
+    if (!isArchived && coldStart) {
+      Maybe
+        .fromCallable<List<Conversation>> { ConversationListSnapshot.read() }
+        .subscribeOn(Schedulers.io())
+        .subscribe(
+          { snapshot ->
+            store.update { if (it.hasLiveData || it.filterRequest.filter != ConversationFilter.OFF) it else it.copy(conversations = snapshot) }
+          },
+          { error ->
+            Log.w(TAG, "Failed to show the conversation list snapshot. Deleting it.", error)
+            ConversationListSnapshot.delete()
+          }
+        )
+        .addTo(disposables)
+    }
+
     RxDatabaseObserver
       .conversationList
       .throttleLatest(500, TimeUnit.MILLISECONDS)
@@ -208,7 +230,8 @@ class ConversationListViewModel(
     val selectedConversations: ConversationSet = ConversationSet(),
     val internalSelection: Set<Conversation> = emptySet(),
     val filterRequest: ConversationFilterRequest = ConversationFilterRequest(ConversationFilter.OFF, ConversationFilterSource.DRAG),
-    val pinnedCount: Int = 0
+    val pinnedCount: Int = 0,
+    val hasLiveData: Boolean = false
   )
 
   class Factory(private val isArchived: Boolean) : ViewModelProvider.Factory {
@@ -44,6 +44,7 @@ import org.signal.core.util.StreamUtil;
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.attachments.Attachment;
 import org.thoughtcrime.securesms.attachments.AttachmentId;
+import org.thoughtcrime.securesms.attachments.AttachmentThumbnails;
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
 import org.thoughtcrime.securesms.audio.AudioHash;
 import org.thoughtcrime.securesms.blurhash.BlurHash;
@@ -52,6 +53,7 @@ import org.thoughtcrime.securesms.crypto.ClassicDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
 import org.thoughtcrime.securesms.database.model.databaseprotos.AudioWaveFormData;
+import org.thoughtcrime.securesms.jobs.GenerateAttachmentThumbnailsJob;
 import org.thoughtcrime.securesms.jobs.GenerateAudioWaveFormJob;
 import org.thoughtcrime.securesms.mms.MediaStream;
 import org.thoughtcrime.securesms.mms.MmsException;
@@ -66,6 +68,9 @@ import org.thoughtcrime.securesms.util.StorageUtil;
 import org.thoughtcrime.securesms.video.EncryptedMediaDataSource;
 import org.whispersystems.signalservice.internal.util.JsonUtil;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -126,6 +131,9 @@ public class AttachmentTable extends DatabaseTable {
           static final String DISPLAY_ORDER          = "display_order";
           static final String UPLOAD_TIMESTAMP       = "upload_timestamp";
           static final String CDN_NUMBER             = "cdn_number";
+          static final String MEDIA_CATEGORY         = "media_category";
+  public  static final String THUMBNAIL_FILE         = "thumbnail_file";
+  public  static final String THUMBNAIL_RANDOM       = "thumbnail_random";
 
   private static final String DIRECTORY              = "parts";
 
@@ -135,6 +143,17 @@ public class AttachmentTable extends DatabaseTable {
   public static final int TRANSFER_PROGRESS_FAILED            = 3;
   public static final int TRANSFER_PROGRESS_PERMANENT_FAILURE = 4;
 
+  /**
+   * Values for {@link #MEDIA_CATEGORY}, which classifies attachments by content type the same way the media overview does, so that media queries can filter
+   * on an indexed integer rather than matching content type patterns. See {@link #getMediaCategory(String)}.
+   */
+  static final int MEDIA_CATEGORY_NONE      = 0;
+  static final int MEDIA_CATEGORY_IMAGE     = 1;
+  static final int MEDIA_CATEGORY_VIDEO     = 2;
+  static final int MEDIA_CATEGORY_AUDIO     = 3;
+  static final int MEDIA_CATEGORY_DOCUMENT  = 4;
+  static final int MEDIA_CATEGORY_LONG_TEXT = 5;
+
   public static final long PREUPLOAD_MESSAGE_ID = -8675309;
 
   private static final String PART_ID_WHERE     = ROW_ID + " = ? AND " + UNIQUE_ID + " = ?";
@@ -188,14 +207,18 @@ public class AttachmentTable extends DatabaseTable {
                                                                                   TRANSFER_FILE          + " TEXT DEFAULT NULL, " +
                                                                                   DISPLAY_ORDER          + " INTEGER DEFAULT 0, " +
                                                                                   UPLOAD_TIMESTAMP       + " INTEGER DEFAULT 0, " +
-                                                                                  CDN_NUMBER             + " INTEGER DEFAULT 0);";
+                                                                                  CDN_NUMBER             + " INTEGER DEFAULT 0, " +
+                                                                                  MEDIA_CATEGORY         + " INTEGER DEFAULT 0, " +
+                                                                                  THUMBNAIL_FILE         + " TEXT DEFAULT NULL, " +
+                                                                                  THUMBNAIL_RANDOM       + " BLOB DEFAULT NULL);";
 
   public static final String[] CREATE_INDEXS = {
-    "CREATE INDEX IF NOT EXISTS part_mms_id_index ON " + TABLE_NAME + " (" + MMS_ID + ");",
+    "CREATE INDEX IF NOT EXISTS part_mms_id_media_category_index ON " + TABLE_NAME + " (" + MMS_ID + ", " + MEDIA_CATEGORY + ");",
     "CREATE INDEX IF NOT EXISTS pending_push_index ON " + TABLE_NAME + " (" + TRANSFER_STATE + ");",
     "CREATE INDEX IF NOT EXISTS part_sticker_pack_id_index ON " + TABLE_NAME + " (" + STICKER_PACK_ID + ");",
     "CREATE INDEX IF NOT EXISTS part_data_hash_index ON " + TABLE_NAME + " (" + DATA_HASH + ");",
-    "CREATE INDEX IF NOT EXISTS part_data_index ON " + TABLE_NAME + " (" + DATA + ");"
+    "CREATE INDEX IF NOT EXISTS part_data_index ON " + TABLE_NAME + " (" + DATA + ");",
+    "CREATE INDEX IF NOT EXISTS part_media_storage_index ON " + TABLE_NAME + " (" + DATA + ", " + SIZE + ", " + MEDIA_CATEGORY + ") WHERE " + TRANSFER_STATE + " = " + TRANSFER_PROGRESS_DONE + " AND " + STICKER_PACK_ID + " IS NULL;"
   };
 
   private final AttachmentSecret attachmentSecret;
@@ -362,9 +385,10 @@ public class AttachmentTable extends DatabaseTable {
 
     db.beginTransaction();
     try {
-      try (Cursor cursor = db.query(TABLE_NAME, new String[] { DATA, CONTENT_TYPE, ROW_ID, UNIQUE_ID }, MMS_ID + " = ?", new String[] { mmsId + "" }, null, null, null)) {
+      try (Cursor cursor = db.query(TABLE_NAME, new String[] { DATA, THUMBNAIL_FILE, CONTENT_TYPE, ROW_ID, UNIQUE_ID }, MMS_ID + " = ?", new String[] { mmsId + "" }, null, null, null)) {
         while (cursor.moveToNext()) {
           deleteAttachmentOnDisk(CursorUtil.requireString(cursor, DATA),
+                                 CursorUtil.requireString(cursor, THUMBNAIL_FILE),
                                  CursorUtil.requireString(cursor, CONTENT_TYPE),
                                  new AttachmentId(CursorUtil.requireLong(cursor, ROW_ID),
                                                   CursorUtil.requireLong(cursor, UNIQUE_ID)));
@@ -415,9 +439,10 @@ public class AttachmentTable extends DatabaseTable {
 
     db.beginTransaction();
     try {
-      try (Cursor cursor = db.query(TABLE_NAME, new String[] { DATA, CONTENT_TYPE, ROW_ID, UNIQUE_ID }, MMS_ID + " = ?", new String[] { mmsId + "" }, null, null, null)) {
+      try (Cursor cursor = db.query(TABLE_NAME, new String[] { DATA, THUMBNAIL_FILE, CONTENT_TYPE, ROW_ID, UNIQUE_ID }, MMS_ID + " = ?", new String[] { mmsId + "" }, null, null, null)) {
         while (cursor != null && cursor.moveToNext()) {
           deleteAttachmentOnDisk(CursorUtil.requireString(cursor, DATA),
+                                 CursorUtil.requireString(cursor, THUMBNAIL_FILE),
                                  CursorUtil.requireString(cursor, CONTENT_TYPE),
                                  new AttachmentId(CursorUtil.requireLong(cursor, ROW_ID),
                                                   CursorUtil.requireLong(cursor, UNIQUE_ID)));
@@ -435,7 +460,10 @@ public class AttachmentTable extends DatabaseTable {
       values.put(HEIGHT, 0);
       values.put(TRANSFER_STATE, TRANSFER_PROGRESS_DONE);
       values.put(VISUAL_HASH, (String) null);
+      values.put(THUMBNAIL_FILE, (String) null);
+      values.put(THUMBNAIL_RANDOM, (byte[]) null);
       values.put(CONTENT_TYPE, MediaUtil.VIEW_ONCE);
+      values.put(MEDIA_CATEGORY, getMediaCategory(MediaUtil.VIEW_ONCE));
 
       db.update(TABLE_NAME, values, MMS_ID + " = ?", new String[] { mmsId + "" });
       notifyAttachmentListeners();
@@ -457,17 +485,18 @@ public class AttachmentTable extends DatabaseTable {
 
     db.beginTransaction();
     try {
-      try (Cursor cursor = db.query(TABLE_NAME, new String[]{DATA, CONTENT_TYPE}, PART_ID_WHERE, id.toStrings(), null, null, null)) {
+      try (Cursor cursor = db.query(TABLE_NAME, new String[]{DATA, THUMBNAIL_FILE, CONTENT_TYPE}, PART_ID_WHERE, id.toStrings(), null, null, null)) {
         if (!cursor.moveToNext()) {
           Log.w(TAG, "Tried to delete an attachment, but it didn't exist.");
           db.setTransactionSuccessful();
           return;
         }
         String data        = CursorUtil.requireString(cursor, DATA);
+        String thumbnail   = CursorUtil.requireString(cursor, THUMBNAIL_FILE);
         String contentType = CursorUtil.requireString(cursor, CONTENT_TYPE);
 
         db.delete(TABLE_NAME, PART_ID_WHERE, id.toStrings());
-        deleteAttachmentOnDisk(data, contentType, id);
+        deleteAttachmentOnDisk(data, thumbnail, contentType, id);
         notifyAttachmentListeners();
         db.setTransactionSuccessful();
       }
@@ -506,6 +535,12 @@ public class AttachmentTable extends DatabaseTable {
       }
     }
 
+    try (Cursor cursor = databaseHelper.getSignalReadableDatabase().query(true, TABLE_NAME, new String[] { THUMBNAIL_FILE }, THUMBNAIL_FILE + " NOT NULL", null, null, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        filesInDb.add(CursorUtil.requireString(cursor, THUMBNAIL_FILE));
+      }
+    }
+
     filesInDb.addAll(SignalDatabase.stickers().getAllStickerFiles());
 
     Set<String> onDiskButNotInDatabase = SetUtil.difference(filesOnDisk, filesInDb);
@@ -529,6 +564,7 @@ public class AttachmentTable extends DatabaseTable {
   }
 
   private void deleteAttachmentOnDisk(@Nullable String data,
+                                      @Nullable String thumbnail,
                                       @Nullable String contentType,
                                       @NonNull AttachmentId attachmentId)
   {
@@ -563,6 +599,8 @@ public class AttachmentTable extends DatabaseTable {
             values.putNull(DATA);
             values.putNull(DATA_RANDOM);
             values.putNull(DATA_HASH);
+            values.putNull(THUMBNAIL_FILE);
+            values.putNull(THUMBNAIL_RANDOM);
             deletedCount += db.update(TABLE_NAME, values, PART_ID_WHERE, weakReference.toStrings());
           }
 
@@ -578,6 +616,10 @@ public class AttachmentTable extends DatabaseTable {
       }
     }
 
+    if (!TextUtils.isEmpty(thumbnail) && !new File(thumbnail).delete()) {
+      Log.w(TAG, "[deleteAttachmentOnDisk] Failed to delete thumbnails. " + thumbnail + " " + attachmentId);
+    }
+
     if (MediaUtil.isImageType(contentType) || MediaUtil.isVideoType(contentType)) {
       Glide.get(context).clearDiskCache();
     }
@@ -628,6 +670,7 @@ public class AttachmentTable extends DatabaseTable {
     values.put(SIZE, dataInfo.length);
     values.put(DATA_RANDOM, dataInfo.random);
     values.put(DATA_HASH, dataInfo.hash);
+    putSharedThumbnails(database, dataInfo.file, values);
 
     String visualHashString = getVisualHashStringOrNull(placeholder);
     if (visualHashString != null) {
@@ -662,6 +705,10 @@ public class AttachmentTable extends DatabaseTable {
     if (placeholder != null && MediaUtil.isAudio(placeholder)) {
       GenerateAudioWaveFormJob.enqueue(placeholder.getAttachmentId());
     }
+
+    if (placeholder != null && AttachmentThumbnails.canGenerate(placeholder) && values.get(THUMBNAIL_FILE) == null) {
+      GenerateAttachmentThumbnailsJob.enqueue(placeholder.getAttachmentId());
+    }
   }
 
   private static @Nullable String getVisualHashStringOrNull(@Nullable Attachment attachment) {
@@ -671,6 +718,26 @@ public class AttachmentTable extends DatabaseTable {
     else                                        return null;
   }
 
+  /**
+   * Mirrors the content type patterns the media queries used to match on (which are case insensitive, like SQL LIKE), and the backfill in
+   * {@link org.thoughtcrime.securesms.database.helpers.migration.V197_AttachmentMediaCategoryMigration}. SVGs are documents rather than images.
+   */
+  @VisibleForTesting
+  static int getMediaCategory(@Nullable String contentType) {
+    if (contentType == null) {
+      return MEDIA_CATEGORY_NONE;
+    }
+
+    String lower = contentType.toLowerCase(Locale.US);
+
+         if (lower.startsWith("image/svg"))         return MEDIA_CATEGORY_DOCUMENT;
+    else if (lower.startsWith("image/"))            return MEDIA_CATEGORY_IMAGE;
+    else if (lower.startsWith("video/"))            return MEDIA_CATEGORY_VIDEO;
+    else if (lower.startsWith("audio/"))            return MEDIA_CATEGORY_AUDIO;
+    else if (lower.equals(MediaUtil.LONG_TEXT))     return MEDIA_CATEGORY_LONG_TEXT;
+    else                                            return MEDIA_CATEGORY_DOCUMENT;
+  }
+
   public void copyAttachmentData(@NonNull AttachmentId sourceId, @NonNull AttachmentId destinationId)
       throws MmsException
   {
@@ -693,6 +760,7 @@ public class AttachmentTable extends DatabaseTable {
     contentValues.put(DATA_HASH, sourceDataInfo.hash);
     contentValues.put(SIZE, sourceDataInfo.length);
     contentValues.put(DATA_RANDOM, sourceDataInfo.random);
+    putSharedThumbnails(database, sourceDataInfo.file, contentValues);
 
     contentValues.put(TRANSFER_STATE, sourceAttachment.getTransferState());
     contentValues.put(CDN_NUMBER, sourceAttachment.getCdnNumber());
@@ -705,6 +773,7 @@ public class AttachmentTable extends DatabaseTable {
     contentValues.put(WIDTH, sourceAttachment.getWidth());
     contentValues.put(HEIGHT, sourceAttachment.getHeight());
     contentValues.put(CONTENT_TYPE, sourceAttachment.getContentType());
+    contentValues.put(MEDIA_CATEGORY, getMediaCategory(sourceAttachment.getContentType()));
     contentValues.put(VISUAL_HASH, getVisualHashStringOrNull(sourceAttachment));
     contentValues.put(TRANSFORM_PROPERTIES, sourceAttachment.getTransformProperties().serialize());
 
@@ -758,6 +827,10 @@ public class AttachmentTable extends DatabaseTable {
     } else {
       database.update(TABLE_NAME, values, PART_ID_WHERE, id.toStrings());
     }
+
+    if (dataInfo != null && AttachmentThumbnails.canGenerate(attachment) && !hasThumbnails(id)) {
+      GenerateAttachmentThumbnailsJob.enqueue(id);
+    }
   }
 
   public @NonNull DatabaseAttachment insertAttachmentForPreUpload(@NonNull Attachment attachment) throws MmsException {
@@ -864,12 +937,20 @@ public class AttachmentTable extends DatabaseTable {
     ContentValues contentValues = new ContentValues();
     contentValues.put(SIZE, dataInfo.length);
     contentValues.put(CONTENT_TYPE, mediaStream.getMimeType());
+    contentValues.put(MEDIA_CATEGORY, getMediaCategory(mediaStream.getMimeType()));
     contentValues.put(WIDTH, mediaStream.getWidth());
     contentValues.put(HEIGHT, mediaStream.getHeight());
     contentValues.put(DATA, dataInfo.file.getAbsolutePath());
     contentValues.put(DATA_RANDOM, dataInfo.random);
     contentValues.put(DATA_HASH, dataInfo.hash);
 
+    if (dataInfo.file.equals(destination)) {
+      contentValues.putNull(THUMBNAIL_FILE);
+      contentValues.putNull(THUMBNAIL_RANDOM);
+    } else {
+      putSharedThumbnails(database, dataInfo.file, contentValues);
+    }
+
     int updateCount = updateAttachmentAndMatchingHashes(database,
                                                         databaseAttachment.getAttachmentId(),
                                                         isSingleUseOfData ? dataInfo.hash : oldDataInfo.hash,
@@ -986,6 +1067,7 @@ public class AttachmentTable extends DatabaseTable {
     contentValues.put(DATA, newData.file.getAbsolutePath());
     contentValues.put(DATA_RANDOM, newData.random);
     contentValues.put(DATA_HASH, newData.hash);
+    putSharedThumbnails(database, newData.file, contentValues);
     database.update(TABLE_NAME,
                     contentValues,
                     DATA_HASH + " = ?",
@@ -1143,6 +1225,11 @@ public class AttachmentTable extends DatabaseTable {
     return PartFileProtector.protect(() -> File.createTempFile("transfer", ".mms", partsDirectory));
   }
 
+  private File newThumbnailFile() throws IOException {
+    File partsDirectory = context.getDir(DIRECTORY, Context.MODE_PRIVATE);
+    return PartFileProtector.protect(() -> File.createTempFile("thumbnail", ".mms", partsDirectory));
+  }
+
   public static File newFile(Context context) throws IOException {
     File partsDirectory = context.getDir(DIRECTORY, Context.MODE_PRIVATE);
     return PartFileProtector.protect(() -> File.createTempFile("part", ".mms", partsDirectory));
@@ -1380,6 +1467,7 @@ public class AttachmentTable extends DatabaseTable {
       ContentValues contentValues = new ContentValues();
       contentValues.put(MMS_ID, mmsId);
       contentValues.put(CONTENT_TYPE, template.getContentType());
+      contentValues.put(MEDIA_CATEGORY, getMediaCategory(template.getContentType()));
       contentValues.put(TRANSFER_STATE, attachment.getTransferState());
       contentValues.put(UNIQUE_ID, uniqueId);
       contentValues.put(CDN_NUMBER, useTemplateUpload ? template.getCdnNumber() : attachment.getCdnNumber());
@@ -1472,6 +1560,125 @@ public class AttachmentTable extends DatabaseTable {
     database.update(TABLE_NAME, values, PART_ID_WHERE, attachmentId.toStrings());
   }
 
+  public boolean hasThumbnails(@NonNull AttachmentId attachmentId) {
+    String selection = PART_ID_WHERE + " AND " + THUMBNAIL_FILE + " NOT NULL";
+
+    try (Cursor cursor = databaseHelper.getSignalReadableDatabase().query(TABLE_NAME, new String[] { ROW_ID }, selection, attachmentId.toStrings(), null, null, null, "1")) {
+      return cursor != null && cursor.moveToFirst();
+    }
+  }
+
+  /**
+   * Reads one size from the attachment's stored thumbnails.
+   *
+   * @return The encoded image, or null if the attachment doesn't have thumbnails (yet).
+   */
+  public @Nullable byte[] getThumbnail(@NonNull AttachmentId attachmentId, @NonNull AttachmentThumbnails.Size size) throws IOException {
+    File   file;
+    byte[] random;
+
+    try (Cursor cursor = databaseHelper.getSignalReadableDatabase().query(TABLE_NAME, new String[] { THUMBNAIL_FILE, THUMBNAIL_RANDOM }, PART_ID_WHERE, attachmentId.toStrings(), null, null, null, "1")) {
+      if (cursor == null || !cursor.moveToFirst() || cursor.isNull(cursor.getColumnIndexOrThrow(THUMBNAIL_FILE))) {
+        return null;
+      }
+
+      file   = new File(CursorUtil.requireString(cursor, THUMBNAIL_FILE));
+      random = CursorUtil.requireBlob(cursor, THUMBNAIL_RANDOM);
+    }
+
+    if (!file.exists()) {
+      Log.w(TAG, "Thumbnail file is missing for " + attachmentId);
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(ModernDecryptingPartInputStream.createFor(attachmentSecret, random, file, 0))) {
+      while (true) {
+        int    code      = in.readInt();
+        byte[] thumbnail = new byte[in.readInt()];
+
+        in.readFully(thumbnail);
+
+        if (code == size.getCode()) {
+          return thumbnail;
+        }
+      }
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Stores the encoded thumbnails for an attachment's data, replacing any it had. Like the data, they're shared by every attachment using the same data
+   * file, and are deleted along with it.
+   */
+  public void setThumbnails(@NonNull AttachmentId attachmentId, @NonNull Map<AttachmentThumbnails.Size, byte[]> thumbnails) throws IOException {
+    DataInfo dataInfo = getAttachmentDataFileInfo(attachmentId, DATA);
+
+    if (dataInfo == null) {
+      throw new IOException("No data for " + attachmentId);
+    }
+
+    File                       thumbnailFile = newThumbnailFile();
+    Pair<byte[], OutputStream> out           = ModernEncryptingPartOutputStream.createFor(attachmentSecret, thumbnailFile, false);
+
+    try (DataOutputStream dataOut = new DataOutputStream(out.second)) {
+      for (Map.Entry<AttachmentThumbnails.Size, byte[]> thumbnail : thumbnails.entrySet()) {
+        dataOut.writeInt(thumbnail.getKey().getCode());
+        dataOut.writeInt(thumbnail.getValue().length);
+        dataOut.write(thumbnail.getValue());
+      }
+    }
+
+    SQLiteDatabase db       = databaseHelper.getSignalWritableDatabase();
+    String[]       args     = SqlUtil.buildArgs(dataInfo.file.getAbsolutePath());
+    String         previous = null;
+    int            updated;
+
+    db.beginTransaction();
+    try {
+      try (Cursor cursor = db.query(TABLE_NAME, new String[] { THUMBNAIL_FILE }, DATA + " = ? AND " + THUMBNAIL_FILE + " NOT NULL", args, null, null, null, "1")) {
+        if (cursor != null && cursor.moveToFirst()) {
+          previous = CursorUtil.requireString(cursor, THUMBNAIL_FILE);
+        }
+      }
+
+      ContentValues values = new ContentValues(2);
+      values.put(THUMBNAIL_FILE, thumbnailFile.getAbsolutePath());
+      values.put(THUMBNAIL_RANDOM, out.first);
+
+      updated = db.update(TABLE_NAME, values, DATA + " = ?", args);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    if (updated == 0) {
+      Log.w(TAG, "[setThumbnails] Data was removed while generating thumbnails for " + attachmentId);
+      //noinspection ResultOfMethodCallIgnored
+      thumbnailFile.delete();
+    } else if (previous != null) {
+      //noinspection ResultOfMethodCallIgnored
+      new File(previous).delete();
+    }
+  }
+
+  /**
+   * Thumbnails belong to a data file rather than to one attachment, so an attachment that's pointed at a data file takes on the thumbnails already stored for
+   * it, or none.
+   */
+  private static void putSharedThumbnails(@NonNull SQLiteDatabase db, @NonNull File dataFile, @NonNull ContentValues values) {
+    String selection = DATA + " = ? AND " + THUMBNAIL_FILE + " NOT NULL";
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] { THUMBNAIL_FILE, THUMBNAIL_RANDOM }, selection, SqlUtil.buildArgs(dataFile.getAbsolutePath()), null, null, null, "1")) {
+      if (cursor != null && cursor.moveToFirst()) {
+        values.put(THUMBNAIL_FILE, CursorUtil.requireString(cursor, THUMBNAIL_FILE));
+        values.put(THUMBNAIL_RANDOM, CursorUtil.requireBlob(cursor, THUMBNAIL_RANDOM));
+      } else {
+        values.putNull(THUMBNAIL_FILE);
+        values.putNull(THUMBNAIL_RANDOM);
+      }
+    }
+  }
 
   @RequiresApi(23)
   public @Nullable MediaDataSource mediaDataSourceFor(@NonNull AttachmentId attachmentId) {
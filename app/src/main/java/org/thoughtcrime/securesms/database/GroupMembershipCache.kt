@@ -0,0 +1,213 @@
+package org.thoughtcrime.securesms.database
+
+import androidx.annotation.VisibleForTesting
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.groups.GroupId
+import org.thoughtcrime.securesms.recipients.RecipientId
+
+/**
+ * An in-memory, bidirectional copy of [GroupTable.MembershipTable]: group -> members, and member -> groups.
+ *
+ * Membership lookups happen constantly (sends, safety number changes, profile updates), and for users in many groups the equivalent queries are expensive.
+ * Like [PendingRetryReceiptCache], the first access pulls everything from disk and later reads are served from memory.
+ *
+ * Writers must call [markDirty] as soon as they touch a group's membership, and then either [onMembershipCommitted] once their transaction has succeeded,
+ * or [onMembershipAbandoned] if the write failed or was rolled back. Dirty groups are answered from disk until the newest writer finishes, so a rolled back
+ * transaction can never leave the cache ahead of the database. The cache is also never populated from inside a transaction, since that could capture
+ * uncommitted state.
+ *
+ * Every read returns null if it can't be answered from memory, in which case the caller should fall back to the database.
+ */
+class GroupMembershipCache @VisibleForTesting constructor(private val source: Source) {
+
+  companion object {
+    private val TAG = Log.tag(GroupMembershipCache::class.java)
+  }
+
+  private val groupToMembers: MutableMap<GroupId, Set<RecipientId>> = HashMap()
+  private val memberToGroups: MutableMap<RecipientId, MutableSet<GroupId>> = HashMap()
+  private val dirtyGroups: MutableMap<GroupId, Long> = HashMap()
+
+  private var populated: Boolean = false
+  private var generation: Long = 0
+  private var nextWriteToken: Long = 0
+
+  /**
+   * @return The members of the group in the membership table, or null if the cache can't currently answer. Unknown groups have no members.
+   */
+  fun getMembers(groupId: GroupId): Set<RecipientId>? {
+    if (!ensurePopulated()) {
+      return null
+    }
+
+    synchronized(this) {
+      if (!populated || dirtyGroups.containsKey(groupId)) {
+        return null
+      }
+
+      return groupToMembers[groupId] ?: emptySet()
+    }
+  }
+
+  /**
+   * @return The ids of every group whose membership table entries include the recipient, or null if the cache can't currently answer.
+   */
+  fun getGroupsContainingMember(recipientId: RecipientId): Set<GroupId>? {
+    if (!ensurePopulated()) {
+      return null
+    }
+
+    synchronized(this) {
+      if (!populated || dirtyGroups.isNotEmpty()) {
+        return null
+      }
+
+      return memberToGroups[recipientId]?.toSet() ?: emptySet()
+    }
+  }
+
+  /**
+   * @return Whether or not the recipient is in the group's membership, or null if the cache can't currently answer.
+   */
+  fun isMember(groupId: GroupId, recipientId: RecipientId): Boolean? {
+    return getMembers(groupId)?.contains(recipientId)
+  }
+
+  /**
+   * Call before changing a group's membership. Until [onMembershipCommitted] is called with the returned token, reads for the group go to disk.
+   *
+   * @return A token identifying this write.
+   */
+  fun markDirty(groupId: GroupId): Long {
+    synchronized(this) {
+      val token = ++nextWriteToken
+      dirtyGroups[groupId] = token
+      removeGroup(groupId)
+      return token
+    }
+  }
+
+  /**
+   * Call once the transaction that changed a group's membership has succeeded. If a newer write to the same group has started since, this does nothing
+   * and the newer writer is responsible for updating the cache.
+   */
+  fun onMembershipCommitted(groupId: GroupId, token: Long, members: Collection<RecipientId>) {
+    synchronized(this) {
+      if (dirtyGroups[groupId] != token) {
+        return
+      }
+
+      dirtyGroups.remove(groupId)
+      generation++
+
+      if (populated) {
+        putGroup(groupId, members.toSet())
+      }
+    }
+  }
+
+  /**
+   * Call if the write that returned the token failed, or its transaction was rolled back. The group is no longer dirty on this writer's behalf, and since the
+   * cache dropped the group when it was marked dirty, everything is reloaded from disk on the next read.
+   */
+  fun onMembershipAbandoned(groupId: GroupId, token: Long) {
+    synchronized(this) {
+      if (dirtyGroups[groupId] == token) {
+        dirtyGroups.remove(groupId)
+      }
+
+      invalidate()
+    }
+  }
+
+  /**
+   * Drops everything in memory. The next read will pull values from disk. Groups with writes in flight remain dirty until those writes finish.
+   */
+  fun invalidate() {
+    synchronized(this) {
+      groupToMembers.clear()
+      memberToGroups.clear()
+      populated = false
+      generation++
+    }
+  }
+
+  /**
+   * Drops everything, including any in-flight writes. Only safe when nothing else could be writing to the membership table.
+   */
+  @VisibleForTesting
+  fun clear() {
+    synchronized(this) {
+      dirtyGroups.clear()
+      invalidate()
+    }
+  }
+
+  private fun ensurePopulated(): Boolean {
+    val startGeneration: Long
+
+    synchronized(this) {
+      if (populated) {
+        return true
+      }
+      startGeneration = generation
+    }
+
+    if (source.isInTransaction()) {
+      return false
+    }
+
+    // Read outside of the lock, since writers take this lock while holding the database lock
+    val memberships: Map<GroupId, Collection<RecipientId>> = source.getAllMemberships()
+
+    synchronized(this) {
+      if (populated) {
+        return true
+      }
+
+      if (generation != startGeneration) {
+        Log.d(TAG, "Membership changed while populating. Will try again on the next read.")
+        return false
+      }
+
+      for ((groupId, members) in memberships) {
+        if (!dirtyGroups.containsKey(groupId)) {
+          putGroup(groupId, members.toSet())
+        }
+      }
+
+      populated = true
+      Log.d(TAG, "Populated with ${groupToMembers.size} groups and ${memberToGroups.size} members.")
+      return true
+    }
+  }
+
+  private fun putGroup(groupId: GroupId, members: Set<RecipientId>) {
+    removeGroup(groupId)
+
+    groupToMembers[groupId] = members
+    for (member in members) {
+      memberToGroups.getOrPut(member) { HashSet() } += groupId
+    }
+  }
+
+  private fun removeGroup(groupId: GroupId) {
+    val previous: Set<RecipientId> = groupToMembers.remove(groupId) ?: return
+
+    for (member in previous) {
+      val groups = memberToGroups[member] ?: continue
+      groups -= groupId
+      if (groups.isEmpty()) {
+        memberToGroups.remove(member)
+      }
+    }
+  }
+
+  interface Source {
+    /** Whether the calling thread is inside a database transaction. */
+    fun isInTransaction(): Boolean
+
+    /** Every row of the membership table, grouped by group. */
+    fun getAllMemberships(): Map<GroupId, Collection<RecipientId>>
+  }
+}
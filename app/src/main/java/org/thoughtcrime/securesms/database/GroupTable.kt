@@ -4,6 +4,7 @@ import android.content.ContentValues
 import android.content.Context
 import android.database.Cursor
 import android.text.TextUtils
+import androidx.annotation.VisibleForTesting
 import androidx.annotation.WorkerThread
 import androidx.core.content.contentValuesOf
 import org.intellij.lang.annotations.Language
@@ -175,8 +176,35 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
     """
 
     val CREATE_TABLES = arrayOf(CREATE_TABLE, MembershipTable.CREATE_TABLE)
+
+    /** Beyond this, a member's groups no longer fit in a single IN clause and we fall back to the joined query. */
+    private const val MAX_CACHED_GROUP_LOOKUP = 900
   }
 
+  private val membershipCache = GroupMembershipCache(object : GroupMembershipCache.Source {
+    override fun isInTransaction(): Boolean {
+      return writableDatabase.inTransaction()
+    }
+
+    override fun getAllMemberships(): Map<GroupId, Collection<RecipientId>> {
+      val groupIds: MutableMap<String, GroupId> = HashMap()
+      val memberships: MutableMap<GroupId, MutableList<RecipientId>> = HashMap()
+
+      readableDatabase
+        .select(MembershipTable.GROUP_ID, MembershipTable.RECIPIENT_ID)
+        .from(MembershipTable.TABLE_NAME)
+        .run()
+        .use { cursor ->
+          while (cursor.moveToNext()) {
+            val groupId = groupIds.getOrPut(cursor.requireNonNullString(MembershipTable.GROUP_ID)) { GroupId.parseOrThrow(cursor.requireNonNullString(MembershipTable.GROUP_ID)) }
+            memberships.getOrPut(groupId) { mutableListOf() } += RecipientId.from(cursor.requireLong(MembershipTable.RECIPIENT_ID))
+          }
+        }
+
+      return memberships
+    }
+  })
+
   class MembershipTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTable(context, databaseHelper) {
     companion object {
       const val TABLE_NAME = "group_membership"
@@ -566,6 +594,15 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
 
   @WorkerThread
   fun getGroupsContainingMember(recipientId: RecipientId, pushOnly: Boolean, includeInactive: Boolean): List<GroupRecord> {
+    val cachedGroupIds: Set<GroupId>? = membershipCache.getGroupsContainingMember(recipientId)
+
+    if (cachedGroupIds != null && cachedGroupIds.size <= MAX_CACHED_GROUP_LOOKUP) {
+      val cachedRecords: List<GroupRecord>? = getGroupsWithCachedMembers(cachedGroupIds, pushOnly, includeInactive)
+      if (cachedRecords != null) {
+        return cachedRecords
+      }
+    }
+
     //language=sql
     val table = """
       SELECT 
@@ -601,6 +638,51 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
       }
   }
 
+  /**
+   * Reads the given groups without the per-row membership subquery, filling in members from [membershipCache] instead.
+   *
+   * @return The groups ordered by most recent thread activity, or null if the cache couldn't provide every group's members.
+   */
+  private fun getGroupsWithCachedMembers(groupIds: Set<GroupId>, pushOnly: Boolean, includeInactive: Boolean): List<GroupRecord>? {
+    if (groupIds.isEmpty()) {
+      return emptyList()
+    }
+
+    val members: MutableMap<GroupId, Set<RecipientId>> = HashMap(groupIds.size)
+    for (groupId in groupIds) {
+      members[groupId] = membershipCache.getMembers(groupId) ?: return null
+    }
+
+    val idQuery = SqlUtil.buildSingleCollectionQuery("$TABLE_NAME.$GROUP_ID", groupIds)
+    var query = idQuery.where
+    var args = idQuery.whereArgs
+
+    if (pushOnly) {
+      query += " AND $MMS = ?"
+      args = appendArg(args, "0")
+    }
+
+    if (!includeInactive) {
+      query += " AND $ACTIVE = ?"
+      args = appendArg(args, "1")
+    }
+
+    //language=sql
+    val select = """
+      SELECT DISTINCT $TABLE_NAME.*
+      FROM $TABLE_NAME
+      LEFT JOIN ${ThreadTable.TABLE_NAME} ON $TABLE_NAME.$RECIPIENT_ID = ${ThreadTable.TABLE_NAME}.${ThreadTable.RECIPIENT_ID}
+      WHERE $query
+      ORDER BY ${ThreadTable.TABLE_NAME}.${ThreadTable.DATE} DESC
+    """
+
+    return readableDatabase
+      .query(select, args)
+      .readToList { cursor ->
+        Reader(cursor, members).getCurrent()!!
+      }
+  }
+
   fun getGroups(): Reader {
     val cursor = readableDatabase.query(JOINED_GROUP_SELECT)
     return Reader(cursor)
@@ -617,6 +699,11 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
 
   @WorkerThread
   fun getGroupMemberIds(groupId: GroupId, memberSet: MemberSet): List<RecipientId> {
+    val cachedMembers: List<RecipientId>? = getCachedMemberIds(groupId, memberSet)
+    if (cachedMembers != null) {
+      return cachedMembers
+    }
+
     return if (groupId.isV2) {
       getGroup(groupId)
         .map { it.requireV2GroupProperties().getMemberRecipientIds(memberSet) }
@@ -632,6 +719,11 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
 
   @WorkerThread
   fun getGroupMembers(groupId: GroupId, memberSet: MemberSet): List<Recipient> {
+    val cachedMembers: List<RecipientId>? = getCachedMemberIds(groupId, memberSet)
+    if (cachedMembers != null) {
+      return Recipient.resolvedList(cachedMembers)
+    }
+
     return if (groupId.isV2) {
       getGroup(groupId)
         .map { it.requireV2GroupProperties().getMemberRecipients(memberSet) }
@@ -651,6 +743,70 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
     }
   }
 
+  /**
+   * The membership table holds full members only, so requests that include pending members for a V2 group can't be served from [membershipCache].
+   */
+  private fun getCachedMemberIds(groupId: GroupId, memberSet: MemberSet): List<RecipientId>? {
+    if (groupId.isV2 && memberSet.includePending) {
+      return null
+    }
+
+    val members: Set<RecipientId> = membershipCache.getMembers(groupId) ?: return null
+
+    return if (memberSet.includeSelf) {
+      members.toList()
+    } else {
+      val selfId = Recipient.self().id
+      members.filterNot { it == selfId }
+    }
+  }
+
+  /**
+   * Drops the in-memory membership index, e.g. when recipients are remapped. This happens immediately, so other threads stop trusting it, and again once
+   * the current transaction succeeds, so that nothing read while the transaction was in flight survives it.
+   */
+  fun invalidateMembershipCache() {
+    membershipCache.invalidate()
+    writableDatabase.runPostSuccessfulTransaction { membershipCache.invalidate() }
+  }
+
+  @VisibleForTesting
+  fun clearMembershipCache() {
+    membershipCache.clear()
+  }
+
+  @VisibleForTesting
+  fun isMembershipCached(groupId: GroupId): Boolean {
+    return membershipCache.getMembers(groupId) != null
+  }
+
+  /**
+   * Runs a write that changes the group's membership rows, keeping [membershipCache] consistent with the database. The group is read from disk
+   * until the surrounding transaction succeeds, and then the cache picks up the committed membership. If the write throws or the transaction is
+   * rolled back, the cache is reloaded from disk instead.
+   */
+  private fun <T> updatingMembership(groupId: GroupId, write: () -> T): T {
+    val token = membershipCache.markDirty(groupId)
+
+    val result = try {
+      write()
+    } catch (e: Throwable) {
+      // A caller may still commit the surrounding transaction, so the group stays dirty until it ends either way. Outside of one, this runs right away.
+      writableDatabase.runPostSuccessfulTransaction { membershipCache.onMembershipAbandoned(groupId, token) }
+      writableDatabase.runPostFailedTransaction { membershipCache.onMembershipAbandoned(groupId, token) }
+      throw e
+    }
+
+    writableDatabase.runPostSuccessfulTransaction {
+      membershipCache.onMembershipCommitted(groupId, token, getCurrentMembers(groupId))
+    }
+    writableDatabase.runPostFailedTransaction {
+      membershipCache.onMembershipAbandoned(groupId, token)
+    }
+
+    return result
+  }
+
   @CheckReturnValue
   fun create(groupId: GroupId.V1, title: String?, members: Collection<RecipientId>, avatar: SignalServiceAttachmentPointer?, relay: String?): Boolean {
     if (groupExists(groupId.deriveV2MigrationGroupId())) {
@@ -785,20 +941,27 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
       }
     }
 
-    writableDatabase.beginTransaction()
-    try {
-      val result: Long = writableDatabase.insert(TABLE_NAME, null, values)
-      if (result < 1) {
-        Log.w(TAG, "Unable to create group, group record already exists")
-        return false
-      }
+    val created: Boolean = updatingMembership(groupId) {
+      writableDatabase.beginTransaction()
+      try {
+        val result: Long = writableDatabase.insert(TABLE_NAME, null, values)
+        if (result < 1) {
+          Log.w(TAG, "Unable to create group, group record already exists")
+          return@updatingMembership false
+        }
 
-      for (query in SqlUtil.buildBulkInsert(MembershipTable.TABLE_NAME, arrayOf(MembershipTable.GROUP_ID, MembershipTable.RECIPIENT_ID), membershipValues)) {
-        writableDatabase.execSQL(query.where, query.whereArgs)
+        for (query in SqlUtil.buildBulkInsert(MembershipTable.TABLE_NAME, arrayOf(MembershipTable.GROUP_ID, MembershipTable.RECIPIENT_ID), membershipValues)) {
+          writableDatabase.execSQL(query.where, query.whereArgs)
+        }
+        writableDatabase.setTransactionSuccessful()
+        true
+      } finally {
+        writableDatabase.endTransaction()
       }
-      writableDatabase.setTransactionSuccessful()
-    } finally {
-      writableDatabase.endTransaction()
+    }
+
+    if (!created) {
+      return false
     }
 
     if (groupState != null && groupState.hasDisappearingMessagesTimer()) {
@@ -942,14 +1105,16 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
       }
     }
 
-    writableDatabase.withinTransaction { database ->
-      database
-        .update(TABLE_NAME)
-        .values(contentValues)
-        .where("$GROUP_ID = ?", groupId.toString())
-        .run()
+    updatingMembership(groupId) {
+      writableDatabase.withinTransaction { database ->
+        database
+          .update(TABLE_NAME)
+          .values(contentValues)
+          .where("$GROUP_ID = ?", groupId.toString())
+          .run()
 
-      performMembershipUpdate(database, groupId, groupMembers)
+        performMembershipUpdate(database, groupId, groupMembers)
+      }
     }
 
     if (decryptedGroup.hasDisappearingMessagesTimer()) {
@@ -1002,14 +1167,16 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
   }
 
   fun updateMembers(groupId: GroupId, members: List<RecipientId>) {
-    writableDatabase.withinTransaction { database ->
-      database
-        .update(TABLE_NAME)
-        .values(ACTIVE to 1)
-        .where("$GROUP_ID = ?", groupId)
-        .run()
-
-      performMembershipUpdate(database, groupId, members)
+    updatingMembership(groupId) {
+      writableDatabase.withinTransaction { database ->
+        database
+          .update(TABLE_NAME)
+          .values(ACTIVE to 1)
+          .where("$GROUP_ID = ?", groupId)
+          .run()
+
+        performMembershipUpdate(database, groupId, members)
+      }
     }
 
     val groupRecipient = recipients.getOrInsertFromGroupId(groupId)
@@ -1017,10 +1184,12 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
   }
 
   fun remove(groupId: GroupId, source: RecipientId) {
-    writableDatabase
-      .delete(MembershipTable.TABLE_NAME)
-      .where("${MembershipTable.GROUP_ID} = ? AND ${MembershipTable.RECIPIENT_ID} = ?", groupId, source)
-      .run()
+    updatingMembership(groupId) {
+      writableDatabase
+        .delete(MembershipTable.TABLE_NAME)
+        .where("${MembershipTable.GROUP_ID} = ? AND ${MembershipTable.RECIPIENT_ID} = ?", groupId, source)
+        .run()
+    }
 
     val groupRecipient = recipients.getOrInsertFromGroupId(groupId)
     Recipient.live(groupRecipient).refresh()
@@ -1079,6 +1248,11 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
 
   @WorkerThread
   fun isCurrentMember(groupId: Push, recipientId: RecipientId): Boolean {
+    val cached: Boolean? = membershipCache.isMember(groupId, recipientId)
+    if (cached != null) {
+      return cached
+    }
+
     return readableDatabase
       .exists(MembershipTable.TABLE_NAME)
       .where("${MembershipTable.GROUP_ID} = ? AND ${MembershipTable.RECIPIENT_ID} = ?", groupId, recipientId)
@@ -1114,6 +1288,8 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
   }
 
   override fun remapRecipient(fromId: RecipientId, toId: RecipientId) {
+    invalidateMembershipCache()
+
     // Remap all recipients that would not result in conflicts
     writableDatabase.execSQL(
       """
@@ -1145,7 +1321,10 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
     }
   }
 
-  class Reader(val cursor: Cursor?) : Closeable, ContactSearchIterator<GroupRecord> {
+  /**
+   * @param cachedMembers If present, members are taken from here rather than from the [MEMBER_GROUP_CONCAT] column, which the cursor may omit.
+   */
+  class Reader(val cursor: Cursor?, private val cachedMembers: Map<GroupId, Collection<RecipientId>>? = null) : Closeable, ContactSearchIterator<GroupRecord> {
 
     fun getNext(): GroupRecord? {
       return if (cursor == null || !cursor.moveToNext()) {
@@ -1163,11 +1342,13 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
       return if (cursor == null || cursor.requireString(GROUP_ID) == null || cursor.requireLong(RECIPIENT_ID) == 0L) {
         null
       } else {
+        val groupId = GroupId.parseOrThrow(cursor.requireNonNullString(GROUP_ID))
+
         GroupRecord(
-          id = GroupId.parseOrThrow(cursor.requireNonNullString(GROUP_ID)),
+          id = groupId,
           recipientId = RecipientId.from(cursor.requireNonNullString(RECIPIENT_ID)),
           title = cursor.requireString(TITLE),
-          serializedMembers = cursor.requireString(MEMBER_GROUP_CONCAT),
+          serializedMembers = if (cachedMembers != null) cachedMembers[groupId]?.let { RecipientId.toSerializedList(it) } else cursor.requireString(MEMBER_GROUP_CONCAT),
           serializedUnmigratedV1Members = cursor.requireString(UNMIGRATED_V1_MEMBERS),
           avatarId = cursor.requireLong(AVATAR_ID),
           avatarKey = cursor.requireBlob(AVATAR_KEY),
@@ -3,13 +3,12 @@ package org.thoughtcrime.securesms.database
 import android.annotation.SuppressLint
 import android.content.Context
 import android.database.Cursor
+import org.signal.core.util.SqlUtil
 import org.signal.core.util.requireInt
 import org.signal.core.util.requireLong
-import org.signal.core.util.requireNonNullString
+import org.thoughtcrime.securesms.attachments.AttachmentId
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment
 import org.thoughtcrime.securesms.recipients.RecipientId
-import org.thoughtcrime.securesms.util.MediaUtil
-import org.thoughtcrime.securesms.util.MediaUtil.SlideType
 
 @SuppressLint("RecipientIdDatabaseReferenceUsage", "ThreadIdDatabaseReferenceUsage") // Not a real table, just a view
 class MediaTable internal constructor(context: Context?, databaseHelper: SignalDatabase?) : DatabaseTable(context, databaseHelper) {
@@ -17,8 +16,7 @@ class MediaTable internal constructor(context: Context?, databaseHelper: SignalD
   companion object {
     const val ALL_THREADS = -1
     private const val THREAD_RECIPIENT_ID = "THREAD_RECIPIENT_ID"
-    private val BASE_MEDIA_QUERY = """
-      SELECT 
+    private val MEDIA_PROJECTION = """
         ${AttachmentTable.TABLE_NAME}.${AttachmentTable.ROW_ID} AS ${AttachmentTable.ROW_ID}, 
         ${AttachmentTable.TABLE_NAME}.${AttachmentTable.CONTENT_TYPE}, 
         ${AttachmentTable.TABLE_NAME}.${AttachmentTable.UNIQUE_ID}, 
@@ -55,17 +53,23 @@ class MediaTable internal constructor(context: Context?, databaseHelper: SignalD
         ${MessageTable.TABLE_NAME}.${MessageTable.THREAD_ID}, 
         ${MessageTable.TABLE_NAME}.${MessageTable.FROM_RECIPIENT_ID}, 
         ${ThreadTable.TABLE_NAME}.${ThreadTable.RECIPIENT_ID} as $THREAD_RECIPIENT_ID 
+      """
+
+    /**
+     * Driven from the message side, so that for a single thread SQLite walks the thread's messages in id order using the thread index and looks up each
+     * message's attachments by (message, category), rather than collecting and sorting every matching attachment before returning the first row. Only the
+     * few attachments of each message are left to sort.
+     */
+    private val BASE_MEDIA_QUERY = """
+      SELECT 
+        %s 
       FROM 
-        ${AttachmentTable.TABLE_NAME} 
-        LEFT JOIN ${MessageTable.TABLE_NAME} ON ${AttachmentTable.TABLE_NAME}.${AttachmentTable.MMS_ID} = ${MessageTable.TABLE_NAME}.${MessageTable.ID} 
+        ${MessageTable.TABLE_NAME} 
+        INNER JOIN ${AttachmentTable.TABLE_NAME} ON ${AttachmentTable.TABLE_NAME}.${AttachmentTable.MMS_ID} = ${MessageTable.TABLE_NAME}.${MessageTable.ID} 
         LEFT JOIN ${ThreadTable.TABLE_NAME} ON ${ThreadTable.TABLE_NAME}.${ThreadTable.ID} = ${MessageTable.TABLE_NAME}.${MessageTable.THREAD_ID} 
       WHERE 
-        ${AttachmentTable.MMS_ID} IN (
-          SELECT ${MessageTable.ID} 
-          FROM ${MessageTable.TABLE_NAME} 
-          WHERE ${MessageTable.THREAD_ID} __EQUALITY__ ?
-        ) AND 
-        (%s) AND 
+        ${MessageTable.TABLE_NAME}.${MessageTable.THREAD_ID} __EQUALITY__ ? AND 
+        ${AttachmentTable.TABLE_NAME}.${AttachmentTable.MEDIA_CATEGORY} IN (%s) AND 
         ${MessageTable.VIEW_ONCE} = 0 AND 
         ${MessageTable.STORY_TYPE} = 0 AND 
         ${AttachmentTable.DATA} IS NOT NULL AND 
@@ -78,42 +82,42 @@ class MediaTable internal constructor(context: Context?, databaseHelper: SignalD
         ) AND 
         ${AttachmentTable.STICKER_PACK_ID} IS NULL AND 
         ${MessageTable.TABLE_NAME}.${MessageTable.FROM_RECIPIENT_ID} > 0 AND 
-        $THREAD_RECIPIENT_ID > 0
+        ${ThreadTable.TABLE_NAME}.${ThreadTable.RECIPIENT_ID} > 0
       """
 
-    private val UNIQUE_MEDIA_QUERY = """
+    /**
+     * Each file is counted once, at the largest size recorded for it, which lets SQLite answer this from part_media_storage_index alone.
+     */
+    private val STORAGE_BREAKDOWN_QUERY = """
         SELECT 
-          MAX(${AttachmentTable.SIZE}) as ${AttachmentTable.SIZE}, 
-          ${AttachmentTable.CONTENT_TYPE} 
-        FROM 
-          ${AttachmentTable.TABLE_NAME} 
-        WHERE 
-          ${AttachmentTable.STICKER_PACK_ID} IS NULL AND 
-          ${AttachmentTable.TRANSFER_STATE} = ${AttachmentTable.TRANSFER_PROGRESS_DONE} 
-        GROUP BY ${AttachmentTable.DATA}
+          ${AttachmentTable.MEDIA_CATEGORY}, 
+          SUM(${AttachmentTable.SIZE}) AS ${AttachmentTable.SIZE} 
+        FROM (
+          SELECT 
+            MAX(${AttachmentTable.SIZE}) AS ${AttachmentTable.SIZE}, 
+            ${AttachmentTable.MEDIA_CATEGORY} 
+          FROM 
+            ${AttachmentTable.TABLE_NAME} 
+          WHERE 
+            ${AttachmentTable.TRANSFER_STATE} = ${AttachmentTable.TRANSFER_PROGRESS_DONE} AND 
+            ${AttachmentTable.STICKER_PACK_ID} IS NULL 
+          GROUP BY ${AttachmentTable.DATA}
+        ) 
+        GROUP BY ${AttachmentTable.MEDIA_CATEGORY}
       """
 
-    private val GALLERY_MEDIA_QUERY = String.format(
-      BASE_MEDIA_QUERY,
-      """
-        ${AttachmentTable.CONTENT_TYPE} NOT LIKE 'image/svg%' AND 
-        (${AttachmentTable.CONTENT_TYPE} LIKE 'image/%' OR ${AttachmentTable.CONTENT_TYPE} LIKE 'video/%')
-      """
-    )
+    private val GALLERY_CATEGORIES = "${AttachmentTable.MEDIA_CATEGORY_IMAGE}, ${AttachmentTable.MEDIA_CATEGORY_VIDEO}"
+    private val AUDIO_CATEGORIES = "${AttachmentTable.MEDIA_CATEGORY_AUDIO}"
+    private val DOCUMENT_CATEGORIES = "${AttachmentTable.MEDIA_CATEGORY_DOCUMENT}"
+    private val ALL_CATEGORIES = "${AttachmentTable.MEDIA_CATEGORY_IMAGE}, ${AttachmentTable.MEDIA_CATEGORY_VIDEO}, ${AttachmentTable.MEDIA_CATEGORY_AUDIO}, ${AttachmentTable.MEDIA_CATEGORY_DOCUMENT}"
 
-    private val AUDIO_MEDIA_QUERY = String.format(BASE_MEDIA_QUERY, "${AttachmentTable.CONTENT_TYPE} LIKE 'audio/%'")
-    private val ALL_MEDIA_QUERY = String.format(BASE_MEDIA_QUERY, "${AttachmentTable.CONTENT_TYPE} NOT LIKE 'text/x-signal-plain'")
-    private val DOCUMENT_MEDIA_QUERY = String.format(
-      BASE_MEDIA_QUERY,
-      """
-        ${AttachmentTable.CONTENT_TYPE} LIKE 'image/svg%' OR 
-        (
-          ${AttachmentTable.CONTENT_TYPE} NOT LIKE 'image/%' AND 
-          ${AttachmentTable.CONTENT_TYPE} NOT LIKE 'video/%' AND 
-          ${AttachmentTable.CONTENT_TYPE} NOT LIKE 'audio/%' AND 
-          ${AttachmentTable.CONTENT_TYPE} NOT LIKE 'text/x-signal-plain'
-        )"""
-    )
+    private val GALLERY_MEDIA_QUERY = String.format(BASE_MEDIA_QUERY, MEDIA_PROJECTION, GALLERY_CATEGORIES)
+    private val AUDIO_MEDIA_QUERY = String.format(BASE_MEDIA_QUERY, MEDIA_PROJECTION, AUDIO_CATEGORIES)
+    private val ALL_MEDIA_QUERY = String.format(BASE_MEDIA_QUERY, MEDIA_PROJECTION, ALL_CATEGORIES)
+    private val DOCUMENT_MEDIA_QUERY = String.format(BASE_MEDIA_QUERY, MEDIA_PROJECTION, DOCUMENT_CATEGORIES)
+
+    private val GALLERY_MEDIA_COUNT_QUERY = String.format(BASE_MEDIA_QUERY, "COUNT(*)", GALLERY_CATEGORIES)
+    private val GALLERY_ATTACHMENT_CLAUSE = " AND ${AttachmentTable.TABLE_NAME}.${AttachmentTable.ROW_ID} = ? AND ${AttachmentTable.TABLE_NAME}.${AttachmentTable.UNIQUE_ID} = ?"
 
     private fun applyEqualityOperator(threadId: Long, query: String): String {
       return query.replace("__EQUALITY__", if (threadId == ALL_THREADS.toLong()) "!=" else "=")
@@ -126,6 +130,86 @@ class MediaTable internal constructor(context: Context?, databaseHelper: SignalD
     return readableDatabase.rawQuery(query, args)
   }
 
+  /**
+   * The first [limit] rows of [getGalleryMediaForThread].
+   */
+  fun getGalleryMediaForThread(threadId: Long, sorting: Sorting, limit: Int): Cursor {
+    val query = sorting.applyToQuery(applyEqualityOperator(threadId, GALLERY_MEDIA_QUERY)) + " LIMIT $limit"
+    val args = arrayOf(threadId.toString() + "")
+    return readableDatabase.rawQuery(query, args)
+  }
+
+  /**
+   * @return The number of rows [getGalleryMediaForThread] would return.
+   */
+  fun getGalleryMediaCountForThread(threadId: Long): Int {
+    val query = applyEqualityOperator(threadId, GALLERY_MEDIA_COUNT_QUERY)
+    val args = arrayOf(threadId.toString() + "")
+
+    readableDatabase.rawQuery(query, args).use { cursor ->
+      return if (cursor.moveToFirst()) cursor.getInt(0) else 0
+    }
+  }
+
+  /**
+   * @return The position of the attachment within [getGalleryMediaForThread] with the same sorting, or -1 if it isn't part of it. Counted in SQL from the
+   * attachment's sort key, so for a single thread only the rows before it are visited, through the thread index.
+   */
+  fun getGalleryMediaPosition(threadId: Long, sorting: Sorting, attachmentId: AttachmentId): Int {
+    val sortKey = getGallerySortKey(threadId, sorting, attachmentId) ?: return -1
+    val query = applyEqualityOperator(threadId, GALLERY_MEDIA_COUNT_QUERY) + sorting.before(inclusive = false)
+    val args = arrayOf(threadId.toString() + "") + sorting.keysetArgs(sortKey)
+
+    readableDatabase.rawQuery(query, args).use { cursor ->
+      return if (cursor.moveToFirst()) cursor.getInt(0) else -1
+    }
+  }
+
+  /**
+   * Up to [limit] rows of [getGalleryMediaForThread] that come directly before the attachment, nearest first, i.e. in the reverse of [sorting]. Empty if the
+   * attachment isn't part of it.
+   */
+  fun getGalleryMediaBefore(threadId: Long, sorting: Sorting, attachmentId: AttachmentId, limit: Int): Cursor? {
+    val sortKey = getGallerySortKey(threadId, sorting, attachmentId) ?: return null
+    val query = sorting.applyReversedToQuery(applyEqualityOperator(threadId, GALLERY_MEDIA_QUERY) + sorting.before(inclusive = false)) + " LIMIT $limit"
+    val args = arrayOf(threadId.toString() + "") + sorting.keysetArgs(sortKey)
+    return readableDatabase.rawQuery(query, args)
+  }
+
+  /**
+   * Up to [limit] rows of [getGalleryMediaForThread], starting with the attachment itself. Seeks to the attachment by its sort key rather than by an offset,
+   * so the rows before it are never visited. Empty if the attachment isn't part of it.
+   */
+  fun getGalleryMediaFrom(threadId: Long, sorting: Sorting, attachmentId: AttachmentId, limit: Int): Cursor? {
+    val sortKey = getGallerySortKey(threadId, sorting, attachmentId) ?: return null
+    val query = sorting.applyToQuery(applyEqualityOperator(threadId, GALLERY_MEDIA_QUERY) + sorting.after(inclusive = true)) + " LIMIT $limit"
+    val args = arrayOf(threadId.toString() + "") + sorting.keysetArgs(sortKey)
+    return readableDatabase.rawQuery(query, args)
+  }
+
+  /**
+   * Up to [limit] rows of [getGalleryMediaForThread] that come directly after the attachment. Seeks past the attachment by its sort key, like
+   * [getGalleryMediaFrom]. Empty if the attachment isn't part of it.
+   */
+  fun getGalleryMediaAfter(threadId: Long, sorting: Sorting, attachmentId: AttachmentId, limit: Int): Cursor? {
+    val sortKey = getGallerySortKey(threadId, sorting, attachmentId) ?: return null
+    val query = sorting.applyToQuery(applyEqualityOperator(threadId, GALLERY_MEDIA_QUERY) + sorting.after(inclusive = false)) + " LIMIT $limit"
+    val args = arrayOf(threadId.toString() + "") + sorting.keysetArgs(sortKey)
+    return readableDatabase.rawQuery(query, args)
+  }
+
+  /**
+   * @return The values of the attachment's [Sorting] columns, or null if it isn't part of [getGalleryMediaForThread].
+   */
+  private fun getGallerySortKey(threadId: Long, sorting: Sorting, attachmentId: AttachmentId): LongArray? {
+    val query = applyEqualityOperator(threadId, String.format(BASE_MEDIA_QUERY, sorting.columns, GALLERY_CATEGORIES)) + GALLERY_ATTACHMENT_CLAUSE
+    val args = arrayOf(threadId.toString() + "", attachmentId.rowId.toString(), attachmentId.uniqueId.toString())
+
+    readableDatabase.rawQuery(query, args).use { cursor ->
+      return if (cursor.moveToFirst()) LongArray(cursor.columnCount) { cursor.getLong(it) } else null
+    }
+  }
+
   fun getDocumentMediaForThread(threadId: Long, sorting: Sorting): Cursor {
     val query = sorting.applyToQuery(applyEqualityOperator(threadId, DOCUMENT_MEDIA_QUERY))
     val args = arrayOf(threadId.toString() + "")
@@ -150,27 +234,16 @@ class MediaTable internal constructor(context: Context?, databaseHelper: SignalD
     var audioSize: Long = 0
     var documentSize: Long = 0
 
-    readableDatabase.rawQuery(UNIQUE_MEDIA_QUERY, null).use { cursor ->
+    readableDatabase.rawQuery(STORAGE_BREAKDOWN_QUERY, null).use { cursor ->
       while (cursor.moveToNext()) {
-        val size: Int = cursor.requireInt(AttachmentTable.SIZE)
-        val type: String = cursor.requireNonNullString(AttachmentTable.CONTENT_TYPE)
-
-        when (MediaUtil.getSlideTypeFromContentType(type)) {
-          SlideType.GIF,
-          SlideType.IMAGE,
-          SlideType.MMS -> {
-            photoSize += size.toLong()
-          }
-          SlideType.VIDEO -> {
-            videoSize += size.toLong()
-          }
-          SlideType.AUDIO -> {
-            audioSize += size.toLong()
-          }
-          SlideType.LONG_TEXT,
-          SlideType.DOCUMENT -> {
-            documentSize += size.toLong()
-          }
+        val size: Long = cursor.requireLong(AttachmentTable.SIZE)
+
+        when (cursor.requireInt(AttachmentTable.MEDIA_CATEGORY)) {
+          AttachmentTable.MEDIA_CATEGORY_IMAGE -> photoSize += size
+          AttachmentTable.MEDIA_CATEGORY_VIDEO -> videoSize += size
+          AttachmentTable.MEDIA_CATEGORY_AUDIO -> audioSize += size
+          AttachmentTable.MEDIA_CATEGORY_DOCUMENT,
+          AttachmentTable.MEDIA_CATEGORY_LONG_TEXT -> documentSize += size
           else -> {}
         }
       }
@@ -217,38 +290,71 @@ class MediaTable internal constructor(context: Context?, databaseHelper: SignalD
     }
   }
 
-  enum class Sorting(order: String) {
+  /**
+   * Each ordering ends in the attachment id, so every row has a distinct position, which is what lets a page be found from a row's values with [before] and
+   * [after] instead of an offset.
+   */
+  enum class Sorting(vararg terms: Term) {
     Newest(
-      """
-        ${AttachmentTable.TABLE_NAME}.${AttachmentTable.MMS_ID} DESC, 
-        ${AttachmentTable.TABLE_NAME}.${AttachmentTable.DISPLAY_ORDER} DESC, 
-        ${AttachmentTable.TABLE_NAME}.${AttachmentTable.ROW_ID} DESC
-      """
+      Term("${MessageTable.TABLE_NAME}.${MessageTable.ID}", descending = true),
+      Term("${AttachmentTable.TABLE_NAME}.${AttachmentTable.DISPLAY_ORDER}", descending = true),
+      Term("${AttachmentTable.TABLE_NAME}.${AttachmentTable.ROW_ID}", descending = true)
     ),
     Oldest(
-      """
-        ${AttachmentTable.TABLE_NAME}.${AttachmentTable.MMS_ID} ASC, 
-        ${AttachmentTable.TABLE_NAME}.${AttachmentTable.DISPLAY_ORDER} DESC, 
-        ${AttachmentTable.TABLE_NAME}.${AttachmentTable.ROW_ID} ASC
-      """
+      Term("${MessageTable.TABLE_NAME}.${MessageTable.ID}", descending = false),
+      Term("${AttachmentTable.TABLE_NAME}.${AttachmentTable.DISPLAY_ORDER}", descending = true),
+      Term("${AttachmentTable.TABLE_NAME}.${AttachmentTable.ROW_ID}", descending = false)
     ),
     Largest(
-      """
-        ${AttachmentTable.TABLE_NAME}.${AttachmentTable.SIZE} DESC, 
-        ${AttachmentTable.TABLE_NAME}.${AttachmentTable.DISPLAY_ORDER} DESC
-      """
+      Term("${AttachmentTable.TABLE_NAME}.${AttachmentTable.SIZE}", descending = true),
+      Term("${AttachmentTable.TABLE_NAME}.${AttachmentTable.DISPLAY_ORDER}", descending = true),
+      Term("${AttachmentTable.TABLE_NAME}.${AttachmentTable.ROW_ID}", descending = true)
     );
 
-    private val postFix: String
+    private val terms: List<Term> = terms.toList()
+    private val postFix: String = " ORDER BY " + this.terms.joinToString(", ") { it.column + if (it.descending) " DESC" else " ASC" }
+    private val reversedPostFix: String = " ORDER BY " + this.terms.joinToString(", ") { it.column + if (it.descending) " ASC" else " DESC" }
 
-    init {
-      postFix = " ORDER BY $order"
-    }
+    internal val columns: String = this.terms.joinToString(", ") { it.column }
 
     fun applyToQuery(query: String): String {
       return query + postFix
     }
 
+    internal fun applyReversedToQuery(query: String): String {
+      return query + reversedPostFix
+    }
+
+    /**
+     * A condition matching the rows after the one whose sort key is bound by [keysetArgs]. It is written as a range on the first column plus a filter, so
+     * that SQLite can seek on the first column.
+     */
+    internal fun after(inclusive: Boolean): String {
+      return keyset(inclusive, laterIsGreater = true)
+    }
+
+    /**
+     * A condition matching the rows before the one whose sort key is bound by [keysetArgs].
+     */
+    internal fun before(inclusive: Boolean): String {
+      return keyset(inclusive, laterIsGreater = false)
+    }
+
+    internal fun keysetArgs(sortKey: LongArray): Array<String> {
+      return SqlUtil.buildArgs(sortKey[0], sortKey[0], sortKey[1], sortKey[1], sortKey[2])
+    }
+
+    private fun keyset(inclusive: Boolean, laterIsGreater: Boolean): String {
+      fun op(term: Term): String = if (term.descending != laterIsGreater) ">" else "<"
+
+      val (first, second, third) = terms
+
+      return " AND ${first.column} ${op(first)}= ? AND (" +
+        "${first.column} ${op(first)} ? OR " +
+        "${second.column} ${op(second)} ? OR " +
+        "(${second.column} = ? AND ${third.column} ${op(third)}${if (inclusive) "=" else ""} ?))"
+    }
+
     val isRelatedToFileSize: Boolean
       get() = this == Largest
 
@@ -264,6 +370,8 @@ class MediaTable internal constructor(context: Context?, databaseHelper: SignalD
     }
   }
 
+  class Term(val column: String, val descending: Boolean)
+
   data class StorageBreakdown(
     val photoSize: Long,
     val videoSize: Long,
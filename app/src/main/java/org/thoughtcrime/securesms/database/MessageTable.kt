@@ -278,6 +278,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       "CREATE INDEX IF NOT EXISTS $INDEX_DATE_SENT_FROM_TO_THREAD ON $TABLE_NAME ($DATE_SENT, $FROM_RECIPIENT_ID, $TO_RECIPIENT_ID, $THREAD_ID)",
       "CREATE INDEX IF NOT EXISTS message_date_server_index ON $TABLE_NAME ($DATE_SERVER)",
       "CREATE INDEX IF NOT EXISTS $INDEX_THREAD_DATE ON $TABLE_NAME ($THREAD_ID, $DATE_RECEIVED);",
+      "CREATE INDEX IF NOT EXISTS message_thread_id_index ON $TABLE_NAME ($THREAD_ID);",
       "CREATE INDEX IF NOT EXISTS message_reactions_unread_index ON $TABLE_NAME ($REACTIONS_UNREAD);",
       "CREATE INDEX IF NOT EXISTS message_story_type_index ON $TABLE_NAME ($STORY_TYPE);",
       "CREATE INDEX IF NOT EXISTS message_parent_story_id_index ON $TABLE_NAME ($PARENT_STORY_ID);",
@@ -4258,6 +4259,16 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return incrementReceiptCounts(targetTimestamps, receiptAuthor, receiptSentTimestamp, ReceiptType.DELIVERY)
   }
 
+  /**
+   * Applies delivery receipts from many authors at once, e.g. the server receipts that arrive after a large group send.
+   * Duplicate timestamps for an author are each counted, matching how individual receipts are applied.
+   *
+   * @return The target timestamps that couldn't be found in the table, keyed by receipt author.
+   */
+  fun incrementDeliveryReceiptCounts(receipts: Map<RecipientId, List<Long>>, receiptSentTimestamp: Long): Map<RecipientId, Set<Long>> {
+    return incrementReceiptCounts(receipts, receiptSentTimestamp, ReceiptType.DELIVERY)
+  }
+
   fun incrementDeliveryReceiptCount(targetTimestamps: Long, receiptAuthor: RecipientId, receiptSentTimestamp: Long): Boolean {
     return incrementReceiptCount(targetTimestamps, receiptAuthor, receiptSentTimestamp, ReceiptType.DELIVERY)
   }
@@ -4345,32 +4356,49 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
    * @return All of the target timestamps that couldn't be found in the table.
    */
   private fun incrementReceiptCounts(targetTimestamps: List<Long>, receiptAuthor: RecipientId, receiptSentTimestamp: Long, receiptType: ReceiptType, messageQualifier: MessageQualifier = MessageQualifier.ALL): Set<Long> {
+    return incrementReceiptCounts(mapOf(receiptAuthor to targetTimestamps), receiptSentTimestamp, receiptType, messageQualifier)[receiptAuthor] ?: emptySet()
+  }
+
+  /**
+   * Applies receipts from any number of authors in a single transaction. Each affected thread has its snippet updated at most once, and conversation
+   * observers are notified once for the whole set of threads, rather than once per receipt.
+   *
+   * @return All of the target timestamps that couldn't be found in the table, keyed by receipt author. Authors with no missing timestamps are omitted.
+   */
+  private fun incrementReceiptCounts(receipts: Map<RecipientId, List<Long>>, receiptSentTimestamp: Long, receiptType: ReceiptType, messageQualifier: MessageQualifier = MessageQualifier.ALL): Map<RecipientId, Set<Long>> {
     val messageUpdates: MutableSet<MessageReceiptUpdate> = HashSet()
-    val missingTargetTimestamps: MutableSet<Long> = HashSet()
+    val missingTargetTimestamps: MutableMap<RecipientId, MutableSet<Long>> = HashMap()
 
     writableDatabase.withinTransaction {
-      for (targetTimestamp in targetTimestamps) {
-        val updates: Set<MessageReceiptUpdate> = incrementReceiptCountInternal(targetTimestamp, receiptAuthor, receiptSentTimestamp, receiptType, messageQualifier)
-        if (updates.isNotEmpty()) {
-          messageUpdates += updates
-        } else {
-          missingTargetTimestamps += targetTimestamp
+      for ((receiptAuthor, targetTimestamps) in receipts) {
+        for (targetTimestamp in targetTimestamps) {
+          val updates: Set<MessageReceiptUpdate> = incrementReceiptCountInternal(targetTimestamp, receiptAuthor, receiptSentTimestamp, receiptType, messageQualifier)
+          if (updates.isNotEmpty()) {
+            messageUpdates += updates
+          } else {
+            missingTargetTimestamps.getOrPut(receiptAuthor) { HashSet() } += targetTimestamp
+          }
         }
       }
 
-      for (update in messageUpdates) {
-        if (update.shouldUpdateSnippet) {
-          threads.updateSilently(update.threadId, false)
-        }
+      for (threadId in messageUpdates.filter { it.shouldUpdateSnippet }.map { it.threadId }.toSet()) {
+        threads.updateSilently(threadId, false)
       }
     }
 
+    val updatedThreadIds: Set<Long> = messageUpdates.map { it.threadId }.toSet()
+
     for (update in messageUpdates) {
       ApplicationDependencies.getDatabaseObserver().notifyMessageUpdateObservers(update.messageId)
-      ApplicationDependencies.getDatabaseObserver().notifyVerboseConversationListeners(setOf(update.threadId))
+    }
+
+    if (updatedThreadIds.isNotEmpty()) {
+      ApplicationDependencies.getDatabaseObserver().notifyVerboseConversationListeners(updatedThreadIds)
+    }
 
-      if (messageQualifier == MessageQualifier.STORY) {
-        ApplicationDependencies.getDatabaseObserver().notifyStoryObservers(threads.getRecipientIdForThreadId(update.threadId)!!)
+    if (messageQualifier == MessageQualifier.STORY) {
+      for (threadId in updatedThreadIds) {
+        ApplicationDependencies.getDatabaseObserver().notifyStoryObservers(threads.getRecipientIdForThreadId(threadId)!!)
       }
     }
 
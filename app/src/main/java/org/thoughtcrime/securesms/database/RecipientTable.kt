@@ -11,6 +11,7 @@ import androidx.core.content.contentValuesOf
 import app.cash.exhaustive.Exhaustive
 import com.google.protobuf.ByteString
 import com.google.protobuf.InvalidProtocolBufferException
+import net.zetetic.database.sqlcipher.SQLiteStatement
 import org.signal.core.util.Bitmask
 import org.signal.core.util.CursorUtil
 import org.signal.core.util.SqlUtil
@@ -412,6 +413,37 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
 
     /** Used as a placeholder recipient for self during migrations when self isn't yet available. */
     private val PLACEHOLDER_SELF_ID = -2L
+
+    private fun serializeBadges(badges: List<Badge>): ByteArray {
+      val badgeListBuilder = BadgeList.newBuilder()
+      for (badge in badges) {
+        badgeListBuilder.addBadges(toDatabaseBadge(badge))
+      }
+
+      return badgeListBuilder.build().toByteArray()
+    }
+
+    private fun serializeCapabilities(capabilities: SignalServiceProfile.Capabilities): Long {
+      var value: Long = 0
+      value = Bitmask.update(value, Capabilities.GROUPS_V1_MIGRATION, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isGv1Migration).serialize().toLong())
+      value = Bitmask.update(value, Capabilities.SENDER_KEY, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isSenderKey).serialize().toLong())
+      value = Bitmask.update(value, Capabilities.ANNOUNCEMENT_GROUPS, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isAnnouncementGroup).serialize().toLong())
+      value = Bitmask.update(value, Capabilities.CHANGE_NUMBER, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isChangeNumber).serialize().toLong())
+      value = Bitmask.update(value, Capabilities.STORIES, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isStories).serialize().toLong())
+      value = Bitmask.update(value, Capabilities.GIFT_BADGES, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isGiftBadges).serialize().toLong())
+      value = Bitmask.update(value, Capabilities.PNP, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isPnp).serialize().toLong())
+      value = Bitmask.update(value, Capabilities.PAYMENT_ACTIVATION, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isPaymentActivation).serialize().toLong())
+      return value
+    }
+
+    private fun serializeProfileKeyCredential(profileKey: ProfileKey, expiringProfileKeyCredential: ExpiringProfileKeyCredential): String {
+      val columnData = ExpiringProfileKeyCredentialColumnData.newBuilder()
+        .setProfileKey(ByteString.copyFrom(profileKey.serialize()))
+        .setExpiringProfileKeyCredential(ByteString.copyFrom(expiringProfileKeyCredential.serialize()))
+        .build()
+
+      return Base64.encodeBytes(columnData.toByteArray())
+    }
   }
 
   fun getByE164(e164: String): Optional<RecipientId> {
@@ -498,26 +530,36 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       db.endTransaction()
 
       if (transactionSuccessful) {
-        if (result.affectedIds.isNotEmpty()) {
-          result.affectedIds.forEach { ApplicationDependencies.getDatabaseObserver().notifyRecipientChanged(it) }
-          RetrieveProfileJob.enqueue(result.affectedIds)
-        }
+        notifyPnpChanges(result.affectedIds, result.oldIds.associateWith { result.finalId })
+      }
+    }
 
-        if (result.oldIds.isNotEmpty()) {
-          result.oldIds.forEach { oldId ->
-            Recipient.live(oldId).refresh(result.finalId)
-            ApplicationDependencies.getRecipientCache().remap(oldId, result.finalId)
-          }
-        }
+    return result.finalId
+  }
 
-        if (result.affectedIds.isNotEmpty() || result.oldIds.isNotEmpty()) {
-          StorageSyncHelper.scheduleSyncForDataChange()
-          RecipientId.clearCache()
-        }
+  /**
+   * Lets the rest of the app know about recipients that were changed or merged away by processing PNP tuples. Call after the transaction they were
+   * processed in has been committed.
+   *
+   * @param remaps A map of the ids of recipients that were merged away to the id of the recipient they were merged into.
+   */
+  private fun notifyPnpChanges(affectedIds: Set<RecipientId>, remaps: Map<RecipientId, RecipientId>) {
+    if (affectedIds.isNotEmpty()) {
+      affectedIds.forEach { ApplicationDependencies.getDatabaseObserver().notifyRecipientChanged(it) }
+      RetrieveProfileJob.enqueue(affectedIds)
+    }
+
+    if (remaps.isNotEmpty()) {
+      remaps.forEach { (oldId, finalId) ->
+        Recipient.live(oldId).refresh(finalId)
+        ApplicationDependencies.getRecipientCache().remap(oldId, finalId)
       }
     }
 
-    return result.finalId
+    if (affectedIds.isNotEmpty() || remaps.isNotEmpty()) {
+      StorageSyncHelper.scheduleSyncForDataChange()
+      RecipientId.clearCache()
+    }
   }
 
   fun getAllServiceIdProfileKeyPairs(): Map<ServiceId, ProfileKey> {
@@ -754,6 +796,28 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     }
   }
 
+  /**
+   * Bulk version of [getByServiceId], [getByE164] and [getByPni] followed by [getRecordForSync], for matching many storage records at once.
+   * Note that [serviceIds] is matched against the service id column only, just like [getByServiceId], so PNIs stored there need to be included in it.
+   *
+   * @return The sync record of every recipient whose service id, e164 or pni column holds one of the provided values.
+   */
+  fun getRecordsForSyncMatching(serviceIds: Collection<ServiceId>, e164s: Collection<String>, pnis: Collection<PNI>): List<RecipientRecord> {
+    val queries: List<SqlUtil.Query> = SqlUtil.buildCollectionQuery("$TABLE_NAME.$SERVICE_ID", serviceIds.map { it.toString() }) +
+      SqlUtil.buildCollectionQuery("$TABLE_NAME.$PHONE", e164s) +
+      SqlUtil.buildCollectionQuery("$TABLE_NAME.$PNI_COLUMN", pnis.map { it.toString() })
+
+    val out: MutableMap<RecipientId, RecipientRecord> = LinkedHashMap()
+
+    for (query in queries) {
+      for (record in getRecordForSync(query.where, query.whereArgs)) {
+        out[record.id] = record
+      }
+    }
+
+    return ArrayList(out.values)
+  }
+
   fun markNeedsSyncWithoutRefresh(recipientIds: Collection<RecipientId>) {
     val db = writableDatabase
     db.beginTransaction()
@@ -1526,13 +1590,8 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
   }
 
   fun setBadges(id: RecipientId, badges: List<Badge>) {
-    val badgeListBuilder = BadgeList.newBuilder()
-    for (badge in badges) {
-      badgeListBuilder.addBadges(toDatabaseBadge(badge))
-    }
-
     val values = ContentValues(1).apply {
-      put(BADGES, badgeListBuilder.build().toByteArray())
+      put(BADGES, serializeBadges(badges))
     }
 
     if (update(id, values)) {
@@ -1541,18 +1600,8 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
   }
 
   fun setCapabilities(id: RecipientId, capabilities: SignalServiceProfile.Capabilities) {
-    var value: Long = 0
-    value = Bitmask.update(value, Capabilities.GROUPS_V1_MIGRATION, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isGv1Migration).serialize().toLong())
-    value = Bitmask.update(value, Capabilities.SENDER_KEY, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isSenderKey).serialize().toLong())
-    value = Bitmask.update(value, Capabilities.ANNOUNCEMENT_GROUPS, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isAnnouncementGroup).serialize().toLong())
-    value = Bitmask.update(value, Capabilities.CHANGE_NUMBER, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isChangeNumber).serialize().toLong())
-    value = Bitmask.update(value, Capabilities.STORIES, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isStories).serialize().toLong())
-    value = Bitmask.update(value, Capabilities.GIFT_BADGES, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isGiftBadges).serialize().toLong())
-    value = Bitmask.update(value, Capabilities.PNP, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isPnp).serialize().toLong())
-    value = Bitmask.update(value, Capabilities.PAYMENT_ACTIVATION, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isPaymentActivation).serialize().toLong())
-
     val values = ContentValues(1).apply {
-      put(CAPABILITIES, value)
+      put(CAPABILITIES, serializeCapabilities(capabilities))
     }
 
     if (update(id, values)) {
@@ -1641,12 +1690,8 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
   ): Boolean {
     val selection = "$ID = ? AND $PROFILE_KEY = ?"
     val args = arrayOf(id.serialize(), Base64.encodeBytes(profileKey.serialize()))
-    val columnData = ExpiringProfileKeyCredentialColumnData.newBuilder()
-      .setProfileKey(ByteString.copyFrom(profileKey.serialize()))
-      .setExpiringProfileKeyCredential(ByteString.copyFrom(expiringProfileKeyCredential.serialize()))
-      .build()
     val values = ContentValues(1).apply {
-      put(EXPIRING_PROFILE_KEY_CREDENTIAL, Base64.encodeBytes(columnData.toByteArray()))
+      put(EXPIRING_PROFILE_KEY_CREDENTIAL, serializeProfileKeyCredential(profileKey, expiringProfileKeyCredential))
     }
     val updateQuery = SqlUtil.buildTrueUpdateQuery(selection, args, values)
 
@@ -2369,25 +2414,67 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
    * Processes CDSv2 results, merging recipients as necessary. Does not mark users as
    * registered.
    *
+   * Gives the same results as calling [getAndPossiblyMerge] for each entry in turn, but every recipient that any entry could match is read up front
+   * in a handful of queries, so that working out what needs to change doesn't have to go back to the database for each entry.
+   *
    * Important: This is under active development and is not suitable for actual use.
    *
    * @return A set of [RecipientId]s that were updated/inserted.
    */
   fun bulkProcessCdsV2Result(mapping: Map<String, CdsV2Result>): Set<RecipientId> {
     val ids: MutableSet<RecipientId> = mutableSetOf()
+    val affectedIds: MutableSet<RecipientId> = mutableSetOf()
+    val remaps: MutableMap<RecipientId, RecipientId> = mutableMapOf()
+    var insertCount = 0
+
     val db = writableDatabase
+    var transactionSuccessful = false
 
     db.beginTransaction()
     try {
-      for ((e164, result) in mapping) {
-        ids += getAndPossiblyMerge(serviceId = result.aci, pni = result.pni, e164 = e164, pniVerified = false, changeSelf = false)
+      PrefetchedPnpStore(
+        e164s = mapping.keys,
+        serviceIds = mapping.values.flatMap { listOfNotNull(it.aci, it.pni) },
+        pnis = mapping.values.map { it.pni }
+      ).use { store ->
+        for ((e164, result) in mapping) {
+          val tupleResult: ProcessPnpTupleResult = processPnpTuple(e164 = e164, pni = result.pni, aci = result.aci, pniVerified = false, changeSelf = false, store = store)
+
+          if (tupleResult.operations.isNotEmpty()) {
+            Log.i(TAG, "[bulkProcessCdsV2Result] (${result.aci}, ${result.pni}, $e164) BreadCrumbs: ${tupleResult.breadCrumbs}, Operations: ${tupleResult.operations}, RequiredInsert: ${tupleResult.requiredInsert}, FinalId: ${tupleResult.finalId}")
+          }
+
+          if (tupleResult.requiredInsert) {
+            insertCount++
+          }
+
+          ids += tupleResult.finalId
+          affectedIds += tupleResult.affectedIds
+          tupleResult.oldIds.forEach { remaps[it] = tupleResult.finalId }
+        }
       }
 
       db.setTransactionSuccessful()
+      transactionSuccessful = true
     } finally {
       db.endTransaction()
     }
 
+    Log.i(TAG, "[bulkProcessCdsV2Result] Processed ${mapping.size} results. Inserted: $insertCount, Changed: ${affectedIds.size}, Merged away: ${remaps.size}")
+
+    if (transactionSuccessful) {
+      // A later entry may have merged away the recipient an earlier one was merged into
+      val finalRemaps: Map<RecipientId, RecipientId> = remaps.mapValues { (_, finalId) ->
+        var id: RecipientId = finalId
+        while (remaps.containsKey(id)) {
+          id = remaps[id]!!
+        }
+        id
+      }
+
+      notifyPnpChanges(affectedIds - finalRemaps.keys, finalRemaps)
+    }
+
     return ids
   }
 
@@ -2440,7 +2527,11 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
    */
   @VisibleForTesting
   fun processPnpTuple(e164: String?, pni: PNI?, aci: ACI?, pniVerified: Boolean, changeSelf: Boolean = false): ProcessPnpTupleResult {
-    val changeSet: PnpChangeSet = processPnpTupleToChangeSet(e164, pni, aci, pniVerified, changeSelf)
+    return processPnpTuple(e164, pni, aci, pniVerified, changeSelf, databasePnpStore)
+  }
+
+  private fun processPnpTuple(e164: String?, pni: PNI?, aci: ACI?, pniVerified: Boolean, changeSelf: Boolean, store: PnpStore): ProcessPnpTupleResult {
+    val changeSet: PnpChangeSet = processPnpTupleToChangeSet(e164, pni, aci, pniVerified, changeSelf, store)
 
     val affectedIds: MutableSet<RecipientId> = mutableSetOf()
     val oldIds: MutableSet<RecipientId> = mutableSetOf()
@@ -2465,7 +2556,8 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       }
     }
 
-    val finalId: RecipientId = writePnpChangeSetToDisk(changeSet, pni)
+    val finalId: RecipientId = writePnpChangeSetToDisk(changeSet, pni, store)
+    store.onRecipientsChanged(affectedIds + oldIds)
 
     return ProcessPnpTupleResult(
       finalId = finalId,
@@ -2480,65 +2572,19 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
 
   @VisibleForTesting
   fun writePnpChangeSetToDisk(changeSet: PnpChangeSet, inputPni: PNI?): RecipientId {
+    return writePnpChangeSetToDisk(changeSet, inputPni, databasePnpStore)
+  }
+
+  private fun writePnpChangeSetToDisk(changeSet: PnpChangeSet, inputPni: PNI?, store: PnpStore): RecipientId {
     var hadThreadMerge = false
     for (operation in changeSet.operations) {
       @Exhaustive
       when (operation) {
-        is PnpOperation.RemoveE164 -> {
-          writableDatabase
-            .update(TABLE_NAME)
-            .values(PHONE to null)
-            .where("$ID = ?", operation.recipientId)
-            .run()
-        }
-        is PnpOperation.RemovePni -> {
-          writableDatabase
-            .update(TABLE_NAME)
-            .values(SERVICE_ID to null)
-            .where("$ID = ? AND $SERVICE_ID NOT NULL AND $SERVICE_ID = $PNI_COLUMN", operation.recipientId)
-            .run()
-
-          writableDatabase
-            .update(TABLE_NAME)
-            .values(PNI_COLUMN to null)
-            .where("$ID = ?", operation.recipientId)
-            .run()
-        }
-        is PnpOperation.SetAci -> {
-          writableDatabase
-            .update(TABLE_NAME)
-            .values(
-              SERVICE_ID to operation.aci.toString(),
-              REGISTERED to RegisteredState.REGISTERED.id,
-              UNREGISTERED_TIMESTAMP to 0
-            )
-            .where("$ID = ?", operation.recipientId)
-            .run()
-        }
-        is PnpOperation.SetE164 -> {
-          writableDatabase
-            .update(TABLE_NAME)
-            .values(PHONE to operation.e164)
-            .where("$ID = ?", operation.recipientId)
-            .run()
-        }
-        is PnpOperation.SetPni -> {
-          writableDatabase
-            .update(TABLE_NAME)
-            .values(SERVICE_ID to operation.pni.toString())
-            .where("$ID = ? AND ($SERVICE_ID IS NULL OR $SERVICE_ID = $PNI_COLUMN)", operation.recipientId)
-            .run()
-
-          writableDatabase
-            .update(TABLE_NAME)
-            .values(
-              PNI_COLUMN to operation.pni.toString(),
-              REGISTERED to RegisteredState.REGISTERED.id,
-              UNREGISTERED_TIMESTAMP to 0
-            )
-            .where("$ID = ?", operation.recipientId)
-            .run()
-        }
+        is PnpOperation.RemoveE164 -> store.removeE164(operation.recipientId)
+        is PnpOperation.RemovePni -> store.removePni(operation.recipientId)
+        is PnpOperation.SetAci -> store.setAci(operation.recipientId, operation.aci)
+        is PnpOperation.SetE164 -> store.setE164(operation.recipientId, operation.e164)
+        is PnpOperation.SetPni -> store.setPni(operation.recipientId, operation.pni)
         is PnpOperation.Merge -> {
           val mergeResult: MergeResult = merge(operation.primaryId, operation.secondaryId, inputPni)
           hadThreadMerge = hadThreadMerge || mergeResult.neededThreadMerge
@@ -2572,8 +2618,7 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
         changeSet.id.recipientId
       }
       is PnpIdResolver.PnpInsert -> {
-        val id: Long = writableDatabase.insert(TABLE_NAME, null, buildContentValuesForNewUser(changeSet.id.e164, changeSet.id.pni, changeSet.id.aci))
-        RecipientId.from(id)
+        store.insert(changeSet.id.e164, changeSet.id.pni, changeSet.id.aci)
       }
     }
   }
@@ -2587,6 +2632,10 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
    */
   @VisibleForTesting
   fun processPnpTupleToChangeSet(e164: String?, pni: PNI?, aci: ACI?, pniVerified: Boolean, changeSelf: Boolean = false): PnpChangeSet {
+    return processPnpTupleToChangeSet(e164, pni, aci, pniVerified, changeSelf, databasePnpStore)
+  }
+
+  private fun processPnpTupleToChangeSet(e164: String?, pni: PNI?, aci: ACI?, pniVerified: Boolean, changeSelf: Boolean, store: PnpStore): PnpChangeSet {
     check(e164 != null || pni != null || aci != null) { "Must provide at least one field!" }
 
     val breadCrumbs: MutableList<String> = mutableListOf()
@@ -2595,10 +2644,10 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       e164 = e164,
       pni = pni,
       aci = aci,
-      byE164 = e164?.let { getByE164(it).orElse(null) },
-      byPniSid = pni?.let { getByServiceId(it).orElse(null) },
-      byPniOnly = pni?.let { getByPni(it).orElse(null) },
-      byAciSid = aci?.let { getByServiceId(it).orElse(null) }
+      byE164 = e164?.let { store.getByE164(it) },
+      byPniSid = pni?.let { store.getByServiceId(it) },
+      byPniOnly = pni?.let { store.getByPni(it) },
+      byAciSid = aci?.let { store.getByServiceId(it) }
     )
 
     val allRequiredDbFields: MutableList<RecipientId?> = mutableListOf()
@@ -2626,7 +2675,7 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     // All ID's agree, but we need to update the database
     if (partialData.commonId != null && !allRequiredDbFieldPopulated) {
       breadCrumbs.add("CommonIdButNeedsUpdate")
-      return processNonMergePnpUpdate(e164, pni, aci, commonId = partialData.commonId, pniVerified = pniVerified, changeSelf = changeSelf, breadCrumbs = breadCrumbs)
+      return processNonMergePnpUpdate(e164, pni, aci, commonId = partialData.commonId, pniVerified = pniVerified, changeSelf = changeSelf, breadCrumbs = breadCrumbs, store = store)
     }
 
     // Nothing matches
@@ -2654,9 +2703,9 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     breadCrumbs += "NeedsMerge"
 
     val fullData = partialData.copy(
-      e164Record = partialData.byE164?.let { getRecord(it) },
-      pniSidRecord = partialData.byPniSid?.let { getRecord(it) },
-      aciSidRecord = partialData.byAciSid?.let { getRecord(it) }
+      e164Record = partialData.byE164?.let { store.getRecord(it) },
+      pniSidRecord = partialData.byPniSid?.let { store.getRecord(it) },
+      aciSidRecord = partialData.byAciSid?.let { store.getRecord(it) }
     )
 
     check(fullData.commonId == null)
@@ -2729,8 +2778,8 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       (aci != null && aci == SignalStore.account().aci)
   }
 
-  private fun processNonMergePnpUpdate(e164: String?, pni: PNI?, aci: ACI?, pniVerified: Boolean, changeSelf: Boolean, commonId: RecipientId, breadCrumbs: MutableList<String>): PnpChangeSet {
-    val record: RecipientRecord = getRecord(commonId)
+  private fun processNonMergePnpUpdate(e164: String?, pni: PNI?, aci: ACI?, pniVerified: Boolean, changeSelf: Boolean, commonId: RecipientId, breadCrumbs: MutableList<String>, store: PnpStore): PnpChangeSet {
+    val record: RecipientRecord = store.getRecord(commonId)
 
     val operations: LinkedHashSet<PnpOperation> = linkedSetOf()
 
@@ -3432,6 +3481,56 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       .toMutableList()
   }
 
+  /**
+   * Writes the fields of each [ProfileUpdate] with as few statements as possible, all in one transaction, in place of calling the individual setters
+   * ([setProfileName], [setAbout], [setBadges], etc.) for each field. Recipients are only notified once each, after the transaction, and only if
+   * something actually changed.
+   *
+   * @return The recipients that had something change.
+   */
+  fun applyProfileUpdates(updates: Collection<ProfileUpdate>): Set<RecipientId> {
+    val changed: MutableSet<RecipientId> = mutableSetOf()
+    var needsStorageSync = false
+
+    writableDatabase.withinTransaction {
+      for (profileUpdate in updates) {
+        if (profileUpdate.isEmpty) {
+          continue
+        }
+
+        val id: RecipientId = profileUpdate.recipientId
+
+        if (profileUpdate.storageValues.size() > 0 && update(id, profileUpdate.storageValues)) {
+          rotateStorageId(id)
+          needsStorageSync = true
+          changed += id
+        }
+
+        if (profileUpdate.values.size() > 0 && update(id, profileUpdate.values)) {
+          changed += id
+        }
+
+        val credentialProfileKey: ProfileKey? = profileUpdate.credentialProfileKey
+        if (credentialProfileKey != null) {
+          val selection = "$ID = ? AND $PROFILE_KEY = ?"
+          val args = arrayOf(id.serialize(), Base64.encodeBytes(credentialProfileKey.serialize()))
+
+          if (update(SqlUtil.buildTrueUpdateQuery(selection, args, profileUpdate.credentialValues), profileUpdate.credentialValues)) {
+            changed += id
+          }
+        }
+      }
+
+      changed.forEach { ApplicationDependencies.getDatabaseObserver().notifyRecipientChanged(it) }
+    }
+
+    if (needsStorageSync) {
+      StorageSyncHelper.scheduleSyncForDataChange()
+    }
+
+    return changed
+  }
+
   fun markProfilesFetched(ids: Collection<RecipientId>, time: Long) {
     val db = writableDatabase
     db.beginTransaction()
@@ -3986,6 +4085,7 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
 
     if (deletes > 0) {
       Log.w(TAG, "Deleted a PLACEHOLDER_SELF from the table.")
+      SignalDatabase.groups.invalidateMembershipCache()
     } else {
       Log.i(TAG, "No PLACEHOLDER_SELF in the table.")
     }
@@ -4309,6 +4409,267 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     val neededThreadMerge: Boolean
   )
 
+  /**
+   * Where [processPnpTuple] finds existing recipients, inserts new ones, and writes the single column updates of a change set.
+   */
+  private interface PnpStore {
+    fun getByE164(e164: String): RecipientId?
+    fun getByServiceId(serviceId: ServiceId): RecipientId?
+    fun getByPni(pni: PNI): RecipientId?
+    fun getRecord(id: RecipientId): RecipientRecord
+    fun insert(e164: String?, pni: PNI?, aci: ACI?): RecipientId
+
+    fun removeE164(id: RecipientId)
+    fun removePni(id: RecipientId)
+    fun setAci(id: RecipientId, aci: ACI)
+    fun setE164(id: RecipientId, e164: String)
+    fun setPni(id: RecipientId, pni: PNI)
+
+    /** Called once the operations of a change set have been written, with every recipient they updated or deleted. */
+    fun onRecipientsChanged(ids: Set<RecipientId>)
+  }
+
+  private val databasePnpStore: PnpStore = DatabasePnpStore()
+
+  /**
+   * Goes straight to the database for everything.
+   */
+  private inner class DatabasePnpStore : PnpStore {
+    override fun getByE164(e164: String): RecipientId? = this@RecipientTable.getByE164(e164).orElse(null)
+    override fun getByServiceId(serviceId: ServiceId): RecipientId? = this@RecipientTable.getByServiceId(serviceId).orElse(null)
+    override fun getByPni(pni: PNI): RecipientId? = this@RecipientTable.getByPni(pni).orElse(null)
+    override fun getRecord(id: RecipientId): RecipientRecord = this@RecipientTable.getRecord(id)
+
+    override fun insert(e164: String?, pni: PNI?, aci: ACI?): RecipientId {
+      val id: Long = writableDatabase.insert(TABLE_NAME, null, buildContentValuesForNewUser(e164, pni, aci))
+      return RecipientId.from(id)
+    }
+
+    override fun removeE164(id: RecipientId) {
+      writableDatabase
+        .update(TABLE_NAME)
+        .values(PHONE to null)
+        .where("$ID = ?", id)
+        .run()
+    }
+
+    override fun removePni(id: RecipientId) {
+      writableDatabase
+        .update(TABLE_NAME)
+        .values(SERVICE_ID to null)
+        .where("$ID = ? AND $SERVICE_ID NOT NULL AND $SERVICE_ID = $PNI_COLUMN", id)
+        .run()
+
+      writableDatabase
+        .update(TABLE_NAME)
+        .values(PNI_COLUMN to null)
+        .where("$ID = ?", id)
+        .run()
+    }
+
+    override fun setAci(id: RecipientId, aci: ACI) {
+      writableDatabase
+        .update(TABLE_NAME)
+        .values(
+          SERVICE_ID to aci.toString(),
+          REGISTERED to RegisteredState.REGISTERED.id,
+          UNREGISTERED_TIMESTAMP to 0
+        )
+        .where("$ID = ?", id)
+        .run()
+    }
+
+    override fun setE164(id: RecipientId, e164: String) {
+      writableDatabase
+        .update(TABLE_NAME)
+        .values(PHONE to e164)
+        .where("$ID = ?", id)
+        .run()
+    }
+
+    override fun setPni(id: RecipientId, pni: PNI) {
+      writableDatabase
+        .update(TABLE_NAME)
+        .values(SERVICE_ID to pni.toString())
+        .where("$ID = ? AND ($SERVICE_ID IS NULL OR $SERVICE_ID = $PNI_COLUMN)", id)
+        .run()
+
+      writableDatabase
+        .update(TABLE_NAME)
+        .values(
+          PNI_COLUMN to pni.toString(),
+          REGISTERED to RegisteredState.REGISTERED.id,
+          UNREGISTERED_TIMESTAMP to 0
+        )
+        .where("$ID = ?", id)
+        .run()
+    }
+
+    override fun onRecipientsChanged(ids: Set<RecipientId>) = Unit
+  }
+
+  /**
+   * Reads every recipient whose e164, service id or pni column holds one of the provided values up front, and answers lookups for those values from
+   * memory. Recipients that a change set touches are read again once it has been written. Inserts, and each kind of single column update, go through a
+   * statement that is only compiled once, so that a large batch of tuples costs a handful of queries plus the writes that are actually needed.
+   *
+   * Only lookups for the values it was created with can be answered. Must be used (and closed) within a single transaction.
+   */
+  private inner class PrefetchedPnpStore(e164s: Collection<String>, serviceIds: Collection<ServiceId>, pnis: Collection<PNI>) : PnpStore, Closeable {
+    private val idsByE164: MutableMap<String, RecipientId> = HashMap()
+    private val idsByServiceId: MutableMap<String, RecipientId> = HashMap()
+    private val idsByPni: MutableMap<String, RecipientId> = HashMap()
+    private val keysById: MutableMap<RecipientId, IndexKeys> = HashMap()
+    private val records: MutableMap<RecipientId, RecipientRecord> = HashMap()
+    private val insertStatements: MutableMap<List<String>, SQLiteStatement> = HashMap()
+    private val updateStatements: MutableMap<String, SQLiteStatement> = HashMap()
+
+    init {
+      ensureInTransaction()
+
+      val queries: List<SqlUtil.Query> = SqlUtil.buildCollectionQuery(PHONE, e164s) +
+        SqlUtil.buildCollectionQuery(SERVICE_ID, serviceIds.map { it.toString() }) +
+        SqlUtil.buildCollectionQuery(PNI_COLUMN, pnis.map { it.toString() })
+
+      for (query in queries) {
+        load(query)
+      }
+    }
+
+    override fun getByE164(e164: String): RecipientId? = idsByE164[e164]
+    override fun getByServiceId(serviceId: ServiceId): RecipientId? = idsByServiceId[serviceId.toString()]
+    override fun getByPni(pni: PNI): RecipientId? = idsByPni[pni.toString()]
+
+    override fun getRecord(id: RecipientId): RecipientRecord {
+      return records.getOrPut(id) { this@RecipientTable.getRecord(id) }
+    }
+
+    override fun insert(e164: String?, pni: PNI?, aci: ACI?): RecipientId {
+      val values: ContentValues = buildContentValuesForNewUser(e164, pni, aci)
+      val columns: List<String> = values.keySet().sorted()
+
+      val statement: SQLiteStatement = insertStatements.getOrPut(columns) {
+        writableDatabase.compileStatement("INSERT INTO $TABLE_NAME (${columns.joinToString(", ")}) VALUES (${columns.joinToString(", ") { "?" }})")
+      }
+
+      statement.clearBindings()
+      columns.forEachIndexed { i, column ->
+        when (val value: Any? = values.get(column)) {
+          null -> statement.bindNull(i + 1)
+          is Number -> statement.bindLong(i + 1, value.toLong())
+          else -> statement.bindString(i + 1, value.toString())
+        }
+      }
+
+      val id = RecipientId.from(statement.executeInsert())
+      index(id, IndexKeys(e164, (aci ?: pni)?.toString(), pni?.toString()))
+
+      return id
+    }
+
+    override fun removeE164(id: RecipientId) {
+      update("UPDATE $TABLE_NAME SET $PHONE = NULL WHERE $ID = ?", id.toLong())
+    }
+
+    override fun removePni(id: RecipientId) {
+      update("UPDATE $TABLE_NAME SET $SERVICE_ID = NULL WHERE $ID = ? AND $SERVICE_ID NOT NULL AND $SERVICE_ID = $PNI_COLUMN", id.toLong())
+      update("UPDATE $TABLE_NAME SET $PNI_COLUMN = NULL WHERE $ID = ?", id.toLong())
+    }
+
+    override fun setAci(id: RecipientId, aci: ACI) {
+      update(
+        "UPDATE $TABLE_NAME SET $SERVICE_ID = ?, $REGISTERED = ?, $UNREGISTERED_TIMESTAMP = 0 WHERE $ID = ?",
+        aci.toString(),
+        RegisteredState.REGISTERED.id.toLong(),
+        id.toLong()
+      )
+    }
+
+    override fun setE164(id: RecipientId, e164: String) {
+      update("UPDATE $TABLE_NAME SET $PHONE = ? WHERE $ID = ?", e164, id.toLong())
+    }
+
+    override fun setPni(id: RecipientId, pni: PNI) {
+      update("UPDATE $TABLE_NAME SET $SERVICE_ID = ? WHERE $ID = ? AND ($SERVICE_ID IS NULL OR $SERVICE_ID = $PNI_COLUMN)", pni.toString(), id.toLong())
+      update(
+        "UPDATE $TABLE_NAME SET $PNI_COLUMN = ?, $REGISTERED = ?, $UNREGISTERED_TIMESTAMP = 0 WHERE $ID = ?",
+        pni.toString(),
+        RegisteredState.REGISTERED.id.toLong(),
+        id.toLong()
+      )
+    }
+
+    override fun onRecipientsChanged(ids: Set<RecipientId>) {
+      if (ids.isEmpty()) {
+        return
+      }
+
+      for (id in ids) {
+        unindex(id)
+      }
+
+      for (query in SqlUtil.buildCollectionQuery(ID, ids.map { it.serialize() })) {
+        load(query)
+      }
+    }
+
+    override fun close() {
+      insertStatements.values.forEach { it.close() }
+      insertStatements.clear()
+      updateStatements.values.forEach { it.close() }
+      updateStatements.clear()
+    }
+
+    private fun update(sql: String, vararg args: Any) {
+      val statement: SQLiteStatement = updateStatements.getOrPut(sql) { writableDatabase.compileStatement(sql) }
+
+      statement.clearBindings()
+      args.forEachIndexed { i, arg ->
+        when (arg) {
+          is Long -> statement.bindLong(i + 1, arg)
+          else -> statement.bindString(i + 1, arg.toString())
+        }
+      }
+
+      statement.executeUpdateDelete()
+    }
+
+    private fun load(query: SqlUtil.Query) {
+      readableDatabase.query(TABLE_NAME, RECIPIENT_PROJECTION, query.where, query.whereArgs, null, null, null).use { cursor ->
+        while (cursor.moveToNext()) {
+          val record: RecipientRecord = this@RecipientTable.getRecord(context, cursor)
+          records[record.id] = record
+          index(record.id, IndexKeys(record.e164, record.serviceId?.toString(), record.pni?.toString()))
+        }
+      }
+    }
+
+    private fun index(id: RecipientId, keys: IndexKeys) {
+      keysById[id] = keys
+      keys.e164?.let { idsByE164[it] = id }
+      keys.serviceId?.let { idsByServiceId[it] = id }
+      keys.pni?.let { idsByPni[it] = id }
+    }
+
+    private fun unindex(id: RecipientId) {
+      records.remove(id)
+
+      val keys: IndexKeys = keysById.remove(id) ?: return
+      // Another recipient may have already taken over one of these values, in which case it has to stay
+      idsByE164.removeIfMapsTo(keys.e164, id)
+      idsByServiceId.removeIfMapsTo(keys.serviceId, id)
+      idsByPni.removeIfMapsTo(keys.pni, id)
+    }
+
+    private fun MutableMap<String, RecipientId>.removeIfMapsTo(key: String?, id: RecipientId) {
+      if (key != null && this[key] == id) {
+        this.remove(key)
+      }
+    }
+  }
+
+  private data class IndexKeys(val e164: String?, val serviceId: String?, val pni: String?)
+
   inner class BulkOperationsHandle internal constructor(private val database: SQLiteDatabase) {
     private val pendingRecipients: MutableSet<RecipientId> = mutableSetOf()
 
@@ -4647,6 +5008,64 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     }
   }
 
+  /**
+   * The fields fetched from a recipient's profile that should be written to it. Anything that isn't set is left alone.
+   *
+   * @see applyProfileUpdates
+   */
+  class ProfileUpdate(val recipientId: RecipientId) {
+    /** Values that are synced to storage service, and therefore need the storage id to be rotated when they change. */
+    internal val storageValues = ContentValues()
+    internal val values = ContentValues()
+    internal val credentialValues = ContentValues(1)
+    internal var credentialProfileKey: ProfileKey? = null
+
+    val isEmpty: Boolean
+      get() = storageValues.size() == 0 && values.size() == 0 && credentialValues.size() == 0
+
+    fun setProfileName(profileName: ProfileName): ProfileUpdate {
+      storageValues.put(PROFILE_GIVEN_NAME, profileName.givenName)
+      storageValues.put(PROFILE_FAMILY_NAME, profileName.familyName)
+      storageValues.put(PROFILE_JOINED_NAME, profileName.toString())
+      return this
+    }
+
+    fun clearUsername(): ProfileUpdate {
+      storageValues.putNull(USERNAME)
+      return this
+    }
+
+    fun setAbout(about: String?, emoji: String?): ProfileUpdate {
+      values.put(ABOUT, about)
+      values.put(ABOUT_EMOJI, emoji)
+      return this
+    }
+
+    fun setBadges(badges: List<Badge>): ProfileUpdate {
+      values.put(BADGES, serializeBadges(badges))
+      return this
+    }
+
+    fun setCapabilities(capabilities: SignalServiceProfile.Capabilities): ProfileUpdate {
+      values.put(CAPABILITIES, serializeCapabilities(capabilities))
+      return this
+    }
+
+    fun setUnidentifiedAccessMode(unidentifiedAccessMode: UnidentifiedAccessMode): ProfileUpdate {
+      values.put(UNIDENTIFIED_ACCESS_MODE, unidentifiedAccessMode.mode)
+      return this
+    }
+
+    /**
+     * Like [RecipientTable.setProfileKeyCredential], this is only written if the recipient still has the provided profile key.
+     */
+    fun setProfileKeyCredential(profileKey: ProfileKey, expiringProfileKeyCredential: ExpiringProfileKeyCredential): ProfileUpdate {
+      credentialProfileKey = profileKey
+      credentialValues.put(EXPIRING_PROFILE_KEY_CREDENTIAL, serializeProfileKeyCredential(profileKey, expiringProfileKeyCredential))
+      return this
+    }
+  }
+
   data class CdsV2Result(
     val pni: PNI,
     val aci: ACI?
@@ -92,6 +92,7 @@ class RemappedRecords {
     ensureRecipientMapIsPopulated();
     recipientMap.put(oldId, newId);
     SignalDatabase.remappedRecords().addRecipientMapping(oldId, newId);
+    SignalDatabase.groups().invalidateMembershipCache();
   }
 
   /**
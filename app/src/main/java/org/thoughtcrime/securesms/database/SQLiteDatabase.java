@@ -50,10 +50,14 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
 
   private static final ThreadLocal<Set<Runnable>> PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS;
   private static final ThreadLocal<Set<Runnable>> POST_SUCCESSFUL_TRANSACTION_TASKS;
+  private static final ThreadLocal<Set<Runnable>> PENDING_POST_FAILED_TRANSACTION_TASKS;
+  private static final ThreadLocal<Set<Runnable>> POST_FAILED_TRANSACTION_TASKS;
 
   static {
     PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS = new ThreadLocal<>();
     POST_SUCCESSFUL_TRANSACTION_TASKS         = new ThreadLocal<>();
+    PENDING_POST_FAILED_TRANSACTION_TASKS     = new ThreadLocal<>();
+    POST_FAILED_TRANSACTION_TASKS             = new ThreadLocal<>();
 
     PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS.set(new LinkedHashSet<>());
   }
@@ -148,6 +152,17 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
     }
   }
 
+  /**
+   * Allows you to enqueue a task to be run after the active transaction is rolled back.
+   * If the transaction succeeds, the task is discarded.
+   * If there is no current transaction open, there is nothing to roll back, so the task is discarded.
+   */
+  public void runPostFailedTransaction(@NonNull Runnable task) {
+    if (wrapped.inTransaction()) {
+      getTasks(PENDING_POST_FAILED_TRANSACTION_TASKS).add(task);
+    }
+  }
+
   private @NonNull Set<Runnable> getPendingPostSuccessfulTransactionTasks() {
     Set<Runnable> tasks = PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS.get();
 
@@ -170,6 +185,17 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
     return tasks;
   }
 
+  private static @NonNull Set<Runnable> getTasks(@NonNull ThreadLocal<Set<Runnable>> threadLocal) {
+    Set<Runnable> tasks = threadLocal.get();
+
+    if (tasks == null) {
+      tasks = new LinkedHashSet<>();
+      threadLocal.set(tasks);
+    }
+
+    return tasks;
+  }
+
   private interface Returnable<E> {
     E run();
   }
@@ -299,10 +325,16 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
             tasks.clear();
             tasks.addAll(pendingTasks);
             pendingTasks.clear();
+            getTasks(PENDING_POST_FAILED_TRANSACTION_TASKS).clear();
           }
 
           @Override
           public void onRollback() {
+            Set<Runnable> pendingTasks = getTasks(PENDING_POST_FAILED_TRANSACTION_TASKS);
+            Set<Runnable> tasks        = getTasks(POST_FAILED_TRANSACTION_TASKS);
+            tasks.clear();
+            tasks.addAll(pendingTasks);
+            pendingTasks.clear();
             getPendingPostSuccessfulTransactionTasks().clear();
           }
         });
@@ -319,6 +351,12 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
         r.run();
       }
       tasks.clear();
+
+      Set<Runnable> failedTasks = getTasks(POST_FAILED_TRANSACTION_TASKS);
+      for (Runnable r : new HashSet<>(failedTasks)) {
+        r.run();
+      }
+      failedTasks.clear();
     }
   }
 
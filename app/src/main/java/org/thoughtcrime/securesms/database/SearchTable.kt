@@ -3,13 +3,17 @@ package org.thoughtcrime.securesms.database
 import android.annotation.SuppressLint
 import android.content.Context
 import android.database.Cursor
-import android.text.TextUtils
 import org.intellij.lang.annotations.Language
 import org.signal.core.util.SqlUtil
 import org.signal.core.util.ThreadUtil
+import org.signal.core.util.exists
 import org.signal.core.util.logging.Log
+import org.signal.core.util.readToSingleInt
+import org.signal.core.util.readToSingleLong
+import org.signal.core.util.select
 import org.signal.core.util.withinTransaction
 import org.thoughtcrime.securesms.jobs.RebuildMessageSearchIndexJob
+import org.thoughtcrime.securesms.recipients.RecipientId
 
 /**
  * Contains all databases necessary for full-text search (FTS).
@@ -28,17 +32,30 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     const val MESSAGE_RECIPIENT = "message_recipient"
     const val IS_MMS = "is_mms"
     const val MESSAGE_ID = "message_id"
+    const val RANK = "search_rank"
     const val SNIPPET_WRAP = "..."
 
+    /** The most results a global message search will return, same as [queryMessages]. */
+    const val MAX_MESSAGE_RESULTS = 500
+
+    /** Messages that have been written but not yet added to [FTS_TABLE_NAME], when indexing is deferred. */
+    const val PENDING_TABLE_NAME = "message_fts_pending"
+    const val PENDING_MESSAGE_ID = "message_id"
+
     @Language("sql")
     val CREATE_TABLE = arrayOf(
-      "CREATE VIRTUAL TABLE $FTS_TABLE_NAME USING fts5($BODY, $THREAD_ID UNINDEXED, content=${MessageTable.TABLE_NAME}, content_rowid=${MessageTable.ID})"
+      "CREATE VIRTUAL TABLE $FTS_TABLE_NAME USING fts5($BODY, $THREAD_ID UNINDEXED, content=${MessageTable.TABLE_NAME}, content_rowid=${MessageTable.ID})",
+      "CREATE TABLE $PENDING_TABLE_NAME ($PENDING_MESSAGE_ID INTEGER PRIMARY KEY)"
     )
 
     private const val TRIGGER_AFTER_INSERT = "message_ai"
     private const val TRIGGER_AFTER_DELETE = "message_ad"
     private const val TRIGGER_AFTER_UPDATE = "message_au"
 
+    private const val TRIGGER_AFTER_INSERT_DEFERRED = "message_ai_deferred"
+    private const val TRIGGER_AFTER_DELETE_DEFERRED = "message_ad_deferred"
+    private const val TRIGGER_AFTER_UPDATE_DEFERRED = "message_au_deferred"
+
     @Language("sql")
     val CREATE_TRIGGERS = arrayOf(
       """
@@ -59,15 +76,50 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
       """
     )
 
+    /**
+     * Used instead of [CREATE_TRIGGERS] when indexing is deferred. New messages are only queued, and [indexPendingMessages] indexes them later.
+     *
+     * A message is always either in the index or in the queue, never both. Queued messages were never indexed, so they must not be deleted from the index
+     * (that would corrupt it), and a changed message that was already indexed is removed from the index and queued again.
+     */
+    @Language("sql")
+    private val CREATE_DEFERRED_TRIGGERS = arrayOf(
+      """
+        CREATE TRIGGER $TRIGGER_AFTER_INSERT_DEFERRED AFTER INSERT ON ${MessageTable.TABLE_NAME} BEGIN
+          INSERT INTO $PENDING_TABLE_NAME ($PENDING_MESSAGE_ID) VALUES (new.${MessageTable.ID});
+        END;
+      """,
+      """
+        CREATE TRIGGER $TRIGGER_AFTER_DELETE_DEFERRED AFTER DELETE ON ${MessageTable.TABLE_NAME} BEGIN
+          INSERT INTO $FTS_TABLE_NAME($FTS_TABLE_NAME, $ID, $BODY, $THREAD_ID) SELECT 'delete', old.${MessageTable.ID}, old.${MessageTable.BODY}, old.${MessageTable.THREAD_ID} WHERE NOT EXISTS (SELECT 1 FROM $PENDING_TABLE_NAME WHERE $PENDING_MESSAGE_ID = old.${MessageTable.ID});
+          DELETE FROM $PENDING_TABLE_NAME WHERE $PENDING_MESSAGE_ID = old.${MessageTable.ID};
+        END;
+      """,
+      """
+        CREATE TRIGGER $TRIGGER_AFTER_UPDATE_DEFERRED AFTER UPDATE OF ${MessageTable.BODY}, ${MessageTable.THREAD_ID} ON ${MessageTable.TABLE_NAME} BEGIN
+          INSERT INTO $FTS_TABLE_NAME($FTS_TABLE_NAME, $ID, $BODY, $THREAD_ID) SELECT 'delete', old.${MessageTable.ID}, old.${MessageTable.BODY}, old.${MessageTable.THREAD_ID} WHERE NOT EXISTS (SELECT 1 FROM $PENDING_TABLE_NAME WHERE $PENDING_MESSAGE_ID = old.${MessageTable.ID});
+          INSERT OR IGNORE INTO $PENDING_TABLE_NAME ($PENDING_MESSAGE_ID) VALUES (new.${MessageTable.ID});
+        END;
+      """
+    )
+
+    @Language("sql")
+    private const val MESSAGE_FILTER = """
+        ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.GROUP_V2_BIT} = 0 AND 
+        ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.SPECIAL_TYPE_PAYMENTS_NOTIFICATION} = 0 AND
+        ${MessageTable.TABLE_NAME}.${MessageTable.SCHEDULED_DATE} < 0 AND
+        ${MessageTable.TABLE_NAME}.${MessageTable.LATEST_REVISION_ID} IS NULL
+    """
+
     @Language("sql")
-    private const val MESSAGES_QUERY = """
+    private const val INDEXED_MESSAGES_QUERY = """
       SELECT 
         ${ThreadTable.TABLE_NAME}.${ThreadTable.RECIPIENT_ID} AS $CONVERSATION_RECIPIENT, 
         ${MessageTable.TABLE_NAME}.${MessageTable.FROM_RECIPIENT_ID} AS $MESSAGE_RECIPIENT, 
         snippet($FTS_TABLE_NAME, -1, '', '', '$SNIPPET_WRAP', 7) AS $SNIPPET, 
-        ${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED}, 
-        $FTS_TABLE_NAME.$THREAD_ID, 
-        $FTS_TABLE_NAME.$BODY, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED} AS ${MessageTable.DATE_RECEIVED}, 
+        $FTS_TABLE_NAME.$THREAD_ID AS $THREAD_ID, 
+        $FTS_TABLE_NAME.$BODY AS $BODY, 
         $FTS_TABLE_NAME.$ID AS $MESSAGE_ID, 
         1 AS $IS_MMS 
       FROM 
@@ -76,57 +128,188 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
           INNER JOIN ${ThreadTable.TABLE_NAME} ON $FTS_TABLE_NAME.$THREAD_ID = ${ThreadTable.TABLE_NAME}.${ThreadTable.ID} 
       WHERE 
         $FTS_TABLE_NAME MATCH ? AND 
-        ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.GROUP_V2_BIT} = 0 AND 
-        ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.SPECIAL_TYPE_PAYMENTS_NOTIFICATION} = 0 AND
-        ${MessageTable.TABLE_NAME}.${MessageTable.SCHEDULED_DATE} < 0 AND
-        ${MessageTable.TABLE_NAME}.${MessageTable.LATEST_REVISION_ID} IS NULL
-      ORDER BY ${MessageTable.DATE_RECEIVED} DESC 
-      LIMIT 500
+        $MESSAGE_FILTER
     """
 
+    /**
+     * Brute-force match against the messages that are still waiting to be indexed. That's normally only a handful of rows, so scanning their bodies is cheap.
+     */
     @Language("sql")
-    private const val MESSAGES_FOR_THREAD_QUERY = """
+    private const val PENDING_MESSAGES_QUERY = """
       SELECT 
         ${ThreadTable.TABLE_NAME}.${ThreadTable.RECIPIENT_ID} AS $CONVERSATION_RECIPIENT, 
-        ${MessageTable.TABLE_NAME}.${MessageTable.FROM_RECIPIENT_ID} AS $MESSAGE_RECIPIENT,
-        snippet($FTS_TABLE_NAME, -1, '', '', '$SNIPPET_WRAP', 7) AS $SNIPPET,
-        ${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED}, 
-        $FTS_TABLE_NAME.$THREAD_ID, 
-        $FTS_TABLE_NAME.$BODY, 
-        $FTS_TABLE_NAME.$ID AS $MESSAGE_ID,
+        ${MessageTable.TABLE_NAME}.${MessageTable.FROM_RECIPIENT_ID} AS $MESSAGE_RECIPIENT, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.BODY} AS $SNIPPET, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED} AS ${MessageTable.DATE_RECEIVED}, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.THREAD_ID} AS $THREAD_ID, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.BODY} AS $BODY, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.ID} AS $MESSAGE_ID, 
         1 AS $IS_MMS 
       FROM 
         ${MessageTable.TABLE_NAME} 
-          INNER JOIN $FTS_TABLE_NAME ON $FTS_TABLE_NAME.$ID = ${MessageTable.TABLE_NAME}.${MessageTable.ID} 
-          INNER JOIN ${ThreadTable.TABLE_NAME} ON $FTS_TABLE_NAME.$THREAD_ID = ${ThreadTable.TABLE_NAME}.${ThreadTable.ID} 
+          INNER JOIN $PENDING_TABLE_NAME ON $PENDING_TABLE_NAME.$PENDING_MESSAGE_ID = ${MessageTable.TABLE_NAME}.${MessageTable.ID} 
+          INNER JOIN ${ThreadTable.TABLE_NAME} ON ${MessageTable.TABLE_NAME}.${MessageTable.THREAD_ID} = ${ThreadTable.TABLE_NAME}.${ThreadTable.ID} 
       WHERE 
-        $FTS_TABLE_NAME MATCH ? AND 
-        ${MessageTable.TABLE_NAME}.${MessageTable.THREAD_ID} = ? AND
-        ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.GROUP_V2_BIT} = 0 AND 
-        ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.SPECIAL_TYPE_PAYMENTS_NOTIFICATION} = 0 AND
-        ${MessageTable.TABLE_NAME}.${MessageTable.SCHEDULED_DATE} < 0 AND
-        ${MessageTable.TABLE_NAME}.${MessageTable.LATEST_REVISION_ID} IS NULL
-      ORDER BY ${MessageTable.DATE_RECEIVED} DESC 
-      LIMIT 500
+        $MESSAGE_FILTER
     """
   }
 
   fun queryMessages(query: String): Cursor? {
-    val fullTextSearchQuery = createFullTextSearchQuery(query)
-    return if (fullTextSearchQuery.isEmpty()) {
-      null
-    } else {
-      readableDatabase.rawQuery(MESSAGES_QUERY, SqlUtil.buildArgs(fullTextSearchQuery))
+    return queryMessages(query, null)
+  }
+
+  fun queryMessages(query: String, threadId: Long?): Cursor? {
+    val terms = getSearchTerms(query)
+    if (terms.isEmpty()) {
+      return null
+    }
+
+    val threadClause = if (threadId != null) " AND ${MessageTable.TABLE_NAME}.${MessageTable.THREAD_ID} = ?" else ""
+    val threadArgs = if (threadId != null) listOf(threadId.toString()) else emptyList()
+    val pendingTermsClause = terms.joinToString(separator = "") { " AND ${MessageTable.TABLE_NAME}.${MessageTable.BODY} LIKE ? ESCAPE '\\'" }
+
+    @Language("sql")
+    val sql = """
+      $INDEXED_MESSAGES_QUERY $threadClause
+      UNION ALL
+      $PENDING_MESSAGES_QUERY $threadClause $pendingTermsClause
+      ORDER BY ${MessageTable.DATE_RECEIVED} DESC
+      LIMIT 500
+    """
+
+    val args = listOf(createFullTextSearchQuery(terms)) + threadArgs + threadArgs + terms.map { "%${likeEscape(it)}%" }
+
+    return readableDatabase.rawQuery(sql, args.toTypedArray())
+  }
+
+  /**
+   * @return How many messages match [query], either by their body or by mentioning one of [mentionRecipientIds], up to [MAX_MESSAGE_RESULTS].
+   */
+  fun getMessageSearchCount(query: String, threadId: Long?, mentionRecipientIds: Collection<RecipientId>): Int {
+    val terms = getSearchTerms(query)
+    if (terms.isEmpty()) {
+      return 0
+    }
+
+    val hits = buildMessageHitsQuery(terms, threadId, mentionRecipientIds, Ranking.RECENT)
+
+    return readableDatabase
+      .rawQuery("WITH hits AS (${hits.sql}) SELECT COUNT(*) FROM (SELECT DISTINCT $MESSAGE_ID FROM hits LIMIT $MAX_MESSAGE_RESULTS)", hits.args)
+      .readToSingleInt()
+  }
+
+  /**
+   * Returns one page of the messages that match [query], either by their body or by mentioning one of [mentionRecipientIds], in [ranking] order.
+   *
+   * Each row has its [RANK], and pages are keyed on the rank and id of the last row of the previous page, [after], rather than an offset. Matches are
+   * ranked on their ids alone, and only the rows in the page are joined with their thread and have a snippet generated. Rows that aren't in the search
+   * index yet, or that only match by mention, have a null [SNIPPET].
+   */
+  fun queryMessagesPage(query: String, threadId: Long?, mentionRecipientIds: Collection<RecipientId>, ranking: Ranking, after: MessagePageKey?, limit: Int): Cursor? {
+    val terms = getSearchTerms(query)
+    if (terms.isEmpty()) {
+      return null
     }
+
+    val hits = buildMessageHitsQuery(terms, threadId, mentionRecipientIds, ranking)
+    val afterClause = if (after != null) "WHERE $RANK > ? OR ($RANK = ? AND $MESSAGE_ID < ?)" else ""
+    val afterArgs: List<Any> = if (after != null) listOf(after.rank, after.rank, after.messageId) else emptyList()
+
+    @Language("sql")
+    val sql = """
+      WITH hits AS (${hits.sql}), 
+      page AS (
+        SELECT $MESSAGE_ID, $RANK 
+        FROM (SELECT $MESSAGE_ID, MIN($RANK) AS $RANK FROM hits GROUP BY $MESSAGE_ID) 
+        $afterClause 
+        ORDER BY $RANK ASC, $MESSAGE_ID DESC 
+        LIMIT $limit
+      )
+      SELECT 
+        ${ThreadTable.TABLE_NAME}.${ThreadTable.RECIPIENT_ID} AS $CONVERSATION_RECIPIENT, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.FROM_RECIPIENT_ID} AS $MESSAGE_RECIPIENT, 
+        (
+          SELECT snippet($FTS_TABLE_NAME, -1, '', '', '$SNIPPET_WRAP', 7) 
+          FROM $FTS_TABLE_NAME 
+          WHERE $FTS_TABLE_NAME MATCH ? AND $FTS_TABLE_NAME.$ID = page.$MESSAGE_ID
+        ) AS $SNIPPET, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED} AS ${MessageTable.DATE_RECEIVED}, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.THREAD_ID} AS $THREAD_ID, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.BODY} AS $BODY, 
+        page.$MESSAGE_ID AS $MESSAGE_ID, 
+        page.$RANK AS $RANK, 
+        1 AS $IS_MMS 
+      FROM 
+        page 
+          INNER JOIN ${MessageTable.TABLE_NAME} ON ${MessageTable.TABLE_NAME}.${MessageTable.ID} = page.$MESSAGE_ID 
+          INNER JOIN ${ThreadTable.TABLE_NAME} ON ${MessageTable.TABLE_NAME}.${MessageTable.THREAD_ID} = ${ThreadTable.TABLE_NAME}.${ThreadTable.ID} 
+      ORDER BY page.$RANK ASC, page.$MESSAGE_ID DESC
+    """
+
+    // The rank is bound as a number. A text argument would always compare greater than it.
+    val args: List<Any> = hits.args.toList() + afterArgs + createFullTextSearchQuery(terms)
+
+    return readableDatabase.rawQuery(sql, args.toTypedArray())
   }
 
-  fun queryMessages(query: String, threadId: Long): Cursor? {
-    val fullTextSearchQuery = createFullTextSearchQuery(query)
-    return if (TextUtils.isEmpty(fullTextSearchQuery)) {
-      null
+  /**
+   * Builds a query for the id and [RANK] of every message that matches, which may include a message more than once. Each kind of match is read from its
+   * own index: indexed bodies through an FTS MATCH, unindexed bodies through the pending table, and mentions through the mention table, so none of them
+   * scan the message table.
+   */
+  private fun buildMessageHitsQuery(terms: List<String>, threadId: Long?, mentionRecipientIds: Collection<RecipientId>, ranking: Ranking): MessageHitsQuery {
+    val threadClause = if (threadId != null) " AND ${MessageTable.TABLE_NAME}.${MessageTable.THREAD_ID} = ?" else ""
+    val threadArgs = if (threadId != null) listOf(threadId.toString()) else emptyList()
+    val pendingTermsClause = terms.joinToString(separator = "") { " AND ${MessageTable.TABLE_NAME}.${MessageTable.BODY} LIKE ? ESCAPE '\\'" }
+
+    @Language("sql")
+    val mentionsQuery = if (mentionRecipientIds.isEmpty()) {
+      ""
     } else {
-      readableDatabase.rawQuery(MESSAGES_FOR_THREAD_QUERY, SqlUtil.buildArgs(fullTextSearchQuery, threadId))
+      """
+      UNION ALL
+      SELECT 
+        ${MessageTable.TABLE_NAME}.${MessageTable.ID} AS $MESSAGE_ID, 
+        ${ranking.unindexedRank} AS $RANK 
+      FROM 
+        ${MentionTable.TABLE_NAME} 
+          INNER JOIN ${MessageTable.TABLE_NAME} ON ${MessageTable.TABLE_NAME}.${MessageTable.ID} = ${MentionTable.TABLE_NAME}.${MentionTable.MESSAGE_ID} 
+      WHERE 
+        ${MentionTable.TABLE_NAME}.${MentionTable.RECIPIENT_ID} IN (${mentionRecipientIds.joinToString(",") { it.serialize() }}) AND 
+        $MESSAGE_FILTER $threadClause
+      """
     }
+
+    // The CROSS JOIN keeps SQLite from scanning the message table for the LIKE terms instead of walking the (normally tiny) pending table
+    @Language("sql")
+    val sql = """
+      SELECT 
+        ${MessageTable.TABLE_NAME}.${MessageTable.ID} AS $MESSAGE_ID, 
+        ${ranking.indexedRank} AS $RANK 
+      FROM 
+        $FTS_TABLE_NAME 
+          INNER JOIN ${MessageTable.TABLE_NAME} ON ${MessageTable.TABLE_NAME}.${MessageTable.ID} = $FTS_TABLE_NAME.$ID 
+      WHERE 
+        $FTS_TABLE_NAME MATCH ? AND 
+        $MESSAGE_FILTER $threadClause
+      UNION ALL
+      SELECT 
+        ${MessageTable.TABLE_NAME}.${MessageTable.ID} AS $MESSAGE_ID, 
+        ${ranking.unindexedRank} AS $RANK 
+      FROM 
+        $PENDING_TABLE_NAME 
+          CROSS JOIN ${MessageTable.TABLE_NAME} ON ${MessageTable.TABLE_NAME}.${MessageTable.ID} = $PENDING_TABLE_NAME.$PENDING_MESSAGE_ID 
+      WHERE 
+        $MESSAGE_FILTER $threadClause $pendingTermsClause
+      $mentionsQuery
+    """
+
+    val args = listOf(createFullTextSearchQuery(terms)) +
+      threadArgs +
+      threadArgs + terms.map { "%${likeEscape(it)}%" } +
+      if (mentionRecipientIds.isEmpty()) emptyList() else threadArgs
+
+    return MessageHitsQuery(sql, args.toTypedArray())
   }
 
   /**
@@ -145,22 +328,111 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
 
     for (i in 1..maxId step batchSize) {
       Log.i(TAG, "Reindexing ID's [$i, ${i + batchSize})")
-      writableDatabase.execSQL(
-        """
-        INSERT INTO $FTS_TABLE_NAME ($ID, $BODY) 
-            SELECT 
-              ${MessageTable.ID}, 
-              ${MessageTable.BODY}
-            FROM 
-              ${MessageTable.TABLE_NAME} 
-            WHERE 
-              ${MessageTable.ID} >= $i AND
-              ${MessageTable.ID} < ${i + batchSize}
-        """
-      )
+      writableDatabase.withinTransaction { db ->
+        db.execSQL(
+          """
+          INSERT INTO $FTS_TABLE_NAME ($ID, $BODY) 
+              SELECT 
+                ${MessageTable.ID}, 
+                ${MessageTable.BODY}
+              FROM 
+                ${MessageTable.TABLE_NAME} 
+              WHERE 
+                ${MessageTable.ID} >= $i AND
+                ${MessageTable.ID} < ${i + batchSize}
+          """
+        )
+
+        // These are in the index now, so they mustn't be indexed again
+        db.execSQL("DELETE FROM $PENDING_TABLE_NAME WHERE $PENDING_MESSAGE_ID >= $i AND $PENDING_MESSAGE_ID < ${i + batchSize}")
+      }
     }
   }
 
+  /**
+   * Whether message writes only queue messages to be indexed, leaving it to [indexPendingMessages] to index them later, instead of tokenizing them as part
+   * of every insert.
+   */
+  fun isDeferredIndexingEnabled(): Boolean {
+    return readableDatabase
+      .exists("sqlite_master")
+      .where("type = ? AND name = ?", "trigger", TRIGGER_AFTER_INSERT_DEFERRED)
+      .run()
+  }
+
+  /**
+   * Switches between indexing messages as they're written and deferring it. Anything still queued is indexed before switching back to indexing immediately.
+   */
+  fun setDeferredIndexingEnabled(enabled: Boolean) {
+    writableDatabase.withinTransaction { db ->
+      if (!enabled) {
+        indexPendingMessagesUpTo(Long.MAX_VALUE)
+      }
+
+      dropTriggers()
+
+      if (enabled) {
+        CREATE_DEFERRED_TRIGGERS.forEach { db.execSQL(it) }
+      } else {
+        CREATE_TRIGGERS.forEach { db.execSQL(it) }
+      }
+    }
+
+    Log.i(TAG, "Deferred indexing enabled: $enabled")
+  }
+
+  /**
+   * @return How many messages are queued to be indexed.
+   */
+  fun getPendingMessageCount(): Long {
+    return readableDatabase
+      .select("COUNT(*)")
+      .from(PENDING_TABLE_NAME)
+      .run()
+      .readToSingleLong()
+  }
+
+  /**
+   * Indexes the oldest [batchSize] queued messages in a single transaction. Everything up to and including the newest of them is indexed and dequeued
+   * together, so if this is interrupted, the next call picks up where the last committed batch left off.
+   *
+   * @return How many messages were indexed.
+   */
+  fun indexPendingMessages(batchSize: Int = 500): Int {
+    return writableDatabase.withinTransaction { db ->
+      val watermark: Long = db
+        .rawQuery("SELECT MAX($PENDING_MESSAGE_ID) FROM (SELECT $PENDING_MESSAGE_ID FROM $PENDING_TABLE_NAME ORDER BY $PENDING_MESSAGE_ID ASC LIMIT $batchSize)", null)
+        .readToSingleLong(0)
+
+      if (watermark <= 0) {
+        0
+      } else {
+        indexPendingMessagesUpTo(watermark)
+      }
+    }
+  }
+
+  private fun indexPendingMessagesUpTo(watermark: Long): Int {
+    val db = writableDatabase
+
+    db.execSQL(
+      """
+      INSERT INTO $FTS_TABLE_NAME ($ID, $BODY, $THREAD_ID) 
+        SELECT 
+          ${MessageTable.ID}, 
+          ${MessageTable.BODY}, 
+          ${MessageTable.THREAD_ID} 
+        FROM 
+          ${MessageTable.TABLE_NAME} 
+        WHERE 
+          ${MessageTable.ID} IN (SELECT $PENDING_MESSAGE_ID FROM $PENDING_TABLE_NAME WHERE $PENDING_MESSAGE_ID <= ?)
+      """,
+      SqlUtil.buildArgs(watermark)
+    )
+
+    return db.delete(PENDING_TABLE_NAME, "$PENDING_MESSAGE_ID <= ?", SqlUtil.buildArgs(watermark))
+  }
+
   /**
    * This performs the same thing as the `optimize` command in SQLite, but broken into iterative stages to avoid locking up the database for too long.
    * If what's going on in this method seems weird, that's because it is, but please read the sqlite docs -- we're following their algorithm:
@@ -232,32 +504,68 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
    * Drops all tables and recreates them.
    */
   fun fullyResetTables() {
+    val deferred = isDeferredIndexingEnabled()
+
     Log.w(TAG, "[fullyResetTables] Dropping tables and triggers...")
     writableDatabase.execSQL("DROP TABLE IF EXISTS $FTS_TABLE_NAME")
     writableDatabase.execSQL("DROP TABLE IF EXISTS ${FTS_TABLE_NAME}_config")
     writableDatabase.execSQL("DROP TABLE IF EXISTS ${FTS_TABLE_NAME}_content")
     writableDatabase.execSQL("DROP TABLE IF EXISTS ${FTS_TABLE_NAME}_data")
     writableDatabase.execSQL("DROP TABLE IF EXISTS ${FTS_TABLE_NAME}_idx")
-    writableDatabase.execSQL("DROP TRIGGER IF EXISTS $TRIGGER_AFTER_INSERT")
-    writableDatabase.execSQL("DROP TRIGGER IF EXISTS $TRIGGER_AFTER_DELETE")
-    writableDatabase.execSQL("DROP TRIGGER IF EXISTS $TRIGGER_AFTER_UPDATE")
+    writableDatabase.execSQL("DROP TABLE IF EXISTS $PENDING_TABLE_NAME")
+    dropTriggers()
 
     Log.w(TAG, "[fullyResetTables] Recreating table...")
     CREATE_TABLE.forEach { writableDatabase.execSQL(it) }
 
     Log.w(TAG, "[fullyResetTables] Recreating triggers...")
-    CREATE_TRIGGERS.forEach { writableDatabase.execSQL(it) }
+    if (deferred) {
+      CREATE_DEFERRED_TRIGGERS.forEach { writableDatabase.execSQL(it) }
+    } else {
+      CREATE_TRIGGERS.forEach { writableDatabase.execSQL(it) }
+    }
 
     RebuildMessageSearchIndexJob.enqueue()
 
     Log.w(TAG, "[fullyResetTables] Done. Index will be rebuilt asynchronously)")
   }
 
-  private fun createFullTextSearchQuery(query: String): String {
+  /**
+   * The order of paged message search results. Lower ranks come first, and rows with the same rank are newest first.
+   */
+  enum class Ranking(val indexedRank: String, val unindexedRank: String) {
+    /** Best bm25 match first. Matches without a score, because they aren't indexed yet or only match by mention, come after all of those. */
+    RELEVANCE("bm25($FTS_TABLE_NAME)", "0"),
+
+    /** Newest first. */
+    RECENT("-${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED}", "-${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED}")
+  }
+
+  /**
+   * The position of the last row of a page of [queryMessagesPage], which the next page starts after.
+   */
+  data class MessagePageKey(val rank: Double, val messageId: Long)
+
+  private class MessageHitsQuery(val sql: String, val args: Array<String>)
+
+  private fun dropTriggers() {
+    writableDatabase.execSQL("DROP TRIGGER IF EXISTS $TRIGGER_AFTER_INSERT")
+    writableDatabase.execSQL("DROP TRIGGER IF EXISTS $TRIGGER_AFTER_DELETE")
+    writableDatabase.execSQL("DROP TRIGGER IF EXISTS $TRIGGER_AFTER_UPDATE")
+    writableDatabase.execSQL("DROP TRIGGER IF EXISTS $TRIGGER_AFTER_INSERT_DEFERRED")
+    writableDatabase.execSQL("DROP TRIGGER IF EXISTS $TRIGGER_AFTER_DELETE_DEFERRED")
+    writableDatabase.execSQL("DROP TRIGGER IF EXISTS $TRIGGER_AFTER_UPDATE_DEFERRED")
+  }
+
+  private fun getSearchTerms(query: String): List<String> {
     return query
       .split(" ")
       .map { it.trim() }
       .filter { it.isNotEmpty() }
+  }
+
+  private fun createFullTextSearchQuery(terms: List<String>): String {
+    return terms
       .map { fullTextSearchEscape(it) }
       .joinToString(
         separator = " ",
@@ -268,4 +576,8 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
   private fun fullTextSearchEscape(s: String): String {
     return "\"${s.replace("\"", "\"\"")}\""
   }
+
+  private fun likeEscape(s: String): String {
+    return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_")
+  }
 }
@@ -1779,29 +1779,7 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     }
 
     open fun getCurrent(): ThreadRecord? {
-      val recipientId = RecipientId.from(cursor.requireLong(RECIPIENT_ID))
-      val recipientSettings = recipients.getRecord(context, cursor, RECIPIENT_ID)
-
-      val recipient: Recipient = if (recipientSettings.groupId != null) {
-        GroupTable.Reader(cursor).getCurrent()?.let { group ->
-          val details = RecipientDetails(
-            group.title,
-            null,
-            if (group.hasAvatar()) Optional.of(group.avatarId) else Optional.empty(),
-            false,
-            false,
-            recipientSettings.registered,
-            recipientSettings,
-            null,
-            false,
-            group.isActive
-          )
-          Recipient(recipientId, details, false)
-        } ?: Recipient.live(recipientId).get()
-      } else {
-        val details = RecipientDetails.forIndividual(context, recipientSettings)
-        Recipient(recipientId, details, true)
-      }
+      val recipient: Recipient = readRecipient(RecipientId.from(cursor.requireLong(RECIPIENT_ID)))
 
       val readReceiptCount = if (TextSecurePreferences.isReadReceiptsEnabled(context)) cursor.requireInt(READ_RECEIPT_COUNT) else 0
       val extraString = cursor.getString(cursor.getColumnIndexOrThrow(SNIPPET_EXTRAS))
@@ -1852,6 +1830,34 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
         .build()
     }
 
+    /**
+     * Builds the thread's recipient from the recipient and group columns that are joined into the cursor.
+     */
+    protected open fun readRecipient(recipientId: RecipientId): Recipient {
+      val recipientSettings = recipients.getRecord(context, cursor, RECIPIENT_ID)
+
+      return if (recipientSettings.groupId != null) {
+        GroupTable.Reader(cursor).getCurrent()?.let { group ->
+          val details = RecipientDetails(
+            group.title,
+            null,
+            if (group.hasAvatar()) Optional.of(group.avatarId) else Optional.empty(),
+            false,
+            false,
+            recipientSettings.registered,
+            recipientSettings,
+            null,
+            false,
+            group.isActive
+          )
+          Recipient(recipientId, details, false)
+        } ?: Recipient.live(recipientId).get()
+      } else {
+        val details = RecipientDetails.forIndividual(context, recipientSettings)
+        Recipient(recipientId, details, true)
+      }
+    }
+
     private fun getSnippetUri(cursor: Cursor?): Uri? {
       return if (cursor!!.isNull(cursor.getColumnIndexOrThrow(SNIPPET_URI))) {
         null
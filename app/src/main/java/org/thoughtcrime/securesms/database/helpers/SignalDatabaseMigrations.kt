@@ -52,6 +52,9 @@ import org.thoughtcrime.securesms.database.helpers.migration.V193_BackCallLinksW
 import org.thoughtcrime.securesms.database.helpers.migration.V194_KyberPreKeyMigration
 import org.thoughtcrime.securesms.database.helpers.migration.V195_GroupMemberForeignKeyMigration
 import org.thoughtcrime.securesms.database.helpers.migration.V196_BackCallLinksWithRecipientV2
+import org.thoughtcrime.securesms.database.helpers.migration.V197_AttachmentMediaCategoryMigration
+import org.thoughtcrime.securesms.database.helpers.migration.V198_MessageSearchPendingMigration
+import org.thoughtcrime.securesms.database.helpers.migration.V199_AttachmentThumbnailsMigration
 
 /**
  * Contains all of the database migrations for [SignalDatabase]. Broken into a separate file for cleanliness.
@@ -60,7 +63,7 @@ object SignalDatabaseMigrations {
 
   val TAG: String = Log.tag(SignalDatabaseMigrations.javaClass)
 
-  const val DATABASE_VERSION = 196
+  const val DATABASE_VERSION = 199
 
   @JvmStatic
   fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
@@ -255,6 +258,18 @@ object SignalDatabaseMigrations {
     if (oldVersion < 196) {
       V196_BackCallLinksWithRecipientV2.migrate(context, db, oldVersion, newVersion)
     }
+
+    if (oldVersion < 197) {
+      V197_AttachmentMediaCategoryMigration.migrate(context, db, oldVersion, newVersion)
+    }
+
+    if (oldVersion < 198) {
+      V198_MessageSearchPendingMigration.migrate(context, db, oldVersion, newVersion)
+    }
+
+    if (oldVersion < 199) {
+      V199_AttachmentThumbnailsMigration.migrate(context, db, oldVersion, newVersion)
+    }
   }
 
   @JvmStatic
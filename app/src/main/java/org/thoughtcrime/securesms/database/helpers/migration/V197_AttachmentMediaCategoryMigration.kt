@@ -0,0 +1,55 @@
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+import org.signal.core.util.SqlUtil
+import org.signal.core.util.Stopwatch
+import org.signal.core.util.logging.Log
+
+/**
+ * Adds a media_category column to attachments, so that media overview and storage queries can filter on an indexed integer instead of matching every row's
+ * content type against a set of LIKE patterns. The categories here must match AttachmentTable.getMediaCategory.
+ *
+ * The (mid, media_category) index replaces the plain mid index, and the partial storage index lets the storage breakdown be computed from the index alone.
+ * The plain thread index on messages keeps a thread's messages in id order, which is the order the media overview and preview show them in.
+ */
+object V197_AttachmentMediaCategoryMigration : SignalDatabaseMigration {
+
+  private val TAG = Log.tag(V197_AttachmentMediaCategoryMigration::class.java)
+
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    val stopwatch = Stopwatch("migration")
+
+    if (!SqlUtil.columnExists(db, "part", "media_category")) {
+      db.execSQL("ALTER TABLE part ADD COLUMN media_category INTEGER DEFAULT 0")
+    }
+    stopwatch.split("column")
+
+    db.execSQL(
+      """
+      UPDATE part SET media_category = CASE
+        WHEN ct IS NULL THEN 0
+        WHEN ct LIKE 'image/svg%' THEN 4
+        WHEN ct LIKE 'image/%' THEN 1
+        WHEN ct LIKE 'video/%' THEN 2
+        WHEN ct LIKE 'audio/%' THEN 3
+        WHEN ct LIKE 'text/x-signal-plain' THEN 5
+        ELSE 4
+      END
+      """
+    )
+    stopwatch.split("backfill")
+
+    db.execSQL("CREATE INDEX IF NOT EXISTS part_mms_id_media_category_index ON part (mid, media_category)")
+    db.execSQL("DROP INDEX IF EXISTS part_mms_id_index")
+    stopwatch.split("mid-index")
+
+    db.execSQL("CREATE INDEX IF NOT EXISTS part_media_storage_index ON part (_data, data_size, media_category) WHERE pending_push = 0 AND sticker_pack_id IS NULL")
+    stopwatch.split("storage-index")
+
+    db.execSQL("CREATE INDEX IF NOT EXISTS message_thread_id_index ON message (thread_id)")
+    stopwatch.split("thread-index")
+
+    stopwatch.stop(TAG)
+  }
+}
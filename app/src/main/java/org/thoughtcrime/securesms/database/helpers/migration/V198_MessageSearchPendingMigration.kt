@@ -0,0 +1,14 @@
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Adds the queue of messages waiting to be added to the search index, used when search indexing is deferred. Existing installs keep indexing
+ * immediately, so the queue starts out empty.
+ */
+object V198_MessageSearchPendingMigration : SignalDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL("CREATE TABLE IF NOT EXISTS message_fts_pending (message_id INTEGER PRIMARY KEY)")
+  }
+}
@@ -0,0 +1,21 @@
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+import org.signal.core.util.SqlUtil
+
+/**
+ * Adds the columns tracking the stored thumbnails of an attachment's data. Existing attachments start without any, and get them when they're next
+ * downloaded or sent; until then they're loaded from the full attachment as before.
+ */
+object V199_AttachmentThumbnailsMigration : SignalDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    if (!SqlUtil.columnExists(db, "part", "thumbnail_file")) {
+      db.execSQL("ALTER TABLE part ADD COLUMN thumbnail_file TEXT DEFAULT NULL")
+    }
+
+    if (!SqlUtil.columnExists(db, "part", "thumbnail_random")) {
+      db.execSQL("ALTER TABLE part ADD COLUMN thumbnail_random BLOB DEFAULT NULL")
+    }
+  }
+}
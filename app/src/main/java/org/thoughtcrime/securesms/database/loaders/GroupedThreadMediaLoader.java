@@ -12,7 +12,9 @@ import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.database.DatabaseObserver;
 import org.thoughtcrime.securesms.database.MediaTable;
+import org.thoughtcrime.securesms.database.SignalDatabase;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.mediapreview.GalleryMediaDataSource;
 import org.thoughtcrime.securesms.util.CalendarDateOnly;
 
 import java.text.SimpleDateFormat;
@@ -26,6 +28,8 @@ public final class GroupedThreadMediaLoader extends AsyncTaskLoader<GroupedThrea
   @SuppressWarnings("unused")
   private static final String TAG = Log.tag(GroupedThreadMediaLoader.class);
 
+  private static final int GALLERY_PAGE_SIZE = 500;
+
   private final DatabaseObserver.Observer observer;
   private final MediaLoader.MediaType mediaType;
   private final MediaTable.Sorting    sorting;
@@ -73,9 +77,13 @@ public final class GroupedThreadMediaLoader extends AsyncTaskLoader<GroupedThrea
 
     ApplicationDependencies.getDatabaseObserver().registerAttachmentObserver(observer);
 
-    try (Cursor cursor = ThreadMediaLoader.createThreadMediaCursor(context, threadId, mediaType, sorting)) {
-      while (cursor != null && cursor.moveToNext()) {
-        mediaGrouping.add(MediaTable.MediaRecord.from(cursor));
+    if (mediaType == MediaLoader.MediaType.GALLERY) {
+      loadGalleryMedia(mediaGrouping);
+    } else {
+      try (Cursor cursor = createMediaCursor()) {
+        while (cursor != null && cursor.moveToNext()) {
+          mediaGrouping.add(MediaTable.MediaRecord.from(cursor));
+        }
       }
     }
 
@@ -86,6 +94,38 @@ public final class GroupedThreadMediaLoader extends AsyncTaskLoader<GroupedThrea
     }
   }
 
+  /**
+   * Every record is needed to lay out the groups, but they're read a page at a time, each page seeking from the end of the one before it, so that no single
+   * query or cursor spans the whole gallery and a cancelled load stops between pages.
+   */
+  private void loadGalleryMedia(@NonNull PopulatedGroupedThreadMedia mediaGrouping) {
+    GalleryMediaDataSource dataSource = new GalleryMediaDataSource(threadId, sorting, null);
+    int                    size       = dataSource.size();
+
+    for (int start = 0; start < size && !isLoadInBackgroundCanceled(); start += GALLERY_PAGE_SIZE) {
+      List<MediaTable.MediaRecord> page = dataSource.load(start, GALLERY_PAGE_SIZE, size, this::isLoadInBackgroundCanceled);
+
+      for (MediaTable.MediaRecord mediaRecord : page) {
+        mediaGrouping.add(mediaRecord);
+      }
+
+      if (page.size() < GALLERY_PAGE_SIZE) {
+        break;
+      }
+    }
+  }
+
+  private @NonNull Cursor createMediaCursor() {
+    MediaTable mediaDatabase = SignalDatabase.media();
+
+    switch (mediaType) {
+      case DOCUMENT: return mediaDatabase.getDocumentMediaForThread(threadId, sorting);
+      case AUDIO   : return mediaDatabase.getAudioMediaForThread(threadId, sorting);
+      case ALL     : return mediaDatabase.getAllMediaForThread(threadId, sorting);
+      default      : throw new AssertionError();
+    }
+  }
+
   public interface GroupingMethod {
 
    int groupForRecord(@NonNull MediaTable.MediaRecord mediaRecord);
@@ -1,43 +0,0 @@
-package org.thoughtcrime.securesms.database.loaders;
-
-import android.content.Context;
-import android.database.Cursor;
-
-import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
-
-import org.thoughtcrime.securesms.database.MediaTable;
-import org.thoughtcrime.securesms.database.SignalDatabase;
-import org.thoughtcrime.securesms.recipients.Recipient;
-import org.thoughtcrime.securesms.recipients.RecipientId;
-
-/**
- * It is more efficient to use the {@link ThreadMediaLoader} if you know the thread id already.
- */
-public final class RecipientMediaLoader extends MediaLoader {
-
-  @Nullable private final RecipientId           recipientId;
-  @NonNull  private final MediaType          mediaType;
-  @NonNull  private final MediaTable.Sorting sorting;
-
-  public RecipientMediaLoader(@NonNull Context context,
-                              @Nullable RecipientId recipientId,
-                              @NonNull MediaType mediaType,
-                              @NonNull MediaTable.Sorting sorting)
-  {
-    super(context);
-    this.recipientId = recipientId;
-    this.mediaType   = mediaType;
-    this.sorting     = sorting;
-  }
-
-  @Override
-  public Cursor getCursor() {
-    if (recipientId == null || recipientId.isUnknown()) return null;
-
-    long threadId = SignalDatabase.threads().getOrCreateThreadIdFor(Recipient.resolved(recipientId));
-
-    return ThreadMediaLoader.createThreadMediaCursor(context, threadId, mediaType, sorting);
-  }
-
-}
@@ -94,6 +94,7 @@ public class ApplicationDependencies {
   private static Provider              provider;
   private static AppForegroundObserver appForegroundObserver;
 
+  private static volatile SignalServiceNetworkAccess   signalServiceNetworkAccess;
   private static volatile SignalServiceAccountManager  accountManager;
   private static volatile SignalServiceMessageSender   messageSender;
   private static volatile SignalServiceMessageReceiver messageReceiver;
@@ -225,16 +226,22 @@ public class ApplicationDependencies {
 
     synchronized (LOCK) {
       if (messageSender == null) {
-        messageSender = provider.provideSignalServiceMessageSender(getSignalWebSocket(), getProtocolStore(), getSignalServiceNetworkAccess().getConfiguration());
+        messageSender = provider.provideSignalServiceMessageSender(getSignalWebSocket(), getProtocolStore(), getSignalServiceNetworkAccess().getConfiguration(), getGroupsV2Operations());
       }
       return messageSender;
     }
   }
 
   public static @NonNull SignalServiceMessageReceiver getSignalServiceMessageReceiver() {
+    SignalServiceMessageReceiver local = messageReceiver;
+
+    if (local != null) {
+      return local;
+    }
+
     synchronized (LOCK) {
       if (messageReceiver == null) {
-        messageReceiver = provider.provideSignalServiceMessageReceiver(getSignalServiceNetworkAccess().getConfiguration());
+        messageReceiver = provider.provideSignalServiceMessageReceiver(getSignalServiceNetworkAccess().getConfiguration(), getGroupsV2Operations());
       }
       return messageReceiver;
     }
@@ -256,10 +263,11 @@ public class ApplicationDependencies {
         messageSender.cancelInFlightRequests();
       }
 
-      incomingMessageObserver = null;
-      messageReceiver         = null;
-      accountManager          = null;
-      messageSender           = null;
+      incomingMessageObserver    = null;
+      messageReceiver            = null;
+      accountManager             = null;
+      messageSender              = null;
+      signalServiceNetworkAccess = null;
     }
   }
 
@@ -272,8 +280,20 @@ public class ApplicationDependencies {
     }
   }
 
+  /**
+   * Building the network access sets up every trust store and censorship configuration, so it's kept until the connections are closed, which
+   * is what happens whenever the proxy it was built with changes.
+   */
   public static @NonNull SignalServiceNetworkAccess getSignalServiceNetworkAccess() {
-    return provider.provideSignalServiceNetworkAccess();
+    if (signalServiceNetworkAccess == null) {
+      synchronized (LOCK) {
+        if (signalServiceNetworkAccess == null) {
+          signalServiceNetworkAccess = provider.provideSignalServiceNetworkAccess();
+        }
+      }
+    }
+
+    return signalServiceNetworkAccess;
   }
 
   public static @NonNull BackgroundMessageRetriever getBackgroundMessageRetriever() {
@@ -703,8 +723,8 @@ public class ApplicationDependencies {
   public interface Provider {
     @NonNull GroupsV2Operations provideGroupsV2Operations(@NonNull SignalServiceConfiguration signalServiceConfiguration);
     @NonNull SignalServiceAccountManager provideSignalServiceAccountManager(@NonNull SignalServiceConfiguration signalServiceConfiguration, @NonNull GroupsV2Operations groupsV2Operations);
-    @NonNull SignalServiceMessageSender provideSignalServiceMessageSender(@NonNull SignalWebSocket signalWebSocket, @NonNull SignalServiceDataStore protocolStore, @NonNull SignalServiceConfiguration signalServiceConfiguration);
-    @NonNull SignalServiceMessageReceiver provideSignalServiceMessageReceiver(@NonNull SignalServiceConfiguration signalServiceConfiguration);
+    @NonNull SignalServiceMessageSender provideSignalServiceMessageSender(@NonNull SignalWebSocket signalWebSocket, @NonNull SignalServiceDataStore protocolStore, @NonNull SignalServiceConfiguration signalServiceConfiguration, @NonNull GroupsV2Operations groupsV2Operations);
+    @NonNull SignalServiceMessageReceiver provideSignalServiceMessageReceiver(@NonNull SignalServiceConfiguration signalServiceConfiguration, @NonNull GroupsV2Operations groupsV2Operations);
     @NonNull SignalServiceNetworkAccess provideSignalServiceNetworkAccess();
     @NonNull BackgroundMessageRetriever provideBackgroundMessageRetriever();
     @NonNull LiveRecipientCache provideRecipientCache();
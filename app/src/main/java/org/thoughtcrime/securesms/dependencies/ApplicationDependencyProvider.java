@@ -33,6 +33,7 @@ import org.thoughtcrime.securesms.database.PendingRetryReceiptCache;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobmanager.JobMigrator;
 import org.thoughtcrime.securesms.jobmanager.impl.FactoryJobPredicate;
+import org.thoughtcrime.securesms.jobs.AttachmentCompressionJob;
 import org.thoughtcrime.securesms.jobs.FastJobStorage;
 import org.thoughtcrime.securesms.jobs.GroupCallUpdateSendJob;
 import org.thoughtcrime.securesms.jobs.JobManagerFactories;
@@ -107,6 +108,12 @@ import java.util.function.Supplier;
  */
 public class ApplicationDependencyProvider implements ApplicationDependencies.Provider {
 
+  /** How many pipelined websocket message sends may be awaiting a response at once during a multi-recipient send. */
+  private static final int MAX_IN_FLIGHT_MESSAGE_SENDS = 32;
+
+  /** How many threads, including the caller's, the members of a large group are decrypted on. */
+  private static final int GROUP_DECRYPTION_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
   private final Application context;
 
   public ApplicationDependencyProvider(@NonNull Application context) {
@@ -119,7 +126,10 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
 
   @Override
   public @NonNull GroupsV2Operations provideGroupsV2Operations(@NonNull SignalServiceConfiguration signalServiceConfiguration) {
-    return new GroupsV2Operations(provideClientZkOperations(signalServiceConfiguration), FeatureFlags.groupLimits().getHardLimit());
+    return new GroupsV2Operations(provideClientZkOperations(signalServiceConfiguration),
+                                  FeatureFlags.groupLimits().getHardLimit(),
+                                  SignalExecutors.newCachedBoundedExecutor("signal-groups-decrypt", ThreadUtil.PRIORITY_BACKGROUND_THREAD, 1, GROUP_DECRYPTION_THREADS - 1, 30),
+                                  GROUP_DECRYPTION_THREADS);
   }
 
   @Override
@@ -132,7 +142,7 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
   }
 
   @Override
-  public @NonNull SignalServiceMessageSender provideSignalServiceMessageSender(@NonNull SignalWebSocket signalWebSocket, @NonNull SignalServiceDataStore protocolStore, @NonNull SignalServiceConfiguration signalServiceConfiguration) {
+  public @NonNull SignalServiceMessageSender provideSignalServiceMessageSender(@NonNull SignalWebSocket signalWebSocket, @NonNull SignalServiceDataStore protocolStore, @NonNull SignalServiceConfiguration signalServiceConfiguration, @NonNull GroupsV2Operations groupsV2Operations) {
       return new SignalServiceMessageSender(signalServiceConfiguration,
                                             new DynamicCredentialsProvider(),
                                             protocolStore,
@@ -140,18 +150,19 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
                                             BuildConfig.SIGNAL_AGENT,
                                             signalWebSocket,
                                             Optional.of(new SecurityEventListener(context)),
-                                            provideGroupsV2Operations(signalServiceConfiguration).getProfileOperations(),
+                                            groupsV2Operations.getProfileOperations(),
                                             SignalExecutors.newCachedBoundedExecutor("signal-messages", ThreadUtil.PRIORITY_IMPORTANT_BACKGROUND_THREAD, 1, 16, 30),
                                             ByteUnit.KILOBYTES.toBytes(256),
+                                            MAX_IN_FLIGHT_MESSAGE_SENDS,
                                             FeatureFlags.okHttpAutomaticRetry());
   }
 
   @Override
-  public @NonNull SignalServiceMessageReceiver provideSignalServiceMessageReceiver(@NonNull SignalServiceConfiguration signalServiceConfiguration) {
+  public @NonNull SignalServiceMessageReceiver provideSignalServiceMessageReceiver(@NonNull SignalServiceConfiguration signalServiceConfiguration, @NonNull GroupsV2Operations groupsV2Operations) {
     return new SignalServiceMessageReceiver(signalServiceConfiguration,
                                             new DynamicCredentialsProvider(),
                                             BuildConfig.SIGNAL_AGENT,
-                                            provideGroupsV2Operations(signalServiceConfiguration).getProfileOperations(),
+                                            groupsV2Operations.getProfileOperations(),
                                             FeatureFlags.okHttpAutomaticRetry());
   }
 
@@ -180,6 +191,7 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
                                                                   .setJobMigrator(new JobMigrator(TextSecurePreferences.getJobManagerVersion(context), JobManager.CURRENT_VERSION, JobManagerFactories.getJobMigrations(context)))
                                                                   .addReservedJobRunner(new FactoryJobPredicate(PushDecryptMessageJob.KEY, PushProcessMessageJob.KEY, PushProcessMessageJobV2.KEY, MarkerJob.KEY))
                                                                   .addReservedJobRunner(new FactoryJobPredicate(IndividualSendJob.KEY, PushGroupSendJob.KEY, ReactionSendJob.KEY, TypingSendJob.KEY, GroupCallUpdateSendJob.KEY))
+                                                                  .addDedicatedJobRunners(new FactoryJobPredicate(AttachmentCompressionJob.KEY), AttachmentCompressionJob.getMaxConcurrentJobs())
                                                                   .build();
     return new JobManager(context, config);
   }
@@ -420,7 +432,8 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
                                        Optional.of(new DynamicCredentialsProvider()),
                                        BuildConfig.SIGNAL_AGENT,
                                        healthMonitor,
-                                       Stories.isFeatureEnabled());
+                                       Stories.isFeatureEnabled(),
+                                       true);
       }
 
       @Override
@@ -31,7 +31,7 @@ final class NewDeviceServerTask implements ServerTask {
   private static final String TAG = Log.tag(NewDeviceServerTask.class);
 
   @Override
-  public void run(@NonNull Context context, @NonNull InputStream inputStream) {
+  public void run(@NonNull Context context, @NonNull InputStream inputStream, boolean resumable) {
     long start = System.currentTimeMillis();
 
     Log.i(TAG, "Starting backup restore.");
@@ -47,7 +47,7 @@ final class NewDeviceServerTask implements ServerTask {
                                     AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
                                     database,
                                     inputStream,
-                                    passphrase);
+                                    resumable ? null : passphrase);
 
       SignalDatabase.runPostBackupRestoreTasks(database);
       NotificationChannels.getInstance().restoreContactNotificationChannels();
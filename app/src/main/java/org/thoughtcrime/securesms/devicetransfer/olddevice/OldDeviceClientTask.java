@@ -32,18 +32,25 @@ final class OldDeviceClientTask implements ClientTask {
   private long lastProgressUpdate = 0;
 
   @Override
-  public void run(@NonNull Context context, @NonNull OutputStream outputStream) throws IOException {
+  public void run(@NonNull Context context, @NonNull OutputStream outputStream, boolean resumable) throws IOException {
     DeviceTransferBlockingInterceptor.getInstance().blockNetwork();
 
     long start = System.currentTimeMillis();
 
     EventBus.getDefault().register(this);
     try {
-      FullBackupExporter.transfer(context,
-                                  AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
-                                  SignalDatabase.getBackupDatabase(),
-                                  outputStream,
-                                  "deadbeef");
+      if (resumable) {
+        FullBackupExporter.transferUnencrypted(context,
+                                               AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
+                                               SignalDatabase.getBackupDatabase(),
+                                               outputStream);
+      } else {
+        FullBackupExporter.transfer(context,
+                                    AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
+                                    SignalDatabase.getBackupDatabase(),
+                                    outputStream,
+                                    "deadbeef");
+      }
     } catch (Exception e) {
       DeviceTransferBlockingInterceptor.getInstance().unblockNetwork();
       throw e;
@@ -9,6 +9,7 @@ import org.signal.storageservice.protos.groups.local.DecryptedGroupChange;
 import org.whispersystems.signalservice.api.groupsv2.DecryptedGroupUtil;
 import org.whispersystems.signalservice.api.groupsv2.GroupChangeReconstruct;
 import org.whispersystems.signalservice.api.groupsv2.GroupChangeUtil;
+import org.whispersystems.signalservice.api.groupsv2.MutableDecryptedGroup;
 import org.whispersystems.signalservice.api.groupsv2.NotAbleToApplyGroupV2ChangeException;
 
 import java.util.ArrayList;
@@ -131,16 +132,36 @@ final class GroupStateMapper {
 
   private static StateChain<DecryptedGroup, DecryptedGroupChange> createNewMapper() {
     return new StateChain<>(
-      (group, change) -> {
-        try {
-          return DecryptedGroupUtil.applyWithoutRevisionCheck(group, change);
-        } catch (NotAbleToApplyGroupV2ChangeException e) {
-          Log.w(TAG, "Unable to apply V" + change.getRevision(), e);
-          return null;
-        }
-      },
+      new ApplyInPlace(),
       (groupB, groupA) -> GroupChangeReconstruct.reconstructGroupChange(groupA, groupB),
       (groupA, groupB) -> groupA.getRevision() == groupB.getRevision() && DecryptedGroupUtil.changeIsEmpty(GroupChangeReconstruct.reconstructGroupChange(groupA, groupB))
     );
   }
+
+  /**
+   * Catching up usually applies each change to the state the previous change produced, so rather than indexing the
+   * whole group again for every change, they're applied to one {@link MutableDecryptedGroup}. It only starts again when
+   * asked to apply a change to some other state.
+   */
+  private static final class ApplyInPlace implements StateChain.AddDelta<DecryptedGroup, DecryptedGroupChange> {
+
+    private MutableDecryptedGroup working;
+
+    @Override
+    public @Nullable DecryptedGroup add(@NonNull DecryptedGroup group, @NonNull DecryptedGroupChange change) {
+      if (working == null) {
+        working = new MutableDecryptedGroup(group);
+      } else if (!working.isAt(group)) {
+        working.reset(group);
+      }
+
+      try {
+        working.applyWithoutRevisionCheck(change);
+        return working.toDecryptedGroup();
+      } catch (NotAbleToApplyGroupV2ChangeException e) {
+        Log.w(TAG, "Unable to apply V" + change.getRevision(), e);
+        return null;
+      }
+    }
+  }
 }
@@ -50,6 +50,7 @@ import org.thoughtcrime.securesms.sms.IncomingTextMessage;
 import org.whispersystems.signalservice.api.groupsv2.DecryptedGroupHistoryEntry;
 import org.whispersystems.signalservice.api.groupsv2.DecryptedGroupUtil;
 import org.whispersystems.signalservice.api.groupsv2.GroupChangeReconstruct;
+import org.whispersystems.signalservice.api.groupsv2.GroupDecryptionCache;
 import org.whispersystems.signalservice.api.groupsv2.GroupHistoryPage;
 import org.whispersystems.signalservice.api.groupsv2.GroupsV2Api;
 import org.whispersystems.signalservice.api.groupsv2.InvalidGroupStateException;
@@ -157,6 +158,7 @@ public class GroupsV2StateProcessor {
     private final GroupMasterKey          masterKey;
     private final GroupId.V2              groupId;
     private final GroupSecretParams       groupSecretParams;
+    private final GroupDecryptionCache    decryptionCache;
     private final ProfileAndMessageHelper profileAndMessageHelper;
 
     private StateProcessorForGroup(@NonNull ServiceIds serviceIds,
@@ -187,6 +189,7 @@ public class GroupsV2StateProcessor {
       this.masterKey               = groupMasterKey;
       this.groupSecretParams       = groupSecretParams;
       this.groupId                 = GroupId.v2(groupSecretParams.getPublicParams().getGroupIdentifier());
+      this.decryptionCache         = new GroupDecryptionCache(this.groupSecretParams);
       this.profileAndMessageHelper = new ProfileAndMessageHelper(context, serviceIds.getAci(), groupMasterKey, groupId, recipientTable);
     }
 
@@ -206,6 +209,7 @@ public class GroupsV2StateProcessor {
       this.masterKey               = groupMasterKey;
       this.groupSecretParams       = GroupSecretParams.deriveFromMasterKey(groupMasterKey);
       this.groupId                 = GroupId.v2(groupSecretParams.getPublicParams().getGroupIdentifier());
+      this.decryptionCache         = new GroupDecryptionCache(this.groupSecretParams);
       this.profileAndMessageHelper = profileAndMessageHelper;
     }
 
@@ -535,7 +539,7 @@ public class GroupsV2StateProcessor {
         throws IOException, GroupNotAMemberException, GroupDoesNotExistException
     {
       try {
-        return groupsV2Api.getGroupHistoryPage(groupSecretParams, revision, groupsV2Authorization.getAuthorizationForToday(serviceIds, groupSecretParams), true)
+        return groupsV2Api.getGroupHistoryPage(groupSecretParams, revision, groupsV2Authorization.getAuthorizationForToday(serviceIds, groupSecretParams), true, decryptionCache)
                           .getResults()
                           .get(0)
                           .getGroup()
@@ -625,7 +629,7 @@ public class GroupsV2StateProcessor {
 
     private GlobalGroupState getFullMemberHistoryPage(DecryptedGroup localState, int logsNeededFromRevision, boolean includeFirstState) throws IOException {
       try {
-        GroupHistoryPage               groupHistoryPage    = groupsV2Api.getGroupHistoryPage(groupSecretParams, logsNeededFromRevision, groupsV2Authorization.getAuthorizationForToday(serviceIds, groupSecretParams), includeFirstState);
+        GroupHistoryPage               groupHistoryPage    = groupsV2Api.getGroupHistoryPage(groupSecretParams, logsNeededFromRevision, groupsV2Authorization.getAuthorizationForToday(serviceIds, groupSecretParams), includeFirstState, decryptionCache);
         ArrayList<ServerGroupLogEntry> history             = new ArrayList<>(groupHistoryPage.getResults().size());
         boolean                        ignoreServerChanges = SignalStore.internalValues().gv2IgnoreServerChanges();
 
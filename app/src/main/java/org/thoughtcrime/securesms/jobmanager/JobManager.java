@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -102,14 +103,28 @@ public class JobManager implements ConstraintObserver.Notifier {
     runOnExecutor(()-> {
       int id = 0;
 
+      List<JobPredicate> dedicatedPredicates = configuration.getDedicatedJobPredicates();
+      JobPredicate       generalPredicate    = jobSpec -> {
+        for (JobPredicate predicate : dedicatedPredicates) {
+          if (predicate.shouldRun(jobSpec)) {
+            return false;
+          }
+        }
+        return true;
+      };
+
       for (int i = 0; i < configuration.getJobThreadCount(); i++) {
-        new JobRunner(application, ++id, jobController, JobPredicate.NONE).start();
+        new JobRunner(application, ++id, jobController, generalPredicate).start();
       }
 
       for (JobPredicate predicate : configuration.getReservedJobRunners()) {
         new JobRunner(application, ++id, jobController, predicate).start();
       }
 
+      for (JobPredicate predicate : configuration.getDedicatedJobRunners()) {
+        new JobRunner(application, ++id, jobController, predicate).start();
+      }
+
       jobController.wakeUp();
     });
   }
@@ -546,6 +561,7 @@ public class JobManager implements ConstraintObserver.Notifier {
     private final JobMigrator              jobMigrator;
     private final JobTracker               jobTracker;
     private final List<JobPredicate>       reservedJobRunners;
+    private final List<JobPredicate>       dedicatedJobRunners;
 
     private Configuration(int jobThreadCount,
                           @NonNull ExecutorFactory executorFactory,
@@ -555,7 +571,8 @@ public class JobManager implements ConstraintObserver.Notifier {
                           @NonNull JobStorage jobStorage,
                           @NonNull JobMigrator jobMigrator,
                           @NonNull JobTracker jobTracker,
-                          @NonNull List<JobPredicate> reservedJobRunners)
+                          @NonNull List<JobPredicate> reservedJobRunners,
+                          @NonNull List<JobPredicate> dedicatedJobRunners)
     {
       this.executorFactory        = executorFactory;
       this.jobThreadCount         = jobThreadCount;
@@ -566,6 +583,7 @@ public class JobManager implements ConstraintObserver.Notifier {
       this.jobMigrator            = jobMigrator;
       this.jobTracker             = jobTracker;
       this.reservedJobRunners     = new ArrayList<>(reservedJobRunners);
+      this.dedicatedJobRunners    = new ArrayList<>(dedicatedJobRunners);
     }
 
     int getJobThreadCount() {
@@ -605,6 +623,17 @@ public class JobManager implements ConstraintObserver.Notifier {
       return reservedJobRunners;
     }
 
+    @NonNull List<JobPredicate> getDedicatedJobRunners() {
+      return dedicatedJobRunners;
+    }
+
+    /**
+     * The distinct predicates of {@link #getDedicatedJobRunners()}. General runners skip any job matching one of these.
+     */
+    @NonNull List<JobPredicate> getDedicatedJobPredicates() {
+      return new ArrayList<>(new LinkedHashSet<>(dedicatedJobRunners));
+    }
+
     public static class Builder {
 
       private ExecutorFactory                 executorFactory     = new DefaultExecutorFactory();
@@ -616,6 +645,7 @@ public class JobManager implements ConstraintObserver.Notifier {
       private JobMigrator                     jobMigrator         = null;
       private JobTracker                      jobTracker          = new JobTracker();
       private List<JobPredicate>              reservedJobRunners  = new ArrayList<>();
+      private List<JobPredicate>              dedicatedJobRunners = new ArrayList<>();
 
       public @NonNull Builder setJobThreadCount(int jobThreadCount) {
         this.jobThreadCount = jobThreadCount;
@@ -627,6 +657,17 @@ public class JobManager implements ConstraintObserver.Notifier {
         return this;
       }
 
+      /**
+       * Adds runners that only run jobs matching the predicate. Unlike a reserved runner, the general runners stop picking those jobs up, so no matter how
+       * many of them are enqueued they can't occupy more than these runners.
+       */
+      public @NonNull Builder addDedicatedJobRunners(@NonNull JobPredicate predicate, int count) {
+        for (int i = 0; i < count; i++) {
+          this.dedicatedJobRunners.add(predicate);
+        }
+        return this;
+      }
+
       public @NonNull Builder setExecutorFactory(@NonNull ExecutorFactory executorFactory) {
         this.executorFactory = executorFactory;
         return this;
@@ -666,7 +707,8 @@ public class JobManager implements ConstraintObserver.Notifier {
                                  jobStorage,
                                  jobMigrator,
                                  jobTracker,
-                                 reservedJobRunners);
+                                 reservedJobRunners,
+                                 dedicatedJobRunners);
       }
     }
   }
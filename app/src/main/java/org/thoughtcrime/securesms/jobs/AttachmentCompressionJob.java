@@ -6,6 +6,7 @@ import android.net.Uri;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import com.google.android.exoplayer2.util.MimeTypes;
@@ -43,6 +44,7 @@ import org.thoughtcrime.securesms.video.InMemoryTranscoder;
 import org.thoughtcrime.securesms.video.StreamingTranscoder;
 import org.thoughtcrime.securesms.video.TranscoderCancelationSignal;
 import org.thoughtcrime.securesms.video.TranscoderOptions;
+import org.thoughtcrime.securesms.video.VideoSizeException;
 import org.thoughtcrime.securesms.video.VideoSourceException;
 import org.thoughtcrime.securesms.video.videoconverter.EncodingException;
 
@@ -65,6 +67,18 @@ public final class AttachmentCompressionJob extends BaseJob {
   private static final String KEY_MMS                 = "mms";
   private static final String KEY_MMS_SUBSCRIPTION_ID = "mms_subscription_id";
 
+  private static final String QUEUE_VIDEO = "VIDEO_TRANSCODE";
+  private static final String QUEUE_OTHER = "GENERIC_TRANSCODE";
+
+  /**
+   * Non-video compression is spread over this many queues, so that the items of an album are compressed in parallel. Each one holds a decoded bitmap, so
+   * the count is bounded by heap size as well as cores.
+   */
+  private static final int MAX_PARALLEL_COMPRESSIONS = 3;
+  private static final int HEAP_PER_COMPRESSION_MB   = 128;
+
+  private static final int PARALLEL_COMPRESSIONS = computeParallelCompressions();
+
   private final AttachmentId attachmentId;
   private final boolean      mms;
   private final int          mmsSubscriptionId;
@@ -76,19 +90,53 @@ public final class AttachmentCompressionJob extends BaseJob {
     return new AttachmentCompressionJob(databaseAttachment.getAttachmentId(),
                                         MediaUtil.isVideo(databaseAttachment) && MediaConstraints.isVideoTranscodeAvailable(),
                                         mms,
-                                        mmsSubscriptionId);
+                                        mmsSubscriptionId,
+                                        PARALLEL_COMPRESSIONS);
   }
 
-  private AttachmentCompressionJob(@NonNull AttachmentId attachmentId,
-                                   boolean isVideoTranscode,
-                                   boolean mms,
-                                   int mmsSubscriptionId)
+  /**
+   * How many compressions may run at once: one video transcode, which mostly happens in the hardware encoder, alongside up to
+   * {@link #getParallelCompressions()} others.
+   */
+  public static int getMaxConcurrentJobs() {
+    return PARALLEL_COMPRESSIONS + 1;
+  }
+
+  public static int getParallelCompressions() {
+    return PARALLEL_COMPRESSIONS;
+  }
+
+  private static int computeParallelCompressions() {
+    int cores  = Runtime.getRuntime().availableProcessors();
+    int heapMb = (int) (Runtime.getRuntime().maxMemory() / (1024 * 1024));
+
+    return Math.max(1, Math.min(MAX_PARALLEL_COMPRESSIONS, Math.min(cores / 2, heapMb / HEAP_PER_COMPRESSION_MB)));
+  }
+
+  /**
+   * Jobs are spread across the queues by attachment row id. The attachments of an album are inserted one after another, so they land on different queues.
+   * The first queue keeps the original name, which is also where any jobs persisted before there were several queues will run.
+   */
+  private static @NonNull String getQueue(@NonNull AttachmentId attachmentId, int parallelCompressions) {
+    int index = (int) (attachmentId.getRowId() % Math.max(1, parallelCompressions));
+    return index == 0 ? QUEUE_OTHER : QUEUE_OTHER + "_" + index;
+  }
+
+  /**
+   * @param parallelCompressions The number of queues non-video compressions are spread across, normally {@link #getParallelCompressions()}.
+   */
+  @VisibleForTesting
+  public AttachmentCompressionJob(@NonNull AttachmentId attachmentId,
+                                  boolean isVideoTranscode,
+                                  boolean mms,
+                                  int mmsSubscriptionId,
+                                  int parallelCompressions)
   {
     this(new Parameters.Builder()
                        .addConstraint(NetworkConstraint.KEY)
                        .setLifespan(TimeUnit.DAYS.toMillis(1))
                        .setMaxAttempts(Parameters.UNLIMITED)
-                       .setQueue(isVideoTranscode ? "VIDEO_TRANSCODE" : "GENERIC_TRANSCODE")
+                       .setQueue(isVideoTranscode ? QUEUE_VIDEO : getQueue(attachmentId, parallelCompressions))
                        .build(),
          attachmentId,
          mms,
@@ -221,7 +269,8 @@ public final class AttachmentCompressionJob extends BaseJob {
         }
 
         if (FeatureFlags.useStreamingVideoMuxer() || !MemoryFileDescriptor.supported()) {
-          StreamingTranscoder transcoder = new StreamingTranscoder(dataSource, options, constraints.getCompressedVideoMaxSize(context));
+          long                sizeLimit  = constraints.getCompressedVideoMaxSize(context);
+          StreamingTranscoder transcoder = new StreamingTranscoder(dataSource, options, sizeLimit);
 
           if (transcoder.isTranscodeRequired()) {
             Log.i(TAG, "Compressing with streaming muxer");
@@ -231,14 +280,18 @@ public final class AttachmentCompressionJob extends BaseJob {
             file.deleteOnExit();
 
             try {
-              try (OutputStream outputStream = ModernEncryptingPartOutputStream.createFor(attachmentSecret, file, true).second) {
-                transcoder.transcode(percent -> {
-                  notification.setProgress(100, percent);
-                  eventBus.postSticky(new PartProgressEvent(attachment,
-                                                            PartProgressEvent.Type.COMPRESSION,
-                                                            100,
-                                                            percent));
-                }, outputStream, cancelationSignal);
+              try {
+                transcodeToFile(transcoder, attachmentSecret, file, attachment, notification, eventBus, cancelationSignal);
+              } catch (VideoSizeException e) {
+                long secondPassSizeTarget = transcoder.getSecondPassSizeTarget();
+
+                if (secondPassSizeTarget <= 0) {
+                  throw e;
+                }
+
+                Log.w(TAG, "Bitrate estimate missed the size limit, transcoding again targeting " + secondPassSizeTarget + " bytes", e);
+                transcoder = new StreamingTranscoder(dataSource, options, sizeLimit, secondPassSizeTarget);
+                transcodeToFile(transcoder, attachmentSecret, file, attachment, notification, eventBus, cancelationSignal);
               }
 
               try (MediaStream mediaStream = new MediaStream(ModernDecryptingPartInputStream.createFor(attachmentSecret, file, 0), MimeTypes.VIDEO_MP4, 0, 0)) {
@@ -296,6 +349,29 @@ public final class AttachmentCompressionJob extends BaseJob {
     return attachment;
   }
 
+  /**
+   * Streams the transcoded video straight into an encrypted file, so that memory use doesn't depend on the length of the video.
+   */
+  private static void transcodeToFile(@NonNull StreamingTranscoder transcoder,
+                                      @NonNull AttachmentSecret attachmentSecret,
+                                      @NonNull File file,
+                                      @NonNull DatabaseAttachment attachment,
+                                      @NonNull NotificationController notification,
+                                      @NonNull EventBus eventBus,
+                                      @NonNull TranscoderCancelationSignal cancelationSignal)
+      throws IOException, EncodingException
+  {
+    try (OutputStream outputStream = ModernEncryptingPartOutputStream.createFor(attachmentSecret, file, true).second) {
+      transcoder.transcode(percent -> {
+        notification.setProgress(100, percent);
+        eventBus.postSticky(new PartProgressEvent(attachment,
+                                                  PartProgressEvent.Type.COMPRESSION,
+                                                  100,
+                                                  percent));
+      }, outputStream, cancelationSignal);
+    }
+  }
+
   /**
    * Compresses the images. Given that we compress every image, this has the fun side effect of
    * stripping all EXIF data.
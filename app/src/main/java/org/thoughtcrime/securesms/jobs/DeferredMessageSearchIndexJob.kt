@@ -0,0 +1,88 @@
+package org.thoughtcrime.securesms.jobs
+
+import org.signal.core.util.ThreadUtil
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
+import org.thoughtcrime.securesms.jobmanager.Job
+import org.thoughtcrime.securesms.keyvalue.SignalStore
+import java.lang.Exception
+
+/**
+ * Applies the deferred search indexing setting, and then adds any messages that are queued to be indexed to the message search index, in batches.
+ */
+class DeferredMessageSearchIndexJob private constructor(parameters: Parameters) : BaseJob(parameters) {
+
+  companion object {
+    const val KEY = "DeferredMessageSearchIndexJob"
+
+    private val TAG = Log.tag(DeferredMessageSearchIndexJob::class.java)
+
+    private const val BATCH_SIZE = 500
+
+    @JvmStatic
+    fun enqueue() {
+      ApplicationDependencies.getJobManager().add(DeferredMessageSearchIndexJob())
+    }
+
+    /**
+     * Indexes new messages in the background whenever they're written while deferred indexing is enabled, and catches up on anything left over from the
+     * last run.
+     */
+    @JvmStatic
+    fun initialize() {
+      ApplicationDependencies.getDatabaseObserver().registerConversationListObserver {
+        if (SignalStore.internalValues().deferredSearchIndexing()) {
+          enqueue()
+        }
+      }
+
+      if (SignalStore.internalValues().deferredSearchIndexing() || SignalDatabase.messageSearch.isDeferredIndexingEnabled()) {
+        enqueue()
+      }
+    }
+  }
+
+  constructor() : this(
+    Parameters.Builder()
+      .setQueue(KEY)
+      .setMaxAttempts(1)
+      .setMaxInstancesForQueue(2)
+      .build()
+  )
+
+  override fun serialize(): ByteArray? = null
+  override fun getFactoryKey() = KEY
+  override fun onFailure() = Unit
+  override fun onShouldRetry(e: Exception) = false
+
+  override fun onRun() {
+    val deferred = SignalStore.internalValues().deferredSearchIndexing()
+    if (deferred != SignalDatabase.messageSearch.isDeferredIndexingEnabled()) {
+      SignalDatabase.messageSearch.setDeferredIndexingEnabled(deferred)
+    }
+
+    val startTime = System.currentTimeMillis()
+    var total = 0
+
+    while (true) {
+      val indexed = SignalDatabase.messageSearch.indexPendingMessages(BATCH_SIZE)
+      total += indexed
+
+      if (indexed < BATCH_SIZE) {
+        break
+      }
+
+      // Give other db operations a chance to run between batches
+      ThreadUtil.sleep(50)
+    }
+
+    if (total > 0) {
+      Log.i(TAG, "Indexed $total messages in ${System.currentTimeMillis() - startTime} ms")
+    }
+  }
+
+  class Factory : Job.Factory<DeferredMessageSearchIndexJob> {
+    override fun create(parameters: Parameters, serializedData: ByteArray?) = DeferredMessageSearchIndexJob(parameters)
+  }
+}
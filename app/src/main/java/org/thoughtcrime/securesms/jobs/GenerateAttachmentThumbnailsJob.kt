@@ -0,0 +1,99 @@
+package org.thoughtcrime.securesms.jobs
+
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.attachments.AttachmentId
+import org.thoughtcrime.securesms.attachments.AttachmentThumbnails
+import org.thoughtcrime.securesms.attachments.DatabaseAttachment
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
+import org.thoughtcrime.securesms.jobmanager.Job
+import org.thoughtcrime.securesms.jobmanager.JsonJobData
+import kotlin.time.Duration.Companion.days
+
+/**
+ * Generate and store the thumbnails for an image or video attachment, ahead of it being shown. Enqueued once the attachment is downloaded or sent.
+ */
+class GenerateAttachmentThumbnailsJob private constructor(
+  private val attachmentId: AttachmentId,
+  private val enqueuedAt: Long,
+  parameters: Parameters
+) : BaseJob(parameters) {
+
+  companion object {
+    private val TAG = Log.tag(GenerateAttachmentThumbnailsJob::class.java)
+
+    private const val KEY_PART_ROW_ID = "part_row_id"
+    private const val KEY_PART_UNIQUE_ID = "part_unique_id"
+    private const val KEY_ENQUEUED_AT = "enqueued_at"
+
+    const val KEY = "GenerateAttachmentThumbnailsJob"
+
+    @JvmStatic
+    fun enqueue(attachmentId: AttachmentId) {
+      ApplicationDependencies.getJobManager().add(GenerateAttachmentThumbnailsJob(attachmentId))
+    }
+  }
+
+  private constructor(attachmentId: AttachmentId) : this(
+    attachmentId,
+    System.currentTimeMillis(),
+    Parameters.Builder()
+      .setQueue("GenerateAttachmentThumbnailsJob")
+      .setLifespan(1.days.inWholeMilliseconds)
+      .setMaxAttempts(1)
+      .build()
+  )
+
+  override fun serialize(): ByteArray? {
+    return JsonJobData.Builder()
+      .putLong(KEY_PART_ROW_ID, attachmentId.rowId)
+      .putLong(KEY_PART_UNIQUE_ID, attachmentId.uniqueId)
+      .putLong(KEY_ENQUEUED_AT, enqueuedAt)
+      .serialize()
+  }
+
+  override fun getFactoryKey(): String = KEY
+
+  override fun onRun() {
+    val attachment: DatabaseAttachment? = SignalDatabase.attachments.getAttachment(attachmentId)
+
+    if (attachment == null) {
+      Log.i(TAG, "Unable to find attachment in database.")
+      return
+    }
+
+    if (!AttachmentThumbnails.canGenerate(attachment)) {
+      Log.w(TAG, "Attempting to generate thumbnails for an unsupported attachment type: ${attachment.contentType}")
+      return
+    }
+
+    if (SignalDatabase.attachments.hasThumbnails(attachmentId)) {
+      Log.i(TAG, "Thumbnails already stored, likely shared with another attachment.")
+      return
+    }
+
+    try {
+      AttachmentThumbnails.generate(context, attachment)
+      Log.i(TAG, "Generation successful, ${System.currentTimeMillis() - enqueuedAt} ms after enqueue")
+    } catch (e: Exception) {
+      Log.i(TAG, "Generation failed", e)
+    }
+  }
+
+  override fun onShouldRetry(e: Exception): Boolean {
+    return false
+  }
+
+  override fun onFailure() = Unit
+
+  class Factory : Job.Factory<GenerateAttachmentThumbnailsJob> {
+    override fun create(parameters: Parameters, serializedData: ByteArray?): GenerateAttachmentThumbnailsJob {
+      val data = JsonJobData.deserialize(serializedData)
+      return GenerateAttachmentThumbnailsJob(
+        AttachmentId(data.getLong(KEY_PART_ROW_ID), data.getLong(KEY_PART_UNIQUE_ID)),
+        data.getLong(KEY_ENQUEUED_AT),
+        parameters
+      )
+    }
+  }
+}
@@ -2,7 +2,6 @@ package org.thoughtcrime.securesms.jobs
 
 import android.os.Build
 import androidx.annotation.RequiresApi
-import org.signal.core.util.concurrent.safeBlockingGet
 import org.signal.core.util.logging.Log
 import org.thoughtcrime.securesms.attachments.AttachmentId
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment
@@ -12,33 +11,84 @@ import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
 import org.thoughtcrime.securesms.jobmanager.Job
 import org.thoughtcrime.securesms.jobmanager.JsonJobData
 import org.thoughtcrime.securesms.util.MediaUtil
+import org.thoughtcrime.securesms.util.SignalLocalMetrics
+import java.util.PriorityQueue
 import kotlin.time.Duration.Companion.days
 
 /**
- * Generate and save wave form for an audio attachment.
+ * Generate and save wave form for an audio attachment, ahead of it being shown. Enqueued once the attachment is downloaded.
+ *
+ * Jobs are batched: whichever one runs first generates the wave forms of every attachment still waiting on one, those most recently
+ * shown on screen first and the rest in download order, and the jobs queued behind it find theirs already done.
  */
-class GenerateAudioWaveFormJob private constructor(private val attachmentId: AttachmentId, parameters: Parameters) : BaseJob(parameters) {
+class GenerateAudioWaveFormJob private constructor(
+  private val attachmentId: AttachmentId,
+  private val enqueuedAt: Long,
+  parameters: Parameters
+) : BaseJob(parameters) {
 
   companion object {
     private val TAG = Log.tag(GenerateAudioWaveFormJob::class.java)
 
     private const val KEY_PART_ROW_ID = "part_row_id"
     private const val KEY_PAR_UNIQUE_ID = "part_unique_id"
+    private const val KEY_ENQUEUED_AT = "enqueued_at"
 
     const val KEY = "GenerateAudioWaveFormJob"
 
+    /** Attachments waiting on a wave form, across every queued job. Guarded by itself, along with [waitingById] and [boundCount]. */
+    private val waiting: PriorityQueue<Waiting> = PriorityQueue(
+      11,
+      compareByDescending<Waiting> { it.boundOrder }.thenBy { it.enqueuedAt }
+    )
+    private val waitingById: MutableMap<AttachmentId, Waiting> = HashMap()
+    private var boundCount: Long = 0
+
     @JvmStatic
     fun enqueue(attachmentId: AttachmentId) {
       if (Build.VERSION.SDK_INT < 23) {
         Log.i(TAG, "Unable to generate waveform on this version of Android")
       } else {
-        ApplicationDependencies.getJobManager().add(GenerateAudioWaveFormJob(attachmentId))
+        val job = GenerateAudioWaveFormJob(attachmentId)
+        SignalLocalMetrics.AudioWaveForm.onDownloaded(attachmentId)
+        addWaiting(attachmentId, job.enqueuedAt)
+        ApplicationDependencies.getJobManager().add(job)
+      }
+    }
+
+    /**
+     * Moves the attachment to the front of the queue, if it is still waiting on a wave form, as it is now on screen.
+     */
+    @JvmStatic
+    fun prioritize(attachmentId: AttachmentId) {
+      synchronized(waiting) {
+        val item = waitingById[attachmentId] ?: return
+        waiting.remove(item)
+        item.boundOrder = ++boundCount
+        waiting.add(item)
+      }
+    }
+
+    private fun addWaiting(attachmentId: AttachmentId, enqueuedAt: Long) {
+      synchronized(waiting) {
+        if (!waitingById.containsKey(attachmentId)) {
+          val item = Waiting(attachmentId, enqueuedAt)
+          waitingById[attachmentId] = item
+          waiting.add(item)
+        }
+      }
+    }
+
+    private fun pollWaiting(): Waiting? {
+      synchronized(waiting) {
+        return waiting.poll()?.also { waitingById.remove(it.attachmentId) }
       }
     }
   }
 
   private constructor(attachmentId: AttachmentId) : this(
     attachmentId,
+    System.currentTimeMillis(),
     Parameters.Builder()
       .setQueue("GenerateAudioWaveFormJob")
       .setLifespan(1.days.inWholeMilliseconds)
@@ -50,6 +100,7 @@ class GenerateAudioWaveFormJob private constructor(private val attachmentId: Att
     return JsonJobData.Builder()
       .putLong(KEY_PART_ROW_ID, attachmentId.rowId)
       .putLong(KEY_PAR_UNIQUE_ID, attachmentId.uniqueId)
+      .putLong(KEY_ENQUEUED_AT, enqueuedAt)
       .serialize()
   }
 
@@ -57,26 +108,42 @@ class GenerateAudioWaveFormJob private constructor(private val attachmentId: Att
 
   @RequiresApi(23)
   override fun onRun() {
+    // Covers jobs restored after a restart, which were never added to the in-memory queue. Already generated wave forms are read from the database.
+    addWaiting(attachmentId, enqueuedAt)
+
+    var count = 0
+    while (true) {
+      val next = pollWaiting() ?: break
+      generate(next.attachmentId)
+      count++
+    }
+
+    if (count > 0) {
+      Log.i(TAG, "Processed a batch of $count wave form(s)")
+    }
+  }
+
+  @RequiresApi(23)
+  private fun generate(attachmentId: AttachmentId) {
     val attachment: DatabaseAttachment? = SignalDatabase.attachments.getAttachment(attachmentId)
 
     if (attachment == null) {
-      Log.i(TAG, "Unable to find attachment in database.")
+      Log.i(TAG, "[$attachmentId] Unable to find attachment in database.")
+      SignalLocalMetrics.AudioWaveForm.cancel(attachmentId)
       return
     }
 
     if (!MediaUtil.isAudio(attachment)) {
-      Log.w(TAG, "Attempting to generate wave form for a non-audio attachment type: ${attachment.contentType}")
+      Log.w(TAG, "[$attachmentId] Attempting to generate wave form for a non-audio attachment type: ${attachment.contentType}")
+      SignalLocalMetrics.AudioWaveForm.cancel(attachmentId)
       return
     }
 
     try {
-      AudioWaveForms
-        .getWaveForm(context, attachment)
-        .safeBlockingGet()
-
-      Log.i(TAG, "Generation successful")
+      AudioWaveForms.pregenerateWaveForm(context, attachment)
+      Log.i(TAG, "[$attachmentId] Generation successful")
     } catch (e: Exception) {
-      Log.i(TAG, "Generation failed", e)
+      Log.i(TAG, "[$attachmentId] Generation failed", e)
     }
   }
 
@@ -86,10 +153,18 @@ class GenerateAudioWaveFormJob private constructor(private val attachmentId: Att
 
   override fun onFailure() = Unit
 
+  private class Waiting(val attachmentId: AttachmentId, val enqueuedAt: Long) {
+    var boundOrder: Long = 0
+  }
+
   class Factory : Job.Factory<GenerateAudioWaveFormJob> {
     override fun create(parameters: Parameters, serializedData: ByteArray?): GenerateAudioWaveFormJob {
       val data = JsonJobData.deserialize(serializedData)
-      return GenerateAudioWaveFormJob(AttachmentId(data.getLong(KEY_PART_ROW_ID), data.getLong(KEY_PAR_UNIQUE_ID)), parameters)
+      return GenerateAudioWaveFormJob(
+        AttachmentId(data.getLong(KEY_PART_ROW_ID), data.getLong(KEY_PAR_UNIQUE_ID)),
+        data.getLongOrDefault(KEY_ENQUEUED_AT, -1),
+        parameters
+      )
     }
   }
 }
@@ -69,70 +69,101 @@ class MultiDeviceContactSyncJob(parameters: Parameters, private val attachmentPo
     }
   }
 
+  /**
+   * Applies the contacts a batch at a time, each batch in its own transaction, so that a large sync doesn't pay for a transaction per write.
+   *
+   * A contact's avatar is read straight from the contact stream, so it has to be saved before the next contact is read. That's done while reading
+   * the batch, before its transaction starts, so that the write lock isn't held while the avatars are written to disk.
+   */
   private fun processContactFile(inputStream: InputStream) {
     val deviceContacts = DeviceContactsInputStream(inputStream)
-    val recipients = SignalDatabase.recipients
-    val threads = SignalDatabase.threads
+    val start = System.currentTimeMillis()
+    var count = 0
+    var done = false
 
-    var contact: DeviceContact? = deviceContacts.read()
-    while (contact != null) {
-      val recipient = Recipient.externalPush(SignalServiceAddress(contact.address.serviceId, contact.address.number.orElse(null)))
+    while (!done) {
+      val batch: MutableList<Pair<Recipient, DeviceContact>> = ArrayList(BATCH_SIZE)
 
-      if (recipient.isSelf) {
-        contact = deviceContacts.read()
-        continue
-      }
+      while (batch.size < BATCH_SIZE) {
+        val contact: DeviceContact? = deviceContacts.read()
 
-      if (contact.name.isPresent) {
-        recipients.setSystemContactName(recipient.id, contact.name.get())
-      }
+        if (contact == null) {
+          done = true
+          break
+        }
 
-      if (contact.expirationTimer.isPresent) {
-        recipients.setExpireMessages(recipient.id, contact.expirationTimer.get())
-      }
+        val recipient = Recipient.externalPush(SignalServiceAddress(contact.address.serviceId, contact.address.number.orElse(null)))
 
-      if (contact.profileKey.isPresent) {
-        val profileKey = contact.profileKey.get()
-        recipients.setProfileKey(recipient.id, profileKey)
-      }
+        if (recipient.isSelf) {
+          continue
+        }
 
-      if (contact.verified.isPresent) {
-        val verifiedStatus: VerifiedStatus = when (contact.verified.get().verified) {
-          VerifiedState.VERIFIED -> VerifiedStatus.VERIFIED
-          VerifiedState.UNVERIFIED -> VerifiedStatus.UNVERIFIED
-          else -> VerifiedStatus.DEFAULT
+        if (contact.avatar.isPresent) {
+          try {
+            AvatarHelper.setSyncAvatar(context, recipient.id, contact.avatar.get().inputStream)
+          } catch (e: IOException) {
+            Log.w(TAG, "Unable to set sync avatar for ${recipient.id}")
+          }
         }
 
-        ApplicationDependencies.getProtocolStore().aci().identities().saveIdentityWithoutSideEffects(
-          recipient.id,
-          contact.verified.get().identityKey,
-          verifiedStatus,
-          false,
-          contact.verified.get().timestamp,
-          true
-        )
+        batch += recipient to contact
       }
 
-      recipients.setBlocked(recipient.id, contact.isBlocked)
-
-      val threadRecord = threads.getThreadRecord(threads.getThreadIdFor(recipient.id))
-      if (threadRecord != null && contact.isArchived != threadRecord.isArchived) {
-        if (contact.isArchived) {
-          threads.archiveConversation(threadRecord.threadId)
-        } else {
-          threads.unarchiveConversation(threadRecord.threadId)
+      SignalDatabase.runInTransaction {
+        for ((recipient, contact) in batch) {
+          processContact(recipient, contact)
         }
       }
 
-      if (contact.avatar.isPresent) {
-        try {
-          AvatarHelper.setSyncAvatar(context, recipient.id, contact.avatar.get().inputStream)
-        } catch (e: IOException) {
-          Log.w(TAG, "Unable to set sync avatar for ${recipient.id}")
-        }
+      count += batch.size
+    }
+
+    Log.i(TAG, "Processed $count contact(s) in ${System.currentTimeMillis() - start} ms")
+  }
+
+  private fun processContact(recipient: Recipient, contact: DeviceContact) {
+    val recipients = SignalDatabase.recipients
+    val threads = SignalDatabase.threads
+
+    if (contact.name.isPresent) {
+      recipients.setSystemContactName(recipient.id, contact.name.get())
+    }
+
+    if (contact.expirationTimer.isPresent) {
+      recipients.setExpireMessages(recipient.id, contact.expirationTimer.get())
+    }
+
+    if (contact.profileKey.isPresent) {
+      val profileKey = contact.profileKey.get()
+      recipients.setProfileKey(recipient.id, profileKey)
+    }
+
+    if (contact.verified.isPresent) {
+      val verifiedStatus: VerifiedStatus = when (contact.verified.get().verified) {
+        VerifiedState.VERIFIED -> VerifiedStatus.VERIFIED
+        VerifiedState.UNVERIFIED -> VerifiedStatus.UNVERIFIED
+        else -> VerifiedStatus.DEFAULT
       }
 
-      contact = deviceContacts.read()
+      ApplicationDependencies.getProtocolStore().aci().identities().saveIdentityWithoutSideEffects(
+        recipient.id,
+        contact.verified.get().identityKey,
+        verifiedStatus,
+        false,
+        contact.verified.get().timestamp,
+        true
+      )
+    }
+
+    recipients.setBlocked(recipient.id, contact.isBlocked)
+
+    val threadRecord = threads.getThreadRecord(threads.getThreadIdFor(recipient.id))
+    if (threadRecord != null && contact.isArchived != threadRecord.isArchived) {
+      if (contact.isArchived) {
+        threads.archiveConversation(threadRecord.threadId)
+      } else {
+        threads.unarchiveConversation(threadRecord.threadId)
+      }
     }
   }
 
@@ -151,6 +182,7 @@ class MultiDeviceContactSyncJob(parameters: Parameters, private val attachmentPo
     const val KEY = "MultiDeviceContactSyncJob"
     const val KEY_ATTACHMENT_POINTER = "attachment_pointer"
     private const val MAX_ATTACHMENT_SIZE: Long = 100 * 1024 * 1024
+    private const val BATCH_SIZE = 100
     private val TAG = Log.tag(MultiDeviceContactSyncJob::class.java)
   }
 }
@@ -10,6 +10,7 @@ import android.provider.ContactsContract;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 import org.signal.libsignal.protocol.IdentityKey;
 import org.signal.libsignal.zkgroup.profiles.ProfileKey;
@@ -26,7 +27,6 @@ import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.net.NotPushRegisteredException;
 import org.thoughtcrime.securesms.permissions.Permissions;
-import org.thoughtcrime.securesms.providers.BlobProvider;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.recipients.RecipientUtil;
@@ -46,9 +46,10 @@ import org.whispersystems.signalservice.api.push.exceptions.ServerRejectedExcept
 import org.whispersystems.signalservice.api.util.InvalidNumberException;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -139,11 +140,9 @@ public class MultiDeviceContactUpdateJob extends BaseJob {
   private void generateSingleContactUpdate(@NonNull RecipientId recipientId)
       throws IOException, UntrustedIdentityException, NetworkException
   {
-    WriteDetails writeDetails = createTempFile();
-
-    Uri updateUri = null;
     try {
-      DeviceContactsOutputStream out       = new DeviceContactsOutputStream(writeDetails.outputStream);
+      ByteArrayOutputStream      bytes     = new ByteArrayOutputStream();
+      DeviceContactsOutputStream out       = new DeviceContactsOutputStream(bytes);
       Recipient                  recipient = Recipient.resolved(recipientId);
 
       if (recipient.getRegistered() == RecipientTable.RegisteredState.NOT_REGISTERED) {
@@ -169,21 +168,14 @@ public class MultiDeviceContactUpdateJob extends BaseJob {
                                   archived.contains(recipientId)));
 
       out.close();
-      updateUri = writeDetails.getUri();
-
-      long length = BlobProvider.getInstance().calculateFileSize(context, updateUri);
 
       sendUpdate(ApplicationDependencies.getSignalServiceMessageSender(),
-                 BlobProvider.getInstance().getStream(context, updateUri),
-                 length,
+                 new ByteArrayInputStream(bytes.toByteArray()),
+                 bytes.size(),
                  false);
 
-    } catch(InvalidNumberException | InterruptedException e) {
+    } catch(InvalidNumberException e) {
       Log.w(TAG, e);
-    } finally {
-      if (updateUri != null) {
-        BlobProvider.getInstance().delete(context, updateUri);
-      }
     }
   }
 
@@ -204,14 +196,12 @@ public class MultiDeviceContactUpdateJob extends BaseJob {
     TextSecurePreferences.setLastFullContactSyncTime(context, System.currentTimeMillis());
     TextSecurePreferences.setNeedsFullContactSync(context, false);
 
-    WriteDetails writeDetails = createTempFile();
-
-    Uri updateUri = null;
     try {
-      DeviceContactsOutputStream out            = new DeviceContactsOutputStream(writeDetails.outputStream);
-      List<Recipient>            recipients     = SignalDatabase.recipients().getRecipientsForMultiDeviceSync();
-      Map<RecipientId, Integer>  inboxPositions = SignalDatabase.threads().getInboxPositions();
-      Set<RecipientId>           archived       = SignalDatabase.threads().getArchivedRecipients();
+      long                      start          = System.currentTimeMillis();
+      List<Recipient>           recipients     = SignalDatabase.recipients().getRecipientsForMultiDeviceSync();
+      Map<RecipientId, Integer> inboxPositions = SignalDatabase.threads().getInboxPositions();
+      Set<RecipientId>          archived       = SignalDatabase.threads().getArchivedRecipients();
+      List<PendingContact>      contacts       = new ArrayList<>(recipients.size() + 1);
 
       for (Recipient recipient : recipients) {
         Optional<IdentityRecord>  identity      = ApplicationDependencies.getProtocolStore().aci().identities().getIdentityRecord(recipient.getId());
@@ -222,16 +212,17 @@ public class MultiDeviceContactUpdateJob extends BaseJob {
         Optional<Integer>         expireTimer   = recipient.getExpiresInSeconds() > 0 ? Optional.of(recipient.getExpiresInSeconds()) : Optional.empty();
         Optional<Integer>         inboxPosition = Optional.ofNullable(inboxPositions.get(recipient.getId()));
 
-        out.write(new DeviceContact(RecipientUtil.toSignalServiceAddress(context, recipient),
-                                    name,
-                                    getSystemAvatar(recipient.getContactUri()),
-                                    Optional.of(ChatColorsMapper.getMaterialColor(recipient.getChatColors()).serialize()),
-                                    verified,
-                                    profileKey,
-                                    blocked,
-                                    expireTimer,
-                                    inboxPosition,
-                                    archived.contains(recipient.getId())));
+        contacts.add(new PendingContact(new DeviceContact(RecipientUtil.toSignalServiceAddress(context, recipient),
+                                                          name,
+                                                          getSystemAvatar(recipient.getContactUri()),
+                                                          Optional.of(ChatColorsMapper.getMaterialColor(recipient.getChatColors()).serialize()),
+                                                          verified,
+                                                          profileKey,
+                                                          blocked,
+                                                          expireTimer,
+                                                          inboxPosition,
+                                                          archived.contains(recipient.getId())),
+                                        recipient.getContactUri()));
       }
 
 
@@ -239,33 +230,115 @@ public class MultiDeviceContactUpdateJob extends BaseJob {
       byte[]    profileKey = self.getProfileKey();
 
       if (profileKey != null) {
-        out.write(new DeviceContact(RecipientUtil.toSignalServiceAddress(context, self),
-                                    Optional.empty(),
-                                    Optional.empty(),
-                                    Optional.of(ChatColorsMapper.getMaterialColor(self.getChatColors()).serialize()),
-                                    Optional.empty(),
-                                    ProfileKeyUtil.profileKeyOptionalOrThrow(self.getProfileKey()),
-                                    false,
-                                    self.getExpiresInSeconds() > 0 ? Optional.of(self.getExpiresInSeconds()) : Optional.empty(),
-                                    Optional.ofNullable(inboxPositions.get(self.getId())),
-                                    archived.contains(self.getId())));
+        contacts.add(new PendingContact(new DeviceContact(RecipientUtil.toSignalServiceAddress(context, self),
+                                                          Optional.empty(),
+                                                          Optional.empty(),
+                                                          Optional.of(ChatColorsMapper.getMaterialColor(self.getChatColors()).serialize()),
+                                                          Optional.empty(),
+                                                          ProfileKeyUtil.profileKeyOptionalOrThrow(self.getProfileKey()),
+                                                          false,
+                                                          self.getExpiresInSeconds() > 0 ? Optional.of(self.getExpiresInSeconds()) : Optional.empty(),
+                                                          Optional.ofNullable(inboxPositions.get(self.getId())),
+                                                          archived.contains(self.getId())),
+                                        null));
       }
 
-      out.close();
+      long length = 0;
+      for (PendingContact contact : contacts) {
+        length += contact.encodedLength;
+      }
 
-      updateUri = writeDetails.getUri();
+      Log.i(TAG, "Prepared " + contacts.size() + " contact(s), " + length + " bytes, in " + (System.currentTimeMillis() - start) + " ms. Streaming them to the upload.");
 
-      long length = BlobProvider.getInstance().calculateFileSize(context, updateUri);
+      ParcelFileDescriptor[] pipe     = ParcelFileDescriptor.createReliablePipe();
+      InputStream            upload   = new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]);
+      Future<?>              producer = SignalExecutors.UNBOUNDED.submit(() -> writeContacts(contacts, pipe[1]));
+      Throwable              producerFailure;
 
-      sendUpdate(ApplicationDependencies.getSignalServiceMessageSender(),
-                 BlobProvider.getInstance().getStream(context, updateUri),
-                 length,
-                 true);
-    } catch(InvalidNumberException | InterruptedException e) {
+      try {
+        sendUpdate(ApplicationDependencies.getSignalServiceMessageSender(), upload, length, true);
+      } finally {
+        upload.close();
+        producerFailure = awaitProducer(producer);
+      }
+
+      if (producerFailure != null) {
+        throw new IOException("Failed to write contacts to the upload.", producerFailure);
+      }
+
+      Log.i(TAG, "Sent " + contacts.size() + " contact(s) in " + (System.currentTimeMillis() - start) + " ms.");
+    } catch(InvalidNumberException e) {
       Log.w(TAG, e);
-    } finally {
-      if (updateUri != null) {
-        BlobProvider.getInstance().delete(context, updateUri);
+    }
+  }
+
+  /**
+   * Writes the contacts into the upload as it reads them, reopening each avatar. The upload's length was worked out from the avatars as they were
+   * when the contacts were prepared, so if one has since changed, this gives up and the upload fails rather than sending something malformed.
+   * <p>
+   * On failure the pipe is closed with an error rather than just closed, so the upload isn't left to read what looks like a complete stream.
+   */
+  private Void writeContacts(@NonNull List<PendingContact> contacts, @NonNull ParcelFileDescriptor writeEnd) throws IOException {
+    DeviceContactsOutputStream out = new DeviceContactsOutputStream(new ParcelFileDescriptor.AutoCloseOutputStream(writeEnd));
+
+    try {
+      for (PendingContact pending : contacts) {
+        DeviceContact contact = pending.contact;
+
+        if (pending.hasAvatar) {
+          Optional<SignalServiceAttachmentStream> avatar = getSystemAvatar(pending.contactUri);
+
+          if (!avatar.isPresent() || avatar.get().getLength() != pending.avatarLength) {
+            closeAvatar(avatar);
+            throw new IOException("Avatar changed while syncing contacts!");
+          }
+
+          contact = new DeviceContact(contact.getAddress(),
+                                      contact.getName(),
+                                      avatar,
+                                      contact.getColor(),
+                                      contact.getVerified(),
+                                      contact.getProfileKey(),
+                                      contact.isBlocked(),
+                                      contact.getExpirationTimer(),
+                                      contact.getInboxPosition(),
+                                      contact.isArchived());
+        }
+
+        out.write(contact);
+      }
+    } catch (IOException | RuntimeException e) {
+      writeEnd.closeWithError(String.valueOf(e.getMessage()));
+      throw e;
+    }
+
+    out.close();
+
+    return null;
+  }
+
+  /**
+   * @return Why the contacts couldn't be written to the upload, or null if they were.
+   */
+  private static @Nullable Throwable awaitProducer(@NonNull Future<?> producer) {
+    try {
+      producer.get();
+      return null;
+    } catch (ExecutionException e) {
+      Log.w(TAG, "Failed to write contacts to the upload.", e.getCause());
+      return e.getCause();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return e;
+    }
+  }
+
+  private static void closeAvatar(@NonNull Optional<SignalServiceAttachmentStream> avatar) {
+    if (avatar.isPresent()) {
+      try {
+        avatar.get().getInputStream().close();
+      } catch (IOException e) {
+        Log.w(TAG, e);
       }
     }
   }
@@ -383,17 +456,6 @@ public class MultiDeviceContactUpdateJob extends BaseJob {
     return Optional.of(new VerifiedMessage(destination, identityKey, state, System.currentTimeMillis()));
   }
 
-  private @NonNull WriteDetails createTempFile() throws IOException {
-    ParcelFileDescriptor[] pipe        = ParcelFileDescriptor.createPipe();
-    InputStream            inputStream = new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]);
-    Future<Uri>            futureUri   = BlobProvider.getInstance()
-                                                     .forData(inputStream, 0)
-                                                     .withFileName("multidevice-contact-update")
-                                                     .createForSingleSessionOnDiskAsync(context);
-
-    return new WriteDetails(futureUri, new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]));
-  }
-
   private static class NetworkException extends Exception {
 
     public NetworkException(Exception ioe) {
@@ -401,25 +463,25 @@ public class MultiDeviceContactUpdateJob extends BaseJob {
     }
   }
 
-  private static class WriteDetails {
-    private final Future<Uri>  futureUri;
-    private final OutputStream outputStream;
-
-    private WriteDetails(@NonNull Future<Uri> blobUri, @NonNull OutputStream outputStream) {
-      this.futureUri = blobUri;
-      this.outputStream = outputStream;
-    }
-
-    public Uri getUri() throws IOException, InterruptedException {
-      try {
-        return futureUri.get();
-      } catch (ExecutionException e) {
-        if (e.getCause() instanceof IOException) {
-          throw (IOException) e.getCause();
-        } else {
-          throw new RuntimeException(e.getCause());
-        }
-      }
+  /**
+   * A contact that has been prepared for a full sync, with its avatar closed again until it is written, so that thousands of them don't hold open
+   * thousands of files.
+   */
+  private static class PendingContact {
+    private final DeviceContact contact;
+    private final Uri           contactUri;
+    private final boolean       hasAvatar;
+    private final long          avatarLength;
+    private final long          encodedLength;
+
+    private PendingContact(@NonNull DeviceContact contact, @Nullable Uri contactUri) {
+      this.contact       = contact;
+      this.contactUri    = contactUri;
+      this.hasAvatar     = contact.getAvatar().isPresent();
+      this.avatarLength  = hasAvatar ? contact.getAvatar().get().getLength() : 0;
+      this.encodedLength = DeviceContactsOutputStream.getEncodedLength(contact);
+
+      closeAvatar(contact.getAvatar());
     }
   }
 
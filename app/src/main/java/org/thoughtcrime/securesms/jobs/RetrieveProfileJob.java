@@ -19,7 +19,6 @@ import org.signal.core.util.logging.Log;
 import org.signal.libsignal.protocol.IdentityKey;
 import org.signal.libsignal.protocol.InvalidKeyException;
 import org.signal.libsignal.protocol.util.Pair;
-import org.signal.libsignal.zkgroup.profiles.ExpiringProfileKeyCredential;
 import org.signal.libsignal.zkgroup.profiles.ProfileKey;
 import org.thoughtcrime.securesms.badges.Badges;
 import org.thoughtcrime.securesms.badges.models.Badge;
@@ -44,6 +43,7 @@ import org.thoughtcrime.securesms.util.Base64;
 import org.thoughtcrime.securesms.util.FeatureFlags;
 import org.thoughtcrime.securesms.util.IdentityUtil;
 import org.thoughtcrime.securesms.util.ProfileUtil;
+import org.thoughtcrime.securesms.util.SignalLocalMetrics;
 import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.signalservice.api.crypto.InvalidCiphertextException;
 import org.whispersystems.signalservice.api.crypto.ProfileCipher;
@@ -62,6 +62,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import io.reactivex.rxjava3.core.Observable;
@@ -246,87 +248,106 @@ public class RetrieveProfileJob extends BaseJob {
 
     Stopwatch      stopwatch      = new Stopwatch("RetrieveProfile");
     RecipientTable recipientTable = SignalDatabase.recipients();
+    String         metricId       = SignalLocalMetrics.ProfileRetrieval.start();
+    boolean        metricEnded    = false;
 
-    RecipientUtil.ensureUuidsAreAvailable(context, Stream.of(Recipient.resolvedList(recipientIds))
-                                                         .filter(r -> r.getRegistered() != RecipientTable.RegisteredState.NOT_REGISTERED)
-                                                         .toList());
-
-    List<Recipient> recipients = Recipient.resolvedList(recipientIds);
-    stopwatch.split("resolve-ensure");
-
-    List<Observable<Pair<Recipient, ServiceResponse<ProfileAndCredential>>>> requests = Stream.of(recipients)
-                                                                                              .filter(Recipient::hasServiceId)
-                                                                                              .map(r -> ProfileUtil.retrieveProfile(context, r, getRequestType(r)).toObservable())
-                                                                                              .toList();
-    stopwatch.split("requests");
-
-    OperationState operationState = Observable.mergeDelayError(requests, 16, 1)
-                                              .observeOn(Schedulers.io(), true)
-                                              .scan(new OperationState(), (state, pair) -> {
-                                                Recipient                               recipient = pair.first();
-                                                ProfileService.ProfileResponseProcessor processor = new ProfileService.ProfileResponseProcessor(pair.second());
-                                                if (processor.hasResult()) {
-                                                  state.profiles.add(processor.getResult(recipient));
-                                                } else if (processor.notFound()) {
-                                                  Log.w(TAG, "Failed to find a profile for " + recipient.getId());
-                                                  if (recipient.isRegistered()) {
-                                                    state.unregistered.add(recipient.getId());
+    try {
+      RecipientUtil.ensureUuidsAreAvailable(context, Stream.of(Recipient.resolvedList(recipientIds))
+                                                           .filter(r -> r.getRegistered() != RecipientTable.RegisteredState.NOT_REGISTERED)
+                                                           .toList());
+
+      List<Recipient> recipients = Recipient.resolvedList(recipientIds);
+      stopwatch.split("resolve-ensure");
+
+      List<Observable<Pair<Recipient, ServiceResponse<ProfileAndCredential>>>> requests = Stream.of(recipients)
+                                                                                                .filter(Recipient::hasServiceId)
+                                                                                                .map(r -> ProfileUtil.retrieveProfile(context, r, getRequestType(r)).toObservable())
+                                                                                                .toList();
+      stopwatch.split("requests");
+
+      OperationState operationState = Observable.mergeDelayError(requests, 16, 1)
+                                                .observeOn(Schedulers.io(), true)
+                                                .scan(new OperationState(), (state, pair) -> {
+                                                  Recipient                               recipient = pair.first();
+                                                  ProfileService.ProfileResponseProcessor processor = new ProfileService.ProfileResponseProcessor(pair.second());
+                                                  if (processor.hasResult()) {
+                                                    Pair<Recipient, ProfileAndCredential> result = processor.getResult(recipient);
+                                                    state.profiles.add(result);
+                                                    state.processed.add(SignalExecutors.BOUNDED.submit(() -> decrypt(result.first(), result.second())));
+                                                  } else if (processor.notFound()) {
+                                                    Log.w(TAG, "Failed to find a profile for " + recipient.getId());
+                                                    if (recipient.isRegistered()) {
+                                                      state.unregistered.add(recipient.getId());
+                                                    }
+                                                  } else if (processor.genericIoError()) {
+                                                    state.retries.add(recipient.getId());
+                                                  } else {
+                                                    Log.w(TAG, "Failed to retrieve profile for " + recipient.getId(), processor.getError());
                                                   }
-                                                } else if (processor.genericIoError()) {
-                                                  state.retries.add(recipient.getId());
-                                                } else {
-                                                  Log.w(TAG, "Failed to retrieve profile for " + recipient.getId(), processor.getError());
-                                                }
-                                                return state;
-                                              })
-                                              .lastOrError()
-                                              .blockingGet();
-
-    stopwatch.split("responses");
-
-    Set<RecipientId> success = SetUtil.difference(recipientIds, operationState.retries);
-
-    Map<RecipientId, ServiceId> newlyRegistered = Stream.of(operationState.profiles)
-                                                        .map(Pair::first)
-                                                        .filterNot(Recipient::isRegistered)
-                                                        .collect(Collectors.toMap(Recipient::getId,
-                                                                                  r -> r.getServiceId().orElse(null)));
-
-
-    //noinspection SimplifyStreamApiCallChains
-    ListUtil.chunk(operationState.profiles, 150).stream().forEach(list -> {
-      SignalDatabase.runInTransaction(() -> {
-        for (Pair<Recipient, ProfileAndCredential> profile : list) {
-          process(profile.first(), profile.second());
-        }
-      });
-    });
+                                                  return state;
+                                                })
+                                                .lastOrError()
+                                                .blockingGet();
 
-    recipientTable.markProfilesFetched(success, System.currentTimeMillis());
-    // XXX The service hasn't implemented profiles for PNIs yet, so if using PNP CDS we don't want to mark users without profiles as unregistered.
-    if ((operationState.unregistered.size() > 0 || newlyRegistered.size() > 0) && !FeatureFlags.phoneNumberPrivacy()) {
-      Log.i(TAG, "Marking " + newlyRegistered.size() + " users as registered and " + operationState.unregistered.size() + " users as unregistered.");
-      recipientTable.bulkUpdatedRegisteredStatus(newlyRegistered, operationState.unregistered);
-    }
+      stopwatch.split("responses");
+      SignalLocalMetrics.ProfileRetrieval.onFetched(metricId);
 
-    stopwatch.split("process");
+      List<ProcessedProfile> processedProfiles = awaitAll(operationState.processed);
 
-    for (Pair<Recipient, ProfileAndCredential> profile : operationState.profiles) {
-      setIdentityKey(profile.first(), profile.second().getProfile().getIdentityKey());
-    }
+      stopwatch.split("decrypt");
+      SignalLocalMetrics.ProfileRetrieval.onDecrypted(metricId);
+
+      Set<RecipientId> success = SetUtil.difference(recipientIds, operationState.retries);
+
+      Map<RecipientId, ServiceId> newlyRegistered = Stream.of(operationState.profiles)
+                                                          .map(Pair::first)
+                                                          .filterNot(Recipient::isRegistered)
+                                                          .collect(Collectors.toMap(Recipient::getId,
+                                                                                    r -> r.getServiceId().orElse(null)));
+
+
+      long             writeStart = System.currentTimeMillis();
+      Set<RecipientId> changed    = new HashSet<>();
+
+      for (List<ProcessedProfile> list : ListUtil.chunk(processedProfiles, 150)) {
+        SignalDatabase.runInTransaction(() -> changed.addAll(write(list)));
+      }
+
+      long writeDuration = System.currentTimeMillis() - writeStart;
+
+      recipientTable.markProfilesFetched(success, System.currentTimeMillis());
+      // XXX The service hasn't implemented profiles for PNIs yet, so if using PNP CDS we don't want to mark users without profiles as unregistered.
+      if ((operationState.unregistered.size() > 0 || newlyRegistered.size() > 0) && !FeatureFlags.phoneNumberPrivacy()) {
+        Log.i(TAG, "Marking " + newlyRegistered.size() + " users as registered and " + operationState.unregistered.size() + " users as unregistered.");
+        recipientTable.bulkUpdatedRegisteredStatus(newlyRegistered, operationState.unregistered);
+      }
+
+      stopwatch.split("process");
+      SignalLocalMetrics.ProfileRetrieval.onWritten(metricId);
+      metricEnded = true;
+
+      for (Pair<Recipient, ProfileAndCredential> profile : operationState.profiles) {
+        setIdentityKey(profile.first(), profile.second().getProfile().getIdentityKey());
+      }
 
-    stopwatch.split("identityKeys");
+      stopwatch.split("identityKeys");
 
-    long keyCount = Stream.of(operationState.profiles).map(Pair::first).map(Recipient::getProfileKey).withoutNulls().count();
-    Log.d(TAG, String.format(Locale.US, "Started with %d recipient(s). Found %d profile(s), and had keys for %d of them. Will retry %d.", recipients.size(), operationState.profiles.size(), keyCount, operationState.retries.size()));
+      long keyCount = Stream.of(operationState.profiles).map(Pair::first).map(Recipient::getProfileKey).withoutNulls().count();
+      Log.d(TAG, String.format(Locale.US, "Started with %d recipient(s). Found %d profile(s), and had keys for %d of them. Will retry %d.", recipients.size(), operationState.profiles.size(), keyCount, operationState.retries.size()));
+      Log.d(TAG, String.format(Locale.US, "Wrote %d profile(s) in %d ms (%.1f/sec), %d of which changed something.", processedProfiles.size(), writeDuration, processedProfiles.size() * 1000f / Math.max(1, writeDuration), changed.size()));
 
-    stopwatch.stop(TAG);
+      stopwatch.stop(TAG);
 
-    recipientIds.clear();
-    recipientIds.addAll(operationState.retries);
+      recipientIds.clear();
+      recipientIds.addAll(operationState.retries);
 
-    if (recipientIds.size() > 0) {
-      throw new RetryLaterException();
+      if (recipientIds.size() > 0) {
+        throw new RetryLaterException();
+      }
+    } finally {
+      if (!metricEnded) {
+        SignalLocalMetrics.ProfileRetrieval.cancel(metricId);
+      }
     }
   }
 
@@ -338,29 +359,79 @@ public class RetrieveProfileJob extends BaseJob {
   @Override
   public void onFailure() {}
 
-  private void process(Recipient recipient, ProfileAndCredential profileAndCredential) {
-    SignalServiceProfile profile             = profileAndCredential.getProfile();
-    ProfileKey           recipientProfileKey = ProfileKeyUtil.profileKeyOrNull(recipient.getProfileKey());
-
-    boolean wroteNewProfileName = setProfileName(recipient, profile.getName());
+  /**
+   * Decrypts and verifies everything in a fetched profile and works out what needs to be written, without touching the database, so that it can run
+   * on any thread while other profiles are still being fetched.
+   */
+  private @NonNull ProcessedProfile decrypt(@NonNull Recipient recipient, @NonNull ProfileAndCredential profileAndCredential) {
+    SignalServiceProfile         profile             = profileAndCredential.getProfile();
+    ProfileKey                   recipientProfileKey = ProfileKeyUtil.profileKeyOrNull(recipient.getProfileKey());
+    RecipientTable.ProfileUpdate update              = new RecipientTable.ProfileUpdate(recipient.getId());
+
+    ProfileName newProfileName = getNewProfileName(recipient, profile.getName());
+    if (newProfileName != null) {
+      update.setProfileName(newProfileName);
+    }
 
-    setProfileAbout(recipient, profile.getAbout(), profile.getAboutEmoji());
-    setProfileAvatar(recipient, profile.getAvatar());
-    setProfileBadges(recipient, profile.getBadges());
-    setProfileCapabilities(recipient, profile.getCapabilities());
-    setUnidentifiedAccessMode(recipient, profile.getUnidentifiedAccess(), profile.isUnrestrictedUnidentifiedAccess());
+    setProfileAbout(recipient, profile.getAbout(), profile.getAboutEmoji(), update);
+    setProfileBadges(recipient, profile.getBadges(), update);
+    setProfileCapabilities(profile.getCapabilities(), update);
+    setUnidentifiedAccessMode(recipient, profile.getUnidentifiedAccess(), profile.isUnrestrictedUnidentifiedAccess(), update);
 
     if (recipientProfileKey != null) {
       profileAndCredential.getExpiringProfileKeyCredential()
-                          .ifPresent(profileKeyCredential -> setExpiringProfileKeyCredential(recipient, recipientProfileKey, profileKeyCredential));
+                          .ifPresent(profileKeyCredential -> update.setProfileKeyCredential(recipientProfileKey, profileKeyCredential));
+    }
+
+    if (recipient.hasNonUsernameDisplayName(context) || newProfileName != null) {
+      update.clearUsername();
+    }
+
+    return new ProcessedProfile(recipient, profileAndCredential, update, newProfileName);
+  }
+
+  /**
+   * Writes a batch of decrypted profiles. Must be called within a transaction.
+   *
+   * @return The recipients that had something change.
+   */
+  private @NonNull Set<RecipientId> write(@NonNull List<ProcessedProfile> profiles) {
+    List<RecipientTable.ProfileUpdate> updates = new ArrayList<>(profiles.size());
+    for (ProcessedProfile profile : profiles) {
+      updates.add(profile.update);
     }
 
-    if (recipient.hasNonUsernameDisplayName(context) || wroteNewProfileName) {
-      clearUsername(recipient);
+    Set<RecipientId> changed = SignalDatabase.recipients().applyProfileUpdates(updates);
+
+    for (ProcessedProfile profile : profiles) {
+      if (profile.newProfileName != null) {
+        onProfileNameChanged(profile.recipient, profile.newProfileName);
+      }
+
+      setProfileAvatar(profile.recipient, profile.profileAndCredential.getProfile().getAvatar());
+    }
+
+    return changed;
+  }
+
+  private static @NonNull List<ProcessedProfile> awaitAll(@NonNull List<Future<ProcessedProfile>> futures) {
+    List<ProcessedProfile> results = new ArrayList<>(futures.size());
+
+    for (Future<ProcessedProfile> future : futures) {
+      try {
+        results.add(future.get());
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
     }
+
+    return results;
   }
 
-  private void setProfileBadges(@NonNull Recipient recipient, @Nullable List<SignalServiceProfile.Badge> serviceBadges) {
+  private void setProfileBadges(@NonNull Recipient recipient, @Nullable List<SignalServiceProfile.Badge> serviceBadges, @NonNull RecipientTable.ProfileUpdate update) {
     if (serviceBadges == null) {
       return;
     }
@@ -371,15 +442,7 @@ public class RetrieveProfileJob extends BaseJob {
       Log.i(TAG, "Likely change in badges for " + recipient.getId() + ". Going from " + recipient.getBadges().size() + " badge(s) to " + badges.size() + ".");
     }
 
-    SignalDatabase.recipients().setBadges(recipient.getId(), badges);
-  }
-
-  private void setExpiringProfileKeyCredential(@NonNull Recipient recipient,
-                                               @NonNull ProfileKey recipientProfileKey,
-                                               @NonNull ExpiringProfileKeyCredential credential)
-  {
-    RecipientTable recipientTable = SignalDatabase.recipients();
-    recipientTable.setProfileKeyCredential(recipient.getId(), recipientProfileKey, credential);
+    update.setBadges(badges);
   }
 
   private static SignalServiceProfile.RequestType getRequestType(@NonNull Recipient recipient) {
@@ -407,19 +470,18 @@ public class RetrieveProfileJob extends BaseJob {
     }
   }
 
-  private void setUnidentifiedAccessMode(Recipient recipient, String unidentifiedAccessVerifier, boolean unrestrictedUnidentifiedAccess) {
-    RecipientTable recipientTable = SignalDatabase.recipients();
-    ProfileKey     profileKey     = ProfileKeyUtil.profileKeyOrNull(recipient.getProfileKey());
+  private void setUnidentifiedAccessMode(Recipient recipient, String unidentifiedAccessVerifier, boolean unrestrictedUnidentifiedAccess, @NonNull RecipientTable.ProfileUpdate update) {
+    ProfileKey profileKey = ProfileKeyUtil.profileKeyOrNull(recipient.getProfileKey());
 
     if (unrestrictedUnidentifiedAccess && unidentifiedAccessVerifier != null) {
       if (recipient.getUnidentifiedAccessMode() != UnidentifiedAccessMode.UNRESTRICTED) {
         Log.i(TAG, "Marking recipient UD status as unrestricted.");
-        recipientTable.setUnidentifiedAccessMode(recipient.getId(), UnidentifiedAccessMode.UNRESTRICTED);
+        update.setUnidentifiedAccessMode(UnidentifiedAccessMode.UNRESTRICTED);
       }
     } else if (profileKey == null || unidentifiedAccessVerifier == null) {
       if (recipient.getUnidentifiedAccessMode() != UnidentifiedAccessMode.DISABLED) {
         Log.i(TAG, "Marking recipient UD status as disabled.");
-        recipientTable.setUnidentifiedAccessMode(recipient.getId(), UnidentifiedAccessMode.DISABLED);
+        update.setUnidentifiedAccessMode(UnidentifiedAccessMode.DISABLED);
       }
     } else {
       ProfileCipher profileCipher = new ProfileCipher(profileKey);
@@ -436,54 +498,31 @@ public class RetrieveProfileJob extends BaseJob {
 
       if (recipient.getUnidentifiedAccessMode() != mode) {
         Log.i(TAG, "Marking recipient UD status as " + mode.name() + " after verification.");
-        recipientTable.setUnidentifiedAccessMode(recipient.getId(), mode);
+        update.setUnidentifiedAccessMode(mode);
       }
     }
   }
 
-  private boolean setProfileName(Recipient recipient, String profileName) {
+  /**
+   * @return The decrypted profile name if it differs from what we have locally, otherwise null.
+   */
+  private @Nullable ProfileName getNewProfileName(Recipient recipient, String profileName) {
     try {
       ProfileKey profileKey = ProfileKeyUtil.profileKeyOrNull(recipient.getProfileKey());
-      if (profileKey == null) return false;
+      if (profileKey == null) return null;
 
       String plaintextProfileName = Util.emptyIfNull(ProfileUtil.decryptString(profileKey, profileName));
 
       if (TextUtils.isEmpty(plaintextProfileName)) {
         Log.w(TAG, "No name set on the profile for " + recipient.getId() + " -- Leaving it alone");
-        return false;
+        return null;
       }
 
       ProfileName remoteProfileName = ProfileName.fromSerialized(plaintextProfileName);
-      ProfileName localProfileName  = recipient.getProfileName();
 
-      if (!remoteProfileName.equals(localProfileName)) {
+      if (!remoteProfileName.equals(recipient.getProfileName())) {
         Log.i(TAG, "Profile name updated. Writing new value.");
-        SignalDatabase.recipients().setProfileName(recipient.getId(), remoteProfileName);
-
-        String remoteDisplayName = remoteProfileName.toString();
-        String localDisplayName  = localProfileName.toString();
-
-        boolean writeChangeEvent = !recipient.isBlocked() &&
-                                   !recipient.isGroup() &&
-                                   !recipient.isSelf() &&
-                                   !localDisplayName.isEmpty() &&
-                                   !remoteDisplayName.equals(localDisplayName);
-        if (writeChangeEvent) {
-          Log.i(TAG, "Writing a profile name change event for " + recipient.getId());
-          SignalDatabase.messages().insertProfileNameChangeMessages(recipient, remoteDisplayName, localDisplayName);
-        } else {
-          Log.i(TAG, String.format(Locale.US, "Name changed, but wasn't relevant to write an event. blocked: %s, group: %s, self: %s, firstSet: %s, displayChange: %s",
-                                   recipient.isBlocked(), recipient.isGroup(), recipient.isSelf(), localDisplayName.isEmpty(), !remoteDisplayName.equals(localDisplayName)));
-        }
-
-        if (writeChangeEvent || localDisplayName.isEmpty()) {
-          Long threadId = SignalDatabase.threads().getThreadIdFor(recipient.getId());
-          if (threadId != null) {
-            ApplicationDependencies.getMessageNotifier().updateNotification(context, ConversationId.forConversation(threadId));
-          }
-        }
-
-        return true;
+        return remoteProfileName;
       }
     } catch (InvalidCiphertextException e) {
       Log.w(TAG, "Bad profile key for " + recipient.getId());
@@ -491,10 +530,35 @@ public class RetrieveProfileJob extends BaseJob {
       Log.w(TAG, e);
     }
 
-    return false;
+    return null;
+  }
+
+  private void onProfileNameChanged(@NonNull Recipient recipient, @NonNull ProfileName remoteProfileName) {
+    String remoteDisplayName = remoteProfileName.toString();
+    String localDisplayName  = recipient.getProfileName().toString();
+
+    boolean writeChangeEvent = !recipient.isBlocked() &&
+                               !recipient.isGroup() &&
+                               !recipient.isSelf() &&
+                               !localDisplayName.isEmpty() &&
+                               !remoteDisplayName.equals(localDisplayName);
+    if (writeChangeEvent) {
+      Log.i(TAG, "Writing a profile name change event for " + recipient.getId());
+      SignalDatabase.messages().insertProfileNameChangeMessages(recipient, remoteDisplayName, localDisplayName);
+    } else {
+      Log.i(TAG, String.format(Locale.US, "Name changed, but wasn't relevant to write an event. blocked: %s, group: %s, self: %s, firstSet: %s, displayChange: %s",
+                               recipient.isBlocked(), recipient.isGroup(), recipient.isSelf(), localDisplayName.isEmpty(), !remoteDisplayName.equals(localDisplayName)));
+    }
+
+    if (writeChangeEvent || localDisplayName.isEmpty()) {
+      Long threadId = SignalDatabase.threads().getThreadIdFor(recipient.getId());
+      if (threadId != null) {
+        ApplicationDependencies.getMessageNotifier().updateNotification(context, ConversationId.forConversation(threadId));
+      }
+    }
   }
 
-  private void setProfileAbout(@NonNull Recipient recipient, @Nullable String encryptedAbout, @Nullable String encryptedEmoji) {
+  private void setProfileAbout(@NonNull Recipient recipient, @Nullable String encryptedAbout, @Nullable String encryptedEmoji, @NonNull RecipientTable.ProfileUpdate update) {
     try {
       ProfileKey profileKey = ProfileKeyUtil.profileKeyOrNull(recipient.getProfileKey());
       if (profileKey == null) return;
@@ -502,7 +566,7 @@ public class RetrieveProfileJob extends BaseJob {
       String plaintextAbout = ProfileUtil.decryptString(profileKey, encryptedAbout);
       String plaintextEmoji = ProfileUtil.decryptString(profileKey, encryptedEmoji);
 
-      SignalDatabase.recipients().setAbout(recipient.getId(), plaintextAbout, plaintextEmoji);
+      update.setAbout(plaintextAbout, plaintextEmoji);
     } catch (InvalidCiphertextException | IOException e) {
       Log.w(TAG, e);
     }
@@ -519,16 +583,12 @@ public class RetrieveProfileJob extends BaseJob {
     }
   }
 
-  private void clearUsername(Recipient recipient) {
-    SignalDatabase.recipients().setUsername(recipient.getId(), null);
-  }
-
-  private void setProfileCapabilities(@NonNull Recipient recipient, @Nullable SignalServiceProfile.Capabilities capabilities) {
+  private void setProfileCapabilities(@Nullable SignalServiceProfile.Capabilities capabilities, @NonNull RecipientTable.ProfileUpdate update) {
     if (capabilities == null) {
       return;
     }
 
-    SignalDatabase.recipients().setCapabilities(recipient.getId(), capabilities);
+    update.setCapabilities(capabilities);
   }
 
   /**
@@ -538,6 +598,28 @@ public class RetrieveProfileJob extends BaseJob {
     final Set<RecipientId>                            retries      = new HashSet<>();
     final Set<RecipientId>                            unregistered = new HashSet<>();
     final List<Pair<Recipient, ProfileAndCredential>> profiles     = new ArrayList<>();
+    final List<Future<ProcessedProfile>>              processed    = new ArrayList<>();
+  }
+
+  /**
+   * A fetched profile that has been decrypted and is ready to be written.
+   */
+  private static class ProcessedProfile {
+    final Recipient                    recipient;
+    final ProfileAndCredential         profileAndCredential;
+    final RecipientTable.ProfileUpdate update;
+    final ProfileName                  newProfileName;
+
+    private ProcessedProfile(@NonNull Recipient recipient,
+                             @NonNull ProfileAndCredential profileAndCredential,
+                             @NonNull RecipientTable.ProfileUpdate update,
+                             @Nullable ProfileName newProfileName)
+    {
+      this.recipient            = recipient;
+      this.profileAndCredential = profileAndCredential;
+      this.update               = update;
+      this.newProfileName       = newProfileName;
+    }
   }
 
   public static final class Factory implements Job.Factory<RetrieveProfileJob> {
@@ -30,6 +30,7 @@ public final class InternalValues extends SignalStoreValues {
   public static final String FORCE_WEBSOCKET_MODE                 = "internal.force_websocket_mode";
   public static final String LAST_SCROLL_POSITION                 = "internal.last_scroll_position";
   public static final String CONVERSATION_FRAGMENT_V2             = "internal.conversation_fragment_v2";
+  public static final String DEFERRED_SEARCH_INDEXING             = "internal.deferred_search_indexing";
 
   InternalValues(KeyValueStore store) {
     super(store);
@@ -198,4 +199,15 @@ public final class InternalValues extends SignalStoreValues {
   public boolean useConversationFragmentV2() {
     return FeatureFlags.internalUser() && getBoolean(CONVERSATION_FRAGMENT_V2, false);
   }
+
+  public void setDeferredSearchIndexing(boolean deferredSearchIndexing) {
+    putBoolean(DEFERRED_SEARCH_INDEXING, deferredSearchIndexing);
+  }
+
+  /**
+   * Whether new messages are added to the search index in the background, rather than as part of writing them.
+   */
+  public boolean deferredSearchIndexing() {
+    return FeatureFlags.internalUser() && getBoolean(DEFERRED_SEARCH_INDEXING, false);
+  }
 }
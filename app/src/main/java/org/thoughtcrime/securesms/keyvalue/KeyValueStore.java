@@ -22,9 +22,15 @@ import java.util.concurrent.ExecutorService;
  *
  * Implemented as a write-through cache that is safe to read and write to on the main thread.
  *
+ * Reads never take a lock. They are served from an immutable snapshot of the data that is published
+ * through a volatile reference. Writes copy the current snapshot, apply their changes, and publish
+ * the result, so a reader will always see a consistent view of the store.
+ *
  * Writes are enqueued on a separate executor, but writes are finished up in
  * {@link SignalUncaughtExceptionHandler}, meaning all write should finish barring a native crash
- * or the system killing us unexpectedly (i.e. a force-stop).
+ * or the system killing us unexpectedly (i.e. a force-stop). Writes that happen while a flush is
+ * still waiting to run are coalesced into that flush, so a burst of writes results in a single
+ * database transaction.
  */
 public final class KeyValueStore implements KeyValueReader {
 
@@ -33,7 +39,12 @@ public final class KeyValueStore implements KeyValueReader {
   private final ExecutorService           executor;
   private final KeyValuePersistentStorage storage;
 
-  private KeyValueDataSet dataSet;
+  /** Immutable once published. Replaced wholesale on every write. */
+  private volatile KeyValueDataSet dataSet;
+
+  private KeyValueDataSet pendingWrites  = new KeyValueDataSet();
+  private Set<String>     pendingRemoves = new HashSet<>();
+  private boolean         flushScheduled;
 
   public KeyValueStore(@NonNull KeyValuePersistentStorage storage) {
     this.executor = SignalExecutors.newCachedSingleThreadExecutor("signal-KeyValueStore", ThreadUtil.PRIORITY_BACKGROUND_THREAD);
@@ -42,51 +53,44 @@ public final class KeyValueStore implements KeyValueReader {
 
   @AnyThread
   @Override
-  public synchronized byte[] getBlob(@NonNull String key, byte[] defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getBlob(key, defaultValue);
+  public byte[] getBlob(@NonNull String key, byte[] defaultValue) {
+    return getSnapshot().getBlob(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized boolean getBoolean(@NonNull String key, boolean defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getBoolean(key, defaultValue);
+  public boolean getBoolean(@NonNull String key, boolean defaultValue) {
+    return getSnapshot().getBoolean(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized float getFloat(@NonNull String key, float defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getFloat(key, defaultValue);
+  public float getFloat(@NonNull String key, float defaultValue) {
+    return getSnapshot().getFloat(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized int getInteger(@NonNull String key, int defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getInteger(key, defaultValue);
+  public int getInteger(@NonNull String key, int defaultValue) {
+    return getSnapshot().getInteger(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized long getLong(@NonNull String key, long defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getLong(key, defaultValue);
+  public long getLong(@NonNull String key, long defaultValue) {
+    return getSnapshot().getLong(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized String getString(@NonNull String key, String defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getString(key, defaultValue);
+  public String getString(@NonNull String key, String defaultValue) {
+    return getSnapshot().getString(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized boolean containsKey(@NonNull String key) {
-    initializeIfNecessary();
-    return dataSet.containsKey(key);
+  public boolean containsKey(@NonNull String key) {
+    return getSnapshot().containsKey(key);
   }
 
   /**
@@ -104,20 +108,19 @@ public final class KeyValueStore implements KeyValueReader {
    *         efficient to use the various get* methods instead.
    */
   @AnyThread
-  synchronized @NonNull KeyValueReader beginRead() {
-    initializeIfNecessary();
-
-    KeyValueDataSet copy = new KeyValueDataSet();
-    copy.putAll(dataSet);
-
-    return copy;
+  @NonNull KeyValueReader beginRead() {
+    return getSnapshot();
   }
 
   /**
    * Ensures that any pending writes (such as those made via {@link Writer#apply()}) are finished.
+   *
+   * Any write that was applied before this call has either already been flushed or is part of a
+   * flush that is queued ahead of us on the executor, so waiting for the executor to drain is
+   * sufficient.
    */
   @AnyThread
-  synchronized void blockUntilAllWritesFinished() {
+  void blockUntilAllWritesFinished() {
     CountDownLatch latch = new CountDownLatch(1);
 
     executor.execute(latch::countDown);
@@ -134,21 +137,58 @@ public final class KeyValueStore implements KeyValueReader {
    */
   synchronized void resetCache() {
     dataSet = null;
-    initializeIfNecessary();
+    getSnapshot();
   }
 
   private synchronized void write(@NonNull KeyValueDataSet newDataSet, @NonNull Collection<String> removes) {
-    initializeIfNecessary();
+    KeyValueDataSet updated = new KeyValueDataSet();
+    updated.putAll(getSnapshot());
+    updated.putAll(newDataSet);
+    updated.removeAll(removes);
+
+    dataSet = updated;
+
+    pendingRemoves.removeAll(newDataSet.getValues().keySet());
+    pendingWrites.putAll(newDataSet);
+    pendingWrites.removeAll(removes);
+    pendingRemoves.addAll(removes);
+
+    if (!flushScheduled) {
+      flushScheduled = true;
+      executor.execute(this::flushPendingWrites);
+    }
+  }
+
+  private void flushPendingWrites() {
+    KeyValueDataSet writes;
+    Set<String>     removes;
 
-    dataSet.putAll(newDataSet);
-    dataSet.removeAll(removes);
+    synchronized (this) {
+      writes         = pendingWrites;
+      removes        = pendingRemoves;
+      pendingWrites  = new KeyValueDataSet();
+      pendingRemoves = new HashSet<>();
+      flushScheduled = false;
+    }
 
-    executor.execute(() -> storage.writeDataSet(newDataSet, removes));
+    storage.writeDataSet(writes, removes);
   }
 
-  private void initializeIfNecessary() {
-    if (dataSet != null) return;
-    this.dataSet = storage.getDataSet();
+  private @NonNull KeyValueDataSet getSnapshot() {
+    KeyValueDataSet snapshot = dataSet;
+
+    if (snapshot == null) {
+      synchronized (this) {
+        if (dataSet == null) {
+          KeyValueDataSet loaded = new KeyValueDataSet();
+          loaded.putAll(storage.getDataSet());
+          dataSet = loaded;
+        }
+        snapshot = dataSet;
+      }
+    }
+
+    return snapshot;
   }
 
   class Writer {
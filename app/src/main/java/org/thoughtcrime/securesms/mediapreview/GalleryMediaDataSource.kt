@@ -0,0 +1,102 @@
+package org.thoughtcrime.securesms.mediapreview
+
+import android.database.Cursor
+import org.signal.paging.PagedDataSource
+import org.thoughtcrime.securesms.attachments.AttachmentId
+import org.thoughtcrime.securesms.database.MediaTable
+import org.thoughtcrime.securesms.database.SignalDatabase
+import java.util.TreeMap
+
+/**
+ * Pages through the image and video attachments of a thread, in the same order as [MediaTable.getGalleryMediaForThread], without ever holding a cursor over
+ * the whole gallery or skipping rows with an OFFSET.
+ *
+ * Every page is found by its sort key, from an attachment whose position is already known: one loaded as part of an earlier page, or the [anchor] the data
+ * source was opened on. Pages next to a known attachment are read straight off the index. A page with no known attachment next to it, which only happens
+ * when jumping far ahead, walks from the nearest one.
+ */
+class GalleryMediaDataSource(
+  private val threadId: Long,
+  private val sorting: MediaTable.Sorting,
+  private val anchor: AttachmentId? = null
+) : PagedDataSource<AttachmentId, MediaTable.MediaRecord> {
+
+  /** The attachment at each loaded position. Positions shift when the data changes, so this is reset whenever the data source is sized. */
+  private val knownPositions: TreeMap<Int, AttachmentId> = TreeMap()
+
+  @Synchronized
+  override fun size(): Int {
+    knownPositions.clear()
+
+    if (anchor != null) {
+      val position = SignalDatabase.media.getGalleryMediaPosition(threadId, sorting, anchor)
+      if (position >= 0) {
+        knownPositions[position] = anchor
+      }
+    }
+
+    return SignalDatabase.media.getGalleryMediaCountForThread(threadId)
+  }
+
+  @Synchronized
+  override fun load(start: Int, length: Int, totalSize: Int, cancellationSignal: PagedDataSource.CancellationSignal): List<MediaTable.MediaRecord> {
+    val end = start + length
+    val inside = knownPositions.ceilingEntry(start - 1)?.takeIf { it.key <= end }
+    val below = knownPositions.lowerEntry(start)
+    val above = knownPositions.higherEntry(end)
+
+    val records: List<MediaTable.MediaRecord> = when {
+      inside != null && inside.key == start - 1 -> readAfter(inside.value, length)
+      inside != null && inside.key == end -> readBefore(inside.value, length)
+      inside != null -> readBefore(inside.value, inside.key - start) + readFrom(inside.value, end - inside.key)
+      start == 0 -> SignalDatabase.media.getGalleryMediaForThread(threadId, sorting, length).use { it.readRecords() }
+      below != null && (above == null || start - below.key <= above.key - end) -> readAfter(below.value, end - below.key - 1).drop(start - below.key - 1)
+      above != null -> readBefore(above.value, above.key - start).take(length)
+      else -> SignalDatabase.media.getGalleryMediaForThread(threadId, sorting, end).use { it.readRecords() }.drop(start)
+    }
+
+    if (!cancellationSignal.isCanceled) {
+      records.forEachIndexed { index, record -> knownPositions[start + index] = getKey(record) }
+    }
+
+    return records
+  }
+
+  override fun load(key: AttachmentId?): MediaTable.MediaRecord = error("Not supported")
+
+  override fun getKey(data: MediaTable.MediaRecord): AttachmentId = data.attachment!!.attachmentId
+
+  /**
+   * @return The position of the attachment in this data source, or -1 if it isn't in it.
+   */
+  fun getPosition(attachmentId: AttachmentId): Int {
+    return SignalDatabase.media.getGalleryMediaPosition(threadId, sorting, attachmentId)
+  }
+
+  /**
+   * The [limit] records preceding the attachment, in order.
+   */
+  private fun readBefore(attachmentId: AttachmentId, limit: Int): List<MediaTable.MediaRecord> {
+    if (limit <= 0) {
+      return emptyList()
+    }
+
+    return SignalDatabase.media.getGalleryMediaBefore(threadId, sorting, attachmentId, limit)?.use { it.readRecords() }?.reversed() ?: emptyList()
+  }
+
+  private fun readFrom(attachmentId: AttachmentId, limit: Int): List<MediaTable.MediaRecord> {
+    return SignalDatabase.media.getGalleryMediaFrom(threadId, sorting, attachmentId, limit)?.use { it.readRecords() } ?: emptyList()
+  }
+
+  private fun readAfter(attachmentId: AttachmentId, limit: Int): List<MediaTable.MediaRecord> {
+    return SignalDatabase.media.getGalleryMediaAfter(threadId, sorting, attachmentId, limit)?.use { it.readRecords() } ?: emptyList()
+  }
+
+  private fun Cursor.readRecords(): List<MediaTable.MediaRecord> {
+    val records: MutableList<MediaTable.MediaRecord> = ArrayList(count)
+    while (moveToNext()) {
+      records += MediaTable.MediaRecord.from(this)
+    }
+    return records
+  }
+}
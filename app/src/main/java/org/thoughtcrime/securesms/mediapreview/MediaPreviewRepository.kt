@@ -5,20 +5,19 @@ import android.content.Intent
 import android.text.SpannableString
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers
 import io.reactivex.rxjava3.core.Completable
-import io.reactivex.rxjava3.core.Flowable
 import io.reactivex.rxjava3.core.Single
 import io.reactivex.rxjava3.schedulers.Schedulers
 import org.signal.core.util.Stopwatch
 import org.signal.core.util.logging.Log
-import org.signal.core.util.requireLong
+import org.signal.paging.ObservablePagedData
+import org.signal.paging.PagedData
+import org.signal.paging.PagingConfig
 import org.thoughtcrime.securesms.attachments.AttachmentId
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment
 import org.thoughtcrime.securesms.conversation.ConversationIntents
-import org.thoughtcrime.securesms.database.AttachmentTable
 import org.thoughtcrime.securesms.database.MediaTable
 import org.thoughtcrime.securesms.database.MediaTable.Sorting
 import org.thoughtcrime.securesms.database.SignalDatabase
-import org.thoughtcrime.securesms.database.SignalDatabase.Companion.media
 import org.thoughtcrime.securesms.database.model.MessageRecord
 import org.thoughtcrime.securesms.database.model.MmsMessageRecord
 import org.thoughtcrime.securesms.longmessage.resolveBody
@@ -32,56 +31,40 @@ import org.thoughtcrime.securesms.util.AttachmentUtil
 class MediaPreviewRepository {
   companion object {
     private val TAG: String = Log.tag(MediaPreviewRepository::class.java)
+
+    private const val PAGE_SIZE = 50
   }
 
   /**
-   * Accessor for database attachments.
+   * Accessor for database attachments. The attachments are paged in around the starting one as the user moves through them.
    * @param startingAttachmentId the initial position to select from
    * @param threadId the thread to select from
    * @param sorting the ordering of the results
-   * @param limit the maximum quantity of the results
    */
-  fun getAttachments(context: Context, startingAttachmentId: AttachmentId, threadId: Long, sorting: Sorting, limit: Int = 500): Flowable<Result> {
+  fun getAttachments(startingAttachmentId: AttachmentId, threadId: Long, sorting: Sorting): Single<Result> {
     return Single.fromCallable {
-      media.getGalleryMediaForThread(threadId, sorting).use { cursor ->
-        val mediaRecords = mutableListOf<MediaTable.MediaRecord>()
-        var startingRow = -1
-        while (cursor.moveToNext()) {
-          if (startingAttachmentId.rowId == cursor.requireLong(AttachmentTable.ROW_ID) &&
-            startingAttachmentId.uniqueId == cursor.requireLong(AttachmentTable.UNIQUE_ID)
-          ) {
-            startingRow = cursor.position
-            break
-          }
-        }
-
-        var itemPosition = -1
-        if (startingRow >= 0) {
-          val frontLimit: Int = limit / 2
-          val windowStart = if (startingRow >= frontLimit) startingRow - frontLimit else 0
-
-          itemPosition = startingRow - windowStart
+      val dataSource = GalleryMediaDataSource(threadId, sorting, startingAttachmentId)
+      val startingRow = dataSource.getPosition(startingAttachmentId)
 
-          cursor.moveToPosition(windowStart)
+      val config = PagingConfig.Builder()
+        .setPageSize(PAGE_SIZE)
+        .setBufferPages(1)
+        .setStartIndex(maxOf(startingRow, 0))
+        .build()
 
-          for (i in 0..limit) {
-            val element = MediaTable.MediaRecord.from(cursor)
-            if (element != null) {
-              mediaRecords.add(element)
-            }
-            if (!cursor.moveToNext()) {
-              break
-            }
-          }
-        }
-        val messageIds = mediaRecords.mapNotNull { it.attachment?.mmsId }.toSet()
-        val messages: Map<Long, SpannableString> = SignalDatabase.messages.getMessages(messageIds)
-          .map { it as MmsMessageRecord }
-          .associate { it.id to it.resolveBody(context).getDisplayBody(context) }
+      Result(startingRow, PagedData.createForObservable(dataSource, config))
+    }.subscribeOn(Schedulers.io())
+  }
 
-        Result(itemPosition, mediaRecords.toList(), messages)
-      }
-    }.subscribeOn(Schedulers.io()).toFlowable()
+  /**
+   * @return The display bodies of the given messages, by message id.
+   */
+  fun getMessageBodies(context: Context, messageIds: Set<Long>): Single<Map<Long, SpannableString>> {
+    return Single.fromCallable {
+      SignalDatabase.messages.getMessages(messageIds)
+        .map { it as MmsMessageRecord }
+        .associate { it.id to it.resolveBody(context).getDisplayBody(context) }
+    }.subscribeOn(Schedulers.io())
   }
 
   fun localDelete(context: Context, attachment: DatabaseAttachment): Completable {
@@ -118,5 +101,9 @@ class MediaPreviewRepository {
       .observeOn(AndroidSchedulers.mainThread())
   }
 
-  data class Result(val initialPosition: Int, val records: List<MediaTable.MediaRecord>, val messageBodies: Map<Long, SpannableString>)
+  /**
+   * @param initialPosition The position of the starting attachment in [pagedData], or -1 if it isn't in it.
+   * @param pagedData Every attachment in the thread. Positions that haven't been paged in yet are null.
+   */
+  data class Result(val initialPosition: Int, val pagedData: ObservablePagedData<AttachmentId, MediaTable.MediaRecord>)
 }
@@ -8,8 +8,11 @@ import org.thoughtcrime.securesms.mediasend.Media
 import org.thoughtcrime.securesms.util.MediaUtil
 import org.thoughtcrime.securesms.util.adapter.StableIdGenerator
 
+/**
+ * Attachments that haven't been paged in yet are null, and are shown as an empty page until they are.
+ */
 class MediaPreviewV2Adapter(fragment: Fragment) : FragmentStateAdapter(fragment) {
-  private var items: List<Attachment> = listOf()
+  private var items: List<Attachment?> = listOf()
   private val stableIdGenerator = StableIdGenerator<Attachment>()
   private val currentIdSet: HashSet<Long> = HashSet()
 
@@ -18,11 +21,11 @@ class MediaPreviewV2Adapter(fragment: Fragment) : FragmentStateAdapter(fragment)
   }
 
   override fun getItemId(position: Int): Long {
-    return stableIdGenerator.getId(items[position])
+    return getItemId(position, items[position])
   }
 
   override fun createFragment(position: Int): Fragment {
-    val attachment: Attachment = items[position]
+    val attachment: Attachment = items[position] ?: return Fragment()
 
     val contentType = attachment.contentType
     val args = bundleOf(
@@ -58,17 +61,24 @@ class MediaPreviewV2Adapter(fragment: Fragment) : FragmentStateAdapter(fragment)
   }
 
   fun findItemPosition(media: Media): Int {
-    return items.indexOfFirst { it.uri == media.uri }
+    return items.indexOfFirst { it?.uri == media.uri }
   }
 
-  fun updateBackingItems(newItems: Collection<Attachment>) {
+  fun updateBackingItems(newItems: Collection<Attachment?>) {
     if (newItems != items) {
       items = newItems.toList()
       currentIdSet.clear()
-      items.forEach {
-        currentIdSet.add(stableIdGenerator.getId(it))
+      items.forEachIndexed { position, item ->
+        currentIdSet.add(getItemId(position, item))
       }
       notifyDataSetChanged()
     }
   }
+
+  /**
+   * Placeholders are given negative ids, which [StableIdGenerator] never hands out, so the page is replaced once its attachment is loaded.
+   */
+  private fun getItemId(position: Int, item: Attachment?): Long {
+    return if (item != null) stableIdGenerator.getId(item) else -(position + 1L)
+  }
 }
@@ -202,12 +202,11 @@ class MediaPreviewV2Fragment : LoggingFragment(R.layout.fragment_media_preview_v
   private fun bindDataLoadedState(currentState: MediaPreviewV2State) {
     val currentPosition = currentState.position
 
-    val backingItems = currentState.mediaRecords.mapNotNull { it.attachment }
-    if (backingItems.isEmpty()) {
+    if (currentState.mediaRecords.isEmpty()) {
       onMediaNotAvailable()
       return
     }
-    pagerAdapter.updateBackingItems(backingItems)
+    pagerAdapter.updateBackingItems(currentState.mediaRecords.map { it?.attachment })
 
     if (binding.mediaPager.currentItem != currentPosition) {
       binding.mediaPager.setCurrentItem(currentPosition, false)
@@ -225,8 +224,10 @@ class MediaPreviewV2Fragment : LoggingFragment(R.layout.fragment_media_preview_v
       return
     }
 
+    pagerAdapter.updateBackingItems(currentState.mediaRecords.map { it?.attachment })
+
     val currentPosition: Int = currentState.position
-    val currentItem: MediaTable.MediaRecord = currentState.mediaRecords[currentPosition]
+    val currentItem: MediaTable.MediaRecord = currentState.mediaRecords.getOrNull(currentPosition) ?: return
     val currentItemTag: String? = pagerAdapter.getFragmentTag(currentPosition)
 
     childFragmentManager.fragments.forEach { fragment ->
@@ -240,7 +241,7 @@ class MediaPreviewV2Fragment : LoggingFragment(R.layout.fragment_media_preview_v
     bindMediaPreviewPlaybackControls(currentItem, getMediaPreviewFragmentFromChildFragmentManager(currentPosition))
 
     val albumThumbnailMedia: List<Media> = if (currentState.allMediaInAlbumRail) {
-      currentState.mediaRecords.mapNotNull { it.toMedia() }
+      currentState.mediaRecords.mapNotNull { it?.toMedia() }
     } else {
       currentState.albums[currentItem.attachment?.mmsId] ?: emptyList()
     }
@@ -5,7 +5,7 @@ import org.thoughtcrime.securesms.database.MediaTable
 import org.thoughtcrime.securesms.mediasend.Media
 
 data class MediaPreviewV2State(
-  val mediaRecords: List<MediaTable.MediaRecord> = emptyList(),
+  val mediaRecords: List<MediaTable.MediaRecord?> = emptyList(),
   val loadState: LoadState = LoadState.INIT,
   val position: Int = 0,
   val showThread: Boolean = false,
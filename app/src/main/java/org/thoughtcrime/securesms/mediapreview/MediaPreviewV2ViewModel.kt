@@ -5,12 +5,14 @@ import android.content.Intent
 import android.net.Uri
 import androidx.lifecycle.ViewModel
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers
+import io.reactivex.rxjava3.core.BackpressureStrategy
 import io.reactivex.rxjava3.core.Completable
 import io.reactivex.rxjava3.core.Flowable
 import io.reactivex.rxjava3.core.Single
 import io.reactivex.rxjava3.disposables.CompositeDisposable
 import io.reactivex.rxjava3.kotlin.plusAssign
 import io.reactivex.rxjava3.schedulers.Schedulers
+import org.signal.paging.PagingController
 import org.thoughtcrime.securesms.attachments.AttachmentId
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment
 import org.thoughtcrime.securesms.database.MediaTable
@@ -24,6 +26,8 @@ class MediaPreviewV2ViewModel : ViewModel() {
   private val disposables = CompositeDisposable()
   private val repository: MediaPreviewRepository = MediaPreviewRepository()
 
+  private var pagingController: PagingController<AttachmentId>? = null
+
   val state: Flowable<MediaPreviewV2State> = store.stateFlowable.observeOn(AndroidSchedulers.mainThread())
   val currentPosition: Int
     get() = store.state.position
@@ -33,41 +37,71 @@ class MediaPreviewV2ViewModel : ViewModel() {
   }
 
   fun shouldFinishAfterTransition(initialMediaUri: Uri): Boolean {
-    return currentPosition in store.state.mediaRecords.indices && store.state.mediaRecords[currentPosition].toMedia()?.uri == initialMediaUri
+    return currentPosition in store.state.mediaRecords.indices && store.state.mediaRecords[currentPosition]?.toMedia()?.uri == initialMediaUri
   }
 
   fun fetchAttachments(context: Context, startingAttachmentId: AttachmentId, threadId: Long, sorting: MediaTable.Sorting, forceRefresh: Boolean = false) {
     if (store.state.loadState == MediaPreviewV2State.LoadState.INIT || forceRefresh) {
-      disposables += store.update(repository.getAttachments(context, startingAttachmentId, threadId, sorting)) { result: MediaPreviewRepository.Result, oldState: MediaPreviewV2State ->
-        val albums = result.records.fold(mutableMapOf()) { acc: MutableMap<Long, MutableList<Media>>, mediaRecord: MediaTable.MediaRecord ->
-          val attachment = mediaRecord.attachment
-          if (attachment != null) {
-            val convertedMedia = mediaRecord.toMedia() ?: return@fold acc
-            acc.getOrPut(attachment.mmsId) { mutableListOf() }.add(convertedMedia)
-          }
-          acc
+      disposables += repository.getAttachments(startingAttachmentId, threadId, sorting).subscribe { result ->
+        if (result.initialPosition < 0) {
+          store.update { it.copy(position = -1, mediaRecords = emptyList(), loadState = MediaPreviewV2State.LoadState.DATA_LOADED) }
+          return@subscribe
         }
-        if (oldState.leftIsRecent) {
-          oldState.copy(
-            position = result.initialPosition,
-            mediaRecords = result.records,
-            messageBodies = result.messageBodies,
-            albums = albums,
-            loadState = MediaPreviewV2State.LoadState.DATA_LOADED
-          )
-        } else {
+
+        pagingController = result.pagedData.controller
+
+        var isFirstPage = true
+        val pages: Flowable<List<MediaTable.MediaRecord?>> = result.pagedData.data
+          .toFlowable(BackpressureStrategy.LATEST)
+          .doOnNext { fetchMessageBodies(context, it) }
+
+        disposables += store.update(pages) { records, oldState ->
+          val mediaRecords = if (oldState.leftIsRecent) records else records.asReversed()
+          val position = when {
+            !isFirstPage -> oldState.position
+            oldState.leftIsRecent -> result.initialPosition
+            else -> records.size - result.initialPosition - 1
+          }
+          val loadState = if (isFirstPage) MediaPreviewV2State.LoadState.DATA_LOADED else oldState.loadState
+
+          isFirstPage = false
+
           oldState.copy(
-            position = result.records.size - result.initialPosition - 1,
-            mediaRecords = result.records.reversed(),
-            messageBodies = result.messageBodies,
-            albums = albums.mapValues { it.value.reversed() },
-            loadState = MediaPreviewV2State.LoadState.DATA_LOADED
+            position = position,
+            mediaRecords = mediaRecords,
+            albums = getAlbums(mediaRecords),
+            loadState = loadState
           )
         }
       }
     }
   }
 
+  private fun fetchMessageBodies(context: Context, records: List<MediaTable.MediaRecord?>) {
+    val messageIds: Set<Long> = records.mapNotNull { it?.attachment?.mmsId }.toSet() - store.state.messageBodies.keys
+    if (messageIds.isEmpty()) {
+      return
+    }
+
+    disposables += repository.getMessageBodies(context, messageIds).subscribe { bodies ->
+      store.update { it.copy(messageBodies = it.messageBodies + bodies) }
+    }
+  }
+
+  /**
+   * Groups the loaded media by message, in display order.
+   */
+  private fun getAlbums(mediaRecords: List<MediaTable.MediaRecord?>): Map<Long, List<Media>> {
+    return mediaRecords.fold(mutableMapOf()) { acc: MutableMap<Long, MutableList<Media>>, mediaRecord: MediaTable.MediaRecord? ->
+      val attachment = mediaRecord?.attachment
+      if (attachment != null) {
+        val convertedMedia = mediaRecord.toMedia() ?: return@fold acc
+        acc.getOrPut(attachment.mmsId) { mutableListOf() }.add(convertedMedia)
+      }
+      acc
+    }
+  }
+
   fun initialize(showThread: Boolean, allMediaInAlbumRail: Boolean, leftIsRecent: Boolean) {
     if (store.state.loadState == MediaPreviewV2State.LoadState.INIT) {
       store.update { oldState ->
@@ -80,6 +114,9 @@ class MediaPreviewV2ViewModel : ViewModel() {
     store.update { oldState ->
       oldState.copy(position = position)
     }
+
+    val state = store.state
+    pagingController?.onDataNeededAroundIndex(if (state.leftIsRecent) position else state.mediaRecords.size - position - 1)
   }
 
   fun setMediaReady() {
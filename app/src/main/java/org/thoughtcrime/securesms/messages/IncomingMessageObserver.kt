@@ -81,6 +81,47 @@ class IncomingMessageObserver(private val context: Application) {
 
     private val censored: Boolean
       get() = ApplicationDependencies.getSignalServiceNetworkAccess().isCensored()
+
+    /**
+     * Applies a set of server delivery receipts together. Receipts are grouped by sender (and by sender device for the message send log) so that a
+     * large burst, like the one following a big group send, is applied in one transaction with a single update per affected thread.
+     */
+    @VisibleForTesting
+    fun processReceipts(envelopes: List<SignalServiceProtos.Envelope>) {
+      val timestampsBySender: MutableMap<RecipientId, MutableList<Long>> = LinkedHashMap()
+      val timestampsBySenderDevice: MutableMap<Pair<RecipientId, Int>, MutableList<Long>> = LinkedHashMap()
+
+      for (envelope in envelopes) {
+        if (!UuidUtil.isUuid(envelope.sourceUuid)) {
+          Log.w(TAG, "Invalid envelope source UUID!")
+          continue
+        }
+
+        val senderId = RecipientId.from(ServiceId.parseOrThrow(envelope.sourceUuid))
+
+        timestampsBySender.getOrPut(senderId) { mutableListOf() } += envelope.timestamp
+        timestampsBySenderDevice.getOrPut(senderId to envelope.sourceDevice) { mutableListOf() } += envelope.timestamp
+      }
+
+      if (timestampsBySender.isEmpty()) {
+        return
+      }
+
+      if (envelopes.size == 1) {
+        val envelope = envelopes[0]
+        Log.i(TAG, "Received server receipt. Sender: ${timestampsBySender.keys.first()}, Device: ${envelope.sourceDevice}, Timestamp: ${envelope.timestamp}")
+      } else {
+        Log.i(TAG, "Received ${envelopes.size} server receipts from ${timestampsBySender.size} senders for ${timestampsBySender.values.flatten().toSet().size} timestamps.")
+      }
+
+      SignalDatabase.runInTransaction {
+        SignalDatabase.messages.incrementDeliveryReceiptCounts(timestampsBySender, System.currentTimeMillis())
+
+        for ((senderDevice, timestamps) in timestampsBySenderDevice) {
+          SignalDatabase.messageLog.deleteEntriesForRecipient(timestamps, senderDevice.first, senderDevice.second)
+        }
+      }
+    }
   }
 
   private val decryptionDrainedListeners: MutableList<Runnable> = CopyOnWriteArrayList()
@@ -326,16 +367,7 @@ class IncomingMessageObserver(private val context: Application) {
   }
 
   private fun processReceipt(envelope: SignalServiceProtos.Envelope) {
-    if (!UuidUtil.isUuid(envelope.sourceUuid)) {
-      Log.w(TAG, "Invalid envelope source UUID!")
-      return
-    }
-
-    val senderId = RecipientId.from(ServiceId.parseOrThrow(envelope.sourceUuid))
-
-    Log.i(TAG, "Received server receipt. Sender: $senderId, Device: ${envelope.sourceDevice}, Timestamp: ${envelope.timestamp}")
-    SignalDatabase.messages.incrementDeliveryReceiptCount(envelope.timestamp, senderId, System.currentTimeMillis())
-    SignalDatabase.messageLog.deleteEntryForRecipient(envelope.timestamp, senderId, envelope.sourceDevice)
+    processReceipts(listOf(envelope))
   }
 
   private fun MessageDecryptor.Result.toMessageState(): MessageContentProcessor.MessageState {
@@ -397,9 +429,11 @@ class IncomingMessageObserver(private val context: Application) {
                 val bufferedStore = BufferedProtocolStore.create()
 
                 val startTime = System.currentTimeMillis()
+                val (receipts, envelopes) = batch.partition { it.envelope.type.number == SignalServiceProtos.Envelope.Type.RECEIPT_VALUE }
+
                 GroupsV2ProcessingLock.acquireGroupProcessingLock().use {
                   ReentrantSessionLock.INSTANCE.acquire().use {
-                    batch.forEach {
+                    envelopes.forEach {
                       SignalDatabase.runInTransaction {
                         val followUpOperations: List<FollowUpOperation>? = processEnvelope(bufferedStore, it.envelope, it.serverDeliveredTimestamp)
                         bufferedStore.flushToDisk()
@@ -412,6 +446,12 @@ class IncomingMessageObserver(private val context: Application) {
                     }
                   }
                 }
+
+                // Receipts go last so that any sync messages they refer to in this batch have already been inserted
+                if (receipts.isNotEmpty()) {
+                  processReceipts(receipts.map { it.envelope })
+                  receipts.forEach { signalWebSocket.sendAck(it) }
+                }
                 val duration = System.currentTimeMillis() - startTime
                 val timePerMessage: Float = duration / batch.size.toFloat()
                 Log.d(TAG, "Decrypted ${batch.size} envelopes in $duration ms (~${round(timePerMessage * 100) / 100} ms per message)")
@@ -0,0 +1,126 @@
+package org.thoughtcrime.securesms.mms;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.Option;
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.MultiModelLoaderFactory;
+import com.bumptech.glide.signature.ObjectKey;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.attachments.AttachmentThumbnails;
+import org.thoughtcrime.securesms.database.SignalDatabase;
+import org.thoughtcrime.securesms.mms.DecryptableStreamUriLoader.DecryptableUri;
+import org.thoughtcrime.securesms.util.SignalLocalMetrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads attachments from the thumbnails stored for them, when they're requested at a size one of the {@link AttachmentThumbnails.Size}s covers. If the
+ * attachment has no thumbnails (yet) the load fails, and Glide moves on to {@link DecryptableStreamUriLoader}, which this is registered ahead of.
+ */
+public class AttachmentThumbnailLoader implements ModelLoader<DecryptableUri, InputStream> {
+
+  private static final String TAG = Log.tag(AttachmentThumbnailLoader.class);
+
+  /**
+   * Set to load the full attachment even when a thumbnail would do, as {@link AttachmentThumbnails#generate} does to make them. Such loads don't count
+   * towards the hit and miss metrics.
+   */
+  public static final Option<Boolean> SKIP = Option.memory("org.signal.skip_attachment_thumbnail", false);
+
+  private AttachmentThumbnailLoader() {}
+
+  @Nullable
+  @Override
+  public LoadData<InputStream> buildLoadData(@NonNull DecryptableUri decryptableUri, int width, int height, @NonNull Options options) {
+    AttachmentThumbnails.Size size = AttachmentThumbnails.Size.forTarget(width, height);
+
+    if (size == null || options.get(SKIP)) {
+      return null;
+    }
+
+    return new LoadData<>(new ObjectKey("attachment-thumbnail-" + size.name() + "-" + decryptableUri.uri), new Fetcher(decryptableUri.uri, size));
+  }
+
+  @Override
+  public boolean handles(@NonNull DecryptableUri decryptableUri) {
+    return PartAuthority.isAttachmentUri(decryptableUri.uri);
+  }
+
+  private static class Fetcher implements DataFetcher<InputStream> {
+
+    private final Uri                       uri;
+    private final AttachmentThumbnails.Size size;
+
+    private Fetcher(@NonNull Uri uri, @NonNull AttachmentThumbnails.Size size) {
+      this.uri  = uri;
+      this.size = size;
+    }
+
+    @Override
+    public void loadData(@NonNull Priority priority, @NonNull DataCallback<? super InputStream> callback) {
+      String metricId = SignalLocalMetrics.AttachmentThumbnail.startLoad();
+
+      try {
+        byte[] thumbnail = SignalDatabase.attachments().getThumbnail(PartAuthority.requireAttachmentId(uri), size);
+
+        if (thumbnail != null) {
+          SignalLocalMetrics.AttachmentThumbnail.onHit(metricId);
+          callback.onDataReady(new ByteArrayInputStream(thumbnail));
+        } else {
+          SignalLocalMetrics.AttachmentThumbnail.onMiss(metricId);
+          callback.onLoadFailed(new FileNotFoundException("No stored thumbnail for " + uri));
+        }
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to read thumbnail for " + uri, e);
+        SignalLocalMetrics.AttachmentThumbnail.cancel(metricId);
+        callback.onLoadFailed(e);
+      }
+    }
+
+    @Override
+    public void cleanup() {
+      // Nothing to release.
+    }
+
+    @Override
+    public void cancel() {
+      // Reading a thumbnail is too quick to be worth interrupting.
+    }
+
+    @Override
+    public @NonNull Class<InputStream> getDataClass() {
+      return InputStream.class;
+    }
+
+    @Override
+    public @NonNull DataSource getDataSource() {
+      return DataSource.LOCAL;
+    }
+  }
+
+  static class Factory implements ModelLoaderFactory<DecryptableUri, InputStream> {
+
+    @Override
+    public @NonNull ModelLoader<DecryptableUri, InputStream> build(@NonNull MultiModelLoaderFactory multiFactory) {
+      return new AttachmentThumbnailLoader();
+    }
+
+    @Override
+    public void teardown() {
+      // Do nothing.
+    }
+  }
+}
@@ -111,18 +111,13 @@ public class SearchRepository {
     });
   }
 
+  /**
+   * Searches every conversation for messages whose body matches the query, or that mention someone whose name does. Results are loaded a page at a time,
+   * in {@code ranking} order, through the returned {@link PagedMessageSearch}.
+   */
   @WorkerThread
-  public @NonNull MessageSearchResult queryMessagesSync(@NonNull String query) {
-    long   start      = System.currentTimeMillis();
-    String cleanQuery = FtsUtil.sanitize(query);
-
-    List<MessageResult> messages        = queryMessages(cleanQuery);
-    List<MessageResult> mentionMessages = queryMentions(sanitizeQueryAsTokens(query));
-    List<MessageResult> combined        = mergeMessagesAndMentions(messages, mentionMessages);
-
-    Log.d(TAG, "[messages] Search took " + (System.currentTimeMillis() - start) + " ms");
-
-    return new MessageSearchResult(combined, query);
+  public @NonNull PagedMessageSearch queryMessagesPaged(@NonNull String query, @NonNull SearchTable.Ranking ranking) {
+    return new PagedMessageSearch(query, ranking);
   }
 
   public void query(@NonNull String query, long threadId, @NonNull Callback<List<MessageResult>> callback) {
@@ -204,16 +199,10 @@ public class SearchRepository {
     }
   }
 
-  private @NonNull List<MessageResult> queryMessages(@NonNull String query) {
-    if (Util.isEmpty(query)) {
-      return Collections.emptyList();
-    }
-
-    List<MessageResult> results;
-    try (Cursor cursor = searchDatabase.queryMessages(query)) {
-      results = readToList(cursor, new MessageModelBuilder());
-    }
-
+  /**
+   * Replaces mentions in the bodies and snippets of the results with display names, and applies their styles.
+   */
+  private @NonNull List<MessageResult> applyMentionsAndStyles(@NonNull List<MessageResult> results) {
     List<Long> messageIds = new LinkedList<>();
     for (MessageResult result : results) {
       if (result.isMms()) {
@@ -336,45 +325,6 @@ public class SearchRepository {
     }
   }
 
-  private @NonNull List<MessageResult> queryMentions(@NonNull List<String> cleanQueries) {
-    Set<RecipientId> recipientIds = new HashSet<>();
-    for (String cleanQuery : cleanQueries) {
-      for (Recipient recipient : recipientTable.queryRecipientsForMentions(cleanQuery)) {
-        recipientIds.add(recipient.getId());
-      }
-    }
-
-    Map<Long, List<Mention>> mentionQueryResults = mentionTable.getMentionsContainingRecipients(recipientIds, 500);
-
-    if (mentionQueryResults.isEmpty()) {
-      return Collections.emptyList();
-    }
-
-    List<MessageResult> results = new ArrayList<>();
-
-    try (MessageTable.Reader reader = messageTable.getMessages(mentionQueryResults.keySet())) {
-      for (MessageRecord record : reader) {
-        BodyRangeList bodyRanges = record.getMessageRanges();
-        List<Mention> mentions   = mentionQueryResults.get(record.getId());
-
-        if (Util.hasItems(mentions)) {
-          SpannableString body = new SpannableString(record.getBody());
-
-          if (bodyRanges != null) {
-            MessageStyler.style(record.getDateSent(), bodyRanges, body);
-          }
-
-          CharSequence updatedBody    = MentionUtil.updateBodyAndMentionsWithDisplayNames(context, body, mentions).getBody();
-          CharSequence updatedSnippet = makeSnippet(cleanQueries, Objects.requireNonNull(updatedBody));
-
-          results.add(new MessageResult(record.getToRecipient(), record.getFromRecipient(), updatedBody, updatedSnippet, record.getThreadId(), record.getId(), record.getDateReceived(), true));
-        }
-      }
-    }
-
-    return results;
-  }
-
   private @NonNull List<MessageResult> queryMentions(@NonNull List<String> cleanQueries, long threadId) {
     Set<RecipientId> recipientIds = new HashSet<>();
     for (String cleanQuery : cleanQueries) {
@@ -505,7 +455,7 @@ public class SearchRepository {
       Recipient   conversationRecipient   = Recipient.live(conversationRecipientId).get();
       Recipient   messageRecipient        = Recipient.live(messageRecipientId).get();
       String      body                    = CursorUtil.requireString(cursor, SearchTable.BODY);
-      String      bodySnippet             = CursorUtil.requireString(cursor, SearchTable.SNIPPET);
+      String      bodySnippet             = CursorUtil.getString(cursor, SearchTable.SNIPPET).orElse(body);
       long        receivedMs              = CursorUtil.requireLong(cursor, MessageTable.DATE_RECEIVED);
       long        threadId                = CursorUtil.requireLong(cursor, MessageTable.THREAD_ID);
       int         messageId               = CursorUtil.requireInt(cursor, SearchTable.MESSAGE_ID);
@@ -515,6 +465,115 @@ public class SearchRepository {
     }
   }
 
+  /**
+   * A message search that loads its results a page at a time. Only the results in a page are read into memory and have their mentions and styles applied.
+   */
+  public final class PagedMessageSearch {
+
+    private final String              query;
+    private final SearchTable.Ranking ranking;
+    private final List<String>        snippetQueries;
+    private final Set<RecipientId>    mentionRecipientIds;
+
+    private int size = -1;
+
+    @WorkerThread
+    private PagedMessageSearch(@NonNull String query, @NonNull SearchTable.Ranking ranking) {
+      this.query               = FtsUtil.sanitize(query);
+      this.ranking             = ranking;
+      this.snippetQueries      = sanitizeQueryAsTokens(query);
+      this.mentionRecipientIds = new HashSet<>();
+
+      for (String snippetQuery : snippetQueries) {
+        for (Recipient recipient : recipientTable.queryRecipientsForMentions(snippetQuery)) {
+          mentionRecipientIds.add(recipient.getId());
+        }
+      }
+    }
+
+    /**
+     * How many results there were when first asked. Messages can be deleted or expire after that, so fewer results may actually be loaded.
+     */
+    @WorkerThread
+    public int getSize() {
+      if (size < 0) {
+        long start = System.currentTimeMillis();
+        size = searchDatabase.getMessageSearchCount(query, null, mentionRecipientIds);
+        Log.d(TAG, "[messages] Counted " + size + " results in " + (System.currentTimeMillis() - start) + " ms");
+      }
+
+      return size;
+    }
+
+    /**
+     * @param after The {@link MessagePage#getLastKey()} of the previous page, or null for the first page.
+     */
+    @WorkerThread
+    public @NonNull MessagePage getPage(@Nullable SearchTable.MessagePageKey after, int limit) {
+      long                       start        = System.currentTimeMillis();
+      List<MessageResult>        page;
+      Set<Long>                  needsSnippet = new HashSet<>();
+      SearchTable.MessagePageKey lastKey      = null;
+
+      try (Cursor cursor = searchDatabase.queryMessagesPage(query, null, mentionRecipientIds, ranking, after, limit)) {
+        page = readToList(cursor, new MessageModelBuilder());
+
+        if (cursor != null) {
+          cursor.moveToPosition(-1);
+          while (cursor.moveToNext()) {
+            if (CursorUtil.isNull(cursor, SearchTable.SNIPPET)) {
+              needsSnippet.add(CursorUtil.requireLong(cursor, SearchTable.MESSAGE_ID));
+            }
+          }
+
+          if (cursor.moveToLast()) {
+            lastKey = new SearchTable.MessagePageKey(cursor.getDouble(cursor.getColumnIndexOrThrow(SearchTable.RANK)), CursorUtil.requireLong(cursor, SearchTable.MESSAGE_ID));
+          }
+        }
+      }
+
+      List<MessageResult> formatted = applyMentionsAndStyles(page);
+
+      if (!needsSnippet.isEmpty()) {
+        List<MessageResult> withSnippets = new ArrayList<>(formatted.size());
+        for (MessageResult result : formatted) {
+          if (needsSnippet.contains(result.getMessageId())) {
+            withSnippets.add(new MessageResult(result.getConversationRecipient(), result.getMessageRecipient(), result.getBody(), makeSnippet(snippetQueries, result.getBody()), result.getThreadId(), result.getMessageId(), result.getReceivedTimestampMs(), result.isMms()));
+          } else {
+            withSnippets.add(result);
+          }
+        }
+        formatted = withSnippets;
+      }
+
+      Log.d(TAG, "[messages] Loaded " + formatted.size() + " results in " + (System.currentTimeMillis() - start) + " ms");
+
+      return new MessagePage(formatted, lastKey);
+    }
+  }
+
+  /**
+   * One page of a {@link PagedMessageSearch}, and the key to load the page after it with.
+   */
+  public static final class MessagePage {
+
+    private final List<MessageResult>        results;
+    private final SearchTable.MessagePageKey lastKey;
+
+    public MessagePage(@NonNull List<MessageResult> results, @Nullable SearchTable.MessagePageKey lastKey) {
+      this.results = results;
+      this.lastKey = lastKey;
+    }
+
+    public @NonNull List<MessageResult> getResults() {
+      return results;
+    }
+
+    public @Nullable SearchTable.MessagePageKey getLastKey() {
+      return lastKey;
+    }
+  }
+
   public interface Callback<E> {
     void onResult(@NonNull E result);
   }
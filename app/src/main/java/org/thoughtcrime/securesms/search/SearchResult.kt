@@ -30,10 +30,6 @@ data class SearchResult(
     return this.copy(conversations = result.results, query = result.query)
   }
 
-  fun merge(result: MessageSearchResult): SearchResult {
-    return this.copy(messages = result.results, query = result.query)
-  }
-
   fun merge(conversationFilter: ConversationFilter): SearchResult {
     return this.copy(conversationFilter = conversationFilter)
   }
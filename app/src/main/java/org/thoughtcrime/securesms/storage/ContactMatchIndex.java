@@ -0,0 +1,213 @@
+package org.thoughtcrime.securesms.storage;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.RecipientTable;
+import org.thoughtcrime.securesms.database.model.RecipientRecord;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.whispersystems.signalservice.api.push.PNI;
+import org.whispersystems.signalservice.api.push.ServiceId;
+import org.whispersystems.signalservice.api.storage.SignalContactRecord;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Answers the lookups {@link ContactRecordProcessor} needs to match remote contacts against local recipients, from records loaded in a few bulk queries up
+ * front rather than a handful of queries per remote record.
+ *
+ * Identifiers that were part of the bulk load are answered from memory, including when nothing matched. Anything else goes to the {@link RecipientTable}.
+ * Processing writes to the table as it goes, so after each write the written identifiers, and everything cached for the recipients they pointed to, are
+ * evicted and go back to being looked up in the table.
+ */
+final class ContactMatchIndex {
+
+  private static final String TAG = Log.tag(ContactMatchIndex.class);
+
+  private final RecipientTable recipientTable;
+
+  private final Map<String, RecipientId>          byServiceId = new HashMap<>();
+  private final Map<String, RecipientId>          byE164      = new HashMap<>();
+  private final Map<String, RecipientId>          byPni       = new HashMap<>();
+  private final Map<RecipientId, RecipientRecord> records     = new HashMap<>();
+
+  private final Set<String> loadedServiceIds = new HashSet<>();
+  private final Set<String> loadedE164s      = new HashSet<>();
+  private final Set<String> loadedPnis       = new HashSet<>();
+
+  /**
+   * An index with nothing loaded, which passes every lookup through to the table.
+   */
+  ContactMatchIndex(@NonNull RecipientTable recipientTable) {
+    this.recipientTable = recipientTable;
+  }
+
+  /**
+   * Loads every local recipient that could match one of the remote records.
+   *
+   * @param includePnis Whether PNIs will be used for matching. If not, they are not loaded either.
+   */
+  static @NonNull ContactMatchIndex load(@NonNull RecipientTable recipientTable, @NonNull Collection<SignalContactRecord> remoteRecords, boolean includePnis) {
+    long start = System.currentTimeMillis();
+
+    Set<ServiceId> serviceIds = new HashSet<>();
+    Set<String>    e164s      = new HashSet<>();
+    Set<PNI>       pnis       = new HashSet<>();
+
+    for (SignalContactRecord remote : remoteRecords) {
+      if (remote.getServiceId() != null && !remote.getServiceId().isUnknown()) {
+        serviceIds.add(remote.getServiceId());
+      }
+
+      if (remote.getNumber().isPresent()) {
+        e164s.add(remote.getNumber().get());
+      }
+
+      if (includePnis && remote.getPni().isPresent()) {
+        serviceIds.add(remote.getPni().get());
+        pnis.add(remote.getPni().get());
+      }
+    }
+
+    ContactMatchIndex     index = new ContactMatchIndex(recipientTable);
+    List<RecipientRecord> found = recipientTable.getRecordsForSyncMatching(serviceIds, e164s, pnis);
+
+    for (ServiceId serviceId : serviceIds) {
+      index.loadedServiceIds.add(serviceId.toString());
+    }
+
+    for (PNI pni : pnis) {
+      index.loadedPnis.add(pni.toString());
+    }
+
+    index.loadedE164s.addAll(e164s);
+
+    for (RecipientRecord record : found) {
+      index.add(record);
+    }
+
+    Log.i(TAG, "Loaded " + found.size() + " local recipients for " + remoteRecords.size() + " remote records in " + (System.currentTimeMillis() - start) + " ms.");
+
+    return index;
+  }
+
+  /** Equivalent to {@link RecipientTable#getByServiceId(ServiceId)}. */
+  @NonNull Optional<RecipientId> getByServiceId(@NonNull ServiceId serviceId) {
+    String key = serviceId.toString();
+
+    if (loadedServiceIds.contains(key)) {
+      return Optional.ofNullable(byServiceId.get(key));
+    } else {
+      return recipientTable.getByServiceId(serviceId);
+    }
+  }
+
+  /** Equivalent to {@link RecipientTable#getByE164(String)}. */
+  @NonNull Optional<RecipientId> getByE164(@NonNull String e164) {
+    if (loadedE164s.contains(e164)) {
+      return Optional.ofNullable(byE164.get(e164));
+    } else {
+      return recipientTable.getByE164(e164);
+    }
+  }
+
+  /** Equivalent to {@link RecipientTable#getByPni(PNI)}. */
+  @NonNull Optional<RecipientId> getByPni(@NonNull PNI pni) {
+    String key = pni.toString();
+
+    if (loadedPnis.contains(key)) {
+      return Optional.ofNullable(byPni.get(key));
+    } else {
+      return recipientTable.getByPni(pni);
+    }
+  }
+
+  /** Equivalent to {@link RecipientTable#getRecordForSync(RecipientId)}. */
+  @Nullable RecipientRecord getRecordForSync(@NonNull RecipientId id) {
+    RecipientRecord record = records.get(id);
+
+    if (record != null) {
+      return record;
+    } else {
+      return recipientTable.getRecordForSync(id);
+    }
+  }
+
+  /**
+   * Call after writing a contact to the table. Writes can merge or steal identifiers from any row that shares one with the contact, so all of those rows are
+   * evicted too.
+   */
+  void invalidate(@NonNull SignalContactRecord record) {
+    invalidate(record.getServiceId(), record.getPni().orElse(null), record.getNumber().orElse(null));
+  }
+
+  void invalidate(@Nullable ServiceId serviceId, @Nullable PNI pni, @Nullable String e164) {
+    if (serviceId != null) {
+      evictServiceId(serviceId.toString());
+    }
+
+    if (pni != null) {
+      evictServiceId(pni.toString());
+      evictPni(pni.toString());
+    }
+
+    if (e164 != null) {
+      evictE164(e164);
+    }
+  }
+
+  /**
+   * Call after writing to a single recipient row without touching its identifiers.
+   */
+  void invalidate(@NonNull RecipientId id) {
+    RecipientRecord record = records.remove(id);
+
+    if (record != null) {
+      invalidate(record.getServiceId(), record.getPni(), record.getE164());
+    }
+  }
+
+  private void add(@NonNull RecipientRecord record) {
+    records.put(record.getId(), record);
+
+    if (record.getServiceId() != null) {
+      byServiceId.put(record.getServiceId().toString(), record.getId());
+    }
+
+    if (record.getE164() != null) {
+      byE164.put(record.getE164(), record.getId());
+    }
+
+    if (record.getPni() != null) {
+      byPni.put(record.getPni().toString(), record.getId());
+    }
+  }
+
+  private void evictServiceId(@NonNull String key) {
+    loadedServiceIds.remove(key);
+    evictRecipient(byServiceId.remove(key));
+  }
+
+  private void evictE164(@NonNull String key) {
+    loadedE164s.remove(key);
+    evictRecipient(byE164.remove(key));
+  }
+
+  private void evictPni(@NonNull String key) {
+    loadedPnis.remove(key);
+    evictRecipient(byPni.remove(key));
+  }
+
+  private void evictRecipient(@Nullable RecipientId id) {
+    if (id != null) {
+      invalidate(id);
+    }
+  }
+}
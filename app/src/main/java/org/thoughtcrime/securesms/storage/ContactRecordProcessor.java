@@ -42,6 +42,8 @@ public class ContactRecordProcessor extends DefaultStorageRecordProcessor<Signal
   private final PNI    selfPni;
   private final String selfE164;
 
+  private ContactMatchIndex matchIndex;
+
   public ContactRecordProcessor() {
     this(SignalStore.account().getAci(),
          SignalStore.account().getPni(),
@@ -54,6 +56,7 @@ public class ContactRecordProcessor extends DefaultStorageRecordProcessor<Signal
     this.selfAci        = selfAci;
     this.selfPni        = selfPni;
     this.selfE164       = selfE164;
+    this.matchIndex     = new ContactMatchIndex(recipientTable);
   }
 
   /**
@@ -152,33 +155,44 @@ public class ContactRecordProcessor extends DefaultStorageRecordProcessor<Signal
     }
   }
 
+  @Override
+  void onMatchingStarted(@NonNull Collection<SignalContactRecord> remoteRecords) {
+    matchIndex = ContactMatchIndex.load(recipientTable, remoteRecords, FeatureFlags.phoneNumberPrivacy());
+  }
+
+  @Override
+  void onMatchingFinished() {
+    matchIndex = new ContactMatchIndex(recipientTable);
+  }
+
   @Override
   @NonNull Optional<SignalContactRecord> getMatching(@NonNull SignalContactRecord remote, @NonNull StorageKeyGenerator keyGenerator) {
     if (!FeatureFlags.phoneNumberPrivacy()) {
       remote = remote.withoutPni();
     }
 
-    Optional<RecipientId> found = recipientTable.getByServiceId(remote.getServiceId());
+    Optional<RecipientId> found = matchIndex.getByServiceId(remote.getServiceId());
 
     if (!found.isPresent() && remote.getNumber().isPresent()) {
-      found = recipientTable.getByE164(remote.getNumber().get());
+      found = matchIndex.getByE164(remote.getNumber().get());
     }
 
     if (!found.isPresent() && remote.getPni().isPresent()) {
-      found = recipientTable.getByServiceId(remote.getPni().get());
+      found = matchIndex.getByServiceId(remote.getPni().get());
     }
 
     if (!found.isPresent() && remote.getPni().isPresent()) {
-      found = recipientTable.getByPni(remote.getPni().get());
+      found = matchIndex.getByPni(remote.getPni().get());
     }
 
-    return found.map(recipientTable::getRecordForSync)
+    return found.map(matchIndex::getRecordForSync)
                 .map(settings -> {
                   if (settings.getStorageId() != null) {
                     return StorageSyncModels.localToRemoteRecord(settings);
                   } else {
                     Log.w(TAG, "Newly discovering a registered user via storage service. Saving a storageId for them.");
                     recipientTable.updateStorageId(settings.getId(), keyGenerator.generate());
+                    matchIndex.invalidate(settings.getId());
 
                     RecipientRecord updatedSettings = Objects.requireNonNull(recipientTable.getRecordForSync(settings.getId()));
                     return StorageSyncModels.localToRemoteRecord(updatedSettings);
@@ -221,6 +235,7 @@ public class ContactRecordProcessor extends DefaultStorageRecordProcessor<Signal
     if (identityKey != null && remote.getIdentityKey().isPresent() && !Arrays.equals(identityKey, remote.getIdentityKey().get())) {
       Log.w(TAG, "The local and remote identity keys do not match for " + local.getServiceId() + ". Enqueueing a profile fetch.");
       RetrieveProfileJob.enqueue(Recipient.trustedPush(local.getServiceId(), local.getPni().orElse(null), local.getNumber().orElse(null)).getId());
+      matchIndex.invalidate(local);
     }
 
     PNI    pni;
@@ -308,11 +323,14 @@ public class ContactRecordProcessor extends DefaultStorageRecordProcessor<Signal
   @Override
   void insertLocal(@NonNull SignalContactRecord record) {
     recipientTable.applyStorageSyncContactInsert(record);
+    matchIndex.invalidate(record);
   }
 
   @Override
   void updateLocal(@NonNull StorageRecordUpdate<SignalContactRecord> update) {
     recipientTable.applyStorageSyncContactUpdate(update);
+    matchIndex.invalidate(update.getOld());
+    matchIndex.invalidate(update.getNew());
   }
 
   @Override
@@ -44,6 +44,8 @@ abstract class DefaultStorageRecordProcessor<E extends SignalRecord> implements
     Set<E> matchedRecords = new TreeSet<>(this);
     int    i              = 0;
 
+    onMatchingStarted(remoteRecords);
+
     for (E remote : remoteRecords) {
       if (isInvalid(remote)) {
         warn(i, remote, "Found invalid key! Ignoring it.");
@@ -76,6 +78,8 @@ abstract class DefaultStorageRecordProcessor<E extends SignalRecord> implements
 
       i++;
     }
+
+    onMatchingFinished();
   }
 
   private void info(int i, E record, String message) {
@@ -91,6 +95,16 @@ abstract class DefaultStorageRecordProcessor<E extends SignalRecord> implements
    */
   abstract boolean isInvalid(@NonNull E remote);
 
+  /**
+   * Called before any records are matched, with all of the remote records (including ones that will turn out to be invalid), so that implementations can
+   * look up their local matches in bulk rather than with a query per record in {@link #getMatching(SignalRecord, StorageKeyGenerator)}. Anything loaded here
+   * must be kept up to date by {@link #insertLocal(SignalRecord)} and {@link #updateLocal(StorageRecordUpdate)}, and can be dropped in
+   * {@link #onMatchingFinished()}.
+   */
+  void onMatchingStarted(@NonNull Collection<E> remoteRecords) {}
+
+  void onMatchingFinished() {}
+
   /**
    * Only records that pass the validity check (i.e. return false from {@link #isInvalid(SignalRecord)}
    * make it to here, so you can assume all records are valid.
@@ -6,16 +6,28 @@ import android.os.Looper;
 
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
-import org.signal.core.util.Stopwatch;
 import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Manages our app startup flow.
+ *
+ * Blocking tasks declare which other blocking tasks they depend on and which thread they need. Tasks that can run in the background start
+ * as soon as everything they depend on has finished, in parallel with each other and with the main thread, and {@link #execute()} returns
+ * once every blocking task is done. Each blocking task is traced as "AppStartup#name".
  */
 public final class AppStartup {
 
@@ -29,6 +41,14 @@ public final class AppStartup {
 
   private static final AppStartup INSTANCE = new AppStartup();
 
+  /** The thread a blocking task must run on. */
+  public enum Affinity {
+    /** Runs on the main thread, in the order it was added. For anything that touches the UI toolkit or asserts it's on the main thread. */
+    MAIN,
+    /** Runs on a background thread as soon as its dependencies have finished. */
+    BACKGROUND
+  }
+
   private final List<Task> blocking;
   private final List<Task> nonBlocking;
   private final List<Task> postRender;
@@ -44,7 +64,8 @@ public final class AppStartup {
     return INSTANCE;
   }
 
-  private AppStartup() {
+  @VisibleForTesting
+  AppStartup() {
     this.blocking          = new LinkedList<>();
     this.nonBlocking       = new LinkedList<>();
     this.postRender        = new LinkedList<>();
@@ -56,11 +77,46 @@ public final class AppStartup {
   }
 
   /**
-   * Schedules a task that must happen during app startup in a blocking fashion.
+   * Schedules a task that must happen during app startup in a blocking fashion. It runs on the main thread after every blocking task that
+   * was added before it.
    */
   @MainThread
   public @NonNull AppStartup addBlocking(@NonNull String name, @NonNull Runnable task) {
-    blocking.add(new Task(name, task));
+    List<String> dependencies = new LinkedList<>();
+
+    for (Task existing : blocking) {
+      dependencies.add(existing.getName());
+    }
+
+    return addBlocking(name, Affinity.MAIN, task, dependencies.toArray(new String[0]));
+  }
+
+  /**
+   * Schedules a task that must happen during app startup in a blocking fashion.
+   *
+   * @param affinity     The thread the task has to run on.
+   * @param dependencies The names of the blocking tasks that have to finish before this one starts. They must already have been added, which
+   *                     keeps main thread tasks from ever waiting on something that is waiting on them.
+   */
+  @MainThread
+  public @NonNull AppStartup addBlocking(@NonNull String name, @NonNull Affinity affinity, @NonNull Runnable task, @NonNull String... dependencies) {
+    Set<String> added = new LinkedHashSet<>();
+
+    for (Task existing : blocking) {
+      added.add(existing.getName());
+    }
+
+    if (added.contains(name)) {
+      throw new IllegalArgumentException("There is already a blocking task named " + name);
+    }
+
+    for (String dependency : dependencies) {
+      if (!added.contains(dependency)) {
+        throw new IllegalArgumentException(name + " depends on " + dependency + ", which hasn't been added.");
+      }
+    }
+
+    blocking.add(new Task(name, task, affinity, Arrays.asList(dependencies)));
     return this;
   }
 
@@ -70,7 +126,7 @@ public final class AppStartup {
    */
   @MainThread
   public @NonNull AppStartup addNonBlocking(@NonNull Runnable task) {
-    nonBlocking.add(new Task("", task));
+    nonBlocking.add(new Task("", task, Affinity.BACKGROUND, Collections.emptyList()));
     return this;
   }
 
@@ -83,7 +139,7 @@ public final class AppStartup {
    */
   @MainThread
   public @NonNull AppStartup addPostRender(@NonNull Runnable task) {
-    postRender.add(new Task("", task));
+    postRender.add(new Task("", task, Affinity.BACKGROUND, Collections.emptyList()));
     return this;
   }
 
@@ -139,21 +195,18 @@ public final class AppStartup {
    */
   @MainThread
   public void execute() {
-    Stopwatch stopwatch = new Stopwatch("init");
+    long start = System.currentTimeMillis();
 
-    for (Task task : blocking) {
-      task.getRunnable().run();
-      stopwatch.split(task.getName());
-    }
-    blocking.clear();
+    executeBlocking();
+
+    long blockingTime = System.currentTimeMillis() - start;
 
     for (Task task : nonBlocking) {
       SignalExecutors.BOUNDED.execute(task.getRunnable());
     }
     nonBlocking.clear();
 
-    stopwatch.split("schedule-non-blocking");
-    stopwatch.stop(TAG);
+    Log.d(TAG, "[init] blocking: " + blockingTime + " ms, schedule-non-blocking: " + (System.currentTimeMillis() - start - blockingTime) + " ms");
 
     postRenderHandler.postDelayed(() -> {
       Log.i(TAG, "Assuming the application has started in the background. Running post-render tasks.");
@@ -161,6 +214,92 @@ public final class AppStartup {
     }, UI_WAIT_TIME);
   }
 
+  /**
+   * Starts every background task on its own thread, where it waits for its dependencies, then runs the main thread tasks in order, then waits
+   * for everything to finish. If any task throws, the first failure is rethrown here once all the others are done, and anything depending on
+   * the failed task is skipped.
+   */
+  @VisibleForTesting
+  @MainThread
+  void executeBlocking() {
+    SignalTrace.beginSection("AppStartup#blocking");
+
+    Map<String, Task> tasks = new HashMap<>();
+
+    for (Task task : blocking) {
+      tasks.put(task.getName(), task);
+    }
+
+    for (Task task : blocking) {
+      if (task.getAffinity() == Affinity.BACKGROUND) {
+        SignalExecutors.UNBOUNDED.execute(() -> runBlocking(task, tasks));
+      }
+    }
+
+    for (Task task : blocking) {
+      if (task.getAffinity() == Affinity.MAIN) {
+        runBlocking(task, tasks);
+      }
+    }
+
+    Throwable     failure = null;
+    StringBuilder timings = new StringBuilder();
+
+    for (Task task : blocking) {
+      task.awaitDone();
+
+      if (failure == null) {
+        failure = task.getFailure();
+      }
+
+      timings.append(task.getName()).append(": ").append(task.getDuration()).append(" ms, ");
+    }
+
+    blocking.clear();
+
+    SignalTrace.endSection();
+    Log.d(TAG, "[init] " + timings);
+
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      throw new RuntimeException(failure);
+    }
+  }
+
+  private static void runBlocking(@NonNull Task task, @NonNull Map<String, Task> tasks) {
+    try {
+      for (String dependency : task.getDependencies()) {
+        Task prerequisite = tasks.get(dependency);
+
+        prerequisite.awaitDone();
+
+        if (prerequisite.getFailure() != null) {
+          Log.w(TAG, "Skipping " + task.getName() + " because " + dependency + " failed.");
+          task.setFailure(prerequisite.getFailure());
+          return;
+        }
+      }
+
+      long start = System.currentTimeMillis();
+
+      SignalTrace.beginSection("AppStartup#" + task.getName());
+      try {
+        task.getRunnable().run();
+      } finally {
+        SignalTrace.endSection();
+      }
+
+      task.setDuration(System.currentTimeMillis() - start);
+    } catch (Throwable t) {
+      task.setFailure(t);
+    } finally {
+      task.markDone();
+    }
+  }
+
   private void executePostRender() {
     for (Task task : postRender) {
       SignalExecutors.BOUNDED.execute(task.getRunnable());
@@ -168,13 +307,22 @@ public final class AppStartup {
     postRender.clear();
   }
 
-  private class Task {
-    private final String   name;
-    private final Runnable runnable;
-
-    protected Task(@NonNull String name, @NonNull Runnable runnable) {
-      this.name = name;
-      this.runnable = runnable;
+  private static class Task {
+    private final String         name;
+    private final Runnable       runnable;
+    private final Affinity       affinity;
+    private final List<String>   dependencies;
+    private final CountDownLatch done;
+
+    private volatile Throwable failure;
+    private volatile long      duration;
+
+    protected Task(@NonNull String name, @NonNull Runnable runnable, @NonNull Affinity affinity, @NonNull List<String> dependencies) {
+      this.name         = name;
+      this.runnable     = runnable;
+      this.affinity     = affinity;
+      this.dependencies = dependencies;
+      this.done         = new CountDownLatch(1);
     }
 
     @NonNull String getName() {
@@ -184,5 +332,50 @@ public final class AppStartup {
     public @NonNull Runnable getRunnable() {
       return runnable;
     }
+
+    @NonNull Affinity getAffinity() {
+      return affinity;
+    }
+
+    @NonNull List<String> getDependencies() {
+      return dependencies;
+    }
+
+    @Nullable Throwable getFailure() {
+      return failure;
+    }
+
+    void setFailure(@NonNull Throwable failure) {
+      this.failure = failure;
+    }
+
+    long getDuration() {
+      return duration;
+    }
+
+    void setDuration(long duration) {
+      this.duration = duration;
+    }
+
+    void markDone() {
+      done.countDown();
+    }
+
+    void awaitDone() {
+      boolean interrupted = false;
+
+      while (true) {
+        try {
+          done.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
   }
 }
@@ -11,20 +11,20 @@ public final class Base64 {
   }
 
   public static @NonNull byte[] decode(@NonNull String s) throws IOException {
-    return org.whispersystems.util.Base64.decode(s);
+    return org.signal.core.util.Base64.decode(s);
   }
 
   public static @NonNull byte[] decodeWithoutPadding(@NonNull String s) throws IOException {
-    return org.whispersystems.util.Base64.decodeWithoutPadding(s);
+    return org.signal.core.util.Base64.decodeWithoutPadding(s);
   }
 
   public static @NonNull String encodeBytes(@NonNull byte[] source) {
-    return org.whispersystems.util.Base64.encodeBytes(source);
+    return org.signal.core.util.Base64.encode(source);
   }
 
   public static @NonNull byte[] decodeOrThrow(@NonNull String s) {
     try {
-      return org.whispersystems.util.Base64.decode(s);
+      return org.signal.core.util.Base64.decode(s);
     } catch (IOException e) {
       throw new AssertionError();
     }
@@ -36,7 +36,7 @@ public final class Base64 {
     }
 
     try {
-      return org.whispersystems.util.Base64.decode(s);
+      return org.signal.core.util.Base64.decode(s);
     } catch (IOException e) {
       throw new AssertionError();
     }
@@ -43,12 +43,6 @@ public class BitmapUtil {
 
   private static final String TAG = Log.tag(BitmapUtil.class);
 
-  private static final int MAX_COMPRESSION_QUALITY          = 90;
-  private static final int MIN_COMPRESSION_QUALITY          = 45;
-  private static final int MAX_COMPRESSION_ATTEMPTS         = 5;
-  private static final int MIN_COMPRESSION_QUALITY_DECREASE = 5;
-  private static final int MAX_IMAGE_HALF_SCALES            = 3;
-
   /**
    * @deprecated You probably want to use {@link ImageCompressionUtil} instead, which has a clearer
    *             contract and handles mimetypes properly.
@@ -94,83 +88,58 @@ public class BitmapUtil {
                                                   @NonNull CompressFormat format)
       throws BitmapDecodingException
   {
-    return createScaledBytes(context, model, maxImageWidth, maxImageHeight, maxImageSize, format, 1, 0);
+    return createScaledBytesInternal(context, model, maxImageWidth, maxImageHeight, maxImageSize, format);
   }
 
   @WorkerThread
-  private static <T> ScaleResult createScaledBytes(@NonNull Context context,
-                                                   @NonNull T model,
-                                                   final int maxImageWidth,
-                                                   final int maxImageHeight,
-                                                   final int maxImageSize,
-                                                   @NonNull CompressFormat format,
-                                                   final int sizeAttempt,
-                                                   int totalAttempts)
+  private static <T> ScaleResult createScaledBytesInternal(@NonNull Context context,
+                                                           @NonNull T model,
+                                                           int maxImageWidth,
+                                                           int maxImageHeight,
+                                                           int maxImageSize,
+                                                           @NonNull CompressFormat format)
       throws BitmapDecodingException
   {
-    try {
-      int    quality  = MAX_COMPRESSION_QUALITY;
-      int    attempts = 0;
-      byte[] bytes;
-
-      Bitmap scaledBitmap = GlideApp.with(context.getApplicationContext())
-                                    .asBitmap()
-                                    .load(model)
-                                    .skipMemoryCache(true)
-                                    .diskCacheStrategy(DiskCacheStrategy.NONE)
-                                    .centerInside()
-                                    .submit(maxImageWidth, maxImageHeight)
-                                    .get();
-
-      if (scaledBitmap == null) {
-        throw new BitmapDecodingException("Unable to decode image");
-      }
-
-      Log.i(TAG, String.format(Locale.US,"Initial scaled bitmap has size of %d bytes.", scaledBitmap.getByteCount()));
-      Log.i(TAG, String.format(Locale.US, "Max dimensions %d x %d, %d bytes", maxImageWidth, maxImageHeight, maxImageSize));
-
-      try {
-        do {
-          totalAttempts++;
-          ByteArrayOutputStream baos = new ByteArrayOutputStream();
-          scaledBitmap.compress(format, quality, baos);
-          bytes = baos.toByteArray();
-
-          Log.d(TAG, "iteration with quality " + quality + " size " + bytes.length + " bytes.");
-          if (quality == MIN_COMPRESSION_QUALITY) break;
+    String metricsId = SignalLocalMetrics.ImageCompression.start();
+    Bitmap scaledBitmap;
 
-          int nextQuality = (int)Math.floor(quality * Math.sqrt((double)maxImageSize / bytes.length));
-          if (quality - nextQuality < MIN_COMPRESSION_QUALITY_DECREASE) {
-            nextQuality = quality - MIN_COMPRESSION_QUALITY_DECREASE;
-          }
-          quality = Math.max(nextQuality, MIN_COMPRESSION_QUALITY);
-        }
-        while (bytes.length > maxImageSize && attempts++ < MAX_COMPRESSION_ATTEMPTS);
-
-        if (bytes.length > maxImageSize) {
-          if (sizeAttempt <= MAX_IMAGE_HALF_SCALES) {
-            scaledBitmap.recycle();
-            scaledBitmap = null;
+    try {
+      scaledBitmap = GlideApp.with(context.getApplicationContext())
+                             .asBitmap()
+                             .load(model)
+                             .skipMemoryCache(true)
+                             .diskCacheStrategy(DiskCacheStrategy.NONE)
+                             .centerInside()
+                             .submit(maxImageWidth, maxImageHeight)
+                             .get();
+    } catch (InterruptedException | ExecutionException e) {
+      SignalLocalMetrics.ImageCompression.cancel(metricsId);
+      throw new BitmapDecodingException(e);
+    }
 
-            Log.i(TAG, "Halving dimensions and retrying.");
-            return createScaledBytes(context, model, maxImageWidth / 2, maxImageHeight / 2, maxImageSize, format, sizeAttempt + 1, totalAttempts);
-          } else {
-            throw new BitmapDecodingException("Unable to scale image below " + bytes.length + " bytes.");
-          }
-        }
+    if (scaledBitmap == null) {
+      SignalLocalMetrics.ImageCompression.cancel(metricsId);
+      throw new BitmapDecodingException("Unable to decode image");
+    }
 
-        if (bytes.length <= 0) {
-          throw new BitmapDecodingException("Decoding failed. Bitmap has a length of " + bytes.length + " bytes.");
-        }
+    SignalLocalMetrics.ImageCompression.onDecoded(metricsId);
 
-        Log.i(TAG, String.format(Locale.US, "createScaledBytes(%s) -> quality %d, %d attempt(s) over %d sizes.", model.getClass().getName(), quality, totalAttempts, sizeAttempt));
+    Log.i(TAG, String.format(Locale.US,"Initial scaled bitmap has size of %d bytes.", scaledBitmap.getByteCount()));
+    Log.i(TAG, String.format(Locale.US, "Max dimensions %d x %d, %d bytes", maxImageWidth, maxImageHeight, maxImageSize));
 
-        return new ScaleResult(bytes, scaledBitmap.getWidth(), scaledBitmap.getHeight());
-      } finally {
-        if (scaledBitmap != null) scaledBitmap.recycle();
-      }
-    } catch (InterruptedException | ExecutionException e) {
-      throw new BitmapDecodingException(e);
+    try {
+      ImageCompressionPlanner.Result result = ImageCompressionPlanner.compress(scaledBitmap, format, maxImageSize, metricsId);
+
+      SignalLocalMetrics.ImageCompression.end(metricsId);
+      Log.i(TAG, String.format(Locale.US, "createScaledBytes(%s) -> quality %d at %dx%d, %d attempt(s).", model.getClass().getName(), result.quality, result.width, result.height, result.attempts));
+
+      return new ScaleResult(result.data, result.width, result.height);
+    } catch (Throwable t) {
+      // Includes OutOfMemoryError, which is the likeliest way for a large image to fail here
+      SignalLocalMetrics.ImageCompression.cancel(metricsId);
+      throw t;
+    } finally {
+      scaledBitmap.recycle();
     }
   }
 
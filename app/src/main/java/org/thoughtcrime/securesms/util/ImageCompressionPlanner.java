@@ -0,0 +1,332 @@
+package org.thoughtcrime.securesms.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.signal.core.util.logging.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Locale;
+
+/**
+ * Chooses the quality and scale for {@link BitmapUtil#createScaledBytes} before doing any full size encode, so that most images only get encoded once.
+ *
+ * A reduced copy of the image is encoded at a few qualities, and a smaller copy once more, which tells us roughly how many bytes each quality costs and how
+ * that grows with resolution. From that we pick what the old trial-and-error loop was looking for: the highest quality, at the largest scale, that fits.
+ * If the real encode still comes out too large, the prediction is corrected by how far off it was and we plan again.
+ */
+final class ImageCompressionPlanner {
+
+  private static final String TAG = Log.tag(ImageCompressionPlanner.class);
+
+  static final int MAX_QUALITY     = 90;
+  static final int MIN_QUALITY     = 45;
+  static final int MAX_HALF_SCALES = 3;
+
+  private static final int    MAX_ATTEMPTS       = 5;
+  private static final int[]  TRIAL_QUALITIES    = { MIN_QUALITY, 70, MAX_QUALITY };
+  private static final int    TRIAL_AREA_DIVISOR = 16;
+  private static final int    MIN_TRIAL_PIXELS   = 256 * 256;
+  private static final int    MIN_SCALING_PIXELS = 32 * 32;
+  private static final double TARGET_RATIO       = 0.95;
+  private static final double MIN_EXPONENT       = 0.5;
+  private static final double MAX_EXPONENT       = 1.0;
+
+  private static final int                 MAX_POOLED_BUFFERS      = 2;
+  private static final int                 MAX_POOLED_BUFFER_BYTES = 2 * 1024 * 1024;
+  private static final Deque<EncodeBuffer> BUFFER_POOL             = new ArrayDeque<>(MAX_POOLED_BUFFERS);
+
+  private ImageCompressionPlanner() {}
+
+  /**
+   * Compresses the bitmap to at most maxBytes, lowering the quality and then halving the dimensions as needed. The last attempt always uses the smallest
+   * plan, so a model that keeps underestimating can't use up every attempt without trying it. Does not recycle the provided bitmap.
+   *
+   * @param metricsId An id from {@link SignalLocalMetrics.ImageCompression#start()}, or null to not record metrics.
+   */
+  @WorkerThread
+  static @NonNull Result compress(@NonNull Bitmap bitmap, @NonNull CompressFormat format, int maxBytes, @Nullable String metricsId)
+      throws BitmapDecodingException
+  {
+    EncodeBuffer buffer           = obtainBuffer();
+    Bitmap       scaled           = null;
+    int          scaledHalfScales = 0;
+
+    try {
+      Model model = measure(bitmap, format, buffer);
+      SignalLocalMetrics.ImageCompression.onTrialEncodeFinished(metricsId);
+
+      double correction = 1;
+
+      for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+        Plan plan = attempt < MAX_ATTEMPTS ? model.plan(bitmap.getWidth(), bitmap.getHeight(), maxBytes, correction)
+                                           : model.smallestPlan(bitmap.getWidth(), bitmap.getHeight(), correction);
+
+        Bitmap target;
+        if (plan.halfScales == 0) {
+          target = bitmap;
+        } else if (scaled != null && scaledHalfScales == plan.halfScales) {
+          target = scaled;
+        } else {
+          if (scaled != null) scaled.recycle();
+          scaled           = Bitmap.createScaledBitmap(bitmap, plan.width, plan.height, true);
+          scaledHalfScales = plan.halfScales;
+          target           = scaled;
+        }
+
+        encode(target, format, plan.quality, buffer);
+        SignalLocalMetrics.ImageCompression.onEncodeAttemptFinished(metricsId, attempt);
+
+        Log.d(TAG, String.format(Locale.US, "Attempt %d: quality %d at %dx%d, predicted %d bytes, actual %d bytes.", attempt, plan.quality, target.getWidth(), target.getHeight(), plan.predictedBytes, buffer.size()));
+
+        if (buffer.size() <= 0) {
+          throw new BitmapDecodingException("Encoding failed. Bitmap has a length of " + buffer.size() + " bytes.");
+        }
+
+        if (buffer.size() <= maxBytes) {
+          return new Result(buffer.toByteArray(), target.getWidth(), target.getHeight(), plan.quality, attempt);
+        }
+
+        if (plan.isSmallest()) {
+          break;
+        }
+
+        correction *= buffer.size() / (double) plan.predictedBytes;
+      }
+
+      throw new BitmapDecodingException("Unable to scale image below " + buffer.size() + " bytes.");
+    } finally {
+      if (scaled != null) scaled.recycle();
+      releaseBuffer(buffer);
+    }
+  }
+
+  /**
+   * Encodes a reduced copy of the bitmap at each of the trial qualities, and a further reduced copy at one of them to see how size scales with area.
+   */
+  private static @NonNull Model measure(@NonNull Bitmap bitmap, @NonNull CompressFormat format, @NonNull EncodeBuffer buffer) {
+    long   pixels      = (long) bitmap.getWidth() * bitmap.getHeight();
+    long   trialPixels = Math.min(pixels, Math.max(pixels / TRIAL_AREA_DIVISOR, MIN_TRIAL_PIXELS));
+    Bitmap trial       = scaleToArea(bitmap, trialPixels);
+    long[] trialBytes  = new long[TRIAL_QUALITIES.length];
+
+    try {
+      for (int i = 0; i < TRIAL_QUALITIES.length; i++) {
+        encode(trial, format, TRIAL_QUALITIES[i], buffer);
+        trialBytes[i] = buffer.size();
+      }
+
+      trialPixels = (long) trial.getWidth() * trial.getHeight();
+
+      double exponent = MAX_EXPONENT;
+
+      if (trialPixels / 4 >= MIN_SCALING_PIXELS) {
+        Bitmap small = scaleToArea(trial, trialPixels / 4);
+        try {
+          int middle = TRIAL_QUALITIES.length / 2;
+          encode(small, format, TRIAL_QUALITIES[middle], buffer);
+          exponent = Model.estimateExponent(trialPixels, trialBytes[middle], (long) small.getWidth() * small.getHeight(), buffer.size());
+        } finally {
+          small.recycle();
+        }
+      }
+
+      return new Model(TRIAL_QUALITIES, trialBytes, trialPixels, exponent);
+    } finally {
+      if (trial != bitmap) trial.recycle();
+    }
+  }
+
+  private static @NonNull Bitmap scaleToArea(@NonNull Bitmap bitmap, long pixels) {
+    long current = (long) bitmap.getWidth() * bitmap.getHeight();
+
+    if (pixels >= current) {
+      return bitmap;
+    }
+
+    double scale  = Math.sqrt(pixels / (double) current);
+    int    width  = Math.max(1, (int) Math.round(bitmap.getWidth() * scale));
+    int    height = Math.max(1, (int) Math.round(bitmap.getHeight() * scale));
+
+    return Bitmap.createScaledBitmap(bitmap, width, height, true);
+  }
+
+  private static void encode(@NonNull Bitmap bitmap, @NonNull CompressFormat format, int quality, @NonNull EncodeBuffer buffer) {
+    buffer.reset();
+    bitmap.compress(format, quality, buffer);
+  }
+
+  private static @NonNull EncodeBuffer obtainBuffer() {
+    synchronized (BUFFER_POOL) {
+      EncodeBuffer buffer = BUFFER_POOL.poll();
+      return buffer != null ? buffer : new EncodeBuffer();
+    }
+  }
+
+  /**
+   * Buffers that grew past {@link #MAX_POOLED_BUFFER_BYTES} for an unusually large encode are left for the GC, rather than being held onto indefinitely.
+   */
+  private static void releaseBuffer(@NonNull EncodeBuffer buffer) {
+    if (buffer.capacity() > MAX_POOLED_BUFFER_BYTES) {
+      return;
+    }
+
+    buffer.reset();
+
+    synchronized (BUFFER_POOL) {
+      if (BUFFER_POOL.size() < MAX_POOLED_BUFFERS) {
+        BUFFER_POOL.push(buffer);
+      }
+    }
+  }
+
+  /**
+   * Predicts encoded sizes from the trial encodes. Size is interpolated geometrically between the trial qualities, and scaled with pixel count raised to
+   * the measured exponent, since a downscaled image carries more detail per pixel than the original.
+   */
+  @VisibleForTesting
+  static final class Model {
+
+    private final int[]  qualities;
+    private final long[] bytes;
+    private final long   pixels;
+    private final double exponent;
+
+    @VisibleForTesting
+    Model(@NonNull int[] qualities, @NonNull long[] bytes, long pixels, double exponent) {
+      this.qualities = qualities;
+      this.bytes     = bytes;
+      this.pixels    = pixels;
+      this.exponent  = exponent;
+    }
+
+    @VisibleForTesting
+    static double estimateExponent(long largePixels, long largeBytes, long smallPixels, long smallBytes) {
+      if (largePixels <= smallPixels || largeBytes <= 0 || smallBytes <= 0) {
+        return MAX_EXPONENT;
+      }
+
+      double exponent = Math.log(largeBytes / (double) smallBytes) / Math.log(largePixels / (double) smallPixels);
+
+      return Math.max(MIN_EXPONENT, Math.min(MAX_EXPONENT, exponent));
+    }
+
+    long predict(long targetPixels, int quality) {
+      double bytesAtTrialSize;
+
+      if (quality <= qualities[0]) {
+        bytesAtTrialSize = bytes[0];
+      } else if (quality >= qualities[qualities.length - 1]) {
+        bytesAtTrialSize = bytes[bytes.length - 1];
+      } else {
+        int i = 1;
+        while (qualities[i] < quality) i++;
+
+        double fraction = (quality - qualities[i - 1]) / (double) (qualities[i] - qualities[i - 1]);
+        double low      = Math.max(1, bytes[i - 1]);
+        double high     = Math.max(1, bytes[i]);
+
+        bytesAtTrialSize = low * Math.pow(high / low, fraction);
+      }
+
+      return (long) Math.ceil(bytesAtTrialSize * Math.pow(targetPixels / (double) pixels, exponent));
+    }
+
+    /**
+     * @param correction Multiplier for every prediction, learned from previous attempts that came out larger than predicted.
+     */
+    @NonNull Plan plan(int width, int height, int maxBytes, double correction) {
+      long target = (long) (maxBytes * TARGET_RATIO);
+
+      for (int halfScales = 0; halfScales <= MAX_HALF_SCALES; halfScales++) {
+        int  scaledWidth  = Math.max(1, width >> halfScales);
+        int  scaledHeight = Math.max(1, height >> halfScales);
+        long scaledPixels = (long) scaledWidth * scaledHeight;
+
+        for (int quality = MAX_QUALITY; quality >= MIN_QUALITY; quality--) {
+          long predicted = (long) Math.ceil(predict(scaledPixels, quality) * correction);
+
+          if (predicted <= target) {
+            return new Plan(halfScales, scaledWidth, scaledHeight, quality, predicted);
+          }
+        }
+      }
+
+      return smallestPlan(width, height, correction);
+    }
+
+    /**
+     * The plan with the fewest bytes: the minimum quality at the most halvings.
+     */
+    @NonNull Plan smallestPlan(int width, int height, double correction) {
+      int  smallestWidth  = Math.max(1, width >> MAX_HALF_SCALES);
+      int  smallestHeight = Math.max(1, height >> MAX_HALF_SCALES);
+      long predicted      = (long) Math.ceil(predict((long) smallestWidth * smallestHeight, MIN_QUALITY) * correction);
+
+      return new Plan(MAX_HALF_SCALES, smallestWidth, smallestHeight, MIN_QUALITY, predicted);
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return "Model{qualities=" + Arrays.toString(qualities) + ", bytes=" + Arrays.toString(bytes) + ", pixels=" + pixels + ", exponent=" + exponent + "}";
+    }
+  }
+
+  @VisibleForTesting
+  static final class Plan {
+    final int  halfScales;
+    final int  width;
+    final int  height;
+    final int  quality;
+    final long predictedBytes;
+
+    Plan(int halfScales, int width, int height, int quality, long predictedBytes) {
+      this.halfScales     = halfScales;
+      this.width          = width;
+      this.height         = height;
+      this.quality        = quality;
+      this.predictedBytes = Math.max(1, predictedBytes);
+    }
+
+    boolean isSmallest() {
+      return halfScales == MAX_HALF_SCALES && quality == MIN_QUALITY;
+    }
+  }
+
+  static final class Result {
+    final byte[] data;
+    final int    width;
+    final int    height;
+    final int    quality;
+    final int    attempts;
+
+    Result(@NonNull byte[] data, int width, int height, int quality, int attempts) {
+      this.data     = data;
+      this.width    = width;
+      this.height   = height;
+      this.quality  = quality;
+      this.attempts = attempts;
+    }
+  }
+
+  /**
+   * Kept in a small pool so that trial and real encodes reuse one backing array instead of growing a new one each time.
+   */
+  private static final class EncodeBuffer extends ByteArrayOutputStream {
+    EncodeBuffer() {
+      super(256 * 1024);
+    }
+
+    int capacity() {
+      return buf.length;
+    }
+  }
+}
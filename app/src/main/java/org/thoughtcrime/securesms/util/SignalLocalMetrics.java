@@ -4,8 +4,11 @@ import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import org.thoughtcrime.securesms.attachments.AttachmentId;
+
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A nice interface for {@link LocalMetrics} that gives us a place to define string constants and nicer method names.
@@ -296,4 +299,180 @@ public final class SignalLocalMetrics {
       }
     }
   }
+
+  public static final class ImageCompression {
+    private static final String NAME = "image-compression";
+
+    private static final String SPLIT_DECODE         = "decode";
+    private static final String SPLIT_TRIAL          = "trial-encode";
+    private static final String SPLIT_ENCODE_ATTEMPT = "encode-";
+
+    private static final AtomicLong ID_COUNTER = new AtomicLong();
+
+    public static @NonNull String start() {
+      String id = NAME + "-" + System.currentTimeMillis() + "-" + ID_COUNTER.incrementAndGet();
+      LocalMetrics.getInstance().start(id, NAME);
+      return id;
+    }
+
+    public static void onDecoded(@Nullable String id) {
+      split(id, SPLIT_DECODE);
+    }
+
+    public static void onTrialEncodeFinished(@Nullable String id) {
+      split(id, SPLIT_TRIAL);
+    }
+
+    /**
+     * Each attempt gets its own split, so the number of events with an "encode-2" split shows how often the first attempt missed.
+     */
+    public static void onEncodeAttemptFinished(@Nullable String id, int attempt) {
+      split(id, SPLIT_ENCODE_ATTEMPT + attempt);
+    }
+
+    public static void end(@Nullable String id) {
+      if (id != null) {
+        LocalMetrics.getInstance().end(id);
+      }
+    }
+
+    public static void cancel(@Nullable String id) {
+      if (id != null) {
+        LocalMetrics.getInstance().cancel(id);
+      }
+    }
+
+    private static void split(@Nullable String id, @NonNull String split) {
+      if (id != null) {
+        LocalMetrics.getInstance().split(id, split);
+      }
+    }
+  }
+
+  /**
+   * A single run of {@link org.thoughtcrime.securesms.jobs.RetrieveProfileJob}. Decryption overlaps with fetching, so the "decrypt" split is only the time
+   * spent waiting on decryption once every response is in.
+   */
+  public static final class ProfileRetrieval {
+    private static final String NAME = "profile-retrieval";
+
+    private static final String SPLIT_FETCH   = "fetch";
+    private static final String SPLIT_DECRYPT = "decrypt";
+    private static final String SPLIT_WRITE   = "write";
+
+    private static final AtomicLong ID_COUNTER = new AtomicLong();
+
+    public static @NonNull String start() {
+      String id = NAME + "-" + System.currentTimeMillis() + "-" + ID_COUNTER.incrementAndGet();
+      LocalMetrics.getInstance().start(id, NAME);
+      return id;
+    }
+
+    public static void onFetched(@NonNull String id) {
+      LocalMetrics.getInstance().split(id, SPLIT_FETCH);
+    }
+
+    public static void onDecrypted(@NonNull String id) {
+      LocalMetrics.getInstance().split(id, SPLIT_DECRYPT);
+    }
+
+    public static void onWritten(@NonNull String id) {
+      LocalMetrics.getInstance().split(id, SPLIT_WRITE);
+      LocalMetrics.getInstance().end(id);
+    }
+
+    public static void cancel(@NonNull String id) {
+      LocalMetrics.getInstance().cancel(id);
+    }
+  }
+
+  public static final class AttachmentThumbnail {
+    private static final String NAME_LOAD     = "attachment-thumbnail-load";
+    private static final String NAME_GENERATE = "attachment-thumbnail-generate";
+
+    private static final String SPLIT_HIT    = "hit";
+    private static final String SPLIT_MISS   = "miss";
+    private static final String SPLIT_DECODE = "decode";
+    private static final String SPLIT_ENCODE = "encode";
+    private static final String SPLIT_STORE  = "store";
+
+    private static final AtomicLong ID_COUNTER = new AtomicLong();
+
+    /**
+     * A load ends with either a "hit" or a "miss" split, so the split counts give the hit rate, and the "hit" split how long reading a stored thumbnail takes.
+     */
+    public static @NonNull String startLoad() {
+      return start(NAME_LOAD);
+    }
+
+    public static void onHit(@NonNull String id) {
+      LocalMetrics.getInstance().split(id, SPLIT_HIT);
+      LocalMetrics.getInstance().end(id);
+    }
+
+    public static void onMiss(@NonNull String id) {
+      LocalMetrics.getInstance().split(id, SPLIT_MISS);
+      LocalMetrics.getInstance().end(id);
+    }
+
+    public static @NonNull String startGenerate() {
+      return start(NAME_GENERATE);
+    }
+
+    public static void onDecoded(@NonNull String id) {
+      LocalMetrics.getInstance().split(id, SPLIT_DECODE);
+    }
+
+    public static void onEncoded(@NonNull String id) {
+      LocalMetrics.getInstance().split(id, SPLIT_ENCODE);
+    }
+
+    public static void onStored(@NonNull String id) {
+      LocalMetrics.getInstance().split(id, SPLIT_STORE);
+      LocalMetrics.getInstance().end(id);
+    }
+
+    public static void cancel(@NonNull String id) {
+      LocalMetrics.getInstance().cancel(id);
+    }
+
+    private static @NonNull String start(@NonNull String name) {
+      String id = name + "-" + System.currentTimeMillis() + "-" + ID_COUNTER.incrementAndGet();
+      LocalMetrics.getInstance().start(id, name);
+      return id;
+    }
+  }
+
+  /**
+   * The time from an audio attachment finishing its download to its wave form being stored. The "wait" split is how long it sat in the queue behind other
+   * wave forms, and the "generate" split the decode itself.
+   */
+  public static final class AudioWaveForm {
+    private static final String NAME = "audio-waveform";
+
+    private static final String SPLIT_WAIT     = "wait";
+    private static final String SPLIT_GENERATE = "generate";
+
+    public static void onDownloaded(@NonNull AttachmentId attachmentId) {
+      LocalMetrics.getInstance().start(getId(attachmentId), NAME);
+    }
+
+    public static void onGenerationStarted(@NonNull AttachmentId attachmentId) {
+      LocalMetrics.getInstance().split(getId(attachmentId), SPLIT_WAIT);
+    }
+
+    public static void onGenerated(@NonNull AttachmentId attachmentId) {
+      String id = getId(attachmentId);
+      LocalMetrics.getInstance().split(id, SPLIT_GENERATE);
+      LocalMetrics.getInstance().end(id);
+    }
+
+    public static void cancel(@NonNull AttachmentId attachmentId) {
+      LocalMetrics.getInstance().cancel(getId(attachmentId));
+    }
+
+    private static @NonNull String getId(@NonNull AttachmentId attachmentId) {
+      return NAME + "-" + attachmentId.getRowId() + "-" + attachmentId.getUniqueId();
+    }
+  }
 }
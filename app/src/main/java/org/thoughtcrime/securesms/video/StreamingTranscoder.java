@@ -6,12 +6,16 @@ import android.media.MediaMetadataRetriever;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
 
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.media.MediaInput;
 import org.thoughtcrime.securesms.video.videoconverter.EncodingException;
 import org.thoughtcrime.securesms.video.videoconverter.MediaConverter;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileReader;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -23,8 +27,15 @@ public final class StreamingTranscoder {
 
   private static final String TAG = Log.tag(StreamingTranscoder.class);
 
+  /**
+   * The muxer writes many small boxes and one write per sample, so output is gathered into a single fixed-size buffer before it reaches the (encrypting)
+   * output stream. This is the only output buffering, so memory use does not grow with the length of the video.
+   */
+  private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
   private final           MediaDataSource                dataSource;
   private final           long                           upperSizeLimit;
+  private final           long                           sizeTarget;
   private final           long                           inSize;
   private final           long                           duration;
   private final           int                            inputBitRate;
@@ -34,6 +45,8 @@ public final class StreamingTranscoder {
   private final           long                           fileSizeEstimate;
   private final @Nullable TranscoderOptions              options;
 
+  private volatile int lastProgress;
+
   /**
    * @param upperSizeLimit A upper size to transcode to. The actual output size can be up to 10% smaller.
    */
@@ -41,9 +54,24 @@ public final class StreamingTranscoder {
                              @Nullable TranscoderOptions options,
                              long upperSizeLimit)
       throws IOException, VideoSourceException
+  {
+    this(dataSource, options, upperSizeLimit, upperSizeLimit);
+  }
+
+  /**
+   * @param upperSizeLimit The hard limit on the output size.
+   * @param sizeTarget     The size the output bitrate is picked for, at most {@param upperSizeLimit}. Used to aim lower on a second pass, see
+   *                       {@link #getSecondPassSizeTarget()}.
+   */
+  public StreamingTranscoder(@NonNull MediaDataSource dataSource,
+                             @Nullable TranscoderOptions options,
+                             long upperSizeLimit,
+                             long sizeTarget)
+      throws IOException, VideoSourceException
   {
     this.dataSource = dataSource;
     this.options    = options;
+    this.sizeTarget = Math.min(sizeTarget, upperSizeLimit);
 
     final MediaMetadataRetriever mediaMetadataRetriever = new MediaMetadataRetriever();
     try {
@@ -56,7 +84,7 @@ public final class StreamingTranscoder {
     this.inSize         = dataSource.getSize();
     this.duration       = getDuration(mediaMetadataRetriever);
     this.inputBitRate   = VideoBitRateCalculator.bitRate(inSize, duration);
-    this.targetQuality  = new VideoBitRateCalculator(upperSizeLimit).getTargetQuality(duration, inputBitRate);
+    this.targetQuality  = new VideoBitRateCalculator(this.sizeTarget).getTargetQuality(duration, inputBitRate);
     this.upperSizeLimit = upperSizeLimit;
 
     this.transcodeRequired = inputBitRate >= targetQuality.getTargetTotalBitRate() * 1.2 || inSize > upperSizeLimit || containsLocation(mediaMetadataRetriever) || options != null;
@@ -103,7 +131,8 @@ public final class StreamingTranscoder {
     final long startTime = System.currentTimeMillis();
 
     final MediaConverter          converter               = new MediaConverter();
-    final LimitedSizeOutputStream limitedSizeOutputStream = new LimitedSizeOutputStream(stream, upperSizeLimit);
+    final BufferedOutputStream    bufferedOutputStream    = new BufferedOutputStream(stream, OUTPUT_BUFFER_SIZE);
+    final LimitedSizeOutputStream limitedSizeOutputStream = new LimitedSizeOutputStream(bufferedOutputStream, upperSizeLimit);
 
     converter.setInput(new MediaInput.MediaDataSourceMediaInput(dataSource));
     converter.setOutput(limitedSizeOutputStream);
@@ -120,7 +149,10 @@ public final class StreamingTranscoder {
       }
     }
 
+    lastProgress = 0;
+
     converter.setListener(percent -> {
+      lastProgress = percent;
       progress.onProgress(percent);
       return cancelationSignal != null && cancelationSignal.isCanceled();
     });
@@ -137,20 +169,52 @@ public final class StreamingTranscoder {
                              "  of Original  : %.1f%%\n" +
                              "  of Estimate  : %.1f%%\n" +
                              "  of Memory    : %.1f%%\n" +
-                             "Output bitrate : %s bps",
+                             "Output bitrate : %s bps\n" +
+                             "Throughput     : %s kB/s in, %s kB/s out\n" +
+                             "Peak RSS       : %s kB",
                              encodeDurationSec,
                              durationSec / encodeDurationSec,
                              numberFormat.format(outSize / 1024),
                              (outSize * 100d) / inSize,
                              (outSize * 100d) / fileSizeEstimate,
                              (outSize * 100d) / memoryFileEstimate,
-                             numberFormat.format(VideoBitRateCalculator.bitRate(outSize, duration))));
+                             numberFormat.format(VideoBitRateCalculator.bitRate(outSize, duration)),
+                             numberFormat.format((long) (inSize / 1024 / encodeDurationSec)),
+                             numberFormat.format((long) (outSize / 1024 / encodeDurationSec)),
+                             numberFormat.format(getPeakRssKb())));
 
     if (outSize > upperSizeLimit) {
       throw new VideoSizeException("Size constraints could not be met!");
     }
 
-    stream.flush();
+    bufferedOutputStream.flush();
+  }
+
+  /**
+   * When {@link #transcode} failed with a {@link VideoSizeException} because the output ran over the size limit, the bitrate estimate was too optimistic for
+   * this video. The limit was hit {@link #lastProgress} percent of the way through, so a second pass aiming for that fraction of the current target, with
+   * some margin, should fit. The limit can also be hit after all samples are written, while the muxer finishes the file, which still warrants a retry with
+   * the margin.
+   *
+   * @return The size target for a second pass, or -1 if a second pass is not expected to help.
+   */
+  public long getSecondPassSizeTarget() {
+    return getSecondPassSizeTarget(sizeTarget, upperSizeLimit, lastProgress, duration, inputBitRate);
+  }
+
+  @VisibleForTesting
+  static long getSecondPassSizeTarget(long sizeTarget, long upperSizeLimit, int progress, long duration, int inputBitRate) {
+    if (progress <= 0) {
+      return -1;
+    }
+
+    long target = (long) (sizeTarget * (Math.min(progress, 100) / 100d) * 0.9);
+
+    if (new VideoBitRateCalculator(target).getTargetQuality(duration, inputBitRate).getFileSizeEstimate() > upperSizeLimit) {
+      return -1;
+    }
+
+    return target;
   }
 
   public boolean isTranscodeRequired() {
@@ -178,6 +242,23 @@ public final class StreamingTranscoder {
     return locationString != null;
   }
 
+  /**
+   * The process' peak resident set size so far, or -1 if it can't be read.
+   */
+  private static long getPeakRssKb() {
+    try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("VmHWM:")) {
+          return Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim());
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      Log.w(TAG, "Unable to read peak RSS", e);
+    }
+    return -1;
+  }
+
   public interface Progress {
     void onProgress(int percent);
   }
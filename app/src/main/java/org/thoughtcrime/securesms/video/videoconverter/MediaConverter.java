@@ -197,6 +197,10 @@ public final class MediaConverter {
                 }
             }
         }
+        if (exception instanceof IOException) {
+            // Thrown by the output, for instance when the muxer's final writes run over a size limit, which callers handle on its own
+            throw (IOException) exception;
+        }
         if (exception != null) {
             throw new EncodingException("Transcode failed", exception);
         }
@@ -17,7 +17,8 @@ import org.thoughtcrime.securesms.keyvalue.SignalStore
  * Can provide [defaultValues] to set the same values before each test and use [dataSet] directly to add any
  * test specific values.
  *
- * The [dataSet] is reset at the beginning of each test to an empty state.
+ * The [dataSet] is reset at the beginning of each test to an empty state. The store reads from a snapshot of it, so
+ * test specific values should be written through [SignalStore] rather than directly into [dataSet].
  */
 class SignalStoreRule @JvmOverloads constructor(private val defaultValues: KeyValueDataSet.() -> Unit = {}) : TestRule {
   var dataSet = KeyValueDataSet()
@@ -32,8 +33,8 @@ class SignalStoreRule @JvmOverloads constructor(private val defaultValues: KeyVa
         }
 
         dataSet = KeyValueDataSet()
-        SignalStore.inject(KeyValueStore(MockKeyValuePersistentStorage.withDataSet(dataSet)))
         defaultValues.invoke(dataSet)
+        SignalStore.inject(KeyValueStore(MockKeyValuePersistentStorage.withDataSet(dataSet)))
 
         base.evaluate()
       }
@@ -0,0 +1,289 @@
+package org.thoughtcrime.securesms.blurhash;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks the table-driven codec against the straightforward evaluation it replaced.
+ */
+public final class BlurHashCodecTest {
+
+  private static final String[] HASHES = { "LEHV6nWB2yk8pyo0adR*.7kCMdnj", "LGF5]+Yk^6#M@-5c,1J5@[or[Q6.", "L6PZfSi_.AyE_3t7t7R**0o#DgR4", "00AzTr" };
+
+  @Test
+  public void linearTosRGBLookup_matchesLinearTosRGB() {
+    Random random = new Random(1);
+
+    for (int i = 0; i < 1_000_000; i++) {
+      double value = random.nextDouble() * 1.2 - 0.1;
+      assertEquals(BlurHashUtil.linearTosRGB(value), BlurHashUtil.linearTosRGBLookup(value));
+    }
+
+    for (int i = 0; i < 256; i++) {
+      double value = BlurHashUtil.sRGBToLinear(i);
+      assertEquals(i, BlurHashUtil.linearTosRGBLookup(value));
+      assertEquals(BlurHashUtil.linearTosRGB(Math.nextDown(value)), BlurHashUtil.linearTosRGBLookup(Math.nextDown(value)));
+      assertEquals(BlurHashUtil.linearTosRGB(Math.nextUp(value)), BlurHashUtil.linearTosRGBLookup(Math.nextUp(value)));
+    }
+
+    assertEquals(BlurHashUtil.linearTosRGB(Double.NaN), BlurHashUtil.linearTosRGBLookup(Double.NaN));
+  }
+
+  @Test
+  public void encode_matchesReference() {
+    Random random = new Random(2);
+
+    for (int size = 1; size <= 64; size += 7) {
+      for (int components = 1; components <= 9; components += 2) {
+        int   width  = size + random.nextInt(16);
+        int   height = size;
+        int[] noise  = noise(random, width, height);
+        int[] smooth = smooth(random, width, height);
+
+        assertEquals(referenceEncode(noise, width, height, components, 10 - components), BlurHashEncoder.encode(noise, width, height, components, 10 - components));
+        assertEquals(referenceEncode(smooth, width, height, components, 10 - components), BlurHashEncoder.encode(smooth, width, height, components, 10 - components));
+      }
+    }
+  }
+
+  @Test
+  public void encode_photoSized_matchesReference() {
+    Random random = new Random(3);
+    int    width  = 252;
+    int    height = 189;
+
+    for (int i = 0; i < 20; i++) {
+      int[] pixels = smooth(random, width, height);
+      assertEquals(referenceEncode(pixels, width, height, 4, 3), BlurHashEncoder.encode(pixels, width, height, 4, 3));
+    }
+  }
+
+  @Test
+  public void decode_matchesReference() {
+    for (String hash : HASHES) {
+      for (int width = 1; width <= 32; width += 5) {
+        for (int height = 1; height <= 32; height += 3) {
+          int[] pixels = new int[width * height];
+
+          BlurHashDecoder.decode(hash, width, height, 1.5, pixels);
+
+          assertArrayEquals(referenceDecode(hash, width, height, 1.5), pixels);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void decode_reusedBuffer_onlyWritesRequestedPixels() {
+    int[] pixels = new int[20 * 20];
+
+    BlurHashDecoder.decode(HASHES[0], 20, 20, 1, pixels);
+    BlurHashDecoder.decode(HASHES[1], 5, 4, 1, pixels);
+
+    int[] expected = new int[5 * 4];
+    System.arraycopy(pixels, 0, expected, 0, expected.length);
+
+    assertArrayEquals(referenceDecode(HASHES[1], 5, 4, 1), expected);
+  }
+
+  @Test
+  public void decode_invalidHash_returnsFalse() {
+    int[] pixels = new int[4];
+
+    assertFalse(BlurHashDecoder.decode(null, 2, 2, 1, pixels));
+    assertFalse(BlurHashDecoder.decode("00A", 2, 2, 1, pixels));
+    assertFalse(BlurHashDecoder.decode("LEHV6nWB2yk8pyo0adR*.7kCMdn", 2, 2, 1, pixels));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void decode_bufferTooSmall_throws() {
+    BlurHashDecoder.decode(HASHES[0], 4, 4, 1, new int[15]);
+  }
+
+  @Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+  @Test
+  public void benchmark_encode() {
+    Random random = new Random(4);
+
+    for (int megapixels : new int[] { 1, 4, 8, 12 }) {
+      int   width  = (int) Math.sqrt(megapixels * 1_000_000 * 4 / 3.0);
+      int   height = megapixels * 1_000_000 / width;
+      int[] pixels = smooth(random, width, height);
+
+      BlurHashEncoder.encode(pixels, width, height, 4, 3);
+
+      long   start    = System.nanoTime();
+      String hash     = BlurHashEncoder.encode(pixels, width, height, 4, 3);
+      long   tableMs  = (System.nanoTime() - start) / 1_000_000;
+
+      start = System.nanoTime();
+      String expected    = referenceEncode(pixels, width, height, 4, 3);
+      long   referenceMs = (System.nanoTime() - start) / 1_000_000;
+
+      assertEquals(expected, hash);
+      System.out.println("[BlurHashEncoder] " + megapixels + "MP (" + width + "x" + height + "): " + tableMs + "ms, reference " + referenceMs + "ms");
+    }
+  }
+
+  @Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+  @Test
+  public void benchmark_decode() {
+    int[] pixels = new int[32 * 32];
+
+    for (int i = 0; i < 1_000; i++) {
+      BlurHashDecoder.decode(HASHES[0], 32, 32, 1, pixels);
+      referenceDecode(HASHES[0], 32, 32, 1);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 10_000; i++) {
+      BlurHashDecoder.decode(HASHES[0], 32, 32, 1, pixels);
+    }
+    long tableMs = (System.nanoTime() - start) / 1_000_000;
+
+    start = System.nanoTime();
+    for (int i = 0; i < 10_000; i++) {
+      referenceDecode(HASHES[0], 32, 32, 1);
+    }
+    long referenceMs = (System.nanoTime() - start) / 1_000_000;
+
+    System.out.println("[BlurHashDecoder] 10000 x 32x32: " + tableMs + "ms, reference " + referenceMs + "ms");
+  }
+
+  private static int[] noise(Random random, int width, int height) {
+    int[] pixels = new int[width * height];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+    }
+    return pixels;
+  }
+
+  /**
+   * A few overlapping gradients, which is closer to what a camera produces than noise.
+   */
+  private static int[] smooth(Random random, int width, int height) {
+    int[]    pixels = new int[width * height];
+    double[] phase  = { random.nextDouble() * 6, random.nextDouble() * 6, random.nextDouble() * 6 };
+
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        double u = (double) x / width;
+        double v = (double) y / height;
+        int    r = (int) (127.5 + 127.5 * Math.sin(phase[0] + 3 * u + v));
+        int    g = (int) (127.5 + 127.5 * Math.sin(phase[1] + 2 * v - u));
+        int    b = (int) (127.5 + 127.5 * Math.sin(phase[2] + 5 * u * v)) ^ (random.nextInt(8));
+
+        pixels[y * width + x] = 0xff000000 | (r << 16) | (g << 8) | (b & 0xff);
+      }
+    }
+
+    return pixels;
+  }
+
+  /**
+   * The encoder as it was before it became table-driven.
+   */
+  private static String referenceEncode(int[] pixels, int width, int height, int componentX, int componentY) {
+    double[][] factors = new double[componentX * componentY][3];
+    for (int j = 0; j < componentY; j++) {
+      for (int i = 0; i < componentX; i++) {
+        double normalisation = i == 0 && j == 0 ? 1 : 2;
+        double r = 0, g = 0, b = 0;
+        for (int x = 0; x < width; x++) {
+          for (int y = 0; y < height; y++) {
+            double basis = normalisation
+                           * Math.cos((Math.PI * i * x) / width)
+                           * Math.cos((Math.PI * j * y) / height);
+            int pixel = pixels[y * width + x];
+            r += basis * BlurHashUtil.sRGBToLinear((pixel >> 16) & 0xff);
+            g += basis * BlurHashUtil.sRGBToLinear((pixel >> 8)  & 0xff);
+            b += basis * BlurHashUtil.sRGBToLinear( pixel        & 0xff);
+          }
+        }
+        double scale = 1.0 / (width * height);
+        factors[j * componentX + i][0] = r * scale;
+        factors[j * componentX + i][1] = g * scale;
+        factors[j * componentX + i][2] = b * scale;
+      }
+    }
+
+    char[] hash = new char[1 + 1 + 4 + 2 * (factors.length - 1)];
+    Base83.encode(componentX - 1 + (componentY - 1) * 9, 1, hash, 0);
+
+    double maximumValue;
+    if (factors.length > 1) {
+      double quantisedMaximumValue = Math.floor(Math.max(0, Math.min(82, Math.floor(BlurHashUtil.max(factors, 1, factors.length) * 166 - 0.5))));
+      maximumValue = (quantisedMaximumValue + 1) / 166;
+      Base83.encode(Math.round(quantisedMaximumValue), 1, hash, 1);
+    } else {
+      maximumValue = 1;
+      Base83.encode(0, 1, hash, 1);
+    }
+
+    double[] dc = factors[0];
+    Base83.encode((BlurHashUtil.linearTosRGB(dc[0]) << 16) + (BlurHashUtil.linearTosRGB(dc[1]) << 8) + BlurHashUtil.linearTosRGB(dc[2]), 4, hash, 2);
+
+    for (int i = 1; i < factors.length; i++) {
+      double[] value  = factors[i];
+      double   quantR = Math.floor(Math.max(0, Math.min(18, Math.floor(BlurHashUtil.signPow(value[0] / maximumValue, 0.5) * 9 + 9.5))));
+      double   quantG = Math.floor(Math.max(0, Math.min(18, Math.floor(BlurHashUtil.signPow(value[1] / maximumValue, 0.5) * 9 + 9.5))));
+      double   quantB = Math.floor(Math.max(0, Math.min(18, Math.floor(BlurHashUtil.signPow(value[2] / maximumValue, 0.5) * 9 + 9.5))));
+      Base83.encode(Math.round(quantR * 19 * 19 + quantG * 19 + quantB), 2, hash, 6 + 2 * (i - 1));
+    }
+
+    return new String(hash);
+  }
+
+  /**
+   * The decoder as it was before it became table-driven, writing pixels instead of a bitmap.
+   */
+  private static int[] referenceDecode(String blurHash, int width, int height, double punch) {
+    int numCompEnc = Base83.decode(blurHash, 0, 1);
+    int numCompX   = (numCompEnc % 9) + 1;
+    int numCompY   = (numCompEnc / 9) + 1;
+    double maxAc   = (Base83.decode(blurHash, 1, 2) + 1) / 166f;
+
+    double[][] colors = new double[numCompX * numCompY][];
+    for (int i = 0; i < colors.length; i++) {
+      if (i == 0) {
+        int colorEnc = Base83.decode(blurHash, 2, 6);
+        colors[i] = new double[] { BlurHashUtil.sRGBToLinear(colorEnc >> 16), BlurHashUtil.sRGBToLinear((colorEnc >> 8) & 255), BlurHashUtil.sRGBToLinear(colorEnc & 255) };
+      } else {
+        int from  = 4 + i * 2;
+        int value = Base83.decode(blurHash, from, from + 2);
+        colors[i] = new double[] { BlurHashUtil.signPow(((value / (19 * 19)) - 9) / 9.0f, 2f) * (maxAc * punch),
+                                   BlurHashUtil.signPow((((value / 19) % 19) - 9) / 9.0f, 2f) * (maxAc * punch),
+                                   BlurHashUtil.signPow(((value % 19) - 9) / 9.0f, 2f) * (maxAc * punch) };
+      }
+    }
+
+    int[] pixels = new int[width * height];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        double r = 0f;
+        double g = 0f;
+        double b = 0f;
+
+        for (int j = 0; j < numCompY; j++) {
+          for (int i = 0; i < numCompX; i++) {
+            double basis = (Math.cos(Math.PI * x * i / width) * Math.cos(Math.PI * y * j / height));
+            double[] color = colors[j * numCompX + i];
+            r += color[0] * basis;
+            g += color[1] * basis;
+            b += color[2] * basis;
+          }
+        }
+
+        pixels[y * width + x] = 0xff000000 | ((int) BlurHashUtil.linearTosRGB(r) << 16) | ((int) BlurHashUtil.linearTosRGB(g) << 8) | (int) BlurHashUtil.linearTosRGB(b);
+      }
+    }
+
+    return pixels;
+  }
+}
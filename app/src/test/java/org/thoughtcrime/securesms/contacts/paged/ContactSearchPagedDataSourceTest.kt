@@ -14,9 +14,12 @@ import org.mockito.kotlin.whenever
 import org.robolectric.RobolectricTestRunner
 import org.robolectric.annotation.Config
 import org.thoughtcrime.securesms.MockCursor
+import org.thoughtcrime.securesms.database.SearchTable
 import org.thoughtcrime.securesms.database.model.DistributionListPrivacyMode
 import org.thoughtcrime.securesms.recipients.Recipient
 import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.search.MessageResult
+import org.thoughtcrime.securesms.search.SearchRepository
 import org.thoughtcrime.securesms.util.adapter.mapping.MappingModel
 
 @RunWith(RobolectricTestRunner::class)
@@ -141,6 +144,24 @@ class ContactSearchPagedDataSourceTest {
     Assert.assertEquals(expected.data?.getString("n"), actual.data?.getString("n"))
   }
 
+  @Test
+  fun `Given messages were deleted after they were counted, when I load them, then I expect only the remaining messages`() {
+    val testSubject = createMessagesSubject(count = 5, remaining = 3)
+
+    Assert.assertEquals(6, testSubject.size())
+
+    val result = testSubject.load(0, 6, 6) { false }
+
+    val expected = listOf(
+      ContactSearchKey.Header(ContactSearchConfiguration.SectionKey.MESSAGES),
+      ContactSearchKey.Message(0),
+      ContactSearchKey.Message(1),
+      ContactSearchKey.Message(2)
+    )
+
+    Assert.assertEquals(expected, result.map { it.contactSearchKey })
+  }
+
   private fun createArbitrarySubject(): ContactSearchPagedDataSource {
     val configuration = ContactSearchConfiguration.build {
       arbitrary(
@@ -181,6 +202,24 @@ class ContactSearchPagedDataSourceTest {
     return ContactSearchPagedDataSource(configuration, repository)
   }
 
+  private fun createMessagesSubject(count: Int, remaining: Int): ContactSearchPagedDataSource {
+    val configuration = ContactSearchConfiguration.build {
+      query = "hello"
+
+      addSection(ContactSearchConfiguration.Section.Messages(includeHeader = true))
+    }
+
+    val results = (0 until remaining).map { MessageResult(Recipient.UNKNOWN, Recipient.UNKNOWN, "hello", "hello", 1, it.toLong(), it.toLong(), true) }
+    val search: SearchRepository.PagedMessageSearch = mock()
+    val searchRepository: SearchRepository = mock()
+
+    whenever(search.size).thenReturn(count)
+    whenever(search.getPage(isNull(), any())).thenReturn(SearchRepository.MessagePage(results, SearchTable.MessagePageKey(0.0, results.last().messageId)))
+    whenever(searchRepository.queryMessagesPaged("hello", SearchTable.Ranking.RELEVANCE)).thenReturn(search)
+
+    return ContactSearchPagedDataSource(configuration, repository, searchRepository = searchRepository)
+  }
+
   private fun createTestSubject(): ContactSearchPagedDataSource {
     val recents = ContactSearchConfiguration.Section.Recents(
       includeHeader = true
@@ -0,0 +1,158 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.BeforeClass
+import org.junit.Test
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.groups.GroupId
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testutil.EmptyLogger
+import java.security.SecureRandom
+
+class GroupMembershipCacheTest {
+
+  companion object {
+    @BeforeClass
+    @JvmStatic
+    fun setUpClass() {
+      Log.initialize(EmptyLogger())
+    }
+  }
+
+  private val groupA: GroupId = GroupId.createMms(SecureRandom())
+  private val groupB: GroupId = GroupId.createMms(SecureRandom())
+
+  private val alice = RecipientId.from(1)
+  private val bob = RecipientId.from(2)
+  private val carol = RecipientId.from(3)
+
+  private lateinit var source: FakeSource
+  private lateinit var cache: GroupMembershipCache
+
+  @Before
+  fun setUp() {
+    source = FakeSource()
+    source.memberships[groupA] = listOf(alice, bob)
+    source.memberships[groupB] = listOf(bob, carol)
+
+    cache = GroupMembershipCache(source)
+  }
+
+  @Test
+  fun givenPopulatedCache_whenIQuery_thenIExpectBothDirections() {
+    assertEquals(setOf(alice, bob), cache.getMembers(groupA))
+    assertEquals(setOf(groupA, groupB), cache.getGroupsContainingMember(bob))
+    assertEquals(setOf(groupB), cache.getGroupsContainingMember(carol))
+    assertEquals(emptySet<GroupId>(), cache.getGroupsContainingMember(RecipientId.from(4)))
+    assertEquals(1, source.loads)
+  }
+
+  @Test
+  fun givenInTransaction_whenIQueryUnpopulatedCache_thenIExpectNoAnswer() {
+    source.inTransaction = true
+
+    assertNull(cache.getMembers(groupA))
+    assertEquals(0, source.loads)
+  }
+
+  @Test
+  fun givenDirtyGroup_whenIQuery_thenIExpectNoAnswerUntilCommitted() {
+    cache.getMembers(groupA)
+
+    val token = cache.markDirty(groupA)
+
+    assertNull(cache.getMembers(groupA))
+    assertNull(cache.getGroupsContainingMember(alice))
+    assertEquals(setOf(bob, carol), cache.getMembers(groupB))
+
+    cache.onMembershipCommitted(groupA, token, listOf(alice, carol))
+
+    assertEquals(setOf(alice, carol), cache.getMembers(groupA))
+    assertEquals(setOf(groupB), cache.getGroupsContainingMember(bob))
+    assertEquals(setOf(groupA, groupB), cache.getGroupsContainingMember(carol))
+  }
+
+  @Test
+  fun givenTwoWrites_whenTheOlderCommitsLast_thenIExpectNewerMembers() {
+    cache.getMembers(groupA)
+
+    val first = cache.markDirty(groupA)
+    val second = cache.markDirty(groupA)
+
+    cache.onMembershipCommitted(groupA, second, listOf(carol))
+    cache.onMembershipCommitted(groupA, first, listOf(alice))
+
+    assertEquals(setOf(carol), cache.getMembers(groupA))
+  }
+
+  @Test
+  fun givenRolledBackWrite_whenIQuery_thenIExpectNoAnswer() {
+    cache.getMembers(groupA)
+
+    cache.markDirty(groupA)
+
+    assertNull(cache.getMembers(groupA))
+  }
+
+  @Test
+  fun givenAbandonedWrite_whenIQuery_thenIExpectReloadedMembers() {
+    cache.getMembers(groupA)
+
+    val token = cache.markDirty(groupA)
+    cache.onMembershipAbandoned(groupA, token)
+
+    assertEquals(setOf(alice, bob), cache.getMembers(groupA))
+    assertEquals(setOf(groupA, groupB), cache.getGroupsContainingMember(bob))
+    assertEquals(2, source.loads)
+  }
+
+  @Test
+  fun givenTwoWrites_whenTheOlderIsAbandoned_thenIExpectNoAnswerUntilTheNewerCommits() {
+    cache.getMembers(groupA)
+
+    val first = cache.markDirty(groupA)
+    val second = cache.markDirty(groupA)
+
+    cache.onMembershipAbandoned(groupA, first)
+
+    assertNull(cache.getMembers(groupA))
+
+    cache.onMembershipCommitted(groupA, second, listOf(carol))
+
+    assertEquals(setOf(carol), cache.getMembers(groupA))
+  }
+
+  @Test
+  fun givenDirtyGroup_whenIPopulate_thenIExpectItExcluded() {
+    cache.markDirty(groupA)
+
+    assertNull(cache.getMembers(groupA))
+    assertEquals(setOf(bob, carol), cache.getMembers(groupB))
+  }
+
+  @Test
+  fun givenInvalidate_whenIQuery_thenIExpectReload() {
+    cache.getMembers(groupA)
+    source.memberships[groupA] = listOf(carol)
+
+    cache.invalidate()
+
+    assertEquals(setOf(carol), cache.getMembers(groupA))
+    assertEquals(2, source.loads)
+  }
+
+  private class FakeSource : GroupMembershipCache.Source {
+    val memberships: MutableMap<GroupId, Collection<RecipientId>> = HashMap()
+    var inTransaction = false
+    var loads = 0
+
+    override fun isInTransaction(): Boolean = inTransaction
+
+    override fun getAllMemberships(): Map<GroupId, Collection<RecipientId>> {
+      loads++
+      return HashMap(memberships)
+    }
+  }
+}
@@ -118,7 +118,7 @@ class GroupsV2StateProcessorTest {
     }
 
     data.changeSet?.let { changeSet ->
-      every { groupsV2API.getGroupHistoryPage(any(), data.requestedRevision, any(), data.includeFirst) } returns changeSet.toApiResponse()
+      every { groupsV2API.getGroupHistoryPage(any(), data.requestedRevision, any(), data.includeFirst, any()) } returns changeSet.toApiResponse()
     }
   }
 
@@ -456,7 +456,7 @@ class GroupsV2StateProcessorTest {
         }
       }
     }
-    every { groupsV2API.getGroupHistoryPage(any(), 100, any(), true) } returns secondApiCallChangeSet.changeSet!!.toApiResponse()
+    every { groupsV2API.getGroupHistoryPage(any(), 100, any(), true, any()) } returns secondApiCallChangeSet.changeSet!!.toApiResponse()
 
     val result = processor.updateLocalGroupToRevision(GroupsV2StateProcessor.LATEST, 0, null)
 
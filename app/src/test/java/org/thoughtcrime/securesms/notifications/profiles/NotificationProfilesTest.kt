@@ -10,7 +10,7 @@ import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
 import org.robolectric.annotation.Config
 import org.thoughtcrime.securesms.SignalStoreRule
-import org.thoughtcrime.securesms.keyvalue.NotificationProfileValues
+import org.thoughtcrime.securesms.keyvalue.SignalStore
 import org.thoughtcrime.securesms.util.toMillis
 import java.time.DayOfWeek
 import java.time.LocalDateTime
@@ -59,9 +59,9 @@ class NotificationProfilesTest {
 
   @Test
   fun `when first is not enabled and second is manually enabled forever then return second`() {
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_PROFILE, second.id)
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_UNTIL, Long.MAX_VALUE)
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_DISABLED_AT, 5000L)
+    SignalStore.notificationProfileValues().manuallyEnabledProfile = second.id
+    SignalStore.notificationProfileValues().manuallyEnabledUntil = Long.MAX_VALUE
+    SignalStore.notificationProfileValues().manuallyDisabledAt = 5000L
 
     val profiles = listOf(first, second)
     assertThat("active profile is profile second", NotificationProfiles.getActiveProfile(profiles, 3000L, utc), `is`(profiles[1]))
@@ -76,9 +76,9 @@ class NotificationProfilesTest {
 
   @Test
   fun `when first is scheduled and second is manually enabled forever within first's schedule then return second`() {
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_PROFILE, second.id)
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_UNTIL, Long.MAX_VALUE)
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_DISABLED_AT, sunday830am.toMillis(ZoneOffset.UTC))
+    SignalStore.notificationProfileValues().manuallyEnabledProfile = second.id
+    SignalStore.notificationProfileValues().manuallyEnabledUntil = Long.MAX_VALUE
+    SignalStore.notificationProfileValues().manuallyDisabledAt = sunday830am.toMillis(ZoneOffset.UTC)
 
     val schedule = NotificationProfileSchedule(id = 3L, true, start = 700, daysEnabled = setOf(DayOfWeek.SUNDAY))
     val profiles = listOf(first.copy(schedule = schedule), second)
@@ -87,9 +87,9 @@ class NotificationProfilesTest {
 
   @Test
   fun `when first is scheduled and second is manually enabled forever before first's schedule start then return first`() {
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_PROFILE, second.id)
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_UNTIL, Long.MAX_VALUE)
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_DISABLED_AT, sunday830am.toMillis(ZoneOffset.UTC))
+    SignalStore.notificationProfileValues().manuallyEnabledProfile = second.id
+    SignalStore.notificationProfileValues().manuallyEnabledUntil = Long.MAX_VALUE
+    SignalStore.notificationProfileValues().manuallyDisabledAt = sunday830am.toMillis(ZoneOffset.UTC)
 
     val schedule = NotificationProfileSchedule(id = 3L, true, start = 900, daysEnabled = setOf(DayOfWeek.SUNDAY))
     val profiles = listOf(first.copy(schedule = schedule), second)
@@ -108,9 +108,9 @@ class NotificationProfilesTest {
 
   @Test
   fun `when first and second have overlapping schedules and first is created before second and first is manually enabled within overlapping schedule then return first`() {
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_PROFILE, first.id)
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_UNTIL, Long.MAX_VALUE)
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_DISABLED_AT, sunday830am.toMillis(ZoneOffset.UTC))
+    SignalStore.notificationProfileValues().manuallyEnabledProfile = first.id
+    SignalStore.notificationProfileValues().manuallyEnabledUntil = Long.MAX_VALUE
+    SignalStore.notificationProfileValues().manuallyDisabledAt = sunday830am.toMillis(ZoneOffset.UTC)
 
     val firstSchedule = NotificationProfileSchedule(id = 3L, true, start = 700, daysEnabled = setOf(DayOfWeek.SUNDAY))
     val secondSchedule = NotificationProfileSchedule(id = 4L, true, start = 700, daysEnabled = setOf(DayOfWeek.SUNDAY))
@@ -121,9 +121,9 @@ class NotificationProfilesTest {
 
   @Test
   fun `when profile is manually enabled for set time after schedule end and now is after schedule end but before manual then return profile`() {
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_PROFILE, first.id)
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_UNTIL, sunday930am.toMillis(ZoneOffset.UTC))
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_DISABLED_AT, sunday830am.toMillis(ZoneOffset.UTC))
+    SignalStore.notificationProfileValues().manuallyEnabledProfile = first.id
+    SignalStore.notificationProfileValues().manuallyEnabledUntil = sunday930am.toMillis(ZoneOffset.UTC)
+    SignalStore.notificationProfileValues().manuallyDisabledAt = sunday830am.toMillis(ZoneOffset.UTC)
 
     val schedule = NotificationProfileSchedule(id = 3L, true, start = 700, end = 845, daysEnabled = setOf(DayOfWeek.SUNDAY))
     val profiles = listOf(first.copy(schedule = schedule))
@@ -132,9 +132,9 @@ class NotificationProfilesTest {
 
   @Test
   fun `when profile is manually enabled for set time before schedule end and now is after manual but before schedule end then return null`() {
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_PROFILE, first.id)
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_UNTIL, sunday9am.toMillis(ZoneOffset.UTC))
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_DISABLED_AT, sunday830am.toMillis(ZoneOffset.UTC))
+    SignalStore.notificationProfileValues().manuallyEnabledProfile = first.id
+    SignalStore.notificationProfileValues().manuallyEnabledUntil = sunday9am.toMillis(ZoneOffset.UTC)
+    SignalStore.notificationProfileValues().manuallyDisabledAt = sunday830am.toMillis(ZoneOffset.UTC)
 
     val schedule = NotificationProfileSchedule(id = 3L, true, start = 700, end = 1000, daysEnabled = setOf(DayOfWeek.SUNDAY))
     val profiles = listOf(first.copy(schedule = schedule))
@@ -143,9 +143,9 @@ class NotificationProfilesTest {
 
   @Test
   fun `when profile is manually enabled yesterday and is scheduled also for today then return profile`() {
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_PROFILE, first.id)
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_UNTIL, sunday9am.toMillis(ZoneOffset.UTC))
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_DISABLED_AT, sunday830am.toMillis(ZoneOffset.UTC))
+    SignalStore.notificationProfileValues().manuallyEnabledProfile = first.id
+    SignalStore.notificationProfileValues().manuallyEnabledUntil = sunday9am.toMillis(ZoneOffset.UTC)
+    SignalStore.notificationProfileValues().manuallyDisabledAt = sunday830am.toMillis(ZoneOffset.UTC)
 
     val schedule = NotificationProfileSchedule(id = 3L, enabled = true, start = 700, end = 900, daysEnabled = setOf(DayOfWeek.SUNDAY, DayOfWeek.MONDAY))
     val profiles = listOf(first.copy(schedule = schedule))
@@ -154,9 +154,9 @@ class NotificationProfilesTest {
 
   @Test
   fun `when profile is manually disabled and schedule is on but with start after end and now is before end then return null`() {
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_PROFILE, 0)
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_ENABLED_UNTIL, 0)
-    signalStore.dataSet.putLong(NotificationProfileValues.KEY_MANUALLY_DISABLED_AT, sunday830am.toMillis(ZoneOffset.UTC))
+    SignalStore.notificationProfileValues().manuallyEnabledProfile = 0
+    SignalStore.notificationProfileValues().manuallyEnabledUntil = 0
+    SignalStore.notificationProfileValues().manuallyDisabledAt = sunday830am.toMillis(ZoneOffset.UTC)
 
     val schedule = NotificationProfileSchedule(id = 3L, enabled = true, start = 2200, end = 1000, daysEnabled = DayOfWeek.values().toSet())
     val profiles = listOf(first.copy(schedule = schedule))
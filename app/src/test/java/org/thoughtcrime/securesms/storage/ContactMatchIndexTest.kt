@@ -0,0 +1,136 @@
+package org.thoughtcrime.securesms.storage
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.BeforeClass
+import org.junit.Test
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+import org.mockito.Mockito.`when`
+import org.mockito.kotlin.any
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.RecipientTable
+import org.thoughtcrime.securesms.database.model.RecipientRecord
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testutil.EmptyLogger
+import org.whispersystems.signalservice.api.push.ACI
+import org.whispersystems.signalservice.api.push.PNI
+import org.whispersystems.signalservice.api.storage.SignalContactRecord
+import org.whispersystems.signalservice.api.storage.StorageId
+import org.whispersystems.signalservice.internal.storage.protos.ContactRecord
+import java.util.Optional
+import java.util.UUID
+
+class ContactMatchIndexTest {
+
+  private val recipientTable: RecipientTable = mock(RecipientTable::class.java)
+
+  @Test
+  fun `lookups for loaded identifiers, hits and misses, answered without queries`() {
+    // GIVEN
+    val local = localRecord(RECIPIENT_A, ACI_A, PNI_A, E164_A)
+    `when`(recipientTable.getRecordsForSyncMatching(any(), any(), any())).thenReturn(listOf(local))
+
+    // WHEN
+    val subject = ContactMatchIndex.load(recipientTable, listOf(remoteRecord(ACI_A, PNI_A, E164_A), remoteRecord(ACI_B, PNI_B, E164_B)), true)
+
+    // THEN
+    assertEquals(Optional.of(RECIPIENT_A), subject.getByServiceId(ACI_A))
+    assertEquals(Optional.of(RECIPIENT_A), subject.getByE164(E164_A))
+    assertEquals(Optional.of(RECIPIENT_A), subject.getByPni(PNI_A))
+    assertFalse(subject.getByServiceId(ACI_B).isPresent)
+    assertFalse(subject.getByServiceId(PNI_B).isPresent)
+    assertFalse(subject.getByE164(E164_B).isPresent)
+    assertFalse(subject.getByPni(PNI_B).isPresent)
+    assertSame(local, subject.getRecordForSync(RECIPIENT_A))
+
+    verify(recipientTable, never()).getByServiceId(any())
+    verify(recipientTable, never()).getByE164(any())
+    verify(recipientTable, never()).getByPni(any())
+    verify(recipientTable, never()).getRecordForSync(any())
+  }
+
+  @Test
+  fun `lookups for identifiers that were not loaded, queries table`() {
+    // GIVEN
+    `when`(recipientTable.getRecordsForSyncMatching(any(), any(), any())).thenReturn(emptyList())
+    `when`(recipientTable.getByServiceId(ACI_B)).thenReturn(Optional.of(RECIPIENT_B))
+
+    // WHEN
+    val subject = ContactMatchIndex.load(recipientTable, listOf(remoteRecord(ACI_A, PNI_A, E164_A)), false)
+
+    // THEN
+    assertEquals(Optional.of(RECIPIENT_B), subject.getByServiceId(ACI_B))
+    verify(recipientTable).getByServiceId(ACI_B)
+
+    subject.getByPni(PNI_A)
+    verify(recipientTable).getByPni(PNI_A)
+  }
+
+  @Test
+  fun `invalidate, evicts written identifiers and every recipient that shared one`() {
+    // GIVEN
+    val localA = localRecord(RECIPIENT_A, ACI_A, null, E164_A)
+    val localB = localRecord(RECIPIENT_B, ACI_B, PNI_B, E164_B)
+    `when`(recipientTable.getRecordsForSyncMatching(any(), any(), any())).thenReturn(listOf(localA, localB))
+
+    val subject = ContactMatchIndex.load(recipientTable, listOf(remoteRecord(ACI_A, null, E164_A), remoteRecord(ACI_B, PNI_B, E164_B)), true)
+
+    // WHEN
+    subject.invalidate(remoteRecord(ACI_A, null, E164_B))
+
+    // THEN
+    `when`(recipientTable.getByPni(PNI_B)).thenReturn(Optional.of(RECIPIENT_A))
+    `when`(recipientTable.getRecordForSync(RECIPIENT_B)).thenReturn(null)
+
+    assertEquals(Optional.of(RECIPIENT_A), subject.getByPni(PNI_B))
+    assertEquals(null, subject.getRecordForSync(RECIPIENT_B))
+    verify(recipientTable).getByPni(PNI_B)
+    verify(recipientTable).getRecordForSync(RECIPIENT_B)
+  }
+
+  private fun localRecord(id: RecipientId, aci: ACI, pni: PNI?, e164: String?): RecipientRecord {
+    val record = mock(RecipientRecord::class.java)
+    `when`(record.id).thenReturn(id)
+    `when`(record.serviceId).thenReturn(aci)
+    `when`(record.pni).thenReturn(pni)
+    `when`(record.e164).thenReturn(e164)
+    return record
+  }
+
+  private fun remoteRecord(aci: ACI, pni: PNI?, e164: String?): SignalContactRecord {
+    val builder = ContactRecord.newBuilder().setServiceId(aci.toString())
+
+    if (pni != null) {
+      builder.setServicePni(pni.toString())
+    }
+
+    if (e164 != null) {
+      builder.setServiceE164(e164)
+    }
+
+    return SignalContactRecord(StorageId.forContact(UUID.randomUUID().toString().toByteArray()), builder.build())
+  }
+
+  companion object {
+    val RECIPIENT_A: RecipientId = RecipientId.from(1)
+    val RECIPIENT_B: RecipientId = RecipientId.from(2)
+
+    val ACI_A = ACI.from(UUID.fromString("3436efbe-5a76-47fa-a98a-7e72c948a82e"))
+    val ACI_B = ACI.from(UUID.fromString("8de7f691-0b60-4a68-9cd9-ed2f8453f9ed"))
+
+    val PNI_A = PNI.from(UUID.fromString("154b8d92-c960-4f6c-8385-671ad2ffb999"))
+    val PNI_B = PNI.from(UUID.fromString("ba92b1fb-cd55-40bf-adda-c35a85375533"))
+
+    const val E164_A = "+12221234567"
+    const val E164_B = "+13331234567"
+
+    @JvmStatic
+    @BeforeClass
+    fun setUpClass() {
+      Log.initialize(EmptyLogger())
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package org.thoughtcrime.securesms.util;
+
+import android.app.Application;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.thoughtcrime.securesms.util.AppStartup.Affinity.BACKGROUND;
+import static org.thoughtcrime.securesms.util.AppStartup.Affinity.MAIN;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public class AppStartupTest {
+
+  private AppStartup   appStartup;
+  private List<String> ran;
+
+  @Before
+  public void setUp() {
+    appStartup = new AppStartup();
+    ran        = new CopyOnWriteArrayList<>();
+  }
+
+  @Test
+  public void executeBlocking_runsTasksAfterTheirDependencies() {
+    appStartup.addBlocking("a", BACKGROUND, record("a"))
+              .addBlocking("b", BACKGROUND, record("b"), "a")
+              .addBlocking("c", MAIN, record("c"), "b")
+              .addBlocking("d", BACKGROUND, record("d"), "a", "c");
+
+    appStartup.executeBlocking();
+
+    assertEquals(Arrays.asList("a", "b", "c", "d"), ran);
+  }
+
+  @Test
+  public void executeBlocking_runsMainTasksOnTheCallingThreadInOrder() {
+    Thread                  caller      = Thread.currentThread();
+    List<Thread>            mainThreads = new CopyOnWriteArrayList<>();
+    AtomicReference<Thread> background  = new AtomicReference<>();
+
+    appStartup.addBlocking("first", () -> { mainThreads.add(Thread.currentThread()); ran.add("first"); })
+              .addBlocking("second", () -> { mainThreads.add(Thread.currentThread()); ran.add("second"); })
+              .addBlocking("background", BACKGROUND, () -> background.set(Thread.currentThread()));
+
+    appStartup.executeBlocking();
+
+    assertEquals(Arrays.asList("first", "second"), ran);
+    assertEquals(Arrays.asList(caller, caller), mainThreads);
+    assertNotSame(caller, background.get());
+  }
+
+  @Test
+  public void executeBlocking_runsIndependentBackgroundTasksInParallel() {
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    Runnable       waitForBoth = () -> {
+      bothStarted.countDown();
+      try {
+        assertTrue(bothStarted.await(5, TimeUnit.SECONDS));
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    };
+
+    appStartup.addBlocking("a", BACKGROUND, waitForBoth)
+              .addBlocking("b", BACKGROUND, waitForBoth);
+
+    appStartup.executeBlocking();
+
+    assertEquals(0, bothStarted.getCount());
+  }
+
+  @Test
+  public void executeBlocking_whenABackgroundTaskFails_thenItsDependentsAreSkippedAndTheFailureIsRethrown() {
+    IllegalStateException failure = new IllegalStateException("Failed!");
+
+    appStartup.addBlocking("a", BACKGROUND, () -> { throw failure; })
+              .addBlocking("b", BACKGROUND, record("b"), "a")
+              .addBlocking("c", MAIN, record("c"), "b")
+              .addBlocking("unrelated", BACKGROUND, record("unrelated"));
+
+    try {
+      appStartup.executeBlocking();
+      fail("Expected the failure to be rethrown.");
+    } catch (IllegalStateException e) {
+      assertSame(failure, e);
+    }
+
+    assertEquals(Collections.singletonList("unrelated"), ran);
+  }
+
+  @Test
+  public void executeBlocking_whenAMainTaskFails_thenTheFailureIsRethrownOnTheMainThread() {
+    IllegalStateException failure = new IllegalStateException("Failed!");
+
+    appStartup.addBlocking("a", MAIN, () -> { throw failure; })
+              .addBlocking("b", BACKGROUND, record("b"), "a");
+
+    try {
+      appStartup.executeBlocking();
+      fail("Expected the failure to be rethrown.");
+    } catch (IllegalStateException e) {
+      assertSame(failure, e);
+      assertSame(Looper.getMainLooper().getThread(), Thread.currentThread());
+    }
+
+    assertTrue(ran.isEmpty());
+  }
+
+  @Test
+  public void executeBlocking_whenAFailureIsNotARuntimeException_thenItIsWrapped() {
+    Exception failure = new Exception("Failed!");
+
+    appStartup.addBlocking("a", BACKGROUND, () -> sneakyThrow(failure));
+
+    try {
+      appStartup.executeBlocking();
+      fail("Expected the failure to be rethrown.");
+    } catch (RuntimeException e) {
+      assertSame(failure, e.getCause());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void addBlocking_whenTheNameIsTaken_thenItThrows() {
+    appStartup.addBlocking("a", BACKGROUND, record("a"))
+              .addBlocking("a", MAIN, record("a"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void addBlocking_whenADependencyHasNotBeenAdded_thenItThrows() {
+    appStartup.addBlocking("a", BACKGROUND, record("a"), "b")
+              .addBlocking("b", BACKGROUND, record("b"));
+  }
+
+  private Runnable record(String name) {
+    return () -> ran.add(name);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <E extends Throwable> void sneakyThrow(Throwable throwable) throws E {
+    throw (E) throwable;
+  }
+}
@@ -0,0 +1,101 @@
+package org.thoughtcrime.securesms.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class ImageCompressionPlannerTest {
+
+  private static final int KB = 1000;
+
+  /** 1000x1000 trial, 100KB at quality 45, 200KB at 70, 400KB at 90, size growing linearly with area. */
+  private final ImageCompressionPlanner.Model model = new ImageCompressionPlanner.Model(new int[] { 45, 70, 90 },
+                                                                                       new long[] { 100 * KB, 200 * KB, 400 * KB },
+                                                                                       1000 * 1000,
+                                                                                       1.0);
+
+  @Test
+  public void predict_atTrialQualities_returnsTrialSizes() {
+    assertEquals(100 * KB, model.predict(1000 * 1000, 45));
+    assertEquals(200 * KB, model.predict(1000 * 1000, 70));
+    assertEquals(400 * KB, model.predict(1000 * 1000, 90));
+  }
+
+  @Test
+  public void predict_growsWithQualityAndArea() {
+    for (int quality = 46; quality <= 90; quality++) {
+      assertTrue(model.predict(1000 * 1000, quality) > model.predict(1000 * 1000, quality - 1));
+    }
+
+    assertEquals(4 * model.predict(1000 * 1000, 80), model.predict(2000 * 2000, 80), 4);
+  }
+
+  @Test
+  public void plan_fitsAtMaxQuality_keepsMaxQualityAndSize() {
+    ImageCompressionPlanner.Plan plan = model.plan(1000, 1000, 1000 * KB, 1);
+
+    assertEquals(0, plan.halfScales);
+    assertEquals(ImageCompressionPlanner.MAX_QUALITY, plan.quality);
+  }
+
+  @Test
+  public void plan_tooLargeAtMaxQuality_picksHighestQualityThatFits() {
+    ImageCompressionPlanner.Plan plan = model.plan(1000, 1000, 250 * KB, 1);
+
+    assertEquals(0, plan.halfScales);
+    assertEquals(74, plan.quality);
+    assertTrue(plan.predictedBytes <= 250 * KB * 0.95);
+    assertTrue(model.predict(1000 * 1000, 75) > 250 * KB * 0.95);
+  }
+
+  @Test
+  public void plan_tooLargeAtMinQuality_halvesDimensions() {
+    ImageCompressionPlanner.Plan plan = model.plan(1000, 1000, 50 * KB, 1);
+
+    assertEquals(1, plan.halfScales);
+    assertEquals(500, plan.width);
+    assertEquals(500, plan.height);
+    assertEquals(68, plan.quality);
+  }
+
+  @Test
+  public void plan_nothingFits_returnsSmallest() {
+    ImageCompressionPlanner.Plan plan = model.plan(1000, 1000, 1 * KB, 1);
+
+    assertTrue(plan.isSmallest());
+    assertEquals(125, plan.width);
+  }
+
+  @Test
+  public void smallestPlan_evenWhenLargerPlansFit_usesMinQualityAtMaxHalfScales() {
+    ImageCompressionPlanner.Plan plan = model.smallestPlan(1000, 1000, 1);
+
+    assertTrue(plan.isSmallest());
+    assertEquals(ImageCompressionPlanner.MIN_QUALITY, plan.quality);
+    assertEquals(ImageCompressionPlanner.MAX_HALF_SCALES, plan.halfScales);
+    assertEquals(125, plan.width);
+    assertEquals(125, plan.height);
+  }
+
+  @Test
+  public void plan_withCorrection_picksSmallerOutput() {
+    ImageCompressionPlanner.Plan first  = model.plan(1000, 1000, 300 * KB, 1);
+    ImageCompressionPlanner.Plan second = model.plan(1000, 1000, 300 * KB, 1.5);
+
+    assertTrue(second.quality < first.quality);
+    assertTrue(second.predictedBytes <= 300 * KB * 0.95);
+  }
+
+  @Test
+  public void estimateExponent_measuresGrowthWithArea() {
+    assertEquals(Math.log(3) / Math.log(4), ImageCompressionPlanner.Model.estimateExponent(4000, 300, 1000, 100), 0.0001);
+  }
+
+  @Test
+  public void estimateExponent_clampsToSaneRange() {
+    assertEquals(1.0, ImageCompressionPlanner.Model.estimateExponent(4000, 800, 1000, 100), 0);
+    assertEquals(0.5, ImageCompressionPlanner.Model.estimateExponent(4000, 110, 1000, 100), 0);
+    assertEquals(1.0, ImageCompressionPlanner.Model.estimateExponent(1000, 110, 1000, 100), 0);
+  }
+}
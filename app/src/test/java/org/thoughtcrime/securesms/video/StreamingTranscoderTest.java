@@ -0,0 +1,31 @@
+package org.thoughtcrime.securesms.video;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public final class StreamingTranscoderTest {
+
+  private static final long DURATION      = 60_000;
+  private static final int  INPUT_BITRATE = 10_000_000;
+
+  @Test
+  public void getSecondPassSizeTarget_noProgress_noSecondPass() {
+    assertEquals(-1, StreamingTranscoder.getSecondPassSizeTarget(20_000_000, 25_000_000, 0, DURATION, INPUT_BITRATE));
+  }
+
+  @Test
+  public void getSecondPassSizeTarget_limitHitHalfWay_targetsThatFractionWithMargin() {
+    assertEquals(9_000_000, StreamingTranscoder.getSecondPassSizeTarget(20_000_000, 25_000_000, 50, DURATION, INPUT_BITRATE));
+  }
+
+  @Test
+  public void getSecondPassSizeTarget_limitHitWhileFinishingFile_targetsMargin() {
+    assertEquals(18_000_000, StreamingTranscoder.getSecondPassSizeTarget(20_000_000, 25_000_000, 100, DURATION, INPUT_BITRATE));
+  }
+
+  @Test
+  public void getSecondPassSizeTarget_minimumQualityDoesNotFit_noSecondPass() {
+    assertEquals(-1, StreamingTranscoder.getSecondPassSizeTarget(10_000_000, 5_000_000, 10, DURATION, INPUT_BITRATE));
+  }
+}
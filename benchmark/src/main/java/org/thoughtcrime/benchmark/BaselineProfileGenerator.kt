@@ -30,6 +30,10 @@ class BaselineProfileGenerator {
       profileBlock = {
         if (!setup) {
           BenchmarkSetup.setup("cold-start", device)
+
+          // Start once so that the journey covers showing the conversation list snapshot
+          startActivityAndWait()
+          killProcess()
           setup = true
         }
         startActivityAndWait()
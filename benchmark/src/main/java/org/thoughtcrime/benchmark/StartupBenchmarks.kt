@@ -23,6 +23,20 @@ import org.junit.runner.RunWith
  */
 @RunWith(AndroidJUnit4::class)
 class StartupBenchmarks {
+  companion object {
+    /** Trace sections written by AppStartup for all of the blocking initializers together, and for the slowest of them. */
+    private val STARTUP_SECTIONS = listOf(
+      "AppStartup#blocking",
+      "AppStartup#sqlcipher-init",
+      "AppStartup#logging",
+      "AppStartup#app-dependencies",
+      "AppStartup#app-migrations",
+      "AppStartup#feature-flags",
+      "AppStartup#message-retriever",
+      "AppStartup#ring-rtc"
+    )
+  }
+
   @get:Rule
   val benchmarkRule = MacrobenchmarkRule()
 
@@ -41,7 +55,7 @@ class StartupBenchmarks {
     var setup = false
     benchmarkRule.measureRepeated(
       packageName = "org.thoughtcrime.securesms",
-      metrics = listOf(StartupTimingMetric(), TraceSectionMetric("ConversationListDataSource#load")),
+      metrics = listOf(StartupTimingMetric(), TraceSectionMetric("ConversationListDataSource#load"), TraceSectionMetric("ConversationListSnapshot#read")) + STARTUP_SECTIONS.map { TraceSectionMetric(it) },
       iterations = iterations,
       startupMode = StartupMode.COLD,
       compilationMode = compilationMode,
@@ -49,6 +63,8 @@ class StartupBenchmarks {
         if (!setup) {
           BenchmarkSetup.setup("cold-start", device)
 
+          // Start once so that every measured start has a conversation list snapshot to show
+          startActivityAndWait()
           killProcess()
           dropKernelPageCache()
           setup = true
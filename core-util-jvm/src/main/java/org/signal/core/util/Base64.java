@@ -0,0 +1,467 @@
+/*
+ * Copyright 2023 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.core.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Base64 encoding and decoding in the standard and URL-safe alphabets, with and without padding.
+ * <p>
+ * Produces exactly the same output as {@code org.whispersystems.util.Base64}, and decodes input with the same leniency (whitespace is skipped, anything
+ * after a padded quartet is ignored, as is a trailing partial quartet), but without the intermediate arrays. The {@link String} methods only allocate
+ * their result, and the array and {@link ByteBuffer} methods write into a buffer provided by the caller and allocate nothing.
+ */
+public final class Base64 {
+
+  private static final byte[] STANDARD_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] URL_SAFE_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+
+  private static final byte INVALID     = -9;
+  private static final byte WHITE_SPACE = -5;
+  private static final byte EQUALS_SIGN = -1;
+
+  private static final byte[] STANDARD_DECODABET = decodabet(STANDARD_ALPHABET);
+  private static final byte[] URL_SAFE_DECODABET = decodabet(URL_SAFE_ALPHABET);
+
+  private Base64() {}
+
+  /**
+   * Encodes with the standard alphabet and padding, the same as {@code org.whispersystems.util.Base64.encodeBytes}.
+   */
+  public static String encode(byte[] source) {
+    return encode(source, 0, source.length, false, true);
+  }
+
+  public static String encodeWithoutPadding(byte[] source) {
+    return encode(source, 0, source.length, false, false);
+  }
+
+  public static String encodeUrlSafe(byte[] source) {
+    return encode(source, 0, source.length, true, true);
+  }
+
+  public static String encodeUrlSafeWithoutPadding(byte[] source) {
+    return encode(source, 0, source.length, true, false);
+  }
+
+  public static String encode(byte[] source, int offset, int length, boolean urlSafe, boolean padding) {
+    byte[] encoded = new byte[encodedLength(length, padding)];
+    encode(source, offset, length, encoded, 0, urlSafe, padding);
+
+    return new String(encoded, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Encodes {@code length} bytes of {@code source} into {@code destination} as ASCII.
+   *
+   * @return The number of bytes written, which is always {@link #encodedLength(int, boolean)}.
+   * @throws IllegalArgumentException If there isn't room for the result in {@code destination}.
+   */
+  public static int encode(byte[] source, int offset, int length, byte[] destination, int destinationOffset, boolean urlSafe, boolean padding) {
+    checkRange(source.length, offset, length);
+
+    int encodedLength = encodedLength(length, padding);
+    checkRoom(destination.length, destinationOffset, encodedLength);
+
+    byte[] alphabet = urlSafe ? URL_SAFE_ALPHABET : STANDARD_ALPHABET;
+    int    end      = offset + length - length % 3;
+    int    out      = destinationOffset;
+
+    for (int i = offset; i < end; i += 3) {
+      int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8 | (source[i + 2] & 0xff);
+
+      destination[out++] = alphabet[bits >>> 18];
+      destination[out++] = alphabet[(bits >>> 12) & 0x3f];
+      destination[out++] = alphabet[(bits >>> 6) & 0x3f];
+      destination[out++] = alphabet[bits & 0x3f];
+    }
+
+    int remaining = offset + length - end;
+
+    if (remaining > 0) {
+      int bits = (source[end] & 0xff) << 16 | (remaining == 2 ? (source[end + 1] & 0xff) << 8 : 0);
+
+      destination[out++] = alphabet[bits >>> 18];
+      destination[out++] = alphabet[(bits >>> 12) & 0x3f];
+
+      if (remaining == 2) {
+        destination[out++] = alphabet[(bits >>> 6) & 0x3f];
+      } else if (padding) {
+        destination[out++] = '=';
+      }
+
+      if (padding) {
+        destination[out++] = '=';
+      }
+    }
+
+    return out - destinationOffset;
+  }
+
+  /**
+   * Encodes the remaining bytes of {@code source} into {@code destination}, advancing the position of both.
+   *
+   * @return The number of bytes written.
+   * @throws IllegalArgumentException If there isn't room for the result in {@code destination}.
+   */
+  public static int encode(ByteBuffer source, ByteBuffer destination, boolean urlSafe, boolean padding) {
+    int length = source.remaining();
+
+    if (source.hasArray() && destination.hasArray()) {
+      int written = encode(source.array(), source.arrayOffset() + source.position(), length,
+                           destination.array(), destination.arrayOffset() + destination.position(),
+                           urlSafe, padding);
+
+      source.position(source.position() + length);
+      destination.position(destination.position() + written);
+      return written;
+    }
+
+    int encodedLength = encodedLength(length, padding);
+    checkRoom(destination.remaining(), 0, encodedLength);
+
+    byte[] alphabet = urlSafe ? URL_SAFE_ALPHABET : STANDARD_ALPHABET;
+
+    while (source.remaining() >= 3) {
+      int bits = (source.get() & 0xff) << 16 | (source.get() & 0xff) << 8 | (source.get() & 0xff);
+
+      destination.put(alphabet[bits >>> 18]);
+      destination.put(alphabet[(bits >>> 12) & 0x3f]);
+      destination.put(alphabet[(bits >>> 6) & 0x3f]);
+      destination.put(alphabet[bits & 0x3f]);
+    }
+
+    int remaining = source.remaining();
+
+    if (remaining > 0) {
+      int bits = (source.get() & 0xff) << 16 | (remaining == 2 ? (source.get() & 0xff) << 8 : 0);
+
+      destination.put(alphabet[bits >>> 18]);
+      destination.put(alphabet[(bits >>> 12) & 0x3f]);
+
+      if (remaining == 2) {
+        destination.put(alphabet[(bits >>> 6) & 0x3f]);
+      } else if (padding) {
+        destination.put((byte) '=');
+      }
+
+      if (padding) {
+        destination.put((byte) '=');
+      }
+    }
+
+    return encodedLength;
+  }
+
+  public static int encodedLength(int length, boolean padding) {
+    if (padding) {
+      return (length + 2) / 3 * 4;
+    } else {
+      return length / 3 * 4 + (length % 3 == 0 ? 0 : length % 3 + 1);
+    }
+  }
+
+  /**
+   * Decodes with the standard alphabet, the same as {@code org.whispersystems.util.Base64.decode}.
+   *
+   * @throws IOException If there is a character outside of the alphabet.
+   * @throws IllegalArgumentException If the input is between one and three characters long.
+   */
+  public static byte[] decode(String source) throws IOException {
+    return decode(source, 0, STANDARD_DECODABET);
+  }
+
+  /**
+   * Decodes with the standard alphabet, treating the input as if it had been padded.
+   */
+  public static byte[] decodeWithoutPadding(String source) throws IOException {
+    return decode(source, missingPadding(source), STANDARD_DECODABET);
+  }
+
+  public static byte[] decodeUrlSafe(String source) throws IOException {
+    return decode(source, 0, URL_SAFE_DECODABET);
+  }
+
+  /**
+   * Decodes with the URL-safe alphabet, whether or not the input is padded.
+   */
+  public static byte[] decodeUrlSafeWithoutPadding(String source) throws IOException {
+    return decode(source, missingPadding(source), URL_SAFE_DECODABET);
+  }
+
+  /**
+   * Decodes {@code length} ASCII bytes of {@code source} into {@code destination}.
+   *
+   * @return The number of bytes written, which is at most {@link #decodedMaxLength(int)}.
+   * @throws IOException If there is a character outside of the alphabet.
+   * @throws IllegalArgumentException If there isn't room for the result in {@code destination}.
+   */
+  public static int decode(byte[] source, int offset, int length, byte[] destination, int destinationOffset, boolean urlSafe) throws IOException {
+    checkRange(source.length, offset, length);
+    checkLength(length);
+
+    byte[] decodabet = urlSafe ? URL_SAFE_DECODABET : STANDARD_DECODABET;
+    int    quartet   = 0;
+    int    count     = 0;
+    int    out       = destinationOffset;
+
+    for (int i = offset; i < offset + length; i++) {
+      int c = source[i] & 0xff;
+
+      if (!isQuartetCharacter(c, decodabet, i - offset)) {
+        continue;
+      }
+
+      quartet = quartet << 8 | c;
+
+      if (++count == 4) {
+        int written = quartetLength(quartet);
+        checkRoom(destination.length, out, written);
+        writeQuartet(quartetBits(quartet, decodabet), written, destination, out);
+
+        out   += written;
+        count  = 0;
+
+        if (c == '=') {
+          break;
+        }
+      }
+    }
+
+    return out - destinationOffset;
+  }
+
+  /**
+   * Decodes the remaining bytes of {@code source} into {@code destination}, advancing the position of both.
+   *
+   * @return The number of bytes written.
+   */
+  public static int decode(ByteBuffer source, ByteBuffer destination, boolean urlSafe) throws IOException {
+    int length = source.remaining();
+
+    if (source.hasArray() && destination.hasArray()) {
+      int written = decode(source.array(), source.arrayOffset() + source.position(), length,
+                           destination.array(), destination.arrayOffset() + destination.position(),
+                           urlSafe);
+
+      source.position(source.position() + length);
+      destination.position(destination.position() + written);
+      return written;
+    }
+
+    checkLength(length);
+
+    byte[] decodabet = urlSafe ? URL_SAFE_DECODABET : STANDARD_DECODABET;
+    int    quartet   = 0;
+    int    count     = 0;
+    int    total     = 0;
+
+    for (int i = 0; i < length; i++) {
+      int c = source.get() & 0xff;
+
+      if (!isQuartetCharacter(c, decodabet, i)) {
+        continue;
+      }
+
+      quartet = quartet << 8 | c;
+
+      if (++count == 4) {
+        int written = quartetLength(quartet);
+        int bits    = quartetBits(quartet, decodabet);
+
+        checkRoom(destination.remaining(), 0, written);
+
+        for (int j = 0; j < written; j++) {
+          destination.put((byte) (bits >>> (16 - 8 * j)));
+        }
+
+        total += written;
+        count  = 0;
+
+        if (c == '=') {
+          break;
+        }
+      }
+    }
+
+    source.position(source.limit());
+    return total;
+  }
+
+  public static int decodedMaxLength(int length) {
+    return (length + 3) / 4 * 3;
+  }
+
+  private static byte[] decode(String source, int padding, byte[] decodabet) throws IOException {
+    int length = source.length() + padding;
+    checkLength(length);
+
+    if (length == 0) {
+      return new byte[0];
+    }
+
+    byte[] decoded = new byte[expectedDecodedLength(source, padding)];
+    int    written = decode(source, padding, decodabet, decoded);
+
+    if (written < 0) {
+      decoded = new byte[decodedMaxLength(length)];
+      written = decode(source, padding, decodabet, decoded);
+    }
+
+    return written == decoded.length ? decoded : Arrays.copyOf(decoded, written);
+  }
+
+  /**
+   * @return The number of bytes written, or -1 if {@code destination} was too small.
+   */
+  private static int decode(String source, int padding, byte[] decodabet, byte[] destination) throws IOException {
+    int length  = source.length();
+    int quartet = 0;
+    int count   = 0;
+    int out     = 0;
+
+    for (int i = 0; i < length + padding; i++) {
+      int c = i < length ? source.charAt(i) : '=';
+
+      if (!isQuartetCharacter(c, decodabet, i)) {
+        continue;
+      }
+
+      quartet = quartet << 8 | c;
+
+      if (++count == 4) {
+        int written = quartetLength(quartet);
+        if (out + written > destination.length) {
+          return -1;
+        }
+
+        writeQuartet(quartetBits(quartet, decodabet), written, destination, out);
+
+        out   += written;
+        count  = 0;
+
+        if (c == '=') {
+          break;
+        }
+      }
+    }
+
+    return out;
+  }
+
+  /**
+   * @return True if the character is part of a quartet, false if it should be skipped.
+   * @throws IOException If the character is outside of the alphabet.
+   */
+  private static boolean isQuartetCharacter(int c, byte[] decodabet, int position) throws IOException {
+    byte value = c < 128 ? decodabet[c] : INVALID;
+
+    if (value == WHITE_SPACE) {
+      return false;
+    } else if (value == INVALID) {
+      throw new IOException(String.format("Bad Base64 input character '%c' in array position %d", c < 128 ? c : '?', position));
+    } else {
+      return true;
+    }
+  }
+
+  /**
+   * How many bytes four characters packed into an int decode to. Like the original implementation, padding is only looked for in the last two positions.
+   */
+  private static int quartetLength(int quartet) {
+    if (((quartet >>> 8) & 0xff) == '=') {
+      return 1;
+    } else if ((quartet & 0xff) == '=') {
+      return 2;
+    } else {
+      return 3;
+    }
+  }
+
+  /**
+   * The 24 bits that four characters packed into an int decode to, of which only the first {@link #quartetLength(int)} bytes are meaningful.
+   */
+  private static int quartetBits(int quartet, byte[] decodabet) {
+    return (decodabet[quartet >>> 24] & 0xff) << 18 |
+           (decodabet[(quartet >>> 16) & 0xff] & 0xff) << 12 |
+           (decodabet[(quartet >>> 8) & 0xff] & 0xff) << 6 |
+           (decodabet[quartet & 0xff] & 0xff);
+  }
+
+  private static void writeQuartet(int bits, int length, byte[] destination, int offset) {
+    for (int i = 0; i < length; i++) {
+      destination[offset + i] = (byte) (bits >>> (16 - 8 * i));
+    }
+  }
+
+  /**
+   * The decoded length of well-formed input, so that the common case needs no copy. Whitespace or early padding just mean a second pass.
+   */
+  private static int expectedDecodedLength(String source, int padding) {
+    int length = source.length();
+    int quads  = (length + padding) / 4;
+
+    if (padding > 0) {
+      return quads * 3 - padding;
+    } else if (length >= 2 && source.charAt(length - 2) == '=') {
+      return quads * 3 - 2;
+    } else if (length >= 1 && source.charAt(length - 1) == '=') {
+      return quads * 3 - 1;
+    } else {
+      return quads * 3;
+    }
+  }
+
+  /**
+   * How many padding characters the original implementation appended before decoding unpadded input.
+   */
+  private static int missingPadding(String source) {
+    switch (source.length() % 4) {
+      case 1:
+      case 3:  return 1;
+      case 2:  return 2;
+      default: return 0;
+    }
+  }
+
+  private static void checkLength(int length) {
+    if (length > 0 && length < 4) {
+      throw new IllegalArgumentException("Base64-encoded string must have at least four characters, but length specified was " + length);
+    }
+  }
+
+  private static void checkRange(int arrayLength, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > arrayLength) {
+      throw new IllegalArgumentException(String.format("Source array with length %d cannot have offset of %d and process %d bytes.", arrayLength, offset, length));
+    }
+  }
+
+  private static void checkRoom(int arrayLength, int offset, int length) {
+    if (offset < 0 || offset + length > arrayLength) {
+      throw new IllegalArgumentException("Destination is too small");
+    }
+  }
+
+  private static byte[] decodabet(byte[] alphabet) {
+    byte[] decodabet = new byte[128];
+    Arrays.fill(decodabet, INVALID);
+
+    decodabet['\t'] = WHITE_SPACE;
+    decodabet['\n'] = WHITE_SPACE;
+    decodabet['\r'] = WHITE_SPACE;
+    decodabet[' ']  = WHITE_SPACE;
+    decodabet['=']  = EQUALS_SIGN;
+
+    for (int i = 0; i < alphabet.length; i++) {
+      decodabet[alphabet[i]] = (byte) i;
+    }
+
+    return decodabet;
+  }
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2011 Whisper Systems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.signal.core.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Utility for generating hex dumps.
+ */
+public class Hex {
+
+  private final static int HEX_DIGITS_START = 10;
+  private final static int ASCII_TEXT_START = HEX_DIGITS_START + (16*2 + (16/2));
+
+  final static String EOL = System.getProperty("line.separator");
+
+  private final static char[] HEX_DIGITS = {
+    '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+  };
+
+  private final static byte[] HEX_DIGIT_VALUES = new byte[128];
+
+  static {
+    for (int i = 0; i < HEX_DIGIT_VALUES.length; i++) {
+      HEX_DIGIT_VALUES[i] = (byte) Character.digit(i, 16);
+    }
+  }
+
+  public static String toString(byte[] bytes) {
+    return toString(bytes, 0, bytes.length);
+  }
+
+  public static String toString(byte[] bytes, int offset, int length) {
+    char[] chars = new char[length * 3];
+    for (int i = 0; i < length; i++) {
+      int b = bytes[offset + i];
+      chars[i * 3]     = HEX_DIGITS[(b >> 4) & 0xf];
+      chars[i * 3 + 1] = HEX_DIGITS[b & 0xf];
+      chars[i * 3 + 2] = ' ';
+    }
+    return new String(chars);
+  }
+
+  public static String toStringCondensed(byte[] bytes) {
+    return toStringCondensed(bytes, 0, bytes.length);
+  }
+
+  public static String toStringCondensed(byte[] bytes, int offset, int length) {
+    char[] chars = new char[length * 2];
+    for (int i = 0; i < length; i++) {
+      int b = bytes[offset + i];
+      chars[i * 2]     = HEX_DIGITS[(b >> 4) & 0xf];
+      chars[i * 2 + 1] = HEX_DIGITS[b & 0xf];
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Writes the condensed hex of {@code length} bytes of {@code source} into {@code destination} as ASCII.
+   *
+   * @return The number of bytes written, which is always twice {@code length}.
+   */
+  public static int encodeCondensed(byte[] source, int offset, int length, byte[] destination, int destinationOffset) {
+    if (destinationOffset < 0 || destinationOffset + length * 2 > destination.length) {
+      throw new IllegalArgumentException("Destination is too small");
+    }
+
+    for (int i = 0; i < length; i++) {
+      int b = source[offset + i];
+      destination[destinationOffset + i * 2]     = (byte) HEX_DIGITS[(b >> 4) & 0xf];
+      destination[destinationOffset + i * 2 + 1] = (byte) HEX_DIGITS[b & 0xf];
+    }
+
+    return length * 2;
+  }
+
+  /**
+   * Writes the condensed hex of the remaining bytes of {@code source} into {@code destination}, advancing the position of both.
+   *
+   * @return The number of bytes written.
+   */
+  public static int encodeCondensed(ByteBuffer source, ByteBuffer destination) {
+    int length = source.remaining();
+
+    if (destination.remaining() < length * 2) {
+      throw new IllegalArgumentException("Destination is too small");
+    }
+
+    while (source.hasRemaining()) {
+      int b = source.get();
+      destination.put((byte) HEX_DIGITS[(b >> 4) & 0xf]);
+      destination.put((byte) HEX_DIGITS[b & 0xf]);
+    }
+
+    return length * 2;
+  }
+
+  public static byte[] fromStringCondensed(String encoded) throws IOException {
+    final byte[] out = new byte[decodedLength(encoded)];
+    decodeCondensed(encoded, out, 0);
+    return out;
+  }
+
+  /**
+   * Decodes condensed hex into {@code destination}. Like {@link #fromStringCondensed(String)}, characters that aren't hex digits are not rejected.
+   *
+   * @return The number of bytes written, which is always half the length of {@code encoded}.
+   */
+  public static int decodeCondensed(String encoded, byte[] destination, int destinationOffset) throws IOException {
+    final int length = decodedLength(encoded);
+
+    if (destinationOffset < 0 || destinationOffset + length > destination.length) {
+      throw new IllegalArgumentException("Destination is too small");
+    }
+
+    // two characters form the hex value.
+    for (int i = 0, j = 0; i < length; i++, j += 2) {
+      destination[destinationOffset + i] = (byte) (digit(encoded.charAt(j)) << 4 | digit(encoded.charAt(j + 1)));
+    }
+
+    return length;
+  }
+
+  /**
+   * Decodes condensed hex into {@code destination}, advancing its position.
+   *
+   * @return The number of bytes written.
+   */
+  public static int decodeCondensed(String encoded, ByteBuffer destination) throws IOException {
+    final int length = decodedLength(encoded);
+
+    if (destination.remaining() < length) {
+      throw new IllegalArgumentException("Destination is too small");
+    }
+
+    for (int j = 0; j < length * 2; j += 2) {
+      destination.put((byte) (digit(encoded.charAt(j)) << 4 | digit(encoded.charAt(j + 1))));
+    }
+
+    return length;
+  }
+
+  public static byte[] fromStringOrThrow(String encoded) {
+    try {
+      return fromStringCondensed(encoded);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  public static String dump(byte[] bytes) {
+    return dump(bytes, 0, bytes.length);
+  }
+
+  public static String dump(byte[] bytes, int offset, int length) {
+    StringBuffer buf = new StringBuffer();
+    int lines = ((length - 1) / 16) + 1;
+    int lineOffset;
+    int lineLength;
+
+    for (int i = 0; i < lines; i++) {
+      lineOffset = (i * 16) + offset;
+      lineLength = Math.min(16, (length - (i * 16)));
+      appendDumpLine(buf, i, bytes, lineOffset, lineLength);
+      buf.append(EOL);
+    }
+
+    return buf.toString();
+  }
+
+  private static void appendDumpLine(StringBuffer buf, int line, byte[] bytes, int lineOffset, int lineLength) {
+    buf.append(HEX_DIGITS[(line >> 28) & 0xf]);
+    buf.append(HEX_DIGITS[(line >> 24) & 0xf]);
+    buf.append(HEX_DIGITS[(line >> 20) & 0xf]);
+    buf.append(HEX_DIGITS[(line >> 16) & 0xf]);
+    buf.append(HEX_DIGITS[(line >> 12) & 0xf]);
+    buf.append(HEX_DIGITS[(line >>  8) & 0xf]);
+    buf.append(HEX_DIGITS[(line >>  4) & 0xf]);
+    buf.append(HEX_DIGITS[(line      ) & 0xf]);
+    buf.append(": ");
+
+    for (int i = 0; i < 16; i++) {
+      int idx = i + lineOffset;
+      if (i < lineLength) {
+        int b = bytes[idx];
+        appendHexChar(buf, b);
+      } else {
+        buf.append("  ");
+      }
+      if ((i % 2) == 1) {
+        buf.append(' ');
+      }
+    }
+
+    for (int i = 0; i < 16 && i < lineLength; i++) {
+      int idx = i + lineOffset;
+      int b = bytes[idx];
+      if (b >= 0x20 && b <= 0x7e) {
+        buf.append((char)b);
+      } else {
+        buf.append('.');
+      }
+    }
+  }
+
+  private static int decodedLength(String encoded) throws IOException {
+    if ((encoded.length() & 0x01) != 0) {
+      throw new IOException("Odd number of characters.");
+    }
+
+    return encoded.length() >> 1;
+  }
+
+  /**
+   * Same as {@link Character#digit(char, int)} with a radix of 16, which is -1 for anything that isn't a hex digit.
+   */
+  private static int digit(char c) {
+    return c < HEX_DIGIT_VALUES.length ? HEX_DIGIT_VALUES[c] : Character.digit(c, 16);
+  }
+
+  private static void appendHexChar(StringBuffer buf, int b) {
+    buf.append(HEX_DIGITS[(b >> 4) & 0xf]);
+    buf.append(HEX_DIGITS[b & 0xf]);
+  }
+
+}
@@ -0,0 +1,141 @@
+package org.signal.core.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public final class Base64Test {
+
+  private static final String[][] RFC_4648_VECTORS = {
+      { "", "" },
+      { "f", "Zg==" },
+      { "fo", "Zm8=" },
+      { "foo", "Zm9v" },
+      { "foob", "Zm9vYg==" },
+      { "fooba", "Zm9vYmE=" },
+      { "foobar", "Zm9vYmFy" }
+  };
+
+  @Test
+  public void encode_matches_rfc_4648() {
+    for (String[] vector : RFC_4648_VECTORS) {
+      assertEquals(vector[1], Base64.encode(bytes(vector[0])));
+      assertEquals(vector[1].replace("=", ""), Base64.encodeWithoutPadding(bytes(vector[0])));
+    }
+  }
+
+  @Test
+  public void decode_matches_rfc_4648() throws IOException {
+    for (String[] vector : RFC_4648_VECTORS) {
+      assertArrayEquals(bytes(vector[0]), Base64.decode(vector[1]));
+      assertArrayEquals(bytes(vector[0]), Base64.decodeWithoutPadding(vector[1].replace("=", "")));
+    }
+  }
+
+  @Test
+  public void url_safe_uses_url_safe_alphabet() throws IOException {
+    byte[] data = { (byte) 0xfb, (byte) 0xff, (byte) 0xbf };
+
+    assertEquals("+/+/", Base64.encode(data));
+    assertEquals("-_-_", Base64.encodeUrlSafe(data));
+    assertArrayEquals(data, Base64.decodeUrlSafe("-_-_"));
+    assertArrayEquals(new byte[] { (byte) 0xfb, (byte) 0xff }, Base64.decodeUrlSafeWithoutPadding("-_8"));
+  }
+
+  @Test(expected = IOException.class)
+  public void url_safe_decode_rejects_standard_alphabet() throws IOException {
+    Base64.decodeUrlSafe("+/+/");
+  }
+
+  @Test(expected = IOException.class)
+  public void decode_rejects_non_ascii() throws IOException {
+    Base64.decode("Zm9vég==");
+  }
+
+  @Test
+  public void decode_skips_whitespace_and_ignores_anything_after_padding() throws IOException {
+    assertArrayEquals(bytes("foobar"), Base64.decode(" Zm9v\r\nYmFy\t"));
+    assertArrayEquals(bytes("fo"), Base64.decode("Zm8=Zm9v"));
+    assertArrayEquals(bytes("foo"), Base64.decode("Zm9vYm"));
+  }
+
+  @Test
+  public void encode_into_buffer_at_offset() {
+    byte[] source      = bytes("xfoobax");
+    byte[] destination = new byte[12];
+
+    int written = Base64.encode(source, 1, 5, destination, 2, false, true);
+
+    assertEquals(8, written);
+    assertEquals("Zm9vYmE=", new String(destination, 2, written, StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void decode_into_buffer_at_offset() throws IOException {
+    byte[] source      = bytes("..Zm9vYmE=");
+    byte[] destination = new byte[Base64.decodedMaxLength(8) + 1];
+
+    int written = Base64.decode(source, 2, 8, destination, 1, false);
+
+    assertEquals(5, written);
+    assertEquals("fooba", new String(destination, 1, written, StandardCharsets.US_ASCII));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void encode_into_buffer_that_is_too_small() {
+    Base64.encode(bytes("foo"), 0, 3, new byte[3], 0, false, true);
+  }
+
+  @Test
+  public void byte_buffers_heap_and_direct() throws IOException {
+    for (boolean direct : new boolean[] { false, true }) {
+      ByteBuffer source  = buffer(bytes("foobar"), direct);
+      ByteBuffer encoded = direct ? ByteBuffer.allocateDirect(8) : ByteBuffer.allocate(8);
+
+      assertEquals(8, Base64.encode(source, encoded, false, false));
+      assertEquals(0, source.remaining());
+      assertEquals(8, encoded.position());
+
+      encoded.flip();
+
+      ByteBuffer decoded = direct ? ByteBuffer.allocateDirect(6) : ByteBuffer.allocate(6);
+
+      assertEquals(6, Base64.decode(encoded, decoded, false));
+      assertEquals(0, decoded.remaining());
+
+      decoded.flip();
+
+      byte[] result = new byte[decoded.remaining()];
+      decoded.get(result);
+
+      assertArrayEquals(bytes("foobar"), result);
+    }
+  }
+
+  @Test
+  public void encoded_length() {
+    assertEquals(0, Base64.encodedLength(0, true));
+    assertEquals(4, Base64.encodedLength(1, true));
+    assertEquals(2, Base64.encodedLength(1, false));
+    assertEquals(3, Base64.encodedLength(2, false));
+    assertEquals(4, Base64.encodedLength(3, false));
+    assertEquals(44, Base64.encodedLength(32, true));
+    assertEquals(43, Base64.encodedLength(32, false));
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static ByteBuffer buffer(byte[] bytes, boolean direct) {
+    ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(bytes.length) : ByteBuffer.allocate(bytes.length);
+    buffer.put(bytes);
+    buffer.flip();
+    return buffer;
+  }
+}
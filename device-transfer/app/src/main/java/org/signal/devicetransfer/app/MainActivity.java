@@ -120,8 +120,8 @@ public class MainActivity extends AppCompatActivity {
     private static final int    ROUNDS = 131072 / 4; // Use 131072 to send 1GB
 
     @Override
-    public void run(@NonNull Context context, @NonNull OutputStream outputStream) throws IOException {
-      Random r    = new Random(System.currentTimeMillis());
+    public void run(@NonNull Context context, @NonNull OutputStream outputStream, boolean resumable) throws IOException {
+      Random r    = new Random(resumable ? 0 : System.currentTimeMillis());
       byte[] data = new byte[8192];
       r.nextBytes(data);
 
@@ -145,7 +145,7 @@ public class MainActivity extends AppCompatActivity {
     private static final String TAG = "ServerReceive";
 
     @Override
-    public void run(@NonNull Context context, @NonNull InputStream inputStream) throws IOException {
+    public void run(@NonNull Context context, @NonNull InputStream inputStream, boolean resumable) throws IOException {
       long   start  = System.currentTimeMillis();
       byte[] data   = new byte[8192];
       int    result = 0;
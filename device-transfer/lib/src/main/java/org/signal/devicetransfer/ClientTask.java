@@ -17,8 +17,11 @@ public interface ClientTask extends Serializable {
   /**
    * @param context      Android context, mostly like the foreground transfer service
    * @param outputStream Output stream associated with socket connected to remote server.
+   * @param resumable    True when the output is striped across several connections and can be resumed after a drop. The
+   *                     task is run again after a drop, and must then write exactly the same bytes as before, as far as it
+   *                     got, for the transfer to resume. The connections are authenticated TLS either way.
    */
-  void run(@NonNull Context context, @NonNull OutputStream outputStream) throws IOException;
+  void run(@NonNull Context context, @NonNull OutputStream outputStream, boolean resumable) throws IOException;
 
   /**
    * Called after the output stream has been successfully flushed and closed.
@@ -0,0 +1,166 @@
+package org.signal.devicetransfer;
+
+import androidx.annotation.NonNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Wire format of the multi-stream transfer, used once both sides have verified the SAS and
+ * told each other they support it.
+ * <ol>
+ * <li>Over the verified connection, the server sends a {@link SessionInfo}: a session token, the attempt (epoch)
+ * it's for, the port of a second TLS server socket with the same certificate, the chunk size, and a {@link Checkpoint}
+ * of what it already has from earlier attempts.</li>
+ * <li>The client opens extra TLS connections to that port, checks the server presents the certificate it verified,
+ * and joins each to the session by sending the token and epoch.</li>
+ * <li>The client splits the task's output into numbered chunks and writes each to whichever connection is free. The
+ * server puts them back in order. After the last chunk, the client sends a FIN with the chunk count over the verified
+ * connection.</li>
+ * </ol>
+ * If a connection drops, the client reconnects and runs its task again. The server keeps its {@link TransferSession},
+ * so the client can skip the chunks the server already has, once it's checked they're identical.
+ */
+final class MultiStreamProtocol {
+
+  /** Sent by both sides once the SAS is verified, instead of the legacy single stream marker, to advertise support. */
+  public static final int VERIFIED_MULTI_STREAM  = 0x4D;
+  public static final int VERIFIED_SINGLE_STREAM = 0x43;
+
+  public static final int STREAM_COUNT    = 4;
+  public static final int CHUNK_SIZE      = 256 * 1024;
+  public static final int WINDOW_CHUNKS   = 64;
+  public static final int TOKEN_LENGTH    = 32;
+  public static final int CONNECT_TIMEOUT = 10000;
+
+  static final long SEQUENCE_FIN   = -1;
+  static final long SEQUENCE_ABORT = -2;
+
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
+  private MultiStreamProtocol() {}
+
+  static void writeSessionInfo(@NonNull DataOutputStream out, @NonNull SessionInfo info) throws IOException {
+    out.write(info.getToken());
+    out.writeInt(info.getEpoch());
+    out.writeInt(info.getPort());
+    out.writeInt(info.getChunkSize());
+    out.writeLong(info.getCheckpoint().getChunks());
+    out.write(info.getCheckpoint().getDigest());
+    out.flush();
+  }
+
+  static @NonNull SessionInfo readSessionInfo(@NonNull DataInputStream in) throws IOException {
+    byte[] token = new byte[TOKEN_LENGTH];
+    in.readFully(token);
+
+    int  epoch     = in.readInt();
+    int  port      = in.readInt();
+    int  chunkSize = in.readInt();
+    long chunks    = in.readLong();
+
+    byte[] digest = new byte[DeviceTransferAuthentication.DIGEST_LENGTH];
+    in.readFully(digest);
+
+    if (chunkSize <= 0 || chunks < 0) {
+      throw new IOException("Invalid session info");
+    }
+
+    return new SessionInfo(token, epoch, port, chunkSize, new Checkpoint(chunks, digest));
+  }
+
+  static void writeJoin(@NonNull DataOutputStream out, @NonNull byte[] token, int epoch) throws IOException {
+    out.write(token);
+    out.writeInt(epoch);
+    out.flush();
+  }
+
+  static void writeChunk(@NonNull DataOutputStream out, long sequence, @NonNull byte[] chunk, int length) throws IOException {
+    out.writeLong(sequence);
+    out.writeInt(length);
+    out.write(chunk, 0, length);
+  }
+
+  static void writeFin(@NonNull DataOutputStream out, long chunks) throws IOException {
+    out.writeLong(SEQUENCE_FIN);
+    out.writeInt(0);
+    out.writeLong(chunks);
+    out.flush();
+  }
+
+  static void writeAbort(@NonNull DataOutputStream out) throws IOException {
+    out.writeLong(SEQUENCE_ABORT);
+    out.writeInt(0);
+    out.flush();
+  }
+
+  static @NonNull MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(DIGEST_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * How many chunks, from the start, the server has received, and a digest of their contents.
+   */
+  static final class Checkpoint {
+    static final Checkpoint START = new Checkpoint(0, new byte[DeviceTransferAuthentication.DIGEST_LENGTH]);
+
+    private final long   chunks;
+    private final byte[] digest;
+
+    Checkpoint(long chunks, @NonNull byte[] digest) {
+      this.chunks = chunks;
+      this.digest = digest;
+    }
+
+    long getChunks() {
+      return chunks;
+    }
+
+    @NonNull byte[] getDigest() {
+      return digest;
+    }
+  }
+
+  static final class SessionInfo {
+    private final byte[]     token;
+    private final int        epoch;
+    private final int        port;
+    private final int        chunkSize;
+    private final Checkpoint checkpoint;
+
+    SessionInfo(@NonNull byte[] token, int epoch, int port, int chunkSize, @NonNull Checkpoint checkpoint) {
+      this.token      = token;
+      this.epoch      = epoch;
+      this.port       = port;
+      this.chunkSize  = chunkSize;
+      this.checkpoint = checkpoint;
+    }
+
+    @NonNull byte[] getToken() {
+      return token;
+    }
+
+    int getEpoch() {
+      return epoch;
+    }
+
+    int getPort() {
+      return port;
+    }
+
+    int getChunkSize() {
+      return chunkSize;
+    }
+
+    @NonNull Checkpoint getCheckpoint() {
+      return checkpoint;
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package org.signal.devicetransfer;
+
+import android.content.Context;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import org.signal.core.util.StreamUtil;
+import org.signal.core.util.logging.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs the server side of a multi-stream transfer for {@link NetworkServerThread}: owns the {@link TransferSession},
+ * the server socket the client's extra connections join on, and the thread the {@link ServerTask} runs on.
+ * <p>
+ * It's kept across reconnects of the verified connection, so the transfer resumes where it left off.
+ */
+final class MultiStreamServer {
+
+  private static final String TAG = Log.tag(MultiStreamServer.class);
+
+  /** The client joins this many connections to each attempt, alongside the verified one. */
+  private static final int MAX_JOINED_STREAMS = MultiStreamProtocol.STREAM_COUNT - 1;
+
+  private final TransferSession session;
+  private final ServerSocket    streamServerSocket;
+  private final Thread          acceptThread;
+  private final Thread          taskThread;
+  private final Set<Socket>     streamSockets;
+
+  private volatile boolean isRunning;
+
+  MultiStreamServer(@NonNull Context context,
+                    @NonNull ServerTask serverTask,
+                    @NonNull SelfSignedIdentity.SelfSignedKeys keys)
+      throws IOException
+  {
+    try {
+      this.streamServerSocket = SelfSignedIdentity.getServerSocketFactory(keys).createServerSocket(0);
+    } catch (GeneralSecurityException e) {
+      throw new IOException(e);
+    }
+
+    this.session       = new TransferSession(MultiStreamProtocol.CHUNK_SIZE, MultiStreamProtocol.WINDOW_CHUNKS);
+    this.streamSockets = new HashSet<>();
+    this.acceptThread  = new Thread(this::acceptStreams, "transfer-stream-accept");
+    this.taskThread    = new Thread(() -> runTask(context, serverTask), "transfer-server-task");
+    this.isRunning     = true;
+
+    acceptThread.start();
+    taskThread.start();
+  }
+
+  /**
+   * Receives the client's attempt over the verified connection, returning once the FIN has been received and the task
+   * has finished.
+   */
+  void receive(@NonNull InputStream inputStream, @NonNull OutputStream outputStream) throws IOException {
+    int                            epoch      = session.beginAttempt();
+    MultiStreamProtocol.Checkpoint checkpoint = session.getCheckpoint();
+
+    Log.i(TAG, "Starting attempt " + epoch + " from chunk " + checkpoint.getChunks());
+
+    // Connections from earlier attempts are no longer used, and would otherwise hold on to slots until they time out
+    closeStreamSockets();
+
+    MultiStreamProtocol.writeSessionInfo(new DataOutputStream(outputStream),
+                                         new MultiStreamProtocol.SessionInfo(session.getToken(),
+                                                                             epoch,
+                                                                             streamServerSocket.getLocalPort(),
+                                                                             session.getChunkSize(),
+                                                                             checkpoint));
+
+    if (!session.receive(new DataInputStream(new BufferedInputStream(inputStream)), epoch)) {
+      throw new IOException("Transfer did not complete");
+    }
+
+    session.awaitTaskFinished();
+  }
+
+  @AnyThread
+  void shutdown() {
+    isRunning = false;
+    session.fail(new IOException("Shutting down"));
+    StreamUtil.close(streamServerSocket);
+    closeStreamSockets();
+    acceptThread.interrupt();
+  }
+
+  private void closeStreamSockets() {
+    List<Socket> sockets;
+    synchronized (streamSockets) {
+      sockets = new ArrayList<>(streamSockets);
+      streamSockets.clear();
+    }
+
+    for (Socket socket : sockets) {
+      StreamUtil.close(socket);
+    }
+  }
+
+  private void runTask(@NonNull Context context, @NonNull ServerTask serverTask) {
+    try {
+      serverTask.run(context, session.getInputStream(), true);
+    } catch (IOException e) {
+      Log.w(TAG, "Server task failed", e);
+    } finally {
+      session.onTaskFinished();
+    }
+  }
+
+  private void acceptStreams() {
+    while (isRunning && !streamServerSocket.isClosed()) {
+      try {
+        Socket socket = streamServerSocket.accept();
+
+        synchronized (streamSockets) {
+          if (streamSockets.size() >= MAX_JOINED_STREAMS) {
+            Log.w(TAG, "Already receiving on " + streamSockets.size() + " streams, rejecting another");
+            StreamUtil.close(socket);
+            continue;
+          }
+          streamSockets.add(socket);
+        }
+
+        new Thread(() -> receiveStream(socket), "transfer-stream").start();
+      } catch (IOException e) {
+        if (isRunning) {
+          Log.w(TAG, "Failed to accept stream", e);
+        }
+      }
+    }
+  }
+
+  private void receiveStream(@NonNull Socket socket) {
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+      // Until its join is verified the connection could be from anyone on the network, so it can't hold a slot open for long
+      socket.setSoTimeout(MultiStreamProtocol.CONNECT_TIMEOUT);
+      int epoch = session.readJoin(in);
+      socket.setSoTimeout(0);
+
+      session.receive(in, epoch);
+    } catch (IOException e) {
+      Log.i(TAG, "Stream closed", e);
+    } finally {
+      synchronized (streamSockets) {
+        streamSockets.remove(socket);
+      }
+      StreamUtil.close(socket);
+    }
+  }
+}
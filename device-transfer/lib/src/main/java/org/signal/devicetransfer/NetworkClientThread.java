@@ -10,11 +10,19 @@ import org.signal.core.util.StreamUtil;
 import org.signal.core.util.ThreadUtil;
 import org.signal.core.util.logging.Log;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLHandshakeException;
@@ -38,13 +46,14 @@ final class NetworkClientThread extends Thread {
   private volatile boolean   isRunning;
   private volatile Boolean   isVerified;
 
-  private final Context    context;
-  private final ClientTask clientTask;
-  private final String     serverHostAddress;
-  private final int        port;
-  private final Handler    handler;
-  private final Object     verificationLock;
-  private       boolean    success;
+  private final Context      context;
+  private final ClientTask   clientTask;
+  private final String       serverHostAddress;
+  private final int          port;
+  private final Handler      handler;
+  private final Object       verificationLock;
+  private final List<Socket> streamSockets;
+  private       boolean      success;
 
   public NetworkClientThread(@NonNull Context context,
                              @NonNull ClientTask clientTask,
@@ -58,6 +67,7 @@ final class NetworkClientThread extends Thread {
     this.port              = port;
     this.handler           = handler;
     this.verificationLock  = new Object();
+    this.streamSockets     = new CopyOnWriteArrayList<>();
   }
 
   @Override
@@ -92,10 +102,11 @@ final class NetworkClientThread extends Thread {
           Log.i(TAG, "Waiting for user to verify sas");
           awaitAuthenticationCodeVerification();
           Log.d(TAG, "Waiting for server to tell us they also verified");
-          outputStream.write(0x43);
+          outputStream.write(MultiStreamProtocol.VERIFIED_MULTI_STREAM);
           outputStream.flush();
+          int result;
           try {
-            int result = inputStream.read();
+            result = inputStream.read();
             if (result == -1) {
               Log.w(TAG, "Something happened waiting for server to verify");
               throw new DeviceTransferAuthentication.DeviceTransferAuthenticationException("server disconnected while we waited");
@@ -106,7 +117,12 @@ final class NetworkClientThread extends Thread {
           }
 
           handler.sendEmptyMessage(NETWORK_CLIENT_CONNECTED);
-          clientTask.run(context, outputStream);
+
+          if (result == MultiStreamProtocol.VERIFIED_MULTI_STREAM) {
+            runMultiStream(x509.getEncoded(), inputStream, outputStream);
+          } else {
+            clientTask.run(context, outputStream, false);
+          }
           outputStream.flush();
 
           Log.d(TAG, "Waiting for server to tell us they got everything");
@@ -131,6 +147,7 @@ final class NetworkClientThread extends Thread {
           clientTask.success();
         }
         StreamUtil.close(client);
+        closeStreamSockets();
         handler.sendEmptyMessage(NETWORK_CLIENT_DISCONNECTED);
       }
 
@@ -143,6 +160,70 @@ final class NetworkClientThread extends Thread {
     handler.sendEmptyMessage(NETWORK_CLIENT_STOPPED);
   }
 
+  /**
+   * Runs the task with its output striped across the verified connection and {@link MultiStreamProtocol#STREAM_COUNT} - 1
+   * extra ones, skipping what the server already has from earlier attempts.
+   */
+  private void runMultiStream(@NonNull byte[] certificate, @NonNull InputStream inputStream, @NonNull OutputStream outputStream)
+      throws IOException
+  {
+    MultiStreamProtocol.SessionInfo session = MultiStreamProtocol.readSessionInfo(new DataInputStream(inputStream));
+
+    Log.i(TAG, "Starting multi-stream transfer from chunk " + session.getCheckpoint().getChunks());
+
+    List<OutputStream> outputStreams = new ArrayList<>(MultiStreamProtocol.STREAM_COUNT);
+    outputStreams.add(outputStream);
+
+    for (int i = 1; i < MultiStreamProtocol.STREAM_COUNT; i++) {
+      outputStreams.add(connectStream(certificate, session).getOutputStream());
+    }
+
+    StripedOutputStream stripedOutputStream = new StripedOutputStream(outputStreams, session.getChunkSize(), session.getCheckpoint());
+    boolean             sent                = false;
+    try {
+      clientTask.run(context, stripedOutputStream, true);
+      stripedOutputStream.close();
+      sent = true;
+    } finally {
+      if (!sent) {
+        stripedOutputStream.abandon();
+      }
+    }
+  }
+
+  /**
+   * Opens an extra connection for the session. The server must present the same certificate as the verified connection.
+   */
+  private @NonNull Socket connectStream(@NonNull byte[] certificate, @NonNull MultiStreamProtocol.SessionInfo session) throws IOException {
+    try {
+      SelfSignedIdentity.ApprovingTrustManager trustManager = new SelfSignedIdentity.ApprovingTrustManager();
+      SSLSocket                                socket       = (SSLSocket) SelfSignedIdentity.getApprovingSocketFactory(trustManager).createSocket();
+
+      streamSockets.add(socket);
+
+      socket.connect(new InetSocketAddress(serverHostAddress, session.getPort()), MultiStreamProtocol.CONNECT_TIMEOUT);
+      socket.startHandshake();
+
+      X509Certificate x509 = trustManager.getX509Certificate();
+      if (x509 == null || !MessageDigest.isEqual(certificate, x509.getEncoded())) {
+        throw new SSLHandshakeException("Stream connection has a different certificate");
+      }
+
+      MultiStreamProtocol.writeJoin(new DataOutputStream(socket.getOutputStream()), session.getToken(), session.getEpoch());
+
+      return socket;
+    } catch (GeneralSecurityException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void closeStreamSockets() {
+    for (Socket socket : streamSockets) {
+      StreamUtil.close(socket);
+    }
+    streamSockets.clear();
+  }
+
   private void awaitAuthenticationCodeVerification() throws DeviceTransferAuthentication.DeviceTransferAuthenticationException {
     synchronized (verificationLock) {
       try {
@@ -170,6 +251,7 @@ final class NetworkClientThread extends Thread {
   public void shutdown() {
     isRunning = false;
     StreamUtil.close(client);
+    closeStreamSockets();
     interrupt();
   }
 
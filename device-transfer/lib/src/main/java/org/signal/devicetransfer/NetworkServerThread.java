@@ -30,10 +30,11 @@ final class NetworkServerThread extends Thread {
   public static final int NETWORK_CLIENT_DISCONNECTED    = 1004;
   public static final int NETWORK_CLIENT_SSL_ESTABLISHED = 1005;
 
-  private volatile ServerSocket serverSocket;
-  private volatile Socket       clientSocket;
-  private volatile boolean      isRunning;
-  private volatile Boolean      isVerified;
+  private volatile ServerSocket      serverSocket;
+  private volatile Socket            clientSocket;
+  private volatile MultiStreamServer multiStreamServer;
+  private volatile boolean           isRunning;
+  private volatile Boolean           isVerified;
 
   private final Context                           context;
   private final ServerTask                        serverTask;
@@ -80,10 +81,11 @@ final class NetworkServerThread extends Thread {
           Log.i(TAG, "Waiting for user to verify sas");
           awaitAuthenticationCodeVerification();
           Log.d(TAG, "Waiting for client to tell us they also verified");
-          outputStream.write(0x43);
+          outputStream.write(MultiStreamProtocol.VERIFIED_MULTI_STREAM);
           outputStream.flush();
+          int result;
           try {
-            int result = inputStream.read();
+            result = inputStream.read();
             if (result == -1) {
               Log.w(TAG, "Something happened waiting for client to verify");
               throw new DeviceTransferAuthentication.DeviceTransferAuthenticationException("client disconnected while we waited");
@@ -94,7 +96,21 @@ final class NetworkServerThread extends Thread {
           }
 
           handler.sendEmptyMessage(NETWORK_CLIENT_CONNECTED);
-          serverTask.run(context, inputStream);
+
+          if (result == MultiStreamProtocol.VERIFIED_MULTI_STREAM) {
+            if (multiStreamServer == null) {
+              Log.i(TAG, "Starting multi-stream transfer");
+              multiStreamServer = new MultiStreamServer(context, serverTask, keys);
+            } else {
+              Log.i(TAG, "Resuming multi-stream transfer");
+            }
+
+            multiStreamServer.receive(inputStream, outputStream);
+            multiStreamServer.shutdown();
+            multiStreamServer = null;
+          } else {
+            serverTask.run(context, inputStream, false);
+          }
 
           outputStream.write(0x53);
           outputStream.flush();
@@ -115,6 +131,7 @@ final class NetworkServerThread extends Thread {
       Log.w(TAG, e);
     } finally {
       StreamUtil.close(serverSocket);
+      shutdownMultiStreamServer();
     }
 
     Log.i(TAG, "Server exiting");
@@ -163,6 +180,15 @@ final class NetworkServerThread extends Thread {
     isRunning = false;
     StreamUtil.close(clientSocket);
     StreamUtil.close(serverSocket);
+    shutdownMultiStreamServer();
     interrupt();
   }
+
+  private void shutdownMultiStreamServer() {
+    MultiStreamServer localMultiStreamServer = multiStreamServer;
+    if (localMultiStreamServer != null) {
+      localMultiStreamServer.shutdown();
+      multiStreamServer = null;
+    }
+  }
 }
@@ -17,6 +17,8 @@ public interface ServerTask extends Serializable {
   /**
    * @param context     Android context, mostly like the foreground transfer service
    * @param inputStream Input stream associated with socket connected to remote client.
+   * @param resumable   True when the client's {@link ClientTask} was told its output is resumable. The stream then keeps
+   *                    going across reconnects, and the task is only run once.
    */
-  void run(@NonNull Context context, @NonNull InputStream inputStream) throws IOException;
+  void run(@NonNull Context context, @NonNull InputStream inputStream, boolean resumable) throws IOException;
 }
@@ -0,0 +1,254 @@
+package org.signal.devicetransfer;
+
+import androidx.annotation.NonNull;
+
+import org.signal.core.util.logging.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Client side of a multi-stream transfer. Splits what's written to it into numbered chunks, and has one thread per
+ * connection writing them to whichever connection is free, so the TLS encryption of each connection runs in parallel.
+ * <p>
+ * When resuming, the chunks the server already has are not sent. They still have to be written, though, as the digest
+ * of them must match the one in the server's {@link MultiStreamProtocol.Checkpoint}; if it doesn't, what's being
+ * written has changed since the last attempt and the transfer is aborted.
+ * <p>
+ * Closing the stream sends the FIN, but does not close the connections.
+ */
+final class StripedOutputStream extends OutputStream {
+
+  private static final String TAG = Log.tag(StripedOutputStream.class);
+
+  private static final Chunk END = new Chunk(-1, new byte[0], 0);
+
+  private final DataOutputStream               primary;
+  private final List<Writer>                   writers;
+  private final BlockingQueue<Chunk>           pending;
+  private final BlockingQueue<byte[]>          buffers;
+  private final int                            chunkSize;
+  private final MultiStreamProtocol.Checkpoint resumeFrom;
+  private final MessageDigest                  skippedDigest;
+
+  private volatile IOException failure;
+
+  private byte[]  buffer;
+  private int     position;
+  private long    sequence;
+  private long    skipped;
+  private boolean closed;
+
+  /**
+   * @param outputStreams One per connection, the first being the verified connection the FIN is sent on.
+   */
+  StripedOutputStream(@NonNull List<OutputStream> outputStreams, int chunkSize, @NonNull MultiStreamProtocol.Checkpoint resumeFrom) {
+    this.chunkSize     = chunkSize;
+    this.resumeFrom    = resumeFrom;
+    this.skippedDigest = MultiStreamProtocol.newDigest();
+    this.pending       = new ArrayBlockingQueue<>(outputStreams.size());
+    this.buffers       = new ArrayBlockingQueue<>(outputStreams.size() * 2 + 1);
+    this.writers       = new ArrayList<>(outputStreams.size());
+
+    for (int i = 0; i < outputStreams.size() * 2 + 1; i++) {
+      buffers.add(new byte[chunkSize]);
+    }
+
+    for (int i = 0; i < outputStreams.size(); i++) {
+      DataOutputStream out    = new DataOutputStream(new BufferedOutputStream(outputStreams.get(i)));
+      Writer           writer = new Writer(out, i);
+
+      writers.add(writer);
+      writer.start();
+    }
+
+    this.primary = writers.get(0).out;
+    this.buffer  = buffers.remove();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] { (byte) b }, 0, 1);
+  }
+
+  @Override
+  public void write(@NonNull byte[] bytes, int offset, int length) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+
+    while (length > 0) {
+      int count = Math.min(length, chunkSize - position);
+      System.arraycopy(bytes, offset, buffer, position, count);
+
+      position += count;
+      offset   += count;
+      length   -= count;
+
+      if (position == chunkSize) {
+        emit();
+      }
+    }
+  }
+
+  /**
+   * Sends any partial chunk, waits for every chunk to be written, and sends the FIN.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    if (position > 0) {
+      emit();
+    }
+
+    closed = true;
+
+    if (sequence < resumeFrom.getChunks()) {
+      abandon();
+      MultiStreamProtocol.writeAbort(primary);
+      throw new IOException("Can't resume, there is less to send than was sent before");
+    }
+
+    finishWriters();
+    throwIfFailed();
+
+    Log.i(TAG, "Sent " + (sequence - skipped) + " chunks, skipped " + skipped);
+    MultiStreamProtocol.writeFin(primary, sequence);
+  }
+
+  /**
+   * Stops the writer threads without sending the FIN, for when the task failed. The connections are left as they are.
+   */
+  void abandon() {
+    closed = true;
+
+    for (Writer writer : writers) {
+      writer.interrupt();
+    }
+  }
+
+  private void emit() throws IOException {
+    throwIfFailed();
+
+    long chunkSequence = sequence++;
+
+    if (chunkSequence < resumeFrom.getChunks()) {
+      skippedDigest.update(buffer, 0, position);
+      skipped++;
+
+      if (chunkSequence == resumeFrom.getChunks() - 1 && !MessageDigest.isEqual(skippedDigest.digest(), resumeFrom.getDigest())) {
+        abandon();
+        MultiStreamProtocol.writeAbort(primary);
+        throw new IOException("Can't resume, the data sent before has changed");
+      }
+
+      position = 0;
+      return;
+    }
+
+    try {
+      pending.put(new Chunk(chunkSequence, buffer, position));
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+
+    buffer   = takeBuffer();
+    position = 0;
+  }
+
+  private @NonNull byte[] takeBuffer() throws IOException {
+    try {
+      return buffers.take();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+  }
+
+  private void finishWriters() throws IOException {
+    try {
+      for (int i = 0; i < writers.size(); i++) {
+        pending.put(END);
+      }
+
+      for (Writer writer : writers) {
+        writer.join();
+      }
+    } catch (InterruptedException e) {
+      abandon();
+      throw new InterruptedIOException();
+    }
+  }
+
+  private void throwIfFailed() throws IOException {
+    IOException e = failure;
+    if (e != null) {
+      abandon();
+      throw new IOException(e);
+    }
+  }
+
+  private static final class Chunk {
+    private final long   sequence;
+    private final byte[] data;
+    private final int    length;
+
+    private Chunk(long sequence, @NonNull byte[] data, int length) {
+      this.sequence = sequence;
+      this.data     = data;
+      this.length   = length;
+    }
+  }
+
+  private final class Writer extends Thread {
+
+    private final DataOutputStream out;
+
+    private Writer(@NonNull DataOutputStream out, int index) {
+      super("striped-writer-" + index);
+      this.out = out;
+    }
+
+    @Override
+    public void run() {
+      try {
+        Chunk chunk;
+        while ((chunk = pending.take()) != END) {
+          MultiStreamProtocol.writeChunk(out, chunk.sequence, chunk.data, chunk.length);
+          buffers.put(chunk.data);
+        }
+        out.flush();
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to write to connection", e);
+        failure = e;
+        drain();
+      } catch (InterruptedException e) {
+        Log.i(TAG, "Interrupted");
+      }
+    }
+
+    /**
+     * Keeps taking chunks off the queue after a failure, so the other writers and the producer aren't left blocked.
+     */
+    private void drain() {
+      try {
+        Chunk chunk;
+        while ((chunk = pending.take()) != END) {
+          buffers.put(chunk.data);
+        }
+      } catch (InterruptedException e) {
+        Log.i(TAG, "Interrupted");
+      }
+    }
+  }
+}
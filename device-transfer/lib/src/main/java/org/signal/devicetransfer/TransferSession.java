@@ -0,0 +1,301 @@
+package org.signal.devicetransfer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.signal.core.util.logging.Log;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Server side of a multi-stream transfer. Chunks arrive out of order over any number of connections, and are handed to the
+ * {@link ServerTask} in order through {@link #getInputStream()}. The session outlives the connections, so when the client
+ * reconnects after a drop it can resume from the {@link MultiStreamProtocol.Checkpoint} instead of starting over.
+ * <p>
+ * At most {@code windowChunks} chunks past the one the task is reading are held in memory; connections delivering chunks
+ * beyond that block until the task catches up.
+ */
+final class TransferSession {
+
+  private static final String TAG = Log.tag(TransferSession.class);
+
+  private final byte[]            token;
+  private final int               chunkSize;
+  private final int               windowChunks;
+  private final Map<Long, byte[]> chunks;
+  private final MessageDigest     digest;
+  private final ChunkInputStream  inputStream;
+
+  private int         epoch;
+  private long        consumed;
+  private long        received;
+  private long        total = -1;
+  private boolean     taskFinished;
+  private IOException failure;
+
+  TransferSession(int chunkSize, int windowChunks) {
+    this.token        = new byte[MultiStreamProtocol.TOKEN_LENGTH];
+    this.chunkSize    = chunkSize;
+    this.windowChunks = windowChunks;
+    this.chunks       = new HashMap<>();
+    this.digest       = MultiStreamProtocol.newDigest();
+    this.inputStream  = new ChunkInputStream();
+
+    new SecureRandom().nextBytes(token);
+  }
+
+  @NonNull byte[] getToken() {
+    return token;
+  }
+
+  int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Starts a new attempt by the client. Connections from earlier attempts are ignored from now on, and any chunks they
+   * delivered past the checkpoint are dropped, as the client may not send the same ones again.
+   *
+   * @return The epoch connections must join with to be part of the new attempt.
+   */
+  synchronized int beginAttempt() {
+    epoch++;
+    total = -1;
+
+    Iterator<Long> sequences = chunks.keySet().iterator();
+    while (sequences.hasNext()) {
+      if (sequences.next() >= received) {
+        sequences.remove();
+      }
+    }
+
+    notifyAll();
+    return epoch;
+  }
+
+  synchronized @NonNull MultiStreamProtocol.Checkpoint getCheckpoint() {
+    try {
+      return new MultiStreamProtocol.Checkpoint(received, ((MessageDigest) digest.clone()).digest());
+    } catch (CloneNotSupportedException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * The chunks, in order. Reads block until the next chunk arrives, and the stream ends after the last chunk the client
+   * announced in its FIN.
+   */
+  @NonNull InputStream getInputStream() {
+    return inputStream;
+  }
+
+  /**
+   * Reads the join sent by a secondary connection and, if it's for this session, receives chunks from it.
+   *
+   * @return True if the connection sent the FIN for the current attempt.
+   */
+  boolean receiveJoined(@NonNull DataInputStream in) throws IOException {
+    return receive(in, readJoin(in));
+  }
+
+  /**
+   * Reads the join sent by a secondary connection, and throws if it isn't for this session.
+   *
+   * @return The attempt the connection joined.
+   */
+  int readJoin(@NonNull DataInputStream in) throws IOException {
+    byte[] theirToken = new byte[MultiStreamProtocol.TOKEN_LENGTH];
+    in.readFully(theirToken);
+    int theirEpoch = in.readInt();
+
+    if (!MessageDigest.isEqual(token, theirToken)) {
+      throw new IOException("Connection is not part of this session");
+    }
+
+    return theirEpoch;
+  }
+
+  /**
+   * Receives chunks from one connection until it sends a FIN or is no longer part of the current attempt.
+   *
+   * @return True if the connection sent the FIN for the current attempt.
+   */
+  boolean receive(@NonNull DataInputStream in, int attempt) throws IOException {
+    while (true) {
+      long sequence = in.readLong();
+      int  length   = in.readInt();
+
+      if (sequence == MultiStreamProtocol.SEQUENCE_FIN) {
+        return finish(in.readLong(), attempt);
+      }
+
+      if (sequence == MultiStreamProtocol.SEQUENCE_ABORT) {
+        fail(new IOException("Client aborted the transfer"));
+        return false;
+      }
+
+      if (sequence < 0 || length <= 0 || length > chunkSize) {
+        throw new IOException("Invalid chunk " + sequence + " of length " + length);
+      }
+
+      byte[] chunk = new byte[length];
+      in.readFully(chunk);
+
+      if (!offer(sequence, chunk, attempt)) {
+        Log.i(TAG, "Dropping connection from attempt " + attempt);
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Called once the task has stopped reading, whether it read everything or not. Chunks that arrive after this are
+   * discarded.
+   */
+  synchronized void onTaskFinished() {
+    taskFinished = true;
+    notifyAll();
+  }
+
+  synchronized void awaitTaskFinished() throws IOException {
+    try {
+      while (!taskFinished) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+  }
+
+  /**
+   * Fails the session, any pending or future reads of the task throw.
+   */
+  synchronized void fail(@NonNull IOException e) {
+    if (failure == null) {
+      failure = e;
+    }
+    notifyAll();
+  }
+
+  private synchronized boolean offer(long sequence, @NonNull byte[] chunk, int attempt) throws IOException {
+    try {
+      while (attempt == epoch && !taskFinished && failure == null && sequence >= consumed + windowChunks) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+
+    if (attempt != epoch) {
+      return false;
+    }
+
+    if (taskFinished || sequence < received || chunks.containsKey(sequence)) {
+      return true;
+    }
+
+    chunks.put(sequence, chunk);
+
+    byte[] next;
+    while ((next = chunks.get(received)) != null) {
+      digest.update(next);
+      received++;
+    }
+
+    notifyAll();
+    return true;
+  }
+
+  private synchronized boolean finish(long chunkCount, int attempt) {
+    if (attempt != epoch) {
+      return false;
+    }
+
+    total = chunkCount;
+    notifyAll();
+    return true;
+  }
+
+  private synchronized @Nullable byte[] takeNextChunk() throws IOException {
+    try {
+      while (failure == null && consumed >= received && consumed != total) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+
+    if (failure != null) {
+      throw new IOException(failure);
+    }
+
+    if (consumed == total) {
+      return null;
+    }
+
+    byte[] chunk = chunks.remove(consumed);
+    consumed++;
+    notifyAll();
+
+    return chunk;
+  }
+
+  private final class ChunkInputStream extends InputStream {
+
+    private byte[]  chunk;
+    private int     position;
+    private boolean ended;
+
+    @Override
+    public int read() throws IOException {
+      if (!ensureChunk()) {
+        return -1;
+      }
+
+      return chunk[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+
+      if (!ensureChunk()) {
+        return -1;
+      }
+
+      int read = Math.min(length, chunk.length - position);
+      System.arraycopy(chunk, position, buffer, offset, read);
+      position += read;
+
+      return read;
+    }
+
+    private boolean ensureChunk() throws IOException {
+      if (ended) {
+        return false;
+      }
+
+      if (chunk == null || position == chunk.length) {
+        chunk    = takeNextChunk();
+        position = 0;
+      }
+
+      if (chunk == null) {
+        ended = true;
+        return false;
+      }
+
+      return true;
+    }
+  }
+}
@@ -0,0 +1,321 @@
+package org.signal.devicetransfer;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs multi-stream transfers between a {@link StripedOutputStream} and a {@link TransferSession} over loopback sockets.
+ */
+public final class MultiStreamTransferTest {
+
+  private static final int CHUNK_SIZE    = 4 * 1024;
+  private static final int WINDOW_CHUNKS = 8;
+  private static final int STREAMS       = 4;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void transfer_overSeveralStreams_isReceivedInOrder() throws Exception {
+    byte[]          data    = randomBytes(1, 1024 * 1024 + 123);
+    TransferSession session = new TransferSession(CHUNK_SIZE, WINDOW_CHUNKS);
+    Future<byte[]>  read    = readAll(session);
+
+    attempt(session, data, STREAMS, Long.MAX_VALUE, false);
+
+    assertArrayEquals(data, read.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void transfer_overOneStream_isReceivedInOrder() throws Exception {
+    byte[]          data    = randomBytes(2, 100 * 1024);
+    TransferSession session = new TransferSession(CHUNK_SIZE, WINDOW_CHUNKS);
+    Future<byte[]>  read    = readAll(session);
+
+    attempt(session, data, 1, Long.MAX_VALUE, false);
+
+    assertArrayEquals(data, read.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void transfer_afterADrop_resumesFromTheCheckpoint() throws Exception {
+    byte[]          data    = randomBytes(3, 1024 * 1024);
+    TransferSession session = new TransferSession(CHUNK_SIZE, WINDOW_CHUNKS);
+    Future<byte[]>  read    = readAll(session);
+
+    attempt(session, data, STREAMS, 300 * 1024, true);
+
+    long resumeFrom = session.getCheckpoint().getChunks();
+    assertTrue("Resuming from " + resumeFrom, resumeFrom > 0);
+
+    long sent = attempt(session, data, STREAMS, Long.MAX_VALUE, false);
+
+    assertArrayEquals(data, read.get(10, TimeUnit.SECONDS));
+    assertTrue("Sent " + sent + " bytes", sent < data.length - (resumeFrom - 1) * CHUNK_SIZE);
+  }
+
+  @Test
+  public void transfer_whenTheDataChangedAfterADrop_isAborted() throws Exception {
+    byte[]          data    = randomBytes(4, 1024 * 1024);
+    TransferSession session = new TransferSession(CHUNK_SIZE, WINDOW_CHUNKS);
+    Future<byte[]>  read    = readAll(session);
+
+    attempt(session, data, STREAMS, 300 * 1024, true);
+
+    data[0]++;
+    attempt(session, data, STREAMS, Long.MAX_VALUE, true);
+
+    try {
+      read.get(10, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void transfer_withNothingToSend_endsTheStream() throws Exception {
+    TransferSession session = new TransferSession(CHUNK_SIZE, WINDOW_CHUNKS);
+    Future<byte[]>  read    = readAll(session);
+
+    attempt(session, new byte[0], STREAMS, Long.MAX_VALUE, false);
+
+    assertEquals(0, read.get(10, TimeUnit.SECONDS).length);
+  }
+
+  @Test
+  public void join_forThisSession_returnsItsAttempt() throws Exception {
+    TransferSession session = new TransferSession(CHUNK_SIZE, WINDOW_CHUNKS);
+    int             epoch   = session.beginAttempt();
+
+    assertEquals(epoch, session.readJoin(join(session.getToken(), epoch)));
+  }
+
+  @Test(expected = IOException.class)
+  public void join_forAnotherSession_isRejected() throws Exception {
+    TransferSession session = new TransferSession(CHUNK_SIZE, WINDOW_CHUNKS);
+    TransferSession other   = new TransferSession(CHUNK_SIZE, WINDOW_CHUNKS);
+
+    session.readJoin(join(other.getToken(), session.beginAttempt()));
+  }
+
+  @Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+  @Test
+  public void benchmark_throughput() throws Exception {
+    byte[] data = randomBytes(5, 256 * 1024 * 1024);
+
+    for (int streams : new int[] { 1, 2, 4, 8, 1, 2, 4, 8 }) {
+      TransferSession session = new TransferSession(MultiStreamProtocol.CHUNK_SIZE, MultiStreamProtocol.WINDOW_CHUNKS);
+      Future<byte[]>  read    = executor.submit(() -> drain(session.getInputStream()));
+
+      long start = System.nanoTime();
+      attempt(session, data, streams, Long.MAX_VALUE, false, true, MultiStreamProtocol.CHUNK_SIZE);
+      read.get(60, TimeUnit.SECONDS);
+      long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      System.out.println("[MultiStreamTransfer] " + streams + " streams: " + data.length / 1024 / 1024 + "MB in " + millis + "ms, " + (data.length / 1024 / 1024) * 1000 / Math.max(millis, 1) + "MB/s");
+    }
+  }
+
+  private long attempt(@NonNull TransferSession session, @NonNull byte[] data, int streams, long failAfter, boolean expectFailure) throws Exception {
+    return attempt(session, data, streams, failAfter, expectFailure, false, CHUNK_SIZE);
+  }
+
+  /**
+   * Sends {@param data} to the session over {@param streams} loopback connections, failing once {@param failAfter} bytes have been written, optionally with
+   * each connection encrypted to stand in for its TLS.
+   *
+   * @return How many bytes were written to the connections.
+   */
+  private long attempt(@NonNull TransferSession session,
+                       @NonNull byte[] data,
+                       int streams,
+                       long failAfter,
+                       boolean expectFailure,
+                       boolean encrypt,
+                       int chunkSize)
+      throws Exception
+  {
+    int                            epoch      = session.beginAttempt();
+    MultiStreamProtocol.Checkpoint checkpoint = session.getCheckpoint();
+    AtomicLong                     written    = new AtomicLong();
+    List<Socket>                   clients    = new ArrayList<>(streams);
+    List<Socket>                   servers    = new ArrayList<>(streams);
+    List<Future<Boolean>>          receivers  = new ArrayList<>(streams);
+
+    try (ServerSocket serverSocket = new ServerSocket(0, streams, InetAddress.getLoopbackAddress())) {
+      List<OutputStream> outputStreams = new ArrayList<>(streams);
+
+      for (int i = 0; i < streams; i++) {
+        Socket client = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+        Socket server = serverSocket.accept();
+
+        clients.add(client);
+        servers.add(server);
+
+        InputStream serverIn = encrypt ? new CipherInputStream(server.getInputStream(), cipher(Cipher.DECRYPT_MODE)) : server.getInputStream();
+        receivers.add(executor.submit(() -> session.receiveJoined(new DataInputStream(serverIn))));
+
+        OutputStream clientOut = new FailingOutputStream(client.getOutputStream(), written, failAfter);
+        if (encrypt) {
+          clientOut = new CipherOutputStream(clientOut, cipher(Cipher.ENCRYPT_MODE));
+        }
+
+        DataOutputStream join = new DataOutputStream(clientOut);
+        MultiStreamProtocol.writeJoin(join, session.getToken(), epoch);
+        outputStreams.add(join);
+      }
+
+      StripedOutputStream stripedOutputStream = new StripedOutputStream(outputStreams, chunkSize, checkpoint);
+
+      try {
+        for (int i = 0; i < data.length; i += 1000) {
+          stripedOutputStream.write(data, i, Math.min(1000, data.length - i));
+        }
+        stripedOutputStream.close();
+
+        if (encrypt) {
+          for (OutputStream outputStream : outputStreams) {
+            outputStream.close();
+          }
+        }
+
+        assertFalse("Expected the attempt to fail", expectFailure);
+        assertTrue(receivers.get(0).get(10, TimeUnit.SECONDS));
+      } catch (IOException e) {
+        if (!expectFailure) {
+          throw e;
+        }
+        stripedOutputStream.abandon();
+      }
+    } finally {
+      for (Socket socket : clients) {
+        socket.close();
+      }
+
+      // Let the server read what's still in flight before its end goes away, as the real server does. After a drop,
+      // connections can stay blocked on the window until the next attempt begins.
+      for (Future<Boolean> receiver : receivers) {
+        try {
+          receiver.get(expectFailure ? 1 : 10, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+          // Expected once the client's end is closed.
+        }
+      }
+
+      for (Socket socket : servers) {
+        socket.close();
+      }
+    }
+
+    return written.get();
+  }
+
+  private static @NonNull DataInputStream join(@NonNull byte[] token, int epoch) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MultiStreamProtocol.writeJoin(new DataOutputStream(out), token, epoch);
+    return new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  private @NonNull Future<byte[]> readAll(@NonNull TransferSession session) {
+    return executor.submit((Callable<byte[]>) () -> {
+      ByteArrayOutputStream out    = new ByteArrayOutputStream();
+      byte[]                buffer = new byte[1000];
+      int                   read;
+
+      while ((read = session.getInputStream().read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+
+      return out.toByteArray();
+    });
+  }
+
+  private static @NonNull byte[] drain(@NonNull InputStream inputStream) throws IOException {
+    byte[] buffer = new byte[64 * 1024];
+
+    //noinspection StatementWithEmptyBody
+    while (inputStream.read(buffer) != -1) { }
+
+    return new byte[0];
+  }
+
+  private static @NonNull Cipher cipher(int mode) throws Exception {
+    Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+    cipher.init(mode, new SecretKeySpec(new byte[32], "AES"), new IvParameterSpec(new byte[16]));
+    return cipher;
+  }
+
+  private static @NonNull byte[] randomBytes(long seed, int length) {
+    byte[] bytes = new byte[length];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+
+  private static final class FailingOutputStream extends FilterOutputStream {
+
+    private final AtomicLong written;
+    private final long       failAfter;
+
+    FailingOutputStream(@NonNull OutputStream out, @NonNull AtomicLong written, long failAfter) {
+      super(out);
+      this.written   = written;
+      this.failAfter = failAfter;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(@NonNull byte[] bytes, int offset, int length) throws IOException {
+      if (written.addAndGet(length) > failAfter) {
+        throw new IOException("Connection dropped");
+      }
+      out.write(bytes, offset, length);
+    }
+  }
+}
@@ -95,6 +95,7 @@ import org.whispersystems.signalservice.internal.push.GroupStaleDevices;
 import org.whispersystems.signalservice.internal.push.MismatchedDevices;
 import org.whispersystems.signalservice.internal.push.OutgoingPushMessage;
 import org.whispersystems.signalservice.internal.push.OutgoingPushMessageList;
+import org.whispersystems.signalservice.internal.push.PipelinedMessageSender;
 import org.whispersystems.signalservice.internal.push.ProvisioningProtos;
 import org.whispersystems.signalservice.internal.push.PushAttachmentData;
 import org.whispersystems.signalservice.internal.push.PushServiceSocket;
@@ -176,6 +177,7 @@ public class SignalServiceMessageSender {
 
   private final ExecutorService executor;
   private final long            maxEnvelopeSize;
+  private final int             maxInFlightSends;
 
   public SignalServiceMessageSender(SignalServiceConfiguration urls,
                                     CredentialsProvider credentialsProvider,
@@ -187,6 +189,7 @@ public class SignalServiceMessageSender {
                                     ClientZkProfileOperations clientZkProfileOperations,
                                     ExecutorService executor,
                                     long maxEnvelopeSize,
+                                    int maxInFlightSends,
                                     boolean automaticNetworkRetry)
   {
     this.socket            = new PushServiceSocket(urls, credentialsProvider, signalAgent, clientZkProfileOperations, automaticNetworkRetry);
@@ -200,6 +203,7 @@ public class SignalServiceMessageSender {
     this.eventListener     = eventListener;
     this.executor          = executor != null ? executor : Executors.newSingleThreadExecutor();
     this.maxEnvelopeSize   = maxEnvelopeSize;
+    this.maxInFlightSends  = maxInFlightSends;
     this.localPniIdentity  = store.pni().getIdentityKeyPair();
   }
 
@@ -1823,25 +1827,37 @@ public class SignalServiceMessageSender {
     Log.d(TAG, "[" + timestamp + "] Sending to " + recipients.size() + " recipients.");
     enforceMaxContentSize(content);
 
-    long                                   startTime                  = System.currentTimeMillis();
-    List<Future<SendMessageResult>>        futureResults              = new LinkedList<>();
-    Iterator<SignalServiceAddress>         recipientIterator          = recipients.iterator();
-    Iterator<Optional<UnidentifiedAccess>> unidentifiedAccessIterator = unidentifiedAccess.iterator();
-
-    while (recipientIterator.hasNext()) {
-      SignalServiceAddress         recipient = recipientIterator.next();
-      Optional<UnidentifiedAccess> access    = unidentifiedAccessIterator.next();
-      futureResults.add(executor.submit(() -> {
-        SendMessageResult result = sendMessage(recipient, access, timestamp, content, online, cancelationSignal, urgent, story);
-        if (partialListener != null) {
-          partialListener.onPartialSendComplete(result);
-        }
-        return result;
-      }));
-    }
+    long startTime = System.currentTimeMillis();
+
+    PipelinedMessageSender pipelinedSender = new PipelinedMessageSender(
+        executor,
+        (recipient, access) -> {
+          OutgoingPushMessageList messages = getEncryptedMessages(recipient, access, timestamp, content, online, urgent, story);
+          logEncryptedMessages(timestamp, content, messages);
+          return messages;
+        },
+        (messages, access) -> messagingService.send(messages, access, story),
+        (messages, access) -> socket.sendMessage(messages, access, story),
+        new PipelinedMessageSender.DeviceConflictHandler() {
+          @Override
+          public void handleMismatchedDevices(SignalServiceAddress recipient, MismatchedDevices mismatchedDevices) throws IOException, UntrustedIdentityException {
+            SignalServiceMessageSender.this.handleMismatchedDevices(socket, recipient, mismatchedDevices);
+          }
+
+          @Override
+          public void handleStaleDevices(SignalServiceAddress recipient, StaleDevices staleDevices) {
+            SignalServiceMessageSender.this.handleStaleDevices(recipient, staleDevices);
+          }
+        },
+        (recipient, access, allowWebSocket) -> sendMessage(recipient, access, timestamp, content, online, cancelationSignal, urgent, story, allowWebSocket),
+        (recipient, messages, response, duration) -> SendMessageResult.success(recipient, messages.getDevices(), response.sentUnidentified(), response.getNeedsSync() || aciStore.isMultiDevice(), duration, content.getContent()),
+        maxInFlightSends
+    );
+
+    List<Future<SendMessageResult>> futureResults     = pipelinedSender.send(recipients, unidentifiedAccess, cancelationSignal, partialListener);
+    Iterator<SignalServiceAddress>  recipientIterator = recipients.iterator();
 
     List<SendMessageResult> results = new ArrayList<>(futureResults.size());
-    recipientIterator = recipients.iterator();
 
     for (Future<SendMessageResult> futureResult : futureResults) {
       SignalServiceAddress recipient = recipientIterator.next();
@@ -1907,6 +1923,24 @@ public class SignalServiceMessageSender {
                                         boolean                      urgent,
                                         boolean                      story)
       throws UntrustedIdentityException, IOException
+  {
+    return sendMessage(recipient, unidentifiedAccess, timestamp, content, online, cancelationSignal, urgent, story, true);
+  }
+
+  /**
+   * @param allowWebSocket If false, the message is only ever sent over REST. Used when a pipelined websocket send has
+   *                       already failed for transport reasons, so there's no point trying the websocket again.
+   */
+  private SendMessageResult sendMessage(SignalServiceAddress         recipient,
+                                        Optional<UnidentifiedAccess> unidentifiedAccess,
+                                        long                         timestamp,
+                                        EnvelopeContent              content,
+                                        boolean                      online,
+                                        CancelationSignal            cancelationSignal,
+                                        boolean                      urgent,
+                                        boolean                      story,
+                                        boolean                      allowWebSocket)
+      throws UntrustedIdentityException, IOException
   {
     enforceMaxContentSize(content);
 
@@ -1919,18 +1953,15 @@ public class SignalServiceMessageSender {
 
       try {
         OutgoingPushMessageList messages = getEncryptedMessages(recipient, unidentifiedAccess, timestamp, content, online, urgent, story);
-
-        if (content.getContent().isPresent() && content.getContent().get().getSyncMessage() != null && content.getContent().get().getSyncMessage().hasSent()) {
-          Log.d(TAG, "[sendMessage][" + timestamp + "] Sending a sent sync message to devices: " + messages.getDevices());
-        } else if (content.getContent().isPresent() && content.getContent().get().hasSenderKeyDistributionMessage()) {
-          Log.d(TAG, "[sendMessage][" + timestamp + "] Sending a SKDM to " + messages.getDestination() + " for devices: " + messages.getDevices() + (content.getContent().get().hasDataMessage() ? " (it's piggy-backing on a DataMessage)" : ""));
-        }
+        logEncryptedMessages(timestamp, content, messages);
 
         if (cancelationSignal != null && cancelationSignal.isCanceled()) {
           throw new CancelationException();
         }
 
-        if (!unidentifiedAccess.isPresent()) {
+        if (!allowWebSocket) {
+          Log.i(TAG, "[sendMessage][" + timestamp + "] Skipping websocket, sending over REST.");
+        } else if (!unidentifiedAccess.isPresent()) {
           try {
             SendMessageResponse response = new MessagingService.SendResponseProcessor<>(messagingService.send(messages, Optional.empty(), story).blockingGet()).getResultOrThrow();
             return SendMessageResult.success(recipient, messages.getDevices(), response.sentUnidentified(), response.getNeedsSync() || aciStore.isMultiDevice(), System.currentTimeMillis() - startTime, content.getContent());
@@ -1992,6 +2023,14 @@ public class SignalServiceMessageSender {
     throw new IOException("Failed to resolve conflicts after " + RETRY_COUNT + " attempts!");
   }
 
+  private static void logEncryptedMessages(long timestamp, EnvelopeContent content, OutgoingPushMessageList messages) {
+    if (content.getContent().isPresent() && content.getContent().get().getSyncMessage() != null && content.getContent().get().getSyncMessage().hasSent()) {
+      Log.d(TAG, "[sendMessage][" + timestamp + "] Sending a sent sync message to devices: " + messages.getDevices());
+    } else if (content.getContent().isPresent() && content.getContent().get().hasSenderKeyDistributionMessage()) {
+      Log.d(TAG, "[sendMessage][" + timestamp + "] Sending a SKDM to " + messages.getDestination() + " for devices: " + messages.getDevices() + (content.getContent().get().hasDataMessage() ? " (it's piggy-backing on a DataMessage)" : ""));
+    }
+  }
+
   /**
    * Will send a message using sender keys to all of the specified recipients. It is assumed that
    * all of the recipients have UUIDs.
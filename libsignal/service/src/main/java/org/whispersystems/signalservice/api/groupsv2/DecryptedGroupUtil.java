@@ -2,15 +2,11 @@ package org.whispersystems.signalservice.api.groupsv2;
 
 import com.google.protobuf.ByteString;
 
-import org.signal.libsignal.protocol.logging.Log;
 import org.signal.storageservice.protos.groups.AccessControl;
-import org.signal.storageservice.protos.groups.Member;
-import org.signal.storageservice.protos.groups.local.DecryptedApproveMember;
 import org.signal.storageservice.protos.groups.local.DecryptedBannedMember;
 import org.signal.storageservice.protos.groups.local.DecryptedGroup;
 import org.signal.storageservice.protos.groups.local.DecryptedGroupChange;
 import org.signal.storageservice.protos.groups.local.DecryptedMember;
-import org.signal.storageservice.protos.groups.local.DecryptedModifyMemberRole;
 import org.signal.storageservice.protos.groups.local.DecryptedPendingMember;
 import org.signal.storageservice.protos.groups.local.DecryptedPendingMemberRemoval;
 import org.signal.storageservice.protos.groups.local.DecryptedRequestingMember;
@@ -22,7 +18,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -30,8 +25,6 @@ import java.util.UUID;
 
 public final class DecryptedGroupUtil {
 
-  private static final String TAG = DecryptedGroupUtil.class.getSimpleName();
-
   public static ArrayList<UUID> toUuidList(Collection<DecryptedMember> membersList) {
     ArrayList<UUID> uuidList = new ArrayList<>(membersList.size());
 
@@ -204,28 +197,6 @@ public final class DecryptedGroupUtil {
     return Optional.empty();
   }
 
-  private static int findPendingIndexByUuidCipherText(List<DecryptedPendingMember> members, ByteString cipherText) {
-    for (int i = 0; i < members.size(); i++) {
-      DecryptedPendingMember member = members.get(i);
-      if (cipherText.equals(member.getUuidCipherText())) {
-        return i;
-      }
-    }
-
-    return -1;
-  }
-
-  private static int findPendingIndexByUuid(List<DecryptedPendingMember> members, ByteString uuid) {
-    for (int i = 0; i < members.size(); i++) {
-      DecryptedPendingMember member = members.get(i);
-      if (uuid.equals(member.getUuid())) {
-        return i;
-      }
-    }
-
-    return -1;
-  }
-
   public static Optional<DecryptedRequestingMember> findRequestingByUuid(Collection<DecryptedRequestingMember> members, UUID uuid) {
     ByteString uuidBytes = UuidUtil.toByteString(uuid);
 
@@ -300,156 +271,11 @@ public final class DecryptedGroupUtil {
   public static DecryptedGroup applyWithoutRevisionCheck(DecryptedGroup group, DecryptedGroupChange change)
       throws NotAbleToApplyGroupV2ChangeException
   {
-    DecryptedGroup.Builder builder = DecryptedGroup.newBuilder(group)
-                                                   .setRevision(change.getRevision());
-
-    applyAddMemberAction(builder, change.getNewMembersList());
-
-    applyDeleteMemberActions(builder, change.getDeleteMembersList());
-
-    applyModifyMemberRoleActions(builder, change.getModifyMemberRolesList());
-
-    applyModifyMemberProfileKeyActions(builder, change.getModifiedProfileKeysList());
-
-    applyAddPendingMemberActions(builder, change.getNewPendingMembersList());
-
-    applyDeletePendingMemberActions(builder, change.getDeletePendingMembersList());
-
-    applyPromotePendingMemberActions(builder, change.getPromotePendingMembersList());
-
-    applyModifyTitleAction(builder, change);
-
-    applyModifyDescriptionAction(builder, change);
-
-    applyModifyIsAnnouncementGroupAction(builder, change);
-
-    applyModifyAvatarAction(builder, change);
-
-    applyModifyDisappearingMessagesTimerAction(builder, change);
-
-    applyModifyAttributesAccessControlAction(builder, change);
-
-    applyModifyMembersAccessControlAction(builder, change);
-
-    applyModifyAddFromInviteLinkAccessControlAction(builder, change);
-
-    applyAddRequestingMembers(builder, change.getNewRequestingMembersList());
-
-    applyDeleteRequestingMembers(builder, change.getDeleteRequestingMembersList());
-
-    applyPromoteRequestingMemberActions(builder, change.getPromoteRequestingMembersList());
-
-    applyInviteLinkPassword(builder, change);
-
-    applyAddBannedMembersActions(builder, change.getNewBannedMembersList());
-
-    applyDeleteBannedMembersActions(builder, change.getDeleteBannedMembersList());
-
-    applyPromotePendingPniAciMemberActions(builder, change.getPromotePendingPniAciMembersList());
-
-    return builder.build();
-  }
-
-  private static void applyAddMemberAction(DecryptedGroup.Builder builder, List<DecryptedMember> newMembersList) {
-    if (newMembersList.isEmpty()) return;
-
-    LinkedHashMap<ByteString, DecryptedMember> members = new LinkedHashMap<>();
-
-    for (DecryptedMember member : builder.getMembersList()) {
-      members.put(member.getUuid(), member);
-    }
-
-    for (DecryptedMember member : newMembersList) {
-      members.put(member.getUuid(), member);
-    }
-
-    builder.clearMembers();
-    builder.addAllMembers(members.values());
-
-    removePendingAndRequestingMembersNowInGroup(builder);
-  }
-
-  protected static void applyDeleteMemberActions(DecryptedGroup.Builder builder, List<ByteString> deleteMembersList) {
-    for (ByteString removedMember : deleteMembersList) {
-      int index = indexOfUuid(builder.getMembersList(), removedMember);
-
-      if (index == -1) {
-        Log.w(TAG, "Deleted member on change not found in group");
-        continue;
-      }
-
-      builder.removeMembers(index);
-    }
-  }
-
-  private static void applyModifyMemberRoleActions(DecryptedGroup.Builder builder, List<DecryptedModifyMemberRole> modifyMemberRolesList) throws NotAbleToApplyGroupV2ChangeException {
-    for (DecryptedModifyMemberRole modifyMemberRole : modifyMemberRolesList) {
-      int index = indexOfUuid(builder.getMembersList(), modifyMemberRole.getUuid());
-
-      if (index == -1) {
-        throw new NotAbleToApplyGroupV2ChangeException();
-      }
-
-      Member.Role role = modifyMemberRole.getRole();
-
-      ensureKnownRole(role);
-
-      builder.setMembers(index, DecryptedMember.newBuilder(builder.getMembers(index))
-                                               .setRole(role));
-    }
-  }
-
-  private static void applyModifyMemberProfileKeyActions(DecryptedGroup.Builder builder, List<DecryptedMember> modifiedProfileKeysList) throws NotAbleToApplyGroupV2ChangeException {
-    for (DecryptedMember modifyProfileKey : modifiedProfileKeysList) {
-      int index = indexOfUuid(builder.getMembersList(), modifyProfileKey.getUuid());
+    MutableDecryptedGroup mutableGroup = new MutableDecryptedGroup(group);
 
-      if (index == -1) {
-        throw new NotAbleToApplyGroupV2ChangeException();
-      }
+    mutableGroup.applyWithoutRevisionCheck(change);
 
-      builder.setMembers(index, withNewProfileKey(builder.getMembers(index), modifyProfileKey.getProfileKey()));
-    }
-  }
-
-  private static void applyAddPendingMemberActions(DecryptedGroup.Builder builder, List<DecryptedPendingMember> newPendingMembersList) throws NotAbleToApplyGroupV2ChangeException {
-    Set<ByteString> fullMemberSet            = getMemberUuidSet(builder.getMembersList());
-    Set<ByteString> pendingMemberCipherTexts = getPendingMemberCipherTextSet(builder.getPendingMembersList());
-
-    for (DecryptedPendingMember pendingMember : newPendingMembersList) {
-      if (fullMemberSet.contains(pendingMember.getUuid())) {
-        throw new NotAbleToApplyGroupV2ChangeException();
-      }
-
-      if (!pendingMemberCipherTexts.contains(pendingMember.getUuidCipherText())) {
-        builder.addPendingMembers(pendingMember);
-      }
-    }
-  }
-
-  protected static void applyDeletePendingMemberActions(DecryptedGroup.Builder builder, List<DecryptedPendingMemberRemoval> deletePendingMembersList) {
-    for (DecryptedPendingMemberRemoval removedMember : deletePendingMembersList) {
-      int index = findPendingIndexByUuidCipherText(builder.getPendingMembersList(), removedMember.getUuidCipherText());
-
-      if (index == -1) {
-        Log.w(TAG, "Deleted pending member on change not found in group");
-        continue;
-      }
-
-      builder.removePendingMembers(index);
-    }
-  }
-
-  protected static void applyPromotePendingMemberActions(DecryptedGroup.Builder builder, List<DecryptedMember> promotePendingMembersList) throws NotAbleToApplyGroupV2ChangeException {
-    for (DecryptedMember newMember : promotePendingMembersList) {
-      int index = findPendingIndexByUuid(builder.getPendingMembersList(), newMember.getUuid());
-
-      if (index == -1) {
-        throw new NotAbleToApplyGroupV2ChangeException();
-      }
-
-      builder.removePendingMembers(index);
-      builder.addMembers(newMember);
-    }
+    return mutableGroup.toDecryptedGroup();
   }
 
   protected static void applyModifyTitleAction(DecryptedGroup.Builder builder, DecryptedGroupChange change) {
@@ -510,170 +336,12 @@ public final class DecryptedGroupUtil {
     }
   }
 
-  private static void applyAddRequestingMembers(DecryptedGroup.Builder builder, List<DecryptedRequestingMember> newRequestingMembers) {
-    builder.addAllRequestingMembers(newRequestingMembers);
-  }
-
-  private static void applyDeleteRequestingMembers(DecryptedGroup.Builder builder, List<ByteString> deleteRequestingMembersList) {
-    for (ByteString removedMember : deleteRequestingMembersList) {
-      int index = indexOfUuidInRequestingList(builder.getRequestingMembersList(), removedMember);
-
-      if (index == -1) {
-        Log.w(TAG, "Deleted member on change not found in group");
-        continue;
-      }
-
-      builder.removeRequestingMembers(index);
-    }
-  }
-
-  private static void applyPromoteRequestingMemberActions(DecryptedGroup.Builder builder, List<DecryptedApproveMember> promoteRequestingMembers) throws NotAbleToApplyGroupV2ChangeException {
-    for (DecryptedApproveMember approvedMember : promoteRequestingMembers) {
-      int index = indexOfUuidInRequestingList(builder.getRequestingMembersList(), approvedMember.getUuid());
-
-      if (index == -1) {
-        Log.w(TAG, "Deleted member on change not found in group");
-        continue;
-      }
-
-      DecryptedRequestingMember requestingMember = builder.getRequestingMembers(index);
-      Member.Role               role             = approvedMember.getRole();
-
-      ensureKnownRole(role);
-
-      builder.removeRequestingMembers(index)
-             .addMembers(DecryptedMember.newBuilder()
-                                        .setUuid(approvedMember.getUuid())
-                                        .setProfileKey(requestingMember.getProfileKey())
-                                        .setRole(role));
-    }
-  }
-
-  private static void applyInviteLinkPassword(DecryptedGroup.Builder builder, DecryptedGroupChange change) {
+  protected static void applyInviteLinkPassword(DecryptedGroup.Builder builder, DecryptedGroupChange change) {
     if (!change.getNewInviteLinkPassword().isEmpty()) {
       builder.setInviteLinkPassword(change.getNewInviteLinkPassword());
     }
   }
 
-  private static void applyAddBannedMembersActions(DecryptedGroup.Builder builder, List<DecryptedBannedMember> newBannedMembersList) {
-    Set<ByteString> bannedMemberUuidSet = getBannedMemberUuidSet(builder.getBannedMembersList());
-
-    for (DecryptedBannedMember member : newBannedMembersList) {
-      if (bannedMemberUuidSet.contains(member.getUuid())) {
-        Log.w(TAG, "Banned member already in banned list");
-      } else {
-        builder.addBannedMembers(member);
-      }
-    }
-  }
-
-  private static void applyDeleteBannedMembersActions(DecryptedGroup.Builder builder, List<DecryptedBannedMember> deleteMembersList) {
-    for (DecryptedBannedMember removedMember : deleteMembersList) {
-      int index = indexOfUuidInBannedMemberList(builder.getBannedMembersList(), removedMember.getUuid());
-
-      if (index == -1) {
-        Log.w(TAG, "Deleted banned member on change not found in banned list");
-        continue;
-      }
-
-      builder.removeBannedMembers(index);
-    }
-  }
-
-  protected static void applyPromotePendingPniAciMemberActions(DecryptedGroup.Builder builder, List<DecryptedMember> promotePendingPniAciMembersList) throws NotAbleToApplyGroupV2ChangeException {
-    for (DecryptedMember newMember : promotePendingPniAciMembersList) {
-      int index = findPendingIndexByUuid(builder.getPendingMembersList(), newMember.getPni());
-
-      if (index == -1) {
-        throw new NotAbleToApplyGroupV2ChangeException();
-      }
-
-      builder.removePendingMembers(index);
-      builder.addMembers(newMember);
-    }
-  }
-
-  private static DecryptedMember withNewProfileKey(DecryptedMember member, ByteString profileKey) {
-    return DecryptedMember.newBuilder(member)
-                          .setProfileKey(profileKey)
-                          .build();
-  }
-
-  private static Set<ByteString> getMemberUuidSet(List<DecryptedMember> membersList) {
-    Set<ByteString> memberUuids = new HashSet<>(membersList.size());
-
-    for (DecryptedMember members : membersList) {
-      memberUuids.add(members.getUuid());
-    }
-
-    return memberUuids;
-  }
-
-    private static Set<ByteString> getPendingMemberCipherTextSet(List<DecryptedPendingMember> pendingMemberList) {
-    Set<ByteString> pendingMemberCipherTexts = new HashSet<>(pendingMemberList.size());
-
-    for (DecryptedPendingMember pendingMember : pendingMemberList) {
-      pendingMemberCipherTexts.add(pendingMember.getUuidCipherText());
-    }
-
-    return pendingMemberCipherTexts;
-  }
-
-  private static Set<ByteString> getBannedMemberUuidSet(List<DecryptedBannedMember> bannedMemberList) {
-    Set<ByteString> memberUuids = new HashSet<>(bannedMemberList.size());
-
-    for (DecryptedBannedMember member : bannedMemberList) {
-      memberUuids.add(member.getUuid());
-    }
-
-    return memberUuids;
-  }
-
-  private static void removePendingAndRequestingMembersNowInGroup(DecryptedGroup.Builder builder) {
-    Set<ByteString> allMembers = membersToUuidByteStringSet(builder.getMembersList());
-
-    for (int i = builder.getPendingMembersCount() - 1; i >= 0; i--) {
-      DecryptedPendingMember pendingMember = builder.getPendingMembers(i);
-      if (allMembers.contains(pendingMember.getUuid())) {
-        builder.removePendingMembers(i);
-      }
-    }
-
-    for (int i = builder.getRequestingMembersCount() - 1; i >= 0; i--) {
-      DecryptedRequestingMember requestingMember = builder.getRequestingMembers(i);
-      if (allMembers.contains(requestingMember.getUuid())) {
-        builder.removeRequestingMembers(i);
-      }
-    }
-  }
-
-  private static void ensureKnownRole(Member.Role role) throws NotAbleToApplyGroupV2ChangeException {
-    if (role != Member.Role.ADMINISTRATOR && role != Member.Role.DEFAULT) {
-      throw new NotAbleToApplyGroupV2ChangeException();
-    }
-  }
-
-  private static int indexOfUuid(List<DecryptedMember> memberList, ByteString uuid) {
-    for (int i = 0; i < memberList.size(); i++) {
-      if (uuid.equals(memberList.get(i).getUuid())) return i;
-    }
-    return -1;
-  }
-
-  private static int indexOfUuidInRequestingList(List<DecryptedRequestingMember> memberList, ByteString uuid) {
-    for (int i = 0; i < memberList.size(); i++) {
-      if (uuid.equals(memberList.get(i).getUuid())) return i;
-    }
-    return -1;
-  }
-
-  private static int indexOfUuidInBannedMemberList(List<DecryptedBannedMember> memberList, ByteString uuid) {
-    for (int i = 0; i < memberList.size(); i++) {
-      if (uuid.equals(memberList.get(i).getUuid())) return i;
-    }
-    return -1;
-  }
-
   public static Optional<UUID> findInviter(List<DecryptedPendingMember> pendingMembersList, UUID uuid) {
     return Optional.ofNullable(findPendingByUuid(pendingMembersList, uuid).map(DecryptedPendingMember::getAddedByUuid)
                                                                           .map(UuidUtil::fromByteStringOrNull)
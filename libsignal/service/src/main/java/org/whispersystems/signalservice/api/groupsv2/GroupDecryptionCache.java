@@ -0,0 +1,57 @@
+package org.whispersystems.signalservice.api.groupsv2;
+
+import com.google.protobuf.ByteString;
+
+import org.signal.libsignal.zkgroup.groups.GroupSecretParams;
+import org.signal.libsignal.zkgroup.profiles.ProfileKey;
+import org.whispersystems.signalservice.api.util.UuidUtil;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers what the UUID and profile key ciphertexts of a single group decrypted to. Most members are the same from one
+ * revision of a group to the next, so sharing one of these across the pages of a group's history means each of them is
+ * only decrypted once, rather than once per revision.
+ * <p>
+ * Only successful decryptions are remembered. Safe to use from multiple threads.
+ */
+public final class GroupDecryptionCache {
+
+  private final byte[]                      groupSecretParams;
+  private final Map<ByteString, UUID>       uuids       = new ConcurrentHashMap<>();
+  private final Map<ByteString, ProfileKey> profileKeys = new ConcurrentHashMap<>();
+
+  public GroupDecryptionCache(GroupSecretParams groupSecretParams) {
+    this.groupSecretParams = groupSecretParams.serialize();
+  }
+
+  boolean isFor(GroupSecretParams groupSecretParams) {
+    return Arrays.equals(this.groupSecretParams, groupSecretParams.serialize());
+  }
+
+  UUID getUuid(ByteString uuidCiphertext) {
+    return uuids.get(uuidCiphertext);
+  }
+
+  void putUuid(ByteString uuidCiphertext, UUID uuid) {
+    uuids.put(uuidCiphertext, uuid);
+  }
+
+  /**
+   * A profile key ciphertext is only valid alongside the UUID it was encrypted for, so that's part of the key.
+   */
+  ProfileKey getProfileKey(ByteString profileKeyCiphertext, UUID uuid) {
+    return profileKeys.get(profileKeyKey(profileKeyCiphertext, uuid));
+  }
+
+  void putProfileKey(ByteString profileKeyCiphertext, UUID uuid, ProfileKey profileKey) {
+    profileKeys.put(profileKeyKey(profileKeyCiphertext, uuid), profileKey);
+  }
+
+  private static ByteString profileKeyKey(ByteString profileKeyCiphertext, UUID uuid) {
+    return profileKeyCiphertext.concat(UuidUtil.toByteString(uuid));
+  }
+}
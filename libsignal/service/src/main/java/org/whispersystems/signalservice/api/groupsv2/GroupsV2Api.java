@@ -112,10 +112,24 @@ public class GroupsV2Api {
                                               GroupsV2AuthorizationString authorization,
                                               boolean includeFirstState)
       throws IOException, InvalidGroupStateException, VerificationFailedException
+  {
+    return getGroupHistoryPage(groupSecretParams, fromRevision, authorization, includeFirstState, new GroupDecryptionCache(groupSecretParams));
+  }
+
+  /**
+   * @param cache Pass the same cache when fetching several pages of a group's history, so the members in each are only
+   *              decrypted once.
+   */
+  public GroupHistoryPage getGroupHistoryPage(GroupSecretParams groupSecretParams,
+                                              int fromRevision,
+                                              GroupsV2AuthorizationString authorization,
+                                              boolean includeFirstState,
+                                              GroupDecryptionCache cache)
+      throws IOException, InvalidGroupStateException, VerificationFailedException
   {
     PushServiceSocket.GroupHistory     group           = socket.getGroupsV2GroupHistory(fromRevision, authorization, GroupsV2Operations.HIGHEST_KNOWN_EPOCH, includeFirstState);
     List<DecryptedGroupHistoryEntry>   result          = new ArrayList<>(group.getGroupChanges().getGroupChangesList().size());
-    GroupsV2Operations.GroupOperations groupOperations = groupsOperations.forGroup(groupSecretParams);
+    GroupsV2Operations.GroupOperations groupOperations = groupsOperations.forGroup(groupSecretParams, cache);
 
     for (GroupChanges.GroupChangeState change : group.getGroupChanges().getGroupChangesList()) {
       Optional<DecryptedGroup>       decryptedGroup  = change.hasGroupState() ? Optional.of(groupOperations.decryptGroup(change.getGroupState())) : Optional.empty();
@@ -51,6 +51,9 @@ import java.util.Locale;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
@@ -66,18 +69,35 @@ public final class GroupsV2Operations {
   /** Highest change epoch this class knows now to decrypt */
   public static final int HIGHEST_KNOWN_EPOCH = 5;
 
+  /** Lists shorter than this are not worth splitting across threads to decrypt */
+  private static final int MIN_DECRYPTION_BATCH_SIZE = 32;
+
   private final ServerPublicParams        serverPublicParams;
   private final ClientZkProfileOperations clientZkProfileOperations;
   private final ClientZkAuthOperations    clientZkAuthOperations;
   private final int                       maxGroupSize;
   private final SecureRandom              random;
+  private final ExecutorService           decryptionExecutor;
+  private final int                       decryptionParallelism;
 
   public GroupsV2Operations(ClientZkOperations clientZkOperations, int maxGroupSize) {
+    this(clientZkOperations, maxGroupSize, null, 1);
+  }
+
+  /**
+   * @param decryptionExecutor    Used to decrypt the members of large groups in parallel. It should be bounded, and must
+   *                              not be one the caller decrypting groups may be running on.
+   * @param decryptionParallelism The most batches, including the one run on the calling thread, that the members of a
+   *                              group will be split into.
+   */
+  public GroupsV2Operations(ClientZkOperations clientZkOperations, int maxGroupSize, ExecutorService decryptionExecutor, int decryptionParallelism) {
     this.serverPublicParams        = clientZkOperations.getServerPublicParams();
     this.clientZkProfileOperations = clientZkOperations.getProfileOperations();
     this.clientZkAuthOperations    = clientZkOperations.getAuthOperations();
     this.maxGroupSize              = maxGroupSize;
     this.random                    = new SecureRandom();
+    this.decryptionExecutor        = decryptionExecutor;
+    this.decryptionParallelism     = decryptionExecutor != null ? Math.max(1, decryptionParallelism) : 1;
   }
 
   /**
@@ -126,7 +146,19 @@ public final class GroupsV2Operations {
   }
 
   public GroupOperations forGroup(final GroupSecretParams groupSecretParams) {
-    return new GroupOperations(groupSecretParams);
+    return new GroupOperations(groupSecretParams, new GroupDecryptionCache(groupSecretParams));
+  }
+
+  /**
+   * @param cache Shared by every {@link GroupOperations} for the group, so ciphertexts already seen by one of them, e.g.
+   *              on an earlier page of the group's history, are not decrypted again.
+   */
+  public GroupOperations forGroup(final GroupSecretParams groupSecretParams, final GroupDecryptionCache cache) {
+    if (!cache.isFor(groupSecretParams)) {
+      throw new IllegalArgumentException("Cache is for a different group");
+    }
+
+    return new GroupOperations(groupSecretParams, cache);
   }
 
   public ClientZkProfileOperations getProfileOperations() {
@@ -142,12 +174,14 @@ public final class GroupsV2Operations {
    */
   public final class GroupOperations {
 
-    private final GroupSecretParams   groupSecretParams;
-    private final ClientZkGroupCipher clientZkGroupCipher;
+    private final GroupSecretParams    groupSecretParams;
+    private final ClientZkGroupCipher  clientZkGroupCipher;
+    private final GroupDecryptionCache cache;
 
-    private GroupOperations(GroupSecretParams groupSecretParams) {
+    private GroupOperations(GroupSecretParams groupSecretParams, GroupDecryptionCache cache) {
       this.groupSecretParams   = groupSecretParams;
       this.clientZkGroupCipher = new ClientZkGroupCipher(groupSecretParams);
+      this.cache               = cache;
     }
 
     public GroupChange.Actions.Builder createModifyGroupTitle(final String title) {
@@ -447,25 +481,18 @@ public final class GroupsV2Operations {
     public PartialDecryptedGroup partialDecryptGroup(Group group)
         throws VerificationFailedException, InvalidGroupStateException
     {
-      List<Member>                 membersList             = group.getMembersList();
-      List<PendingMember>          pendingMembersList      = group.getPendingMembersList();
-      List<DecryptedMember>        decryptedMembers        = new ArrayList<>(membersList.size());
-      List<DecryptedPendingMember> decryptedPendingMembers = new ArrayList<>(pendingMembersList.size());
-
-      for (Member member : membersList) {
-        UUID memberUuid = decryptUuid(member.getUserId());
-        decryptedMembers.add(DecryptedMember.newBuilder()
-                                            .setUuid(UuidUtil.toByteString(memberUuid))
-                                            .setJoinedAtRevision(member.getJoinedAtRevision())
-                                            .build());
-      }
+      List<DecryptedMember> decryptedMembers = decryptAll(group.getMembersList(), member -> {
+        return DecryptedMember.newBuilder()
+                              .setUuid(decryptUuidToByteString(member.getUserId()))
+                              .setJoinedAtRevision(member.getJoinedAtRevision())
+                              .build();
+      });
 
-      for (PendingMember member : pendingMembersList) {
-        UUID pendingMemberUuid = decryptUuidOrUnknown(member.getMember().getUserId());
-        decryptedPendingMembers.add(DecryptedPendingMember.newBuilder()
-                                                          .setUuid(UuidUtil.toByteString(pendingMemberUuid))
-                                                          .build());
-      }
+      List<DecryptedPendingMember> decryptedPendingMembers = decryptAll(group.getPendingMembersList(), member -> {
+        return DecryptedPendingMember.newBuilder()
+                                     .setUuid(UuidUtil.toByteString(decryptUuidOrUnknown(member.getMember().getUserId())))
+                                     .build();
+      });
 
       DecryptedGroup decryptedGroup = DecryptedGroup.newBuilder()
                                                     .setRevision(group.getRevision())
@@ -479,33 +506,17 @@ public final class GroupsV2Operations {
     public DecryptedGroup decryptGroup(Group group)
         throws VerificationFailedException, InvalidGroupStateException
     {
-      List<Member>                    membersList                = group.getMembersList();
-      List<PendingMember>             pendingMembersList         = group.getPendingMembersList();
-      List<RequestingMember>          requestingMembersList      = group.getRequestingMembersList();
-      List<DecryptedMember>           decryptedMembers           = new ArrayList<>(membersList.size());
-      List<DecryptedPendingMember>    decryptedPendingMembers    = new ArrayList<>(pendingMembersList.size());
-      List<DecryptedRequestingMember> decryptedRequestingMembers = new ArrayList<>(requestingMembersList.size());
-      List<DecryptedBannedMember>     decryptedBannedMembers     = new ArrayList<>(group.getBannedMembersCount());
-
-      for (Member member : membersList) {
+      List<DecryptedMember> decryptedMembers = decryptAll(group.getMembersList(), member -> {
         try {
-          decryptedMembers.add(decryptMember(member).build());
+          return decryptMember(member).build();
         } catch (InvalidInputException e) {
           throw new InvalidGroupStateException(e);
         }
-      }
-
-      for (PendingMember member : pendingMembersList) {
-        decryptedPendingMembers.add(decryptMember(member));
-      }
+      });
 
-      for (RequestingMember member : requestingMembersList) {
-        decryptedRequestingMembers.add(decryptRequestingMember(member));
-      }
-
-      for (BannedMember member : group.getBannedMembersList()) {
-        decryptedBannedMembers.add(DecryptedBannedMember.newBuilder().setUuid(decryptUuidToByteString(member.getUserId())).setTimestamp(member.getTimestamp()).build());
-      }
+      List<DecryptedPendingMember>    decryptedPendingMembers    = decryptAll(group.getPendingMembersList(), this::decryptMember);
+      List<DecryptedRequestingMember> decryptedRequestingMembers = decryptAll(group.getRequestingMembersList(), this::decryptRequestingMember);
+      List<DecryptedBannedMember>     decryptedBannedMembers     = decryptAll(group.getBannedMembersList(), member -> DecryptedBannedMember.newBuilder().setUuid(decryptUuidToByteString(member.getUserId())).setTimestamp(member.getTimestamp()).build());
 
       return DecryptedGroup.newBuilder()
                            .setTitle(decryptTitle(group.getTitle()))
@@ -775,8 +786,8 @@ public final class GroupsV2Operations {
                               .setRole(member.getRole());
       } else {
         ProfileKeyCredentialPresentation profileKeyCredentialPresentation = new ProfileKeyCredentialPresentation(member.getPresentation().toByteArray());
-        UUID                             uuid                             = clientZkGroupCipher.decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
-        ProfileKey                       profileKey                       = clientZkGroupCipher.decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
+        UUID                             uuid                             = decryptUuid(ByteString.copyFrom(profileKeyCredentialPresentation.getUuidCiphertext().serialize()));
+        ProfileKey                       profileKey                       = decryptProfileKey(ByteString.copyFrom(profileKeyCredentialPresentation.getProfileKeyCiphertext().serialize()), uuid);
 
         return DecryptedMember.newBuilder()
                               .setUuid(UuidUtil.toByteString(uuid))
@@ -827,8 +838,8 @@ public final class GroupsV2Operations {
           throw new InvalidGroupStateException(e);
         }
 
-        UUID       uuid       = clientZkGroupCipher.decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
-        ProfileKey profileKey = clientZkGroupCipher.decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
+        UUID       uuid       = decryptUuid(ByteString.copyFrom(profileKeyCredentialPresentation.getUuidCiphertext().serialize()));
+        ProfileKey profileKey = decryptProfileKey(ByteString.copyFrom(profileKeyCredentialPresentation.getProfileKeyCiphertext().serialize()), uuid);
 
         return DecryptedRequestingMember.newBuilder()
                                         .setUuid(UuidUtil.toByteString(uuid))
@@ -838,9 +849,18 @@ public final class GroupsV2Operations {
     }
 
     private ProfileKey decryptProfileKey(ByteString profileKey, UUID uuid) throws VerificationFailedException, InvalidGroupStateException {
+      ProfileKey cached = cache.getProfileKey(profileKey, uuid);
+
+      if (cached != null) {
+        return cached;
+      }
+
       try {
         ProfileKeyCiphertext profileKeyCiphertext = new ProfileKeyCiphertext(profileKey.toByteArray());
-        return clientZkGroupCipher.decryptProfileKey(profileKeyCiphertext, uuid);
+        ProfileKey           decrypted            = clientZkGroupCipher.decryptProfileKey(profileKeyCiphertext, uuid);
+
+        cache.putProfileKey(profileKey, uuid, decrypted);
+        return decrypted;
       } catch (InvalidInputException e) {
         throw new InvalidGroupStateException(e);
       }
@@ -860,8 +880,17 @@ public final class GroupsV2Operations {
     }
 
     private UUID decryptUuid(ByteString userId) throws InvalidGroupStateException, VerificationFailedException {
+      UUID cached = cache.getUuid(userId);
+
+      if (cached != null) {
+        return cached;
+      }
+
       try {
-        return clientZkGroupCipher.decryptUuid(new UuidCiphertext(userId.toByteArray()));
+        UUID decrypted = clientZkGroupCipher.decryptUuid(new UuidCiphertext(userId.toByteArray()));
+
+        cache.putUuid(userId, decrypted);
+        return decrypted;
       } catch (InvalidInputException e) {
         throw new InvalidGroupStateException(e);
       }
@@ -872,12 +901,63 @@ public final class GroupsV2Operations {
      */
     private UUID decryptUuidOrUnknown(ByteString userId) {
       try {
-        return clientZkGroupCipher.decryptUuid(new UuidCiphertext(userId.toByteArray()));
-      } catch (InvalidInputException | VerificationFailedException e) {
+        return decryptUuid(userId);
+      } catch (InvalidGroupStateException | VerificationFailedException e) {
         return UNKNOWN_UUID;
       }
     }
 
+    /**
+     * Decrypts every item of the list, in order. Long lists are split into batches that are decrypted in parallel on the
+     * decryption executor, with the first batch decrypted on the calling thread.
+     */
+    private <T, R> List<R> decryptAll(List<T> items, Decryption<T, R> decryption)
+        throws VerificationFailedException, InvalidGroupStateException
+    {
+      int batchSize = Math.max(MIN_DECRYPTION_BATCH_SIZE, (items.size() + decryptionParallelism - 1) / decryptionParallelism);
+
+      if (decryptionExecutor == null || items.size() <= batchSize) {
+        return decryptRange(items, 0, items.size(), decryption);
+      }
+
+      List<Future<List<R>>> batches = new ArrayList<>(decryptionParallelism - 1);
+
+      for (int start = batchSize; start < items.size(); start += batchSize) {
+        int from = start;
+        int to   = Math.min(start + batchSize, items.size());
+
+        batches.add(decryptionExecutor.submit(() -> decryptRange(items, from, to, decryption)));
+      }
+
+      try {
+        List<R> results = new ArrayList<>(items.size());
+
+        results.addAll(decryptRange(items, 0, batchSize, decryption));
+
+        for (Future<List<R>> batch : batches) {
+          results.addAll(awaitBatch(batch));
+        }
+
+        return results;
+      } finally {
+        for (Future<List<R>> batch : batches) {
+          batch.cancel(false);
+        }
+      }
+    }
+
+    private <T, R> List<R> decryptRange(List<T> items, int from, int to, Decryption<T, R> decryption)
+        throws VerificationFailedException, InvalidGroupStateException
+    {
+      List<R> results = new ArrayList<>(to - from);
+
+      for (int i = from; i < to; i++) {
+        results.add(decryption.decrypt(items.get(i)));
+      }
+
+      return results;
+    }
+
     ByteString encryptTitle(String title) {
       try {
         GroupAttributeBlob blob = GroupAttributeBlob.newBuilder().setTitle(title).build();
@@ -995,6 +1075,48 @@ public final class GroupsV2Operations {
 
   }
 
+  private interface Decryption<T, R> {
+    R decrypt(T item) throws VerificationFailedException, InvalidGroupStateException;
+  }
+
+  /**
+   * Waits for a batch without giving up on interruption, as the batches are short and the caller can't make use of a
+   * partially decrypted group. The interrupt is restored once the batch is done.
+   */
+  private static <R> List<R> awaitBatch(Future<List<R>> batch)
+      throws VerificationFailedException, InvalidGroupStateException
+  {
+    boolean interrupted = false;
+
+    try {
+      while (true) {
+        try {
+          return batch.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+
+      if (cause instanceof VerificationFailedException) {
+        throw (VerificationFailedException) cause;
+      } else if (cause instanceof InvalidGroupStateException) {
+        throw (InvalidGroupStateException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else {
+        throw new AssertionError(cause);
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
   public static class NewGroup {
     private final GroupSecretParams groupSecretParams;
     private final Group             newGroupMessage;
@@ -0,0 +1,423 @@
+package org.whispersystems.signalservice.api.groupsv2;
+
+import com.google.protobuf.ByteString;
+
+import org.signal.libsignal.protocol.logging.Log;
+import org.signal.storageservice.protos.groups.Member;
+import org.signal.storageservice.protos.groups.local.DecryptedApproveMember;
+import org.signal.storageservice.protos.groups.local.DecryptedBannedMember;
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.signal.storageservice.protos.groups.local.DecryptedGroupChange;
+import org.signal.storageservice.protos.groups.local.DecryptedMember;
+import org.signal.storageservice.protos.groups.local.DecryptedModifyMemberRole;
+import org.signal.storageservice.protos.groups.local.DecryptedPendingMember;
+import org.signal.storageservice.protos.groups.local.DecryptedPendingMemberRemoval;
+import org.signal.storageservice.protos.groups.local.DecryptedRequestingMember;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A working copy of a {@link DecryptedGroup} that {@link DecryptedGroupChange}s are applied to in place.
+ * <p>
+ * Members, pending, requesting and banned members are each kept in insertion ordered maps, keyed by UUID, or by UUID
+ * cipher text for pending members, so an action finds the entry it applies to without scanning the list. A
+ * {@link DecryptedGroup} is only built when one is asked for with {@link #toDecryptedGroup()}, which makes catching up on
+ * a long run of changes to a large group linear in the number of actions rather than in actions times members.
+ * <p>
+ * Entries are expected to be unique by their key, as they are on the server. Promoted pending and requesting members are
+ * appended to the members, as they were when the group was rebuilt as lists. A promoted member who was somehow already
+ * in the group is moved to the end rather than kept twice.
+ * <p>
+ * Not thread safe.
+ */
+public final class MutableDecryptedGroup {
+
+  private static final String TAG = MutableDecryptedGroup.class.getSimpleName();
+
+  private final Map<ByteString, DecryptedMember>           members                  = new LinkedHashMap<>();
+  private final Map<ByteString, DecryptedPendingMember>    pendingMembers           = new LinkedHashMap<>();
+  private final Map<ByteString, Set<ByteString>>           pendingCipherTextsByUuid = new HashMap<>();
+  private final Map<ByteString, DecryptedRequestingMember> requestingMembers        = new LinkedHashMap<>();
+  private final Map<ByteString, DecryptedBannedMember>     bannedMembers            = new LinkedHashMap<>();
+  private final List<DecryptedGroupChange>                 appliedSinceCheckpoint   = new ArrayList<>();
+
+  /** Everything but the member lists */
+  private DecryptedGroup attributes;
+
+  /** The last group this was loaded from or built, which a change that can't be applied rolls back to */
+  private DecryptedGroup checkpoint;
+
+  public MutableDecryptedGroup(DecryptedGroup group) {
+    reset(group);
+  }
+
+  /**
+   * Discards the current state and any changes applied to it, and starts again from {@param group}.
+   */
+  public void reset(DecryptedGroup group) {
+    load(group);
+    checkpoint = group;
+    appliedSinceCheckpoint.clear();
+  }
+
+  public int getRevision() {
+    return attributes.getRevision();
+  }
+
+  /**
+   * True if {@param group} is the state this currently holds, i.e. changes to it can be applied here rather than
+   * starting again from it.
+   */
+  public boolean isAt(DecryptedGroup group) {
+    return appliedSinceCheckpoint.isEmpty() && (group == checkpoint || group.equals(checkpoint));
+  }
+
+  public void apply(DecryptedGroupChange change) throws NotAbleToApplyGroupV2ChangeException {
+    if (change.getRevision() != getRevision() + 1) {
+      throw new NotAbleToApplyGroupV2ChangeException();
+    }
+
+    applyWithoutRevisionCheck(change);
+  }
+
+  /**
+   * Applies the change in place. If it can't be applied, this is left as it was before the change.
+   */
+  public void applyWithoutRevisionCheck(DecryptedGroupChange change) throws NotAbleToApplyGroupV2ChangeException {
+    try {
+      applyActions(change);
+    } catch (NotAbleToApplyGroupV2ChangeException e) {
+      rollBack();
+      throw e;
+    }
+
+    appliedSinceCheckpoint.add(change);
+  }
+
+  /**
+   * Builds the current state, which also becomes the checkpoint changes are rolled back to.
+   */
+  public DecryptedGroup toDecryptedGroup() {
+    if (appliedSinceCheckpoint.isEmpty()) {
+      return checkpoint;
+    }
+
+    checkpoint = DecryptedGroup.newBuilder(attributes)
+                               .addAllMembers(members.values())
+                               .addAllPendingMembers(pendingMembers.values())
+                               .addAllRequestingMembers(requestingMembers.values())
+                               .addAllBannedMembers(bannedMembers.values())
+                               .build();
+
+    appliedSinceCheckpoint.clear();
+
+    return checkpoint;
+  }
+
+  private void load(DecryptedGroup group) {
+    members.clear();
+    pendingMembers.clear();
+    pendingCipherTextsByUuid.clear();
+    requestingMembers.clear();
+    bannedMembers.clear();
+
+    for (DecryptedMember member : group.getMembersList()) {
+      members.put(member.getUuid(), member);
+    }
+
+    for (DecryptedPendingMember pendingMember : group.getPendingMembersList()) {
+      putPendingMember(pendingMember);
+    }
+
+    for (DecryptedRequestingMember requestingMember : group.getRequestingMembersList()) {
+      requestingMembers.put(requestingMember.getUuid(), requestingMember);
+    }
+
+    for (DecryptedBannedMember bannedMember : group.getBannedMembersList()) {
+      bannedMembers.put(bannedMember.getUuid(), bannedMember);
+    }
+
+    attributes = DecryptedGroup.newBuilder(group)
+                               .clearMembers()
+                               .clearPendingMembers()
+                               .clearRequestingMembers()
+                               .clearBannedMembers()
+                               .build();
+  }
+
+  /**
+   * Changes are only rolled back when one fails, which is rare, so rather than keeping an undo log the successful
+   * changes since the checkpoint are replayed on top of it.
+   */
+  private void rollBack() {
+    load(checkpoint);
+
+    for (DecryptedGroupChange change : appliedSinceCheckpoint) {
+      try {
+        applyActions(change);
+      } catch (NotAbleToApplyGroupV2ChangeException e) {
+        throw new AssertionError("Change applied before could not be applied again", e);
+      }
+    }
+  }
+
+  private void applyActions(DecryptedGroupChange change) throws NotAbleToApplyGroupV2ChangeException {
+    applyAddMemberActions(change.getNewMembersList());
+
+    applyDeleteMemberActions(change.getDeleteMembersList());
+
+    applyModifyMemberRoleActions(change.getModifyMemberRolesList());
+
+    applyModifyMemberProfileKeyActions(change.getModifiedProfileKeysList());
+
+    applyAddPendingMemberActions(change.getNewPendingMembersList());
+
+    applyDeletePendingMemberActions(change.getDeletePendingMembersList());
+
+    applyPromotePendingMemberActions(change.getPromotePendingMembersList());
+
+    applyAddRequestingMembers(change.getNewRequestingMembersList());
+
+    applyDeleteRequestingMembers(change.getDeleteRequestingMembersList());
+
+    applyPromoteRequestingMemberActions(change.getPromoteRequestingMembersList());
+
+    applyAddBannedMembersActions(change.getNewBannedMembersList());
+
+    applyDeleteBannedMembersActions(change.getDeleteBannedMembersList());
+
+    applyPromotePendingPniAciMemberActions(change.getPromotePendingPniAciMembersList());
+
+    DecryptedGroup.Builder builder = DecryptedGroup.newBuilder(attributes)
+                                                   .setRevision(change.getRevision());
+
+    DecryptedGroupUtil.applyModifyTitleAction(builder, change);
+
+    DecryptedGroupUtil.applyModifyDescriptionAction(builder, change);
+
+    DecryptedGroupUtil.applyModifyIsAnnouncementGroupAction(builder, change);
+
+    DecryptedGroupUtil.applyModifyAvatarAction(builder, change);
+
+    DecryptedGroupUtil.applyModifyDisappearingMessagesTimerAction(builder, change);
+
+    DecryptedGroupUtil.applyModifyAttributesAccessControlAction(builder, change);
+
+    DecryptedGroupUtil.applyModifyMembersAccessControlAction(builder, change);
+
+    DecryptedGroupUtil.applyModifyAddFromInviteLinkAccessControlAction(builder, change);
+
+    DecryptedGroupUtil.applyInviteLinkPassword(builder, change);
+
+    attributes = builder.build();
+  }
+
+  private void applyAddMemberActions(List<DecryptedMember> newMembersList) {
+    if (newMembersList.isEmpty()) return;
+
+    for (DecryptedMember member : newMembersList) {
+      members.put(member.getUuid(), member);
+    }
+
+    removePendingAndRequestingMembersNowInGroup();
+  }
+
+  private void applyDeleteMemberActions(List<ByteString> deleteMembersList) {
+    for (ByteString removedMember : deleteMembersList) {
+      if (members.remove(removedMember) == null) {
+        Log.w(TAG, "Deleted member on change not found in group");
+      }
+    }
+  }
+
+  private void applyModifyMemberRoleActions(List<DecryptedModifyMemberRole> modifyMemberRolesList) throws NotAbleToApplyGroupV2ChangeException {
+    for (DecryptedModifyMemberRole modifyMemberRole : modifyMemberRolesList) {
+      DecryptedMember member = members.get(modifyMemberRole.getUuid());
+
+      if (member == null) {
+        throw new NotAbleToApplyGroupV2ChangeException();
+      }
+
+      Member.Role role = modifyMemberRole.getRole();
+
+      ensureKnownRole(role);
+
+      members.put(member.getUuid(), DecryptedMember.newBuilder(member)
+                                                   .setRole(role)
+                                                   .build());
+    }
+  }
+
+  private void applyModifyMemberProfileKeyActions(List<DecryptedMember> modifiedProfileKeysList) throws NotAbleToApplyGroupV2ChangeException {
+    for (DecryptedMember modifyProfileKey : modifiedProfileKeysList) {
+      DecryptedMember member = members.get(modifyProfileKey.getUuid());
+
+      if (member == null) {
+        throw new NotAbleToApplyGroupV2ChangeException();
+      }
+
+      members.put(member.getUuid(), DecryptedMember.newBuilder(member)
+                                                   .setProfileKey(modifyProfileKey.getProfileKey())
+                                                   .build());
+    }
+  }
+
+  private void applyAddPendingMemberActions(List<DecryptedPendingMember> newPendingMembersList) throws NotAbleToApplyGroupV2ChangeException {
+    for (DecryptedPendingMember pendingMember : newPendingMembersList) {
+      if (members.containsKey(pendingMember.getUuid())) {
+        throw new NotAbleToApplyGroupV2ChangeException();
+      }
+
+      if (!pendingMembers.containsKey(pendingMember.getUuidCipherText())) {
+        putPendingMember(pendingMember);
+      }
+    }
+  }
+
+  private void applyDeletePendingMemberActions(List<DecryptedPendingMemberRemoval> deletePendingMembersList) {
+    for (DecryptedPendingMemberRemoval removedMember : deletePendingMembersList) {
+      if (removePendingMember(removedMember.getUuidCipherText()) == null) {
+        Log.w(TAG, "Deleted pending member on change not found in group");
+      }
+    }
+  }
+
+  private void applyPromotePendingMemberActions(List<DecryptedMember> promotePendingMembersList) throws NotAbleToApplyGroupV2ChangeException {
+    for (DecryptedMember newMember : promotePendingMembersList) {
+      promotePendingMember(newMember.getUuid(), newMember);
+    }
+  }
+
+  private void applyAddRequestingMembers(List<DecryptedRequestingMember> newRequestingMembers) {
+    for (DecryptedRequestingMember requestingMember : newRequestingMembers) {
+      requestingMembers.put(requestingMember.getUuid(), requestingMember);
+    }
+  }
+
+  private void applyDeleteRequestingMembers(List<ByteString> deleteRequestingMembersList) {
+    for (ByteString removedMember : deleteRequestingMembersList) {
+      if (requestingMembers.remove(removedMember) == null) {
+        Log.w(TAG, "Deleted member on change not found in group");
+      }
+    }
+  }
+
+  private void applyPromoteRequestingMemberActions(List<DecryptedApproveMember> promoteRequestingMembers) throws NotAbleToApplyGroupV2ChangeException {
+    for (DecryptedApproveMember approvedMember : promoteRequestingMembers) {
+      DecryptedRequestingMember requestingMember = requestingMembers.get(approvedMember.getUuid());
+
+      if (requestingMember == null) {
+        Log.w(TAG, "Deleted member on change not found in group");
+        continue;
+      }
+
+      Member.Role role = approvedMember.getRole();
+
+      ensureKnownRole(role);
+
+      requestingMembers.remove(approvedMember.getUuid());
+      members.remove(approvedMember.getUuid());
+      members.put(approvedMember.getUuid(), DecryptedMember.newBuilder()
+                                                           .setUuid(approvedMember.getUuid())
+                                                           .setProfileKey(requestingMember.getProfileKey())
+                                                           .setRole(role)
+                                                           .build());
+    }
+  }
+
+  private void applyAddBannedMembersActions(List<DecryptedBannedMember> newBannedMembersList) {
+    for (DecryptedBannedMember member : newBannedMembersList) {
+      if (bannedMembers.containsKey(member.getUuid())) {
+        Log.w(TAG, "Banned member already in banned list");
+      } else {
+        bannedMembers.put(member.getUuid(), member);
+      }
+    }
+  }
+
+  private void applyDeleteBannedMembersActions(List<DecryptedBannedMember> deleteMembersList) {
+    for (DecryptedBannedMember removedMember : deleteMembersList) {
+      if (bannedMembers.remove(removedMember.getUuid()) == null) {
+        Log.w(TAG, "Deleted banned member on change not found in banned list");
+      }
+    }
+  }
+
+  private void applyPromotePendingPniAciMemberActions(List<DecryptedMember> promotePendingPniAciMembersList) throws NotAbleToApplyGroupV2ChangeException {
+    for (DecryptedMember newMember : promotePendingPniAciMembersList) {
+      promotePendingMember(newMember.getPni(), newMember);
+    }
+  }
+
+  /**
+   * Removes the first pending member with {@param pendingUuid} and appends {@param newMember} to the members.
+   */
+  private void promotePendingMember(ByteString pendingUuid, DecryptedMember newMember) throws NotAbleToApplyGroupV2ChangeException {
+    Set<ByteString> cipherTexts = pendingCipherTextsByUuid.get(pendingUuid);
+
+    if (cipherTexts == null) {
+      throw new NotAbleToApplyGroupV2ChangeException();
+    }
+
+    removePendingMember(cipherTexts.iterator().next());
+    members.remove(newMember.getUuid());
+    members.put(newMember.getUuid(), newMember);
+  }
+
+  private void removePendingAndRequestingMembersNowInGroup() {
+    Iterator<Map.Entry<ByteString, Set<ByteString>>> pendingUuids = pendingCipherTextsByUuid.entrySet().iterator();
+
+    while (pendingUuids.hasNext()) {
+      Map.Entry<ByteString, Set<ByteString>> entry = pendingUuids.next();
+
+      if (members.containsKey(entry.getKey())) {
+        pendingMembers.keySet().removeAll(entry.getValue());
+        pendingUuids.remove();
+      }
+    }
+
+    requestingMembers.keySet().removeIf(members::containsKey);
+  }
+
+  private void putPendingMember(DecryptedPendingMember pendingMember) {
+    pendingMembers.put(pendingMember.getUuidCipherText(), pendingMember);
+
+    Set<ByteString> cipherTexts = pendingCipherTextsByUuid.get(pendingMember.getUuid());
+
+    if (cipherTexts == null) {
+      cipherTexts = new LinkedHashSet<>(1);
+      pendingCipherTextsByUuid.put(pendingMember.getUuid(), cipherTexts);
+    }
+
+    cipherTexts.add(pendingMember.getUuidCipherText());
+  }
+
+  private DecryptedPendingMember removePendingMember(ByteString cipherText) {
+    DecryptedPendingMember removed = pendingMembers.remove(cipherText);
+
+    if (removed != null) {
+      Set<ByteString> cipherTexts = pendingCipherTextsByUuid.get(removed.getUuid());
+
+      cipherTexts.remove(cipherText);
+
+      if (cipherTexts.isEmpty()) {
+        pendingCipherTextsByUuid.remove(removed.getUuid());
+      }
+    }
+
+    return removed;
+  }
+
+  private static void ensureKnownRole(Member.Role role) throws NotAbleToApplyGroupV2ChangeException {
+    if (role != Member.Role.ADMINISTRATOR && role != Member.Role.DEFAULT) {
+      throw new NotAbleToApplyGroupV2ChangeException();
+    }
+  }
+}
@@ -1,14 +1,20 @@
 package org.whispersystems.signalservice.api.messages.multidevice;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+/**
+ * Reads length-delimited chunks. The underlying stream is read through a buffer, so varints and small chunks don't cost a read each.
+ */
 public class ChunkedInputStream {
 
+  private static final int BUFFER_SIZE = 8192;
+
   protected final InputStream in;
 
   public ChunkedInputStream(InputStream in) {
-    this.in = in;
+    this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, BUFFER_SIZE);
   }
 
   long readRawVarint32() throws IOException {
@@ -103,6 +109,23 @@ public class ChunkedInputStream {
     public void close() throws IOException {
       // do nothing
     }
+
+    /**
+     * Skips whatever the reader didn't consume, so that the next chunk can be read.
+     */
+    void skipRemaining() throws IOException {
+      while (left > 0) {
+        long skipped = in.skip(left);
+
+        if (skipped > 0) {
+          left -= skipped;
+        } else if (in.read() != -1) {
+          left--;
+        } else {
+          return;
+        }
+      }
+    }
   }
 
 }
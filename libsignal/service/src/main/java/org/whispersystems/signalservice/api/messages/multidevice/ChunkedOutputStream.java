@@ -1,38 +1,66 @@
 package org.whispersystems.signalservice.api.messages.multidevice;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+/**
+ * Writes length-delimited chunks. Writes are buffered, so {@link #flush()} or close the stream when done.
+ */
 public class ChunkedOutputStream {
 
+  private static final int BUFFER_SIZE = 8192;
+
   protected final OutputStream out;
 
+  private final byte[] varintBuffer = new byte[5];
+
+  private byte[] streamBuffer;
+
   public ChunkedOutputStream(OutputStream out) {
-    this.out = out;
+    this.out = out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out, BUFFER_SIZE);
+  }
+
+  public void flush() throws IOException {
+    out.flush();
   }
 
   protected void writeVarint32(int value) throws IOException {
-    while (true) {
-      if ((value & ~0x7F) == 0) {
-        out.write(value);
-        return;
-      } else {
-        out.write((value & 0x7F) | 0x80);
-        value >>>= 7;
-      }
+    int length = 0;
+
+    while ((value & ~0x7F) != 0) {
+      varintBuffer[length++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
     }
+
+    varintBuffer[length++] = (byte) value;
+
+    out.write(varintBuffer, 0, length);
   }
 
   protected void writeStream(InputStream in) throws IOException {
-    byte[] buffer = new byte[4096];
+    if (streamBuffer == null) {
+      streamBuffer = new byte[BUFFER_SIZE];
+    }
+
     int read;
 
-    while ((read = in.read(buffer)) != -1) {
-      out.write(buffer, 0, read);
+    while ((read = in.read(streamBuffer)) != -1) {
+      out.write(streamBuffer, 0, read);
     }
 
     in.close();
   }
 
+  /**
+   * @return The number of bytes {@link #writeVarint32(int)} writes for the value.
+   */
+  protected static int getVarint32Size(int value) {
+    if ((value & (~0 << 7)) == 0) return 1;
+    if ((value & (~0 << 14)) == 0) return 2;
+    if ((value & (~0 << 21)) == 0) return 3;
+    if ((value & (~0 << 28)) == 0) return 4;
+    return 5;
+  }
 }
@@ -26,11 +26,22 @@ public class DeviceContactsInputStream extends ChunkedInputStream {
 
   private static final String TAG = DeviceContactsInputStream.class.getSimpleName();
 
+  private LimitedInputStream previousAvatar;
+
   public DeviceContactsInputStream(InputStream in) {
     super(in);
   }
 
+  /**
+   * Reads the next contact. Its avatar, if it has one, is read straight from this stream, so anything left of it unread is skipped over by the
+   * next call.
+   */
   public DeviceContact read() throws IOException {
+    if (previousAvatar != null) {
+      previousAvatar.skipRemaining();
+      previousAvatar = null;
+    }
+
     int detailsLength = (int) readRawVarint32();
     if (detailsLength == -1) {
       return null;
@@ -57,9 +68,11 @@ public class DeviceContactsInputStream extends ChunkedInputStream {
     boolean                                 archived      = false;
 
     if (details.hasAvatar()) {
-      long        avatarLength      = details.getAvatar().getLength();
-      InputStream avatarStream      = new LimitedInputStream(in, avatarLength);
-      String      avatarContentType = details.getAvatar().getContentType();
+      long               avatarLength      = details.getAvatar().getLength();
+      LimitedInputStream avatarStream      = new LimitedInputStream(in, avatarLength);
+      String             avatarContentType = details.getAvatar().getContentType();
+
+      previousAvatar = avatarStream;
 
       avatar = Optional.of(new SignalServiceAttachmentStream(avatarStream, avatarContentType, avatarLength, Optional.empty(), false, false, false, null, null));
     }
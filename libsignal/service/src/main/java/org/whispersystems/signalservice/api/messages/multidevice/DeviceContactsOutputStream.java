@@ -24,6 +24,17 @@ public class DeviceContactsOutputStream extends ChunkedOutputStream {
     writeAvatarImage(contact);
   }
 
+  /**
+   * @return How many bytes {@link #write(DeviceContact)} will write for the contact, including its avatar. Lets the result be streamed somewhere
+   *         that needs to know its length up front, such as an attachment upload, without writing it all out first.
+   */
+  public static long getEncodedLength(DeviceContact contact) {
+    int  detailsLength = buildContactDetails(contact).getSerializedSize();
+    long avatarLength  = contact.getAvatar().isPresent() ? contact.getAvatar().get().getLength() : 0;
+
+    return getVarint32Size(detailsLength) + detailsLength + avatarLength;
+  }
+
   public void close() throws IOException {
     out.close();
   }
@@ -35,6 +46,13 @@ public class DeviceContactsOutputStream extends ChunkedOutputStream {
   }
 
   private void writeContactDetails(DeviceContact contact) throws IOException {
+    byte[] serializedContactDetails = buildContactDetails(contact).toByteArray();
+
+    writeVarint32(serializedContactDetails.length);
+    out.write(serializedContactDetails);
+  }
+
+  private static SignalServiceProtos.ContactDetails buildContactDetails(DeviceContact contact) {
     SignalServiceProtos.ContactDetails.Builder contactDetails = SignalServiceProtos.ContactDetails.newBuilder();
 
     contactDetails.setUuid(contact.getAddress().getServiceId().toString());
@@ -90,10 +108,7 @@ public class DeviceContactsOutputStream extends ChunkedOutputStream {
     contactDetails.setBlocked(contact.isBlocked());
     contactDetails.setArchived(contact.isArchived());
 
-    byte[] serializedContactDetails = contactDetails.build().toByteArray();
-
-    writeVarint32(serializedContactDetails.length);
-    out.write(serializedContactDetails);
+    return contactDetails.build();
   }
 
 }
@@ -0,0 +1,349 @@
+package org.whispersystems.signalservice.internal.push;
+
+import org.signal.libsignal.protocol.InvalidKeyException;
+import org.signal.libsignal.protocol.logging.Log;
+import org.whispersystems.signalservice.api.CancelationException;
+import org.whispersystems.signalservice.api.crypto.UnidentifiedAccess;
+import org.whispersystems.signalservice.api.crypto.UntrustedIdentityException;
+import org.whispersystems.signalservice.api.messages.SendMessageResult;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+import org.whispersystems.signalservice.api.push.exceptions.AuthorizationFailedException;
+import org.whispersystems.signalservice.api.push.exceptions.UnregisteredUserException;
+import org.whispersystems.signalservice.api.services.MessagingService;
+import org.whispersystems.signalservice.internal.ServiceResponse;
+import org.whispersystems.signalservice.internal.push.exceptions.InvalidUnidentifiedAccessHeaderException;
+import org.whispersystems.signalservice.internal.push.exceptions.MismatchedDevicesException;
+import org.whispersystems.signalservice.internal.push.exceptions.StaleDevicesException;
+import org.whispersystems.signalservice.internal.push.http.CancelationSignal;
+import org.whispersystems.signalservice.internal.push.http.PartialSendCompleteListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import io.reactivex.rxjava3.core.Single;
+
+/**
+ * Sends the same content to many recipients by pipelining requests over the websocket.
+ * <p>
+ * Each recipient's messages are encrypted on the provided executor, and then sent as a websocket request without
+ * waiting for the response. At most {@code maxInFlight} requests are outstanding at any time. Responses are matched
+ * back to their recipient as they arrive, so the total send time is bounded by encryption and the in-flight window
+ * rather than by one round trip per recipient.
+ * <p>
+ * If the websocket is missing or fails, the messages that were already encrypted are sent over REST through the
+ * {@link RestTransport}. Anything that needs the messages encrypted again (device mismatches, stale devices, or sealed
+ * sender being rejected) is handed to a {@link Fallback}, which is expected to be the regular blocking send path.
+ * Device mismatches are first applied to the local sessions through a {@link DeviceConflictHandler}, as the blocking
+ * path would. A sealed sender send that fails authorization is retried without sealed sender, as the blocking path
+ * would, rather than being sent over REST where it would fail the same way.
+ */
+public final class PipelinedMessageSender {
+
+  private static final String TAG = PipelinedMessageSender.class.getSimpleName();
+
+  private final ExecutorService       executor;
+  private final Encrypter             encrypter;
+  private final Transport             transport;
+  private final RestTransport         restTransport;
+  private final DeviceConflictHandler conflictHandler;
+  private final Fallback              fallback;
+  private final ResultFactory         resultFactory;
+  private final int                   maxInFlight;
+
+  public PipelinedMessageSender(ExecutorService executor,
+                                Encrypter encrypter,
+                                Transport transport,
+                                RestTransport restTransport,
+                                DeviceConflictHandler conflictHandler,
+                                Fallback fallback,
+                                ResultFactory resultFactory,
+                                int maxInFlight)
+  {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be positive!");
+    }
+
+    this.executor        = executor;
+    this.encrypter       = encrypter;
+    this.transport       = transport;
+    this.restTransport   = restTransport;
+    this.conflictHandler = conflictHandler;
+    this.fallback        = fallback;
+    this.resultFactory   = resultFactory;
+    this.maxInFlight     = maxInFlight;
+  }
+
+  /**
+   * Starts sending to every recipient and returns one future per recipient, in the same order as the input. A future
+   * that fails will fail with the same exception the blocking send path would have thrown for that recipient.
+   */
+  public List<Future<SendMessageResult>> send(List<SignalServiceAddress>         recipients,
+                                              List<Optional<UnidentifiedAccess>> unidentifiedAccess,
+                                              CancelationSignal                  cancelationSignal,
+                                              PartialSendCompleteListener        partialListener)
+  {
+    Semaphore                              window                     = new Semaphore(maxInFlight);
+    List<Future<SendMessageResult>>        futures                    = new ArrayList<>(recipients.size());
+    Iterator<SignalServiceAddress>         recipientIterator          = recipients.iterator();
+    Iterator<Optional<UnidentifiedAccess>> unidentifiedAccessIterator = unidentifiedAccess.iterator();
+
+    while (recipientIterator.hasNext()) {
+      SignalServiceAddress                 recipient = recipientIterator.next();
+      Optional<UnidentifiedAccess>         access    = unidentifiedAccessIterator.next();
+      CompletableFuture<SendMessageResult> future    = new CompletableFuture<>();
+
+      futures.add(future);
+      executor.execute(() -> encryptAndSend(recipient, access, window, cancelationSignal, new Completion(future, partialListener)));
+    }
+
+    return futures;
+  }
+
+  private void encryptAndSend(SignalServiceAddress         recipient,
+                              Optional<UnidentifiedAccess> access,
+                              Semaphore                    window,
+                              CancelationSignal            cancelationSignal,
+                              Completion                   completion)
+  {
+    long startTime = System.currentTimeMillis();
+
+    try {
+      throwIfCanceled(cancelationSignal);
+
+      OutgoingPushMessageList messages = encrypter.encrypt(recipient, access);
+
+      window.acquire();
+      throwIfCanceledAndRelease(cancelationSignal, window);
+
+      Single<ServiceResponse<SendMessageResponse>> request;
+      try {
+        request = transport.send(messages, access);
+      } catch (RuntimeException e) {
+        window.release();
+        throw e;
+      }
+
+      //noinspection ResultOfMethodCallIgnored
+      request.subscribe(response -> {
+        window.release();
+        executor.execute(() -> handleResponse(recipient, access, messages, response, startTime, cancelationSignal, completion));
+      }, error -> {
+        window.release();
+        Log.w(TAG, "Pipelined send failed, falling back to REST. (" + error.getClass().getSimpleName() + ")");
+        executor.execute(() -> sendOverRest(recipient, access, messages, startTime, cancelationSignal, completion));
+      });
+    } catch (InvalidKeyException e) {
+      Log.w(TAG, e);
+      runFallback(recipient, Optional.empty(), true, completion);
+    } catch (InterruptedException e) {
+      completion.fail(new IOException(e));
+    } catch (Exception e) {
+      completion.fail(e);
+    }
+  }
+
+  private void handleResponse(SignalServiceAddress                 recipient,
+                              Optional<UnidentifiedAccess>         access,
+                              OutgoingPushMessageList              messages,
+                              ServiceResponse<SendMessageResponse> response,
+                              long                                 startTime,
+                              CancelationSignal                    cancelationSignal,
+                              Completion                           completion)
+  {
+    MessagingService.SendResponseProcessor<SendMessageResponse> processor = new MessagingService.SendResponseProcessor<>(response);
+
+    if (processor.hasResult()) {
+      completion.succeed(resultFactory.success(recipient, messages, processor.getResult(), System.currentTimeMillis() - startTime));
+      return;
+    }
+
+    try {
+      processor.getResultOrThrow();
+    } catch (InvalidUnidentifiedAccessHeaderException | UnregisteredUserException e) {
+      // Non-technical failures shouldn't be retried
+      completion.fail(e);
+      return;
+    } catch (MismatchedDevicesException e) {
+      Log.w(TAG, "Pipelined send has mismatched devices, falling back. (" + e.getMessage() + ")");
+      handleMismatchedDevices(recipient, access, e, true, completion);
+      return;
+    } catch (StaleDevicesException e) {
+      Log.w(TAG, "Pipelined send has stale devices, falling back. (" + e.getMessage() + ")");
+      handleStaleDevices(recipient, access, e, true, completion);
+      return;
+    } catch (AuthorizationFailedException e) {
+      handleAuthorizationFailure(recipient, access, e, completion);
+      return;
+    } catch (IOException | RuntimeException e) {
+      Log.w(TAG, "Pipelined send failed, falling back to REST. (" + e.getClass().getSimpleName() + ": " + e.getMessage() + ")");
+      sendOverRest(recipient, access, messages, startTime, cancelationSignal, completion);
+      return;
+    }
+
+    completion.fail(new IOException("Response had neither a result nor an error!"));
+  }
+
+  /**
+   * Sends messages that were already encrypted for the websocket over REST instead, so a transport failure doesn't
+   * cost a second round of encryption.
+   */
+  private void sendOverRest(SignalServiceAddress         recipient,
+                            Optional<UnidentifiedAccess> access,
+                            OutgoingPushMessageList      messages,
+                            long                         startTime,
+                            CancelationSignal            cancelationSignal,
+                            Completion                   completion)
+  {
+    try {
+      throwIfCanceled(cancelationSignal);
+
+      SendMessageResponse response = restTransport.send(messages, access);
+      completion.succeed(resultFactory.success(recipient, messages, response, System.currentTimeMillis() - startTime));
+    } catch (MismatchedDevicesException e) {
+      Log.w(TAG, "REST send has mismatched devices, falling back. (" + e.getMessage() + ")");
+      handleMismatchedDevices(recipient, access, e, false, completion);
+    } catch (StaleDevicesException e) {
+      Log.w(TAG, "REST send has stale devices, falling back. (" + e.getMessage() + ")");
+      handleStaleDevices(recipient, access, e, false, completion);
+    } catch (AuthorizationFailedException e) {
+      handleAuthorizationFailure(recipient, access, e, completion);
+    } catch (Exception e) {
+      completion.fail(e);
+    }
+  }
+
+  private void handleMismatchedDevices(SignalServiceAddress         recipient,
+                                       Optional<UnidentifiedAccess> access,
+                                       MismatchedDevicesException   e,
+                                       boolean                      allowWebSocket,
+                                       Completion                   completion)
+  {
+    try {
+      conflictHandler.handleMismatchedDevices(recipient, e.getMismatchedDevices());
+    } catch (IOException | UntrustedIdentityException | RuntimeException handlerException) {
+      completion.fail(handlerException);
+      return;
+    }
+    runFallback(recipient, access, allowWebSocket, completion);
+  }
+
+  private void handleStaleDevices(SignalServiceAddress         recipient,
+                                  Optional<UnidentifiedAccess> access,
+                                  StaleDevicesException        e,
+                                  boolean                      allowWebSocket,
+                                  Completion                   completion)
+  {
+    try {
+      conflictHandler.handleStaleDevices(recipient, e.getStaleDevices());
+    } catch (RuntimeException handlerException) {
+      completion.fail(handlerException);
+      return;
+    }
+    runFallback(recipient, access, allowWebSocket, completion);
+  }
+
+  private void handleAuthorizationFailure(SignalServiceAddress         recipient,
+                                          Optional<UnidentifiedAccess> access,
+                                          AuthorizationFailedException e,
+                                          Completion                   completion)
+  {
+    if (access.isPresent()) {
+      Log.w(TAG, "Got an AuthorizationFailedException when trying to send using sealed sender. Falling back.");
+      runFallback(recipient, Optional.empty(), true, completion);
+    } else {
+      Log.w(TAG, "Got an AuthorizationFailedException without using sealed sender!", e);
+      completion.fail(e);
+    }
+  }
+
+  private void runFallback(SignalServiceAddress         recipient,
+                           Optional<UnidentifiedAccess> access,
+                           boolean                      allowWebSocket,
+                           Completion                   completion)
+  {
+    try {
+      completion.succeed(fallback.send(recipient, access, allowWebSocket));
+    } catch (Exception e) {
+      completion.fail(e);
+    }
+  }
+
+  private static void throwIfCanceled(CancelationSignal cancelationSignal) throws CancelationException {
+    if (cancelationSignal != null && cancelationSignal.isCanceled()) {
+      throw new CancelationException();
+    }
+  }
+
+  private static void throwIfCanceledAndRelease(CancelationSignal cancelationSignal, Semaphore window) throws CancelationException {
+    if (cancelationSignal != null && cancelationSignal.isCanceled()) {
+      window.release();
+      throw new CancelationException();
+    }
+  }
+
+  private static final class Completion {
+    private final CompletableFuture<SendMessageResult> future;
+    private final PartialSendCompleteListener          partialListener;
+
+    private Completion(CompletableFuture<SendMessageResult> future, PartialSendCompleteListener partialListener) {
+      this.future          = future;
+      this.partialListener = partialListener;
+    }
+
+    void succeed(SendMessageResult result) {
+      if (partialListener != null) {
+        try {
+          partialListener.onPartialSendComplete(result);
+        } catch (RuntimeException e) {
+          future.completeExceptionally(e);
+          return;
+        }
+      }
+      future.complete(result);
+    }
+
+    void fail(Throwable throwable) {
+      future.completeExceptionally(throwable);
+    }
+  }
+
+  public interface Encrypter {
+    OutgoingPushMessageList encrypt(SignalServiceAddress recipient, Optional<UnidentifiedAccess> unidentifiedAccess)
+        throws IOException, InvalidKeyException, UntrustedIdentityException;
+  }
+
+  public interface Transport {
+    Single<ServiceResponse<SendMessageResponse>> send(OutgoingPushMessageList messages, Optional<UnidentifiedAccess> unidentifiedAccess);
+  }
+
+  public interface RestTransport {
+    SendMessageResponse send(OutgoingPushMessageList messages, Optional<UnidentifiedAccess> unidentifiedAccess) throws IOException;
+  }
+
+  /**
+   * Applies a 409 or 410 response to the local sessions, so that the retry through the {@link Fallback} encrypts for
+   * the right set of devices.
+   */
+  public interface DeviceConflictHandler {
+    void handleMismatchedDevices(SignalServiceAddress recipient, MismatchedDevices mismatchedDevices)
+        throws IOException, UntrustedIdentityException;
+
+    void handleStaleDevices(SignalServiceAddress recipient, StaleDevices staleDevices);
+  }
+
+  public interface Fallback {
+    SendMessageResult send(SignalServiceAddress recipient, Optional<UnidentifiedAccess> unidentifiedAccess, boolean allowWebSocket)
+        throws IOException, UntrustedIdentityException;
+  }
+
+  public interface ResultFactory {
+    SendMessageResult success(SignalServiceAddress recipient, OutgoingPushMessageList messages, SendMessageResponse response, long duration);
+  }
+}
@@ -20,17 +20,22 @@ import org.whispersystems.signalservice.internal.util.Util;
 import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
@@ -56,14 +61,35 @@ import static org.whispersystems.signalservice.internal.websocket.WebSocketProto
 import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage;
 import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketResponseMessage;
 
+/**
+ * A single websocket connection to the service.
+ * <p>
+ * Incoming requests, outgoing requests and keep alives are tracked in concurrent collections rather than behind this
+ * object's monitor, so OkHttp's reader thread never blocks on the thread reading messages, sending acks, or sending
+ * keep alives. Only connection state transitions (connect, disconnect, open, close) are synchronized.
+ * <p>
+ * When ack coalescing is enabled, {@link #sendResponse(WebSocketResponseMessage)} only enqueues the response. Queued
+ * responses are handed to OkHttp together on a background thread, with no added delay, so that acks queued while that
+ * thread is being scheduled are drained by OkHttp's writer thread in one run instead of it being woken for every ack.
+ * Each ack is still its own websocket message, as the protocol carries one {@link WebSocketMessage} per message, and
+ * OkHttp writes each message to the socket separately.
+ */
 public class WebSocketConnection extends WebSocketListener {
 
   private static final String TAG                       = WebSocketConnection.class.getSimpleName();
   public  static final int    KEEPALIVE_TIMEOUT_SECONDS = 30;
 
-  private final LinkedList<WebSocketRequestMessage> incomingRequests = new LinkedList<>();
-  private final Map<Long, OutgoingRequest>          outgoingRequests = new HashMap<>();
-  private final Set<Long>                           keepAlives       = new HashSet<>();
+  /** Placed on the incoming queue to wake up any reader when the connection goes away. */
+  private static final WebSocketRequestMessage CONNECTION_CLOSED = WebSocketRequestMessage.newBuilder().setPath("connection-closed").build();
+
+  private final BlockingQueue<WebSocketRequestMessage> incomingRequests = new LinkedBlockingQueue<>();
+  private final Map<Long, OutgoingRequest>             outgoingRequests = new ConcurrentHashMap<>();
+  private final Set<Long>                              keepAlives       = ConcurrentHashMap.newKeySet();
+  private final Queue<PendingAck>                      pendingAcks      = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean                          ackFlushQueued   = new AtomicBoolean(false);
+  private final AtomicLong                             ackCount         = new AtomicLong(0);
+  private final AtomicLong                             ackLatencyTotal  = new AtomicLong(0);
+  private final AtomicLong                             ackLatencyMax    = new AtomicLong(0);
 
   private final String                                    name;
   private final String                                    wsUri;
@@ -77,8 +103,9 @@ public class WebSocketConnection extends WebSocketListener {
   private final BehaviorSubject<WebSocketConnectionState> webSocketState;
   private final boolean                                   allowStories;
   private final SignalServiceUrl                          serviceUrl;
+  private final boolean                                   coalesceAcks;
 
-  private WebSocket client;
+  private volatile WebSocket client;
 
   public WebSocketConnection(String name,
                              SignalServiceConfiguration serviceConfiguration,
@@ -86,7 +113,17 @@ public class WebSocketConnection extends WebSocketListener {
                              String signalAgent,
                              HealthMonitor healthMonitor,
                              boolean allowStories) {
-    this(name, serviceConfiguration, credentialsProvider, signalAgent, healthMonitor, "", allowStories);
+    this(name, serviceConfiguration, credentialsProvider, signalAgent, healthMonitor, "", allowStories, false);
+  }
+
+  public WebSocketConnection(String name,
+                             SignalServiceConfiguration serviceConfiguration,
+                             Optional<CredentialsProvider> credentialsProvider,
+                             String signalAgent,
+                             HealthMonitor healthMonitor,
+                             boolean allowStories,
+                             boolean coalesceAcks) {
+    this(name, serviceConfiguration, credentialsProvider, signalAgent, healthMonitor, "", allowStories, coalesceAcks);
   }
 
   public WebSocketConnection(String name,
@@ -96,6 +133,18 @@ public class WebSocketConnection extends WebSocketListener {
                              HealthMonitor healthMonitor,
                              String extraPathUri,
                              boolean allowStories)
+  {
+    this(name, serviceConfiguration, credentialsProvider, signalAgent, healthMonitor, extraPathUri, allowStories, false);
+  }
+
+  public WebSocketConnection(String name,
+                             SignalServiceConfiguration serviceConfiguration,
+                             Optional<CredentialsProvider> credentialsProvider,
+                             String signalAgent,
+                             HealthMonitor healthMonitor,
+                             String extraPathUri,
+                             boolean allowStories,
+                             boolean coalesceAcks)
   {
     this.name                = "[" + name + ":" + System.identityHashCode(this) + "]";
     this.trustStore          = serviceConfiguration.getSignalServiceUrls()[0].getTrustStore();
@@ -108,6 +157,7 @@ public class WebSocketConnection extends WebSocketListener {
     this.webSocketState      = BehaviorSubject.createDefault(WebSocketConnectionState.DISCONNECTED);
     this.allowStories        = allowStories;
     this.serviceUrl          = serviceConfiguration.getSignalServiceUrls()[0];
+    this.coalesceAcks        = coalesceAcks;
 
     String uri = serviceUrl.getUrl().replace("https://", "wss://").replace("http://", "ws://");
 
@@ -172,6 +222,7 @@ public class WebSocketConnection extends WebSocketListener {
 
       webSocketState.onNext(WebSocketConnectionState.CONNECTING);
 
+      incomingRequests.removeIf(request -> request == CONNECTION_CLOSED);
       this.client = okHttpClient.newWebSocket(requestBuilder.build(), this);
     }
     return webSocketState;
@@ -185,45 +236,55 @@ public class WebSocketConnection extends WebSocketListener {
     log("disconnect()");
 
     if (client != null) {
+      flushAcks();
       client.close(1000, "OK");
       client = null;
       webSocketState.onNext(WebSocketConnectionState.DISCONNECTING);
     }
 
-    notifyAll();
+    incomingRequests.offer(CONNECTION_CLOSED);
   }
 
-  public synchronized Optional<WebSocketRequestMessage> readRequestIfAvailable() {
-    if (incomingRequests.size() > 0) {
-      return Optional.of(incomingRequests.removeFirst());
-    } else {
+  public Optional<WebSocketRequestMessage> readRequestIfAvailable() {
+    WebSocketRequestMessage request = incomingRequests.poll();
+
+    if (request == CONNECTION_CLOSED) {
+      incomingRequests.offer(CONNECTION_CLOSED);
       return Optional.empty();
     }
+
+    return Optional.ofNullable(request);
   }
 
-  public synchronized WebSocketRequestMessage readRequest(long timeoutMillis)
+  public WebSocketRequestMessage readRequest(long timeoutMillis)
       throws TimeoutException, IOException
   {
     if (client == null) {
       throw new IOException("Connection closed!");
     }
 
-    long startTime = System.currentTimeMillis();
-
-    while (client != null && incomingRequests.isEmpty() && elapsedTime(startTime) < timeoutMillis) {
-      Util.wait(this, Math.max(1, timeoutMillis - elapsedTime(startTime)));
+    WebSocketRequestMessage request;
+    try {
+      request = incomingRequests.poll(Math.max(1, timeoutMillis), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
     }
 
-    if (incomingRequests.isEmpty() && client == null) {
+    if (request == CONNECTION_CLOSED) {
+      incomingRequests.offer(CONNECTION_CLOSED);
+      throw new IOException("Connection closed!");
+    } else if (request == null && client == null) {
       throw new IOException("Connection closed!");
-    } else if (incomingRequests.isEmpty()) {
+    } else if (request == null) {
       throw new TimeoutException("Timeout exceeded");
     } else {
-      return incomingRequests.removeFirst();
+      return request;
     }
   }
 
-  public synchronized Single<WebsocketResponse> sendRequest(WebSocketRequestMessage request) throws IOException {
+  public Single<WebsocketResponse> sendRequest(WebSocketRequestMessage request) throws IOException {
+    WebSocket client = this.client;
+
     if (client == null) {
       throw new IOException("No connection!");
     }
@@ -238,6 +299,7 @@ public class WebSocketConnection extends WebSocketListener {
     outgoingRequests.put(request.getId(), new OutgoingRequest(single));
 
     if (!client.send(ByteString.of(message.toByteArray()))) {
+      outgoingRequests.remove(request.getId());
       throw new IOException("Write failed!");
     }
 
@@ -246,7 +308,9 @@ public class WebSocketConnection extends WebSocketListener {
                  .timeout(10, TimeUnit.SECONDS, Schedulers.io());
   }
 
-  public synchronized void sendResponse(WebSocketResponseMessage response) throws IOException {
+  public void sendResponse(WebSocketResponseMessage response) throws IOException {
+    WebSocket client = this.client;
+
     if (client == null) {
       throw new IOException("Connection closed!");
     }
@@ -256,12 +320,26 @@ public class WebSocketConnection extends WebSocketListener {
                                                .setResponse(response)
                                                .build();
 
-    if (!client.send(ByteString.of(message.toByteArray()))) {
-      throw new IOException("Write failed!");
+    if (coalesceAcks) {
+      pendingAcks.offer(new PendingAck(ByteString.of(message.toByteArray()), System.nanoTime()));
+
+      if (ackFlushQueued.compareAndSet(false, true)) {
+        Schedulers.io().scheduleDirect(this::flushAcks);
+      }
+    } else {
+      long startTime = System.nanoTime();
+
+      if (!client.send(ByteString.of(message.toByteArray()))) {
+        throw new IOException("Write failed!");
+      }
+
+      recordAckLatency(startTime);
     }
   }
 
-  public synchronized void sendKeepAlive() throws IOException {
+  public void sendKeepAlive() throws IOException {
+    WebSocket client = this.client;
+
     if (client != null) {
       log( "Sending keep alive...");
       long id = System.currentTimeMillis();
@@ -281,6 +359,72 @@ public class WebSocketConnection extends WebSocketListener {
     }
   }
 
+  /**
+   * @return The number of requests from the server that have been received but not yet read.
+   */
+  int getIncomingQueueDepth() {
+    int depth = incomingRequests.size();
+    return incomingRequests.contains(CONNECTION_CLOSED) ? depth - 1 : depth;
+  }
+
+  /**
+   * @return The number of acks that have been queued but not yet written. Always zero unless coalescing is enabled.
+   */
+  int getPendingAckCount() {
+    return pendingAcks.size();
+  }
+
+  /**
+   * @return Latency between an ack being handed to {@link #sendResponse(WebSocketResponseMessage)} and it being
+   *         written to the socket, over the lifetime of this connection.
+   */
+  AckLatency getAckLatency() {
+    long count = ackCount.get();
+    return new AckLatency(count,
+                          count > 0 ? TimeUnit.NANOSECONDS.toMicros(ackLatencyTotal.get() / count) : 0,
+                          TimeUnit.NANOSECONDS.toMicros(ackLatencyMax.get()));
+  }
+
+  private void flushAcks() {
+    ackFlushQueued.set(false);
+
+    List<PendingAck> batch = new ArrayList<>(pendingAcks.size());
+    PendingAck       ack;
+
+    while ((ack = pendingAcks.poll()) != null) {
+      batch.add(ack);
+    }
+
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    WebSocket client  = this.client;
+    int       written = 0;
+
+    if (client != null) {
+      for (PendingAck pending : batch) {
+        if (!client.send(pending.payload)) {
+          break;
+        }
+        recordAckLatency(pending.enqueueTime);
+        written++;
+      }
+    }
+
+    if (written < batch.size()) {
+      warn("Failed to write " + (batch.size() - written) + " acks! Wrote " + written + ".");
+    }
+  }
+
+  private void recordAckLatency(long startTime) {
+    long latency = System.nanoTime() - startTime;
+
+    ackCount.incrementAndGet();
+    ackLatencyTotal.addAndGet(latency);
+    ackLatencyMax.accumulateAndGet(latency, Math::max);
+  }
+
   @Override
   public synchronized void onOpen(WebSocket webSocket, Response response) {
     if (client != null) {
@@ -290,7 +434,7 @@ public class WebSocketConnection extends WebSocketListener {
   }
 
   @Override
-  public synchronized void onMessage(WebSocket webSocket, ByteString payload) {
+  public void onMessage(WebSocket webSocket, ByteString payload) {
     try {
       WebSocketMessage message = WebSocketMessage.parseFrom(payload.toByteArray());
 
@@ -310,8 +454,6 @@ public class WebSocketConnection extends WebSocketListener {
           healthMonitor.onKeepAliveResponse(message.getResponse().getId(), credentialsProvider.isPresent());
         }
       }
-
-      notifyAll();
     } catch (InvalidProtocolBufferException e) {
       warn(e);
     }
@@ -323,8 +465,6 @@ public class WebSocketConnection extends WebSocketListener {
     webSocketState.onNext(WebSocketConnectionState.DISCONNECTED);
 
     cleanupAfterShutdown();
-
-    notifyAll();
   }
 
   @Override
@@ -338,8 +478,6 @@ public class WebSocketConnection extends WebSocketListener {
     }
 
     cleanupAfterShutdown();
-
-    notifyAll();
   }
 
   private void cleanupAfterShutdown() {
@@ -356,6 +494,11 @@ public class WebSocketConnection extends WebSocketListener {
       client.close(1000, "OK");
       client = null;
     }
+
+    pendingAcks.clear();
+    incomingRequests.offer(CONNECTION_CLOSED);
+
+    log("Closed with " + getIncomingQueueDepth() + " unread requests. " + getAckLatency());
   }
 
   @Override
@@ -404,6 +547,45 @@ public class WebSocketConnection extends WebSocketListener {
     Log.w(TAG, name + " " + message, e);
   }
 
+  private static final class PendingAck {
+    private final ByteString payload;
+    private final long       enqueueTime;
+
+    private PendingAck(ByteString payload, long enqueueTime) {
+      this.payload     = payload;
+      this.enqueueTime = enqueueTime;
+    }
+  }
+
+  static final class AckLatency {
+    private final long count;
+    private final long averageMicros;
+    private final long maxMicros;
+
+    private AckLatency(long count, long averageMicros, long maxMicros) {
+      this.count         = count;
+      this.averageMicros = averageMicros;
+      this.maxMicros     = maxMicros;
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    long getAverageMicros() {
+      return averageMicros;
+    }
+
+    long getMaxMicros() {
+      return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+      return "AckLatency{count=" + count + ", averageMicros=" + averageMicros + ", maxMicros=" + maxMicros + "}";
+    }
+  }
+
   private static class OutgoingRequest {
     private final SingleSubject<WebsocketResponse> responseSingle;
 
@@ -715,39 +715,17 @@ public class Base64
      * @since 1.4
      */
     public static String encodeBytes( byte[] source ) {
-        // Since we're not going to have the GZIP encoding turned on,
-        // we're not going to have an java.io.IOException thrown, so
-        // we should not force the user to have to catch it.
-        String encoded = null;
-        try {
-            encoded = encodeBytes(source, 0, source.length, NO_OPTIONS);
-        } catch (java.io.IOException ex) {
-            assert false : ex.getMessage();
-        }   // end catch
-        assert encoded != null;
-        return encoded;
+        // Signal: The common case goes through the allocation-light codec, which has identical output.
+        return org.signal.core.util.Base64.encode( source );
     }   // end encodeBytes
     
     
     public static String encodeBytesWithoutPadding(byte[] source, int offset, int length) {
-    	String encoded = null;
- 
-    	try {
-    		encoded = encodeBytes(source, offset, length, NO_OPTIONS);
-    	} catch (java.io.IOException ex) {
-    		assert false : ex.getMessage();
-    	}
-    	
-    	assert encoded != null;
-    	
-    	if      (encoded.charAt(encoded.length()-2) == '=') return encoded.substring(0, encoded.length()-2);
-    	else if (encoded.charAt(encoded.length()-1) == '=') return encoded.substring(0, encoded.length()-1);
-    	else                                                return encoded;
-    	
+    	return org.signal.core.util.Base64.encode(source, offset, length, false, false);
     }
     
     public static String encodeBytesWithoutPadding(byte[] source) {
-    	return encodeBytesWithoutPadding(source, 0, source.length);
+    	return org.signal.core.util.Base64.encodeWithoutPadding(source);
     }
 
 
@@ -804,6 +782,11 @@ public class Base64
      * @since 1.4
      */
     public static String encodeBytes( byte[] source, int off, int len ) {
+        // Signal: The common case goes through the allocation-light codec, which has identical output.
+        if( source != null && off >= 0 && len >= 0 && off + len <= source.length ) {
+            return org.signal.core.util.Base64.encode( source, off, len, false, true );
+        }
+
         // Since we're not going to have the GZIP encoding turned on,
         // we're not going to have an java.io.IOException thrown, so
         // we should not force the user to have to catch it.
@@ -1243,18 +1226,16 @@ public class Base64
     public static byte[] decode( String s ) throws java.io.IOException {
         // Signal: We never use gzip, avoid trying to unzip.
         // return decode( s, NO_OPTIONS );
-        return decode( s, DONT_GUNZIP );
+        if( s == null ){
+            throw new NullPointerException( "Input string was null." );
+        }   // end if
+
+        return org.signal.core.util.Base64.decode( s );
     }
 
     
     public static byte[] decodeWithoutPadding(String source) throws java.io.IOException {
-		int padding    = source.length() % 4;
-		
-		if      (padding == 1) source = source + "=";
-		else if (padding == 2) source = source + "==";
-		else if (padding == 3) source = source + "=";
-		
-		return decode(source);
+		return org.signal.core.util.Base64.decodeWithoutPadding(source);
     }
 
     
@@ -8,27 +8,18 @@ public final class Base64UrlSafe {
   }
 
   public static byte[] decode(String s) throws IOException {
-    return Base64.decode(s, Base64.URL_SAFE);
+    return org.signal.core.util.Base64.decodeUrlSafe(s);
   }
 
   public static byte[] decodePaddingAgnostic(String s) throws IOException {
-    switch (s.length() % 4) {
-      case 1:
-      case 3: s = s + "="; break;
-      case 2: s = s + "=="; break;
-    }
-    return decode(s);
+    return org.signal.core.util.Base64.decodeUrlSafeWithoutPadding(s);
   }
 
   public static String encodeBytes(byte[] source) {
-    try {
-      return Base64.encodeBytes(source, Base64.URL_SAFE);
-    } catch (IOException e) {
-      throw new AssertionError(e);
-    }
+    return org.signal.core.util.Base64.encodeUrlSafe(source);
   }
 
   public static String encodeBytesWithoutPadding(byte[] source) {
-    return encodeBytes(source).replace("=", "");
+    return org.signal.core.util.Base64.encodeUrlSafeWithoutPadding(source);
   }
 }
@@ -0,0 +1,204 @@
+package org.whispersystems.signalservice.api.groupsv2;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.signal.libsignal.zkgroup.InvalidInputException;
+import org.signal.libsignal.zkgroup.VerificationFailedException;
+import org.signal.libsignal.zkgroup.groups.ClientZkGroupCipher;
+import org.signal.libsignal.zkgroup.groups.GroupMasterKey;
+import org.signal.libsignal.zkgroup.groups.GroupSecretParams;
+import org.signal.libsignal.zkgroup.profiles.ProfileKey;
+import org.signal.storageservice.protos.groups.BannedMember;
+import org.signal.storageservice.protos.groups.Group;
+import org.signal.storageservice.protos.groups.Member;
+import org.signal.storageservice.protos.groups.PendingMember;
+import org.signal.storageservice.protos.groups.RequestingMember;
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.whispersystems.signalservice.internal.util.Util;
+import org.whispersystems.signalservice.testutil.LibSignalLibraryUtil;
+
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Decrypting groups with members split across threads, and with a {@link GroupDecryptionCache} shared between decryptions.
+ */
+public final class GroupsV2Operations_decrypt_parallel_Test {
+
+  private ExecutorService     executor;
+  private ClientZkOperations  clientZkOperations;
+  private GroupSecretParams   groupSecretParams;
+  private ClientZkGroupCipher cipher;
+
+  @Before
+  public void setup() throws InvalidInputException {
+    LibSignalLibraryUtil.assumeLibSignalSupportedOnOS();
+
+    TestZkGroupServer server = new TestZkGroupServer();
+
+    executor           = Executors.newFixedThreadPool(3);
+    clientZkOperations = new ClientZkOperations(server.getServerPublicParams());
+    groupSecretParams  = GroupSecretParams.deriveFromMasterKey(new GroupMasterKey(Util.getSecretBytes(32)));
+    cipher             = new ClientZkGroupCipher(groupSecretParams);
+  }
+
+  @After
+  public void tearDown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void decrypt_in_parallel_matches_sequential_and_keeps_order() throws VerificationFailedException, InvalidGroupStateException {
+    Group group = newGroup(150, 70, 40, 35);
+
+    DecryptedGroup sequential = new GroupsV2Operations(clientZkOperations, 1000).forGroup(groupSecretParams).decryptGroup(group);
+    DecryptedGroup parallel   = new GroupsV2Operations(clientZkOperations, 1000, executor, 4).forGroup(groupSecretParams).decryptGroup(group);
+
+    assertEquals(sequential, parallel);
+    assertEquals(150, parallel.getMembersCount());
+    assertEquals(70, parallel.getPendingMembersCount());
+    assertEquals(40, parallel.getRequestingMembersCount());
+    assertEquals(35, parallel.getBannedMembersCount());
+  }
+
+  @Test(expected = InvalidGroupStateException.class)
+  public void decrypt_in_parallel_throws_for_bad_member_in_another_batch() throws VerificationFailedException, InvalidGroupStateException {
+    Group group = newGroup(150, 0, 0, 0).toBuilder()
+                                        .addMembers(Member.newBuilder().setUserId(ByteString.copyFrom(new byte[10])))
+                                        .build();
+
+    new GroupsV2Operations(clientZkOperations, 1000, executor, 4).forGroup(groupSecretParams).decryptGroup(group);
+  }
+
+  @Test
+  public void shared_cache_gives_same_result_for_later_revisions() throws VerificationFailedException, InvalidGroupStateException {
+    GroupsV2Operations   operations = new GroupsV2Operations(clientZkOperations, 1000);
+    GroupDecryptionCache cache      = new GroupDecryptionCache(groupSecretParams);
+    Group                group      = newGroup(50, 10, 5, 5);
+
+    DecryptedGroup first  = operations.forGroup(groupSecretParams, cache).decryptGroup(group);
+    DecryptedGroup second = operations.forGroup(groupSecretParams, cache).decryptGroup(group.toBuilder().setRevision(1).build());
+
+    assertEquals(first.toBuilder().setRevision(1).build(), second);
+    assertEquals(operations.forGroup(groupSecretParams).decryptGroup(group), first);
+  }
+
+  @Test
+  public void shared_cache_keys_profile_keys_by_uuid() throws VerificationFailedException, InvalidGroupStateException {
+    GroupsV2Operations   operations = new GroupsV2Operations(clientZkOperations, 1000);
+    GroupDecryptionCache cache      = new GroupDecryptionCache(groupSecretParams);
+    UUID                 member     = UUID.randomUUID();
+    ProfileKey           oldKey     = newProfileKey();
+    ProfileKey           newKey     = newProfileKey();
+
+    DecryptedGroup before = operations.forGroup(groupSecretParams, cache).decryptGroup(Group.newBuilder().addMembers(member(member, oldKey)).build());
+    DecryptedGroup after  = operations.forGroup(groupSecretParams, cache).decryptGroup(Group.newBuilder().addMembers(member(member, newKey)).build());
+
+    assertEquals(ByteString.copyFrom(oldKey.serialize()), before.getMembers(0).getProfileKey());
+    assertEquals(ByteString.copyFrom(newKey.serialize()), after.getMembers(0).getProfileKey());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void cache_for_another_group_is_rejected() throws InvalidInputException {
+    GroupSecretParams otherGroup = GroupSecretParams.deriveFromMasterKey(new GroupMasterKey(Util.getSecretBytes(32)));
+
+    new GroupsV2Operations(clientZkOperations, 1000).forGroup(groupSecretParams, new GroupDecryptionCache(otherGroup));
+  }
+
+  @Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+  @Test
+  public void benchmark_history_page() throws VerificationFailedException, InvalidGroupStateException {
+    int   revisions = 20;
+    Group group     = newGroup(1000, 50, 20, 20);
+
+    GroupsV2Operations sequential = new GroupsV2Operations(clientZkOperations, 1000);
+    GroupsV2Operations parallel   = new GroupsV2Operations(clientZkOperations, 1000, executor, 4);
+
+    sequential.forGroup(groupSecretParams).decryptGroup(group);
+    parallel.forGroup(groupSecretParams).decryptGroup(group);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < revisions; i++) {
+      sequential.forGroup(groupSecretParams).decryptGroup(group.toBuilder().setRevision(i).build());
+    }
+    long sequentialMs = (System.nanoTime() - start) / 1_000_000;
+
+    start = System.nanoTime();
+    for (int i = 0; i < revisions; i++) {
+      parallel.forGroup(groupSecretParams).decryptGroup(group.toBuilder().setRevision(i).build());
+    }
+    long parallelMs = (System.nanoTime() - start) / 1_000_000;
+
+    GroupDecryptionCache cache = new GroupDecryptionCache(groupSecretParams);
+
+    start = System.nanoTime();
+    for (int i = 0; i < revisions; i++) {
+      parallel.forGroup(groupSecretParams, cache).decryptGroup(group.toBuilder().setRevision(i).build());
+    }
+    long cachedMs = (System.nanoTime() - start) / 1_000_000;
+
+    System.out.println("[GroupsV2Operations] " + revisions + " revisions of " + group.getMembersCount() + " members: sequential " + sequentialMs + "ms, parallel " + parallelMs + "ms, parallel with shared cache " + cachedMs + "ms");
+  }
+
+  private Group newGroup(int members, int pending, int requesting, int banned) {
+    Group.Builder group   = Group.newBuilder();
+    UUID          inviter = UUID.randomUUID();
+
+    for (int i = 0; i < members; i++) {
+      group.addMembers(member(UUID.randomUUID(), newProfileKey()).setJoinedAtRevision(i % 7).setRole(i == 0 ? Member.Role.ADMINISTRATOR : Member.Role.DEFAULT));
+    }
+
+    for (int i = 0; i < pending; i++) {
+      group.addPendingMembers(PendingMember.newBuilder()
+                                           .setAddedByUserId(encryptUuid(inviter))
+                                           .setTimestamp(i)
+                                           .setMember(Member.newBuilder().setUserId(encryptUuid(UUID.randomUUID())).setRole(Member.Role.DEFAULT)));
+    }
+
+    for (int i = 0; i < requesting; i++) {
+      UUID uuid = UUID.randomUUID();
+
+      group.addRequestingMembers(RequestingMember.newBuilder()
+                                                 .setUserId(encryptUuid(uuid))
+                                                 .setProfileKey(encryptProfileKey(uuid, newProfileKey()))
+                                                 .setTimestamp(i));
+    }
+
+    for (int i = 0; i < banned; i++) {
+      group.addBannedMembers(BannedMember.newBuilder().setUserId(encryptUuid(UUID.randomUUID())).setTimestamp(i));
+    }
+
+    return group.build();
+  }
+
+  private Member.Builder member(UUID uuid, ProfileKey profileKey) {
+    return Member.newBuilder()
+                 .setUserId(encryptUuid(uuid))
+                 .setProfileKey(encryptProfileKey(uuid, profileKey));
+  }
+
+  private ByteString encryptUuid(UUID uuid) {
+    return ByteString.copyFrom(cipher.encryptUuid(uuid).serialize());
+  }
+
+  private ByteString encryptProfileKey(UUID uuid, ProfileKey profileKey) {
+    return ByteString.copyFrom(cipher.encryptProfileKey(profileKey, uuid).serialize());
+  }
+
+  private static ProfileKey newProfileKey() {
+    try {
+      return new ProfileKey(Util.getSecretBytes(32));
+    } catch (InvalidInputException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,521 @@
+package org.whispersystems.signalservice.api.groupsv2;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.signal.storageservice.protos.groups.Member;
+import org.signal.storageservice.protos.groups.local.DecryptedApproveMember;
+import org.signal.storageservice.protos.groups.local.DecryptedBannedMember;
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.signal.storageservice.protos.groups.local.DecryptedGroupChange;
+import org.signal.storageservice.protos.groups.local.DecryptedMember;
+import org.signal.storageservice.protos.groups.local.DecryptedModifyMemberRole;
+import org.signal.storageservice.protos.groups.local.DecryptedPendingMember;
+import org.signal.storageservice.protos.groups.local.DecryptedPendingMemberRemoval;
+import org.signal.storageservice.protos.groups.local.DecryptedRequestingMember;
+import org.signal.storageservice.protos.groups.local.DecryptedString;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.whispersystems.signalservice.api.groupsv2.ProtoTestUtils.bannedMember;
+import static org.whispersystems.signalservice.api.groupsv2.ProtoTestUtils.encrypt;
+import static org.whispersystems.signalservice.api.groupsv2.ProtoTestUtils.member;
+import static org.whispersystems.signalservice.api.groupsv2.ProtoTestUtils.pendingMember;
+import static org.whispersystems.signalservice.api.groupsv2.ProtoTestUtils.randomProfileKey;
+import static org.whispersystems.signalservice.api.groupsv2.ProtoTestUtils.requestingMember;
+import static org.whispersystems.signalservice.api.groupsv2.ProtoTestUtils.withProfileKey;
+
+public final class MutableDecryptedGroupTest {
+
+  @Test
+  public void applying_a_chain_in_place_matches_applying_each_change_to_the_last_state() throws NotAbleToApplyGroupV2ChangeException {
+    DecryptedGroup             group   = newGroup(200, 40, 20, 10);
+    List<DecryptedGroupChange> changes = newChanges(group, 300, new Random(1));
+
+    MutableDecryptedGroup mutableGroup = new MutableDecryptedGroup(group);
+    DecryptedGroup        expected     = group;
+
+    for (DecryptedGroupChange change : changes) {
+      expected = applyAsLists(expected, change);
+      mutableGroup.apply(change);
+
+      if (change.getRevision() % 50 == 0) {
+        assertEquals(expected, mutableGroup.toDecryptedGroup());
+      }
+    }
+
+    assertEquals(expected, mutableGroup.toDecryptedGroup());
+  }
+
+  @Test
+  public void a_change_that_cannot_be_applied_leaves_the_group_as_it_was() throws NotAbleToApplyGroupV2ChangeException {
+    DecryptedMember member1 = member(UUID.randomUUID());
+    DecryptedMember member2 = member(UUID.randomUUID());
+    DecryptedMember member3 = member(UUID.randomUUID());
+
+    MutableDecryptedGroup mutableGroup = new MutableDecryptedGroup(DecryptedGroup.newBuilder()
+                                                                                 .setRevision(1)
+                                                                                 .addMembers(member1)
+                                                                                 .build());
+
+    mutableGroup.apply(DecryptedGroupChange.newBuilder()
+                                           .setRevision(2)
+                                           .addNewMembers(member2)
+                                           .build());
+
+    try {
+      mutableGroup.apply(DecryptedGroupChange.newBuilder()
+                                             .setRevision(3)
+                                             .addNewMembers(member3)
+                                             .setNewTitle(DecryptedString.newBuilder().setValue("Title"))
+                                             .addModifyMemberRoles(DecryptedModifyMemberRole.newBuilder()
+                                                                                            .setUuid(member(UUID.randomUUID()).getUuid())
+                                                                                            .setRole(Member.Role.ADMINISTRATOR))
+                                             .build());
+      fail();
+    } catch (NotAbleToApplyGroupV2ChangeException e) {
+      // Expected
+    }
+
+    assertEquals(DecryptedGroup.newBuilder()
+                               .setRevision(2)
+                               .addMembers(member1)
+                               .addMembers(member2)
+                               .build(),
+                 mutableGroup.toDecryptedGroup());
+  }
+
+  @Test
+  public void promotes_the_first_pending_member_with_the_uuid() throws NotAbleToApplyGroupV2ChangeException {
+    UUID                   unknown  = GroupsV2Operations.UNKNOWN_UUID;
+    DecryptedPendingMember pending1 = pendingMember(unknown).toBuilder().setUuidCipherText(encrypt(UUID.randomUUID())).build();
+    DecryptedPendingMember pending2 = pendingMember(unknown).toBuilder().setUuidCipherText(encrypt(UUID.randomUUID())).build();
+    DecryptedMember        member   = member(UUID.randomUUID()).toBuilder().setPni(pending1.getUuid()).build();
+
+    MutableDecryptedGroup mutableGroup = new MutableDecryptedGroup(DecryptedGroup.newBuilder()
+                                                                                 .setRevision(1)
+                                                                                 .addPendingMembers(pending1)
+                                                                                 .addPendingMembers(pending2)
+                                                                                 .build());
+
+    mutableGroup.apply(DecryptedGroupChange.newBuilder()
+                                           .setRevision(2)
+                                           .addPromotePendingPniAciMembers(member)
+                                           .build());
+
+    assertEquals(DecryptedGroup.newBuilder()
+                               .setRevision(2)
+                               .addMembers(member)
+                               .addPendingMembers(pending2)
+                               .build(),
+                 mutableGroup.toDecryptedGroup());
+  }
+
+  @Test
+  public void promoted_members_are_appended_to_the_members() throws NotAbleToApplyGroupV2ChangeException {
+    UUID                      pendingUuid    = UUID.randomUUID();
+    UUID                      requestingUuid = UUID.randomUUID();
+    DecryptedMember           member1        = member(UUID.randomUUID());
+    DecryptedMember           member2        = member(UUID.randomUUID());
+    DecryptedPendingMember    pending        = pendingMember(pendingUuid);
+    DecryptedRequestingMember requesting     = requestingMember(requestingUuid);
+
+    DecryptedGroup group = DecryptedGroup.newBuilder()
+                                         .setRevision(1)
+                                         .addMembers(member1)
+                                         .addMembers(member2)
+                                         .addPendingMembers(pending)
+                                         .addRequestingMembers(requesting)
+                                         .build();
+
+    DecryptedGroupChange change = DecryptedGroupChange.newBuilder()
+                                                      .setRevision(2)
+                                                      .addPromotePendingMembers(member(pendingUuid))
+                                                      .addPromoteRequestingMembers(DecryptedApproveMember.newBuilder()
+                                                                                                         .setUuid(requesting.getUuid())
+                                                                                                         .setRole(Member.Role.DEFAULT))
+                                                      .build();
+
+    MutableDecryptedGroup mutableGroup = new MutableDecryptedGroup(group);
+    mutableGroup.apply(change);
+
+    DecryptedGroup expected = applyAsLists(group, change);
+
+    assertEquals(expected, mutableGroup.toDecryptedGroup());
+    assertEquals(Arrays.asList(member1.getUuid(), member2.getUuid(), member(pendingUuid).getUuid(), requesting.getUuid()),
+                 uuids(mutableGroup.toDecryptedGroup().getMembersList()));
+  }
+
+  @Test
+  public void promoting_a_pending_member_already_in_the_group_moves_them_to_the_end() throws NotAbleToApplyGroupV2ChangeException {
+    UUID            uuid     = UUID.randomUUID();
+    DecryptedMember member1  = member(uuid);
+    DecryptedMember member2  = member(UUID.randomUUID());
+    DecryptedMember promoted = member(uuid, randomProfileKey());
+
+    MutableDecryptedGroup mutableGroup = new MutableDecryptedGroup(DecryptedGroup.newBuilder()
+                                                                                 .setRevision(1)
+                                                                                 .addMembers(member1)
+                                                                                 .addMembers(member2)
+                                                                                 .addPendingMembers(pendingMember(uuid))
+                                                                                 .build());
+
+    mutableGroup.apply(DecryptedGroupChange.newBuilder()
+                                           .setRevision(2)
+                                           .addPromotePendingMembers(promoted)
+                                           .build());
+
+    assertEquals(DecryptedGroup.newBuilder()
+                               .setRevision(2)
+                               .addMembers(member2)
+                               .addMembers(promoted)
+                               .build(),
+                 mutableGroup.toDecryptedGroup());
+  }
+
+  @Test
+  public void is_at_the_group_it_was_built_from_until_changed() throws NotAbleToApplyGroupV2ChangeException {
+    DecryptedGroup        group        = newGroup(5, 0, 0, 0);
+    MutableDecryptedGroup mutableGroup = new MutableDecryptedGroup(group);
+
+    assertTrue(mutableGroup.isAt(group));
+    assertTrue(mutableGroup.isAt(group.toBuilder().build()));
+
+    mutableGroup.apply(DecryptedGroupChange.newBuilder().setRevision(group.getRevision() + 1).build());
+
+    assertFalse(mutableGroup.isAt(group));
+
+    DecryptedGroup changed = mutableGroup.toDecryptedGroup();
+
+    assertTrue(mutableGroup.isAt(changed));
+    assertSame(changed, mutableGroup.toDecryptedGroup());
+  }
+
+  @Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+  @Test
+  public void benchmark_catch_up() throws NotAbleToApplyGroupV2ChangeException {
+    DecryptedGroup             group   = newGroup(1000, 100, 50, 50);
+    List<DecryptedGroupChange> changes = newChanges(group, 500, new Random(2));
+
+    for (int i = 0; i < 3; i++) {
+      long start = System.nanoTime();
+
+      DecryptedGroup rebuilt = group;
+      for (DecryptedGroupChange change : changes) {
+        rebuilt = applyAsLists(rebuilt, change);
+      }
+
+      long rebuiltMs = (System.nanoTime() - start) / 1_000_000;
+
+      start = System.nanoTime();
+
+      MutableDecryptedGroup everyRevision = new MutableDecryptedGroup(group);
+      for (DecryptedGroupChange change : changes) {
+        everyRevision.apply(change);
+        everyRevision.toDecryptedGroup();
+      }
+
+      long everyRevisionMs = (System.nanoTime() - start) / 1_000_000;
+
+      start = System.nanoTime();
+
+      MutableDecryptedGroup atEnd = new MutableDecryptedGroup(group);
+      for (DecryptedGroupChange change : changes) {
+        atEnd.apply(change);
+      }
+
+      assertEquals(rebuilt, atEnd.toDecryptedGroup());
+
+      long atEndMs = (System.nanoTime() - start) / 1_000_000;
+
+      System.out.println("[MutableDecryptedGroup] " + changes.size() + " changes to " + group.getMembersCount() + " members: rebuilt every change " + rebuiltMs + "ms, in place built every change " + everyRevisionMs + "ms, in place built at end " + atEndMs + "ms");
+    }
+  }
+
+  private static DecryptedGroup newGroup(int members, int pending, int requesting, int banned) {
+    DecryptedGroup.Builder group = DecryptedGroup.newBuilder().setRevision(0);
+
+    for (int i = 0; i < members; i++) {
+      group.addMembers(member(UUID.randomUUID()));
+    }
+
+    for (int i = 0; i < pending; i++) {
+      group.addPendingMembers(pendingMember(UUID.randomUUID()));
+    }
+
+    for (int i = 0; i < requesting; i++) {
+      group.addRequestingMembers(requestingMember(UUID.randomUUID()));
+    }
+
+    for (int i = 0; i < banned; i++) {
+      group.addBannedMembers(bannedMember(UUID.randomUUID()));
+    }
+
+    return group.build();
+  }
+
+  /**
+   * A run of changes of the kinds a busy group sees, each of which can be applied to the state the previous one left.
+   */
+  private static List<DecryptedGroupChange> newChanges(DecryptedGroup group, int count, Random random) throws NotAbleToApplyGroupV2ChangeException {
+    List<DecryptedGroupChange> changes = new ArrayList<>(count);
+    DecryptedGroup             current = group;
+
+    for (int i = 0; i < count; i++) {
+      DecryptedGroupChange.Builder change  = DecryptedGroupChange.newBuilder().setRevision(current.getRevision() + 1);
+      List<DecryptedMember>        members = current.getMembersList();
+
+      switch (random.nextInt(6)) {
+        case 0:
+          change.addNewMembers(member(UUID.randomUUID()));
+          break;
+        case 1:
+          change.addDeleteMembers(members.get(random.nextInt(members.size())).getUuid());
+          break;
+        case 2:
+          change.addModifyMemberRoles(DecryptedModifyMemberRole.newBuilder()
+                                                               .setUuid(members.get(random.nextInt(members.size())).getUuid())
+                                                               .setRole(random.nextBoolean() ? Member.Role.ADMINISTRATOR : Member.Role.DEFAULT));
+          break;
+        case 3:
+          change.addModifiedProfileKeys(withProfileKey(members.get(random.nextInt(members.size())), randomProfileKey()));
+          break;
+        case 4:
+          change.addNewPendingMembers(pendingMember(UUID.randomUUID()));
+          break;
+        default:
+          if (current.getPendingMembersCount() > 0) {
+            DecryptedPendingMember pending = current.getPendingMembers(random.nextInt(current.getPendingMembersCount()));
+
+            if (random.nextBoolean()) {
+              change.addPromotePendingMembers(member(DecryptedGroupUtil.toUuid(pending)));
+            } else {
+              change.addDeletePendingMembers(DecryptedPendingMemberRemoval.newBuilder()
+                                                                          .setUuid(pending.getUuid())
+                                                                          .setUuidCipherText(pending.getUuidCipherText()));
+            }
+          }
+          break;
+      }
+
+      changes.add(change.build());
+      current = applyAsLists(current, changes.get(i));
+    }
+
+    return changes;
+  }
+
+  private static List<ByteString> uuids(List<DecryptedMember> members) {
+    List<ByteString> uuids = new ArrayList<>(members.size());
+    for (DecryptedMember member : members) {
+      uuids.add(member.getUuid());
+    }
+    return uuids;
+  }
+
+  /**
+   * The list based apply that {@link MutableDecryptedGroup} replaced, kept here as an independent oracle. Each action
+   * scans and rebuilds the lists of a {@link DecryptedGroup.Builder}.
+   */
+  private static DecryptedGroup applyAsLists(DecryptedGroup group, DecryptedGroupChange change) throws NotAbleToApplyGroupV2ChangeException {
+    if (change.getRevision() != group.getRevision() + 1) {
+      throw new NotAbleToApplyGroupV2ChangeException();
+    }
+
+    DecryptedGroup.Builder builder = DecryptedGroup.newBuilder(group)
+                                                   .setRevision(change.getRevision());
+
+    if (!change.getNewMembersList().isEmpty()) {
+      LinkedHashMap<ByteString, DecryptedMember> members = new LinkedHashMap<>();
+
+      for (DecryptedMember member : builder.getMembersList()) {
+        members.put(member.getUuid(), member);
+      }
+
+      for (DecryptedMember member : change.getNewMembersList()) {
+        members.put(member.getUuid(), member);
+      }
+
+      builder.clearMembers().addAllMembers(members.values());
+
+      for (int i = builder.getPendingMembersCount() - 1; i >= 0; i--) {
+        if (members.containsKey(builder.getPendingMembers(i).getUuid())) {
+          builder.removePendingMembers(i);
+        }
+      }
+
+      for (int i = builder.getRequestingMembersCount() - 1; i >= 0; i--) {
+        if (members.containsKey(builder.getRequestingMembers(i).getUuid())) {
+          builder.removeRequestingMembers(i);
+        }
+      }
+    }
+
+    for (ByteString removedMember : change.getDeleteMembersList()) {
+      int index = indexOfMember(builder, removedMember);
+
+      if (index != -1) {
+        builder.removeMembers(index);
+      }
+    }
+
+    for (DecryptedModifyMemberRole modifyMemberRole : change.getModifyMemberRolesList()) {
+      int index = indexOfMember(builder, modifyMemberRole.getUuid());
+
+      if (index == -1) {
+        throw new NotAbleToApplyGroupV2ChangeException();
+      }
+
+      ensureKnownRole(modifyMemberRole.getRole());
+
+      builder.setMembers(index, DecryptedMember.newBuilder(builder.getMembers(index)).setRole(modifyMemberRole.getRole()));
+    }
+
+    for (DecryptedMember modifyProfileKey : change.getModifiedProfileKeysList()) {
+      int index = indexOfMember(builder, modifyProfileKey.getUuid());
+
+      if (index == -1) {
+        throw new NotAbleToApplyGroupV2ChangeException();
+      }
+
+      builder.setMembers(index, DecryptedMember.newBuilder(builder.getMembers(index)).setProfileKey(modifyProfileKey.getProfileKey()));
+    }
+
+    for (DecryptedPendingMember pendingMember : change.getNewPendingMembersList()) {
+      if (indexOfMember(builder, pendingMember.getUuid()) != -1) {
+        throw new NotAbleToApplyGroupV2ChangeException();
+      }
+
+      boolean alreadyPending = false;
+      for (DecryptedPendingMember existing : builder.getPendingMembersList()) {
+        alreadyPending |= existing.getUuidCipherText().equals(pendingMember.getUuidCipherText());
+      }
+
+      if (!alreadyPending) {
+        builder.addPendingMembers(pendingMember);
+      }
+    }
+
+    for (DecryptedPendingMemberRemoval removedMember : change.getDeletePendingMembersList()) {
+      for (int i = 0; i < builder.getPendingMembersCount(); i++) {
+        if (builder.getPendingMembers(i).getUuidCipherText().equals(removedMember.getUuidCipherText())) {
+          builder.removePendingMembers(i);
+          break;
+        }
+      }
+    }
+
+    for (DecryptedMember newMember : change.getPromotePendingMembersList()) {
+      promotePendingAsLists(builder, newMember.getUuid(), newMember);
+    }
+
+    DecryptedGroupUtil.applyModifyTitleAction(builder, change);
+    DecryptedGroupUtil.applyModifyDescriptionAction(builder, change);
+    DecryptedGroupUtil.applyModifyIsAnnouncementGroupAction(builder, change);
+    DecryptedGroupUtil.applyModifyAvatarAction(builder, change);
+    DecryptedGroupUtil.applyModifyDisappearingMessagesTimerAction(builder, change);
+    DecryptedGroupUtil.applyModifyAttributesAccessControlAction(builder, change);
+    DecryptedGroupUtil.applyModifyMembersAccessControlAction(builder, change);
+    DecryptedGroupUtil.applyModifyAddFromInviteLinkAccessControlAction(builder, change);
+
+    builder.addAllRequestingMembers(change.getNewRequestingMembersList());
+
+    for (ByteString removedMember : change.getDeleteRequestingMembersList()) {
+      int index = indexOfRequestingMember(builder, removedMember);
+
+      if (index != -1) {
+        builder.removeRequestingMembers(index);
+      }
+    }
+
+    for (DecryptedApproveMember approvedMember : change.getPromoteRequestingMembersList()) {
+      int index = indexOfRequestingMember(builder, approvedMember.getUuid());
+
+      if (index == -1) {
+        continue;
+      }
+
+      DecryptedRequestingMember requestingMember = builder.getRequestingMembers(index);
+
+      ensureKnownRole(approvedMember.getRole());
+
+      builder.removeRequestingMembers(index)
+             .addMembers(DecryptedMember.newBuilder()
+                                        .setUuid(approvedMember.getUuid())
+                                        .setProfileKey(requestingMember.getProfileKey())
+                                        .setRole(approvedMember.getRole()));
+    }
+
+    DecryptedGroupUtil.applyInviteLinkPassword(builder, change);
+
+    for (DecryptedBannedMember member : change.getNewBannedMembersList()) {
+      if (indexOfBannedMember(builder, member.getUuid()) == -1) {
+        builder.addBannedMembers(member);
+      }
+    }
+
+    for (DecryptedBannedMember removedMember : change.getDeleteBannedMembersList()) {
+      int index = indexOfBannedMember(builder, removedMember.getUuid());
+
+      if (index != -1) {
+        builder.removeBannedMembers(index);
+      }
+    }
+
+    for (DecryptedMember newMember : change.getPromotePendingPniAciMembersList()) {
+      promotePendingAsLists(builder, newMember.getPni(), newMember);
+    }
+
+    return builder.build();
+  }
+
+  private static void promotePendingAsLists(DecryptedGroup.Builder builder, ByteString pendingUuid, DecryptedMember newMember) throws NotAbleToApplyGroupV2ChangeException {
+    for (int i = 0; i < builder.getPendingMembersCount(); i++) {
+      if (builder.getPendingMembers(i).getUuid().equals(pendingUuid)) {
+        builder.removePendingMembers(i);
+        builder.addMembers(newMember);
+        return;
+      }
+    }
+
+    throw new NotAbleToApplyGroupV2ChangeException();
+  }
+
+  private static int indexOfMember(DecryptedGroup.Builder builder, ByteString uuid) {
+    for (int i = 0; i < builder.getMembersCount(); i++) {
+      if (uuid.equals(builder.getMembers(i).getUuid())) return i;
+    }
+    return -1;
+  }
+
+  private static int indexOfRequestingMember(DecryptedGroup.Builder builder, ByteString uuid) {
+    for (int i = 0; i < builder.getRequestingMembersCount(); i++) {
+      if (uuid.equals(builder.getRequestingMembers(i).getUuid())) return i;
+    }
+    return -1;
+  }
+
+  private static int indexOfBannedMember(DecryptedGroup.Builder builder, ByteString uuid) {
+    for (int i = 0; i < builder.getBannedMembersCount(); i++) {
+      if (uuid.equals(builder.getBannedMembers(i).getUuid())) return i;
+    }
+    return -1;
+  }
+
+  private static void ensureKnownRole(Member.Role role) throws NotAbleToApplyGroupV2ChangeException {
+    if (role != Member.Role.ADMINISTRATOR && role != Member.Role.DEFAULT) {
+      throw new NotAbleToApplyGroupV2ChangeException();
+    }
+  }
+}
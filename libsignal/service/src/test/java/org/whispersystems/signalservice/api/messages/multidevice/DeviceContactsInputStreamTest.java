@@ -1,22 +1,30 @@
 package org.whispersystems.signalservice.api.messages.multidevice;
 
+import org.junit.Ignore;
 import org.junit.Test;
 import org.signal.libsignal.protocol.IdentityKey;
 import org.signal.libsignal.protocol.ecc.Curve;
 import org.signal.libsignal.protocol.ecc.ECKeyPair;
 import org.signal.libsignal.zkgroup.InvalidInputException;
 import org.signal.libsignal.zkgroup.profiles.ProfileKey;
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachment;
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachmentStream;
 import org.whispersystems.signalservice.api.push.ServiceId;
 import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 import org.whispersystems.signalservice.internal.util.Util;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.UUID;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class DeviceContactsInputStreamTest {
 
@@ -77,6 +85,168 @@ public class DeviceContactsInputStreamTest {
     assertEquals(second.isArchived(), readSecond.isArchived());
   }
 
+  @Test
+  public void read_with_avatars() throws IOException {
+    byte[]                avatar = avatarBytes(1, 20_000);
+    ByteArrayOutputStream bytes  = new ByteArrayOutputStream();
+
+    DeviceContactsOutputStream output = new DeviceContactsOutputStream(bytes);
+    output.write(contact("+14045550001", avatar));
+    output.write(contact("+14045550002", null));
+    output.close();
+
+    DeviceContactsInputStream input = new DeviceContactsInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+    DeviceContact first = input.read();
+    assertEquals(Optional.of("+14045550001"), first.getAddress().getNumber());
+    assertArrayEquals(avatar, readAll(first.getAvatar().get().getInputStream()));
+
+    DeviceContact second = input.read();
+    assertEquals(Optional.of("+14045550002"), second.getAddress().getNumber());
+    assertEquals(Optional.empty(), second.getAvatar());
+
+    assertNull(input.read());
+  }
+
+  @Test
+  public void unread_avatar_is_skipped() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    DeviceContactsOutputStream output = new DeviceContactsOutputStream(bytes);
+    output.write(contact("+14045550001", avatarBytes(1, 20_000)));
+    output.write(contact("+14045550002", avatarBytes(2, 100)));
+    output.close();
+
+    DeviceContactsInputStream input = new DeviceContactsInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+    DeviceContact first = input.read();
+    assertEquals(10, first.getAvatar().get().getInputStream().read(new byte[10]));
+
+    DeviceContact second = input.read();
+    assertEquals(Optional.of("+14045550002"), second.getAddress().getNumber());
+    assertArrayEquals(avatarBytes(2, 100), readAll(second.getAvatar().get().getInputStream()));
+  }
+
+  @Test
+  public void encoded_length_matches_written_length() throws IOException {
+    DeviceContact[] contacts = {
+        contact("+14045550001", null),
+        contact("+14045550002", avatarBytes(1, 1)),
+        contact("+14045550003", avatarBytes(2, 300_000))
+    };
+
+    for (DeviceContact contact : contacts) {
+      long                  expected = DeviceContactsOutputStream.getEncodedLength(contact);
+      ByteArrayOutputStream bytes    = new ByteArrayOutputStream();
+
+      DeviceContactsOutputStream output = new DeviceContactsOutputStream(bytes);
+      output.write(contact);
+      output.close();
+
+      assertEquals(expected, bytes.size());
+    }
+  }
+
+  @Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+  @Test
+  public void benchmark_10k_contacts() throws IOException {
+    int    count  = 10_000;
+    byte[] avatar = avatarBytes(1, 8_000);
+
+    for (int round = 0; round < 3; round++) {
+      long                  start = System.nanoTime();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+      DeviceContactsOutputStream output = new DeviceContactsOutputStream(bytes);
+      for (int i = 0; i < count; i++) {
+        output.write(contact(String.format("+1404%07d", i), i % 2 == 0 ? avatar : null));
+      }
+      output.close();
+
+      long encodeMs = (System.nanoTime() - start) / 1_000_000;
+
+      start = System.nanoTime();
+
+      CountingInputStream       underlying = new CountingInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+      DeviceContactsInputStream input      = new DeviceContactsInputStream(underlying);
+      int                       read       = 0;
+
+      DeviceContact contact;
+      while ((contact = input.read()) != null) {
+        if (contact.getAvatar().isPresent()) {
+          readAll(contact.getAvatar().get().getInputStream());
+        }
+        read++;
+      }
+
+      long decodeMs = (System.nanoTime() - start) / 1_000_000;
+
+      System.out.println("[DeviceContacts] " + read + " contacts, " + bytes.size() + " bytes: encode " + encodeMs + "ms, decode " + decodeMs + "ms with " + underlying.reads + " reads of the underlying stream");
+    }
+  }
+
+  private static DeviceContact contact(String number, byte[] avatar) {
+    Optional<SignalServiceAttachmentStream> avatarStream = Optional.empty();
+
+    if (avatar != null) {
+      avatarStream = Optional.of(SignalServiceAttachment.newStreamBuilder()
+                                                        .withStream(new ByteArrayInputStream(avatar))
+                                                        .withContentType("image/jpeg")
+                                                        .withLength(avatar.length)
+                                                        .build());
+    }
+
+    return new DeviceContact(new SignalServiceAddress(ServiceId.from(UUID.randomUUID()), number),
+                             Optional.of("Contact " + number),
+                             avatarStream,
+                             Optional.of("ultramarine"),
+                             Optional.empty(),
+                             Optional.empty(),
+                             false,
+                             Optional.empty(),
+                             Optional.empty(),
+                             false);
+  }
+
+  private static byte[] avatarBytes(int seed, int length) {
+    byte[] bytes = new byte[length];
+    Arrays.fill(bytes, (byte) seed);
+    bytes[length - 1] = (byte) ~seed;
+    return bytes;
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out    = new ByteArrayOutputStream();
+    byte[]                buffer = new byte[4096];
+    int                   read;
+
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+
+    return out.toByteArray();
+  }
+
+  private static final class CountingInputStream extends FilterInputStream {
+    private long reads;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      reads++;
+      return super.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      reads++;
+      return super.read(b, off, len);
+    }
+  }
+
   private static IdentityKey generateIdentityKey() {
     ECKeyPair djbKeyPair = Curve.generateKeyPair();
     return new IdentityKey(djbKeyPair.getPublicKey());
@@ -0,0 +1,309 @@
+package org.whispersystems.signalservice.internal.push;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.whispersystems.signalservice.api.crypto.UnidentifiedAccess;
+import org.whispersystems.signalservice.api.messages.SendMessageResult;
+import org.whispersystems.signalservice.api.push.ACI;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+import org.whispersystems.signalservice.api.push.exceptions.AuthorizationFailedException;
+import org.whispersystems.signalservice.api.push.exceptions.NotFoundException;
+import org.whispersystems.signalservice.api.push.exceptions.UnregisteredUserException;
+import org.whispersystems.signalservice.api.websocket.WebSocketUnavailableException;
+import org.whispersystems.signalservice.internal.ServiceResponse;
+import org.whispersystems.signalservice.internal.push.exceptions.MismatchedDevicesException;
+import org.whispersystems.signalservice.internal.push.exceptions.StaleDevicesException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.rxjava3.core.Single;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public final class PipelinedMessageSenderTest {
+
+  private static final long SIMULATED_RTT_MS = 20;
+
+  private final ExecutorService executor    = Executors.newFixedThreadPool(16);
+  private final List<String>    conflicts   = Collections.synchronizedList(new ArrayList<>());
+  private final AtomicInteger   encryptions = new AtomicInteger();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void send_allSucceed_resultsMatchRecipientOrder() throws Exception {
+    List<SignalServiceAddress> recipients = recipients(50);
+    PipelinedMessageSender     subject    = create(messages -> respondAfter(SIMULATED_RTT_MS, success()), failingFallback(), 8);
+
+    List<SendMessageResult> results = await(subject.send(recipients, noAccess(recipients.size()), null, null));
+
+    for (int i = 0; i < recipients.size(); i++) {
+      assertTrue(results.get(i).isSuccess());
+      assertEquals(recipients.get(i), results.get(i).getAddress());
+    }
+  }
+
+  @Test
+  public void send_neverExceedsInFlightWindow() throws Exception {
+    AtomicInteger inFlight    = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+
+    List<SignalServiceAddress> recipients = recipients(100);
+    PipelinedMessageSender     subject    = create(messages -> Single.fromCallable(() -> {
+                                                                        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                                                                        return success();
+                                                                      })
+                                                                      .delay(5, TimeUnit.MILLISECONDS)
+                                                                      .doOnSuccess(r -> inFlight.decrementAndGet()),
+                                                       failingFallback(),
+                                                       4);
+
+    await(subject.send(recipients, noAccess(recipients.size()), null, null));
+
+    assertTrue("Max in flight was " + maxInFlight.get(), maxInFlight.get() <= 4);
+  }
+
+  @Test
+  public void send_webSocketUnavailable_sendsEncryptedMessagesOverRest() throws Exception {
+    List<OutgoingPushMessageList> restSends  = Collections.synchronizedList(new ArrayList<>());
+    List<SignalServiceAddress>    recipients = recipients(10);
+    PipelinedMessageSender        subject    = create(messages -> Single.just(ServiceResponse.forUnknownError(new WebSocketUnavailableException())),
+                                                      (messages, access) -> {
+                                                        restSends.add(messages);
+                                                        return new SendMessageResponse(false, false);
+                                                      },
+                                                      failingFallback(),
+                                                      4);
+
+    List<SendMessageResult> results = await(subject.send(recipients, noAccess(recipients.size()), null, null));
+
+    assertEquals(10, results.size());
+    assertEquals(10, restSends.size());
+    assertEquals(10, encryptions.get());
+    for (SendMessageResult result : results) {
+      assertTrue(result.isSuccess());
+    }
+  }
+
+  @Test
+  public void send_webSocketFailsThenRestHasStaleDevices_fallsBackWithoutWebSocket() throws Exception {
+    List<Boolean>              fallbackAllowedWebSocket = Collections.synchronizedList(new ArrayList<>());
+    List<SignalServiceAddress> recipients               = recipients(1);
+    PipelinedMessageSender     subject                  = create(messages -> Single.just(ServiceResponse.forUnknownError(new WebSocketUnavailableException())),
+                                                                 (messages, access) -> {
+                                                                   throw new StaleDevicesException(new StaleDevices());
+                                                                 },
+                                                                 (recipient, access, allowWebSocket) -> {
+                                                                   fallbackAllowedWebSocket.add(allowWebSocket);
+                                                                   return SendMessageResult.success(recipient, Collections.emptyList(), false, false, -1, Optional.empty());
+                                                                 },
+                                                                 4);
+
+    await(subject.send(recipients, noAccess(recipients.size()), null, null));
+
+    assertEquals(Collections.singletonList("stale"), conflicts);
+    assertEquals(Collections.singletonList(false), fallbackAllowedWebSocket);
+  }
+
+  @Test
+  public void send_sealedSenderUnauthorized_fallsBackWithoutSealedSender() throws Exception {
+    List<Optional<UnidentifiedAccess>> fallbackAccess           = Collections.synchronizedList(new ArrayList<>());
+    List<Boolean>                      fallbackAllowedWebSocket = Collections.synchronizedList(new ArrayList<>());
+    List<SignalServiceAddress>         recipients               = recipients(1);
+    PipelinedMessageSender             subject                  = create(messages -> Single.just(ServiceResponse.forApplicationError(new AuthorizationFailedException(401, "Authorization failed!"), 401, null)),
+                                                                         failingRestTransport(),
+                                                                         (recipient, access, allowWebSocket) -> {
+                                                                           fallbackAccess.add(access);
+                                                                           fallbackAllowedWebSocket.add(allowWebSocket);
+                                                                           return SendMessageResult.success(recipient, Collections.emptyList(), false, false, -1, Optional.empty());
+                                                                         },
+                                                                         4);
+
+    await(subject.send(recipients, Collections.singletonList(Optional.of(mock(UnidentifiedAccess.class))), null, null));
+
+    assertEquals(Collections.singletonList(Optional.<UnidentifiedAccess>empty()), fallbackAccess);
+    assertEquals(Collections.singletonList(true), fallbackAllowedWebSocket);
+  }
+
+  @Test
+  public void send_unauthorizedWithoutSealedSender_failsWithoutFallback() throws Exception {
+    List<SignalServiceAddress> recipients = recipients(1);
+    PipelinedMessageSender     subject    = create(messages -> Single.just(ServiceResponse.forApplicationError(new AuthorizationFailedException(401, "Authorization failed!"), 401, null)),
+                                                   failingFallback(),
+                                                   4);
+
+    try {
+      subject.send(recipients, noAccess(recipients.size()), null, null).get(0).get();
+      fail("Expected an exception");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof AuthorizationFailedException);
+    }
+  }
+
+  @Test
+  public void send_mismatchedDevices_fallsBackWithWebSocketAllowed() throws Exception {
+    List<Boolean>              fallbackAllowedWebSocket = Collections.synchronizedList(new ArrayList<>());
+    List<SignalServiceAddress> recipients               = recipients(1);
+    PipelinedMessageSender     subject                  = create(messages -> Single.just(ServiceResponse.forApplicationError(new MismatchedDevicesException(new MismatchedDevices()), 409, null)),
+                                                                 (recipient, access, allowWebSocket) -> {
+                                                                   fallbackAllowedWebSocket.add(allowWebSocket);
+                                                                   return SendMessageResult.success(recipient, Collections.emptyList(), false, false, -1, Optional.empty());
+                                                                 },
+                                                                 4);
+
+    await(subject.send(recipients, noAccess(recipients.size()), null, null));
+
+    assertEquals(Collections.singletonList("mismatched"), conflicts);
+    assertEquals(Collections.singletonList(true), fallbackAllowedWebSocket);
+  }
+
+  @Test
+  public void send_staleDevices_fallsBackWithWebSocketAllowed() throws Exception {
+    List<Boolean>              fallbackAllowedWebSocket = Collections.synchronizedList(new ArrayList<>());
+    List<SignalServiceAddress> recipients               = recipients(1);
+    PipelinedMessageSender     subject                  = create(messages -> Single.just(ServiceResponse.forApplicationError(new StaleDevicesException(new StaleDevices()), 410, null)),
+                                                                 (recipient, access, allowWebSocket) -> {
+                                                                   fallbackAllowedWebSocket.add(allowWebSocket);
+                                                                   return SendMessageResult.success(recipient, Collections.emptyList(), false, false, -1, Optional.empty());
+                                                                 },
+                                                                 4);
+
+    await(subject.send(recipients, noAccess(recipients.size()), null, null));
+
+    assertEquals(Collections.singletonList("stale"), conflicts);
+    assertEquals(Collections.singletonList(true), fallbackAllowedWebSocket);
+  }
+
+  @Test
+  public void send_unregistered_failsWithoutFallback() throws Exception {
+    List<SignalServiceAddress> recipients = recipients(1);
+    PipelinedMessageSender     subject    = create(messages -> Single.just(ServiceResponse.forApplicationError(new UnregisteredUserException(messages.getDestination(), new NotFoundException("not found")), 404, null)),
+                                                   failingFallback(),
+                                                   4);
+
+    try {
+      subject.send(recipients, noAccess(recipients.size()), null, null).get(0).get();
+      fail("Expected an exception");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof UnregisteredUserException);
+    }
+  }
+
+  /**
+   * Sends to 1000 recipients against a simulated server with a fixed round trip time, comparing the pipelined sender
+   * with the previous approach of one blocking request per recipient on a 16 thread pool.
+   */
+  @Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+  @Test
+  public void benchmark_1000Recipients() throws Exception {
+    List<SignalServiceAddress> recipients = recipients(1000);
+
+    PipelinedMessageSender pipelined = create(messages -> respondAfter(SIMULATED_RTT_MS, success()), failingFallback(), 64);
+
+    long pipelinedStart = System.nanoTime();
+    await(pipelined.send(recipients, noAccess(recipients.size()), null, null));
+    long pipelinedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pipelinedStart);
+
+    long                            blockingStart = System.nanoTime();
+    List<Future<SendMessageResult>> blocking      = new ArrayList<>(recipients.size());
+    for (SignalServiceAddress recipient : recipients) {
+      blocking.add(executor.submit(() -> {
+        respondAfter(SIMULATED_RTT_MS, success()).blockingGet();
+        return SendMessageResult.success(recipient, Collections.emptyList(), false, false, SIMULATED_RTT_MS, Optional.empty());
+      }));
+    }
+    await(blocking);
+    long blockingMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - blockingStart);
+
+    System.out.println("[PipelinedMessageSender] 1000 recipients, " + SIMULATED_RTT_MS + "ms RTT: pipelined " + pipelinedMs + "ms, blocking " + blockingMs + "ms");
+  }
+
+  private PipelinedMessageSender create(SimulatedServer server, PipelinedMessageSender.Fallback fallback, int maxInFlight) {
+    return create(server, failingRestTransport(), fallback, maxInFlight);
+  }
+
+  private PipelinedMessageSender create(SimulatedServer server, PipelinedMessageSender.RestTransport restTransport, PipelinedMessageSender.Fallback fallback, int maxInFlight) {
+    return new PipelinedMessageSender(executor,
+                                      (recipient, access) -> {
+                                        encryptions.incrementAndGet();
+                                        return new OutgoingPushMessageList(recipient.getIdentifier(), 1000, Collections.emptyList(), false, true);
+                                      },
+                                      (messages, access) -> server.respond(messages),
+                                      restTransport,
+                                      new PipelinedMessageSender.DeviceConflictHandler() {
+                                        @Override
+                                        public void handleMismatchedDevices(SignalServiceAddress recipient, MismatchedDevices mismatchedDevices) {
+                                          conflicts.add("mismatched");
+                                        }
+
+                                        @Override
+                                        public void handleStaleDevices(SignalServiceAddress recipient, StaleDevices staleDevices) {
+                                          conflicts.add("stale");
+                                        }
+                                      },
+                                      fallback,
+                                      (recipient, messages, response, duration) -> SendMessageResult.success(recipient, messages.getDevices(), response.sentUnidentified(), response.getNeedsSync(), duration, Optional.empty()),
+                                      maxInFlight);
+  }
+
+  private static PipelinedMessageSender.RestTransport failingRestTransport() {
+    return (messages, access) -> {
+      throw new AssertionError("REST should not be used!");
+    };
+  }
+
+  private static PipelinedMessageSender.Fallback failingFallback() {
+    return (recipient, access, allowWebSocket) -> {
+      throw new AssertionError("Fallback should not be used!");
+    };
+  }
+
+  private static Single<ServiceResponse<SendMessageResponse>> respondAfter(long delayMs, ServiceResponse<SendMessageResponse> response) {
+    return Single.just(response).delay(delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  private static ServiceResponse<SendMessageResponse> success() {
+    return ServiceResponse.forResult(new SendMessageResponse(false, false), 200, null);
+  }
+
+  private static List<SignalServiceAddress> recipients(int count) {
+    List<SignalServiceAddress> recipients = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      recipients.add(new SignalServiceAddress(ACI.from(UUID.randomUUID())));
+    }
+    return recipients;
+  }
+
+  private static List<Optional<UnidentifiedAccess>> noAccess(int count) {
+    return Collections.nCopies(count, Optional.empty());
+  }
+
+  private interface SimulatedServer {
+    Single<ServiceResponse<SendMessageResponse>> respond(OutgoingPushMessageList messages);
+  }
+
+  private static List<SendMessageResult> await(List<Future<SendMessageResult>> futures) throws Exception {
+    List<SendMessageResult> results = new ArrayList<>(futures.size());
+    for (Future<SendMessageResult> future : futures) {
+      results.add(future.get(30, TimeUnit.SECONDS));
+    }
+    return results;
+  }
+}
@@ -0,0 +1,338 @@
+package org.whispersystems.signalservice.internal.websocket;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.whispersystems.signalservice.api.push.TrustStore;
+import org.whispersystems.signalservice.api.websocket.HealthMonitor;
+import org.whispersystems.signalservice.api.websocket.WebSocketConnectionState;
+import org.whispersystems.signalservice.internal.configuration.SignalCdnUrl;
+import org.whispersystems.signalservice.internal.configuration.SignalCdsiUrl;
+import org.whispersystems.signalservice.internal.configuration.SignalKeyBackupServiceUrl;
+import org.whispersystems.signalservice.internal.configuration.SignalServiceConfiguration;
+import org.whispersystems.signalservice.internal.configuration.SignalServiceUrl;
+import org.whispersystems.signalservice.internal.configuration.SignalStorageUrl;
+import org.whispersystems.signalservice.internal.configuration.SignalSvr2Url;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.ByteString;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketMessage;
+import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage;
+import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketResponseMessage;
+
+public final class WebSocketConnectionTest {
+
+  private static final String KEY_STORE_PASSWORD = "whisper";
+
+  private MockWebServer server;
+  private FakeServer    fakeServer;
+
+  @BeforeClass
+  public static void setUpClass() {
+    Security.addProvider(new BouncyCastleProvider());
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    fakeServer = new FakeServer();
+    server     = new MockWebServer();
+    server.useHttps(createServerSocketFactory(), false);
+    server.enqueue(new MockResponse().withWebSocketUpgrade(fakeServer));
+    server.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.shutdown();
+  }
+
+  @Test
+  public void readAndAck_acksSentImmediately() throws Exception {
+    runReadAndAck(false, 200, 20);
+  }
+
+  @Test
+  public void readAndAck_acksCoalesced() throws Exception {
+    runReadAndAck(true, 200, 20);
+  }
+
+  @Test
+  public void disconnect_flushesPendingAcks() throws Exception {
+    WebSocketConnection connection = createConnection(true);
+    connect(connection);
+
+    fakeServer.pushRequests(1);
+
+    WebSocketRequestMessage request = connection.readRequest(TimeUnit.SECONDS.toMillis(10));
+    connection.sendResponse(WebSocketResponseMessage.newBuilder().setId(request.getId()).setStatus(200).setMessage("OK").build());
+    connection.disconnect();
+
+    assertEquals(0, connection.getPendingAckCount());
+    assertTrue("Pending ack was not sent before closing", fakeServer.awaitAcks(1, 10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  @Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+  public void performance_acksSentImmediately() throws Exception {
+    runReadAndAck(false, 5000, 500);
+  }
+
+  @Test
+  @Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+  public void performance_acksCoalesced() throws Exception {
+    runReadAndAck(true, 5000, 500);
+  }
+
+  @Test
+  public void readRequest_afterDisconnect_throws() throws Exception {
+    WebSocketConnection connection = createConnection(false);
+    connect(connection);
+
+    CountDownLatch readerFailed = new CountDownLatch(1);
+    Thread reader = new Thread(() -> {
+      try {
+        connection.readRequest(TimeUnit.SECONDS.toMillis(30));
+      } catch (Exception e) {
+        readerFailed.countDown();
+      }
+    });
+    reader.start();
+
+    connection.disconnect();
+
+    assertTrue("Reader was not woken up by disconnect", readerFailed.await(5, TimeUnit.SECONDS));
+    assertEquals(Optional.empty(), connection.readRequestIfAvailable());
+  }
+
+  /**
+   * Has the server push a burst of requests while the client concurrently reads and acks them, sends its own requests,
+   * and sends keep alives. Every request must be read in order, every ack must arrive, and every outgoing request must
+   * get its response.
+   */
+  private void runReadAndAck(boolean coalesceAcks, int incomingMessages, int outgoingRequests) throws Exception {
+    WebSocketConnection connection = createConnection(coalesceAcks);
+    connect(connection);
+
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Long>                 readIds = new ArrayList<>(incomingMessages);
+
+    Thread reader = new Thread(() -> {
+      try {
+        while (readIds.size() < incomingMessages) {
+          WebSocketRequestMessage request = connection.readRequest(TimeUnit.SECONDS.toMillis(10));
+          readIds.add(request.getId());
+          connection.sendResponse(WebSocketResponseMessage.newBuilder().setId(request.getId()).setStatus(200).setMessage("OK").build());
+        }
+      } catch (Throwable t) {
+        failure.set(t);
+      }
+    });
+
+    Thread sender = new Thread(() -> {
+      try {
+        for (int i = 0; i < outgoingRequests; i++) {
+          WebsocketResponse response = connection.sendRequest(WebSocketRequestMessage.newBuilder()
+                                                                                     .setId(incomingMessages + i)
+                                                                                     .setVerb("PUT")
+                                                                                     .setPath("/v1/test")
+                                                                                     .build())
+                                                 .blockingGet();
+          assertEquals(200, response.getStatus());
+
+          if (i % 50 == 0) {
+            connection.sendKeepAlive();
+          }
+        }
+      } catch (Throwable t) {
+        failure.set(t);
+      }
+    });
+
+    long startTime = System.nanoTime();
+
+    reader.start();
+    sender.start();
+    fakeServer.pushRequests(incomingMessages);
+
+    reader.join(TimeUnit.SECONDS.toMillis(60));
+    sender.join(TimeUnit.SECONDS.toMillis(60));
+
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+
+    assertTrue("Not all acks arrived", fakeServer.awaitAcks(incomingMessages, 10, TimeUnit.SECONDS));
+
+    long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+    for (int i = 0; i < incomingMessages; i++) {
+      assertEquals(i, (long) readIds.get(i));
+    }
+
+    assertEquals(0, connection.getIncomingQueueDepth());
+    assertEquals(0, connection.getPendingAckCount());
+    assertEquals(incomingMessages, connection.getAckLatency().getCount());
+
+    System.out.println("[WebSocketConnection] coalesceAcks=" + coalesceAcks + ", " + incomingMessages + " incoming, " + outgoingRequests + " outgoing: " + duration + "ms, " + connection.getAckLatency());
+
+    connection.disconnect();
+  }
+
+  private WebSocketConnection createConnection(boolean coalesceAcks) {
+    String url = server.url("").toString();
+    url = url.substring(0, url.length() - 1);
+
+    SignalServiceConfiguration configuration = new SignalServiceConfiguration(new SignalServiceUrl[] { new SignalServiceUrl(url, new TestTrustStore()) },
+                                                                              Collections.<Integer, SignalCdnUrl[]>emptyMap(),
+                                                                              new SignalKeyBackupServiceUrl[0],
+                                                                              new SignalStorageUrl[0],
+                                                                              new SignalCdsiUrl[0],
+                                                                              new SignalSvr2Url[0],
+                                                                              Collections.emptyList(),
+                                                                              Optional.empty(),
+                                                                              Optional.empty(),
+                                                                              new byte[0],
+                                                                              new byte[0]);
+
+    return new WebSocketConnection("test", configuration, Optional.empty(), "test-agent", new NoopHealthMonitor(), false, coalesceAcks);
+  }
+
+  /**
+   * The server presents a self-signed certificate for localhost, which is the only certificate in {@link TestTrustStore}.
+   */
+  private static SSLSocketFactory createServerSocketFactory() throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("PKCS12");
+    keyStore.load(WebSocketConnectionTest.class.getResourceAsStream("/websocket-server.p12"), KEY_STORE_PASSWORD.toCharArray());
+
+    KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keyManagerFactory.init(keyStore, KEY_STORE_PASSWORD.toCharArray());
+
+    SSLContext context = SSLContext.getInstance("TLS");
+    context.init(keyManagerFactory.getKeyManagers(), null, null);
+
+    return context.getSocketFactory();
+  }
+
+  private static void connect(WebSocketConnection connection) {
+    connection.connect()
+              .filter(state -> state == WebSocketConnectionState.CONNECTED)
+              .timeout(10, TimeUnit.SECONDS)
+              .blockingFirst();
+  }
+
+  private static final class FakeServer extends WebSocketListener {
+
+    private final Set<Long>      ackedIds  = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch connected = new CountDownLatch(1);
+
+    private volatile WebSocket socket;
+
+    @Override
+    public void onOpen(WebSocket webSocket, Response response) {
+      socket = webSocket;
+      connected.countDown();
+    }
+
+    @Override
+    public void onMessage(WebSocket webSocket, ByteString bytes) {
+      try {
+        WebSocketMessage message = WebSocketMessage.parseFrom(bytes.toByteArray());
+
+        if (message.getType() == WebSocketMessage.Type.RESPONSE) {
+          ackedIds.add(message.getResponse().getId());
+        } else if (message.getType() == WebSocketMessage.Type.REQUEST) {
+          WebSocketMessage response = WebSocketMessage.newBuilder()
+                                                      .setType(WebSocketMessage.Type.RESPONSE)
+                                                      .setResponse(WebSocketResponseMessage.newBuilder()
+                                                                                           .setId(message.getRequest().getId())
+                                                                                           .setStatus(200)
+                                                                                           .setMessage("OK"))
+                                                      .build();
+          webSocket.send(ByteString.of(response.toByteArray()));
+        }
+      } catch (InvalidProtocolBufferException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    void pushRequests(int count) throws InterruptedException {
+      assertTrue(connected.await(10, TimeUnit.SECONDS));
+
+      new Thread(() -> {
+        for (int i = 0; i < count; i++) {
+          WebSocketMessage request = WebSocketMessage.newBuilder()
+                                                     .setType(WebSocketMessage.Type.REQUEST)
+                                                     .setRequest(WebSocketRequestMessage.newBuilder()
+                                                                                        .setId(i)
+                                                                                        .setVerb("PUT")
+                                                                                        .setPath("/api/v1/message")
+                                                                                        .setBody(com.google.protobuf.ByteString.copyFrom(new byte[256])))
+                                                     .build();
+          socket.send(ByteString.of(request.toByteArray()));
+        }
+      }).start();
+    }
+
+    boolean awaitAcks(int count, long timeout, TimeUnit unit) throws InterruptedException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+      while (ackedIds.size() < count) {
+        if (System.nanoTime() > deadline) {
+          return false;
+        }
+        Thread.sleep(10);
+      }
+
+      return true;
+    }
+  }
+
+  private static final class TestTrustStore implements TrustStore {
+    @Override
+    public InputStream getKeyStoreInputStream() {
+      return WebSocketConnectionTest.class.getResourceAsStream("/websocket.store");
+    }
+
+    @Override
+    public String getKeyStorePassword() {
+      return KEY_STORE_PASSWORD;
+    }
+  }
+
+  private static final class NoopHealthMonitor implements HealthMonitor {
+    @Override
+    public void onKeepAliveResponse(long sentTimestamp, boolean isIdentifiedWebSocket) { }
+
+    @Override
+    public void onMessageError(int status, boolean isIdentifiedWebSocket) { }
+  }
+}
@@ -0,0 +1,194 @@
+package org.whispersystems.util;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.signal.core.util.Hex;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link org.signal.core.util.Base64} and {@link Hex} give the same results as the original implementations they replaced, which for
+ * Base64 are still reachable through the option-taking methods of {@link Base64}.
+ */
+public final class Base64CompatibilityTest {
+
+  private static final Random RANDOM = new Random(1);
+
+  @Test
+  public void encode_matches_original() throws IOException {
+    for (int length = 0; length < 200; length++) {
+      byte[] data = randomBytes(length);
+
+      assertEquals(Base64.encodeBytes(data, Base64.NO_OPTIONS), org.signal.core.util.Base64.encode(data));
+      assertEquals(Base64.encodeBytes(data, Base64.URL_SAFE), org.signal.core.util.Base64.encodeUrlSafe(data));
+      assertEquals(Base64.encodeBytes(data, Base64.NO_OPTIONS).replace("=", ""), org.signal.core.util.Base64.encodeWithoutPadding(data));
+      assertEquals(Base64.encodeBytes(data, Base64.URL_SAFE).replace("=", ""), org.signal.core.util.Base64.encodeUrlSafeWithoutPadding(data));
+    }
+  }
+
+  @Test
+  public void decode_matches_original() throws IOException {
+    for (int length = 0; length < 200; length++) {
+      byte[] data = randomBytes(length);
+
+      String standard = Base64.encodeBytes(data, Base64.NO_OPTIONS);
+      String urlSafe  = Base64.encodeBytes(data, Base64.URL_SAFE);
+
+      assertArrayEquals(Base64.decode(standard, Base64.DONT_GUNZIP), org.signal.core.util.Base64.decode(standard));
+      assertArrayEquals(Base64.decode(urlSafe, Base64.URL_SAFE | Base64.DONT_GUNZIP), org.signal.core.util.Base64.decodeUrlSafe(urlSafe));
+      assertArrayEquals(data, org.signal.core.util.Base64.decodeWithoutPadding(standard.replace("=", "")));
+      assertArrayEquals(data, org.signal.core.util.Base64.decodeUrlSafeWithoutPadding(urlSafe.replace("=", "")));
+    }
+  }
+
+  @Test
+  public void decode_of_malformed_input_matches_original() {
+    String[] inputs = { "Zm9v Ym Fy", "Zm9vYm", "Zm8=Zm9v", "Z===", "==Zm", "Zm9v\nYmE=\n", "Zm9v*mFy", "Zm9vYmFy====", "ab", "Zm9vYmF" };
+
+    for (String input : inputs) {
+      assertSameOutcome(input);
+    }
+  }
+
+  @Test
+  public void hex_matches_original() throws IOException {
+    for (int length = 0; length < 100; length++) {
+      byte[] data = randomBytes(length);
+
+      assertEquals(originalHexToString(data), Hex.toString(data));
+      assertEquals(originalHexToStringCondensed(data), Hex.toStringCondensed(data));
+      assertArrayEquals(data, Hex.fromStringCondensed(originalHexToStringCondensed(data)));
+      assertArrayEquals(data, Hex.fromStringCondensed(originalHexToStringCondensed(data).toUpperCase()));
+    }
+  }
+
+  @Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+  @Test
+  public void benchmark() throws IOException {
+    byte[][] hashes   = new byte[10_000][];
+    byte[][] payloads = new byte[1_000][];
+
+    for (int i = 0; i < hashes.length; i++) {
+      hashes[i] = randomBytes(32);
+    }
+
+    for (int i = 0; i < payloads.length; i++) {
+      payloads[i] = randomBytes(1024);
+    }
+
+    String[] encodedHashes   = new String[hashes.length];
+    String[] encodedPayloads = new String[payloads.length];
+
+    for (int i = 0; i < hashes.length; i++) {
+      encodedHashes[i] = org.signal.core.util.Base64.encode(hashes[i]);
+    }
+
+    for (int i = 0; i < payloads.length; i++) {
+      encodedPayloads[i] = org.signal.core.util.Base64.encode(payloads[i]);
+    }
+
+    byte[] buffer = new byte[org.signal.core.util.Base64.encodedLength(1024, true)];
+
+    for (int round = 0; round < 5; round++) {
+      long sink = 0;
+      long start;
+
+      start = System.nanoTime();
+      for (byte[] hash : hashes) sink += Base64.encodeBytes(hash, Base64.NO_OPTIONS).length();
+      for (byte[] payload : payloads) sink += Base64.encodeBytes(payload, Base64.NO_OPTIONS).length();
+      long originalEncodeUs = (System.nanoTime() - start) / 1000;
+
+      start = System.nanoTime();
+      for (byte[] hash : hashes) sink += org.signal.core.util.Base64.encode(hash).length();
+      for (byte[] payload : payloads) sink += org.signal.core.util.Base64.encode(payload).length();
+      long encodeUs = (System.nanoTime() - start) / 1000;
+
+      start = System.nanoTime();
+      for (byte[] hash : hashes) sink += org.signal.core.util.Base64.encode(hash, 0, hash.length, buffer, 0, false, true);
+      for (byte[] payload : payloads) sink += org.signal.core.util.Base64.encode(payload, 0, payload.length, buffer, 0, false, true);
+      long encodeIntoBufferUs = (System.nanoTime() - start) / 1000;
+
+      start = System.nanoTime();
+      for (String hash : encodedHashes) sink += Base64.decode(hash, Base64.DONT_GUNZIP).length;
+      for (String payload : encodedPayloads) sink += Base64.decode(payload, Base64.DONT_GUNZIP).length;
+      long originalDecodeUs = (System.nanoTime() - start) / 1000;
+
+      start = System.nanoTime();
+      for (String hash : encodedHashes) sink += org.signal.core.util.Base64.decode(hash).length;
+      for (String payload : encodedPayloads) sink += org.signal.core.util.Base64.decode(payload).length;
+      long decodeUs = (System.nanoTime() - start) / 1000;
+
+      start = System.nanoTime();
+      for (byte[] hash : hashes) sink += originalHexToStringCondensed(hash).length();
+      long originalHexUs = (System.nanoTime() - start) / 1000;
+
+      start = System.nanoTime();
+      for (byte[] hash : hashes) sink += Hex.toStringCondensed(hash).length();
+      long hexUs = (System.nanoTime() - start) / 1000;
+
+      System.out.println("[Base64] " + hashes.length + " hashes and " + payloads.length + " 1KiB payloads. " +
+                         "encode: original " + originalEncodeUs + "us, new " + encodeUs + "us, into buffer " + encodeIntoBufferUs + "us. " +
+                         "decode: original " + originalDecodeUs + "us, new " + decodeUs + "us. " +
+                         "hex: original " + originalHexUs + "us, new " + hexUs + "us. (" + sink + ")");
+    }
+  }
+
+  private static void assertSameOutcome(String input) {
+    Object original;
+    Object replacement;
+
+    try {
+      original = Base64.decode(input, Base64.DONT_GUNZIP);
+    } catch (Exception e) {
+      original = e.getClass();
+    }
+
+    try {
+      replacement = org.signal.core.util.Base64.decode(input);
+    } catch (Exception e) {
+      replacement = e.getClass();
+    }
+
+    if (original instanceof byte[] && replacement instanceof byte[]) {
+      assertArrayEquals(input, (byte[]) original, (byte[]) replacement);
+    } else if (!original.equals(replacement)) {
+      fail(input + ": " + original + " != " + replacement);
+    }
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    RANDOM.nextBytes(bytes);
+    return bytes;
+  }
+
+  /** What {@link Hex#toString(byte[])} used to do. */
+  private static String originalHexToString(byte[] bytes) {
+    StringBuffer buf = new StringBuffer();
+    for (byte b : bytes) {
+      appendHexChar(buf, b);
+      buf.append(' ');
+    }
+    return buf.toString();
+  }
+
+  /** What {@link Hex#toStringCondensed(byte[])} used to do. */
+  private static String originalHexToStringCondensed(byte[] bytes) {
+    StringBuffer buf = new StringBuffer();
+    for (byte b : bytes) {
+      appendHexChar(buf, b);
+    }
+    return buf.toString();
+  }
+
+  private static void appendHexChar(StringBuffer buf, int b) {
+    buf.append("0123456789abcdef".charAt((b >> 4) & 0xf));
+    buf.append("0123456789abcdef".charAt(b & 0xf));
+  }
+}
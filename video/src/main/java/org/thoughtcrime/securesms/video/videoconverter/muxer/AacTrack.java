@@ -11,7 +11,6 @@ import org.mp4parser.boxes.iso14496.part14.ESDescriptorBox;
 import org.mp4parser.boxes.sampleentry.AudioSampleEntry;
 import org.mp4parser.streaming.extensions.DefaultSampleFlagsTrackExtension;
 import org.mp4parser.streaming.input.AbstractStreamingTrack;
-import org.mp4parser.streaming.input.StreamingSampleImpl;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -36,11 +35,13 @@ abstract class AacTrack extends AbstractStreamingTrack {
   }
 
   private final SampleDescriptionBox stsd;
+  private final SampleBufferPool     pool;
 
   private int sampleRate;
 
-  AacTrack(long avgBitrate, long maxBitrate, int sampleRate, int channelCount, int aacProfile) {
+  AacTrack(long avgBitrate, long maxBitrate, int sampleRate, int channelCount, int aacProfile, SampleBufferPool pool) {
     this.sampleRate = sampleRate;
+    this.pool       = pool;
 
     final DefaultSampleFlagsTrackExtension defaultSampleFlagsTrackExtension = new DefaultSampleFlagsTrackExtension();
     defaultSampleFlagsTrackExtension.setIsLeading(2);
@@ -110,7 +111,13 @@ abstract class AacTrack extends AbstractStreamingTrack {
   public void close() {
   }
 
+  /**
+   * @param frame Copied into a pooled buffer, so it may point into the encoder's output.
+   */
   void processSample(ByteBuffer frame) throws IOException {
-    sampleSink.acceptSample(new StreamingSampleImpl(frame, 1024), this);
+    final ByteBuffer content = pool.acquire(frame.remaining());
+    content.put(frame);
+    content.flip();
+    sampleSink.acceptSample(new PooledSample(content, 1024, pool), this);
   }
 }
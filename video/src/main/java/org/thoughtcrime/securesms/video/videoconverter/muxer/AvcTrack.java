@@ -13,7 +13,6 @@ import org.mp4parser.streaming.extensions.CompositionTimeTrackExtension;
 import org.mp4parser.streaming.extensions.DimensionTrackExtension;
 import org.mp4parser.streaming.extensions.SampleFlagsSampleExtension;
 import org.mp4parser.streaming.input.AbstractStreamingTrack;
-import org.mp4parser.streaming.input.StreamingSampleImpl;
 import org.mp4parser.streaming.input.h264.H264NalUnitHeader;
 import org.mp4parser.streaming.input.h264.H264NalUnitTypes;
 import org.mp4parser.streaming.input.h264.spspps.PictureParameterSet;
@@ -45,13 +44,21 @@ abstract class AvcTrack extends AbstractStreamingTrack {
   private int frametick = 3000;
 
   private final SampleDescriptionBox stsd;
-
-  private final List<ByteBuffer>    bufferedNals = new ArrayList<>();
-  private       FirstVclNalDetector fvnd;
-  private       H264NalUnitHeader   sliceNalUnitHeader;
-  private       long                currentPresentationTimeUs;
-
-  AvcTrack(final @NonNull ByteBuffer spsBuffer, final @NonNull ByteBuffer ppsBuffer) {
+  private final SampleBufferPool     pool;
+
+  /**
+   * The NALs of the sample being built, each with a 4 byte length prefix, as they are laid out in the mdat. Null until the first NAL of a sample arrives.
+   */
+  private @Nullable ByteBuffer          bufferedNals;
+  private           FirstVclNalDetector fvnd;
+  private           H264NalUnitHeader   sliceNalUnitHeader;
+  private           long                currentPresentationTimeUs;
+
+  /**
+   * @param pool Samples are built in buffers from this pool. NALs passed to {@link #consumeNal} are copied, so they may point into the encoder's output.
+   */
+  AvcTrack(final @NonNull ByteBuffer spsBuffer, final @NonNull ByteBuffer ppsBuffer, final @NonNull SampleBufferPool pool) {
+    this.pool = pool;
 
     handlePPS(ppsBuffer);
 
@@ -195,41 +202,37 @@ abstract class AvcTrack extends AbstractStreamingTrack {
       case H264NalUnitTypes.CODED_SLICE_IDR:
         final FirstVclNalDetector current = new FirstVclNalDetector(nal, nalUnitHeader.nal_ref_idc, nalUnitHeader.nal_unit_type);
         if (fvnd != null && fvnd.isFirstInNew(current)) {
-          pushSample(createSample(bufferedNals, fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
-          bufferedNals.clear();
+          pushSample(createSample(fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
         }
         currentPresentationTimeUs = Math.max(currentPresentationTimeUs, presentationTimeUs);
         sliceNalUnitHeader = nalUnitHeader;
         fvnd = current;
-        bufferedNals.add(nal);
+        bufferNal(nal);
         break;
 
       case H264NalUnitTypes.SEI:
       case H264NalUnitTypes.AU_UNIT_DELIMITER:
         if (fvnd != null) {
-          pushSample(createSample(bufferedNals, fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
-          bufferedNals.clear();
+          pushSample(createSample(fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
           fvnd = null;
         }
-        bufferedNals.add(nal);
+        bufferNal(nal);
         break;
 
       case H264NalUnitTypes.SEQ_PARAMETER_SET:
         if (fvnd != null) {
-          pushSample(createSample(bufferedNals, fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
-          bufferedNals.clear();
+          pushSample(createSample(fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
           fvnd = null;
         }
-        handleSPS(nal);
+        handleSPS(Utils.clone(nal));
         break;
 
       case H264NalUnitTypes.PIC_PARAMETER_SET:
         if (fvnd != null) {
-          pushSample(createSample(bufferedNals, fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
-          bufferedNals.clear();
+          pushSample(createSample(fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
           fvnd = null;
         }
-        handlePPS(nal);
+        handlePPS(Utils.clone(nal));
         break;
 
       case H264NalUnitTypes.END_OF_SEQUENCE:
@@ -246,7 +249,27 @@ abstract class AvcTrack extends AbstractStreamingTrack {
   }
 
   void consumeLastNal() throws IOException {
-    pushSample(createSample(bufferedNals, fvnd.sliceHeader, sliceNalUnitHeader, 0), true, true);
+    pushSample(createSample(fvnd.sliceHeader, sliceNalUnitHeader, 0), true, true);
+  }
+
+  private void bufferNal(final @NonNull ByteBuffer nal) {
+    final ByteBuffer source = nal.duplicate();
+    source.rewind();
+
+    final int size = 4 + source.remaining();
+
+    if (bufferedNals == null) {
+      bufferedNals = pool.acquire(size);
+    } else if (bufferedNals.remaining() < size) {
+      final ByteBuffer grown = pool.acquire(bufferedNals.position() + size);
+      bufferedNals.flip();
+      grown.put(bufferedNals);
+      pool.release(bufferedNals);
+      bufferedNals = grown;
+    }
+
+    bufferedNals.putInt(source.remaining());
+    bufferedNals.put(source);
   }
 
   private void pushSample(final StreamingSample ss, final boolean all, final boolean force) throws IOException {
@@ -323,9 +346,13 @@ abstract class AvcTrack extends AbstractStreamingTrack {
   }
 
 
-  private StreamingSample createSample(List<ByteBuffer> nals, SliceHeader sliceHeader, H264NalUnitHeader nu, long sampleDurationNs) {
+  private StreamingSample createSample(SliceHeader sliceHeader, H264NalUnitHeader nu, long sampleDurationNs) {
+    final ByteBuffer content = bufferedNals != null ? bufferedNals : pool.acquire(0);
+    content.flip();
+    bufferedNals = null;
+
     final long            sampleDuration = getTimescale() * Math.max(0, sampleDurationNs) / 1000000L;
-    final StreamingSample ss             = new StreamingSampleImpl(nals, sampleDuration);
+    final StreamingSample ss             = new PooledSample(content, sampleDuration, pool);
     ss.addSampleExtension(createSampleFlagsSampleExtension(nu, sliceHeader));
     final SampleExtension pictureOrderCountType0SampleExtension = createPictureOrderCountType0SampleExtension(sliceHeader);
     if (pictureOrderCountType0SampleExtension != null) {
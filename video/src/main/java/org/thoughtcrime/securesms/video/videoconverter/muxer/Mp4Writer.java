@@ -23,7 +23,6 @@ import androidx.annotation.NonNull;
 
 import org.mp4parser.Box;
 import org.mp4parser.boxes.iso14496.part12.ChunkOffsetBox;
-import org.mp4parser.boxes.iso14496.part12.CompositionTimeToSample;
 import org.mp4parser.boxes.iso14496.part12.FileTypeBox;
 import org.mp4parser.boxes.iso14496.part12.MediaHeaderBox;
 import org.mp4parser.boxes.iso14496.part12.MovieBox;
@@ -37,88 +36,59 @@ import org.mp4parser.boxes.iso14496.part12.TrackBox;
 import org.mp4parser.boxes.iso14496.part12.TrackHeaderBox;
 import org.mp4parser.streaming.StreamingSample;
 import org.mp4parser.streaming.StreamingTrack;
-import org.mp4parser.streaming.extensions.CompositionTimeSampleExtension;
-import org.mp4parser.streaming.extensions.CompositionTimeTrackExtension;
 import org.mp4parser.streaming.extensions.SampleFlagsSampleExtension;
 import org.mp4parser.streaming.extensions.TrackIdTrackExtension;
 import org.mp4parser.streaming.output.SampleSink;
 import org.mp4parser.streaming.output.mp4.DefaultBoxes;
-import org.mp4parser.tools.Mp4Arrays;
 import org.mp4parser.tools.Mp4Math;
 import org.mp4parser.tools.Path;
 import org.signal.core.util.logging.Log;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
-
-import static org.mp4parser.tools.CastUtils.l2i;
 
 /**
  * Creates an MP4 file with ftyp, mdat+, moov order.
  * A very special property of this variant is that it written sequentially. You can start transferring the
  * data while the <code>sink</code> receives it. (in contrast to typical implementations which need random
  * access to write length fields at the beginning of the file)
+ * <p>
+ * Per track state is kept in plain fields of a {@link TrackState}, found by a scan over the (two or three) tracks, and the sample tables are accumulated in
+ * primitive arrays that are only turned into boxes when the moov is written. Samples from a {@link SampleBufferPool} are released as soon as their chunk
+ * has been written.
  */
 final class Mp4Writer extends DefaultBoxes implements SampleSink {
 
   private static final String TAG = "Mp4Writer";
 
-  private final WritableByteChannel  sink;
-  private final List<StreamingTrack> source;
-  private final Date                 creationTime = new Date();
-
+  private final WritableByteChannel sink;
+  private final Date                creationTime = new Date();
 
   /**
-   * Contains the start time of the next segment in line that will be created.
-   */
-  private final Map<StreamingTrack, Long>                  nextChunkCreateStartTime = new ConcurrentHashMap<>();
-  /**
-   * Contains the start time of the next segment in line that will be written.
-   */
-  private final Map<StreamingTrack, Long>                  nextChunkWriteStartTime  = new ConcurrentHashMap<>();
-  /**
-   * Contains the next sample's start time.
-   */
-  private final Map<StreamingTrack, Long>                  nextSampleStartTime      = new HashMap<>();
-  /**
-   * Buffers the samples per track until there are enough samples to form a Segment.
-   */
-  private final Map<StreamingTrack, List<StreamingSample>> sampleBuffers            = new HashMap<>();
-  private final Map<StreamingTrack, TrackBox>              trackBoxes               = new HashMap<>();
-  /**
-   * Buffers segments until it's time for a segment to be written.
+   * Tracks in the order their chunks are due to be written, see {@link #sortTracks()}.
    */
-  private final Map<StreamingTrack, Queue<ChunkContainer>> chunkBuffers             = new ConcurrentHashMap<>();
-  private final Map<StreamingTrack, Long>                  chunkNumbers             = new HashMap<>();
-  private final Map<StreamingTrack, Long>                  sampleNumbers            = new HashMap<>();
-  private       long                                       bytesWritten             = 0;
+  private final TrackState[] tracks;
+  private       long         bytesWritten = 0;
 
   Mp4Writer(final @NonNull List<StreamingTrack> source, final @NonNull WritableByteChannel sink) throws IOException {
-    this.source = new ArrayList<>(source);
     this.sink   = sink;
+    this.tracks = new TrackState[source.size()];
 
     final HashSet<Long> trackIds = new HashSet<>();
-    for (StreamingTrack streamingTrack : source) {
+    for (int i = 0; i < source.size(); i++) {
+      final StreamingTrack streamingTrack = source.get(i);
       streamingTrack.setSampleSink(this);
-      chunkNumbers.put(streamingTrack, 1L);
-      sampleNumbers.put(streamingTrack, 1L);
-      nextSampleStartTime.put(streamingTrack, 0L);
-      nextChunkCreateStartTime.put(streamingTrack, 0L);
-      nextChunkWriteStartTime.put(streamingTrack, 0L);
-      sampleBuffers.put(streamingTrack, new ArrayList<>());
-      chunkBuffers.put(streamingTrack, new LinkedList<>());
+      tracks[i] = new TrackState(streamingTrack);
       if (streamingTrack.getTrackExtension(TrackIdTrackExtension.class) != null) {
         final TrackIdTrackExtension trackIdTrackExtension = streamingTrack.getTrackExtension(TrackIdTrackExtension.class);
         if (trackIds.contains(trackIdTrackExtension.getTrackId())) {
@@ -146,9 +116,9 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
   }
 
   public void close() throws IOException {
-    for (StreamingTrack streamingTrack : source) {
-      writeChunkContainer(createChunkContainer(streamingTrack));
-      streamingTrack.close();
+    for (TrackState track : tracks) {
+      writeChunkContainer(createChunkContainer(track));
+      track.streamingTrack.close();
     }
     write(sink, createMoov());
   }
@@ -160,18 +130,20 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
     movieBox.addBox(mvhd);
 
     // update durations
-    for (StreamingTrack streamingTrack : source) {
-      final TrackBox       tb   = trackBoxes.get(streamingTrack);
-      final MediaHeaderBox mdhd = Path.getPath(tb, "mdia[0]/mdhd[0]");
+    for (TrackState track : tracks) {
+      final StreamingTrack streamingTrack = track.streamingTrack;
+      final TrackBox       tb             = track.trackBox;
+      final MediaHeaderBox mdhd           = Path.getPath(tb, "mdia[0]/mdhd[0]");
       mdhd.setCreationTime(creationTime);
       mdhd.setModificationTime(creationTime);
-      mdhd.setDuration(Objects.requireNonNull(nextSampleStartTime.get(streamingTrack)));
+      mdhd.setDuration(track.nextSampleStartTime);
       mdhd.setTimescale(streamingTrack.getTimescale());
       mdhd.setLanguage(streamingTrack.getLanguage());
+      writeSampleTables(track);
       movieBox.addBox(tb);
 
       final TrackHeaderBox tkhd     = Path.getPath(tb, "tkhd[0]");
-      final double         duration = (double) Objects.requireNonNull(nextSampleStartTime.get(streamingTrack)) / streamingTrack.getTimescale();
+      final double         duration = (double) track.nextSampleStartTime / streamingTrack.getTimescale();
       tkhd.setDuration((long) (mvhd.getTimescale() * duration));
     }
 
@@ -179,15 +151,39 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
     return movieBox;
   }
 
+  private void writeSampleTables(final @NonNull TrackState track) {
+    final SampleTableBox stbl = Objects.requireNonNull(Path.getPath(track.trackBox, "mdia[0]/minf[0]/stbl[0]"));
+    final ChunkOffsetBox stco = Objects.requireNonNull(Path.getPath(stbl, "stco[0]"));
+    final SampleSizeBox  stsz = Objects.requireNonNull(Path.getPath(stbl, "stsz[0]"));
+
+    stco.setChunkOffsets(Arrays.copyOf(track.chunkOffsets, track.chunkCount));
+    stsz.setSampleSizes(Arrays.copyOf(track.sampleSizes, track.sampleCount));
+
+    if (track.syncSampleCount > 0) {
+      final SyncSampleBox stss = new SyncSampleBox();
+      stss.setSampleNumber(Arrays.copyOf(track.syncSamples, track.syncSampleCount));
+      stbl.addBox(stss);
+    }
+  }
+
   private void sortTracks() {
-    Collections.sort(source, (o1, o2) -> {
+    Arrays.sort(tracks, (o1, o2) -> {
       // compare times and account for timestamps!
-      final long a = Objects.requireNonNull(nextChunkWriteStartTime.get(o1)) * o2.getTimescale();
-      final long b = Objects.requireNonNull(nextChunkWriteStartTime.get(o2)) * o1.getTimescale();
+      final long a = o1.nextChunkWriteStartTime * o2.streamingTrack.getTimescale();
+      final long b = o2.nextChunkWriteStartTime * o1.streamingTrack.getTimescale();
       return (int) Math.signum(a - b);
     });
   }
 
+  private @NonNull TrackState getTrackState(final @NonNull StreamingTrack streamingTrack) {
+    for (TrackState track : tracks) {
+      if (track.streamingTrack == streamingTrack) {
+        return track;
+      }
+    }
+    throw new MuxingException("Sample for unknown track " + streamingTrack);
+  }
+
   @Override
   protected MovieHeaderBox createMvhd() {
     final MovieHeaderBox mvhd = new MovieHeaderBox();
@@ -196,13 +192,14 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
     mvhd.setModificationTime(creationTime);
 
 
-    long[] timescales = new long[0];
-    long   maxTrackId = 0;
-    double duration   = 0;
-    for (StreamingTrack streamingTrack : source) {
-      duration   = Math.max((double) Objects.requireNonNull(nextSampleStartTime.get(streamingTrack)) / streamingTrack.getTimescale(), duration);
-      timescales = Mp4Arrays.copyOfAndAppend(timescales, streamingTrack.getTimescale());
-      maxTrackId = Math.max(streamingTrack.getTrackExtension(TrackIdTrackExtension.class).getTrackId(), maxTrackId);
+    final long[] timescales = new long[tracks.length];
+    long         maxTrackId = 0;
+    double       duration   = 0;
+    for (int i = 0; i < tracks.length; i++) {
+      final StreamingTrack streamingTrack = tracks[i].streamingTrack;
+      duration      = Math.max((double) tracks[i].nextSampleStartTime / streamingTrack.getTimescale(), duration);
+      timescales[i] = streamingTrack.getTimescale();
+      maxTrackId    = Math.max(streamingTrack.getTrackExtension(TrackIdTrackExtension.class).getTrackId(), maxTrackId);
     }
 
 
@@ -226,23 +223,18 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
    * sample will not be part of the chunk
    * will be added to the fragment buffer later.
    *
-   * @param streamingTrack track to test
-   * @param next           the lastest samples
+   * @param track track to test
    * @return true if a chunk is to b e created.
    */
-  private boolean isChunkReady(StreamingTrack streamingTrack, StreamingSample next) {
-    final long ts   = Objects.requireNonNull(nextSampleStartTime.get(streamingTrack));
-    final long cfst = Objects.requireNonNull(nextChunkCreateStartTime.get(streamingTrack));
-
-    return (ts >= cfst + 2 * streamingTrack.getTimescale());
+  private boolean isChunkReady(final @NonNull TrackState track) {
+    return (track.nextSampleStartTime >= track.nextChunkCreateStartTime + 2 * track.streamingTrack.getTimescale());
     // chunk interleave of 2 seconds
   }
 
   private void writeChunkContainer(ChunkContainer chunkContainer) throws IOException {
-    final TrackBox       tb   = trackBoxes.get(chunkContainer.streamingTrack);
-    final ChunkOffsetBox stco = Objects.requireNonNull(Path.getPath(tb, "mdia[0]/minf[0]/stbl[0]/stco[0]"));
-    stco.setChunkOffsets(Mp4Arrays.copyOfAndAppend(stco.getChunkOffsets(), bytesWritten + 8));
+    chunkContainer.track.addChunkOffset(bytesWritten + 8);
     write(sink, chunkContainer.mdat);
+    chunkContainer.mdat.release();
   }
 
   public void acceptSample(
@@ -250,57 +242,51 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
           final @NonNull StreamingTrack streamingTrack) throws IOException
   {
 
-    TrackBox tb = trackBoxes.get(streamingTrack);
-    if (tb == null) {
-      tb = new TrackBox();
-      tb.addBox(createTkhd(streamingTrack));
-      tb.addBox(createMdia(streamingTrack));
-      trackBoxes.put(streamingTrack, tb);
+    final TrackState track = getTrackState(streamingTrack);
+
+    if (track.trackBox == null) {
+      track.trackBox = new TrackBox();
+      track.trackBox.addBox(createTkhd(streamingTrack));
+      track.trackBox.addBox(createMdia(streamingTrack));
     }
 
-    if (isChunkReady(streamingTrack, streamingSample)) {
+    if (isChunkReady(track)) {
 
-      final ChunkContainer chunkContainer = createChunkContainer(streamingTrack);
+      final ChunkContainer chunkContainer = createChunkContainer(track);
       //System.err.println("Creating fragment for " + streamingTrack);
-      Objects.requireNonNull(sampleBuffers.get(streamingTrack)).clear();
-      nextChunkCreateStartTime.put(streamingTrack, Objects.requireNonNull(nextChunkCreateStartTime.get(streamingTrack)) + chunkContainer.duration);
-      final Queue<ChunkContainer> chunkQueue = Objects.requireNonNull(chunkBuffers.get(streamingTrack));
-      chunkQueue.add(chunkContainer);
-      if (source.get(0) == streamingTrack) {
-
-        Queue<ChunkContainer> tracksFragmentQueue;
-        StreamingTrack        currentStreamingTrack;
+      track.nextChunkCreateStartTime += chunkContainer.duration;
+      track.chunkBuffer.add(chunkContainer);
+      if (tracks[0] == track) {
+
+        TrackState currentTrack;
         // This will write AT LEAST the currently created fragment and possibly a few more
-        while (!(tracksFragmentQueue = chunkBuffers.get((currentStreamingTrack = this.source.get(0)))).isEmpty()) {
-          final ChunkContainer currentFragmentContainer = tracksFragmentQueue.remove();
+        while (!(currentTrack = tracks[0]).chunkBuffer.isEmpty()) {
+          final ChunkContainer currentFragmentContainer = currentTrack.chunkBuffer.remove();
           writeChunkContainer(currentFragmentContainer);
-          Log.d(TAG, "write chunk " + currentStreamingTrack.getHandler() + ". duration " + (double) currentFragmentContainer.duration / currentStreamingTrack.getTimescale());
-          final long ts = Objects.requireNonNull(nextChunkWriteStartTime.get(currentStreamingTrack)) + currentFragmentContainer.duration;
-          nextChunkWriteStartTime.put(currentStreamingTrack, ts);
-          Log.d(TAG, currentStreamingTrack.getHandler() + " track advanced to " + (double) ts / currentStreamingTrack.getTimescale());
+          Log.d(TAG, "write chunk " + currentTrack.streamingTrack.getHandler() + ". duration " + (double) currentFragmentContainer.duration / currentTrack.streamingTrack.getTimescale());
+          currentTrack.nextChunkWriteStartTime += currentFragmentContainer.duration;
+          Log.d(TAG, currentTrack.streamingTrack.getHandler() + " track advanced to " + (double) currentTrack.nextChunkWriteStartTime / currentTrack.streamingTrack.getTimescale());
           sortTracks();
         }
       } else {
-        Log.d(TAG, streamingTrack.getHandler() + " track delayed, queue size is " + chunkQueue.size());
+        Log.d(TAG, streamingTrack.getHandler() + " track delayed, queue size is " + track.chunkBuffer.size());
       }
     }
 
-    Objects.requireNonNull(sampleBuffers.get(streamingTrack)).add(streamingSample);
-    nextSampleStartTime.put(streamingTrack, Objects.requireNonNull(nextSampleStartTime.get(streamingTrack)) + streamingSample.getDuration());
+    track.sampleBuffer.add(streamingSample);
+    track.nextSampleStartTime += streamingSample.getDuration();
 
   }
 
-  private ChunkContainer createChunkContainer(final @NonNull StreamingTrack streamingTrack) {
+  private ChunkContainer createChunkContainer(final @NonNull TrackState track) {
 
-    final List<StreamingSample> samples     = Objects.requireNonNull(sampleBuffers.get(streamingTrack));
-    final long                  chunkNumber = Objects.requireNonNull(chunkNumbers.get(streamingTrack));
-    chunkNumbers.put(streamingTrack, chunkNumber + 1);
+    final List<StreamingSample> samples     = track.sampleBuffer;
+    final long                  chunkNumber = track.chunkNumber++;
     final ChunkContainer cc = new ChunkContainer();
-    cc.streamingTrack = streamingTrack;
-    cc.mdat           = new Mdat(samples);
-    cc.duration       = Objects.requireNonNull(nextSampleStartTime.get(streamingTrack)) - Objects.requireNonNull(nextChunkCreateStartTime.get(streamingTrack));
-    final TrackBox         tb   = trackBoxes.get(streamingTrack);
-    final SampleTableBox   stbl = Objects.requireNonNull(Path.getPath(tb, "mdia[0]/minf[0]/stbl[0]"));
+    cc.track    = track;
+    cc.mdat     = new Mdat(samples);
+    cc.duration = track.nextSampleStartTime - track.nextChunkCreateStartTime;
+    final SampleTableBox   stbl = Objects.requireNonNull(Path.getPath(track.trackBox, "mdia[0]/minf[0]/stbl[0]"));
     final SampleToChunkBox stsc = Objects.requireNonNull(Path.getPath(stbl, "stsc[0]"));
     if (stsc.getEntries().isEmpty()) {
       final List<SampleToChunkBox.Entry> entries = new ArrayList<>();
@@ -312,30 +298,11 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
         stsc.getEntries().add(new SampleToChunkBox.Entry(chunkNumber, samples.size(), 1));
       }
     }
-    long sampleNumber = Objects.requireNonNull(sampleNumbers.get(streamingTrack));
-
-    final SampleSizeBox     stsz = Objects.requireNonNull(Path.getPath(stbl, "stsz[0]"));
-    final TimeToSampleBox   stts = Objects.requireNonNull(Path.getPath(stbl, "stts[0]"));
-    SyncSampleBox           stss = Path.getPath(stbl, "stss[0]");
-    CompositionTimeToSample ctts = Path.getPath(stbl, "ctts[0]");
-    if (streamingTrack.getTrackExtension(CompositionTimeTrackExtension.class) != null) {
-      if (ctts == null) {
-        ctts = new CompositionTimeToSample();
-        ctts.setEntries(new ArrayList<>());
-
-        final ArrayList<Box> bs = new ArrayList<>(stbl.getBoxes());
-        bs.add(bs.indexOf(stts), ctts);
-      }
-    }
 
-    final long[] sampleSizes = new long[samples.size()];
-    int          i           = 0;
-    for (StreamingSample sample : samples) {
-      sampleSizes[i++] = sample.getContent().limit();
+    final TimeToSampleBox stts = Objects.requireNonNull(Path.getPath(stbl, "stts[0]"));
 
-      if (ctts != null) {
-        ctts.getEntries().add(new CompositionTimeToSample.Entry(1, l2i(sample.getSampleExtension(CompositionTimeSampleExtension.class).getCompositionTimeOffset())));
-      }
+    for (StreamingSample sample : samples) {
+      track.addSampleSize(sample.getContent().limit());
 
       if (stts.getEntries().isEmpty()) {
         final ArrayList<TimeToSampleBox.Entry> entries = new ArrayList<>(stts.getEntries());
@@ -351,20 +318,12 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
       }
       final SampleFlagsSampleExtension sampleFlagsSampleExtension = sample.getSampleExtension(SampleFlagsSampleExtension.class);
       if (sampleFlagsSampleExtension != null && sampleFlagsSampleExtension.isSyncSample()) {
-        if (stss == null) {
-          stss = new SyncSampleBox();
-          stbl.addBox(stss);
-        }
-        stss.setSampleNumber(Mp4Arrays.copyOfAndAppend(stss.getSampleNumber(), sampleNumber));
+        track.addSyncSample(track.sampleCount);
       }
-      sampleNumber++;
-
     }
-    stsz.setSampleSizes(Mp4Arrays.copyOfAndAppend(stsz.getSampleSizes(), sampleSizes));
 
-    sampleNumbers.put(streamingTrack, sampleNumber);
     samples.clear();
-    Log.d(TAG, "chunk container created for " + streamingTrack.getHandler() + ". mdat size: " + cc.mdat.size + ". chunk duration is " + (double) cc.duration / streamingTrack.getTimescale());
+    Log.d(TAG, "chunk container created for " + track.streamingTrack.getHandler() + ". mdat size: " + cc.mdat.size + ". chunk duration is " + (double) cc.duration / track.streamingTrack.getTimescale());
     return cc;
   }
 
@@ -378,6 +337,69 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
     return mdhd;
   }
 
+  private static final class TrackState {
+    final StreamingTrack              streamingTrack;
+    /**
+     * Buffers the samples until there are enough samples to form a chunk.
+     */
+    final List<StreamingSample>       sampleBuffer = new ArrayList<>();
+    /**
+     * Buffers chunks until it's time for a chunk to be written.
+     */
+    final ArrayDeque<ChunkContainer> chunkBuffer  = new ArrayDeque<>();
+
+    TrackBox trackBox;
+
+    /**
+     * The start time of the next chunk in line that will be created.
+     */
+    long nextChunkCreateStartTime;
+    /**
+     * The start time of the next chunk in line that will be written.
+     */
+    long nextChunkWriteStartTime;
+    /**
+     * The next sample's start time.
+     */
+    long nextSampleStartTime;
+    long chunkNumber = 1;
+
+    long[] sampleSizes  = new long[1024];
+    int    sampleCount;
+    long[] chunkOffsets = new long[64];
+    int    chunkCount;
+    long[] syncSamples  = new long[64];
+    int    syncSampleCount;
+
+    TrackState(final @NonNull StreamingTrack streamingTrack) {
+      this.streamingTrack = streamingTrack;
+    }
+
+    void addSampleSize(long size) {
+      if (sampleCount == sampleSizes.length) {
+        sampleSizes = Arrays.copyOf(sampleSizes, sampleCount * 2);
+      }
+      sampleSizes[sampleCount++] = size;
+    }
+
+    void addChunkOffset(long offset) {
+      if (chunkCount == chunkOffsets.length) {
+        chunkOffsets = Arrays.copyOf(chunkOffsets, chunkCount * 2);
+      }
+      chunkOffsets[chunkCount++] = offset;
+    }
+
+    /**
+     * @param sampleNumber 1-based, as in the stss box.
+     */
+    void addSyncSample(long sampleNumber) {
+      if (syncSampleCount == syncSamples.length) {
+        syncSamples = Arrays.copyOf(syncSamples, syncSampleCount * 2);
+      }
+      syncSamples[syncSampleCount++] = sampleNumber;
+    }
+  }
+
   private class Mdat implements Box {
     final ArrayList<StreamingSample> samples;
     long size;
@@ -400,25 +422,52 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
       return size;
     }
 
+    /**
+     * Writes the header and all samples with a single gathering write where the channel supports it, instead of one write per sample.
+     */
     @Override
     public void getBox(WritableByteChannel writableByteChannel) throws IOException {
-      writableByteChannel.write(ByteBuffer.wrap(new byte[]{
+      final ByteBuffer[] buffers = new ByteBuffer[samples.size() + 1];
+
+      buffers[0] = ByteBuffer.wrap(new byte[]{
               (byte) ((size & 0xff000000) >> 24),
               (byte) ((size & 0xff0000) >> 16),
               (byte) ((size & 0xff00) >> 8),
               (byte) ((size & 0xff)),
               109, 100, 97, 116, // mdat
 
-      }));
+      });
+      for (int i = 0; i < samples.size(); i++) {
+        buffers[i + 1] = (ByteBuffer) samples.get(i).getContent().rewind();
+      }
+
+      if (writableByteChannel instanceof GatheringByteChannel) {
+        final GatheringByteChannel gatheringByteChannel = (GatheringByteChannel) writableByteChannel;
+
+        long remaining = size;
+        while (remaining > 0) {
+          remaining -= gatheringByteChannel.write(buffers);
+        }
+      } else {
+        for (ByteBuffer buffer : buffers) {
+          writableByteChannel.write(buffer);
+        }
+      }
+    }
+
+    void release() {
       for (StreamingSample sample : samples) {
-        writableByteChannel.write((ByteBuffer) sample.getContent().rewind());
+        if (sample instanceof PooledSample) {
+          ((PooledSample) sample).release();
+        }
       }
+      samples.clear();
     }
   }
 
-  private class ChunkContainer {
-    Mdat           mdat;
-    StreamingTrack streamingTrack;
-    long           duration;
+  private static class ChunkContainer {
+    Mdat       mdat;
+    TrackState track;
+    long       duration;
   }
 }
@@ -0,0 +1,83 @@
+package org.thoughtcrime.securesms.video.videoconverter.muxer;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * A {@link GatheringByteChannel} over an {@link OutputStream}, so that {@link Mp4Writer} can hand a whole chunk to the stream in one call when muxing
+ * into a stream rather than a file.
+ * <p>
+ * Unlike {@link java.nio.channels.Channels#newChannel(OutputStream)}, which copies direct buffers out in 8 KiB pieces and takes a lock for every write,
+ * heap buffers are written straight from their backing arrays, and direct buffers, which is what the pooled samples are, are copied through one reused
+ * scratch array sized for a typical video sample.
+ */
+final class OutputStreamChannel implements GatheringByteChannel {
+
+  private static final int SCRATCH_SIZE = 64 * 1024;
+
+  private final OutputStream outputStream;
+  private final byte[]       scratch = new byte[SCRATCH_SIZE];
+  private       boolean      open    = true;
+
+  OutputStreamChannel(@NonNull OutputStream outputStream) {
+    this.outputStream = outputStream;
+  }
+
+  @Override
+  public int write(@NonNull ByteBuffer src) throws IOException {
+    ensureOpen();
+
+    final int length = src.remaining();
+
+    if (src.hasArray()) {
+      outputStream.write(src.array(), src.arrayOffset() + src.position(), length);
+      src.position(src.limit());
+    } else {
+      while (src.hasRemaining()) {
+        final int count = Math.min(src.remaining(), scratch.length);
+        src.get(scratch, 0, count);
+        outputStream.write(scratch, 0, count);
+      }
+    }
+
+    return length;
+  }
+
+  @Override
+  public long write(@NonNull ByteBuffer[] srcs, int offset, int length) throws IOException {
+    long written = 0;
+    for (int i = offset; i < offset + length; i++) {
+      written += write(srcs[i]);
+    }
+    return written;
+  }
+
+  @Override
+  public long write(@NonNull ByteBuffer[] srcs) throws IOException {
+    return write(srcs, 0, srcs.length);
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (open) {
+      open = false;
+      outputStream.close();
+    }
+  }
+
+  private void ensureOpen() throws ClosedChannelException {
+    if (!open) {
+      throw new ClosedChannelException();
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package org.thoughtcrime.securesms.video.videoconverter.muxer;
+
+import androidx.annotation.NonNull;
+
+import org.mp4parser.streaming.input.StreamingSampleImpl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A sample whose content lives in a buffer from a {@link SampleBufferPool}. {@link Mp4Writer} releases it once the sample has been written.
+ */
+final class PooledSample extends StreamingSampleImpl {
+
+  private final SampleBufferPool pool;
+
+  private ByteBuffer buffer;
+
+  /**
+   * @param buffer A flipped buffer from {@param pool}, holding exactly the sample.
+   */
+  PooledSample(@NonNull ByteBuffer buffer, long duration, @NonNull SampleBufferPool pool) {
+    super(buffer, duration);
+    this.buffer = buffer;
+    this.pool   = pool;
+  }
+
+  void release() {
+    if (buffer != null) {
+      pool.release(buffer);
+      buffer = null;
+    }
+  }
+}
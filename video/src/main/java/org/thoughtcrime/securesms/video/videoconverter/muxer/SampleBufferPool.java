@@ -0,0 +1,81 @@
+package org.thoughtcrime.securesms.video.videoconverter.muxer;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Direct buffers that encoded samples are copied into when they leave the encoder, and that are handed back once the chunk holding the sample has been
+ * written. Buffers come in power of two sizes, so after the first few chunks every sample reuses a buffer rather than allocating a new one.
+ * <p>
+ * Not thread safe, a pool belongs to a single muxer.
+ */
+final class SampleBufferPool {
+
+  private static final int MIN_SIZE_SHIFT      = 10;
+  private static final int MAX_SIZE_SHIFT      = 30;
+  private static final int MAX_POOLED_PER_SIZE = 256;
+
+  private final ArrayDeque<ByteBuffer>[] free;
+
+  private long allocationCount;
+
+  @SuppressWarnings("unchecked")
+  SampleBufferPool() {
+    free = new ArrayDeque[MAX_SIZE_SHIFT + 1];
+  }
+
+  /**
+   * @return A cleared buffer with room for at least {@param size} bytes.
+   */
+  @NonNull ByteBuffer acquire(int size) {
+    final int                    sizeShift = sizeShift(size);
+    final ArrayDeque<ByteBuffer> buffers   = free[sizeShift];
+    ByteBuffer                   buffer    = buffers != null ? buffers.pollLast() : null;
+
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(1 << sizeShift);
+      allocationCount++;
+    }
+
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Hands a buffer from {@link #acquire(int)} back. The caller must not use it afterwards.
+   */
+  void release(@NonNull ByteBuffer buffer) {
+    final int sizeShift = Integer.numberOfTrailingZeros(buffer.capacity());
+
+    if (free[sizeShift] == null) {
+      free[sizeShift] = new ArrayDeque<>();
+    }
+
+    if (free[sizeShift].size() < MAX_POOLED_PER_SIZE) {
+      free[sizeShift].addLast(buffer);
+    }
+  }
+
+  /**
+   * @return How many buffers the pool has had to allocate so far.
+   */
+  long getAllocationCount() {
+    return allocationCount;
+  }
+
+  private static int sizeShift(int size) {
+    if (size <= 1 << MIN_SIZE_SHIFT) {
+      return MIN_SIZE_SHIFT;
+    }
+
+    final int sizeShift = 32 - Integer.numberOfLeadingZeros(size - 1);
+
+    if (sizeShift > MAX_SIZE_SHIFT) {
+      throw new MuxingException("Sample too large: " + size);
+    }
+
+    return sizeShift;
+  }
+}
@@ -11,18 +11,30 @@ import org.thoughtcrime.securesms.video.videoconverter.Muxer;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
 
 public final class StreamingMuxer implements Muxer {
 
-  private final OutputStream          outputStream;
+  private final WritableByteChannel   output;
   private final List<MediaCodecTrack> tracks = new ArrayList<>();
+  private final SampleBufferPool      pool   = new SampleBufferPool();
   private       Mp4Writer             mp4Writer;
 
+  /**
+   * The stream is wrapped in an {@link OutputStreamChannel}, so each chunk is still handed over in a single gathering write.
+   */
   public StreamingMuxer(OutputStream outputStream) {
-    this.outputStream = outputStream;
+    this(new OutputStreamChannel(outputStream));
+  }
+
+  /**
+   * @param output When this is a {@link java.nio.channels.GatheringByteChannel}, such as a {@link java.nio.channels.FileChannel}, each chunk is written with a
+   *               single gathering write instead of one write per sample.
+   */
+  public StreamingMuxer(WritableByteChannel output) {
+    this.output = output;
   }
 
   @Override
@@ -31,7 +43,7 @@ public final class StreamingMuxer implements Muxer {
     for (MediaCodecTrack track : tracks) {
       source.add((StreamingTrack) track);
     }
-    mp4Writer = new Mp4Writer(source, Channels.newChannel(outputStream));
+    mp4Writer = new Mp4Writer(source, output);
   }
 
   @Override
@@ -52,10 +64,10 @@ public final class StreamingMuxer implements Muxer {
     final String mime = format.getString(MediaFormat.KEY_MIME);
     switch (mime) {
       case "video/avc":
-        tracks.add(new MediaCodecAvcTrack(format));
+        tracks.add(new MediaCodecAvcTrack(format, pool));
         break;
       case "audio/mp4a-latm":
-        tracks.add(new MediaCodecAacTrack(format));
+        tracks.add(new MediaCodecAacTrack(format, pool));
         break;
       case "video/hevc":
         tracks.add(new MediaCodecHevcTrack(format));
@@ -83,15 +95,15 @@ public final class StreamingMuxer implements Muxer {
 
   static class MediaCodecAvcTrack extends AvcTrack implements MediaCodecTrack {
 
-    MediaCodecAvcTrack(@NonNull MediaFormat format) {
-      super(Utils.subBuffer(format.getByteBuffer("csd-0"), 4), Utils.subBuffer(format.getByteBuffer("csd-1"), 4));
+    MediaCodecAvcTrack(@NonNull MediaFormat format, @NonNull SampleBufferPool pool) {
+      super(Utils.subBuffer(format.getByteBuffer("csd-0"), 4), Utils.subBuffer(format.getByteBuffer("csd-1"), 4), pool);
     }
 
     @Override
     public void writeSampleData(@NonNull ByteBuffer byteBuf, @NonNull MediaCodec.BufferInfo bufferInfo) throws IOException {
       final List<ByteBuffer> nals = H264Utils.getNals(byteBuf);
       for (ByteBuffer nal : nals) {
-        consumeNal(Utils.clone(nal), bufferInfo.presentationTimeUs);
+        consumeNal(nal, bufferInfo.presentationTimeUs);
       }
     }
 
@@ -123,18 +135,18 @@ public final class StreamingMuxer implements Muxer {
 
   static class MediaCodecAacTrack extends AacTrack implements MediaCodecTrack {
 
-    MediaCodecAacTrack(@NonNull MediaFormat format) {
+    MediaCodecAacTrack(@NonNull MediaFormat format, @NonNull SampleBufferPool pool) {
       super(format.getInteger(MediaFormat.KEY_BIT_RATE), format.getInteger(MediaFormat.KEY_BIT_RATE),
             format.getInteger(MediaFormat.KEY_SAMPLE_RATE), format.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
-            format.getInteger(MediaFormat.KEY_AAC_PROFILE));
+            format.getInteger(MediaFormat.KEY_AAC_PROFILE), pool);
     }
 
     @Override
     public void writeSampleData(@NonNull ByteBuffer byteBuf, @NonNull MediaCodec.BufferInfo bufferInfo) throws IOException {
-      final byte[] buffer = new byte[bufferInfo.size];
-      byteBuf.position(bufferInfo.offset);
-      byteBuf.get(buffer, 0, bufferInfo.size);
-      processSample(ByteBuffer.wrap(buffer));
+      final ByteBuffer frame = byteBuf.duplicate();
+      frame.limit(bufferInfo.offset + bufferInfo.size);
+      frame.position(bufferInfo.offset);
+      processSample(frame);
     }
 
     @Override
@@ -0,0 +1,210 @@
+package org.thoughtcrime.securesms.video.videoconverter.muxer;
+
+import androidx.annotation.NonNull;
+
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.mp4parser.boxes.iso14496.part12.SampleDescriptionBox;
+import org.mp4parser.boxes.sampleentry.AudioSampleEntry;
+import org.mp4parser.boxes.sampleentry.SampleEntry;
+import org.mp4parser.boxes.sampleentry.VisualSampleEntry;
+import org.mp4parser.streaming.StreamingSample;
+import org.mp4parser.streaming.StreamingTrack;
+import org.mp4parser.streaming.extensions.SampleFlagsSampleExtension;
+import org.mp4parser.streaming.input.AbstractStreamingTrack;
+import org.mp4parser.streaming.input.StreamingSampleImpl;
+import org.signal.core.util.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class Mp4WriterTest {
+
+  private static final int VIDEO_TIMESCALE   = 90_000;
+  private static final int VIDEO_FPS         = 30;
+  private static final int KEY_FRAME_EVERY   = 30;
+  private static final int KEY_FRAME_SIZE    = 60 * 1024;
+  private static final int VIDEO_FRAME_SIZE  = 8 * 1024;
+  private static final int AUDIO_SAMPLE_RATE = 44_100;
+  private static final int AUDIO_FRAME_SIZE  = 372;
+
+  @BeforeClass
+  public static void setUpClass() {
+    Log.initialize();
+  }
+
+  @Test
+  public void pooledSamples_areReusedOnceTheirChunkIsWritten() throws IOException {
+    SampleBufferPool pool   = new SampleBufferPool();
+    File             output = File.createTempFile("mp4writer", ".mp4");
+
+    try {
+      Result result = mux(pool, output, 60, true);
+
+      assertTrue("Allocated " + pool.getAllocationCount() + " buffers for " + result.frames + " frames",
+                 pool.getAllocationCount() < result.frames / 4);
+      assertEquals(result.bytesOut, output.length());
+      assertTrue(output.length() > result.sampleBytes);
+    } finally {
+      output.delete();
+    }
+  }
+
+  @Ignore("Ignore test in normal testing as it's a performance test with no meaningful assertions")
+  @Test
+  public void benchmark_mux() throws IOException {
+    File output = File.createTempFile("mp4writer", ".mp4");
+
+    try {
+      mux(new SampleBufferPool(), output, 60, false);
+      mux(new SampleBufferPool(), output, 60, true);
+
+      for (boolean pooled : new boolean[] { false, true }) {
+        SampleBufferPool pool   = new SampleBufferPool();
+        long             start  = System.nanoTime();
+        Result           result = mux(pool, output, 600, pooled);
+        long             nanos  = System.nanoTime() - start;
+
+        String allocations = pooled ? pool.getAllocationCount() + " pooled buffers allocated in total"
+                                    : result.copiedBytes / result.frames + " bytes allocated/frame";
+
+        System.out.println("[Mp4Writer] " + (pooled ? "pooled" : "copied") + ": " +
+                           result.frames + " frames in " + nanos / 1_000_000 + "ms, " +
+                           nanos / result.frames + "ns/frame, " +
+                           allocations);
+      }
+    } finally {
+      output.delete();
+    }
+  }
+
+  /**
+   * Muxes synthetic H.264 and AAC samples into {@param output}, copying each one out of a reused "encoder" buffer the way {@link StreamingMuxer} does,
+   * either into a pooled buffer or, like the muxer used to, into a newly allocated array.
+   */
+  private static @NonNull Result mux(@NonNull SampleBufferPool pool, @NonNull File output, int seconds, boolean pooled) throws IOException {
+    Random     random  = new Random(seconds);
+    ByteBuffer encoder = ByteBuffer.allocateDirect(KEY_FRAME_SIZE);
+    Result     result  = new Result();
+
+    byte[] noise = new byte[KEY_FRAME_SIZE];
+    random.nextBytes(noise);
+    encoder.put(noise).flip();
+
+    FakeTrack video = new FakeTrack(VIDEO_TIMESCALE, "vide", new VisualSampleEntry("avc1"));
+    FakeTrack audio = new FakeTrack(AUDIO_SAMPLE_RATE, "soun", new AudioSampleEntry("mp4a"));
+
+    try (RandomAccessFile file = new RandomAccessFile(output, "rw"); FileChannel channel = file.getChannel()) {
+      channel.truncate(0);
+
+      Mp4Writer writer = new Mp4Writer(Arrays.<StreamingTrack>asList(video, audio), channel);
+
+      long videoFrames = (long) seconds * VIDEO_FPS;
+      long audioFrame  = 0;
+
+      for (long videoFrame = 0; videoFrame < videoFrames; videoFrame++) {
+        boolean keyFrame = videoFrame % KEY_FRAME_EVERY == 0;
+        int     size     = keyFrame ? KEY_FRAME_SIZE : VIDEO_FRAME_SIZE - random.nextInt(VIDEO_FRAME_SIZE / 2);
+
+        StreamingSample sample = copy(pool, encoder, size, VIDEO_TIMESCALE / VIDEO_FPS, pooled, result);
+
+        SampleFlagsSampleExtension flags = new SampleFlagsSampleExtension();
+        flags.setSampleIsNonSyncSample(!keyFrame);
+        sample.addSampleExtension(flags);
+
+        writer.acceptSample(sample, video);
+
+        while (audioFrame * 1024L * VIDEO_FPS < (videoFrame + 1) * AUDIO_SAMPLE_RATE) {
+          writer.acceptSample(copy(pool, encoder, AUDIO_FRAME_SIZE, 1024, pooled, result), audio);
+          audioFrame++;
+        }
+      }
+
+      writer.close();
+
+      result.frames   = videoFrames + audioFrame;
+      result.bytesOut = channel.size();
+    }
+
+    return result;
+  }
+
+  private static @NonNull StreamingSample copy(@NonNull SampleBufferPool pool,
+                                               @NonNull ByteBuffer encoder,
+                                               int size,
+                                               long duration,
+                                               boolean pooled,
+                                               @NonNull Result result)
+  {
+    ByteBuffer frame = encoder.duplicate();
+    frame.limit(size);
+
+    result.sampleBytes += size;
+
+    if (pooled) {
+      ByteBuffer content = pool.acquire(size);
+      content.put(frame);
+      content.flip();
+      return new PooledSample(content, duration, pool);
+    } else {
+      byte[] content = new byte[size];
+      frame.get(content);
+      result.copiedBytes += size;
+      return new StreamingSampleImpl(ByteBuffer.wrap(content), duration);
+    }
+  }
+
+  private static final class Result {
+    long frames;
+    long sampleBytes;
+    long copiedBytes;
+    long bytesOut;
+  }
+
+  private static final class FakeTrack extends AbstractStreamingTrack {
+
+    private final long                 timescale;
+    private final String               handler;
+    private final SampleDescriptionBox stsd;
+
+    FakeTrack(long timescale, @NonNull String handler, @NonNull SampleEntry sampleEntry) {
+      this.timescale = timescale;
+      this.handler   = handler;
+      this.stsd      = new SampleDescriptionBox();
+      this.stsd.addBox(sampleEntry);
+    }
+
+    @Override
+    public long getTimescale() {
+      return timescale;
+    }
+
+    @Override
+    public String getHandler() {
+      return handler;
+    }
+
+    @Override
+    public String getLanguage() {
+      return "```";
+    }
+
+    @Override
+    public SampleDescriptionBox getSampleDescriptionBox() {
+      return stsd;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package org.thoughtcrime.securesms.video.videoconverter.muxer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public final class OutputStreamChannelTest {
+
+  @Test
+  public void gatheringWrite_writesHeapAndDirectBuffersInOrder() throws IOException {
+    byte[] header = { 1, 2, 3, 4 };
+    byte[] large  = new byte[200 * 1024];
+    byte[] small  = { 5, 6, 7 };
+
+    new Random(1).nextBytes(large);
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(large.length);
+    direct.put(large).flip();
+
+    ByteBuffer slice = ByteBuffer.wrap(new byte[] { 0, 5, 6, 7, 0 });
+    slice.position(1).limit(4);
+
+    ByteArrayOutputStream out     = new ByteArrayOutputStream();
+    OutputStreamChannel   channel = new OutputStreamChannel(out);
+
+    long written = channel.write(new ByteBuffer[] { ByteBuffer.wrap(header), direct, slice });
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write(header);
+    expected.write(large);
+    expected.write(small);
+
+    assertEquals(expected.size(), written);
+    assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    assertFalse(direct.hasRemaining());
+    assertFalse(slice.hasRemaining());
+  }
+
+  @Test(expected = ClosedChannelException.class)
+  public void write_afterClose_throws() throws IOException {
+    OutputStreamChannel channel = new OutputStreamChannel(new ByteArrayOutputStream());
+
+    channel.close();
+    channel.write(ByteBuffer.wrap(new byte[1]));
+  }
+}